@@ -29,15 +29,14 @@
 package org.opennms.netmgt.jmx.impl;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.StringTokenizer;
 
 import javax.management.Attribute;
@@ -45,7 +44,6 @@ import javax.management.AttributeList;
 import javax.management.InstanceNotFoundException;
 import javax.management.JMException;
 import javax.management.MBeanServerConnection;
-import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
 import javax.management.openmbean.CompositeData;
@@ -65,7 +63,7 @@ import org.opennms.netmgt.jmx.JmxSampleProcessor;
 import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
-import org.opennms.netmgt.jmx.impl.connection.connectors.DefaultConnectionManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionManager;
 import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
 import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
 import org.slf4j.Logger;
@@ -74,6 +72,10 @@ import org.slf4j.LoggerFactory;
 /**
  * A implementation of the JmxCollector.
  * It iterates over all configured MBeans, collects either attributes or composite members and creates a sample accordingly.
+ * <p/>
+ * The connections are borrowed from the {@link org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool}
+ * and the MBean names are resolved through the {@link ObjectNameCache}, so that neither
+ * has to be repeated on every collection.
  *
  * @see org.opennms.netmgt.jmx.JmxCollector
  */
@@ -83,6 +85,8 @@ public class DefaultJmxCollector implements JmxCollector {
 
     protected JmxConfigDao m_jmxConfigDao = null;
 
+    private ObjectNameCache m_objectNameCache = ObjectNameCache.getInstance();
+
     @Override
     public void collect(JmxCollectorConfig config, JmxSampleProcessor sampleProcessor) throws JmxServerConnectionException {
         if (m_jmxConfigDao == null) {
@@ -98,17 +102,19 @@ public class DefaultJmxCollector implements JmxCollector {
             }
         }
 
-        JmxConnectionManager connectionManager = new DefaultConnectionManager(config.getRetries());
-        try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), InetAddressUtils.addr(config.getAgentAddress()), mergedStringMap, null)) {
+        JmxConnectionManager connectionManager = new PooledConnectionManager(config.getRetries());
+        final InetAddress ipAddress = InetAddressUtils.addr(config.getAgentAddress());
+        try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), ipAddress, mergedStringMap, null)) {
             Objects.requireNonNull(connectionWrapper, "connectionWrapper should never be null");
             Objects.requireNonNull(connectionWrapper.getMBeanServerConnection(), "connectionWrapper.getMBeanServerConnection() should never be null");
 
             final MBeanServerConnection concreteConnection = connectionWrapper.getMBeanServerConnection();
-            collect(concreteConnection, config.getJmxCollection(), sampleProcessor);
+            final String agent = ObjectNameCache.getAgent(config.getConnectionName(), ipAddress, mergedStringMap);
+            collect(agent, concreteConnection, config.getJmxCollection(), sampleProcessor);
         }
     }
 
-    private void collect(MBeanServerConnection concreteConnection, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
+    private void collect(String agent, MBeanServerConnection concreteConnection, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
         if (jmxCollection == null || jmxCollection.getMbeanCount() < 1) {
             logger.info("No MBeans to collect.");
             return;
@@ -118,14 +124,25 @@ public class DefaultJmxCollector implements JmxCollector {
             for (Mbean eachMbean : jmxCollection.getMbeans()) {
                 logger.debug("Collecting MBean (objectname={}, wildcard={})", eachMbean.getObjectname(), isWildcard(eachMbean.getObjectname()));
 
-                final Collection<ObjectName> objectNames = getObjectNames(concreteConnection, eachMbean.getObjectname());
+                final Collection<ObjectName> objectNames = m_objectNameCache.resolve(agent, concreteConnection, eachMbean.getObjectname());
+                if (objectNames.isEmpty()) {
+                    logger.debug("ObjectName {} is not registered.", eachMbean.getObjectname());
+                }
                 for (ObjectName eachObjectName : objectNames) {
                     logger.debug("Collecting ObjectName {}", eachObjectName);
 
-                    boolean collect = canBeCollected(concreteConnection, eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
+                    boolean collect = canBeCollected(eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
                     if (collect) {
                         List<String> attributeNames = extractAttributeNames(eachMbean);
-                        List<Attribute> attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
+                        final List<Attribute> attributes;
+                        try {
+                            attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
+                        } catch (InstanceNotFoundException e) {
+                            // The MBean was unregistered since the names were resolved
+                            logger.debug("ObjectName {} is no longer registered.", eachObjectName);
+                            m_objectNameCache.invalidate(agent);
+                            continue;
+                        }
 
                         for (Attribute eachAttribute : attributes) {
                             if (eachAttribute.getValue() instanceof CompositeData) {
@@ -154,21 +171,16 @@ public class DefaultJmxCollector implements JmxCollector {
     }
 
     /**
-     * Checks if a given objectName can be collected.
-     * It cannot be collected if it is excluded or not registered, otherwise it can be collected.
+     * Checks if a given (registered) objectName can be collected.
+     * It cannot be collected if it is excluded, otherwise it can be collected.
      *
      * @return if it can be collected.
-     * @throws IOException If an error while communicating with the MBeanServer occurs.
      */
-    private boolean canBeCollected(MBeanServerConnection connection, ObjectName objectName, String keyField, String excludeList) throws IOException {
+    private boolean canBeCollected(ObjectName objectName, String keyField, String excludeList) {
         if (isExcluded(objectName, keyField, excludeList)) {
             logger.debug("ObjectName {} with key {} is in excludeList {}.", objectName, keyField, excludeList);
             return false;
         }
-        if (!connection.isRegistered(objectName)) {
-            logger.debug("ObjectName {} is not registered.", objectName);
-            return false;
-        }
         return true;
     }
 
@@ -271,35 +283,20 @@ public class DefaultJmxCollector implements JmxCollector {
     }
 
     /**
-     * Returns an unmodifiable set of <code>ObjectName</code>s according to the given <code>objectName</code>.
+     * Method for setting the config dao to use. Required for the tests to work properly.
      *
-     * @param objectName The objectName to query the server with. May contain wildcards.
-     *                   See {@link javax.management.MBeanServer#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)} for details.
-     * @return an unmodifiable set of <code>ObjectName</code>s according to the given <code>objectName</code>.
-     * @throws MalformedObjectNameException
-     * @throws IOException
+     * @param jmxConfigDao the dao instance
      */
-    private Set<ObjectName> getObjectNames(MBeanServerConnection mbeanServer, String objectName) throws MalformedObjectNameException, IOException {
-        Set<ObjectName> objectNames = new HashSet<>();
-
-        // if we have a wildcard in the object Name, we have to query the server for
-        // all object names matching that expression
-        if (isWildcard(objectName)) {
-            Set<ObjectName> retrievedObjectNames = mbeanServer.queryNames(new ObjectName(objectName), null);
-            objectNames.addAll(retrievedObjectNames);
-        } else {
-            // we do not have a wildcard
-            objectNames.add(new ObjectName(objectName));
-        }
-        return Collections.unmodifiableSet(objectNames);
+    public void setJmxConfigDao(JmxConfigDao jmxConfigDao) {
+        this.m_jmxConfigDao = jmxConfigDao;
     }
 
     /**
-     * Method for setting the config dao to use. Required for the tests to work properly.
+     * Method for setting the cache of resolved MBean names, the shared cache is used by default.
      *
-     * @param jmxConfigDao the dao instance
+     * @param objectNameCache the cache instance
      */
-    public void setJmxConfigDao(JmxConfigDao jmxConfigDao) {
-        this.m_jmxConfigDao = jmxConfigDao;
+    public void setObjectNameCache(ObjectNameCache objectNameCache) {
+        this.m_objectNameCache = objectNameCache;
     }
 }
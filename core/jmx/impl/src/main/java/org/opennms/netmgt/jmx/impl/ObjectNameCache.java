@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+
+/**
+ * Remembers which registered <code>ObjectName</code>s the configured MBean
+ * names resolved to on each agent, so that the agents are only queried with
+ * <code>queryNames</code> and <code>isRegistered</code> once per refresh
+ * interval instead of on every collection.
+ * <p/>
+ * Names that did not resolve to any registered MBean are not cached, so
+ * MBeans that are registered later are collected as soon as they appear.
+ * MBeans that are registered after a pattern already resolved to other names
+ * are only collected once the pattern is resolved again. The resolved names
+ * of an agent should be invalidated as soon as one of them turns out to be
+ * no longer registered, and whenever a new connection to the agent is
+ * established, since the agent may have been restarted.
+ */
+public class ObjectNameCache {
+
+    public static final String REFRESH_INTERVAL_PROPERTY = "org.opennms.netmgt.jmx.objectNameRefreshInterval";
+
+    private static final ObjectNameCache INSTANCE = new ObjectNameCache(Long.getLong(REFRESH_INTERVAL_PROPERTY, TimeUnit.MINUTES.toMillis(10)));
+
+    private final long m_refreshInterval;
+
+    private final ConcurrentMap<Key, Resolution> m_resolutions = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_lastPruned = new AtomicLong(System.nanoTime());
+
+    private final LongAdder m_hits = new LongAdder();
+
+    private final LongAdder m_misses = new LongAdder();
+
+    /**
+     * @param refreshInterval the time in milliseconds after which the names are resolved again, 0 disables the cache
+     */
+    public ObjectNameCache(long refreshInterval) {
+        m_refreshInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, refreshInterval));
+    }
+
+    /**
+     * @return the cache that is shared by all of the JMX collectors
+     */
+    public static ObjectNameCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the key under which the names resolved on the given agent are
+     * cached.
+     *
+     * @param connectorName the connector used to connect to the agent
+     * @param ipAddress the address of the agent
+     * @param properties the properties used to connect to the agent
+     */
+    public static String getAgent(JmxConnectors connectorName, InetAddress ipAddress, Map<String, String> properties) {
+        return connectorName + "/" + InetAddressUtils.str(ipAddress) + "/" + (properties == null ? null : properties.get("port"));
+    }
+
+    /**
+     * Returns an unmodifiable set of the registered <code>ObjectName</code>s
+     * that match the given <code>objectName</code> on the given agent.
+     *
+     * @param agent identifies the agent the connection belongs to
+     * @param connection the connection that is used to resolve the name if it is not cached
+     * @param objectName the objectName to query the server with. May contain wildcards.
+     *                   See {@link javax.management.MBeanServer#queryNames(javax.management.ObjectName, javax.management.QueryExp)} for details.
+     */
+    public Set<ObjectName> resolve(String agent, MBeanServerConnection connection, String objectName) throws MalformedObjectNameException, IOException {
+        final Key key = new Key(agent, objectName);
+        final long now = System.nanoTime();
+        final Resolution resolution = m_resolutions.get(key);
+        if (resolution != null && now - resolution.m_resolvedAt < m_refreshInterval) {
+            m_hits.increment();
+            return resolution.m_objectNames;
+        }
+        m_misses.increment();
+
+        final Set<ObjectName> objectNames = new HashSet<>();
+        final ObjectName name = new ObjectName(objectName);
+        if (name.isPattern()) {
+            objectNames.addAll(connection.queryNames(name, null));
+        } else if (connection.isRegistered(name)) {
+            objectNames.add(name);
+        }
+        final Set<ObjectName> resolved = Collections.unmodifiableSet(objectNames);
+
+        if (resolved.isEmpty()) {
+            // Resolve the name again on the next collection, it may be registered by then
+            m_resolutions.remove(key);
+        } else if (m_refreshInterval > 0) {
+            m_resolutions.put(key, new Resolution(resolved, now));
+            prune(now);
+        }
+        return resolved;
+    }
+
+    /**
+     * Forgets all of the names that were resolved on the given agent.
+     */
+    public void invalidate(String agent) {
+        m_resolutions.keySet().removeIf(key -> key.m_agent.equals(agent));
+    }
+
+    /**
+     * Drops the expired resolutions of agents that are no longer collected,
+     * at most once per refresh interval.
+     */
+    private void prune(long now) {
+        final long lastPruned = m_lastPruned.get();
+        if (now - lastPruned >= m_refreshInterval && m_lastPruned.compareAndSet(lastPruned, now)) {
+            m_resolutions.values().removeIf(resolution -> now - resolution.m_resolvedAt >= m_refreshInterval);
+        }
+    }
+
+    /**
+     * @return the number of names that were resolved without querying the agent
+     */
+    public long getHits() {
+        return m_hits.sum();
+    }
+
+    /**
+     * @return the number of names that were resolved by querying the agent
+     */
+    public long getMisses() {
+        return m_misses.sum();
+    }
+
+    private static class Key {
+        private final String m_agent;
+        private final String m_objectName;
+
+        private Key(String agent, String objectName) {
+            m_agent = Objects.requireNonNull(agent);
+            m_objectName = Objects.requireNonNull(objectName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return m_agent.equals(other.m_agent) && m_objectName.equals(other.m_objectName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_agent, m_objectName);
+        }
+    }
+
+    private static class Resolution {
+        private final Set<ObjectName> m_objectNames;
+        private final long m_resolvedAt;
+
+        private Resolution(Set<ObjectName> objectNames, long resolvedAt) {
+            m_objectNames = objectNames;
+            m_resolvedAt = resolvedAt;
+        }
+    }
+}
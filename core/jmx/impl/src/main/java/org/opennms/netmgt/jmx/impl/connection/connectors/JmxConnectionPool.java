@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServerConnection;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+import org.opennms.netmgt.jmx.impl.ObjectNameCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps established JMX connections open between collections and polls so
+ * that they can be reused instead of connecting to the agent every time.
+ * <p/>
+ * The connections are keyed by the connector, the address and the properties
+ * that the connectors use to connect, so Collectd and the JMX monitors share
+ * the connections to an agent. A connection is borrowed exclusively and
+ * returned to the pool when its wrapper is closed. Connections that threw an
+ * {@link IOException} are closed instead, connections that were idle for
+ * longer than the validation interval are checked before they are handed out
+ * again, and connections that were idle for longer than the idle timeout are
+ * closed by a background thread.
+ * <p/>
+ * After an agent could not be connected to, further attempts fail immediately
+ * until a delay has passed. The delay doubles with every failed attempt, up
+ * to the maximum backoff, and is reset by the next successful connection.
+ * The monitors bypass the backoff, a poll has to find out whether the agent
+ * is reachable now rather than report the failure of an earlier attempt.
+ * <p/>
+ * Whenever a new connection is established, the names that the
+ * {@link ObjectNameCache} resolved on the agent are invalidated, since the
+ * agent may have been restarted in the meantime.
+ */
+public class JmxConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxConnectionPool.class);
+
+    public static final String MAX_IDLE_PROPERTY = "org.opennms.netmgt.jmx.pool.maxIdlePerAgent";
+    public static final String IDLE_TIMEOUT_PROPERTY = "org.opennms.netmgt.jmx.pool.idleTimeout";
+    public static final String VALIDATION_INTERVAL_PROPERTY = "org.opennms.netmgt.jmx.pool.validationInterval";
+    public static final String INITIAL_BACKOFF_PROPERTY = "org.opennms.netmgt.jmx.pool.initialBackoff";
+    public static final String MAX_BACKOFF_PROPERTY = "org.opennms.netmgt.jmx.pool.maxBackoff";
+
+    /**
+     * The properties that are used by the {@link org.opennms.netmgt.jmx.connection.JmxServerConnector}s
+     * to establish a connection. All other service parameters are ignored
+     * when connections are matched.
+     */
+    private static final String[] CONNECTION_PROPERTIES = { "factory", "port", "protocol", "urlPath", "username", "password", "sunCacao", "timeout", "version" };
+
+    private static final JmxConnectionPool INSTANCE = new JmxConnectionPool(
+            Integer.getInteger(MAX_IDLE_PROPERTY, 4),
+            Long.getLong(IDLE_TIMEOUT_PROPERTY, TimeUnit.MINUTES.toMillis(15)),
+            Long.getLong(VALIDATION_INTERVAL_PROPERTY, TimeUnit.SECONDS.toMillis(30)),
+            Long.getLong(INITIAL_BACKOFF_PROPERTY, TimeUnit.SECONDS.toMillis(5)),
+            Long.getLong(MAX_BACKOFF_PROPERTY, TimeUnit.MINUTES.toMillis(2)));
+
+    private final int m_maxIdle;
+    private final long m_idleTimeout;
+    private final long m_validationInterval;
+    private final long m_initialBackoff;
+    private final long m_maxBackoff;
+
+    private final ConcurrentMap<String, Deque<IdleConnection>> m_idleConnections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Backoff> m_backoffs = new ConcurrentHashMap<>();
+
+    private final LongAdder m_created = new LongAdder();
+    private final LongAdder m_reused = new LongAdder();
+    private final LongAdder m_invalidated = new LongAdder();
+    private final LongAdder m_evicted = new LongAdder();
+    private final LongAdder m_rejected = new LongAdder();
+    private final LongAdder m_connectTime = new LongAdder();
+
+    private ScheduledExecutorService m_evictor;
+
+    /**
+     * @param maxIdle the maximum number of idle connections kept for each agent, 0 disables the pooling
+     * @param idleTimeout the time in milliseconds after which idle connections are closed
+     * @param validationInterval the time in milliseconds after which idle connections are checked before they are reused
+     * @param initialBackoff the time in milliseconds before an agent is connected to again after the first failure
+     * @param maxBackoff the maximum time in milliseconds before an agent is connected to again
+     */
+    public JmxConnectionPool(int maxIdle, long idleTimeout, long validationInterval, long initialBackoff, long maxBackoff) {
+        m_maxIdle = Math.max(0, maxIdle);
+        m_idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        m_validationInterval = TimeUnit.MILLISECONDS.toNanos(validationInterval);
+        m_initialBackoff = TimeUnit.MILLISECONDS.toNanos(Math.max(0, initialBackoff));
+        m_maxBackoff = TimeUnit.MILLISECONDS.toNanos(Math.max(initialBackoff, maxBackoff));
+    }
+
+    /**
+     * @return the pool that is shared by all of the JMX collectors and monitors
+     */
+    public static JmxConnectionPool getInstance() {
+        INSTANCE.startEvictor();
+        return INSTANCE;
+    }
+
+    private synchronized void startEvictor() {
+        if (m_evictor != null || m_maxIdle == 0) {
+            return;
+        }
+        m_evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "JmxConnectionPool-Evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(TimeUnit.SECONDS.toNanos(1), Math.min(m_idleTimeout, TimeUnit.MINUTES.toNanos(1)));
+        m_evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Borrows a connection to the given agent from the pool, or connects to
+     * the agent using the given connection manager if no idle connection is
+     * available. Closing the returned wrapper returns the connection to the
+     * pool.
+     */
+    public JmxServerConnectionWrapper borrow(JmxConnectionManager connectionManager, JmxConnectors connectorName, InetAddress ipAddress, Map<String, String> properties, JmxConnectionManager.RetryCallback retryCallback) throws JmxServerConnectionException {
+        return borrow(connectionManager, connectorName, ipAddress, properties, retryCallback, true);
+    }
+
+    /**
+     * Same as {@link #borrow(JmxConnectionManager, JmxConnectors, InetAddress, Map, JmxConnectionManager.RetryCallback)},
+     * but connects to the agent even after recent failures if backoff is false.
+     * The outcome of the attempt still updates the backoff of the agent.
+     */
+    public JmxServerConnectionWrapper borrow(JmxConnectionManager connectionManager, JmxConnectors connectorName, InetAddress ipAddress, Map<String, String> properties, JmxConnectionManager.RetryCallback retryCallback, boolean backoff) throws JmxServerConnectionException {
+        final String key = getKey(connectorName, ipAddress, properties);
+
+        IdleConnection idle;
+        while ((idle = poll(key)) != null) {
+            if (validate(idle)) {
+                m_reused.increment();
+                LOG.debug("Reusing {} connection to {}", connectorName, InetAddressUtils.str(ipAddress));
+                return new PooledConnectionWrapper(key, idle.m_connection);
+            }
+        }
+
+        final long now = System.nanoTime();
+        final Backoff recent = backoff ? m_backoffs.get(key) : null;
+        if (recent != null && now - recent.m_nextAttempt < 0) {
+            m_rejected.increment();
+            throw new JmxServerConnectionException("Not connecting to " + InetAddressUtils.str(ipAddress) + " for another "
+                    + TimeUnit.NANOSECONDS.toMillis(recent.m_nextAttempt - now) + "ms after " + recent.m_failures + " failed attempts");
+        }
+
+        final JmxServerConnectionWrapper connection;
+        try {
+            connection = connectionManager.connect(connectorName, ipAddress, properties, retryCallback);
+        } catch (JmxServerConnectionException e) {
+            final long failed = System.nanoTime();
+            m_backoffs.merge(key, new Backoff(1, failed + m_initialBackoff), (previous, first) -> {
+                final int failures = previous.m_failures + 1;
+                return new Backoff(failures, failed + Math.min(m_maxBackoff, m_initialBackoff << Math.min(failures - 1, 20)));
+            });
+            throw e;
+        }
+        m_backoffs.remove(key);
+        ObjectNameCache.getInstance().invalidate(ObjectNameCache.getAgent(connectorName, ipAddress, properties));
+        m_created.increment();
+        m_connectTime.add(System.nanoTime() - now);
+        return new PooledConnectionWrapper(key, connection);
+    }
+
+    private IdleConnection poll(String key) {
+        final IdleConnection[] polled = new IdleConnection[1];
+        m_idleConnections.computeIfPresent(key, (k, connections) -> {
+            polled[0] = connections.pollFirst();
+            return connections.isEmpty() ? null : connections;
+        });
+        return polled[0];
+    }
+
+    private boolean validate(IdleConnection idle) {
+        if (System.nanoTime() - idle.m_idleSince < m_validationInterval) {
+            return true;
+        }
+        try {
+            idle.m_connection.getMBeanServerConnection().getMBeanCount();
+            return true;
+        } catch (Exception e) {
+            LOG.debug("Discarding idle connection that failed validation", e);
+            m_invalidated.increment();
+            close(idle.m_connection);
+            return false;
+        }
+    }
+
+    private void release(String key, JmxServerConnectionWrapper connection, boolean broken) {
+        if (broken) {
+            m_invalidated.increment();
+            close(connection);
+            return;
+        }
+        final boolean[] pooled = new boolean[1];
+        m_idleConnections.compute(key, (k, connections) -> {
+            if (connections == null) {
+                connections = new ArrayDeque<>();
+            }
+            if (connections.size() < m_maxIdle) {
+                // The most recently used connections are reused first so that the others can expire
+                connections.offerFirst(new IdleConnection(connection));
+                pooled[0] = true;
+            }
+            return connections.isEmpty() ? null : connections;
+        });
+        if (!pooled[0]) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the idle
+     * timeout and forgets the failed attempts whose backoff has long passed.
+     */
+    public void evictIdleConnections() {
+        final long now = System.nanoTime();
+        final List<IdleConnection> expired = new ArrayList<>();
+        for (final String key : m_idleConnections.keySet()) {
+            m_idleConnections.computeIfPresent(key, (k, connections) -> {
+                for (final Iterator<IdleConnection> it = connections.iterator(); it.hasNext(); ) {
+                    final IdleConnection idle = it.next();
+                    if (now - idle.m_idleSince >= m_idleTimeout) {
+                        expired.add(idle);
+                        it.remove();
+                    }
+                }
+                return connections.isEmpty() ? null : connections;
+            });
+        }
+        for (final IdleConnection idle : expired) {
+            m_evicted.increment();
+            close(idle.m_connection);
+        }
+        m_backoffs.values().removeIf(backoff -> now - backoff.m_nextAttempt > m_maxBackoff);
+    }
+
+    private static void close(JmxServerConnectionWrapper connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            LOG.debug("Failed to close connection", e);
+        }
+    }
+
+    private static String getKey(JmxConnectors connectorName, InetAddress ipAddress, Map<String, String> properties) {
+        final StringBuilder key = new StringBuilder();
+        key.append(connectorName).append('/').append(InetAddressUtils.str(ipAddress));
+        if (properties != null) {
+            for (final String property : CONNECTION_PROPERTIES) {
+                final String value = properties.get(property);
+                if (value != null) {
+                    key.append('/').append(property).append('=').append(value);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the number of connections that were established
+     */
+    public long getConnectionsCreated() {
+        return m_created.sum();
+    }
+
+    /**
+     * @return the number of times an idle connection was reused
+     */
+    public long getConnectionsReused() {
+        return m_reused.sum();
+    }
+
+    /**
+     * @return the number of connections that were discarded because they failed
+     */
+    public long getConnectionsInvalidated() {
+        return m_invalidated.sum();
+    }
+
+    /**
+     * @return the number of connections that were closed after the idle timeout
+     */
+    public long getConnectionsEvicted() {
+        return m_evicted.sum();
+    }
+
+    /**
+     * @return the number of connection attempts that failed immediately because of the backoff
+     */
+    public long getConnectionsRejected() {
+        return m_rejected.sum();
+    }
+
+    /**
+     * @return the number of idle connections in the pool
+     */
+    public int getIdleConnections() {
+        int idle = 0;
+        for (final Deque<IdleConnection> connections : m_idleConnections.values()) {
+            idle += connections.size();
+        }
+        return idle;
+    }
+
+    /**
+     * @return the average time in milliseconds it took to establish a connection
+     */
+    public double getAverageConnectTime() {
+        final long created = m_created.sum();
+        return created == 0 ? 0.0 : m_connectTime.sum() / 1000000.0 / created;
+    }
+
+    /**
+     * @return the estimated time in milliseconds that was saved by reusing connections
+     */
+    public long getConnectTimeSaved() {
+        return Math.round(getConnectionsReused() * getAverageConnectTime());
+    }
+
+    private static class IdleConnection {
+        private final JmxServerConnectionWrapper m_connection;
+        private final long m_idleSince = System.nanoTime();
+
+        private IdleConnection(JmxServerConnectionWrapper connection) {
+            m_connection = connection;
+        }
+    }
+
+    private static class Backoff {
+        private final int m_failures;
+        private final long m_nextAttempt;
+
+        private Backoff(int failures, long nextAttempt) {
+            m_failures = failures;
+            m_nextAttempt = nextAttempt;
+        }
+    }
+
+    /**
+     * Hands out a borrowed connection and returns it to the pool when it is
+     * closed. The connection is marked as broken as soon as any call on it
+     * throws an {@link IOException}.
+     */
+    private class PooledConnectionWrapper implements JmxServerConnectionWrapper, InvocationHandler {
+        private final String m_key;
+        private final JmxServerConnectionWrapper m_connection;
+        private final MBeanServerConnection m_proxy;
+        private final AtomicBoolean m_closed = new AtomicBoolean(false);
+        private volatile boolean m_broken = false;
+
+        private PooledConnectionWrapper(String key, JmxServerConnectionWrapper connection) {
+            m_key = key;
+            m_connection = Objects.requireNonNull(connection);
+            m_proxy = (MBeanServerConnection) Proxy.newProxyInstance(JmxConnectionPool.class.getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, this);
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection() {
+            return m_connection.getMBeanServerConnection() == null ? null : m_proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(m_connection.getMBeanServerConnection(), args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    m_broken = true;
+                }
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (m_closed.compareAndSet(false, true)) {
+                release(m_key, m_connection, m_broken);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.net.InetAddress;
+import java.util.Map;
+
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+/**
+ * A {@link JmxConnectionManager} that borrows the connections from a
+ * {@link JmxConnectionPool} and only connects to the agent, using a
+ * {@link DefaultConnectionManager}, if the pool has no idle connection to it.
+ * <p/>
+ * Closing the returned {@link JmxServerConnectionWrapper} returns the
+ * connection to the pool instead of closing it.
+ * <p/>
+ * The backoff of the pool after failed connection attempts can be bypassed,
+ * see {@link JmxConnectionPool#borrow(JmxConnectionManager, JmxConnectors, InetAddress, Map, RetryCallback, boolean)}.
+ */
+public class PooledConnectionManager implements JmxConnectionManager {
+
+    private final JmxConnectionManager m_connectionManager;
+
+    private final JmxConnectionPool m_pool;
+
+    private final boolean m_backoff;
+
+    /**
+     * Uses the pool that is shared by all of the JMX collectors and monitors.
+     *
+     * @param retryCount the number of connection attempts, see {@link DefaultConnectionManager#DefaultConnectionManager(int)}
+     */
+    public PooledConnectionManager(int retryCount) {
+        this(retryCount, true);
+    }
+
+    /**
+     * Uses the pool that is shared by all of the JMX collectors and monitors.
+     *
+     * @param retryCount the number of connection attempts, see {@link DefaultConnectionManager#DefaultConnectionManager(int)}
+     * @param backoff whether agents that could not be connected to recently are skipped
+     */
+    public PooledConnectionManager(int retryCount, boolean backoff) {
+        this(new DefaultConnectionManager(retryCount), JmxConnectionPool.getInstance(), backoff);
+    }
+
+    public PooledConnectionManager(JmxConnectionManager connectionManager, JmxConnectionPool pool) {
+        this(connectionManager, pool, true);
+    }
+
+    public PooledConnectionManager(JmxConnectionManager connectionManager, JmxConnectionPool pool, boolean backoff) {
+        m_connectionManager = connectionManager;
+        m_pool = pool;
+        m_backoff = backoff;
+    }
+
+    @Override
+    public JmxServerConnectionWrapper connect(JmxConnectors connectorName, InetAddress ipAddress, Map<String, String> properties, RetryCallback retryCallback) throws JmxServerConnectionException {
+        return m_pool.borrow(m_connectionManager, connectorName, ipAddress, properties, retryCallback, m_backoff);
+    }
+}
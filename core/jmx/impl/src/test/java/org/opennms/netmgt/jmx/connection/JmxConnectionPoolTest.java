@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServerConnection;
+
+import org.junit.Test;
+import org.opennms.netmgt.jmx.impl.ObjectNameCache;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionManager;
+
+public class JmxConnectionPoolTest {
+
+    private static final InetAddress ADDRESS = InetAddress.getLoopbackAddress();
+
+    private final CountingConnectionManager m_connectionManager = new CountingConnectionManager();
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(4, 60000, 60000, 1000, 1000);
+        final PooledConnectionManager manager = new PooledConnectionManager(m_connectionManager, pool);
+
+        try (JmxServerConnectionWrapper connection = manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", "collection-a"), null)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+        }
+        assertEquals(1, pool.getIdleConnections());
+
+        // Parameters that are not used to connect do not matter
+        try (JmxServerConnectionWrapper connection = manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", "collection-b"), null)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+        }
+        // ... but the port does
+        try (JmxServerConnectionWrapper connection = manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1199", "collection-a"), null)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+        }
+
+        assertEquals(2, m_connectionManager.m_connects);
+        assertEquals(2, pool.getConnectionsCreated());
+        assertEquals(1, pool.getConnectionsReused());
+        assertEquals(2, pool.getIdleConnections());
+        assertEquals(0, m_connectionManager.m_closed);
+    }
+
+    @Test
+    public void testBrokenConnectionIsDiscarded() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(4, 60000, 60000, 1000, 1000);
+        final PooledConnectionManager manager = new PooledConnectionManager(m_connectionManager, pool);
+
+        m_connectionManager.m_broken = true;
+        try (JmxServerConnectionWrapper connection = manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+            fail("the connection should be broken");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(1, pool.getConnectionsInvalidated());
+        assertEquals(1, m_connectionManager.m_closed);
+
+        m_connectionManager.m_broken = false;
+        try (JmxServerConnectionWrapper connection = manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+        }
+        assertEquals(2, m_connectionManager.m_connects);
+        assertEquals(0, pool.getConnectionsReused());
+    }
+
+    @Test
+    public void testIdleConnectionsAreValidatedAndEvicted() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(4, 0, 0, 1000, 1000);
+        final PooledConnectionManager manager = new PooledConnectionManager(m_connectionManager, pool);
+
+        manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null).close();
+        manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null).close();
+        assertEquals(1, pool.getConnectionsReused());
+        assertEquals(1, m_connectionManager.m_validations);
+
+        pool.evictIdleConnections();
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(1, pool.getConnectionsEvicted());
+        assertEquals(1, m_connectionManager.m_closed);
+    }
+
+    @Test
+    public void testReconnectBacksOff() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(4, 60000, 60000, 60000, 60000);
+        final PooledConnectionManager manager = new PooledConnectionManager(m_connectionManager, pool);
+
+        m_connectionManager.m_unreachable = true;
+        for (int i = 0; i < 3; i++) {
+            try {
+                manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null);
+                fail("the agent should be unreachable");
+            } catch (JmxServerConnectionException e) {
+                // expected
+            }
+        }
+        assertEquals(1, m_connectionManager.m_connects);
+        assertEquals(2, pool.getConnectionsRejected());
+
+        // Other agents are not affected
+        m_connectionManager.m_unreachable = false;
+        manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1199", null), null).close();
+        assertEquals(2, m_connectionManager.m_connects);
+    }
+
+    @Test
+    public void testBackoffCanBeBypassed() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(4, 60000, 60000, 60000, 60000);
+        final PooledConnectionManager collector = new PooledConnectionManager(m_connectionManager, pool);
+        final PooledConnectionManager monitor = new PooledConnectionManager(m_connectionManager, pool, false);
+
+        m_connectionManager.m_unreachable = true;
+        for (final PooledConnectionManager manager : new PooledConnectionManager[] { collector, monitor, monitor }) {
+            try {
+                manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null);
+                fail("the agent should be unreachable");
+            } catch (JmxServerConnectionException e) {
+                // expected
+            }
+        }
+        assertEquals(3, m_connectionManager.m_connects);
+        assertEquals(0, pool.getConnectionsRejected());
+
+        // A successful poll ends the backoff of the collectors
+        m_connectionManager.m_unreachable = false;
+        monitor.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null).close();
+        collector.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null).close();
+        assertEquals(4, m_connectionManager.m_connects);
+        assertEquals(1, pool.getConnectionsReused());
+    }
+
+    @Test
+    public void testRetryCallbackIsOnlyCalledOnConnect() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(4, 60000, 60000, 1000, 1000);
+        final PooledConnectionManager manager = new PooledConnectionManager(m_connectionManager, pool);
+        final int[] retries = new int[1];
+        final JmxConnectionManager.RetryCallback retryCallback = () -> retries[0]++;
+
+        manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), retryCallback).close();
+        manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), retryCallback).close();
+        assertEquals(1, pool.getConnectionsReused());
+        assertEquals(1, retries[0]);
+    }
+
+    @Test
+    public void testPoolingCanBeDisabled() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(0, 60000, 60000, 1000, 1000);
+        final PooledConnectionManager manager = new PooledConnectionManager(m_connectionManager, pool);
+
+        manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null).close();
+        manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1099", null), null).close();
+        assertEquals(2, m_connectionManager.m_connects);
+        assertEquals(2, m_connectionManager.m_closed);
+        assertFalse(pool.getIdleConnections() > 0);
+    }
+
+    @Test
+    public void testNewConnectionInvalidatesResolvedNames() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(4, 60000, 60000, 1000, 1000);
+        final PooledConnectionManager manager = new PooledConnectionManager(m_connectionManager, pool);
+        final ObjectNameCache cache = ObjectNameCache.getInstance();
+        final String agent = ObjectNameCache.getAgent(JmxConnectors.jsr160, ADDRESS, properties("1299", null));
+
+        try (JmxServerConnectionWrapper connection = manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1299", null), null)) {
+            final long misses = cache.getMisses();
+            cache.resolve(agent, connection.getMBeanServerConnection(), "java.lang:type=Runtime");
+            cache.resolve(agent, connection.getMBeanServerConnection(), "java.lang:type=Runtime");
+            assertEquals(misses + 1, cache.getMisses());
+
+            // A second connection to the agent has to be established
+            manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1299", null), null).close();
+            cache.resolve(agent, connection.getMBeanServerConnection(), "java.lang:type=Runtime");
+            assertEquals(misses + 2, cache.getMisses());
+        }
+
+        // Reused connections keep the resolved names
+        try (JmxServerConnectionWrapper connection = manager.connect(JmxConnectors.jsr160, ADDRESS, properties("1299", null), null)) {
+            final long misses = cache.getMisses();
+            cache.resolve(agent, connection.getMBeanServerConnection(), "java.lang:type=Runtime");
+            assertEquals(misses, cache.getMisses());
+        }
+        assertEquals(2, pool.getConnectionsCreated());
+        assertEquals(1, pool.getConnectionsReused());
+    }
+
+    private static Map<String, String> properties(String port, String collection) {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("port", port);
+        if (collection != null) {
+            properties.put("collection", collection);
+        }
+        return properties;
+    }
+
+    private static class CountingConnectionManager implements JmxConnectionManager {
+        private int m_connects = 0;
+        private int m_closed = 0;
+        private int m_validations = 0;
+        private boolean m_broken = false;
+        private boolean m_unreachable = false;
+
+        @Override
+        public JmxServerConnectionWrapper connect(JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> connectionProperties, RetryCallback retryCallback) throws JmxServerConnectionException {
+            m_connects++;
+            if (retryCallback != null) {
+                retryCallback.onRetry();
+            }
+            if (m_unreachable) {
+                throw new JmxServerConnectionException("Connection refused");
+            }
+            final boolean broken = m_broken;
+            final MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, (proxy, method, args) -> {
+                if (broken) {
+                    throw new IOException("Connection reset");
+                }
+                if (method.getName().equals("getMBeanCount")) {
+                    m_validations++;
+                }
+                return method.invoke(ManagementFactory.getPlatformMBeanServer(), args);
+            });
+            return new JmxServerConnectionWrapper() {
+                private boolean m_open = true;
+
+                @Override
+                public MBeanServerConnection getMBeanServerConnection() {
+                    assertTrue(m_open);
+                    return connection;
+                }
+
+                @Override
+                public void close() {
+                    assertTrue(m_open);
+                    m_open = false;
+                    m_closed++;
+                }
+            };
+        }
+    }
+}
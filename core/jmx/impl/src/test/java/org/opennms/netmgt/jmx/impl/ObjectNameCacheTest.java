@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class ObjectNameCacheTest {
+
+    private final AtomicInteger m_queries = new AtomicInteger();
+
+    private final MBeanServerConnection m_connection = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, (proxy, method, args) -> {
+        m_queries.incrementAndGet();
+        return method.invoke(ManagementFactory.getPlatformMBeanServer(), args);
+    });
+
+    @Test
+    public void testNamesAreResolvedOncePerInterval() throws Exception {
+        final ObjectNameCache cache = new ObjectNameCache(60000);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, cache.resolve("agent1", m_connection, "java.lang:type=Runtime").size());
+            assertEquals(0, cache.resolve("agent1", m_connection, "java.lang:type=DoesNotExist").size());
+            assertEquals(ManagementFactory.getGarbageCollectorMXBeans().size(), cache.resolve("agent1", m_connection, "java.lang:type=GarbageCollector,*").size());
+        }
+        // Names that are not registered are resolved again every time
+        assertEquals(5, m_queries.get());
+        assertEquals(4, cache.getHits());
+        assertEquals(5, cache.getMisses());
+
+        // Names are resolved for each agent
+        assertEquals(new ObjectName("java.lang:type=Runtime"), cache.resolve("agent2", m_connection, "java.lang:type=Runtime").iterator().next());
+        assertEquals(6, m_queries.get());
+
+        cache.invalidate("agent1");
+        cache.resolve("agent1", m_connection, "java.lang:type=Runtime");
+        cache.resolve("agent2", m_connection, "java.lang:type=Runtime");
+        assertEquals(7, m_queries.get());
+    }
+
+    @Test
+    public void testCacheCanBeDisabled() throws Exception {
+        final ObjectNameCache cache = new ObjectNameCache(0);
+
+        cache.resolve("agent1", m_connection, "java.lang:type=Runtime");
+        cache.resolve("agent1", m_connection, "java.lang:type=Runtime");
+        assertEquals(2, m_queries.get());
+        assertEquals(0, cache.getHits());
+    }
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.smi.Address;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * A fixed set of SNMP sessions, each bound to its own UDP socket, that are
+ * shared by all of the requests sent to SNMPv1 and SNMPv2c agents.
+ *
+ * SNMP4J correlates the responses with the requests using the request ids, so
+ * a single socket can have any number of requests in flight. All of the
+ * requests for a given agent are sent from the same socket, and the number
+ * of requests in flight for each agent can be limited. Requests exceeding
+ * the limit are queued and sent as soon as one of the previous requests
+ * completes or times out.
+ *
+ * SNMPv3 requests are not handled by the pool since the USM user table
+ * is bound to the session.
+ */
+public class Snmp4JSessionPool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    /**
+     * Number of shared sockets. The pool is disabled if this is 0, which is the default.
+     */
+    public static final String NUM_TRANSPORTS_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransports";
+
+    /**
+     * Maximum number of requests in flight for any single agent, 0 for no limit.
+     */
+    public static final String MAX_REQUESTS_PER_AGENT_PROPERTY = "org.opennms.snmp.snmp4j.maxRequestsPerAgent";
+
+    private final Snmp[] m_sessions;
+
+    private final int m_maxRequestsPerAgent;
+
+    private final ConcurrentMap<Address, AgentRequests> m_requestsByAgent = new ConcurrentHashMap<>();
+
+    private final AtomicInteger m_requestsInFlight = new AtomicInteger();
+
+    /**
+     * The requests in flight, and the requests waiting to be sent, for a single agent.
+     */
+    private static class AgentRequests {
+        private final Deque<Runnable> m_waiting = new ArrayDeque<>();
+        private int m_inFlight = 0;
+        private boolean m_removed = false;
+    }
+
+    public Snmp4JSessionPool(int numTransports, int maxRequestsPerAgent) throws IOException {
+        if (numTransports < 1) {
+            throw new IllegalArgumentException("The pool needs at least one transport.");
+        }
+        m_maxRequestsPerAgent = maxRequestsPerAgent;
+        m_sessions = new Snmp[numTransports];
+        try {
+            for (int i = 0; i < numTransports; i++) {
+                m_sessions[i] = new Snmp(new DefaultUdpTransportMapping());
+                m_sessions[i].listen();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        LOG.info("Sharing {} SNMP sessions for all SNMPv1 and SNMPv2c requests, with up to {} requests in flight per agent.", numTransports, maxRequestsPerAgent > 0 ? maxRequestsPerAgent : "unlimited");
+    }
+
+    /**
+     * Creates the pool configured by the system properties, or returns null
+     * if the pool is disabled or cannot be created.
+     */
+    public static Snmp4JSessionPool createFromSystemProperties() {
+        final int numTransports = Integer.getInteger(NUM_TRANSPORTS_PROPERTY, 0);
+        if (numTransports <= 0) {
+            return null;
+        }
+        try {
+            return new Snmp4JSessionPool(numTransports, Integer.getInteger(MAX_REQUESTS_PER_AGENT_PROPERTY, 10));
+        } catch (IOException e) {
+            LOG.error("Failed to create the shared SNMP sessions, using one session per request.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if requests for the agent can be sent through the pool.
+     */
+    public boolean canHandle(Snmp4JAgentConfig agentConfig) {
+        return !agentConfig.isSnmpV3();
+    }
+
+    /**
+     * Sends a request that does not expect a response.
+     */
+    public void send(final PDU pdu, final Target target) throws IOException {
+        getSession(target).send(pdu, target);
+    }
+
+    /**
+     * Sends a request, or queues it if the agent already has the maximum
+     * number of requests in flight. The listener is called exactly once,
+     * with the response, a timeout or the error that occurred while sending.
+     */
+    public void send(final PDU pdu, final Target target, final ResponseListener listener) {
+        final Snmp session = getSession(target);
+        final Address address = target.getAddress();
+
+        final Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                m_requestsInFlight.incrementAndGet();
+                final ResponseListener responseListener = new ResponseListener() {
+                    @Override
+                    public void onResponse(ResponseEvent responseEvent) {
+                        // need to cancel the request here otherwise SNMP4J keeps it around
+                        session.cancel(responseEvent.getRequest(), this);
+                        complete(address);
+                        listener.onResponse(responseEvent);
+                    }
+                };
+                try {
+                    session.send(pdu, target, null, responseListener);
+                } catch (final IOException | RuntimeException e) {
+                    LOG.warn("send: error sending request to {}", address, e);
+                    complete(address);
+                    listener.onResponse(new ResponseEvent(session, address, pdu, null, null, e));
+                }
+            }
+        };
+
+        if (m_maxRequestsPerAgent <= 0) {
+            request.run();
+            return;
+        }
+
+        while (true) {
+            AgentRequests requests = m_requestsByAgent.get(address);
+            if (requests == null) {
+                final AgentRequests newRequests = new AgentRequests();
+                requests = m_requestsByAgent.putIfAbsent(address, newRequests);
+                if (requests == null) {
+                    requests = newRequests;
+                }
+            }
+            synchronized (requests) {
+                if (requests.m_removed) {
+                    // Lost the race against the last request of the agent completing
+                    continue;
+                }
+                if (requests.m_inFlight >= m_maxRequestsPerAgent) {
+                    requests.m_waiting.add(request);
+                    return;
+                }
+                requests.m_inFlight++;
+            }
+            request.run();
+            return;
+        }
+    }
+
+    /**
+     * Hands the slot of a completed request over to the next waiting request
+     * for the same agent, if any.
+     */
+    private void complete(final Address address) {
+        m_requestsInFlight.decrementAndGet();
+        if (m_maxRequestsPerAgent <= 0) {
+            return;
+        }
+
+        final AgentRequests requests = m_requestsByAgent.get(address);
+        if (requests == null) {
+            return;
+        }
+        final Runnable next;
+        synchronized (requests) {
+            next = requests.m_waiting.poll();
+            if (next == null && --requests.m_inFlight <= 0) {
+                requests.m_removed = true;
+                m_requestsByAgent.remove(address, requests);
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    private Snmp getSession(final Target target) {
+        // Always use the same socket for a given agent
+        return m_sessions[(target.getAddress().hashCode() & Integer.MAX_VALUE) % m_sessions.length];
+    }
+
+    /**
+     * Returns the number of requests that were sent and are waiting for a response.
+     */
+    public int getRequestsInFlight() {
+        return m_requestsInFlight.get();
+    }
+
+    @Override
+    public void close() {
+        for (Snmp session : m_sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (IOException e) {
+                LOG.error("error closing SNMP connection", e);
+            }
+        }
+    }
+}
@@ -91,6 +91,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private static USM m_usm;
 
+    private static volatile Snmp4JSessionPool s_sessionPool;
+
     private Snmp4JValueFactory m_valueFactory;
 
     /**
@@ -118,6 +120,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
         
         SNMP4JSettings.setAllowSNMPv2InV1(Boolean.getBoolean("org.opennms.snmp.snmp4j.allowSNMPv2InV1"));
         SNMP4JSettings.setNoGetBulk(Boolean.getBoolean("org.opennms.snmp.snmp4j.noGetBulk"));
+
+        s_sessionPool = Snmp4JSessionPool.createFromSystemProperties();
         
         s_initialized = true;
     }
@@ -126,6 +130,23 @@ public class Snmp4JStrategy implements SnmpStrategy {
         initialize();
     }
     
+    /**
+     * Returns the sessions shared by all requests, or null if every
+     * request uses its own session.
+     */
+    public static Snmp4JSessionPool getSessionPool() {
+        return s_sessionPool;
+    }
+
+    /**
+     * Replaces the sessions shared by all requests. The previous pool is not closed.
+     *
+     * @param sessionPool the new pool, or null to use one session per request
+     */
+    public static void setSessionPool(Snmp4JSessionPool sessionPool) {
+        s_sessionPool = sessionPool;
+    }
+
     public void clearUsers() {
         if (m_usm != null) {
             m_usm.removeAllUsers();
@@ -276,6 +297,12 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        final Snmp4JSessionPool sessionPool = s_sessionPool;
+        if (sessionPool != null && sessionPool.canHandle(agentConfig)) {
+            send(sessionPool, agentConfig, pdu, expectResponse, future);
+            return;
+        }
+
         Snmp session;
 
         try {
@@ -325,6 +352,32 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    private void send(Snmp4JSessionPool sessionPool, Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (expectResponse) {
+            sessionPool.send(pdu, agentConfig.getTarget(), new ResponseListener() {
+                @Override
+                public void onResponse(ResponseEvent responseEvent) {
+                    try {
+                        future.complete(processResponse(agentConfig, responseEvent));
+                    } catch (IOException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } else {
+            try {
+                sessionPool.send(pdu, agentConfig.getTarget());
+                future.complete(null);
+            } catch (final IOException e) {
+                LOG.error("send: error during SNMP operation", e);
+                future.completeExceptionally(e);
+            } catch (final RuntimeException e) {
+                LOG.error("send: unexpected error during SNMP operation", e);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
@@ -163,12 +163,20 @@ public class Snmp4JWalker extends SnmpWalker {
 
         @Override
         public void onResponse(ResponseEvent responseEvent) {
-            // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            if (m_session != null) {
+                // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
+                m_session.cancel(responseEvent.getRequest(), this);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
                 LOG.debug("Interruption event.  We have probably tried to close the session due to an error", responseEvent.getError());
+            // Responses for shared sessions may still arrive after the walker was closed
+            } else if (m_closed) {
+                LOG.debug("Ignoring response for {} since the walker was closed", getAddress());
+            // Check to see if the request could not be sent
+            } else if (responseEvent.getError() instanceof IOException) {
+                handleFatalError(responseEvent.getError());
             // Check to see if the response is null, indicating a timeout
             } else if (responseEvent.getResponse() == null) {
                 handleTimeout(getName()+": snmpTimeoutError for: " + getAddress());
@@ -186,6 +194,7 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    private volatile boolean m_closed = false;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
@@ -217,6 +226,14 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
+
+        final Snmp4JSessionPool sessionPool = Snmp4JStrategy.getSessionPool();
+        if (sessionPool != null && sessionPool.canHandle(m_agentConfig)) {
+            LOG.debug("Sending tracker pdu of size {} through the shared sessions", snmp4JPduBuilder.getPdu().size());
+            sessionPool.send(snmp4JPduBuilder.getPdu(), m_tgt, m_listener);
+            return;
+        }
+
         if (m_session == null) {
             m_session = m_agentConfig.createSnmpSession();
             m_session.listen();
@@ -232,6 +249,7 @@ public class Snmp4JWalker extends SnmpWalker {
 
     @Override
     public void close() throws IOException {
+        m_closed = true;
         if (m_session != null) {
             m_session.close();
             m_session = null;
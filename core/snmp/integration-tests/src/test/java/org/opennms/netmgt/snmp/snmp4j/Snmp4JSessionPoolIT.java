@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+
+/**
+ * Tests for the SNMP4J strategy using the shared sessions.
+ */
+public class Snmp4JSessionPoolIT extends MockSnmpAgentITCase {
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    private Snmp4JSessionPool m_sessionPool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        m_sessionPool = new Snmp4JSessionPool(2, 2);
+        Snmp4JStrategy.setSessionPool(m_sessionPool);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        Snmp4JStrategy.setSessionPool(null);
+        m_sessionPool.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testGetMultipleValues() throws Exception {
+        SnmpObjId[] oids = new SnmpObjId[] {
+                SnmpObjId.get(".1.3.5.1.1.3.0"),
+                SnmpObjId.get(".1.3.5.1.1.4.0"),
+        };
+
+        SnmpValue[] values = m_strategy.get(getAgentConfig(), oids);
+
+        assertNotNull("values should not be null", values);
+        assertEquals("values list size", 2, values.length);
+        assertSnmpValueEquals("values[0]", SnmpValue.SNMP_INT32, 42, values[0]);
+        assertSnmpValueEquals("values[1]", SnmpValue.SNMP_GAUGE32, 42, values[1]);
+        assertEquals(0, m_sessionPool.getRequestsInFlight());
+    }
+
+    /**
+     * Only two requests are in flight at any time, the others
+     * must be queued and sent once these complete.
+     */
+    @Test
+    public void testConcurrentRequestsForTheSameAgent() throws Exception {
+        final SnmpObjId[] oids = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(m_strategy.getAsync(getAgentConfig(), oids));
+        }
+        for (CompletableFuture<SnmpValue[]> future : futures) {
+            final SnmpValue[] values = future.get();
+            assertEquals("values list size", 1, values.length);
+            assertSnmpValueEquals("values[0]", SnmpValue.SNMP_INT32, 42, values[0]);
+        }
+        assertEquals(0, m_sessionPool.getRequestsInFlight());
+    }
+
+    @Test
+    public void testWalk() throws Exception {
+        final List<SnmpResult> results = new ArrayList<>();
+        final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.5.1.1")) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                results.add(res);
+            }
+        };
+
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+        try (final SnmpWalker walker = m_strategy.createWalker(agentConfig, "test", tracker)) {
+            walker.start();
+            walker.waitFor();
+            assertFalse(walker.getErrorMessage(), walker.failed());
+        }
+
+        assertEquals(9, results.size());
+        assertEquals(0, m_sessionPool.getRequestsInFlight());
+    }
+
+    /**
+     * SNMPv3 requests use their own session.
+     */
+    @Test
+    public void testSnmpV3IsNotShared() throws Exception {
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setVersion(SnmpAgentConfig.VERSION3);
+        assertFalse(m_sessionPool.canHandle(new Snmp4JAgentConfig(agentConfig)));
+    }
+
+    private void assertSnmpValueEquals(String message, int expectedType, int expectedInt, SnmpValue value) {
+        assertEquals(message + " getType()", expectedType, value.getType());
+        assertEquals(message + " toInt()", expectedInt, value.toInt());
+    }
+}
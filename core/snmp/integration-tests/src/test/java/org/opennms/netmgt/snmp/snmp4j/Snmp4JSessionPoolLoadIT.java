@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+
+/**
+ * Compares one session per request with the shared sessions.
+ */
+public class Snmp4JSessionPoolLoadIT extends MockSnmpAgentITCase {
+
+    private static final int NUM_REQUESTS = 20000;
+
+    private static final int NUM_THREADS = 32;
+
+    /**
+     * Every request in flight holds a socket and a thread without the shared sessions.
+     */
+    private static final int NUM_IN_FLIGHT_DEDICATED = 2000;
+
+    private static final int NUM_IN_FLIGHT_SHARED = 50000;
+
+    private static final SnmpObjId[] OIDS = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @Test
+    public void canSendRequestsThroughSharedSessions() throws Exception {
+        // Warm up
+        getValues(NUM_REQUESTS / 10);
+
+        final long dedicatedMs = getValues(NUM_REQUESTS);
+        final long dedicatedHeap = getHeapPerRequestInFlight(NUM_IN_FLIGHT_DEDICATED);
+
+        final Snmp4JSessionPool sessionPool = new Snmp4JSessionPool(4, 0);
+        Snmp4JStrategy.setSessionPool(sessionPool);
+        try {
+            getValues(NUM_REQUESTS / 10);
+
+            final long sharedMs = getValues(NUM_REQUESTS);
+            final long sharedHeap = getHeapPerRequestInFlight(NUM_IN_FLIGHT_SHARED);
+
+            System.err.println(String.format("Sent %d requests with %d threads: %.0f/s with one session per request, %.0f/s with shared sessions.",
+                    NUM_REQUESTS, NUM_THREADS, NUM_REQUESTS * 1000d / dedicatedMs, NUM_REQUESTS * 1000d / sharedMs));
+            System.err.println(String.format("Heap per request in flight: %d bytes with one session per request, %d bytes with shared sessions.",
+                    dedicatedHeap, sharedHeap));
+        } finally {
+            Snmp4JStrategy.setSessionPool(null);
+            sessionPool.close();
+        }
+    }
+
+    /**
+     * Sends the requests using synchronous gets from multiple threads and
+     * returns the elapsed time.
+     */
+    private long getValues(final int numRequests) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            final long start = System.currentTimeMillis();
+            final List<Future<SnmpValue[]>> futures = new ArrayList<>(numRequests);
+            for (int i = 0; i < numRequests; i++) {
+                futures.add(executor.submit(new Callable<SnmpValue[]>() {
+                    @Override
+                    public SnmpValue[] call() throws Exception {
+                        return m_strategy.get(getAgentConfig(), OIDS);
+                    }
+                }));
+            }
+            for (Future<SnmpValue[]> future : futures) {
+                final SnmpValue[] values = future.get();
+                assertNotNull(values[0]);
+                assertEquals(42, values[0].toInt());
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Sends requests to a socket that never answers, and measures the heap
+     * used while they are waiting for their timeout.
+     */
+    private long getHeapPerRequestInFlight(final int numRequests) throws Exception {
+        try (final DatagramSocket blackHole = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final SnmpAgentConfig agentConfig = getAgentConfig();
+            agentConfig.setAddress(InetAddress.getLoopbackAddress());
+            agentConfig.setPort(blackHole.getLocalPort());
+            agentConfig.setTimeout(5000);
+            agentConfig.setRetries(0);
+
+            final long before = getUsedHeap();
+            final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>(numRequests);
+            for (int i = 0; i < numRequests; i++) {
+                futures.add(m_strategy.getAsync(agentConfig, OIDS));
+            }
+            final long after = getUsedHeap();
+
+            for (CompletableFuture<SnmpValue[]> future : futures) {
+                future.get();
+            }
+            return (after - before) / numRequests;
+        }
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
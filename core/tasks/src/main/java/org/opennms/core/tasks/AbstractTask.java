@@ -28,8 +28,9 @@
 
 package org.opennms.core.tasks;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -43,13 +44,14 @@ import org.slf4j.LoggerFactory;
 /**
  * AbstractTask
  *
- * - Currently a collection of 'dependency' tasks defines the set of tasks that are 
- *   dependents of another.
+ * - A lock-free stack of 'dependency' tasks defines the set of tasks that are 
+ *   dependents of another. It is closed when the task completes so that no dependent
+ *   can be added after the dependents have been notified.
  * - When a task completes, the set of dependency tasks are the ones that need to 
  *   be considered to be run.
- * - When a task is considered, it removes the just-completed prerequisite task from 
- *   its 'prerequisites' list i.e. the set of tasks that must complete before it can run.
- * - If the set of prerequisites for the task becomes empty, then the task can be run.
+ * - When a task is considered, it decrements its count of pending prerequisites
+ *   i.e. the number of tasks that must complete before it can run.
+ * - If the count of pending prerequisites drops to zero, then the task can be run.
  * 
  * @author Seth
  * @author brozow
@@ -65,10 +67,27 @@ public abstract class AbstractTask implements Task {
     private final CountDownLatch m_latch = new CountDownLatch(1);
     
     private final AtomicInteger m_pendingPrereqs = new AtomicInteger(0);
-    private final Set<AbstractTask> m_dependents = new CopyOnWriteArraySet<AbstractTask>();
-    private final Set<AbstractTask> m_prerequisites = new CopyOnWriteArraySet<AbstractTask>();
+    private final AtomicReference<Dependent> m_dependents = new AtomicReference<Dependent>(null);
     
     private final TaskMonitor m_monitor;
+
+    /**
+     * A node in the stack of dependents of a task.
+     */
+    private static final class Dependent {
+        private final AbstractTask m_task;
+        private final Dependent m_next;
+
+        private Dependent(final AbstractTask task, final Dependent next) {
+            m_task = task;
+            m_next = next;
+        }
+    }
+
+    /**
+     * Replaces the stack of dependents once the task has completed.
+     */
+    private static final Dependent COMPLETED = new Dependent(null, null);
     
     /**
      * <p>Constructor for Task.</p>
@@ -107,22 +126,39 @@ public abstract class AbstractTask implements Task {
     /**
      * These are final and package protected because they should ONLY be accessed by the TaskCoordinator
      * This is for thread safety and efficiency.  use 'addDependency' to update these.
+     *
+     * @return false if this task has already completed, in which case the dependent was not added
      */
-    final Set<AbstractTask> getDependents() {
-        return m_dependents;
+    final boolean doAddDependent(final AbstractTask dependent) {
+        Dependent head;
+        do {
+            head = m_dependents.get();
+            if (head == COMPLETED) {
+                return false;
+            }
+        } while (!m_dependents.compareAndSet(head, new Dependent(dependent, head)));
+        return true;
     }
-    
-    final void doAddDependent(final AbstractTask dependent) {
-        if (!isFinished()) {
-            m_dependents.add(dependent);
+
+    /**
+     * Removes the dependents of this task, in the order in which they were added,
+     * and prevents any more from being added.
+     */
+    final List<AbstractTask> takeDependents() {
+        final Dependent head = m_dependents.getAndSet(COMPLETED);
+        if (head == null || head == COMPLETED) {
+            return Collections.emptyList();
         }
+        final List<AbstractTask> dependents = new ArrayList<AbstractTask>();
+        for (Dependent dependent = head; dependent != null; dependent = dependent.m_next) {
+            dependents.add(dependent.m_task);
+        }
+        Collections.reverse(dependents);
+        return dependents;
     }
     
     final void doAddPrerequisite(final AbstractTask prereq) {
-        if (!prereq.isFinished()) {
-            m_prerequisites.add(prereq);
-            notifyPrerequisiteAdded(prereq);
-        }
+        notifyPrerequisiteAdded(prereq);
     }
 
     private final void notifyPrerequisiteAdded(final AbstractTask prereq) {
@@ -166,12 +202,8 @@ public abstract class AbstractTask implements Task {
     }
         
     final void doCompletePrerequisite(final AbstractTask prereq) {
-        m_prerequisites.remove(prereq);
         notifyPrerequisiteCompleted(prereq);
-    }
-    
-    final void clearDependents() {
-        m_dependents.clear();
+        decrPendingPrereqCount();
     }
 
 
@@ -188,14 +220,18 @@ public abstract class AbstractTask implements Task {
         }
     }
     
+    /**
+     * The last prerequisite to complete and the scheduler may both find the task
+     * ready on different threads, only the one that moves it to SUBMITTED submits it.
+     */
     final void submitIfReady() {
-        if (isReady()) {
+        if (isReady() && m_state.compareAndSet(State.SCHEDULED, State.SUBMITTED)) {
+            notifySubmitted();
             try {
                 doSubmit();
             } catch (Throwable e) {
                 LOG.error("Unexpected throwable while trying to submit task: " + this, e);
             } finally {
-                submitted();
                 completeSubmit();
             }
         }
@@ -210,11 +246,6 @@ public abstract class AbstractTask implements Task {
     protected void doSubmit() {
     }
 
-    private final void submitted() {
-        setState(State.SCHEDULED, State.SUBMITTED);
-        notifySubmitted();
-    }
-
     /**
      * This method exists to allow a task to have no processing
      */
@@ -232,7 +263,7 @@ public abstract class AbstractTask implements Task {
      * This is for thread safety and efficiency.  use 'addDependency' to update these
      */
     final boolean isReady() {
-        return isInReadyState() && m_prerequisites.isEmpty() && getPendingPrereqCount() == 0;
+        return isInReadyState() && getPendingPrereqCount() == 0;
     }
 
     private final int getPendingPrereqCount() {
@@ -28,9 +28,8 @@
 
 package org.opennms.core.tasks;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /*
  * ContainerTask
@@ -75,7 +74,7 @@ public abstract class ContainerTask<T extends ContainerTask<?>> extends Abstract
     }
 
     protected final AbstractTask m_triggerTask;
-    private final List<Task> m_children = Collections.synchronizedList(new ArrayList<Task>());
+    private final Queue<Task> m_children = new ConcurrentLinkedQueue<Task>();
     private final TaskBuilder<T> m_builder;
     
     /**
@@ -120,13 +119,12 @@ public abstract class ContainerTask<T extends ContainerTask<?>> extends Abstract
     @Override
     public void preSchedule() {
         m_triggerTask.schedule();
-        List<Task> children;
-        synchronized(m_children) {
-            children = new ArrayList<Task>(m_children);
-            m_children.clear();
-        }
-        
-        for(Task task : children) {
+        scheduleChildren();
+    }
+
+    private void scheduleChildren() {
+        Task task;
+        while ((task = m_children.poll()) != null) {
             task.schedule();
         }
     }
@@ -141,16 +139,15 @@ public abstract class ContainerTask<T extends ContainerTask<?>> extends Abstract
         super.addPrerequisite(task);
         addChildDependencies(task);
 
-        boolean scheduleChild;
-        synchronized(m_children) {
-            scheduleChild = isScheduled();
-            if (!scheduleChild) {
-                m_children.add(task);
-            }
-        }
-
-        if (scheduleChild) {
+        if (isScheduled()) {
             task.schedule();
+        } else {
+            m_children.add(task);
+            // If this container was scheduled while the child was being queued
+            // then preSchedule() may have missed it
+            if (isScheduled()) {
+                scheduleChildren();
+            }
         }
         
     }
@@ -29,15 +29,16 @@
 package org.opennms.core.tasks;
 
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
@@ -52,28 +53,25 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
     private static final Logger LOG = LoggerFactory.getLogger(DefaultTaskCoordinator.class);
 
     /**
-     * This interface is used as a marker for {@link Runnable} tasks that
-     * are intended to be enqueued on the {@link RunnableActor} thread.
-     */
-    interface SerialRunnable extends Runnable {}
-
-    /**
-     * <p>This {@link Executor} handles all of the task dependency work to reduce the 
-     * need for synchronization. The single thread:</p>
+     * <p>This work-stealing pool handles the task scheduling and completion work. Its
+     * threads:</p>
      * 
      * <ul>
-     * <li>Processes the completion queue</li>
-     * <li>Updates dependencies due to completing tasks</li>
-     * <li>Schedules tasks that must be run due to completing dependencies</li>
-     * <li>Schedules the adding of dependencies</li>
+     * <li>Schedule tasks</li>
+     * <li>Process task completions</li>
+     * <li>Submit tasks that must be run due to completing dependencies</li>
      * </ul>
      *
-     * @author brozow
+     * <p>Dependencies are added on the calling thread. The dependents of a task and
+     * the count of its pending prerequisites are lock-free so that no single thread
+     * has to serialize this work.</p>
      */
-    private final Executor m_actorExecutor;
+    private final ForkJoinPool m_coordinationPool;
 
     private final ConcurrentHashMap<String, Executor> m_taskExecutors = new ConcurrentHashMap<String, Executor>();
 
+    private final ConcurrentHashMap<String, ExecutorStatistics> m_executorStatistics = new ConcurrentHashMap<String, ExecutorStatistics>();
+
     private String m_defaultExecutorName = TaskCoordinator.DEFAULT_EXECUTOR;
 
     private long m_loopDelay = 0;
@@ -85,17 +83,40 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
      * @param defaultExecutor a {@link java.util.concurrent.Executor} object.
      */
     public DefaultTaskCoordinator(String name) {
-        // Create a new single-threaded actor executor
-        m_actorExecutor = Executors.newSingleThreadExecutor(
-            new LogPreservingThreadFactory(name+"-TaskScheduler", 1)
-        );
+        m_coordinationPool = createWorkStealingPool(name+"-TaskScheduler");
 
-        // By default, add one single-threaded task executor to the coordinator
+        // By default, add one work-stealing task executor to the coordinator
         addOrUpdateExecutor(
             m_defaultExecutorName,
-            Executors.newSingleThreadExecutor(
-                new LogPreservingThreadFactory(m_defaultExecutorName, 1)
-            )
+            createWorkStealingPool(m_defaultExecutorName)
+        );
+    }
+
+    /**
+     * Creates a {@link ForkJoinPool} in FIFO mode, which suits tasks that are never
+     * joined, whose threads preserve the logging context of the creating thread.
+     */
+    private static ForkJoinPool createWorkStealingPool(final String name) {
+        final Map<String,String> mdc = MDC.getCopyOfContextMap();
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        return new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                final ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                    @Override
+                    protected void onStart() {
+                        super.onStart();
+                        // Set the logging prefix if it was stored during creation
+                        if (mdc != null) {
+                            MDC.setContextMap(mdc);
+                        }
+                    }
+                };
+                thread.setName(String.format("%s-Thread-%d", name, threadNumber.incrementAndGet()));
+                return thread;
+            },
+            (thread, e) -> LOG.warn("Uncaught exception in thread {}: {}", thread.getName(), e.getMessage(), e),
+            true
         );
     }
 
@@ -263,12 +284,26 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
      */
     @Override
     public void addDependency(AbstractTask prereq, AbstractTask dependent) {
-        // this is only needed when add dependencies while running
+        Assert.notNull(prereq, "prereq must not be null");
+        Assert.notNull(dependent, "dependent must not be null");
+
+        // Count the prerequisite before it is added so that the dependent cannot
+        // be submitted while it is being added to a running container
         dependent.incrPendingPrereqCount();
-        onProcessorThread(dependencyAdder(prereq, dependent));
+
+        if (prereq.doAddDependent(dependent)) {
+            dependent.doAddPrerequisite(prereq);
+        } else {
+            /**
+             *  the prereq task has already completed so there will be no task to
+             *  kick this one off... so check it here.
+             */
+            dependent.decrPendingPrereqCount();
+            dependent.submitIfReady();
+        }
     }
 
-    void onProcessorThread(final SerialRunnable r) {
+    void onProcessorThread(final Runnable r) {
         // If there's a delay set for testing, run the task
         // and then sleep for the delay
         CompletableFuture<Void> future = null;
@@ -282,19 +317,19 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
                     } catch (InterruptedException e) {}
                 }
                 
-            }, m_actorExecutor);
+            }, m_coordinationPool);
         } else {
-            future = CompletableFuture.runAsync(r, m_actorExecutor);
+            future = CompletableFuture.runAsync(r, m_coordinationPool);
         }
         future.exceptionally(e -> {
-            LOG.warn("Unexpected exception during actor runnable: " + e.getMessage(), e);
+            LOG.warn("Unexpected exception during coordinator runnable: " + e.getMessage(), e);
             return null;
         });
     }
 
 
-    private static SerialRunnable scheduler(final AbstractTask task) {
-        return new SerialRunnable() {
+    private static Runnable scheduler(final AbstractTask task) {
+        return new Runnable() {
             @Override
             public void run() {
                 task.scheduled();
@@ -307,8 +342,8 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
         };
     }
     
-    private static SerialRunnable taskCompleter(final AbstractTask task) {
-        return new SerialRunnable() {
+    private static Runnable taskCompleter(final AbstractTask task) {
+        return new Runnable() {
             @Override
             public void run() {
                 notifyDependents(task);
@@ -325,52 +360,16 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
         //LOG.debug("Task {} completed!", task);
         task.onComplete();
 
-        final Set<AbstractTask> dependents = task.getDependents();
-        for(AbstractTask dependent : dependents) {
+        for(AbstractTask dependent : task.takeDependents()) {
             dependent.doCompletePrerequisite(task);
-            /*
-            if (LOG.isDebugEnabled()) {
-                if (dependent.isReady()) {
-                    LOG.debug("Task {} {} ready.", dependent, dependent.isReady() ? "is" : "is not");
-                }
-            }
-            */
             dependent.submitIfReady();
         }
-
-        //LOG.debug("CLEAN: removing dependents of {}", task);
-        task.clearDependents();
     }
 
-    /**
-     * The returns a runnable that is run on the taskCoordinator thread.. This is 
-     * done to keep the Task data structures thread safe.
-     */
-    private static SerialRunnable dependencyAdder(final AbstractTask prereq, final AbstractTask dependent) {
-        Assert.notNull(prereq, "prereq must not be null");
-        Assert.notNull(dependent, "dependent must not be null");
-        return new SerialRunnable() {
-            @Override
-            public void run() {
-                prereq.doAddDependent(dependent);
-                dependent.doAddPrerequisite(prereq);
-                dependent.decrPendingPrereqCount();
-
-                /**
-                 *  the prereq task may have completed between the time this adder was enqueued
-                 *  and the time we got here.  In this case there will be no tasks to kick this
-                 *  one off... so check it here. 
-                 */
-                dependent.submitIfReady();
-            }
-            @Override
-            public String toString() {
-                return String.format("%s.addPrerequisite(%s)", dependent, prereq);
-            }
-        };
+    private final String getExecutorName(String name) {
+        return name != null && m_taskExecutors.containsKey(name) ? name : m_defaultExecutorName;
     }
     
-    
     private final Executor getExecutor(String name) {
         Executor executor = m_taskExecutors.get(name);
         if (executor == null) {
@@ -393,16 +392,29 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
 
     @Override
     public void submitToExecutor(String executorPreference, Runnable workToBeDone, AbstractTask owningTask) {
+        final String executorName = getExecutorName(executorPreference);
+        final Executor executor = getExecutor(executorName);
+        final ExecutorStatistics statistics = getExecutorStatistics(executorName);
+        final long submitTime = System.nanoTime();
+        statistics.submitted();
         CompletableFuture
             // Run the work on the preferred executor
-            .runAsync(workToBeDone, getExecutor(executorPreference))
+            .runAsync(() -> {
+                final long startTime = System.nanoTime();
+                statistics.started(startTime - submitTime);
+                try {
+                    workToBeDone.run();
+                } finally {
+                    statistics.completed(System.nanoTime() - startTime);
+                }
+            }, executor)
             // Log any uncaught exceptions from the task execution
             .exceptionally(e -> {
                 LOG.warn("Unexpected exception during task execution: " + e.getMessage(), e);
                 return null;
             })
-            // Then run the completer on the actor executor
-            .thenRunAsync(taskCompleter(owningTask), m_actorExecutor)
+            // Then run the completer on the coordination pool
+            .thenRunAsync(taskCompleter(owningTask), m_coordinationPool)
             // Log any uncaught exceptions from the task completer
             .exceptionally(e -> {
                 LOG.warn("Unexpected exception during task completion: " + e.getMessage(), e);
@@ -437,4 +449,15 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
         }
     }
 
+    /**
+     * <p>getExecutorStatistics</p>
+     *
+     * @param executorName a {@link java.lang.String} object.
+     * @return a {@link org.opennms.core.tasks.ExecutorStatistics} object.
+     */
+    @Override
+    public ExecutorStatistics getExecutorStatistics(String executorName) {
+        return m_executorStatistics.computeIfAbsent(executorName, ExecutorStatistics::new);
+    }
+
 }
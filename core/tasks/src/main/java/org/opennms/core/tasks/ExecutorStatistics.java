@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.tasks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the tasks that a {@link DefaultTaskCoordinator} has handed to one of its
+ * executors and the time they spent waiting in its queue and running.
+ */
+public class ExecutorStatistics {
+
+    private final String m_executorName;
+
+    private final LongAdder m_submitted = new LongAdder();
+    private final LongAdder m_started = new LongAdder();
+    private final LongAdder m_completed = new LongAdder();
+    private final LongAdder m_queueNanos = new LongAdder();
+    private final LongAdder m_runNanos = new LongAdder();
+
+    public ExecutorStatistics(String executorName) {
+        m_executorName = executorName;
+    }
+
+    public String getExecutorName() {
+        return m_executorName;
+    }
+
+    void submitted() {
+        m_submitted.increment();
+    }
+
+    void started(long queueNanos) {
+        m_started.increment();
+        m_queueNanos.add(queueNanos);
+    }
+
+    void completed(long runNanos) {
+        m_completed.increment();
+        m_runNanos.add(runNanos);
+    }
+
+    /**
+     * @return the number of tasks that have been submitted to the executor
+     */
+    public long getSubmitted() {
+        return m_submitted.sum();
+    }
+
+    /**
+     * @return the number of tasks that have finished running
+     */
+    public long getCompleted() {
+        return m_completed.sum();
+    }
+
+    /**
+     * @return the number of tasks that have been submitted but have not started running
+     */
+    public long getQueueDepth() {
+        return Math.max(0, m_submitted.sum() - m_started.sum());
+    }
+
+    /**
+     * @return the number of tasks that are currently running
+     */
+    public long getActive() {
+        return Math.max(0, m_started.sum() - m_completed.sum());
+    }
+
+    /**
+     * @return the average time in milliseconds that a task waited in the queue before it started
+     */
+    public double getAverageQueueTime() {
+        return average(m_queueNanos.sum(), m_started.sum());
+    }
+
+    /**
+     * @return the average time in milliseconds that a task ran for
+     */
+    public double getAverageRunTime() {
+        return average(m_runNanos.sum(), m_completed.sum());
+    }
+
+    /**
+     * @return the average time in milliseconds from the submission of a task until it completed
+     */
+    public double getAverageLatency() {
+        return getAverageQueueTime() + getAverageRunTime();
+    }
+
+    private static double average(long nanos, long count) {
+        return count == 0 ? 0.0 : (double)nanos / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[submitted=%d, completed=%d, queueDepth=%d, active=%d, averageQueueTime=%.3fms, averageRunTime=%.3fms]",
+            m_executorName, getSubmitted(), getCompleted(), getQueueDepth(), getActive(), getAverageQueueTime(), getAverageRunTime());
+    }
+}
@@ -171,4 +171,13 @@ public interface TaskCoordinator {
      * @param executors a {@link java.util.Map} object.
      */
     void setExecutors(Map<String,Executor> executors);
+
+    /**
+     * <p>getExecutorStatistics</p>
+     *
+     * @param executorName a {@link java.lang.String} object.
+     * @return the {@link org.opennms.core.tasks.ExecutorStatistics} of the tasks that
+     *   were submitted to the named executor
+     */
+    ExecutorStatistics getExecutorStatistics(String executorName);
 }
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.test.MockLogAppender;
+
+/**
+ * Runs a synthetic scan with the same shape as the Provisiond node scans through
+ * the {@link DefaultTaskCoordinator}: a batch of nodes, each of them a sequence
+ * of a node scan, a batch of interface scans that each run a sequence of
+ * detectors, and a write of the results.
+ */
+public class TaskCoordinatorLoadIT {
+
+    private static final int NODES = 1000;
+
+    private static final int INTERFACES_PER_NODE = 7;
+
+    private static final int DETECTORS_PER_INTERFACE = 14;
+
+    /**
+     * The node scan and the write plus the detectors of each interface.
+     */
+    private static final long TASKS = NODES * (2 + INTERFACES_PER_NODE * DETECTORS_PER_INTERFACE);
+
+    private ExecutorService m_scanExecutor;
+
+    private ExecutorService m_writeExecutor;
+
+    private DefaultTaskCoordinator m_coordinator;
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        m_scanExecutor = Executors.newFixedThreadPool(10, new LogPreservingThreadFactory("scan", 10));
+        m_writeExecutor = Executors.newFixedThreadPool(8, new LogPreservingThreadFactory("write", 8));
+
+        m_coordinator = new DefaultTaskCoordinator("TaskCoordinatorLoadIT");
+        m_coordinator.setDefaultExecutor("scan");
+        m_coordinator.addOrUpdateExecutor("scan", m_scanExecutor);
+        m_coordinator.addOrUpdateExecutor("write", m_writeExecutor);
+        m_coordinator.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        m_scanExecutor.shutdown();
+        m_writeExecutor.shutdown();
+    }
+
+    @Test
+    public void testSyntheticScan() throws Exception {
+        // Warm up before measuring
+        scan();
+
+        final AtomicLong executed = new AtomicLong(0);
+        final long start = System.nanoTime();
+        final BatchTask scan = scan(executed);
+        scan.schedule();
+        assertTrue("scan did not complete", scan.waitFor(5, TimeUnit.MINUTES));
+        final long elapsed = System.nanoTime() - start;
+
+        assertEquals(TASKS, executed.get());
+
+        final ExecutorStatistics scanStatistics = m_coordinator.getExecutorStatistics("scan");
+        final ExecutorStatistics writeStatistics = m_coordinator.getExecutorStatistics("write");
+        assertEquals(2 * TASKS, scanStatistics.getCompleted() + writeStatistics.getCompleted());
+
+        System.err.println(String.format("Scanned %d nodes with %d tasks in %.1fms: %10.1f tasks/s",
+            NODES, TASKS, elapsed / 1000000.0, TASKS * 1000000000.0 / elapsed));
+        System.err.println(scanStatistics);
+        System.err.println(writeStatistics);
+    }
+
+    private void scan() throws Exception {
+        final BatchTask scan = scan(new AtomicLong(0));
+        scan.schedule();
+        assertTrue("scan did not complete", scan.waitFor(5, TimeUnit.MINUTES));
+    }
+
+    private BatchTask scan(final AtomicLong executed) {
+        final BatchTask scan = m_coordinator.createBatch().get();
+        for (int node = 0; node < NODES; node++) {
+            final SequenceTask nodeScan = m_coordinator.createSequence(scan).get();
+            nodeScan.add(work(executed), "scan");
+
+            final BatchTask interfaceScans = m_coordinator.createBatch(nodeScan).get();
+            for (int iface = 0; iface < INTERFACES_PER_NODE; iface++) {
+                final SequenceTask detectors = m_coordinator.createSequence(interfaceScans).get();
+                for (int detector = 0; detector < DETECTORS_PER_INTERFACE; detector++) {
+                    detectors.add(work(executed), "scan");
+                }
+                interfaceScans.add(detectors);
+            }
+            nodeScan.add(interfaceScans);
+
+            nodeScan.add(work(executed), "write");
+            scan.add(nodeScan);
+        }
+        return scan;
+    }
+
+    private static Runnable work(final AtomicLong executed) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+        };
+    }
+}
@@ -29,15 +29,17 @@
 package org.opennms.core.tasks;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
-import org.opennms.core.tasks.DefaultTaskCoordinator.SerialRunnable;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 
 /**
  * @author Seth
@@ -45,8 +47,8 @@ import org.opennms.core.tasks.DefaultTaskCoordinator.SerialRunnable;
 public class TaskCoordinatorTest {
 
     /**
-     * Make sure that task executions on the {@link RunnableActor} thread are
-     * being performed serially. Simulate the default provisiond configuration:
+     * Make sure that tasks are run on the executors named by their scheduling
+     * hints and counted against them. Simulate the default provisiond configuration:
      * 
      * <bean id="taskCoordinator" class="org.opennms.core.tasks.DefaultTaskCoordinator">
      *   <constructor-arg value="Provisiond" />
@@ -67,39 +69,56 @@ public class TaskCoordinatorTest {
 
         final int numberOfTasks = 10;
 
-        final CountDownLatch latch = new CountDownLatch(numberOfTasks);
-
         DefaultTaskCoordinator coordinator = new DefaultTaskCoordinator("Provisiond");
         coordinator.setDefaultExecutor("scan");
 
         Map<String, Executor> executors = new HashMap<>();
 
-        executors.put("import", Executors.newScheduledThreadPool(10));
-        executors.put("scan", Executors.newScheduledThreadPool(10));
-        executors.put("write", Executors.newScheduledThreadPool(10));
+        executors.put("import", Executors.newScheduledThreadPool(10, new LogPreservingThreadFactory("import", 10)));
+        executors.put("scan", Executors.newScheduledThreadPool(10, new LogPreservingThreadFactory("scan", 10)));
+        executors.put("write", Executors.newScheduledThreadPool(10, new LogPreservingThreadFactory("write", 10)));
 
         coordinator.setExecutors(executors);
+        coordinator.afterPropertiesSet();
 
-        StringBuffer result = new StringBuffer();
+        final Map<String, String> threads = new ConcurrentHashMap<>();
 
+        BatchTask batch = coordinator.createBatch().get();
         for (int i = 0; i < numberOfTasks; i++) {
             final int count = i;
-            coordinator.onProcessorThread(new SerialRunnable() {
+            // The last task has no hint so it must be run on the default executor
+            final String hint = i == numberOfTasks - 1 ? "unknown" : i % 2 == 0 ? "scan" : "write";
+            batch.add(new Runnable() {
                 @Override
                 public void run() {
-                    // Introduct some jitter into the threads
+                    // Introduce some jitter into the threads
                     try {
-                        Thread.sleep(300 * (count % 2));
+                        Thread.sleep(30 * (count % 2));
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
-                    System.out.println(System.currentTimeMillis() + " " + count);
-                    result.append(count);
-                    latch.countDown();
+                    threads.put(Integer.toString(count), Thread.currentThread().getName());
                 }
-            });
+            }, hint);
         }
-        latch.await();
-        assertEquals("0123456789", result.toString());
+        batch.schedule();
+        assertTrue("batch did not complete", batch.waitFor(10, TimeUnit.SECONDS));
+
+        assertEquals(numberOfTasks, threads.size());
+        for (int i = 0; i < numberOfTasks; i++) {
+            final String expected = i == numberOfTasks - 1 || i % 2 == 0 ? "scan" : "write";
+            assertTrue(threads.get(Integer.toString(i)), threads.get(Integer.toString(i)).startsWith(expected + "-"));
+        }
+
+        final ExecutorStatistics scan = coordinator.getExecutorStatistics("scan");
+        final ExecutorStatistics write = coordinator.getExecutorStatistics("write");
+        assertEquals(6, scan.getSubmitted());
+        assertEquals(6, scan.getCompleted());
+        assertEquals(4, write.getSubmitted());
+        assertEquals(4, write.getCompleted());
+        assertEquals(0, write.getQueueDepth());
+        assertEquals(0, write.getActive());
+        assertTrue(write.toString(), write.getAverageRunTime() >= 25.0);
+        assertEquals(0, coordinator.getExecutorStatistics("import").getSubmitted());
     }
 }
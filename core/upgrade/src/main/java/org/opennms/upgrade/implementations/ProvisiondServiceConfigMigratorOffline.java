@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.upgrade.implementations;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import org.apache.commons.io.FileUtils;
+import org.opennms.core.utils.ConfigFileConstants;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.config.service.Attribute;
+import org.opennms.netmgt.config.service.Service;
+import org.opennms.netmgt.config.service.ServiceConfiguration;
+import org.opennms.upgrade.api.AbstractOnmsUpgrade;
+import org.opennms.upgrade.api.OnmsUpgradeException;
+
+/**
+ * The Class Provisiond Service Configuration Migrator.
+ * 
+ * <p>Provisiond is now started through its own MBean, which exposes the
+ * import statistics, instead of the generic Spring context daemon.  Only an
+ * unmodified Provisiond entry is migrated.</p>
+ */
+public class ProvisiondServiceConfigMigratorOffline extends AbstractOnmsUpgrade {
+
+    private static final String SERVICE_NAME = "OpenNMS:Name=Provisiond";
+
+    private static final String OLD_CLASS_NAME = "org.opennms.netmgt.daemon.SimpleSpringContextJmxServiceDaemon";
+
+    private static final String NEW_CLASS_NAME = "org.opennms.netmgt.provision.service.jmx.Provisiond";
+
+    private static final String SPRING_CONTEXT = "provisiondContext";
+
+    /** 
+     * The services configuration file.
+     */
+    private File configFile;
+
+    /**
+     * Instantiates a new Provisiond Service Configuration migrator offline.
+     *
+     * @throws OnmsUpgradeException the OpenNMS upgrade exception
+     */
+    public ProvisiondServiceConfigMigratorOffline() throws OnmsUpgradeException {
+        super();
+        try {
+            configFile = ConfigFileConstants.getFile(ConfigFileConstants.SERVICE_CONF_FILE_NAME);
+        } catch (final IOException e) {
+            throw new OnmsUpgradeException("Can't find Services Configuration file", e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.upgrade.api.OnmsUpgrade#getOrder()
+     */
+    @Override
+    public int getOrder() {
+        return 12;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.upgrade.api.OnmsUpgrade#getDescription()
+     */
+    @Override
+    public String getDescription() {
+        return "Starts Provisiond through its own MBean in service-configuration.xml";
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.upgrade.api.OnmsUpgrade#requiresOnmsRunning()
+     */
+    @Override
+    public boolean requiresOnmsRunning() {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.upgrade.api.OnmsUpgrade#preExecute()
+     */
+    @Override
+    public void preExecute() throws OnmsUpgradeException {
+        try {
+            log("Backing up %s\n", configFile);
+            zipFile(configFile);
+        } catch (Exception e) {
+            throw new OnmsUpgradeException("Can't backup service-configurations.xml because " + e.getMessage());
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.upgrade.api.OnmsUpgrade#postExecute()
+     */
+    @Override
+    public void postExecute() throws OnmsUpgradeException {
+        File zip = new File(configFile.getAbsolutePath() + ZIP_EXT);
+        if (zip.exists()) {
+            log("Removing backup %s\n", zip);
+            FileUtils.deleteQuietly(zip);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.upgrade.api.OnmsUpgrade#rollback()
+     */
+    @Override
+    public void rollback() throws OnmsUpgradeException {
+        log("Restoring backup %s\n", configFile);
+        File zip = new File(configFile.getAbsolutePath() + ZIP_EXT);
+        FileUtils.deleteQuietly(configFile);
+        unzipFile(zip, zip.getParentFile());
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.upgrade.api.OnmsUpgrade#execute()
+     */
+    @Override
+    public void execute() throws OnmsUpgradeException {
+        try {
+            final ServiceConfiguration currentCfg = JaxbUtils.unmarshal(ServiceConfiguration.class, configFile);
+
+            final Service provisiond = getService(currentCfg, SERVICE_NAME);
+            if (provisiond == null || !OLD_CLASS_NAME.equals(provisiond.getClassName()) || !SPRING_CONTEXT.equals(getAttribute(provisiond, "SpringContext"))) {
+                log("Provisiond does not use the default service definition, skipping.\n");
+                return;
+            }
+
+            // The logging prefix and the Spring context are fixed by the new MBean
+            log("Migrating %s to %s\n", SERVICE_NAME, NEW_CLASS_NAME);
+            provisiond.setClassName(NEW_CLASS_NAME);
+            for (final Iterator<Attribute> it = provisiond.getAttributeCollection().iterator(); it.hasNext();) {
+                final String name = it.next().getName();
+                if ("LoggingPrefix".equals(name) || "SpringContext".equals(name)) {
+                    it.remove();
+                }
+            }
+
+            final StringWriter sw = new StringWriter();
+            sw.write("<?xml version=\"1.0\"?>\n");
+            sw.write("<!-- NOTE!!!!!!!!!!!!!!!!!!!\n");
+            sw.write("The order in which these services are specified is important - for example, Eventd\n");
+            sw.write("will need to come up last so that none of the event topic subcribers loose any event.\n");
+            sw.write("\nWhen splitting services to run on mutiple VMs, the order of the services should be\n");
+            sw.write("maintained\n");
+            sw.write("-->\n");
+            JaxbUtils.marshal(currentCfg, sw);
+            final FileWriter fw = new FileWriter(configFile);
+            fw.write(sw.toString());
+            fw.close();
+        } catch (final Exception e) {
+            throw new OnmsUpgradeException("Can't fix services configuration because " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the service.
+     *
+     * @param svcConfig the service configuration object
+     * @param serviceName the service name
+     * @return the service
+     */
+    private static Service getService(ServiceConfiguration svcConfig, String serviceName) {
+        for(Service s : svcConfig.getServiceCollection()) {
+            if (s.getName().equals(serviceName)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the value of an attribute of a service.
+     *
+     * @param svc the service
+     * @param attributeName the attribute name
+     * @return the attribute value, or null if the service has no such attribute
+     */
+    private static String getAttribute(Service svc, String attributeName) {
+        for (Attribute a : svc.getAttributeCollection()) {
+            if (a.getName().equals(attributeName)) {
+                return a.getValue() == null ? null : a.getValue().getContent();
+            }
+        }
+        return null;
+    }
+}
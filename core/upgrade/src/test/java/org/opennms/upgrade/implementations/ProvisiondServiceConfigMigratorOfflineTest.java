@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.upgrade.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.opennms.core.utils.ConfigFileConstants;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.config.service.Service;
+import org.opennms.netmgt.config.service.ServiceConfiguration;
+
+/**
+ * The Test Class for ProvisiondServiceConfigMigratorOffline.
+ */
+@RunWith(Parameterized.class)
+public class ProvisiondServiceConfigMigratorOfflineTest {
+    private final String m_testFile;
+
+    public ProvisiondServiceConfigMigratorOfflineTest(final String testFile) {
+        m_testFile = testFile;
+    }
+
+    /**
+     * Sets up the test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.copyDirectory(new File("src/test/resources/etc"), new File("target/home/etc"));
+        System.setProperty("opennms.home", "target/home");
+        FileUtils.copyFile(new File(m_testFile), new File("target/home/etc/service-configuration.xml"));
+    }
+
+    /**
+     * Tear down the test.
+     *
+     * @throws Exception the exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(new File("target/home"));
+    }
+
+    @Parameters
+    public static Collection<Object[]> params() {
+        return Arrays.asList(new Object[][] {
+            { "target/home/etc/service-configuration-1.8.17.xml" },
+            { "target/home/etc/service-configuration-1.10.14.xml" },
+            { "target/home/etc/service-configuration-1.12.9.xml" },
+            { "target/home/etc/service-configuration-14.0.3.xml" },
+            { "target/home/etc/service-configuration-15.0.2.xml" },
+            { "target/home/etc/service-configuration-16.0.4.xml" }
+        });
+    }
+
+    /**
+     * Test fixing the configuration file.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testUpgradeConfig() throws Exception {
+        final File cfgFile = ConfigFileConstants.getFile(ConfigFileConstants.SERVICE_CONF_FILE_NAME);
+        final int totalBefore = JaxbUtils.unmarshal(ServiceConfiguration.class, cfgFile).getServiceCount();
+
+        // perform the upgrade twice, the second run must not change anything
+        new ProvisiondServiceConfigMigratorOffline().execute();
+        new ProvisiondServiceConfigMigratorOffline().execute();
+
+        final ServiceConfiguration cfg = JaxbUtils.unmarshal(ServiceConfiguration.class, cfgFile);
+        assertEquals(totalBefore, cfg.getServiceCount());
+
+        Service provisiond = null;
+        for (final Service svc : cfg.getServiceCollection()) {
+            if ("OpenNMS:Name=Provisiond".equals(svc.getName())) {
+                provisiond = svc;
+            }
+        }
+        assertNotNull(provisiond);
+        assertEquals("org.opennms.netmgt.provision.service.jmx.Provisiond", provisiond.getClassName());
+        assertEquals(0, provisiond.getAttributeCount());
+        assertEquals(4, provisiond.getInvokeCount());
+    }
+
+}
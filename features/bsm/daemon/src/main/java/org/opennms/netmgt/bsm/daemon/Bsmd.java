@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.bsm.daemon;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Executors;
@@ -39,6 +40,7 @@ import org.opennms.netmgt.bsm.service.BusinessServiceStateChangeHandler;
 import org.opennms.netmgt.bsm.service.BusinessServiceStateMachine;
 import org.opennms.netmgt.bsm.service.internal.AlarmWrapperImpl;
 import org.opennms.netmgt.bsm.service.internal.SeverityMapper;
+import org.opennms.netmgt.bsm.service.model.AlarmWrapper;
 import org.opennms.netmgt.bsm.service.model.BusinessService;
 import org.opennms.netmgt.bsm.service.model.Status;
 import org.opennms.netmgt.config.api.EventConfDao;
@@ -135,7 +137,12 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
                     m_template.execute(new TransactionCallbackWithoutResult() {
                         @Override
                         protected void doInTransactionWithoutResult(TransactionStatus status) {
-                            m_alarmDao.findAll().forEach(alarm -> handleAlarm(alarm));
+                            final List<AlarmWrapper> alarms = new ArrayList<>();
+                            for (OnmsAlarm alarm : m_alarmDao.findAll()) {
+                                alarms.add(new AlarmWrapperImpl(alarm));
+                            }
+                            // Apply all of the alarms in a single batch
+                            m_stateMachine.handleNewOrUpdatedAlarms(alarms);
                         }
                     });
                 } catch (Exception ex) {
@@ -95,6 +95,16 @@ public interface BusinessServiceStateMachine {
      */
     void handleNewOrUpdatedAlarm(AlarmWrapper alarm);
 
+    /**
+     * Updates the states of the Business Services using a batch of alarms.
+     *
+     * Every affected vertex is reduced at most once per batch, and the state
+     * change handlers are notified at most once per Business Service.
+     *
+     * @param alarms alarms to apply, if multiple alarms share the same reduction key the last one wins
+     */
+    void handleNewOrUpdatedAlarms(List<AlarmWrapper> alarms);
+
     /**
      * Registers a state change handler.
      *
@@ -33,15 +33,20 @@ import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -58,6 +63,7 @@ import org.opennms.netmgt.bsm.service.model.BusinessService;
 import org.opennms.netmgt.bsm.service.model.IpService;
 import org.opennms.netmgt.bsm.service.model.Status;
 import org.opennms.netmgt.bsm.service.model.edge.Edge;
+import org.opennms.netmgt.bsm.service.model.functions.annotations.Parameter;
 import org.opennms.netmgt.bsm.service.model.functions.reduce.Threshold;
 import org.opennms.netmgt.bsm.service.model.functions.reduce.ThresholdResultExplanation;
 import org.opennms.netmgt.bsm.service.model.graph.BusinessServiceGraph;
@@ -70,7 +76,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 
 import edu.uci.ics.jung.algorithms.layout.KKLayout;
@@ -80,6 +88,7 @@ import edu.uci.ics.jung.visualization.VisualizationImageServer;
 public class DefaultBusinessServiceStateMachine implements BusinessServiceStateMachine {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBusinessServiceStateMachine.class);
     public static final Status MIN_SEVERITY = Status.NORMAL;
+    private static final Map<Class<?>, List<Field>> PARAMETER_FIELDS_BY_CLASS = new ConcurrentHashMap<>();
 
     @Autowired
     private AlarmProvider m_alarmProvider;
@@ -95,17 +104,27 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             // Create a new graph
             BusinessServiceGraph g = new BusinessServiceGraphImpl(businessServices);
 
-            // Prime the graph with the state from the previous graph and
-            // keep track of the new reductions keys
+            // Prime the graph with the state from the previous graph, and only
+            // reduce the vertices that are new or whose definition has changed.
+            // Keep track of the new reductions keys
+            Propagation propagation = new Propagation(g);
             Set<String> reductionsKeysToLookup = Sets.newHashSet();
-            for (String reductionKey : g.getReductionKeys()) {
-                GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
-                if (reductionKeyVertex != null) {
-                    updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
+            for (GraphVertex vertex : g.getVertices()) {
+                GraphVertex previousVertex = getVertexFromPreviousGraph(vertex);
+                if (previousVertex != null) {
+                    vertex.setStatus(previousVertex.getStatus());
+                    if (!equalsDefinition(g, vertex, m_g, previousVertex)) {
+                        propagation.reduce(vertex);
+                    }
+                } else if (vertex.getReductionKey() != null) {
+                    reductionsKeysToLookup.add(vertex.getReductionKey());
                 } else {
-                    reductionsKeysToLookup.add(reductionKey);
+                    propagation.reduce(vertex);
                 }
             }
+            for (GraphEdge edge : g.getEdges()) {
+                edge.setStatus(mapStatus(edge, g.getDest(edge).getStatus()));
+            }
 
             if (m_alarmProvider == null && reductionsKeysToLookup.size() > 0) {
                 LOG.warn("There are one or more reduction keys to lookup, but no alarm provider is set.");
@@ -116,10 +135,11 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                 for (String reductionKey : reductionsKeysToLookup) {
                     AlarmWrapper alarm = m_alarmProvider.lookup(reductionKey);
                     if (alarm != null) {
-                        updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), alarm.getStatus());
+                        propagation.update(g.getVertexByReductionKey(reductionKey), alarm.getStatus());
                     }
                 }
             }
+            propagation.propagate();
             m_g = g;
         } finally {
             m_rwLock.writeLock().unlock();
@@ -128,76 +148,186 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
+        handleNewOrUpdatedAlarms(Collections.singletonList(alarm));
+    }
+
+    @Override
+    public void handleNewOrUpdatedAlarms(List<AlarmWrapper> alarms) {
         m_rwLock.writeLock().lock();
         try {
-            // Recursively propagate the status
-            updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+            // Update the reduction keys first, and propagate the statuses once
+            Propagation propagation = new Propagation(m_g);
+            for (AlarmWrapper alarm : alarms) {
+                propagation.update(m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+            }
+            propagation.propagate();
         } finally {
             m_rwLock.writeLock().unlock();
         }
     }
 
-    private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
-        if (vertex == null) {
-            // Nothing to do here
-            return;
+    /**
+     * Propagates a batch of status updates through a graph.
+     *
+     * Vertices whose children changed are reduced level by level, starting
+     * at the bottom of the hierarchy. Since a parent always has a lower level
+     * than any of its children, every vertex is reduced at most once per batch,
+     * no matter how many of its descendants were updated.
+     */
+    private class Propagation {
+        private final BusinessServiceGraph m_graph;
+        private final TreeMap<Integer, Set<GraphVertex>> m_verticesToReduceByLevel = new TreeMap<>(Collections.reverseOrder());
+        private final Map<GraphVertex, Status> m_previousStatuses = new LinkedHashMap<>();
+
+        private Propagation(BusinessServiceGraph graph) {
+            m_graph = graph;
         }
 
-        // Apply lower bound
-        newStatus = newStatus.isLessThan(MIN_SEVERITY) ? MIN_SEVERITY : newStatus;
+        private void update(GraphVertex vertex, Status newStatus) {
+            if (vertex == null) {
+                // Nothing to do here
+                return;
+            }
+
+            // Apply lower bound
+            newStatus = newStatus.isLessThan(MIN_SEVERITY) ? MIN_SEVERITY : newStatus;
 
-        // Update the status if necessary
-        Status previousStatus = vertex.getStatus();
-        if (previousStatus.equals(newStatus)) {
-            // The status hasn't changed, there's nothing to propagate
-            return;
+            // Update the status if necessary
+            Status previousStatus = vertex.getStatus();
+            if (previousStatus.equals(newStatus)) {
+                // The status hasn't changed, there's nothing to propagate
+                return;
+            }
+            if (!m_previousStatuses.containsKey(vertex)) {
+                m_previousStatuses.put(vertex, previousStatus);
+            }
+            vertex.setStatus(newStatus);
+
+            // Update the edges with the mapped status
+            for (GraphEdge edge : m_graph.getInEdges(vertex)) {
+                Status mappedStatus = mapStatus(edge, newStatus);
+                if (mappedStatus.equals(edge.getStatus())) {
+                    // The status hasn't changed
+                    continue;
+                }
+
+                // Update the status and reduce the parent once all of its children are up to date
+                edge.setStatus(mappedStatus);
+                reduce(m_graph.getOpposite(vertex, edge));
+            }
         }
-        vertex.setStatus(newStatus);
-
-        // Notify the listeners
-        onStatusUpdated(graph, vertex, previousStatus);
-
-        // Update the edges with the mapped status
-        List<GraphEdge> updatedEges = Lists.newArrayList();
-        for (GraphEdge edge : graph.getInEdges(vertex)) {
-            Status mappedStatus = newStatus;
-            if (newStatus.isGreaterThan(MIN_SEVERITY)) {
-                // Only apply the map function when the status is > the minimum
-                mappedStatus = edge.getMapFunction().map(newStatus).orElse(MIN_SEVERITY);
-            } else {
-                mappedStatus = newStatus;
+
+        private void reduce(GraphVertex vertex) {
+            Set<GraphVertex> verticesAtLevel = m_verticesToReduceByLevel.get(vertex.getLevel());
+            if (verticesAtLevel == null) {
+                verticesAtLevel = Sets.newLinkedHashSet();
+                m_verticesToReduceByLevel.put(vertex.getLevel(), verticesAtLevel);
+            }
+            verticesAtLevel.add(vertex);
+        }
+
+        private void propagate() {
+            Entry<Integer, Set<GraphVertex>> entry;
+            while ((entry = m_verticesToReduceByLevel.pollFirstEntry()) != null) {
+                for (GraphVertex vertex : entry.getValue()) {
+                    // Calculate the weighed statuses from the child edges
+                    List<Status> statuses = weighStatuses(m_graph.getOutEdges(vertex));
+
+                    // Reduce
+                    Status newStatus = vertex.getReductionFunction().reduce(statuses).orElse(MIN_SEVERITY);
+
+                    // Update and schedule the parents
+                    update(vertex, newStatus);
+                }
             }
 
-            if (mappedStatus.equals(edge.getStatus())) {
-                // The status hasn't changed
-                continue;
+            // Notify the listeners once per vertex
+            for (Entry<GraphVertex, Status> previous : m_previousStatuses.entrySet()) {
+                if (!previous.getKey().getStatus().equals(previous.getValue())) {
+                    onStatusUpdated(m_graph, previous.getKey(), previous.getValue());
+                }
             }
+        }
+    }
 
-            // Update the status and add it to the list of edges to propagate
-            edge.setStatus(mappedStatus);
-            updatedEges.add(edge);
+    private static Status mapStatus(GraphEdge edge, Status status) {
+        if (status.isGreaterThan(MIN_SEVERITY)) {
+            // Only apply the map function when the status is > the minimum
+            return edge.getMapFunction().map(status).orElse(MIN_SEVERITY);
         }
+        return status;
+    }
 
-        // Propagate once all of the edges have been updated
-        for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
+    private GraphVertex getVertexFromPreviousGraph(GraphVertex vertex) {
+        if (vertex.getBusinessService() != null) {
+            return m_g.getVertexByBusinessServiceId(vertex.getBusinessService().getId());
+        } else if (vertex.getIpService() != null) {
+            return m_g.getVertexByIpServiceId(vertex.getIpService().getId());
+        } else if (vertex.getReductionKey() != null) {
+            return m_g.getVertexByReductionKey(vertex.getReductionKey());
         }
+        return null;
     }
 
-    private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
-        if (vertex == null) {
-            // Nothing to do here
-            return;
+    /**
+     * Determines whether or not the two vertices reduce the same inputs in the same way,
+     * in which case the status of the vertex in the previous graph can be reused as-is.
+     */
+    private static boolean equalsDefinition(BusinessServiceGraph graph, GraphVertex vertex, BusinessServiceGraph previousGraph, GraphVertex previousVertex) {
+        if (graph.outDegree(vertex) != previousGraph.outDegree(previousVertex)
+                || !getDefinition(vertex.getReductionFunction()).equals(getDefinition(previousVertex.getReductionFunction()))) {
+            return false;
         }
+        return getOutEdgeDefinitions(graph, vertex).equals(getOutEdgeDefinitions(previousGraph, previousVertex));
+    }
 
-        // Calculate the weighed statuses from the child edges
-        List<Status> statuses = weighStatuses(graph.getOutEdges(vertex));
+    private static Multiset<List<Object>> getOutEdgeDefinitions(BusinessServiceGraph graph, GraphVertex vertex) {
+        final Multiset<List<Object>> definitions = HashMultiset.create();
+        for (GraphEdge edge : graph.getOutEdges(vertex)) {
+            final GraphVertex child = graph.getDest(edge);
+            definitions.add(Arrays.asList(
+                    child.getBusinessService() != null ? child.getBusinessService().getId() : null,
+                    child.getIpService() != null ? child.getIpService().getId() : null,
+                    child.getReductionKey(),
+                    edge.getWeight(),
+                    getDefinition(edge.getMapFunction())));
+        }
+        return definitions;
+    }
 
-        // Reduce
-        Status newStatus = vertex.getReductionFunction().reduce(statuses).orElse(MIN_SEVERITY);
+    /**
+     * Functions do not implement equals(), so we compare them using their type
+     * and the values of their {@link Parameter} annotated fields instead.
+     */
+    private static List<Object> getDefinition(Object function) {
+        final List<Object> definition = Lists.newArrayList();
+        if (function == null) {
+            return definition;
+        }
+        definition.add(function.getClass());
+        for (Field field : getParameterFields(function.getClass())) {
+            try {
+                definition.add(field.get(function));
+            } catch (IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return definition;
+    }
 
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
+    private static List<Field> getParameterFields(Class<?> functionClass) {
+        return PARAMETER_FIELDS_BY_CLASS.computeIfAbsent(functionClass, c -> {
+            final List<Field> fields = Lists.newArrayList();
+            for (Class<?> clazz = c; clazz != null; clazz = clazz.getSuperclass()) {
+                for (Field field : clazz.getDeclaredFields()) {
+                    if (field.isAnnotationPresent(Parameter.class)) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields;
+        });
     }
 
     public static List<Status> weighStatuses(Collection<GraphEdge> edges) {
@@ -421,9 +551,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
             // Prime the state
             if (preserveState) {
+                final List<AlarmWrapper> alarms = Lists.newArrayList();
                 for (String reductionKey : graph.getReductionKeys()) {
                     GraphVertex reductionKeyVertex = graph.getVertexByReductionKey(reductionKey);
-                    sm.handleNewOrUpdatedAlarm(new AlarmWrapper() {
+                    alarms.add(new AlarmWrapper() {
                         @Override
                         public String getReductionKey() {
                             return reductionKey;
@@ -440,6 +571,7 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                         }
                     });
                 }
+                sm.handleNewOrUpdatedAlarms(alarms);
             }
             return sm;
         } finally {
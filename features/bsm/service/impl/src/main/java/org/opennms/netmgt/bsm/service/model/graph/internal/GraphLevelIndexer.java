@@ -63,7 +63,11 @@ public class GraphLevelIndexer<V, E> {
     private void determineLevel(final int level, final Hypergraph<V, E> graph, final Collection<V> vertices) {
         for (V eachVertex : vertices) {
             if (graph.containsVertex(eachVertex)) {
-                levelMap.put(eachVertex, Math.max(level, levelMap.get(eachVertex).intValue()));
+                // The levels of the successors can only change if the level of this vertex did
+                if (level <= levelMap.get(eachVertex).intValue()) {
+                    continue;
+                }
+                levelMap.put(eachVertex, level);
                 verticesIndexedSet.add(eachVertex);
                 determineLevel(level + 1, graph, graph.getSuccessors(eachVertex));
             }
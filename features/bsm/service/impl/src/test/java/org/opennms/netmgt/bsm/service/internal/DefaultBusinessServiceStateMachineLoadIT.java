@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.bsm.service.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.netmgt.bsm.mock.MockAlarmWrapper;
+import org.opennms.netmgt.bsm.mock.MockBusinessServiceHierarchy;
+import org.opennms.netmgt.bsm.mock.MockBusinessServiceHierarchy.HierarchyBuilder;
+import org.opennms.netmgt.bsm.mock.MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder;
+import org.opennms.netmgt.bsm.service.model.AlarmWrapper;
+import org.opennms.netmgt.bsm.service.model.BusinessService;
+import org.opennms.netmgt.bsm.service.model.Status;
+import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Measures the time taken to propagate alarms and to reload
+ * the state machine with a large number of business services that
+ * share reduction keys.
+ */
+public class DefaultBusinessServiceStateMachineLoadIT {
+
+    private static final int NUM_PARENTS = 200;
+
+    private static final int NUM_CHILDREN_PER_PARENT = 100;
+
+    private static final int NUM_REDUCTION_KEYS = 10000;
+
+    private static final int NUM_REDUCTION_KEYS_PER_CHILD = 5;
+
+    @Test
+    public void canHandleLargeHierarchies() {
+        final MockBusinessServiceHierarchy h = createHierarchy(0);
+        final DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        final LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+
+        final List<BusinessService> businessServices = h.getBusinessServices();
+        long start = System.currentTimeMillis();
+        stateMachine.setBusinessServices(businessServices);
+        System.err.println(String.format("Loaded %d business services in %dms.",
+                h.getBusinessServices().size(), System.currentTimeMillis() - start));
+
+        // Send the alarms one at a time
+        start = System.currentTimeMillis();
+        for (AlarmWrapper alarm : createAlarms(Status.MAJOR)) {
+            stateMachine.handleNewOrUpdatedAlarm(alarm);
+        }
+        System.err.println(String.format("Handled %d alarms one at a time in %dms, generating %d state changes.",
+                NUM_REDUCTION_KEYS, System.currentTimeMillis() - start, stateChangeHandler.getStateChanges().size()));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+
+        // Send the alarms in a single batch
+        stateChangeHandler.getStateChanges().clear();
+        start = System.currentTimeMillis();
+        stateMachine.handleNewOrUpdatedAlarms(createAlarms(Status.CRITICAL));
+        System.err.println(String.format("Handled %d alarms in a single batch in %dms, generating %d state changes.",
+                NUM_REDUCTION_KEYS, System.currentTimeMillis() - start, stateChangeHandler.getStateChanges().size()));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(NUM_PARENTS * (NUM_CHILDREN_PER_PARENT + 1), stateChangeHandler.getStateChanges().size());
+
+        // Reload without any changes
+        stateChangeHandler.getStateChanges().clear();
+        final List<BusinessService> unchanged = createHierarchy(0).getBusinessServices();
+        start = System.currentTimeMillis();
+        stateMachine.setBusinessServices(unchanged);
+        System.err.println(String.format("Reloaded %d unchanged business services in %dms.",
+                h.getBusinessServices().size(), System.currentTimeMillis() - start));
+        assertEquals(0, stateChangeHandler.getStateChanges().size());
+
+        // Reload with a different set of reduction keys
+        final List<BusinessService> changed = createHierarchy(1).getBusinessServices();
+        start = System.currentTimeMillis();
+        stateMachine.setBusinessServices(changed);
+        System.err.println(String.format("Reloaded %d changed business services in %dms.",
+                h.getBusinessServices().size(), System.currentTimeMillis() - start));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+    }
+
+    private static MockBusinessServiceHierarchy createHierarchy(int offset) {
+        final HierarchyBuilder builder = MockBusinessServiceHierarchy.builder();
+        long edgeId = 0;
+        for (int i = 0; i < NUM_PARENTS; i++) {
+            final long parentId = i + 1;
+            final BusinessServiceBuilder parent = builder.withBusinessService(parentId);
+            for (int j = 0; j < NUM_CHILDREN_PER_PARENT; j++) {
+                final long childId = NUM_PARENTS + i * NUM_CHILDREN_PER_PARENT + j + 1;
+                final BusinessServiceBuilder child = parent.withBusinessService(childId);
+                for (int k = 0; k < NUM_REDUCTION_KEYS_PER_CHILD; k++) {
+                    child.withReductionKey(++edgeId, "rk" + ((childId * (k + 1) + offset) % NUM_REDUCTION_KEYS));
+                }
+                child.commit();
+            }
+            parent.commit();
+        }
+        return builder.build();
+    }
+
+    private static List<AlarmWrapper> createAlarms(Status status) {
+        final List<AlarmWrapper> alarms = Lists.newArrayListWithCapacity(NUM_REDUCTION_KEYS);
+        for (int i = 0; i < NUM_REDUCTION_KEYS; i++) {
+            alarms.add(new MockAlarmWrapper("rk" + i, status));
+        }
+        return alarms;
+    }
+}
@@ -51,7 +51,9 @@ import org.opennms.netmgt.bsm.service.model.functions.reduce.HighestSeverityAbov
 import org.opennms.netmgt.bsm.service.model.functions.reduce.Threshold;
 import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler;
+import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler.StateChange;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class DefaultBusinessServiceStateMachineTest {
@@ -150,6 +152,114 @@ public class DefaultBusinessServiceStateMachineTest {
         assertEquals(1, stateChangeHandler.getStateChanges().size());
     }
 
+    @Test
+    public void canHandleBatchesOfAlarms() {
+        // Create a hierarchy where two business services share a reduction key
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withBusinessService(2)
+                        .withReductionKey(21, "a1")
+                        .withReductionKey(22, "a2")
+                    .commit()
+                    .withBusinessService(3)
+                        .withReductionKey(31, "a2")
+                        .withReductionKey(32, "a3")
+                    .commit()
+                .commit()
+                .build();
+
+        // Setup the state machine
+        BusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // Send a batch of alarms, a3 goes up and comes back down within the same batch
+        stateMachine.handleNewOrUpdatedAlarms(Lists.newArrayList(
+                new MockAlarmWrapper("a1", Status.MINOR),
+                new MockAlarmWrapper("a2", Status.MAJOR),
+                new MockAlarmWrapper("a3", Status.CRITICAL),
+                new MockAlarmWrapper("a3", Status.NORMAL)));
+
+        // Verify the state
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(2)));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(3)));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus("a3"));
+
+        // A single state change should have been generated for every business service
+        assertEquals(3, stateChangeHandler.getStateChanges().size());
+        for (StateChange stateChange : stateChangeHandler.getStateChanges()) {
+            assertEquals(Status.NORMAL, stateChange.getPrevSeverity());
+            assertEquals(Status.MAJOR, stateChange.getNewSeverity());
+        }
+    }
+
+    @Test
+    public void canReloadTheStateMachineWithChangedReductionFunctions() {
+        // Create a simple hierarchy
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withBusinessService(2)
+                        .withReductionKey(21, "a1")
+                    .commit()
+                .commit()
+                .build();
+
+        // Setup the state machine
+        BusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.MINOR));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(2, stateChangeHandler.getStateChanges().size());
+
+        // Only consider statuses above MINOR on b2, and reload
+        HighestSeverityAbove highestSeverityAbove = new HighestSeverityAbove();
+        highestSeverityAbove.setThreshold(Status.MINOR);
+        h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withBusinessService(2)
+                        .withReductionFunction(highestSeverityAbove)
+                        .withReductionKey(21, "a1")
+                    .commit()
+                .commit()
+                .build();
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // The change should be reflected all the way up the hierarchy
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus("a1"));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(2)));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(4, stateChangeHandler.getStateChanges().size());
+
+        // Reload again using an equivalent function, nothing should change
+        highestSeverityAbove = new HighestSeverityAbove();
+        highestSeverityAbove.setThreshold(Status.MINOR);
+        h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withBusinessService(2)
+                        .withReductionFunction(highestSeverityAbove)
+                        .withReductionKey(21, "a1")
+                    .commit()
+                .commit()
+                .build();
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(4, stateChangeHandler.getStateChanges().size());
+
+        // Remove the business service and reload
+        h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionKey(11, "a1")
+                .commit()
+                .build();
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+        assertEquals(5, stateChangeHandler.getStateChanges().size());
+    }
+
     @Test
     public void canPerformRootCauseAndImpactAnalysis() {
         // Create a hierarchy using all of the available reduction functions
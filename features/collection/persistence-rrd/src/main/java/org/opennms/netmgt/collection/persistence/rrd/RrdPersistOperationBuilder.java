@@ -53,6 +53,7 @@ import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUpdateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
@@ -211,7 +212,13 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
             List<RrdDataSource> dataSources = getDataSources();
             if (dataSources != null && dataSources.size() > 0) {
                 createRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, getRepository().getStep(), dataSources, getRepository().getRraList(), m_metaData);
-                updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+                final double[] values = getValues();
+                if (values != null) {
+                    updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), values, null);
+                } else {
+                    // some value would lose precision as a double so hand it over as text
+                    updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), null, getValuesAsString());
+                }
             }
         } catch (FileNotFoundException e) {
             LoggerFactory.getLogger(getClass()).warn("Could not get resource directory: " + e.getMessage(), e);
@@ -221,7 +228,26 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         }
     }
 
-    private String getValues() {
+    /**
+     * Returns the values in declaration order, with NaN for unknown values,
+     * or null if some value cannot be represented exactly as a double.
+     */
+    private double[] getValues() {
+        final double[] values = new double[m_declarations.size()];
+        int i = 0;
+        for (Number value : m_declarations.values()) {
+            if (value == null) {
+                values[i++] = Double.NaN;
+            } else if (RrdUpdateUtils.isExactDouble(value)) {
+                values[i++] = value.doubleValue();
+            } else {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    private String getValuesAsString() {
         boolean first = true;
         StringBuffer values = new StringBuffer();
         for (Iterator<CollectionAttributeType> iter = m_declarations.keySet().iterator(); iter.hasNext();) {
@@ -299,25 +325,32 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
      * @param rrdName the name for the rrd file.
      * @param timestamp the timestamp in millis to use for the rrd update (this
      * gets rounded to the nearest second)
+     * @param values the values for the datasources of this rrd, or null if
+     * val should be used instead
      * @param val a colon separated list of values representing the updates for
-     * datasources for this rrd
+     * datasources for this rrd, only used when values is null
      * @throws org.opennms.netmgt.rrd.RrdException if any.
      */
-    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, String val) throws RrdException {
+    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, double[] values, String val) throws RrdException {
         // Issue the RRD update
         String rrdFile = repositoryDir + File.separator + rrdName + rrdStrategy.getDefaultFileExtension();
         long time = (timestamp + 500L) / 1000L;
 
-        String updateVal = Long.toString(time) + ":" + val;
-
-        LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, updateVal);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, toUpdateString(time, values, val));
+        }
 
         RrdStrategy<Object, Object> strategy = toGenericType(rrdStrategy);
         Object rrd = null;
         try {
             rrd = strategy.openFile(rrdFile);
-            strategy.updateFile(rrd, owner, updateVal);
+            if (values != null) {
+                strategy.updateFile(rrd, owner, time, values);
+            } else {
+                strategy.updateFile(rrd, owner, toUpdateString(time, null, val));
+            }
         } catch (Throwable e) {
+            final String updateVal = toUpdateString(time, values, val);
             LOG.error("updateRRD: Error updating RRD file {} with values '{}'", rrdFile, updateVal, e);
             throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " with values '" + updateVal + "': " + e, e);
         } finally {
@@ -334,6 +367,10 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         LOG.debug("updateRRD: RRD update command completed.");
     }
 
+    private static String toUpdateString(long time, double[] values, String val) {
+        return values != null ? RrdUpdateUtils.formatUpdate(time, values) : Long.toString(time) + ":" + val;
+    }
+
     @SuppressWarnings("unchecked")
     private static RrdStrategy<Object, Object> toGenericType(RrdStrategy<?, ?> rrdStrategy) {
         Assert.notNull(rrdStrategy);
@@ -29,27 +29,22 @@
 package org.opennms.netmgt.discovery.actors;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
+import org.opennms.core.utils.IteratorUtils;
 import org.opennms.netmgt.discovery.messages.DiscoveryJob;
 import org.opennms.netmgt.discovery.messages.DiscoveryResults;
-import org.opennms.netmgt.icmp.EchoPacket;
-import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.Pinger;
-import org.opennms.netmgt.model.discovery.IPPollAddress;
+import org.opennms.netmgt.model.discovery.IPPollRange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.RateLimiter;
 
 /**
  * <p>This class processes a {@link DiscoveryJob} by executing ICMP pings against
@@ -72,94 +67,37 @@ public class Discoverer {
     }
 
     public DiscoveryResults discover(DiscoveryJob job) {
-        // Track the results of this particular job
-        final PingResponseTracker tracker = new PingResponseTracker();
-
-        // Filter out any entries where getAddress() == null
-        List<IPPollAddress> addresses = StreamSupport.stream(job.getAddresses().spliterator(), false)
-            .filter(j -> j.getAddress() != null)
-            .collect(Collectors.toList());
-
-        // Expect callbacks for all of the addresses before issuing any pings
-        addresses.stream()
-            .map(a -> a.getAddress())
-            .forEach(a -> tracker.expectCallbackFor(a));
-
-        // Use a RateLimiter to limit the ping packets per second that we send
-        RateLimiter limiter = RateLimiter.create(job.getPacketsPerSecond());
-
-        // Issue all of the pings
-        addresses.stream().forEach(a -> {
-            limiter.acquire();
-            ping(a, tracker);
-        });
+        final Map<InetAddress, Long> responses = Maps.newConcurrentMap();
+
+        // Sweep the addresses of consecutive ranges with the same timeout and
+        // retries together, the addresses are generated as they are pinged
+        final List<IPPollRange> ranges = new ArrayList<>(job.getRanges());
+        int first = 0;
+        while (first < ranges.size()) {
+            final long timeout = ranges.get(first).getTimeout();
+            final int retries = ranges.get(first).getRetries();
+            final List<Iterator<InetAddress>> addresses = new ArrayList<>();
+            int next = first;
+            while (next < ranges.size() && ranges.get(next).getTimeout() == timeout && ranges.get(next).getRetries() == retries) {
+                addresses.add(ranges.get(next).getAddressRange().iterator());
+                next++;
+            }
+            first = next;
 
-        // Don't bother waiting if there aren't any addresses
-        if (!addresses.isEmpty()) {
-            // Wait for the pings to complete
             try {
-                tracker.getLatch().await();
+                m_pinger.sweep(IteratorUtils.concatIterators(addresses).iterator(), timeout, retries, job.getPacketsPerSecond(), (replies, responseTimes, count) -> {
+                    for (int i = 0; i < count; i++) {
+                        responses.put(replies[i], responseTimes[i]);
+                    }
+                });
             } catch (InterruptedException e) {
                 throw Throwables.propagate(e);
+            } catch (Throwable e) {
+                LOG.debug("Error sweeping addresses with timeout {} and retries {}", timeout, retries, e);
             }
         }
 
         // We're done
-        return new DiscoveryResults(tracker.getResponses(), job.getForeignSource(), job.getLocation());
-    }
-
-    private void ping(IPPollAddress pollAddress, PingResponseTracker tracker) {
-        InetAddress address = pollAddress.getAddress();
-        try {
-            m_pinger.ping(address, pollAddress.getTimeout(), pollAddress.getRetries(), (short) 1, tracker);
-        } catch (Throwable e) {
-            LOG.debug("Error pinging {}", address.getAddress(), e);
-            tracker.handleError(address, null, e);
-        }
-    }
-
-    private static class PingResponseTracker implements PingResponseCallback {
-        private final Set<InetAddress> waitingFor = Sets.newConcurrentHashSet();
-        private final Map<InetAddress, Long> m_responses = Maps.newConcurrentMap();
-        private final CountDownLatch m_doneSignal = new CountDownLatch(1);
-
-        public void expectCallbackFor(InetAddress address) {
-            waitingFor.add(address);
-        }
-
-        @Override
-        public void handleResponse(InetAddress address, EchoPacket response) {
-            if (response != null) {
-                m_responses.put(address, response.getReceivedTimeNanos() - response.getSentTimeNanos());
-            }
-            afterHandled(address);
-        }
-
-        @Override
-        public void handleTimeout(InetAddress address, EchoPacket request) {
-            LOG.debug("Request timed out: {}", address);
-            afterHandled(address);
-        }
-
-        @Override
-        public void handleError(InetAddress address, EchoPacket request, Throwable t) {
-            LOG.debug("Request timed out: {}", address);
-            afterHandled(address);
-        }
-
-        private void afterHandled(InetAddress address) {
-            waitingFor.remove(address);
-            if (waitingFor.isEmpty()) {
-                m_doneSignal.countDown();
-            }
-        }
-
-        public CountDownLatch getLatch() {
-            return m_doneSignal;
-        }
-
-        public Map<InetAddress, Long> getResponses() {
-            return m_responses;
-        }
+        return new DiscoveryResults(responses, job.getForeignSource(), job.getLocation());
     }
 }
@@ -77,9 +77,6 @@ public class DiscoveryJob implements Serializable {
         Preconditions.checkState(m_ranges.stream().allMatch(range -> range.getLocation() == null || m_location.equals(range.getLocation())));
     }
 
-    /**
-     * For testing.
-     */
     public Collection<IPPollRange> getRanges() {
         return Collections.unmodifiableCollection(m_ranges);
     }
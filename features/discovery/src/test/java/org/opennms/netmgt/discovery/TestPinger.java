@@ -29,11 +29,14 @@
 package org.opennms.netmgt.discovery;
 
 import java.net.InetAddress;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import org.opennms.netmgt.icmp.CallbackPingSweep;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepCallback;
 import org.opennms.netmgt.icmp.Pinger;
 
 public class TestPinger implements Pinger {
@@ -112,6 +115,11 @@ public class TestPinger implements Pinger {
 		return null;
 	}
 
+	@Override
+	public void sweep(Iterator<InetAddress> addresses, long timeout, int retries, double packetsPerSecond, PingSweepCallback cb) throws Exception {
+		CallbackPingSweep.sweep(this, addresses, timeout, retries, packetsPerSecond, cb);
+	}
+
 	@Override
 	public void initialize4() throws Exception {
 	}
@@ -412,6 +412,11 @@ public abstract class EventConstants {
      */
     public static final String CONFIGURE_SNMP_EVENT_UEI = "uei.opennms.org/internal/configureSNMP";
 
+    /**
+     * Traps that were suppressed by the Trapd storm limiter.
+     */
+    public static final String TRAPS_SUPPRESSED_EVENT_UEI = "uei.opennms.org/internal/trapd/trapsSuppressed";
+
     /**
      * Collection failed.
      */
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.events.api;
+
+/**
+ * An {@link EventListener} that can handle events for different nodes
+ * concurrently.
+ *
+ * Events are dispatched to one of {@link #getNumShards()} threads based on
+ * their node id, so that all of the events for a given node are still
+ * delivered in the order in which they were broadcast. Events without a
+ * node id are all handled by the same thread.
+ */
+public interface ShardedEventListener extends EventListener {
+
+    /**
+     * Returns the number of threads used to deliver events to this listener.
+     *
+     * @return the number of threads, values smaller than 1 are treated as 1
+     */
+    public int getNumShards();
+}
@@ -558,10 +558,16 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
      * expansion.
      * </p>
      *
+     * <p>
+     * This method does not hold any locks: the event configuration is only
+     * read, and the {@link EventConfDao} publishes a new snapshot when it is
+     * reloaded, so the Eventd handler threads can expand events concurrently.
+     * </p>
+     *
      * @param e
      *            The event to expand if necessary.
      */
-    public synchronized void expandEvent(Event e) {
+    public void expandEvent(Event e) {
         org.opennms.netmgt.xml.eventconf.Event econf = lookup(m_eventConfDao, e);
 
         if (econf != null) {
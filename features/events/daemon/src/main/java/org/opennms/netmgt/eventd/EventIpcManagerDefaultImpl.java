@@ -32,11 +32,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
@@ -50,15 +55,25 @@ import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.events.api.EventProxyException;
+import org.opennms.netmgt.events.api.ShardedEventListener;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * An implementation of the EventIpcManager interface that can be used to
  * communicate between services in the same JVM
@@ -66,11 +81,59 @@ import org.springframework.util.StringUtils;
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
-public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroadcaster, InitializingBean {
+public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroadcaster, InitializingBean, DisposableBean {
     
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /**
+     * System property used to select the default {@link BackPressurePolicy}.
+     */
+    public static final String BACK_PRESSURE_POLICY_PROPERTY = "org.opennms.eventd.listener.backPressurePolicy";
+
+    /**
+     * System property used to set the maximum length of the queue of a
+     * listener when the {@link BackPressurePolicy#SPILL} policy is used.
+     */
+    public static final String SPILL_QUEUE_LENGTH_PROPERTY = "org.opennms.eventd.listener.spillQueueLength";
+
+    /**
+     * The maximum length of a spilling queue, relative to the handler queue
+     * length, when {@link #SPILL_QUEUE_LENGTH_PROPERTY} is not set.
+     */
+    private static final int DEFAULT_SPILL_FACTOR = 10;
+
+    /**
+     * Upper bound for the number of UEIs for which the matching listeners are cached.
+     */
+    private static final int MAX_RESOLVED_UEIS = 10000;
+
+    private static final EventListenerExecutor[] NO_EXECUTORS = new EventListenerExecutor[0];
+
+    /**
+     * Determines what happens to an event when the queue of a listener is full.
+     */
+    public static enum BackPressurePolicy {
+        /**
+         * The broadcasting thread waits until there is room in the queue.
+         */
+        BLOCK,
+        /**
+         * The oldest event in the queue is discarded to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * The event is discarded.
+         */
+        DISCARD,
+        /**
+         * The event is queued anyway, and counted as spilled. The queue
+         * length only acts as a threshold in this case, and the event is
+         * discarded once the spill queue length is reached.
+         */
+        SPILL
+    }
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -109,6 +172,20 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
 
+    /**
+     * Immutable copy of the listener tables above, used to dispatch the events
+     * without holding the lock. Replaced whenever a listener is added or removed.
+     */
+    private volatile DispatchTable m_dispatchTable = new DispatchTable();
+
+    private BackPressurePolicy m_backPressurePolicy = BackPressurePolicy.valueOf(System.getProperty(BACK_PRESSURE_POLICY_PROPERTY, BackPressurePolicy.DISCARD.name()));
+
+    private Integer m_spillQueueLength = Integer.getInteger(SPILL_QUEUE_LENGTH_PROPERTY);
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private JmxReporter m_reporter;
+
     /**
      * The thread pool handling the events
      */
@@ -121,10 +198,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     private Integer m_handlerQueueLength;
 
     /**
-     * A thread dedicated to each listener. The events meant for each listener
-     * is added to an execution queue when the 'sendNow()' is called. The
-     * ListenerThread reads events off of this queue and sends them to the
+     * The threads dedicated to each listener. The events meant for each listener
+     * are added to an execution queue when 'broadcastNow()' is called. The
+     * listener threads read events off of these queues and send them to the
      * appropriate listener.
+     *
+     * Listeners implementing {@link ShardedEventListener} get one queue and
+     * thread per shard, and the events are assigned to the shards by node id.
      */
     private static class EventListenerExecutor {
         /**
@@ -133,62 +213,216 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         private final EventListener m_listener;
 
         /**
-         * The thread that is running this runnable.
+         * The queues of the shards, one per thread.
          */
-        private final ExecutorService m_delegateThread;
+        private final List<BlockingQueue<Event>> m_queues;
+
+        /**
+         * The threads that deliver the events.
+         */
+        private final ExecutorService m_delegateThreads;
+
+        private final BackPressurePolicy m_backPressurePolicy;
+
+        private final int m_queueLength;
+
+        private final Timer m_latency;
+
+        private final Meter m_dropped;
+
+        private final Meter m_spilled;
+
+        private volatile boolean m_running = true;
 
         /**
          * Constructor
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
+        EventListenerExecutor(EventListener listener, Integer handlerQueueLength, BackPressurePolicy backPressurePolicy, Integer spillQueueLength, MetricRegistry metrics) {
             m_listener = listener;
-            // You could also do Executors.newSingleThreadExecutor() here
-            m_delegateThread = new ThreadPoolExecutor(
-                    1,
-                    1,
-                    0L,
-                    TimeUnit.MILLISECONDS,
-                    handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
-                    // This ThreadFactory will ensure that the log prefix of the calling thread
-                    // is used for all events that this listener handles. Therefore, if Notifd
-                    // registers for an event then all logs for handling that event will end up
-                    // inside notifd.log.
-                    new LogPreservingThreadFactory(m_listener.getName(), 1),
-                    new RejectedExecutionHandler() {
-                        @Override
-                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
-                        }
+            m_backPressurePolicy = backPressurePolicy;
+            m_queueLength = handlerQueueLength == null ? Integer.MAX_VALUE : handlerQueueLength;
+
+            final int numShards = listener instanceof ShardedEventListener ? Math.max(1, ((ShardedEventListener)listener).getNumShards()) : 1;
+            final List<BlockingQueue<Event>> queues = new ArrayList<BlockingQueue<Event>>(numShards);
+            for (int i = 0; i < numShards; i++) {
+                if (backPressurePolicy == BackPressurePolicy.SPILL) {
+                    // Spilled events are queued up to the spill queue length
+                    queues.add(new LinkedBlockingQueue<Event>(spillQueueLength != null ? spillQueueLength : (int)Math.min(Integer.MAX_VALUE, (long)DEFAULT_SPILL_FACTOR * m_queueLength)));
+                } else if (handlerQueueLength == null) {
+                    queues.add(new LinkedBlockingQueue<Event>());
+                } else {
+                    // Array based queues do not allocate when events are added
+                    queues.add(new ArrayBlockingQueue<Event>(handlerQueueLength));
+                }
+            }
+            m_queues = Collections.unmodifiableList(queues);
+
+            m_latency = metrics.timer(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "latency"));
+            m_dropped = metrics.meter(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "dropped"));
+            m_spilled = metrics.meter(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "spilled"));
+            metrics.register(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "queueDepth"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return getQueueDepth();
+                }
+            });
+
+            // This ThreadFactory will ensure that the log prefix of the calling thread
+            // is used for all events that this listener handles. Therefore, if Notifd
+            // registers for an event then all logs for handling that event will end up
+            // inside notifd.log.
+            m_delegateThreads = Executors.newFixedThreadPool(numShards, new LogPreservingThreadFactory(m_listener.getName(), numShards));
+            for (final BlockingQueue<Event> queue : m_queues) {
+                m_delegateThreads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverEvents(queue);
                     }
-            );
+                });
+            }
         }
 
         public void addEvent(final Event event) {
-            m_delegateThread.execute(new Runnable() {
-                @Override
-                public void run() {
+            final BlockingQueue<Event> queue = m_queues.size() == 1 || !event.hasNodeid() ? m_queues.get(0) : m_queues.get((int)Math.floorMod(event.getNodeid(), (long)m_queues.size()));
+
+            switch (m_backPressurePolicy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                } catch (InterruptedException e) {
+                    LOG.warn("Interrupted while waiting for room in listener {}'s event queue, discarding event", m_listener.getName());
+                    m_dropped.mark();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(event)) {
+                    if (queue.poll() != null) {
+                        LOG.warn("Listener {}'s event queue is full, discarding oldest event", m_listener.getName());
+                        m_dropped.mark();
+                    }
+                }
+                break;
+            case SPILL:
+                final boolean spilling = queue.size() >= m_queueLength;
+                if (!queue.offer(event)) {
+                    LOG.warn("Listener {}'s event queue has reached its spill limit, discarding event", m_listener.getName());
+                    m_dropped.mark();
+                } else if (spilling) {
+                    LOG.debug("Listener {}'s event queue is full, spilling event", m_listener.getName());
+                    m_spilled.mark();
+                }
+                break;
+            default:
+                if (!queue.offer(event)) {
+                    LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                    m_dropped.mark();
+                }
+            }
+        }
+
+        private void deliverEvents(final BlockingQueue<Event> queue) {
+            while (m_running || !queue.isEmpty()) {
+                final Event event;
+                try {
+                    event = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (event == null) {
+                    continue;
+                }
+
+                try {
+                    LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
+
+                    // Make sure we restore our log4j logging prefix after onEvent is called
+                    Map<String,String> mdc = Logging.getCopyOfContextMap();
+                    final long start = System.nanoTime();
                     try {
-                        LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
-                        }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+                        m_listener.onEvent(event);
+                    } finally {
+                        m_latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        Logging.setContextMap(mdc);
                     }
+                } catch (Throwable t) {
+                    LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
                 }
-            });
+            }
+        }
+
+        public int getQueueDepth() {
+            int depth = 0;
+            for (BlockingQueue<Event> queue : m_queues) {
+                depth += queue.size();
+            }
+            return depth;
         }
 
         /**
-         * Stops the execution of this listener.
+         * Stops the execution of this listener. Events that are already
+         * queued are still delivered.
          */
         public void stop() {
-            m_delegateThread.shutdown();
+            m_running = false;
+            m_delegateThreads.shutdown();
+        }
+    }
+
+    /**
+     * Snapshot of the registered listeners. The snapshot itself is never modified,
+     * but the listeners for each broadcast UEI are resolved once and then cached.
+     */
+    private static class DispatchTable {
+        private final EventListenerExecutor[] m_matchAll;
+
+        private final Map<String, EventListenerExecutor[]> m_byUei;
+
+        private final ConcurrentMap<String, EventListenerExecutor[]> m_resolved = new ConcurrentHashMap<>();
+
+        private DispatchTable() {
+            m_matchAll = NO_EXECUTORS;
+            m_byUei = Collections.emptyMap();
+        }
+
+        private DispatchTable(EventListenerExecutor[] matchAll, Map<String, EventListenerExecutor[]> byUei) {
+            m_matchAll = matchAll;
+            m_byUei = byUei;
+        }
+
+        /**
+         * Returns the listeners registered for the UEI, or for any of its
+         * partial wild card "directory" matches, without duplicates.
+         */
+        private EventListenerExecutor[] getExecutors(final String eventUei) {
+            EventListenerExecutor[] executors = m_resolved.get(eventUei);
+            if (executors != null) {
+                return executors;
+            }
+
+            final Set<EventListenerExecutor> matches = new LinkedHashSet<>();
+            for (String uei = eventUei; uei.length() > 0; ) {
+                final EventListenerExecutor[] ueiExecutors = m_byUei.get(uei);
+                if (ueiExecutors != null) {
+                    Collections.addAll(matches, ueiExecutors);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+
+            executors = matches.isEmpty() ? NO_EXECUTORS : matches.toArray(new EventListenerExecutor[matches.size()]);
+            if (m_resolved.size() < MAX_RESOLVED_UEIS) {
+                m_resolved.put(eventUei, executors);
+            }
+            return executors;
         }
     }
 
@@ -262,13 +496,14 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     public void broadcastNow(Event event) {
         LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
 
-        if (m_listeners.isEmpty()) {
+        final DispatchTable dispatchTable = m_dispatchTable;
+        if (dispatchTable.m_matchAll.length == 0) {
             LOG.debug("No listeners interested in all events");
         }
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            queueEventToListener(event, listener);
+        for (EventListenerExecutor executor : dispatchTable.m_matchAll) {
+            executor.addEvent(event);
         }
 
         if (event.getUei() == null) {
@@ -277,40 +512,19 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
 
         /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
+         * Send to listeners who are interested in this event UEI,
+         * including partial wild card "directory" matches.
          */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        queueEventToListener(event, listener);
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        final EventListenerExecutor[] executors = dispatchTable.getExecutors(event.getUei());
+        for (EventListenerExecutor executor : executors) {
+            executor.addEvent(event);
         }
-        
-        if (sentToListeners.isEmpty()) {
+
+        if (executors.length == 0) {
             LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
         }
     }
 
-    private void queueEventToListener(Event event, EventListener listener) {
-        m_listenerThreads.get(listener.getName()).addEvent(event);
-    }
-
     /**
      * {@inheritDoc}
      *
@@ -329,6 +543,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateDispatchTable();
     }
 
     /**
@@ -356,6 +572,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateDispatchTable();
     }
 
     /**
@@ -390,6 +608,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateDispatchTable();
     }
 
     /**
@@ -409,6 +629,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateDispatchTable();
     }
 
     /**
@@ -429,11 +651,14 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             removeUeiForListener(uei, listener);
         }
 
+        updateDispatchTable();
+
         // stop and remove the listener thread for this listener
         if (m_listenerThreads.containsKey(listener.getName())) {
             m_listenerThreads.get(listener.getName()).stop();
 
             m_listenerThreads.remove(listener.getName());
+            m_metrics.removeMatching(new ListenerMetricFilter(listener.getName()));
         }
     }
 
@@ -446,10 +671,52 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength, m_backPressurePolicy, m_spillQueueLength, m_metrics);
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    /**
+     * Publishes a new snapshot of the listener tables. Must be called with
+     * the lock held whenever the listener tables change.
+     */
+    private void updateDispatchTable() {
+        final Map<String, EventListenerExecutor[]> byUei = new HashMap<String, EventListenerExecutor[]>();
+        for (Map.Entry<String, List<EventListener>> entry : m_ueiListeners.entrySet()) {
+            final EventListenerExecutor[] executors = getExecutors(entry.getValue());
+            if (executors.length > 0) {
+                byUei.put(entry.getKey(), executors);
+            }
+        }
+        m_dispatchTable = new DispatchTable(getExecutors(m_listeners), byUei);
+    }
+
+    private EventListenerExecutor[] getExecutors(List<EventListener> listeners) {
+        final List<EventListenerExecutor> executors = new ArrayList<EventListenerExecutor>(listeners.size());
+        for (EventListener listener : listeners) {
+            final EventListenerExecutor executor = m_listenerThreads.get(listener.getName());
+            if (executor != null) {
+                executors.add(executor);
+            }
+        }
+        return executors.toArray(new EventListenerExecutor[executors.size()]);
+    }
+
+    /**
+     * Matches the metrics of a single listener.
+     */
+    private static class ListenerMetricFilter implements MetricFilter {
+        private final String m_prefix;
+
+        private ListenerMetricFilter(String listenerName) {
+            m_prefix = MetricRegistry.name(EventIpcManagerDefaultImpl.class, listenerName) + ".";
+        }
+
+        @Override
+        public boolean matches(String name, Metric metric) {
+            return name.startsWith(m_prefix);
+        }
+    }
+
     /**
      * Add to uei listeners.
      */
@@ -518,6 +785,23 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             }
             
         });
+
+        // Expose the queue depth, latency and discarded events of each listener
+        m_reporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(EventIpcManagerDefaultImpl.class.getPackage().getName())
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+        m_reporter.start();
+    }
+
+    /**
+     * <p>destroy</p>
+     */
+    @Override
+    public void destroy() {
+        if (m_reporter != null) {
+            m_reporter.stop();
+        }
     }
 
     /**
@@ -576,4 +860,55 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.state(m_eventHandlerPool == null, "handlerQueueLength property cannot be set after afterPropertiesSet() is called");
         m_handlerQueueLength = size;
     }
+
+    /**
+     * <p>getBackPressurePolicy</p>
+     *
+     * @return the policy applied when the queue of a listener is full
+     */
+    public BackPressurePolicy getBackPressurePolicy() {
+        return m_backPressurePolicy;
+    }
+
+    /**
+     * <p>setBackPressurePolicy</p>
+     *
+     * @param backPressurePolicy the policy applied when the queue of a listener is full
+     */
+    public void setBackPressurePolicy(BackPressurePolicy backPressurePolicy) {
+        Assert.state(m_eventHandlerPool == null, "backPressurePolicy property cannot be set after afterPropertiesSet() is called");
+        m_backPressurePolicy = backPressurePolicy;
+    }
+
+    /**
+     * <p>getSpillQueueLength</p>
+     *
+     * @return the maximum length of the queue of a listener when events are
+     *         spilled, or <code>null</code> if it is derived from the handler
+     *         queue length
+     */
+    public Integer getSpillQueueLength() {
+        return m_spillQueueLength;
+    }
+
+    /**
+     * <p>setSpillQueueLength</p>
+     *
+     * @param spillQueueLength the maximum length of the queue of a listener
+     *        when events are spilled
+     */
+    public void setSpillQueueLength(int spillQueueLength) {
+        Assert.state(m_eventHandlerPool == null, "spillQueueLength property cannot be set after afterPropertiesSet() is called");
+        m_spillQueueLength = spillQueueLength;
+    }
+
+    /**
+     * Returns the registry holding the queue depth, latency, dropped and
+     * spilled metrics of each listener.
+     *
+     * @return a {@link com.codahale.metrics.MetricRegistry} object.
+     */
+    public MetricRegistry getMetricRegistry() {
+        return m_metrics;
+    }
 }
@@ -28,10 +28,25 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
-
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
@@ -49,18 +64,30 @@ import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.events.api.EventDatabaseConstants;
 import org.opennms.netmgt.events.api.EventParameterUtils;
 import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsDistPoller;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.OnmsServiceType;
 import org.opennms.netmgt.model.OnmsSeverity;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Header;
 import org.opennms.netmgt.xml.event.Operaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * EventWriter loads the information in each 'Event' into the database.
  *
@@ -83,8 +110,46 @@ import org.springframework.util.Assert;
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
-public class HibernateEventWriter implements EventWriter {
+public class HibernateEventWriter implements EventWriter, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(HibernateEventWriter.class);
+
+    /**
+     * Maximum number of events stored in a single transaction. Values greater than 1
+     * enable the batch writer, otherwise every event is stored on its own.
+     */
+    public static final String BATCH_SIZE_PROPERTY = "org.opennms.eventd.eventWriter.batchSize";
+
+    /**
+     * Number of milliseconds the batch writer waits for additional events before
+     * storing a batch that is not full.
+     */
+    public static final String BATCH_DELAY_PROPERTY = "org.opennms.eventd.eventWriter.batchDelay";
+
+    /**
+     * Maximum number of entries in each of the caches used to resolve the
+     * node, interface, distPoller and service references of batched events.
+     */
+    public static final String CACHE_SIZE_PROPERTY = "org.opennms.eventd.eventWriter.cacheSize";
+
+    /**
+     * Number of milliseconds after which the cached references expire.
+     */
+    public static final String CACHE_TTL_PROPERTY = "org.opennms.eventd.eventWriter.cacheTtl";
+
+    private static final String SQL_NEXT_EVENT_IDS = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    private static final String SQL_INSERT_EVENT = "INSERT into events (eventID, eventUei, nodeID, eventTime, " +
+            "eventHost, ipAddr, systemId, eventSnmpHost, serviceID, eventSnmp, eventParms, eventCreateTime, eventDescr, " +
+            "eventLoggroup, eventLogmsg, eventLog, eventDisplay, eventSeverity, eventPathOutage, eventCorrelation, eventSuppressedCount, " +
+            "eventOperInstruct, eventAutoAction, eventOperAction, eventOperActionMenuText, eventNotification, eventTticket, eventTticketState, " +
+            "eventForward, eventMouseOverText, eventAckUser, eventAckTime, eventSource, ifIndex) " +
+            "values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Number of milliseconds an event handler thread waits for the batch
+     * writer to store its event before giving up.
+     */
+    private static final long STORE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
     
     @Autowired
     private NodeDao nodeDao;
@@ -113,6 +178,257 @@ public class HibernateEventWriter implements EventWriter {
     @Autowired
     private EventUtil eventUtil;
 
+    @Autowired
+    private TransactionOperations transactionOperations;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private int m_batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, 0);
+
+    private long m_batchDelay = Long.getLong(BATCH_DELAY_PROPERTY, 0);
+
+    private long m_cacheSize = Long.getLong(CACHE_SIZE_PROPERTY, 10000);
+
+    private long m_cacheTtl = Long.getLong(CACHE_TTL_PROPERTY, TimeUnit.MINUTES.toMillis(5));
+
+    private final BlockingQueue<PendingEvent> m_queue = new LinkedBlockingQueue<>();
+
+    private BatchWriter m_batchWriter;
+
+    private ExecutorService m_batchWriterExecutor;
+
+    private Cache<Integer, Boolean> m_nodeIds;
+
+    private Cache<List<Object>, String> m_hostNames;
+
+    private Cache<String, OnmsMonitoringSystem> m_monitoringSystems;
+
+    private Cache<String, Integer> m_serviceIds;
+
+    /**
+     * An event that was handed over to the batch writer, along with the
+     * references that were resolved for it.
+     */
+    private static class PendingEvent {
+        private final Event m_event;
+        private final Header m_eventHeader;
+        private final OnmsEvent m_ovent;
+        private final Integer m_nodeId;
+        private final String m_systemId;
+        private final Integer m_serviceId;
+        private final CountDownLatch m_stored = new CountDownLatch(1);
+        /**
+         * Set by whichever comes first: the batch writer taking the event
+         * into a batch, or the caller giving up on it.
+         */
+        private final AtomicBoolean m_claimed = new AtomicBoolean(false);
+        private volatile Throwable m_failure;
+
+        private PendingEvent(Header eventHeader, Event event, OnmsEvent ovent, Integer nodeId, String systemId, Integer serviceId) {
+            m_eventHeader = eventHeader;
+            m_event = event;
+            m_ovent = ovent;
+            m_nodeId = nodeId;
+            m_systemId = systemId;
+            m_serviceId = serviceId;
+        }
+
+        /**
+         * Called by the batch writer before storing the event.
+         *
+         * @return false if the caller gave up on the event, which must then
+         * neither be stored nor touched
+         */
+        private boolean claim() {
+            return m_claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Called by the caller when it gives up waiting for the event.
+         *
+         * @return false if the batch writer is already storing the event
+         */
+        private boolean cancel() {
+            return m_claimed.compareAndSet(false, true);
+        }
+
+        private void stored(Integer dbid) {
+            m_event.setDbid(dbid);
+            m_stored.countDown();
+        }
+
+        private void failed(Throwable failure) {
+            m_failure = failure;
+            m_stored.countDown();
+        }
+
+        /**
+         * @return false if the event was neither stored nor failed within the timeout
+         */
+        private boolean await(long timeout) {
+            final long deadline = System.currentTimeMillis() + timeout;
+            boolean interrupted = false;
+            boolean completed = false;
+            while (true) {
+                try {
+                    completed = m_stored.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return completed;
+        }
+
+        private Throwable getFailure() {
+            return m_failure;
+        }
+    }
+
+    /**
+     * Stores the events handed over by the event handler threads in batches.
+     * A batch holds every event that is waiting when the previous batch completes,
+     * up to the batch size, so the batches grow with the load.
+     */
+    private class BatchWriter implements Runnable {
+        private volatile boolean m_running = true;
+
+        /**
+         * Held while events are queued and while the writer is stopped, so
+         * that no event is queued after the writer drained the queue for the
+         * last time.
+         */
+        private final Object m_lock = new Object();
+
+        @Override
+        public void run() {
+            final List<PendingEvent> batch = new ArrayList<>(m_batchSize);
+            while (m_running || !m_queue.isEmpty()) {
+                try {
+                    final PendingEvent first = m_queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+
+                    // Fill the batch with the events that are already waiting, and
+                    // wait for more of them until the batch delay expires
+                    final long deadline = System.currentTimeMillis() + m_batchDelay;
+                    while (batch.size() < m_batchSize) {
+                        m_queue.drainTo(batch, m_batchSize - batch.size());
+                        final long remaining = deadline - System.currentTimeMillis();
+                        if (batch.size() >= m_batchSize || remaining <= 0) {
+                            break;
+                        }
+                        final PendingEvent next = m_queue.poll(remaining, TimeUnit.MILLISECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    // Skip the events that the callers gave up on
+                    for (final Iterator<PendingEvent> it = batch.iterator(); it.hasNext(); ) {
+                        if (!it.next().claim()) {
+                            it.remove();
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        insertEvents(batch);
+                    }
+                } catch (InterruptedException e) {
+                    LOG.warn("Interrupted while waiting for events, exiting.");
+                    stop();
+                    Thread.currentThread().interrupt();
+                    for (PendingEvent pendingEvent : batch) {
+                        pendingEvent.failed(e);
+                    }
+                    // The events that are still queued are failed below
+                    break;
+                } catch (Throwable t) {
+                    for (PendingEvent pendingEvent : batch) {
+                        pendingEvent.failed(t);
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+            // Do not leave any of the callers hanging
+            final List<PendingEvent> remaining = new ArrayList<>();
+            m_queue.drainTo(remaining);
+            for (PendingEvent pendingEvent : remaining) {
+                pendingEvent.failed(new IllegalStateException("The event writer was stopped."));
+            }
+        }
+
+        /**
+         * @return false if the writer was stopped and the event was not queued
+         */
+        private boolean offer(PendingEvent pendingEvent) {
+            synchronized (m_lock) {
+                return m_running && m_queue.add(pendingEvent);
+            }
+        }
+
+        private void stop() {
+            synchronized (m_lock) {
+                m_running = false;
+            }
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_batchSize <= 1) {
+            return;
+        }
+        LOG.info("Storing events in batches of up to {} events, waiting up to {}ms for each batch to fill.", m_batchSize, m_batchDelay);
+        m_nodeIds = createCache();
+        m_hostNames = createCache();
+        m_monitoringSystems = createCache();
+        m_serviceIds = createCache();
+        m_batchWriter = new BatchWriter();
+        m_batchWriterExecutor = Executors.newSingleThreadExecutor(new LogPreservingThreadFactory("EventWriter", 1));
+        m_batchWriterExecutor.execute(m_batchWriter);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (m_batchWriter == null) {
+            return;
+        }
+        m_batchWriter.stop();
+        m_batchWriterExecutor.shutdown();
+        m_batchWriterExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private <K, V> Cache<K, V> createCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(m_cacheSize)
+                .expireAfterWrite(m_cacheTtl, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    public void setBatchDelay(long batchDelay) {
+        m_batchDelay = batchDelay;
+    }
+
+    public long getBatchDelay() {
+        return m_batchDelay;
+    }
+
     /**
      * <p>checkEventSanityAndDoWeProcess</p>
      *
@@ -152,6 +468,30 @@ public class HibernateEventWriter implements EventWriter {
 
         LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
 
+        if (m_batchWriter != null) {
+            // Hand the event over to the batch writer and wait until it was stored
+            final PendingEvent pendingEvent;
+            try {
+                pendingEvent = createPendingEvent(eventHeader, event);
+            } catch (Throwable e) {
+                throw new EventProcessorException("Unexpected exception while storing event: " + event.toString(), e);
+            }
+            if (m_batchWriter.offer(pendingEvent)) {
+                while (!pendingEvent.await(STORE_TIMEOUT)) {
+                    if (pendingEvent.cancel()) {
+                        throw new EventProcessorException("Timed out waiting for the event writer to store event: " + event.toString());
+                    }
+                    // The event is already being stored and its dbid is about to be set
+                    LOG.warn("Still waiting for the event writer to store event: {}", event);
+                }
+                if (pendingEvent.getFailure() != null) {
+                    throw new EventProcessorException("Unexpected exception while storing event: " + event.toString(), pendingEvent.getFailure());
+                }
+                return;
+            }
+            // The batch writer was stopped, store the event on this thread
+        }
+
         try {
             insertEvent(eventHeader, event);
         } catch (DeadlockLoserDataAccessException e) {
@@ -169,48 +509,40 @@ public class HibernateEventWriter implements EventWriter {
      *                properties file.
      */
     private void insertEvent(final Header eventHeader, final Event event) {
-
-        OnmsEvent ovent = new OnmsEvent();
-
-        // eventID
-        //ovent.setId(event.getDbid());
-
-        // eventUEI
-        ovent.setEventUei(EventDatabaseConstants.format(event.getUei(), EVENT_UEI_FIELD_SIZE));
+        final OnmsEvent ovent = createEvent(event);
 
         // nodeID
         if (event.hasNodeid()) {
             ovent.setNode(nodeDao.get(event.getNodeid().intValue()));
         }
 
-        // eventTime
-        ovent.setEventTime(event.getTime());
-
         // eventHost
         // Resolve the event host to a hostname using the ipInterface table
         ovent.setEventHost(EventDatabaseConstants.format(eventUtil.getEventHost(event), EVENT_HOST_FIELD_SIZE));
 
-        // eventSource
-        ovent.setEventSource(EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
+        // systemId
+        ovent.setDistPoller(getDistPoller(eventHeader, event));
 
-        // ipAddr
-        ovent.setIpAddr(event.getInterfaceAddress());
+        // service
+        ovent.setServiceType(serviceTypeDao.findByName(event.getService()));
 
-        // ifindex
-        if (event.hasIfIndex()) {
-            ovent.setIfIndex(event.getIfIndex());
-        } else {
-        	ovent.setIfIndex(null);
-        }
+        eventDao.save(ovent);
+        eventDao.flush();
 
-        // systemId
+        // Update the event with the database ID of the event stored in the database
+        event.setDbid(ovent.getId());
+    }
 
+    private OnmsMonitoringSystem getDistPoller(final Header eventHeader, final Event event) {
         // If available, use the header's distPoller
         if (eventHeader != null && eventHeader.getDpName() != null && !"".equals(eventHeader.getDpName().trim())) {
-            ovent.setDistPoller(distPollerDao.get(eventHeader.getDpName()));
+            final OnmsMonitoringSystem system = distPollerDao.get(eventHeader.getDpName());
+            if (system != null) {
+                return system;
+            }
         }
         // Otherwise, use the event's distPoller
-        if (ovent.getDistPoller() == null && event.getDistPoller() != null && !"".equals(event.getDistPoller().trim())) {
+        if (event.getDistPoller() != null && !"".equals(event.getDistPoller().trim())) {
             // Look the ID up with the DistPollerDao
             OnmsMonitoringSystem system = distPollerDao.get(event.getDistPoller());
             if (system == null) {
@@ -218,24 +550,225 @@ public class HibernateEventWriter implements EventWriter {
                 system = minionDao.get(event.getDistPoller());
                 if (system == null) {
                     // Look the ID up with the LocationMonitorDao
-                    ovent.setDistPoller(locationMonitorDao.get(event.getDistPoller()));
+                    system = locationMonitorDao.get(event.getDistPoller());
+                }
+            }
+            if (system != null) {
+                return system;
+            }
+        }
+        // And if both are unavailable, use the local system as the event's source system
+        return distPollerDao.whoami();
+    }
+
+    /**
+     * Resolves the references of the event using the caches, so that the
+     * batch writer only needs to touch the events table.
+     */
+    private PendingEvent createPendingEvent(final Header eventHeader, final Event event) {
+        final OnmsEvent ovent = createEvent(event);
+
+        // nodeID
+        Integer nodeId = null;
+        if (event.hasNodeid()) {
+            nodeId = event.getNodeid().intValue();
+            if (m_nodeIds.getIfPresent(nodeId) == null) {
+                if (nodeDao.get(nodeId) == null) {
+                    nodeId = null;
                 } else {
-                    ovent.setDistPoller(system);
+                    m_nodeIds.put(nodeId, Boolean.TRUE);
                 }
+            }
+        }
+
+        // eventHost
+        // Resolve the event host to a hostname using the ipInterface table
+        String eventHost = event.getHost();
+        if (eventHost != null && event.hasNodeid()) {
+            final List<Object> key = Arrays.asList(event.getNodeid(), eventHost);
+            final String hostName = m_hostNames.getIfPresent(key);
+            if (hostName != null) {
+                eventHost = hostName;
             } else {
-                ovent.setDistPoller(system);
+                eventHost = eventUtil.getEventHost(event);
+                if (eventHost != null) {
+                    m_hostNames.put(key, eventHost);
+                }
             }
-        } 
-        // And if both are unavailable, use the local system as the event's source system
-        if (ovent.getDistPoller() == null) {
-            ovent.setDistPoller(distPollerDao.whoami());
         }
+        ovent.setEventHost(EventDatabaseConstants.format(eventHost, EVENT_HOST_FIELD_SIZE));
 
-        // eventSnmpHost
-        ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
+        // systemId
+        String systemId = null;
+        if (eventHeader != null && eventHeader.getDpName() != null && !"".equals(eventHeader.getDpName().trim())) {
+            final OnmsMonitoringSystem system = getMonitoringSystem(eventHeader.getDpName());
+            if (system instanceof OnmsDistPoller) {
+                systemId = system.getId();
+            }
+        }
+        if (systemId == null && event.getDistPoller() != null && !"".equals(event.getDistPoller().trim())) {
+            final OnmsMonitoringSystem system = getMonitoringSystem(event.getDistPoller());
+            if (system != null) {
+                systemId = system.getId();
+            }
+        }
+        if (systemId == null) {
+            systemId = getMonitoringSystem(DistPollerDao.DEFAULT_DIST_POLLER_ID).getId();
+        }
 
         // service
-        ovent.setServiceType(serviceTypeDao.findByName(event.getService()));
+        Integer serviceId = null;
+        if (event.getService() != null) {
+            serviceId = m_serviceIds.getIfPresent(event.getService());
+            if (serviceId == null) {
+                final OnmsServiceType serviceType = serviceTypeDao.findByName(event.getService());
+                if (serviceType != null) {
+                    serviceId = serviceType.getId();
+                    m_serviceIds.put(event.getService(), serviceId);
+                }
+            }
+        }
+
+        return new PendingEvent(eventHeader, event, ovent, nodeId, systemId, serviceId);
+    }
+
+    /**
+     * Only systems that exist are cached, since they may be registered at any time.
+     */
+    private OnmsMonitoringSystem getMonitoringSystem(final String id) {
+        OnmsMonitoringSystem system = m_monitoringSystems.getIfPresent(id);
+        if (system == null) {
+            system = distPollerDao.get(id);
+            if (system == null) {
+                system = minionDao.get(id);
+            }
+            if (system == null) {
+                system = locationMonitorDao.get(id);
+            }
+            if (system != null) {
+                m_monitoringSystems.put(id, system);
+            }
+        }
+        return system;
+    }
+
+    /**
+     * Inserts the events with a single batch statement in one transaction.
+     * If this fails, the caches are cleared and the events are stored one
+     * at a time, so that a single bad event does not affect the others.
+     */
+    private void insertEvents(final List<PendingEvent> batch) {
+        final List<Integer> ids;
+        try {
+            ids = transactionOperations.execute(new TransactionCallback<List<Integer>>() {
+                @Override
+                public List<Integer> doInTransaction(TransactionStatus status) {
+                    final List<Integer> ids = jdbcTemplate.queryForList(SQL_NEXT_EVENT_IDS, Integer.class, batch.size());
+                    jdbcTemplate.batchUpdate(SQL_INSERT_EVENT, new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            setValues(ps, ids.get(i), batch.get(i));
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return batch.size();
+                        }
+
+                        private void setValues(PreparedStatement ps, Integer id, PendingEvent pendingEvent) throws SQLException {
+                            final OnmsEvent ovent = pendingEvent.m_ovent;
+                            ps.setInt(1, id);
+                            ps.setString(2, ovent.getEventUei());
+                            ps.setObject(3, pendingEvent.m_nodeId, Types.INTEGER);
+                            ps.setTimestamp(4, toTimestamp(ovent.getEventTime()));
+                            ps.setString(5, ovent.getEventHost());
+                            ps.setString(6, ovent.getIpAddr() == null ? null : InetAddressUtils.str(ovent.getIpAddr()));
+                            ps.setString(7, pendingEvent.m_systemId);
+                            ps.setString(8, ovent.getEventSnmpHost());
+                            ps.setObject(9, pendingEvent.m_serviceId, Types.INTEGER);
+                            ps.setString(10, ovent.getEventSnmp());
+                            ps.setString(11, ovent.getEventParms());
+                            ps.setTimestamp(12, toTimestamp(ovent.getEventCreateTime()));
+                            ps.setString(13, ovent.getEventDescr());
+                            ps.setString(14, ovent.getEventLogGroup());
+                            ps.setString(15, ovent.getEventLogMsg());
+                            ps.setString(16, ovent.getEventLog());
+                            ps.setString(17, ovent.getEventDisplay());
+                            ps.setObject(18, ovent.getEventSeverity(), Types.INTEGER);
+                            ps.setString(19, ovent.getEventPathOutage());
+                            ps.setString(20, ovent.getEventCorrelation());
+                            ps.setObject(21, ovent.getEventSuppressedCount(), Types.INTEGER);
+                            ps.setString(22, ovent.getEventOperInstruct());
+                            ps.setString(23, ovent.getEventAutoAction());
+                            ps.setString(24, ovent.getEventOperAction());
+                            ps.setString(25, ovent.getEventOperActionMenuText());
+                            ps.setString(26, ovent.getEventNotification());
+                            ps.setString(27, ovent.getEventTTicket());
+                            ps.setObject(28, ovent.getEventTTicketState(), Types.INTEGER);
+                            ps.setString(29, ovent.getEventForward());
+                            ps.setString(30, ovent.getEventMouseOverText());
+                            ps.setString(31, ovent.getEventAckUser());
+                            ps.setTimestamp(32, toTimestamp(ovent.getEventAckTime()));
+                            ps.setString(33, ovent.getEventSource());
+                            ps.setObject(34, ovent.getIfIndex(), Types.INTEGER);
+                        }
+                    });
+                    return ids;
+                }
+            });
+        } catch (Throwable t) {
+            LOG.warn("Failed to store a batch of {} events, storing them one at a time.", batch.size(), t);
+            m_nodeIds.invalidateAll();
+            m_monitoringSystems.invalidateAll();
+            m_serviceIds.invalidateAll();
+            for (PendingEvent pendingEvent : batch) {
+                try {
+                    insertEvent(pendingEvent.m_eventHeader, pendingEvent.m_event);
+                    pendingEvent.stored(pendingEvent.m_event.getDbid());
+                } catch (Throwable e) {
+                    pendingEvent.failed(e);
+                }
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).stored(ids.get(i));
+        }
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    /**
+     * Creates an {@link OnmsEvent} with all of the fields that can be derived from the
+     * event itself. The node, event host, distPoller and service type are left unset.
+     */
+    private static OnmsEvent createEvent(final Event event) {
+        OnmsEvent ovent = new OnmsEvent();
+
+        // eventUEI
+        ovent.setEventUei(EventDatabaseConstants.format(event.getUei(), EVENT_UEI_FIELD_SIZE));
+
+        // eventTime
+        ovent.setEventTime(event.getTime());
+
+        // eventSource
+        ovent.setEventSource(EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
+
+        // ipAddr
+        ovent.setIpAddr(event.getInterfaceAddress());
+
+        // ifindex
+        if (event.hasIfIndex()) {
+            ovent.setIfIndex(event.getIfIndex());
+        } else {
+        	ovent.setIfIndex(null);
+        }
+
+        // eventSnmpHost
+        ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
 
         // eventSnmp
         ovent.setEventSnmp(event.getSnmp() == null ? null : SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
@@ -348,10 +881,6 @@ public class HibernateEventWriter implements EventWriter {
             ovent.setEventAckTime(null);
         }
 
-        eventDao.save(ovent);
-        eventDao.flush();
-
-        // Update the event with the database ID of the event stored in the database
-        event.setDbid(ovent.getId());
+        return ovent;
     }
 }
@@ -32,19 +32,31 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
+import org.opennms.netmgt.eventd.EventIpcManagerDefaultImpl.BackPressurePolicy;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.ShardedEventListener;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Log;
 import org.opennms.test.ThrowableAnticipator;
 import org.opennms.test.mock.EasyMockUtils;
 
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * 
  * @author <a href="mailto:dj@opennms.org">DJ Gregor</a>
@@ -73,6 +85,11 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         });
     }
     
+    @Override
+    public void tearDown() throws Exception {
+        m_manager.destroy();
+    }
+
     @Override
     public void runTest() throws Throwable {
         super.runTest();
@@ -455,6 +472,168 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         m_mocks.verifyAll();
     }
     
+    public void testShardedListenerPreservesOrderPerNode() throws Exception {
+        final int numNodes = 10;
+        final int numEventsPerNode = 100;
+        final MockShardedEventListener listener = new MockShardedEventListener(4, numNodes * numEventsPerNode);
+
+        m_mocks.replayAll();
+
+        m_manager.addEventListener(listener, "uei.opennms.org/foo");
+        for (int i = 0; i < numEventsPerNode; i++) {
+            for (int nodeId = 1; nodeId <= numNodes; nodeId++) {
+                EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testShardedListenerPreservesOrderPerNode");
+                bldr.setNodeid(nodeId);
+                bldr.addParam("index", i);
+                m_manager.broadcastNow(bldr.getEvent());
+            }
+        }
+        assertTrue("events were not delivered", listener.awaitEvents());
+
+        m_mocks.verifyAll();
+
+        assertEquals(numNodes, listener.getEventsByNode().size());
+        for (Map.Entry<Long, List<Event>> entry : listener.getEventsByNode().entrySet()) {
+            final List<Event> events = entry.getValue();
+            assertEquals(numEventsPerNode, events.size());
+            for (int i = 0; i < numEventsPerNode; i++) {
+                assertEquals("events for node " + entry.getKey() + " were reordered", Integer.toString(i), events.get(i).getParmCollection().get(0).getValue().getContent());
+            }
+            assertEquals("events for node " + entry.getKey() + " were handled by multiple threads", 1, listener.getThreadsByNode().get(entry.getKey()).size());
+        }
+    }
+
+    public void testBackPressureDropOldest() throws Exception {
+        final BlockingEventListener listener = new BlockingEventListener();
+        final EventIpcManagerDefaultImpl manager = createManager(BackPressurePolicy.DROP_OLDEST, 2);
+        try {
+            manager.addEventListener(listener);
+
+            // The first event blocks the listener thread, the others are queued
+            final List<Event> events = broadcastEvents(manager, listener, 5);
+            listener.release();
+
+            assertEquals(Arrays.asList(events.get(0), events.get(3), events.get(4)), listener.awaitEvents(3));
+            assertEquals(2, manager.getMetricRegistry().meter(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "dropped")).getCount());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    public void testBackPressureDiscard() throws Exception {
+        final BlockingEventListener listener = new BlockingEventListener();
+        final EventIpcManagerDefaultImpl manager = createManager(BackPressurePolicy.DISCARD, 2);
+        try {
+            manager.addEventListener(listener);
+
+            final List<Event> events = broadcastEvents(manager, listener, 5);
+            listener.release();
+
+            assertEquals(Arrays.asList(events.get(0), events.get(1), events.get(2)), listener.awaitEvents(3));
+            assertEquals(2, manager.getMetricRegistry().meter(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "dropped")).getCount());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    public void testBackPressureSpill() throws Exception {
+        final BlockingEventListener listener = new BlockingEventListener();
+        final EventIpcManagerDefaultImpl manager = createManager(BackPressurePolicy.SPILL, 2);
+        try {
+            manager.addEventListener(listener);
+
+            final List<Event> events = broadcastEvents(manager, listener, 5);
+            assertEquals(4, manager.getMetricRegistry().getGauges().get(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "queueDepth")).getValue());
+            listener.release();
+
+            assertEquals(events, listener.awaitEvents(5));
+            assertEquals(2, manager.getMetricRegistry().meter(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "spilled")).getCount());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    public void testBackPressureSpillLimit() throws Exception {
+        final BlockingEventListener listener = new BlockingEventListener();
+        final EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl();
+        manager.setEventHandler(m_eventHandler);
+        manager.setHandlerPoolSize(1);
+        manager.setHandlerQueueLength(2);
+        manager.setBackPressurePolicy(BackPressurePolicy.SPILL);
+        manager.setSpillQueueLength(3);
+        manager.afterPropertiesSet();
+        try {
+            manager.addEventListener(listener);
+
+            // One event is spilled, and the last one exceeds the spill queue length
+            final List<Event> events = broadcastEvents(manager, listener, 5);
+            assertEquals(3, manager.getMetricRegistry().getGauges().get(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "queueDepth")).getValue());
+            listener.release();
+
+            assertEquals(events.subList(0, 4), listener.awaitEvents(4));
+            assertEquals(1, manager.getMetricRegistry().meter(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "spilled")).getCount());
+            assertEquals(1, manager.getMetricRegistry().meter(MetricRegistry.name(EventIpcManagerDefaultImpl.class, listener.getName(), "dropped")).getCount());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    public void testBackPressureBlock() throws Exception {
+        final BlockingEventListener listener = new BlockingEventListener();
+        final EventIpcManagerDefaultImpl manager = createManager(BackPressurePolicy.BLOCK, 2);
+        try {
+            manager.addEventListener(listener);
+
+            final List<Event> events = broadcastEvents(manager, listener, 3);
+            final Event blocked = new EventBuilder("uei.opennms.org/foo", "testBackPressureBlock").getEvent();
+            final Thread broadcaster = new Thread() {
+                @Override
+                public void run() {
+                    manager.broadcastNow(blocked);
+                }
+            };
+            broadcaster.start();
+            broadcaster.join(500);
+            assertTrue("broadcast should block while the queue is full", broadcaster.isAlive());
+
+            listener.release();
+            broadcaster.join(5000);
+            assertFalse(broadcaster.isAlive());
+
+            events.add(blocked);
+            assertEquals(events, listener.awaitEvents(4));
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    private EventIpcManagerDefaultImpl createManager(BackPressurePolicy backPressurePolicy, int queueLength) {
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl();
+        manager.setEventHandler(m_eventHandler);
+        manager.setHandlerPoolSize(1);
+        manager.setHandlerQueueLength(queueLength);
+        manager.setBackPressurePolicy(backPressurePolicy);
+        manager.afterPropertiesSet();
+        return manager;
+    }
+
+    /**
+     * Broadcasts the given number of events, and waits until the listener
+     * is blocked on the first one.
+     */
+    private static List<Event> broadcastEvents(EventIpcManagerDefaultImpl manager, BlockingEventListener listener, int numEvents) throws InterruptedException {
+        final List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < numEvents; i++) {
+            Event event = new EventBuilder("uei.opennms.org/foo", "broadcastEvents").getEvent();
+            events.add(event);
+            manager.broadcastNow(event);
+            if (i == 0) {
+                assertTrue(listener.awaitBlocked());
+            }
+        }
+        return events;
+    }
+
     public class MockEventListener implements EventListener {
         private List<Event> m_events = new ArrayList<Event>();
         
@@ -472,4 +651,94 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
             return m_events;
         }
     }
+
+    public static class MockShardedEventListener implements ShardedEventListener {
+        private final int m_numShards;
+        private final CountDownLatch m_latch;
+        private final Map<Long, List<Event>> m_eventsByNode = Collections.synchronizedMap(new HashMap<Long, List<Event>>());
+        private final Map<Long, Set<String>> m_threadsByNode = Collections.synchronizedMap(new HashMap<Long, Set<String>>());
+
+        public MockShardedEventListener(int numShards, int numEvents) {
+            m_numShards = numShards;
+            m_latch = new CountDownLatch(numEvents);
+        }
+
+        @Override
+        public String getName() {
+            return "sharded";
+        }
+
+        @Override
+        public int getNumShards() {
+            return m_numShards;
+        }
+
+        @Override
+        public void onEvent(Event e) {
+            synchronized (m_eventsByNode) {
+                if (!m_eventsByNode.containsKey(e.getNodeid())) {
+                    m_eventsByNode.put(e.getNodeid(), new ArrayList<Event>());
+                    m_threadsByNode.put(e.getNodeid(), new HashSet<String>());
+                }
+                m_eventsByNode.get(e.getNodeid()).add(e);
+                m_threadsByNode.get(e.getNodeid()).add(Thread.currentThread().getName());
+            }
+            m_latch.countDown();
+        }
+
+        public boolean awaitEvents() throws InterruptedException {
+            return m_latch.await(10, TimeUnit.SECONDS);
+        }
+
+        public Map<Long, List<Event>> getEventsByNode() {
+            return m_eventsByNode;
+        }
+
+        public Map<Long, Set<String>> getThreadsByNode() {
+            return m_threadsByNode;
+        }
+    }
+
+    /**
+     * Blocks on the first event until released.
+     */
+    public static class BlockingEventListener implements EventListener {
+        private final List<Event> m_events = Collections.synchronizedList(new ArrayList<Event>());
+        private final CountDownLatch m_blocked = new CountDownLatch(1);
+        private final CountDownLatch m_released = new CountDownLatch(1);
+
+        @Override
+        public String getName() {
+            return "blocking";
+        }
+
+        @Override
+        public void onEvent(Event e) {
+            m_blocked.countDown();
+            try {
+                m_released.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            m_events.add(e);
+        }
+
+        public boolean awaitBlocked() throws InterruptedException {
+            return m_blocked.await(10, TimeUnit.SECONDS);
+        }
+
+        public void release() {
+            m_released.countDown();
+        }
+
+        public List<Event> awaitEvents(int numEvents) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (m_events.size() < numEvents && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // Give any unexpected events a chance to arrive
+            Thread.sleep(100);
+            return new ArrayList<Event>(m_events);
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.DefaultEventConfDao;
+import org.opennms.netmgt.eventd.AbstractEventUtil;
+import org.opennms.netmgt.eventd.EventExpander;
+import org.opennms.netmgt.eventd.EventUtilDaoImpl;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Measures the throughput of the {@link EventExpander} against the stock
+ * event configuration with an increasing number of handler threads.
+ *
+ * The expander does not hold any locks, so the throughput should scale with
+ * the number of threads until we run out of cores.
+ */
+public class EventExpanderLoadIT {
+
+    private static final int[] THREAD_COUNTS = new int[] { 1, 2, 4, 8, 16, 32 };
+
+    private static final int EVENTS_PER_THREAD = 20000;
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    private EventExpander m_eventExpander;
+
+    private List<String> m_ueis;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+
+        m_eventExpander = new EventExpander();
+        m_eventExpander.setEventConfDao(m_eventConfDao);
+        m_eventExpander.afterPropertiesSet();
+
+        // The events we generate only carry a UEI, so we can't use the
+        // definitions that require a mask to match
+        m_ueis = new ArrayList<String>();
+        for (org.opennms.netmgt.xml.eventconf.Event eventConf : m_eventConfDao.getAllEvents()) {
+            if (eventConf.getMask() == null) {
+                m_ueis.add(eventConf.getUei());
+            }
+        }
+
+        // None of the generated events reference a node, so the DAOs are never used
+        AbstractEventUtil.setInstance(new EventUtilDaoImpl());
+    }
+
+    @After
+    public void tearDown() {
+        AbstractEventUtil.setInstance(null);
+    }
+
+    @Test
+    public void testExpandEventThroughput() throws Exception {
+        for (final int threadCount : THREAD_COUNTS) {
+            final long start = System.nanoTime();
+            final long expanded = expandEvents(threadCount, EVENTS_PER_THREAD, new AtomicBoolean(false));
+            final long end = System.nanoTime();
+
+            assertEquals(threadCount * EVENTS_PER_THREAD, expanded);
+            final double eventsPerSecond = expanded * 1000000000.0 / (end - start);
+            System.err.println(String.format("threads: %2d, events expanded: %d, total time: %d ms, events per second: %10.2f",
+                    threadCount, expanded, (end - start) / 1000000, eventsPerSecond));
+        }
+    }
+
+    /**
+     * Reload the configuration while the expanders are running and verify
+     * that every event still finds its own definition, and never falls back
+     * to the default event.
+     */
+    @Test
+    public void testExpandEventWhileReloading() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final Thread reloader = new Thread("EventConfDao-reloader") {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    m_eventConfDao.reload();
+                }
+            }
+        };
+        reloader.start();
+        try {
+            assertEquals(8 * EVENTS_PER_THREAD, expandEvents(8, EVENTS_PER_THREAD, done));
+        } finally {
+            done.set(true);
+            reloader.join();
+        }
+    }
+
+    private long expandEvents(final int threadCount, final int eventsPerThread, final AtomicBoolean done) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                final int offset = i;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int count = 0;
+                        for (int j = 0; j < eventsPerThread; j++) {
+                            final String uei = m_ueis.get((offset + j) % m_ueis.size());
+                            final Event event = new EventBuilder(uei, "EventExpanderLoadIT").getEvent();
+                            m_eventExpander.expandEvent(event);
+                            assertEquals(uei, event.getUei());
+                            assertNotNull("no severity for " + uei, event.getSeverity());
+                            count++;
+                        }
+                        return count;
+                    }
+                }));
+            }
+
+            long total = 0;
+            for (Future<Integer> future : futures) {
+                total += future.get();
+            }
+            done.set(true);
+            return total;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -33,7 +33,15 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -50,6 +58,7 @@ import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 
@@ -85,6 +94,9 @@ public class HibernateEventWriterIT {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ApplicationContext m_applicationContext;
+
     /**
      * Tests writing nulls to postgres db and the db encoding.
      * @throws SQLException
@@ -284,4 +296,117 @@ public class HibernateEventWriterIT {
         assertEquals("event count", 1, jdbcTemplate.queryForInt("select count(*) from events"));
         assertEquals("event service ID", serviceId, jdbcTemplate.queryForInt("select serviceID from events"));
     }
+
+    @Test
+    public void testWriteEventsInBatches() throws Exception {
+        jdbcTemplate.update("INSERT INTO node (location, nodeId, nodeCreateTime) VALUES ('" + MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID + "', nextVal('nodeNxtId'), now())");
+        final int nodeId = jdbcTemplate.queryForInt("SELECT nodeId FROM node LIMIT 1");
+        jdbcTemplate.update("INSERT into ipInterface (nodeId, ipAddr, ipHostname) VALUES (?, ?, ?)", nodeId, "192.168.1.1", "First Interface");
+        jdbcTemplate.update("insert into service (serviceId, serviceName) values (?, ?)", new Object[] { 1, "some bogus service" });
+
+        final HibernateEventWriter eventWriter = createBatchingEventWriter(10);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Event>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final int k = i;
+                futures.add(executor.submit(new Callable<Event>() {
+                    @Override
+                    public Event call() throws Exception {
+                        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "someSource");
+                        bldr.setLogDest("logndisplay");
+                        bldr.setLogMessage("event " + k);
+                        bldr.setNodeid(nodeId);
+                        bldr.setHost("192.168.1.1");
+                        bldr.setService("some bogus service");
+                        Event event = bldr.getEvent();
+                        eventWriter.process(null, event);
+                        return event;
+                    }
+                }));
+            }
+
+            final Set<Integer> dbids = new HashSet<>();
+            for (Future<Event> future : futures) {
+                final Event event = future.get();
+                assertTrue(event.getDbid() > 0);
+                assertTrue("duplicate event id", dbids.add(event.getDbid()));
+                assertEquals(event.getLogmsg().getContent(), jdbcTemplate.queryForObject("SELECT eventLogmsg FROM events WHERE eventId = ?", String.class, event.getDbid()));
+            }
+        } finally {
+            executor.shutdown();
+            eventWriter.destroy();
+        }
+
+        assertEquals("event count", 100, jdbcTemplate.queryForInt("select count(*) from events"));
+        assertEquals(100, jdbcTemplate.queryForInt("select count(*) from events where nodeId = ? and serviceId = 1 and eventHost = 'First Interface' and systemId = ?", nodeId, DistPollerDao.DEFAULT_DIST_POLLER_ID));
+    }
+
+    /**
+     * Events written by the batch writer must look exactly like the ones
+     * written one at a time.
+     */
+    @Test
+    public void testBatchedEventsMatchSingleEvents() throws Exception {
+        final HibernateEventWriter eventWriter = createBatchingEventWriter(10);
+        try {
+            EventBuilder bldr = new EventBuilder("testUei", "testSource");
+            bldr.setLogDest("logndisplay");
+            bldr.addParam("test", "testVal");
+            bldr.addParam("test2", "valWith\u0000Null\u0000");
+            bldr.setDescription("abc\u0000def");
+            bldr.setLogMessage("abc\u0000def");
+
+            // Store the same event with both writers
+            final Event event = bldr.getEvent();
+            m_eventWriter.process(null, event);
+            final int singleId = event.getDbid();
+            event.setDbid(0);
+            eventWriter.process(null, event);
+            final int batchedId = event.getDbid();
+            assertTrue(batchedId > singleId);
+
+            final String columns = "eventUei, nodeId, eventTime, eventHost, ipAddr, systemId, eventSnmpHost, serviceId, eventSnmp, eventParms, eventDescr, eventLoggroup, eventLogmsg, eventLog, eventDisplay, eventSeverity, eventPathOutage, eventCorrelation, eventSuppressedCount, eventOperInstruct, eventAutoAction, eventOperAction, eventOperActionMenuText, eventNotification, eventTticket, eventTticketState, eventForward, eventMouseOverText, eventAckUser, eventAckTime, eventSource, ifIndex";
+            assertEquals(jdbcTemplate.queryForMap("SELECT " + columns + " FROM events WHERE eventId = ?", singleId),
+                    jdbcTemplate.queryForMap("SELECT " + columns + " FROM events WHERE eventId = ?", batchedId));
+        } finally {
+            eventWriter.destroy();
+        }
+    }
+
+    /**
+     * Minions that register after the first event was written must still be resolved.
+     */
+    @Test
+    public void testBatchedEventDistPoller() throws Exception {
+        final HibernateEventWriter eventWriter = createBatchingEventWriter(10);
+        try {
+            String systemId = UUID.randomUUID().toString();
+            EventBuilder bldr = new EventBuilder("testUei", "testSource");
+            bldr.setDistPoller(systemId);
+            bldr.setLogMessage("test");
+
+            Event event = bldr.getEvent();
+            eventWriter.process(null, event);
+            assertEquals(DistPollerDao.DEFAULT_DIST_POLLER_ID, jdbcTemplate.queryForObject("SELECT systemId FROM events WHERE eventId = ?", String.class, event.getDbid()));
+
+            jdbcTemplate.execute(String.format("INSERT INTO monitoringsystems (id, location, type) VALUES ('%s', 'Hello World', '%s')", systemId, OnmsMonitoringSystem.TYPE_MINION));
+
+            event = bldr.getEvent();
+            event.setDbid(0);
+            eventWriter.process(null, event);
+            assertEquals(systemId, jdbcTemplate.queryForObject("SELECT systemId FROM events WHERE eventId = ?", String.class, event.getDbid()));
+        } finally {
+            eventWriter.destroy();
+        }
+    }
+
+    private HibernateEventWriter createBatchingEventWriter(int batchSize) {
+        final HibernateEventWriter eventWriter = new HibernateEventWriter();
+        m_applicationContext.getAutowireCapableBeanFactory().autowireBean(eventWriter);
+        eventWriter.setBatchSize(batchSize);
+        eventWriter.setBatchDelay(10);
+        eventWriter.afterPropertiesSet();
+        return eventWriter;
+    }
 }
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Compares the throughput of storing events one at a time
+ * with the throughput of the batch writer.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath*:/META-INF/opennms/component-service.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+
+        "classpath:/META-INF/opennms/applicationContext-eventUtil.xml",
+        "classpath:/META-INF/opennms/applicationContext-eventDaemon.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(reuseDatabase=false)
+public class HibernateEventWriterLoadIT {
+
+    private static final int NUM_EVENTS = 20000;
+
+    private static final int NUM_THREADS = 8;
+
+    @Autowired
+    private ApplicationContext m_applicationContext;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    @Test
+    public void canStoreEventsInBatches() throws Exception {
+        final HibernateEventWriter singleEventWriter = createEventWriter(0);
+        final HibernateEventWriter batchingEventWriter = createEventWriter(NUM_THREADS);
+        try {
+            // Warm up
+            storeEvents(singleEventWriter, NUM_EVENTS / 10);
+            storeEvents(batchingEventWriter, NUM_EVENTS / 10);
+
+            final long singleMs = storeEvents(singleEventWriter, NUM_EVENTS);
+            final long batchedMs = storeEvents(batchingEventWriter, NUM_EVENTS);
+
+            System.err.println(String.format("Stored %d events with %d threads: one at a time in %dms, in batches in %dms.",
+                    NUM_EVENTS, NUM_THREADS, singleMs, batchedMs));
+        } finally {
+            batchingEventWriter.destroy();
+        }
+
+        assertEquals(2 * (NUM_EVENTS + NUM_EVENTS / 10), m_jdbcTemplate.queryForInt("SELECT COUNT(*) FROM events"));
+    }
+
+    private long storeEvents(final HibernateEventWriter eventWriter, int numEvents) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            final long start = System.currentTimeMillis();
+            final List<Future<Void>> futures = new ArrayList<>(numEvents);
+            for (int i = 0; i < numEvents; i++) {
+                final int k = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/load", "HibernateEventWriterLoadIT");
+                        bldr.setLogDest("logndisplay");
+                        bldr.setLogMessage("event " + k);
+                        bldr.addParam("index", k);
+                        eventWriter.process(null, bldr.getEvent());
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private HibernateEventWriter createEventWriter(int batchSize) {
+        final HibernateEventWriter eventWriter = new HibernateEventWriter();
+        m_applicationContext.getAutowireCapableBeanFactory().autowireBean(eventWriter);
+        eventWriter.setBatchSize(batchSize);
+        eventWriter.afterPropertiesSet();
+        return eventWriter;
+    }
+}
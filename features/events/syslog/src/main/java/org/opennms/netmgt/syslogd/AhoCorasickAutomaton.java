@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Multi-pattern substring search over a fixed set of literals using the
+ * Aho-Corasick algorithm.
+ *
+ * The automaton is built once and is immutable afterwards, so a single
+ * instance can be searched from any number of threads concurrently. A
+ * search scans the input once, regardless of how many literals were
+ * added, and reports every literal that occurs anywhere in the input.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Aho%E2%80%93Corasick_algorithm">Aho-Corasick algorithm</a>
+ */
+public class AhoCorasickAutomaton {
+
+    private static final int[] NO_OUTPUT = new int[0];
+
+    /** Sorted transition labels for each state. */
+    private final char[][] m_labels;
+
+    /** Target states, parallel to {@link #m_labels}. */
+    private final int[][] m_targets;
+
+    /** Failure link for each state. */
+    private final int[] m_failure;
+
+    /** Literal ids that end at each state, including those reachable through failure links. */
+    private final int[][] m_outputs;
+
+    private final int m_literalCount;
+
+    /**
+     * Builds an automaton for the given literals. The id reported for a
+     * literal is its index in the list. Duplicate literals are reported
+     * under every id they were added with. Empty literals are never
+     * reported, callers are expected to treat them as always present.
+     *
+     * @param literals the literals to search for
+     */
+    public AhoCorasickAutomaton(final List<String> literals) {
+        m_literalCount = literals.size();
+
+        // Build the trie
+        final List<TreeMap<Character,Integer>> gotos = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        gotos.add(new TreeMap<Character,Integer>());
+        outputs.add(new ArrayList<Integer>());
+
+        for (int id = 0; id < literals.size(); id++) {
+            final String literal = literals.get(id);
+            if (literal == null || literal.length() == 0) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                final Character c = literal.charAt(i);
+                Integer next = gotos.get(state).get(c);
+                if (next == null) {
+                    next = gotos.size();
+                    gotos.add(new TreeMap<Character,Integer>());
+                    outputs.add(new ArrayList<Integer>());
+                    gotos.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(id);
+        }
+
+        final int stateCount = gotos.size();
+        m_labels = new char[stateCount][];
+        m_targets = new int[stateCount][];
+        m_failure = new int[stateCount];
+        m_outputs = new int[stateCount][];
+
+        for (int state = 0; state < stateCount; state++) {
+            final TreeMap<Character,Integer> transitions = gotos.get(state);
+            m_labels[state] = new char[transitions.size()];
+            m_targets[state] = new int[transitions.size()];
+            int i = 0;
+            for (final Map.Entry<Character,Integer> transition : transitions.entrySet()) {
+                m_labels[state][i] = transition.getKey();
+                m_targets[state][i] = transition.getValue();
+                i++;
+            }
+        }
+
+        // Compute the failure links breadth first, so that the failure
+        // target of a state is always complete before the state itself
+        final Queue<Integer> queue = new LinkedList<>();
+        for (final int child : m_targets[0]) {
+            m_failure[child] = 0;
+            queue.add(child);
+        }
+        final Map<Integer,int[]> merged = new HashMap<>();
+        merged.put(0, NO_OUTPUT);
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+
+            final int[] inherited = merged.get(m_failure[state]);
+            final List<Integer> own = outputs.get(state);
+            final int[] output = Arrays.copyOf(inherited, inherited.length + own.size());
+            for (int i = 0; i < own.size(); i++) {
+                output[inherited.length + i] = own.get(i);
+            }
+            merged.put(state, output);
+
+            for (int i = 0; i < m_labels[state].length; i++) {
+                final char c = m_labels[state][i];
+                final int child = m_targets[state][i];
+                int fallback = m_failure[state];
+                int next = transition(fallback, c);
+                while (next < 0 && fallback != 0) {
+                    fallback = m_failure[fallback];
+                    next = transition(fallback, c);
+                }
+                m_failure[child] = next < 0 ? 0 : next;
+                queue.add(child);
+            }
+        }
+        for (int state = 0; state < stateCount; state++) {
+            final int[] output = merged.get(state);
+            m_outputs[state] = output == null || output.length == 0 ? NO_OUTPUT : output;
+        }
+    }
+
+    /**
+     * @return the number of literal ids this automaton was built with
+     */
+    public int getLiteralCount() {
+        return m_literalCount;
+    }
+
+    /**
+     * Scans the text and marks the id of every literal that occurs in it.
+     *
+     * @param text the text to scan
+     * @param found bit set with at least {@link #getLiteralCount()} bits,
+     *        the bits of the literals that were found are set
+     * @return the number of literal occurrences that were reported
+     */
+    public int search(final CharSequence text, final long[] found) {
+        int hits = 0;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != 0) {
+                state = m_failure[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            final int[] output = m_outputs[state];
+            for (int j = 0; j < output.length; j++) {
+                found[output[j] >>> 6] |= 1L << output[j];
+            }
+            hits += output.length;
+        }
+        return hits;
+    }
+
+    private int transition(final int state, final char c) {
+        final int index = Arrays.binarySearch(m_labels[state], c);
+        return index < 0 ? -1 : m_targets[state][index];
+    }
+
+    /**
+     * @param found a bit set populated by {@link #search(CharSequence, long[])}
+     * @param id the id of a literal
+     * @return true if the literal was found
+     */
+    public static boolean isSet(final long[] found, final int id) {
+        return (found[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * @param literalCount the number of literals
+     * @return a bit set large enough to hold the given number of literals
+     */
+    public static long[] newBitSet(final int literalCount) {
+        return new long[(literalCount + 63) >>> 6];
+    }
+}
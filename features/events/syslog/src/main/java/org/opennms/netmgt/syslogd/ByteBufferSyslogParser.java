@@ -0,0 +1,624 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tokenizes syslog messages straight from the buffer that they were
+ * received into, as an alternative to decoding the whole datagram into a
+ * {@link String} and running the regular expressions of
+ * {@link SyslogNGParser} or {@link Rfc5424SyslogParser} on it.
+ *
+ * The header fields are located with a hand-written state machine that
+ * follows the same rules as the regular expressions, including the order
+ * in which they try alternatives, and only the fields that end up in the
+ * {@link SyslogMessage} are decoded. The message body is not decoded at
+ * all, it is handed to the {@link SyslogMessage} as a region of the buffer
+ * and decoded on first use.
+ *
+ * Whenever the input is not a plain, single-line message that the state
+ * machine can parse exactly like the regular expression would, the parse
+ * methods return null and the caller falls back to the regular expression
+ * parser. The buffer's position and limit are never modified.
+ */
+public abstract class ByteBufferSyslogParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ByteBufferSyslogParser.class);
+
+    private static final String[] MONTHS = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+
+    /** Days per month in a year that is not a leap year. */
+    private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    /** Upper bound on the backtracking steps spent on RFC5424 structured data. */
+    private static final int MAX_STRUCTURED_DATA_STEPS = 256;
+
+    private static volatile long s_yearCheckedAt;
+
+    private static volatile int s_currentYear;
+
+    /**
+     * Parses the buffer with the state machine that corresponds to the given
+     * parser class.
+     *
+     * @param parserClass the class name of the configured {@link SyslogParser}
+     * @param buffer the datagram, between its position and limit
+     * @return the message, or null if the parser class is not supported or
+     *         the message has to be parsed by the regular expression parser
+     */
+    public static SyslogMessage parse(final String parserClass, final ByteBuffer buffer) {
+        if (SyslogNGParser.class.getName().equals(parserClass)) {
+            return parseSyslogNG(buffer);
+        } else if (Rfc5424SyslogParser.class.getName().equals(parserClass)) {
+            return parseRfc5424(buffer);
+        }
+        return null;
+    }
+
+    /**
+     * Parses a BSD (RFC3164) style message the same way as {@link SyslogNGParser}.
+     *
+     * @param buffer the datagram, between its position and limit
+     * @return the message, or null if the regular expression parser has to be used
+     */
+    public static SyslogMessage parseSyslogNG(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        final int end = getEnd(buffer);
+        if (end < 0) {
+            return null;
+        }
+
+        final int priorityEnd = skipPriority(buffer, start, end);
+        if (priorityEnd < 0) {
+            return null;
+        }
+
+        // IDENT: the shortest run of non-space characters, followed by ": ", " " or nothing,
+        // that puts a timestamp, a host name and a message after it
+        final int identRunEnd = skipNonSpace(buffer, priorityEnd, end);
+        for (int identEnd = priorityEnd; identEnd <= identRunEnd; identEnd++) {
+            for (int separator = 0; separator < 3; separator++) {
+                final int timestampStart;
+                if (separator == 0) {
+                    if (!(at(buffer, identEnd, end, ':') && at(buffer, identEnd + 1, end, ' '))) continue;
+                    timestampStart = identEnd + 2;
+                } else if (separator == 1) {
+                    if (!at(buffer, identEnd, end, ' ')) continue;
+                    timestampStart = identEnd + 1;
+                } else {
+                    timestampStart = identEnd;
+                }
+
+                final int timestampEnd = skipSyslogNGTimestamp(buffer, timestampStart, end);
+                if (timestampEnd < 0 || !at(buffer, timestampEnd, end, ' ')) {
+                    continue;
+                }
+                final int hostStart = timestampEnd + 1;
+                final int hostEnd = skipNonSpace(buffer, hostStart, end);
+                if (hostEnd == hostStart || !at(buffer, hostEnd, end, ' ')) {
+                    continue;
+                }
+                final int rest = hostEnd + 1;
+
+                // PROCESS/ID: the shortest run of non-space characters that is followed by an
+                // optional [pid], a colon, and whitespace before the message
+                int processEnd = -1;
+                int pidStart = -1;
+                int pidEnd = -1;
+                int messageStart = -1;
+                final int processRunEnd = skipNonSpace(buffer, rest, end);
+                for (int i = rest + 1; i <= processRunEnd && messageStart < 0; i++) {
+                    if (at(buffer, i, end, '[')) {
+                        final int digitsEnd = skipDigits(buffer, i + 1, end);
+                        if (digitsEnd > i + 1 && at(buffer, digitsEnd, end, ']') && at(buffer, digitsEnd + 1, end, ':')) {
+                            messageStart = skipColonAndSpace(buffer, digitsEnd + 1, end);
+                            if (messageStart >= 0) {
+                                pidStart = i + 1;
+                                pidEnd = digitsEnd;
+                            }
+                        }
+                    }
+                    if (messageStart < 0 && at(buffer, i, end, ':')) {
+                        messageStart = skipColonAndSpace(buffer, i, end);
+                    }
+                    if (messageStart >= 0) {
+                        processEnd = i;
+                    }
+                }
+                if (messageStart < 0) {
+                    if (rest >= end || isSpace(buffer.get(rest))) {
+                        continue;
+                    }
+                    messageStart = rest;
+                }
+
+                final SyslogMessage message = new SyslogMessage();
+                message.setParserClass(SyslogNGParser.class);
+                final int priorityField = parseInt(buffer, start + 1, priorityEnd - 1);
+                message.setFacility(SyslogFacility.getFacilityForCode(priorityField));
+                message.setSeverity(SyslogSeverity.getSeverityForCode(priorityField));
+                if (identEnd > priorityEnd) {
+                    message.setMessageID(decode(buffer, priorityEnd, identEnd));
+                }
+                Date date = parseSyslogNGDate(buffer, timestampStart, timestampEnd);
+                if (date == null) date = new Date();
+                message.setDate(date);
+                message.setHostName(decode(buffer, hostStart, hostEnd));
+                if (processEnd >= 0) {
+                    message.setProcessName(decode(buffer, rest, processEnd));
+                    if (pidStart >= 0) {
+                        final int pid = parseInt(buffer, pidStart, pidEnd);
+                        if (pid >= 0) {
+                            message.setProcessId(pid);
+                        } else {
+                            LOG.debug("Unable to parse '{}' as a process ID.", decode(buffer, pidStart, pidEnd));
+                        }
+                    }
+                }
+                setTrimmedMessage(message, buffer, messageStart, end);
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses an RFC5424 message the same way as {@link Rfc5424SyslogParser}.
+     *
+     * @param buffer the datagram, between its position and limit
+     * @return the message, or null if the regular expression parser has to be used
+     */
+    public static SyslogMessage parseRfc5424(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        final int end = getEnd(buffer);
+        if (end < 0) {
+            return null;
+        }
+
+        final int priorityEnd = skipPriority(buffer, start, end);
+        if (priorityEnd < 0) {
+            return null;
+        }
+
+        // VERSION: the fewest digits, at most two, that are followed by a space
+        int versionEnd = -1;
+        for (int i = priorityEnd; i <= priorityEnd + 2 && i < end; i++) {
+            if (buffer.get(i) == ' ') {
+                versionEnd = i;
+                break;
+            } else if (!isDigit(buffer.get(i))) {
+                return null;
+            }
+        }
+        if (versionEnd < 0) {
+            return null;
+        }
+
+        // TIMESTAMP: non-space characters with a 'T' that is neither first nor last
+        final int timestampStart = versionEnd + 1;
+        final int timestampEnd = skipNonSpace(buffer, timestampStart, end);
+        if (!at(buffer, timestampEnd, end, ' ') || indexOf(buffer, timestampStart + 1, timestampEnd - 1, 'T') < 0) {
+            return null;
+        }
+
+        final int hostStart = timestampEnd + 1;
+        final int hostEnd = skipNonSpace(buffer, hostStart, end);
+        if (!at(buffer, hostEnd, end, ' ')) {
+            return null;
+        }
+
+        final int appStart = hostEnd + 1;
+        final int appEnd = skipNonSpace(buffer, appStart, end);
+        if (!at(buffer, appEnd, end, ' ')) {
+            return null;
+        }
+
+        final int procIdStart = appEnd + 1;
+        int procIdEnd = skipDigits(buffer, procIdStart, end);
+        if (procIdEnd == procIdStart) {
+            if (!at(buffer, procIdStart, end, '-')) {
+                return null;
+            }
+            procIdEnd = procIdStart + 1;
+        }
+        if (!at(buffer, procIdEnd, end, ' ')) {
+            return null;
+        }
+
+        final int msgIdStart = procIdEnd + 1;
+        final int msgIdEnd = skipNonSpace(buffer, msgIdStart, end);
+        if (!at(buffer, msgIdEnd, end, ' ')) {
+            return null;
+        }
+
+        // STRUCTURED-DATA: zero or more [...] elements, or a dash
+        final int structuredDataStart = msgIdEnd + 1;
+        int structuredDataEnd = skipStructuredData(buffer, structuredDataStart, end, new int[] { MAX_STRUCTURED_DATA_STEPS });
+        if (structuredDataEnd == -2) {
+            return null;
+        } else if (structuredDataEnd < 0) {
+            if (at(buffer, structuredDataStart, end, '-') && isEndOfStructuredData(buffer, structuredDataStart + 1, end)) {
+                structuredDataEnd = structuredDataStart + 1;
+            } else {
+                return null;
+            }
+        }
+
+        final SyslogMessage message = new SyslogMessage();
+        message.setParserClass(Rfc5424SyslogParser.class);
+        final int priorityField = parseInt(buffer, start + 1, priorityEnd - 1);
+        message.setFacility(SyslogFacility.getFacilityForCode(priorityField));
+        message.setSeverity(SyslogSeverity.getSeverityForCode(priorityField));
+        if (versionEnd > priorityEnd) {
+            message.setVersion(parseInt(buffer, priorityEnd, versionEnd));
+        }
+        message.setDate(parseRfc5424Date(buffer, timestampStart, timestampEnd));
+        if (!isDash(buffer, hostStart, hostEnd)) {
+            message.setHostName(decode(buffer, hostStart, hostEnd));
+        }
+        if (!isDash(buffer, appStart, appEnd)) {
+            message.setProcessName(decode(buffer, appStart, appEnd));
+        }
+        if (!isDash(buffer, procIdStart, procIdEnd)) {
+            final int pid = parseInt(buffer, procIdStart, procIdEnd);
+            if (pid >= 0) {
+                message.setProcessId(pid);
+            } else {
+                LOG.debug("Unable to parse process ID '{}' as a number.", decode(buffer, procIdStart, procIdEnd));
+            }
+        }
+        if (!isDash(buffer, msgIdStart, msgIdEnd)) {
+            message.setMessageID(decode(buffer, msgIdStart, msgIdEnd));
+        }
+        if (structuredDataEnd < end) {
+            int messageStart = structuredDataEnd + 1;
+            if (end - messageStart >= 3 && buffer.get(messageStart) == 'B' && buffer.get(messageStart + 1) == 'O' && buffer.get(messageStart + 2) == 'M') {
+                messageStart += 3;
+            }
+            if (messageStart < end) {
+                setTrimmedMessage(message, buffer, messageStart, end);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Matches <code>(?:\[.*?\])*</code> followed by a space or the end of
+     * the input, trying alternatives in the same order as the regular
+     * expression.
+     *
+     * @return the end of the structured data, -1 if it does not match, or -2
+     *         if the step budget ran out
+     */
+    private static int skipStructuredData(final ByteBuffer buffer, final int index, final int end, final int[] budget) {
+        if (--budget[0] < 0) {
+            return -2;
+        }
+        if (at(buffer, index, end, '[')) {
+            // Greedy: try one more element first, with the shortest possible content
+            for (int close = index + 1; close < end; close++) {
+                if (buffer.get(close) == ']') {
+                    final int result = skipStructuredData(buffer, close + 1, end, budget);
+                    if (result != -1) {
+                        return result;
+                    }
+                }
+            }
+        }
+        return isEndOfStructuredData(buffer, index, end) ? index : -1;
+    }
+
+    private static boolean isEndOfStructuredData(final ByteBuffer buffer, final int index, final int end) {
+        return index == end || buffer.get(index) == ' ';
+    }
+
+    /**
+     * @return the end of the datagram with one trailing NUL removed, or -1
+     *         if the datagram spans multiple lines
+     */
+    private static int getEnd(final ByteBuffer buffer) {
+        int end = buffer.limit();
+        if (end > buffer.position() && buffer.get(end - 1) == 0) {
+            end--;
+        }
+        for (int i = buffer.position(); i < end; i++) {
+            final byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the index after <code>&lt;\d{1,3}&gt;</code>, or -1
+     */
+    private static int skipPriority(final ByteBuffer buffer, final int start, final int end) {
+        if (!at(buffer, start, end, '<')) {
+            return -1;
+        }
+        final int digitsEnd = skipDigits(buffer, start + 1, end);
+        if (digitsEnd == start + 1 || digitsEnd > start + 4 || !at(buffer, digitsEnd, end, '>')) {
+            return -1;
+        }
+        return digitsEnd + 1;
+    }
+
+    /**
+     * Matches <code>(?:\d\d\d\d-\d\d-\d\d)|(?:\S\S\S\s+\d{1,2}\s+\d\d:\d\d:\d\d)</code>.
+     *
+     * @return the end of the timestamp, or -1
+     */
+    private static int skipSyslogNGTimestamp(final ByteBuffer buffer, final int start, final int end) {
+        if (start + 10 <= end &&
+            isDigit(buffer.get(start)) && isDigit(buffer.get(start + 1)) && isDigit(buffer.get(start + 2)) && isDigit(buffer.get(start + 3)) &&
+            buffer.get(start + 4) == '-' && isDigit(buffer.get(start + 5)) && isDigit(buffer.get(start + 6)) &&
+            buffer.get(start + 7) == '-' && isDigit(buffer.get(start + 8)) && isDigit(buffer.get(start + 9))) {
+            return start + 10;
+        }
+
+        if (start + 3 > end || isSpace(buffer.get(start)) || isSpace(buffer.get(start + 1)) || isSpace(buffer.get(start + 2))) {
+            return -1;
+        }
+        int i = skipSpace(buffer, start + 3, end);
+        if (i == start + 3) {
+            return -1;
+        }
+        final int dayStart = i;
+        i = skipDigits(buffer, i, end);
+        if (i == dayStart || i > dayStart + 2) {
+            return -1;
+        }
+        final int timeStart = skipSpace(buffer, i, end);
+        if (timeStart == i || timeStart + 8 > end) {
+            return -1;
+        }
+        for (int j = 0; j < 8; j++) {
+            final byte b = buffer.get(timeStart + j);
+            if ((j == 2 || j == 5) ? b != ':' : !isDigit(b)) {
+                return -1;
+            }
+        }
+        return timeStart + 8;
+    }
+
+    /**
+     * Parses the dates handled by {@link SyslogParser#parseDate(String)},
+     * without allocating a date format for the common layouts.
+     */
+    private static Date parseSyslogNGDate(final ByteBuffer buffer, final int start, final int end) {
+        if (end - start == 10 && buffer.get(start + 4) == '-') {
+            // yyyy-MM-dd, at midnight UTC
+            final int year = parseInt(buffer, start, start + 4);
+            final int month = parseInt(buffer, start + 5, start + 7);
+            final int day = parseInt(buffer, start + 8, start + 10);
+            if (year >= 1900 && year <= 2099 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)) {
+                return new Date(toEpochMillis(year, month, day, 0, 0, 0));
+            }
+        } else if (end - start >= 14 && end - start <= 15 && buffer.get(start + 3) == ' ' && buffer.get(end - 9) == ' ') {
+            // MMM dd HH:mm:ss, in the current year in UTC
+            final int month = parseMonth(buffer, start);
+            final int day = parseInt(buffer, start + 4, end - 9);
+            final int hour = parseInt(buffer, end - 8, end - 6);
+            final int minute = parseInt(buffer, end - 5, end - 3);
+            final int second = parseInt(buffer, end - 2, end);
+            // Days are validated against 1970, the year that the date format parses into
+            if (month > 0 && day >= 1 && day <= daysInMonth(1970, month) && hour < 24 && minute < 60 && second < 60) {
+                return new Date(toEpochMillis(getCurrentYear(), month, day, hour, minute, second));
+            }
+        }
+        return SyslogParser.parseDate(decode(buffer, start, end));
+    }
+
+    /**
+     * Parses the dates handled by {@link Rfc5424SyslogParser#parseDate(String)},
+     * without allocating a date format for the common layouts.
+     */
+    private static Date parseRfc5424Date(final ByteBuffer buffer, final int start, final int end) {
+        // yyyy-MM-ddTHH:mm:ss, followed by an optional fraction and a zone
+        if (end - start >= 20 && buffer.get(start + 4) == '-' && buffer.get(start + 7) == '-' && buffer.get(start + 10) == 'T' &&
+            buffer.get(start + 13) == ':' && buffer.get(start + 16) == ':') {
+            final int year = parseInt(buffer, start, start + 4);
+            final int month = parseInt(buffer, start + 5, start + 7);
+            final int day = parseInt(buffer, start + 8, start + 10);
+            final int hour = parseInt(buffer, start + 11, start + 13);
+            final int minute = parseInt(buffer, start + 14, start + 16);
+            final int second = parseInt(buffer, start + 17, start + 19);
+
+            int i = start + 19;
+            int fraction = 0;
+            if (buffer.get(i) == '.') {
+                final int fractionEnd = skipDigits(buffer, i + 1, end);
+                // The date format reads the fraction leniently as a number of milliseconds
+                fraction = fractionEnd - i - 1 <= 6 ? parseInt(buffer, i + 1, fractionEnd) : -1;
+                i = fractionEnd;
+            }
+
+            int offsetMinutes = -1;
+            if (end - i == 1 && buffer.get(i) == 'Z') {
+                offsetMinutes = 0;
+            } else if ((end - i == 6 && buffer.get(i + 3) == ':') || end - i == 5) {
+                final byte sign = buffer.get(i);
+                final int offsetHours = parseInt(buffer, i + 1, i + 3);
+                final int offsetMins = parseInt(buffer, end - 2, end);
+                if ((sign == '+' || sign == '-') && offsetHours >= 0 && offsetHours < 24 && offsetMins >= 0 && offsetMins < 60) {
+                    offsetMinutes = (offsetHours * 60 + offsetMins) * (sign == '-' ? -1 : 1);
+                }
+            }
+
+            if (year >= 1900 && year <= 2099 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month) &&
+                hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60 &&
+                fraction >= 0 && offsetMinutes != -1) {
+                return new Date(toEpochMillis(year, month, day, hour, minute, second) + fraction - offsetMinutes * 60000L);
+            }
+        }
+        return Rfc5424SyslogParser.parseDate(decode(buffer, start, end));
+    }
+
+    private static void setTrimmedMessage(final SyslogMessage message, final ByteBuffer buffer, int start, int end) {
+        // Same as String.trim(), bytes outside of US-ASCII decode to U+FFFD and are kept
+        while (start < end && buffer.get(start) >= 0 && buffer.get(start) <= ' ') start++;
+        while (end > start && buffer.get(end - 1) >= 0 && buffer.get(end - 1) <= ' ') end--;
+        message.setMessage(buffer, start, end - start);
+    }
+
+    private static int skipColonAndSpace(final ByteBuffer buffer, final int colon, final int end) {
+        final int messageStart = skipSpace(buffer, colon + 1, end);
+        return messageStart > colon + 1 && messageStart < end ? messageStart : -1;
+    }
+
+    private static int skipNonSpace(final ByteBuffer buffer, int i, final int end) {
+        while (i < end && !isSpace(buffer.get(i))) i++;
+        return i;
+    }
+
+    private static int skipSpace(final ByteBuffer buffer, int i, final int end) {
+        while (i < end && isSpace(buffer.get(i))) i++;
+        return i;
+    }
+
+    private static int skipDigits(final ByteBuffer buffer, int i, final int end) {
+        while (i < end && isDigit(buffer.get(i))) i++;
+        return i;
+    }
+
+    private static int indexOf(final ByteBuffer buffer, final int start, final int end, final char c) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static boolean at(final ByteBuffer buffer, final int i, final int end, final char c) {
+        return i < end && buffer.get(i) == c;
+    }
+
+    private static boolean isDash(final ByteBuffer buffer, final int start, final int end) {
+        return end - start == 1 && buffer.get(start) == '-';
+    }
+
+    /** Same as \s in a regular expression, line terminators are excluded earlier. */
+    private static boolean isSpace(final byte b) {
+        return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+    }
+
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * @return the value of the digits, or -1 if they are not all digits or overflow an int
+     */
+    private static int parseInt(final ByteBuffer buffer, final int start, final int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = buffer.get(i);
+            if (!isDigit(b)) {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int)value;
+    }
+
+    /**
+     * @return the month, 1 to 12, of a case-insensitive English abbreviation, or -1
+     */
+    private static int parseMonth(final ByteBuffer buffer, final int start) {
+        for (int month = 0; month < MONTHS.length; month++) {
+            boolean matches = true;
+            for (int i = 0; i < 3 && matches; i++) {
+                matches = Character.toLowerCase((char)buffer.get(start + i)) == MONTHS[month].charAt(i);
+            }
+            if (matches) {
+                return month + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static String decode(final ByteBuffer buffer, final int start, final int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.US_ASCII);
+        }
+        final byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isLeapYear(final int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        return month == 2 && isLeapYear(year) ? 29 : DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * Converts a UTC date and time in the proleptic Gregorian calendar into
+     * milliseconds since the epoch.
+     */
+    private static long toEpochMillis(final int year, final int month, final int day, final int hour, final int minute, final int second) {
+        // Days from civil, counting years from March so that the leap day is last
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        final long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+    }
+
+    /**
+     * @return the current year in the default time zone, recomputed at most once a second
+     */
+    private static int getCurrentYear() {
+        final long now = System.currentTimeMillis();
+        if (now - s_yearCheckedAt > 1000 || now < s_yearCheckedAt) {
+            s_currentYear = Calendar.getInstance().get(Calendar.YEAR);
+            s_yearCheckedAt = now;
+        }
+        return s_currentYear;
+    }
+}
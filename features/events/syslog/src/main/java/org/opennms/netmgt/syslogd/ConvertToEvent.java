@@ -33,25 +33,12 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.SyslogdConfig;
-import org.opennms.netmgt.config.syslogd.HideMatch;
-import org.opennms.netmgt.config.syslogd.HideMessage;
-import org.opennms.netmgt.config.syslogd.HostaddrMatch;
-import org.opennms.netmgt.config.syslogd.HostnameMatch;
-import org.opennms.netmgt.config.syslogd.ParameterAssignment;
-import org.opennms.netmgt.config.syslogd.ProcessMatch;
-import org.opennms.netmgt.config.syslogd.UeiList;
-import org.opennms.netmgt.config.syslogd.UeiMatch;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
@@ -60,9 +47,6 @@ import org.slf4j.LoggerFactory;
 /**
  * This routine does the majority of Syslogd's work.
  * Improvements are most likely to be made.
- * 
- * TODO: This class is sloooow. It needs to be sped up significantly
- * to handle increased syslog volume.
  *
  * @author <a href="mailto:joed@opennms.org">Johan Edstrom</a>
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
@@ -80,8 +64,6 @@ public class ConvertToEvent {
 
     private final Event m_event;
 
-    private static final Map<String,Pattern> CACHED_PATTERNS = Collections.synchronizedMap(new WeakHashMap<String,Pattern>());
-
     /**
      * Constructs a new event encapsulation instance based upon the
      * information passed to the method. The passed datagram data is decoded
@@ -122,44 +104,44 @@ public class ConvertToEvent {
         final String data,
         final SyslogdConfig config
     ) throws UnsupportedEncodingException, MessageDiscardedException {
+        this(systemId, parse(config, data), config);
+    }
 
-        if (config == null) {
-            throw new IllegalArgumentException("Config cannot be null");
-        }
+    /**
+     * Constructs a new event encapsulation instance based upon the
+     * information passed to the method. The header fields of the message are
+     * tokenized straight from the buffer and only decoded as needed, the
+     * message body is decoded when it is first used.
+     *
+     * The buffer must not be modified until the event has been constructed.
+     *
+     * @param addr The remote agent's address.
+     * @param port The remote agent's port
+     * @param data The message in US-ASCII encoding, between the position and the limit of the buffer.
+     * @throws MessageDiscardedException 
+     */
+    public ConvertToEvent(
+        final String systemId,
+        final InetAddress addr,
+        final int port,
+        final ByteBuffer data,
+        final SyslogdConfig config
+    ) throws MessageDiscardedException {
+        this(systemId, parse(config, data), config);
+    }
 
-        final UeiList ueiList = config.getUeiList();
-        final HideMessage hideMessage = config.getHideMessages();
-        final String discardUei = config.getDiscardUei();
+    private ConvertToEvent(
+        final String systemId,
+        final SyslogMessage message,
+        final SyslogdConfig config
+    ) throws MessageDiscardedException {
 
-        final String syslogString;
-        if (data.endsWith("\0")) {
-            syslogString = data.substring(0, data.length() - 1);
-        } else {
-            syslogString = data;
-        }
+        final String discardUei = config.getDiscardUei();
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Converting to event: {}", this);
         }
 
-        SyslogParser parser = SyslogParser.getParserInstance(config, syslogString);
-        if (!parser.find()) {
-            throw new MessageDiscardedException("message does not match");
-        }
-        SyslogMessage message;
-        try {
-            message = parser.parse();
-        } catch (final SyslogParserException ex) {
-            LOG.debug("Unable to parse '{}'", syslogString, ex);
-            throw new MessageDiscardedException(ex);
-        }
-
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("got syslog message {}", message);
-        }
-        if (message == null) {
-            throw new MessageDiscardedException(String.format("Unable to parse '%s'", syslogString));
-        }
         // Build a basic event out of the syslog message
         final String priorityTxt = message.getSeverity().toString();
         final String facilityTxt = message.getFacility().toString();
@@ -205,77 +187,25 @@ public class ConvertToEvent {
         * node to match against nodeId.
          */
 
-        Pattern msgPat = null;
-        Matcher msgMat = null;
-
         // Time to verify UEI matching.
 
-        final String fullText = message.getFullText();
-        final String matchedText = message.getMatchedMessage();
-
-        final List<UeiMatch> ueiMatch = ueiList == null? null : ueiList.getUeiMatchCollection();
-        if (ueiMatch == null) {
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(config);
+        if (!matcher.hasUeiMatches()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No ueiList configured.");
             }
         } else {
-            for (final UeiMatch uei : ueiMatch) {
-                final boolean otherStuffMatches = containsIgnoreCase(uei.getFacilityCollection(), facilityTxt) &&
-                                                  containsIgnoreCase(uei.getSeverityCollection(), priorityTxt) &&
-                                                  matchProcess(uei.getProcessMatch(), message.getProcessName()) && 
-                                                  matchHostname(uei.getHostnameMatch(), message.getHostName()) &&
-                                                  matchHostAddr(uei.getHostaddrMatch(), message.getHostAddress());
-
-                // Single boolean check is added instead of performing multiple
-                // boolean check for both if and else if which causes a extra time
-                if (otherStuffMatches) {
-                    if (uei.getMatch().getType().equals("substr")) {
-                        if (matchSubstring(discardUei, bldr, matchedText, uei)) {
-                            break;
-                        }
-                    } else if ((uei.getMatch().getType().startsWith("regex"))) {
-                        if (matchRegex(message, uei, bldr, discardUei)) {
-                            break;
-                        }
-                    }
-                }
-            }
+            matcher.matchUei(message, discardUei, bldr);
         }
 
         // Time to verify if we need to hide the message
-        boolean doHide = false;
-        final List<HideMatch> hideMatch = hideMessage == null? null : hideMessage.getHideMatchCollection();
-        if (hideMatch == null) {
+        if (!matcher.hasHideMatches()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No hideMessage configured.");
             }
-        } else {
-            for (final HideMatch hide : hideMatch) {
-                if (hide.getMatch().getType().equals("substr")) {
-                    if (fullText.contains(hide.getMatch().getExpression())) {
-                        // We should hide the message based on this match
-                        doHide = true;
-                    }
-                } else if (hide.getMatch().getType().equals("regex")) {
-                    try {
-                        msgPat = Pattern.compile(hide.getMatch().getExpression(), Pattern.MULTILINE);
-                        msgMat = msgPat.matcher(fullText);
-                    } catch (PatternSyntaxException pse) {
-                        LOG.warn("Failed to compile regex pattern '{}'", hide.getMatch().getExpression(), pse);
-                        msgMat = null;
-                    }
-                    if ((msgMat != null) && (msgMat.find())) {
-                        // We should hide the message based on this match
-                        doHide = true;
-                    }
-                }
-                if (doHide) {
-                    LOG.debug("Hiding syslog message from Event - May contain sensitive data");
-                    message.setMessage(HIDDEN_MESSAGE);
-                    // We want to stop here, no point in checking further hideMatches
-                    break;
-                }
-            }
+        } else if (matcher.isHidden(message.getFullText())) {
+            LOG.debug("Hiding syslog message from Event - May contain sensitive data");
+            message.setMessage(HIDDEN_MESSAGE);
         }
 
         // Using parms provides configurability.
@@ -298,153 +228,54 @@ public class ConvertToEvent {
         m_event = bldr.getEvent();
     }
 
-    private static boolean matchFind(final String expression, final String input, final String context) {
-        final Pattern pat = getPattern(expression);
-        if (pat == null) {
-            LOG.debug("Unable to get pattern for expression '{}' in {} context", expression, context);
-            return false;
-        }
-        final Matcher mat = pat.matcher(input);
-        if (mat != null && mat.find()) return true;
-        return false;
-    }
-    
-    private static boolean matchHostAddr(final HostaddrMatch hostaddrMatch, final String hostAddress) {
-        if (hostaddrMatch == null) return true;
-        if (hostAddress == null) return false;
-        
-        final String expression = hostaddrMatch.getExpression();
-        
-        if (matchFind(expression, hostAddress, "hostaddr-match")) {
-            LOG.trace("Successful regex hostaddr-match for input '{}' against expression '{}'", hostAddress, expression);
-            return true;
-        }
-        return false;
-    }
-    
-    private static boolean matchHostname(final HostnameMatch hostnameMatch, final String hostName) {
-        if (hostnameMatch == null) return true;
-        if (hostName == null) return false;
-        
-        final String expression = hostnameMatch.getExpression();
-        
-        if (matchFind(expression, hostName, "hostname-match")) {
-            LOG.trace("Successful regex hostname-match for input '{}' against expression '{}'", hostName, expression);
-            return true;
+    private static SyslogMessage parse(final SyslogdConfig config, final ByteBuffer data) throws MessageDiscardedException {
+        if (config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
         }
-        return false;
-    }
-
-    private static boolean matchProcess(final ProcessMatch processMatch, final String processName) {
-        if (processMatch == null) return true;
-        if (processName == null) return false;
-
-        final String expression = processMatch.getExpression();
 
-        if (matchFind(expression, processName, "process-match")) {
-            LOG.trace("Successful regex process-match for input '{}' against expression '{}'", processName, expression);
-            return true;
+        final SyslogMessage message = ByteBufferSyslogParser.parse(config.getParser(), data);
+        if (message != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("got syslog message {}", message);
+            }
+            return message;
         }
-        return false;
-    }
-    
-    private static boolean containsIgnoreCase(List<String> collection, String match) {
-         if (collection.size() == 0) return true;
-         for (String string : collection) {
-             if (string.equalsIgnoreCase(match)) return true;
-         }
-         return false;
+
+        // Not a message that the tokenizer handles, use the parser's regular expression
+        return parse(config, StandardCharsets.US_ASCII.decode(data.duplicate()).toString());
     }
 
-    private static Pattern getPattern(final String expression) {
-        final Pattern msgPat = CACHED_PATTERNS.get(expression);
-        if (msgPat == null) {
-            try {
-                final Pattern newPat = Pattern.compile(expression, Pattern.MULTILINE);
-                CACHED_PATTERNS.put(expression, newPat);
-                return newPat;
-            } catch(final PatternSyntaxException pse) {
-                LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
-            }
+    private static SyslogMessage parse(final SyslogdConfig config, final String data) throws MessageDiscardedException {
+        if (config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
         }
-        return msgPat;
-    }
 
-    private static boolean matchSubstring(final String discardUei, final EventBuilder bldr, String message, final UeiMatch uei) throws MessageDiscardedException {
-        boolean doIMatch = false;
-        boolean traceEnabled = LOG.isTraceEnabled();
-        if (message.contains(uei.getMatch().getExpression())) {
-            if (discardUei.equals(uei.getUei())) {
-                if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
-                throw new MessageDiscardedException();
-            } else {
-                //We can pass a new UEI on this
-                if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on substring match, to : {}", uei.getUei());
-                bldr.setUei(uei.getUei());
-                // I think we want to stop processing here so the first
-                // ueiMatch wins, right?
-                doIMatch = true;
-            }
+        final String syslogString;
+        if (data.endsWith("\0")) {
+            syslogString = data.substring(0, data.length() - 1);
         } else {
-            if (traceEnabled) LOG.trace("No substring match for text of a Syslogd event to : {}", uei.getMatch().getExpression());
+            syslogString = data;
         }
-        return doIMatch;
-    }
 
-    private static boolean matchRegex(final SyslogMessage message, final UeiMatch uei, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
-        boolean traceEnabled = LOG.isTraceEnabled();
-        final String expression = uei.getMatch().getExpression();
-        final Pattern msgPat = getPattern(expression);
-        final Matcher msgMat;
-        if (msgPat == null) {
-            LOG.debug("Unable to create pattern for expression '{}'", expression);
-            return false;
-        } else {
-            final String text;
-            if (message.getMatchedMessage() != null) {
-                text = message.getMatchedMessage();
-            } else {
-                text = message.getFullText();
-            }
-            msgMat = msgPat.matcher(text);
+        SyslogParser parser = SyslogParser.getParserInstance(config, syslogString);
+        if (!parser.find()) {
+            throw new MessageDiscardedException("message does not match");
+        }
+        SyslogMessage message;
+        try {
+            message = parser.parse();
+        } catch (final SyslogParserException ex) {
+            LOG.debug("Unable to parse '{}'", syslogString, ex);
+            throw new MessageDiscardedException(ex);
         }
-        if ((msgMat != null) && (msgMat.find())) {
-            if (discardUei.equals(uei.getUei())) {
-                LOG.debug("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
-                throw new MessageDiscardedException();
-            }
 
-            // We matched a UEI
-            bldr.setUei(uei.getUei());
-            // Removed check of count in both if condition which is redundant
-            if (msgMat.groupCount() > 0) {
-                if (uei.getMatch().isDefaultParameterMapping()) {
-                    if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
-                    for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
-                        if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, msgMat.group(groupNum));
-                        bldr.addParam("group"+groupNum, msgMat.group(groupNum));
-                    }
-                }
-
-                if (uei.getParameterAssignmentCount() > 0) {
-                    if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
-                    for (ParameterAssignment assignment : uei.getParameterAssignmentCollection()) {
-                        String parmName = assignment.getParameterName();
-                        String parmValue = msgMat.group(assignment.getMatchingGroup());
-                        parmValue = parmValue == null ? "" : parmValue;
-                        bldr.addParam(parmName, parmValue);
-                        if (traceEnabled) {
-                            LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
-                        }
-                    }
-                }
-            }
-            // I think we want to stop processing here so the first
-            // ueiMatch wins, right?
-            return true;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("got syslog message {}", message);
+        }
+        if (message == null) {
+            throw new MessageDiscardedException(String.format("Unable to parse '%s'", syslogString));
         }
-        if (traceEnabled) LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), expression);
-        return false;
+        return message;
     }
 
     /**
@@ -28,12 +28,10 @@
 
 package org.opennms.netmgt.syslogd;
 
-import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -165,9 +163,9 @@ public class SyslogConnection implements Callable<Callable<?>> {
                 m_systemId,
                 m_sourceAddress,
                 m_port,
-                // Decode the packet content as ASCII
+                // Tokenize the packet content as ASCII without copying it
                 // TODO: Support more character encodings?
-                StandardCharsets.US_ASCII.decode(m_bytes).toString(),
+                m_bytes,
                 m_config
             );
 
@@ -175,8 +173,6 @@ public class SyslogConnection implements Callable<Callable<?>> {
 
             return new SyslogProcessor(re.getEvent(), m_config.getNewSuspectOnMessage());
 
-        } catch (final UnsupportedEncodingException e) {
-            LOG.info("Failure to convert package", e);
         } catch (final MessageDiscardedException e) {
             LOG.info("Message discarded, returning without enqueueing event.", e);
         } catch (final Throwable e) {
@@ -0,0 +1,677 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The &lt;ueiList&gt; and &lt;hideMessage&gt; sections of the Syslogd
+ * configuration compiled into a form that can be evaluated quickly.
+ *
+ * All of the literals that a message must contain for a rule to match are
+ * collected into a single {@link AhoCorasickAutomaton}: the expression of
+ * every "substr" rule, and the literal runs that every match of a "regex"
+ * rule must contain. A message is scanned once, and only the rules whose
+ * literals were all found are evaluated, in configuration order, so the
+ * first matching rule still wins.
+ *
+ * Instances are immutable and shared by all of the threads that convert
+ * messages without any locking. A new instance is compiled whenever the
+ * configuration objects change.
+ */
+public class SyslogMatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogMatcher.class);
+
+    private static volatile SyslogMatcher s_instance;
+
+    private final UeiList m_ueiList;
+
+    private final HideMessage m_hideMessage;
+
+    private final UeiRule[] m_ueiRules;
+
+    private final LiteralIndex m_ueiIndex;
+
+    private final HideRule[] m_hideRules;
+
+    private final LiteralIndex m_hideIndex;
+
+    /**
+     * Returns the matcher for the given configuration, compiling a new one
+     * if the &lt;ueiList&gt; or &lt;hideMessage&gt; objects have changed
+     * since the last call.
+     *
+     * @param config the Syslogd configuration
+     * @return a matcher for the configuration
+     */
+    public static SyslogMatcher getInstance(final SyslogdConfig config) {
+        final UeiList ueiList = config.getUeiList();
+        final HideMessage hideMessage = config.getHideMessages();
+        SyslogMatcher matcher = s_instance;
+        if (matcher == null || matcher.m_ueiList != ueiList || matcher.m_hideMessage != hideMessage) {
+            // Two threads may compile the same configuration concurrently, both results are equivalent
+            matcher = new SyslogMatcher(ueiList, hideMessage);
+            s_instance = matcher;
+        }
+        return matcher;
+    }
+
+    public SyslogMatcher(final UeiList ueiList, final HideMessage hideMessage) {
+        m_ueiList = ueiList;
+        m_hideMessage = hideMessage;
+
+        final List<UeiMatch> ueiMatches = ueiList == null ? null : ueiList.getUeiMatchCollection();
+        if (ueiMatches == null) {
+            m_ueiRules = null;
+            m_ueiIndex = null;
+        } else {
+            m_ueiRules = new UeiRule[ueiMatches.size()];
+            final List<List<String>> literals = new ArrayList<>(ueiMatches.size());
+            for (int i = 0; i < m_ueiRules.length; i++) {
+                m_ueiRules[i] = new UeiRule(ueiMatches.get(i));
+                literals.add(m_ueiRules[i].m_requiredLiterals);
+            }
+            m_ueiIndex = new LiteralIndex(literals);
+            LOG.debug("Compiled {} ueiMatch rules into an automaton with {} literals.", m_ueiRules.length, m_ueiIndex.getLiteralCount());
+        }
+
+        final List<HideMatch> hideMatches = hideMessage == null ? null : hideMessage.getHideMatchCollection();
+        if (hideMatches == null) {
+            m_hideRules = null;
+            m_hideIndex = null;
+        } else {
+            m_hideRules = new HideRule[hideMatches.size()];
+            final List<List<String>> literals = new ArrayList<>(hideMatches.size());
+            for (int i = 0; i < m_hideRules.length; i++) {
+                m_hideRules[i] = new HideRule(hideMatches.get(i));
+                literals.add(m_hideRules[i].m_requiredLiterals);
+            }
+            m_hideIndex = new LiteralIndex(literals);
+        }
+    }
+
+    /**
+     * @return true if a &lt;ueiList&gt; is configured
+     */
+    public boolean hasUeiMatches() {
+        return m_ueiRules != null;
+    }
+
+    /**
+     * @return true if a &lt;hideMessage&gt; is configured
+     */
+    public boolean hasHideMatches() {
+        return m_hideRules != null;
+    }
+
+    /**
+     * Finds the first &lt;ueiMatch&gt; that matches the message and applies
+     * its UEI and parameters to the event builder.
+     *
+     * @param message the parsed syslog message
+     * @param discardUei the UEI that marks messages that should be discarded
+     * @param bldr the builder of the event for the message
+     * @return true if a rule matched
+     * @throws MessageDiscardedException if the matching rule has the discard UEI
+     */
+    public boolean matchUei(final SyslogMessage message, final String discardUei, final EventBuilder bldr) throws MessageDiscardedException {
+        if (m_ueiRules == null) {
+            return false;
+        }
+
+        // Scan the message without decoding it if it was parsed straight from the receive buffer
+        final CharSequence matchedText = message.getMatchedText();
+        final CharSequence text = matchedText != null ? matchedText : message.getFullText();
+        if (text == null) {
+            return false;
+        }
+        final String facilityTxt = message.getFacility().toString();
+        final String priorityTxt = message.getSeverity().toString();
+        final String processName = message.getProcessName();
+        final String hostName = message.getHostName();
+        String hostAddress = null;
+        boolean hostAddressResolved = false;
+
+        final long[] found = m_ueiIndex.search(text);
+        final long[] candidates = m_ueiIndex.getCandidates(found);
+        for (int i = nextSetBit(candidates, 0); i >= 0; i = nextSetBit(candidates, i + 1)) {
+            if (!m_ueiIndex.hasRequiredLiterals(i, found)) {
+                continue;
+            }
+            final UeiRule rule = m_ueiRules[i];
+            if (!rule.matchesFacility(facilityTxt) ||
+                !rule.matchesSeverity(priorityTxt) ||
+                !matchFind(rule.m_processPattern, processName, "process-match") ||
+                !matchFind(rule.m_hostnamePattern, hostName, "hostname-match")) {
+                continue;
+            }
+            if (rule.m_hostaddrPattern != null) {
+                if (!hostAddressResolved) {
+                    hostAddress = message.getHostAddress();
+                    hostAddressResolved = true;
+                }
+                if (!matchFind(rule.m_hostaddrPattern, hostAddress, "hostaddr-match")) {
+                    continue;
+                }
+            }
+
+            if (rule.m_pattern == null) {
+                if (matchSubstring(rule.m_ueiMatch, discardUei, bldr)) {
+                    return true;
+                }
+            } else {
+                final Matcher msgMat = rule.m_pattern.matcher(text);
+                if (msgMat.find()) {
+                    matchRegex(rule.m_ueiMatch, msgMat, discardUei, bldr);
+                    return true;
+                }
+                if (LOG.isTraceEnabled()) LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), rule.m_pattern.pattern());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param fullText the full text of the syslog message
+     * @return true if any &lt;hideMatch&gt; matches the text
+     */
+    public boolean isHidden(final String fullText) {
+        if (m_hideRules == null || fullText == null) {
+            return false;
+        }
+        final long[] found = m_hideIndex.search(fullText);
+        final long[] candidates = m_hideIndex.getCandidates(found);
+        for (int i = nextSetBit(candidates, 0); i >= 0; i = nextSetBit(candidates, i + 1)) {
+            if (!m_hideIndex.hasRequiredLiterals(i, found)) {
+                continue;
+            }
+            final HideRule rule = m_hideRules[i];
+            // Substring rules have their expression as their only literal, so they already matched
+            if (rule.m_pattern == null || rule.m_pattern.matcher(fullText).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchFind(final Pattern pattern, final String input, final String context) {
+        if (pattern == null) return true;
+        if (input == null) return false;
+        if (pattern.matcher(input).find()) {
+            LOG.trace("Successful regex {} for input '{}' against expression '{}'", context, input, pattern.pattern());
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean matchSubstring(final UeiMatch uei, final String discardUei, final EventBuilder bldr) throws MessageDiscardedException {
+        final boolean traceEnabled = LOG.isTraceEnabled();
+        if (discardUei.equals(uei.getUei())) {
+            if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
+            throw new MessageDiscardedException();
+        }
+        if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on substring match, to : {}", uei.getUei());
+        bldr.setUei(uei.getUei());
+        return true;
+    }
+
+    private static void matchRegex(final UeiMatch uei, final Matcher msgMat, final String discardUei, final EventBuilder bldr) throws MessageDiscardedException {
+        final boolean traceEnabled = LOG.isTraceEnabled();
+        if (discardUei.equals(uei.getUei())) {
+            LOG.debug("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
+            throw new MessageDiscardedException();
+        }
+
+        // We matched a UEI
+        bldr.setUei(uei.getUei());
+        if (msgMat.groupCount() > 0) {
+            if (uei.getMatch().isDefaultParameterMapping()) {
+                if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
+                for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
+                    if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, msgMat.group(groupNum));
+                    bldr.addParam("group"+groupNum, msgMat.group(groupNum));
+                }
+            }
+
+            if (uei.getParameterAssignmentCount() > 0) {
+                if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
+                for (ParameterAssignment assignment : uei.getParameterAssignmentCollection()) {
+                    String parmName = assignment.getParameterName();
+                    String parmValue = msgMat.group(assignment.getMatchingGroup());
+                    parmValue = parmValue == null ? "" : parmValue;
+                    bldr.addParam(parmName, parmValue);
+                    if (traceEnabled) {
+                        LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Pattern compile(final String expression) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException pse) {
+            LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
+            return null;
+        }
+    }
+
+    private static int nextSetBit(final long[] bits, final int fromIndex) {
+        int word = fromIndex >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long remaining = bits[word] & (-1L << fromIndex);
+        while (true) {
+            if (remaining != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(remaining);
+            }
+            if (++word == bits.length) {
+                return -1;
+            }
+            remaining = bits[word];
+        }
+    }
+
+    /**
+     * Extracts runs of literal characters that every match of the regular
+     * expression must contain. The extraction is conservative: constructs
+     * that it does not understand end the current run, and expressions
+     * where it cannot tell what is required (top-level alternation, inline
+     * flags, quoting, escapes with arguments) yield no literals at all.
+     *
+     * @param regex a regular expression compiled with {@link Pattern#MULTILINE}
+     * @return the required literals, possibly empty
+     */
+    protected static List<String> getRequiredLiterals(final String regex) {
+        final List<String> literals = new ArrayList<>();
+        final StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            switch (c) {
+            case '\\':
+                if (i + 1 >= regex.length()) {
+                    return Collections.emptyList();
+                }
+                final char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    if ("dDsSwWbBAGZzhHvVR".indexOf(escaped) < 0) {
+                        // Escapes like \Q, \x41, \p{Alpha} or back references
+                        return Collections.emptyList();
+                    }
+                    addLiteral(literals, run);
+                } else {
+                    run.append(escaped);
+                }
+                i += 2;
+                break;
+            case '[':
+                addLiteral(literals, run);
+                i = skipCharacterClass(regex, i);
+                if (i < 0) {
+                    return Collections.emptyList();
+                }
+                break;
+            case '(':
+                addLiteral(literals, run);
+                if (regex.startsWith("(?", i) && i + 2 < regex.length()) {
+                    final char kind = regex.charAt(i + 2);
+                    if (Character.isLetter(kind) || kind == '-') {
+                        // Inline flags such as (?i) change how the rest of the expression matches
+                        return Collections.emptyList();
+                    }
+                }
+                i = skipGroup(regex, i);
+                if (i < 0) {
+                    return Collections.emptyList();
+                }
+                break;
+            case '|':
+                return Collections.emptyList();
+            case '*':
+            case '?':
+            case '{':
+                // The preceding character is optional
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                addLiteral(literals, run);
+                if (c == '{') {
+                    i = regex.indexOf('}', i);
+                    if (i < 0) {
+                        return Collections.emptyList();
+                    }
+                }
+                i++;
+                break;
+            case '+':
+                // The preceding character is required, but may repeat
+                addLiteral(literals, run);
+                i++;
+                break;
+            case '.':
+            case '^':
+            case '$':
+                addLiteral(literals, run);
+                i++;
+                break;
+            default:
+                run.append(c);
+                i++;
+            }
+        }
+        addLiteral(literals, run);
+        return literals;
+    }
+
+    private static void addLiteral(final List<String> literals, final StringBuilder run) {
+        // Single characters occur in nearly every message and would only slow down the scan
+        if (run.length() > 1) {
+            literals.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /**
+     * @return the index after the character class that starts at the given index, or -1
+     */
+    private static int skipCharacterClass(final String regex, final int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') i++;
+        // A ']' right after the opening bracket is a literal
+        if (i < regex.length() && regex.charAt(i) == ']') i++;
+        int depth = 1;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the group that starts at the given index, or -1
+     */
+    private static int skipGroup(final String regex, final int start) {
+        int i = start + 1;
+        int depth = 1;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipCharacterClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * A compiled &lt;ueiMatch&gt;.
+     */
+    private static final class UeiRule {
+        private final UeiMatch m_ueiMatch;
+        private final String[] m_facilities;
+        private final String[] m_severities;
+        private final Pattern m_processPattern;
+        private final Pattern m_hostnamePattern;
+        private final Pattern m_hostaddrPattern;
+        /** The message pattern, or null for "substr" rules. */
+        private final Pattern m_pattern;
+        /** The literals the message must contain, or null if the rule can never match. */
+        private final List<String> m_requiredLiterals;
+
+        private UeiRule(final UeiMatch ueiMatch) {
+            m_ueiMatch = ueiMatch;
+            m_facilities = ueiMatch.getFacilityCollection().toArray(new String[0]);
+            m_severities = ueiMatch.getSeverityCollection().toArray(new String[0]);
+
+            boolean valid = true;
+            m_processPattern = ueiMatch.getProcessMatch() == null ? null : compile(ueiMatch.getProcessMatch().getExpression());
+            m_hostnamePattern = ueiMatch.getHostnameMatch() == null ? null : compile(ueiMatch.getHostnameMatch().getExpression());
+            m_hostaddrPattern = ueiMatch.getHostaddrMatch() == null ? null : compile(ueiMatch.getHostaddrMatch().getExpression());
+            if ((ueiMatch.getProcessMatch() != null && m_processPattern == null) ||
+                (ueiMatch.getHostnameMatch() != null && m_hostnamePattern == null) ||
+                (ueiMatch.getHostaddrMatch() != null && m_hostaddrPattern == null)) {
+                valid = false;
+            }
+
+            final String type = ueiMatch.getMatch().getType();
+            final String expression = ueiMatch.getMatch().getExpression();
+            if ("substr".equals(type) && expression != null) {
+                m_pattern = null;
+                m_requiredLiterals = valid ? literalsOf(expression) : null;
+            } else if (type != null && type.startsWith("regex")) {
+                m_pattern = compile(expression);
+                m_requiredLiterals = valid && m_pattern != null ? getRequiredLiterals(expression) : null;
+            } else {
+                m_pattern = null;
+                m_requiredLiterals = null;
+            }
+        }
+
+        private boolean matchesFacility(final String facilityTxt) {
+            return containsIgnoreCase(m_facilities, facilityTxt);
+        }
+
+        private boolean matchesSeverity(final String priorityTxt) {
+            return containsIgnoreCase(m_severities, priorityTxt);
+        }
+
+        private static boolean containsIgnoreCase(final String[] values, final String match) {
+            if (values.length == 0) return true;
+            for (final String value : values) {
+                if (value.equalsIgnoreCase(match)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A compiled &lt;hideMatch&gt;.
+     */
+    private static final class HideRule {
+        /** The message pattern, or null for "substr" rules. */
+        private final Pattern m_pattern;
+        /** The literals the message must contain, or null if the rule can never match. */
+        private final List<String> m_requiredLiterals;
+
+        private HideRule(final HideMatch hideMatch) {
+            final String type = hideMatch.getMatch().getType();
+            final String expression = hideMatch.getMatch().getExpression();
+            if ("substr".equals(type) && expression != null) {
+                m_pattern = null;
+                m_requiredLiterals = literalsOf(expression);
+            } else if ("regex".equals(type)) {
+                m_pattern = compile(expression);
+                m_requiredLiterals = m_pattern == null ? null : getRequiredLiterals(expression);
+            } else {
+                m_pattern = null;
+                m_requiredLiterals = null;
+            }
+        }
+    }
+
+    private static List<String> literalsOf(final String substring) {
+        if (substring.length() == 0) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(substring);
+    }
+
+    /**
+     * Maps the literals found in a message to the rules that need to be
+     * evaluated for it.
+     *
+     * Every rule with literals is anchored on its least common literal and
+     * only becomes a candidate when that literal is found. Rules without
+     * literals are always candidates, and rules that can never match are
+     * never candidates.
+     */
+    private static final class LiteralIndex {
+        private final AhoCorasickAutomaton m_automaton;
+        private final int[][] m_requiredLiterals;
+        private final int[][] m_rulesByAnchor;
+        private final long[] m_unanchoredRules;
+
+        private LiteralIndex(final List<List<String>> rules) {
+            final Map<String,Integer> ids = new HashMap<>();
+            final List<String> literals = new ArrayList<>();
+            final List<Integer> usage = new ArrayList<>();
+            m_requiredLiterals = new int[rules.size()][];
+            for (int rule = 0; rule < rules.size(); rule++) {
+                final List<String> required = rules.get(rule);
+                if (required == null) {
+                    continue;
+                }
+                // Drop duplicates within a rule so that the usage counts are per rule
+                final List<Integer> ruleIds = new ArrayList<>();
+                for (final String literal : required) {
+                    Integer id = ids.get(literal);
+                    if (id == null) {
+                        id = literals.size();
+                        ids.put(literal, id);
+                        literals.add(literal);
+                        usage.add(0);
+                    }
+                    if (!ruleIds.contains(id)) {
+                        ruleIds.add(id);
+                        usage.set(id, usage.get(id) + 1);
+                    }
+                }
+                m_requiredLiterals[rule] = new int[ruleIds.size()];
+                for (int i = 0; i < ruleIds.size(); i++) {
+                    m_requiredLiterals[rule][i] = ruleIds.get(i);
+                }
+            }
+            m_automaton = new AhoCorasickAutomaton(literals);
+
+            final List<List<Integer>> rulesByAnchor = new ArrayList<>(literals.size());
+            for (int i = 0; i < literals.size(); i++) {
+                rulesByAnchor.add(new ArrayList<Integer>(1));
+            }
+            m_unanchoredRules = AhoCorasickAutomaton.newBitSet(rules.size());
+            for (int rule = 0; rule < rules.size(); rule++) {
+                final int[] required = m_requiredLiterals[rule];
+                if (required == null) {
+                    continue;
+                }
+                if (required.length == 0) {
+                    m_unanchoredRules[rule >>> 6] |= 1L << rule;
+                    continue;
+                }
+                int anchor = required[0];
+                for (final int id : required) {
+                    final int byUsage = Integer.compare(usage.get(id), usage.get(anchor));
+                    if (byUsage < 0 || (byUsage == 0 && literals.get(id).length() > literals.get(anchor).length())) {
+                        anchor = id;
+                    }
+                }
+                rulesByAnchor.get(anchor).add(rule);
+            }
+            m_rulesByAnchor = new int[literals.size()][];
+            for (int id = 0; id < literals.size(); id++) {
+                final List<Integer> anchored = rulesByAnchor.get(id);
+                m_rulesByAnchor[id] = new int[anchored.size()];
+                for (int i = 0; i < anchored.size(); i++) {
+                    m_rulesByAnchor[id][i] = anchored.get(i);
+                }
+            }
+        }
+
+        private int getLiteralCount() {
+            return m_automaton.getLiteralCount();
+        }
+
+        private long[] search(final CharSequence text) {
+            final long[] found = AhoCorasickAutomaton.newBitSet(m_automaton.getLiteralCount());
+            m_automaton.search(text, found);
+            return found;
+        }
+
+        private long[] getCandidates(final long[] found) {
+            final long[] candidates = m_unanchoredRules.clone();
+            for (int id = nextSetBit(found, 0); id >= 0; id = nextSetBit(found, id + 1)) {
+                for (final int rule : m_rulesByAnchor[id]) {
+                    candidates[rule >>> 6] |= 1L << rule;
+                }
+            }
+            return candidates;
+        }
+
+        private boolean hasRequiredLiterals(final int rule, final long[] found) {
+            for (final int id : m_requiredLiterals[rule]) {
+                if (!AhoCorasickAutomaton.isSet(found, id)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
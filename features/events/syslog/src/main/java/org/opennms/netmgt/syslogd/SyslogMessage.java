@@ -29,6 +29,8 @@
 package org.opennms.netmgt.syslogd;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -73,6 +75,9 @@ public class SyslogMessage {
     private Integer m_processId;
     private String m_messageId;
     private String m_message;
+    private ByteBuffer m_messageBuffer;
+    private int m_messageOffset;
+    private int m_messageLength;
     private String m_matchedMessage;
     private String m_fullText;
     
@@ -184,16 +189,50 @@ public class SyslogMessage {
     }
 
     public String getMessage() {
+        if (m_messageBuffer != null) {
+            m_message = decode(m_messageBuffer, m_messageOffset, m_messageLength);
+            m_messageBuffer = null;
+        }
         return m_message;
     }
 
     public void setMessage(final String message) {
         m_fullText = null;
+        m_messageBuffer = null;
         m_message = message;
     }
 
+    /**
+     * Sets the message to a region of a buffer that holds US-ASCII text.
+     * The region is decoded the first time that {@link #getMessage()} is
+     * called, so the buffer must not be reused until then or until this
+     * message is discarded.
+     *
+     * @param buffer the buffer that holds the message
+     * @param offset the absolute index of the message in the buffer
+     * @param length the length of the message in bytes
+     */
+    public void setMessage(final ByteBuffer buffer, final int offset, final int length) {
+        m_fullText = null;
+        m_message = null;
+        m_messageBuffer = buffer;
+        m_messageOffset = offset;
+        m_messageLength = length;
+    }
+
     public String getMatchedMessage() {
-        return m_matchedMessage == null? m_message : m_matchedMessage;
+        return m_matchedMessage == null? getMessage() : m_matchedMessage;
+    }
+
+    /**
+     * Returns the same text as {@link #getMatchedMessage()}, but without
+     * decoding a message that was set from a buffer.
+     */
+    public CharSequence getMatchedText() {
+        if (m_matchedMessage == null && m_messageBuffer != null) {
+            return new AsciiCharSequence(m_messageBuffer, m_messageOffset, m_messageLength);
+        }
+        return getMatchedMessage();
     }
 
     public void setMatchedMessage(final String matchedMessage) {
@@ -243,8 +282,62 @@ public class SyslogMessage {
             .append("message ID", m_messageId)
             .append("process name", m_processName)
             .append("process ID", m_processId)
-            .append("message", m_message)
+            .append("message", getMessage())
             .toString();
     }
 
+    private static String decode(final ByteBuffer buffer, final int offset, final int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.US_ASCII);
+        }
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A view of US-ASCII text in a buffer. Bytes outside of the US-ASCII
+     * range read as U+FFFD, just like they decode.
+     */
+    private static final class AsciiCharSequence implements CharSequence {
+        private final ByteBuffer m_buffer;
+        private final int m_offset;
+        private final int m_length;
+
+        private AsciiCharSequence(final ByteBuffer buffer, final int offset, final int length) {
+            m_buffer = buffer;
+            m_offset = offset;
+            m_length = length;
+        }
+
+        @Override
+        public int length() {
+            return m_length;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= m_length) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            final byte b = m_buffer.get(m_offset + index);
+            return b < 0 ? '\uFFFD' : (char)b;
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            if (start < 0 || end > m_length || start > end) {
+                throw new IndexOutOfBoundsException(start + "-" + end);
+            }
+            return new AsciiCharSequence(m_buffer, m_offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return decode(m_buffer, m_offset, m_length);
+        }
+    }
+
 }
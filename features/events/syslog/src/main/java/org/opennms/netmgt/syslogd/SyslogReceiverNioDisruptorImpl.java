@@ -154,11 +154,20 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
 
     /**
      * This class is a container for a preallocated {@link ByteBuffer} that is
-     * used to hold incoming syslog packet data.
+     * used to hold incoming syslog packet data, and the {@link SyslogConnection}
+     * that converts it. Both are reused for every packet that lands in this
+     * slot of the ring buffer; the slot is not released until the connection
+     * has finished with the buffer.
      */
     private static class ByteBufferMessage {
         // Allocate a buffer that's big enough to handle any sane syslog message
         public final ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+
+        public final SyslogConnection connection = new SyslogConnection();
+
+        public ByteBufferMessage() {
+            connection.setByteBuffer(buffer);
+        }
     }
 
     public static DatagramChannel openChannel(SyslogdConfig config) throws SocketException, IOException {
@@ -370,7 +379,11 @@ public class SyslogReceiverNioDisruptorImpl implements SyslogReceiver {
                             .thenAcceptAsync(c -> c.call(), m_syslogProcessorExecutor);
                             */
 
-                            SyslogConnection conn = new SyslogConnection(source.getAddress(), source.getPort(), message.buffer, m_config, m_distPollerDao.whoami().getId());
+                            final SyslogConnection conn = message.connection;
+                            conn.setSourceAddress(source.getAddress());
+                            conn.setPort(source.getPort());
+                            conn.setConfig(m_config);
+                            conn.setSystemId(m_distPollerDao.whoami().getId());
 
                             // Convert the syslog packet into an OpenNMS event
                             CompletableFuture<SyslogProcessor> proc = CompletableFuture.supplyAsync(conn::call, m_syslogConnectionExecutor);
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AhoCorasickAutomatonTest {
+
+    @Test
+    public void testOverlappingLiterals() {
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Arrays.asList("he", "she", "his", "hers"));
+        final long[] found = AhoCorasickAutomaton.newBitSet(automaton.getLiteralCount());
+
+        // "she" ends in the same place as "he", and "hers" overlaps "she"
+        assertEquals(3, automaton.search("ushers", found));
+        assertTrue(AhoCorasickAutomaton.isSet(found, 0));
+        assertTrue(AhoCorasickAutomaton.isSet(found, 1));
+        assertFalse(AhoCorasickAutomaton.isSet(found, 2));
+        assertTrue(AhoCorasickAutomaton.isSet(found, 3));
+    }
+
+    @Test
+    public void testFailureLinks() {
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Arrays.asList("foo1: ", "foo10: ", "o10"));
+        final long[] found = AhoCorasickAutomaton.newBitSet(automaton.getLiteralCount());
+
+        automaton.search("foo1foo10: load test", found);
+        assertFalse(AhoCorasickAutomaton.isSet(found, 0));
+        assertTrue(AhoCorasickAutomaton.isSet(found, 1));
+        assertTrue(AhoCorasickAutomaton.isSet(found, 2));
+    }
+
+    @Test
+    public void testDuplicateAndEmptyLiterals() {
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Arrays.asList("abc", "", "abc"));
+        final long[] found = AhoCorasickAutomaton.newBitSet(automaton.getLiteralCount());
+
+        automaton.search("xxabcxx", found);
+        assertTrue(AhoCorasickAutomaton.isSet(found, 0));
+        assertFalse(AhoCorasickAutomaton.isSet(found, 1));
+        assertTrue(AhoCorasickAutomaton.isSet(found, 2));
+    }
+
+    @Test
+    public void testManyLiterals() {
+        final String[] literals = new String[1000];
+        for (int i = 0; i < literals.length; i++) {
+            literals[i] = "foo" + i + ": ";
+        }
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Arrays.asList(literals));
+        final long[] found = AhoCorasickAutomaton.newBitSet(automaton.getLiteralCount());
+
+        automaton.search("<34> 2010-08-19 localhost foo123: load test 123 on tty1", found);
+        for (int i = 0; i < literals.length; i++) {
+            assertEquals(literals[i], i == 123, AhoCorasickAutomaton.isSet(found, i));
+        }
+    }
+
+    @Test
+    public void testNoLiterals() {
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Collections.<String>emptyList());
+        assertEquals(0, automaton.search("anything", AhoCorasickAutomaton.newBitSet(0)));
+    }
+}
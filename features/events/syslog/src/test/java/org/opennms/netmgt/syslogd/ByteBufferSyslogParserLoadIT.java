@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+
+/**
+ * Compares the throughput and the garbage per message of the regular
+ * expression parsers with the {@link ByteBufferSyslogParser}, for the
+ * messages of the replay corpus in both the Syslog-NG and the RFC5424
+ * format.
+ */
+public class ByteBufferSyslogParserLoadIT {
+
+    private static final int WARMUP_PASSES = 50;
+
+    private static final int PASSES = 200;
+
+    private SyslogdConfig m_syslogNgConfig;
+
+    private SyslogdConfig m_rfcConfig;
+
+    private List<byte[]> m_syslogNgMessages;
+
+    private List<byte[]> m_rfcMessages;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        try (InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-syslogng-configuration.xml")) {
+            m_syslogNgConfig = new SyslogdConfigFactory(stream);
+        }
+        try (InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-rfc-configuration.xml")) {
+            m_rfcConfig = new SyslogdConfigFactory(stream);
+        }
+
+        final DateFormat rfc3339 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        rfc3339.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        m_syslogNgMessages = new ArrayList<>();
+        m_rfcMessages = new ArrayList<>();
+        for (final String line : readCorpus()) {
+            final SyslogParser parser = new SyslogNGParser(m_syslogNgConfig, line);
+            if (!parser.find()) {
+                continue;
+            }
+            final SyslogMessage message = parser.parse();
+            m_syslogNgMessages.add(line.getBytes(StandardCharsets.US_ASCII));
+            m_rfcMessages.add(String.format("<%d>1 %s %s %s %s - - %s",
+                message.getPriorityField(),
+                rfc3339.format(message.getDate()),
+                message.getHostName(),
+                message.getProcessName() == null ? "-" : message.getProcessName(),
+                message.getProcessId() == null ? "-" : message.getProcessId().toString(),
+                message.getMessage()
+            ).getBytes(StandardCharsets.US_ASCII));
+        }
+        assertTrue("no parseable messages in the corpus", m_syslogNgMessages.size() > 0);
+    }
+
+    @Test
+    public void testParseThroughput() throws Exception {
+        compare("Syslog-NG", m_syslogNgConfig, m_syslogNgMessages);
+        compare("RFC5424", m_rfcConfig, m_rfcMessages);
+    }
+
+    private void compare(final String format, final SyslogdConfig config, final List<byte[]> messages) throws Exception {
+        // The ring buffer slot that the receiver would reuse for every packet
+        final ByteBuffer slot = ByteBuffer.allocate(4096);
+
+        replay(config, messages, slot, WARMUP_PASSES, false);
+        replay(config, messages, slot, WARMUP_PASSES, true);
+
+        final long[] regex = replay(config, messages, slot, PASSES, false);
+        final long[] tokenized = replay(config, messages, slot, PASSES, true);
+
+        final int count = messages.size() * PASSES;
+        System.err.println(String.format("%s, %d messages:", format, count));
+        System.err.println(String.format("  Regular expression parser: %10.1f msgs/s, %6d bytes/msg", rate(count, regex[0]), regex[1] / count));
+        System.err.println(String.format("  Buffer tokenizer:          %10.1f msgs/s, %6d bytes/msg", rate(count, tokenized[0]), tokenized[1] / count));
+
+        assertTrue("the tokenizer should allocate less than the regular expression parser", tokenized[1] < regex[1]);
+    }
+
+    /**
+     * @return the elapsed nanoseconds and the bytes allocated by this thread
+     */
+    private static long[] replay(final SyslogdConfig config, final List<byte[]> messages, final ByteBuffer slot, final int passes, final boolean tokenize) throws Exception {
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (final byte[] bytes : messages) {
+                // Simulate the receive into the slot
+                slot.clear();
+                slot.put(bytes);
+                slot.flip();
+
+                final SyslogMessage message;
+                if (tokenize) {
+                    message = ByteBufferSyslogParser.parse(config.getParser(), slot);
+                } else {
+                    final SyslogParser parser = SyslogParser.getParserInstance(config, StandardCharsets.US_ASCII.decode(slot).toString());
+                    message = parser.find() ? parser.parse() : null;
+                }
+                assertNotNull(message);
+                // The event needs the body, so decode it like ConvertToEvent does
+                assertNotNull(message.getMessage());
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        return new long[] { elapsed, getAllocatedBytes() - allocatedBefore };
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static double rate(final int messages, final long nanos) {
+        return messages * 1000000000.0 / nanos;
+    }
+
+    private List<String> readCorpus() throws IOException {
+        try (InputStream stream = getClass().getResourceAsStream("/syslog-replay-corpus.txt")) {
+            final List<String> lines = new ArrayList<>();
+            for (final String line : IOUtils.readLines(stream, StandardCharsets.US_ASCII)) {
+                if (line.trim().length() > 0) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+
+public class ByteBufferSyslogParserTest {
+
+    private final SyslogdConfigFactory m_config;
+
+    public ByteBufferSyslogParserTest() throws Exception {
+        InputStream stream = null;
+        try {
+            stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-configuration.xml");
+            m_config = new SyslogdConfigFactory(stream);
+        } finally {
+            if (stream != null) {
+                IOUtils.closeQuietly(stream);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging(true, "ERROR");
+    }
+
+    @Test
+    public void testSyslogNGMessages() throws Exception {
+        assertSameAsRegex(SyslogNGParser.class, "<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: A SyslogNG style message");
+        assertSameAsRegex(SyslogNGParser.class, "<6>test: 2007-01-01 127.0.0.1 A SyslogNG style message");
+        assertSameAsRegex(SyslogNGParser.class, "<173>Dec  7 12:02:06 10.13.110.116 mgmtd[8326]: [mgmtd.NOTICE]: Configuration saved to database initial");
+        assertSameAsRegex(SyslogNGParser.class, "<34> 2010-08-19 localhost foo10000: load test 10000 on tty1");
+        assertSameAsRegex(SyslogNGParser.class, "<34>main: 2010-08-19 localhost foo0: load test 0 on tty1\0");
+        assertSameAsRegex(SyslogNGParser.class, "<190>Mar 11 08:35:17 aaa_host 30128311: Mar 11 08:35:16.844 CST: %SEC-6-IPACCESSLOGP: list in110 denied tcp 192.168.10.100(63923) -> 192.168.11.128(1521), 1 packet");
+        assertSameAsRegex(SyslogNGParser.class, "<0>Mar 14 17:10:25 petrus sudo:  cyrille : user NOT in sudoers ; TTY=pts/2 ; PWD=/home/cyrille ; USER=root ; COMMAND=/usr/bin/vi /etc/aliases");
+        assertSameAsRegex(SyslogNGParser.class, "<13>Oct  1 00:00:01 host a:b: c");
+        assertSameAsRegex(SyslogNGParser.class, "<13>Oct 1 00:00:01 host proc[12x]: message");
+        assertSameAsRegex(SyslogNGParser.class, "<13>Oct 1 00:00:01 host proc[99999999999]: message");
+        assertSameAsRegex(SyslogNGParser.class, "<13>Oct 1 00:00:01 host proc:message without space");
+        assertSameAsRegex(SyslogNGParser.class, "<13>Oct 1 00:00:01 host proc: \t trailing whitespace \t ");
+        assertSameAsRegex(SyslogNGParser.class, "<13>ident:Oct 1 00:00:01 host message");
+        assertSameAsRegex(SyslogNGParser.class, "<13>identOct 1 00:00:01 host message");
+        assertSameAsRegex(SyslogNGParser.class, "<13>Feb 29 00:00:01 host leap day");
+        assertSameAsRegex(SyslogNGParser.class, "<13>Jan 32 23:61:61 host out of range");
+        assertSameAsRegex(SyslogNGParser.class, "<13>2015-02-29 host out of range");
+        assertSameAsRegex(SyslogNGParser.class, "<191>Jan 31 23:59:59 host proc[1]: café non-ascii");
+    }
+
+    @Test
+    public void testRfc5424Messages() throws Exception {
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<34>1 2003-10-11T22:14:15.000Z mymachine.example.com su - ID47 - BOM'su root' failed for lonvick on /dev/pts/8");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<165>1 2003-10-11T22:14:15.000003-00:00 192.0.2.1 myproc 8710 - - %% It's time to make the do-nuts.");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] BOMAn application event log entry...");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"][examplePriority@32473 class=\"high\"]");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<85>1 2011-11-15T14:42:18+01:00 hostname sudo - - - pam_unix(sudo:auth): authentication failure; logname=username uid=0 euid=0 tty=/dev/pts/0 ruser=username rhost= user=username");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 2012-04-20T12:33:13.946Z junos-mx80-2-space cfmd 1317 CFMD_CCM_DEFECT_RMEP - CFM defect: Remote CCM timeout detected by MEP on Level: 6 MD: MD_service_level MA: PW_126 Interface: ge-1/3/2.1");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27> 2012-04-20T12:33:13-0530 - - - - -");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 2012-04-20T12:33:13Z host app 1 id [a] b] c");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 2012-04-20T12:33:13Z host app 1 id [a][b]x] c");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 2012-04-20T12:33:13Z host app 1 id - BOM");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 2012-04-20T12:33:13Z host app 1 id -    ");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 2012-02-30T12:33:13Z host app 1 id - invalid date");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 2012-04-20T12:33:13.1234567Z host app 1 id - long fraction");
+        assertSameAsRegex(Rfc5424SyslogParser.class, "<27>1 not-a-Timestamp host app 1 id - unparseable date");
+    }
+
+    @Test
+    public void testFallbackToRegex() throws Exception {
+        assertNull(ByteBufferSyslogParser.parse(SyslogNGParser.class.getName(), toBuffer("<13>Oct 1 00:00:01 host proc: two\nlines")));
+        assertNull(ByteBufferSyslogParser.parse(SyslogNGParser.class.getName(), toBuffer("not a syslog message")));
+        assertNull(ByteBufferSyslogParser.parse(Rfc5424SyslogParser.class.getName(), toBuffer("<13>Oct 1 00:00:01 host proc: message")));
+        assertNull(ByteBufferSyslogParser.parse(CustomSyslogParser.class.getName(), toBuffer("<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: A SyslogNG style message")));
+    }
+
+    @Test
+    public void testMessageIsDecodedLazily() throws Exception {
+        final ByteBuffer buffer = toBuffer("<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: A SyslogNG style message");
+        final int position = buffer.position();
+        final SyslogMessage message = ByteBufferSyslogParser.parse(SyslogNGParser.class.getName(), buffer);
+        assertNotNull(message);
+        assertEquals(position, buffer.position());
+
+        final CharSequence matchedText = message.getMatchedText();
+        assertFalse(matchedText instanceof String);
+        assertEquals("A SyslogNG style message", matchedText.toString());
+        assertEquals("style", matchedText.subSequence(11, 16).toString());
+
+        assertEquals("A SyslogNG style message", message.getMessage());
+        assertTrue(message.getMatchedText() instanceof String);
+    }
+
+    private void assertSameAsRegex(final Class<? extends SyslogParser> parserClass, final String text) throws Exception {
+        // Decode the text the same way as the receivers do before they run the regular expression
+        final String decoded = new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.US_ASCII);
+        final String syslogString = decoded.endsWith("\0") ? decoded.substring(0, decoded.length() - 1) : decoded;
+        final SyslogParser parser = parserClass.getConstructor(SyslogdConfig.class, String.class).newInstance(m_config, syslogString);
+        final SyslogMessage message = ByteBufferSyslogParser.parse(parserClass.getName(), toBuffer(text));
+        if (!parser.find()) {
+            assertNull(text, message);
+            return;
+        }
+        final SyslogMessage expected = parser.parse();
+        assertNotNull(text, message);
+        assertEquals(text, expected.getParserClass(), message.getParserClass());
+        assertEquals(text, expected.getFacility(), message.getFacility());
+        assertEquals(text, expected.getSeverity(), message.getSeverity());
+        assertEquals(text, expected.getVersion(), message.getVersion());
+        assertEquals(text, expected.getDate(), message.getDate());
+        assertEquals(text, expected.getHostName(), message.getHostName());
+        assertEquals(text, expected.getProcessName(), message.getProcessName());
+        assertEquals(text, expected.getProcessId(), message.getProcessId());
+        assertEquals(text, expected.getMessageID(), message.getMessageID());
+        assertEquals(text, String.valueOf(expected.getMatchedMessage()), String.valueOf(message.getMatchedText()));
+        assertEquals(text, expected.getMessage(), message.getMessage());
+        assertEquals(text, expected.getFullText(), message.getFullText());
+    }
+
+    /**
+     * Copies the text into the middle of a larger buffer, so that the parser
+     * has to respect the position and limit of the buffer.
+     */
+    private static ByteBuffer toBuffer(final String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] padded = new byte[bytes.length + 16];
+        System.arraycopy(bytes, 0, padded, 8, bytes.length);
+        return ByteBuffer.wrap(padded, 8, bytes.length);
+    }
+}
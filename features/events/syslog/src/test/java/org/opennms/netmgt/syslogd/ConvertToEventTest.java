@@ -1,5 +1,6 @@
 package org.opennms.netmgt.syslogd;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -17,6 +18,8 @@ import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.SyslogdConfig;
 import org.opennms.netmgt.config.SyslogdConfigFactory;
 import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -96,4 +99,49 @@ public class ConvertToEventTest {
             fail("Message Parsing failed: " + e.getMessage());
         }
     }
+
+    @Test
+    public void testConvertByteBufferToEvent() throws Exception {
+
+        InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-syslogng-configuration.xml");
+        SyslogdConfig syslogNgConfig = new SyslogdConfigFactory(stream);
+        stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-rfc-configuration.xml");
+        SyslogdConfig rfcConfig = new SyslogdConfigFactory(stream);
+
+        assertSameEvent(syslogNgConfig, "<34> 2010-08-19 localhost foo0: load test 0 on tty1");
+        assertSameEvent(syslogNgConfig, "<34>main: 2010-08-19 localhost foo0: load test 0 on tty1\0");
+        assertSameEvent(syslogNgConfig, "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8");
+        assertSameEvent(rfcConfig, "<34>1 2003-10-11T22:14:15.000Z mymachine.example.com su - ID47 - BOM'su root' failed for lonvick on /dev/pts/8");
+        assertSameEvent(rfcConfig, "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\"] BOMAn application event log entry...");
+    }
+
+    private static void assertSameEvent(final SyslogdConfig config, final String text) throws Exception {
+        final Event expected = new ConvertToEvent(
+            DistPollerDao.DEFAULT_DIST_POLLER_ID,
+            InetAddressUtils.ONE_TWENTY_SEVEN,
+            9999,
+            text,
+            config
+        ).getEvent();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        final Event event = new ConvertToEvent(
+            DistPollerDao.DEFAULT_DIST_POLLER_ID,
+            InetAddressUtils.ONE_TWENTY_SEVEN,
+            9999,
+            buffer,
+            config
+        ).getEvent();
+
+        assertEquals(text, expected.getUei(), event.getUei());
+        assertEquals(text, expected.getCreationTime(), event.getCreationTime());
+        assertEquals(text, expected.getLogmsg().getContent(), event.getLogmsg().getContent());
+        assertEquals(text, expected.getParmCollection().size(), event.getParmCollection().size());
+        for (int i = 0; i < expected.getParmCollection().size(); i++) {
+            final Parm expectedParm = expected.getParmCollection().get(i);
+            final Parm parm = event.getParmCollection().get(i);
+            assertEquals(text, expectedParm.getParmName(), parm.getParmName());
+            assertEquals(text, expectedParm.getValue().getContent(), parm.getValue().getContent());
+        }
+    }
 }
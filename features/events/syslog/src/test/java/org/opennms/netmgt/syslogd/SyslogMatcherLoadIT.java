@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+
+/**
+ * Replays a corpus of syslog lines against the 10,000 rules of the load
+ * test configuration, once with the {@link SyslogMatcher} and once with the
+ * rule-by-rule evaluation that it replaced.
+ *
+ * A capture of real traffic, one message per line, can be replayed instead
+ * of the bundled corpus by setting the {@value #CORPUS_PROPERTY} system
+ * property to its path.
+ */
+public class SyslogMatcherLoadIT {
+
+    private static final String CORPUS_PROPERTY = "org.opennms.syslogd.replayCorpus";
+
+    /**
+     * The sequential evaluation takes a large fraction of a second per
+     * message with this many rules, so it only replays every n-th message.
+     */
+    private static final int SEQUENTIAL_SAMPLING = 10;
+
+    private static final int COMPILED_PASSES = 200;
+
+    private static final int THREADS = 4;
+
+    private SyslogdConfig m_config;
+
+    private List<SyslogMessage> m_messages;
+
+    private List<SyslogMessage> m_sampledMessages;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        try (InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-loadtest-configuration.xml")) {
+            m_config = new SyslogdConfigFactory(stream);
+        }
+
+        m_messages = new ArrayList<>();
+        for (final String line : readCorpus()) {
+            if (line.trim().length() == 0) {
+                continue;
+            }
+            final SyslogParser parser = SyslogParser.getParserInstance(m_config, line);
+            if (parser.find()) {
+                final SyslogMessage message = parser.parse();
+                if (message != null) {
+                    m_messages.add(message);
+                }
+            }
+        }
+        assertTrue("no parseable messages in the corpus", m_messages.size() > 0);
+
+        m_sampledMessages = new ArrayList<>();
+        for (int i = 0; i < m_messages.size(); i += SEQUENTIAL_SAMPLING) {
+            m_sampledMessages.add(m_messages.get(i));
+        }
+    }
+
+    @Test
+    public void testCompiledMatchesSequential() throws Exception {
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(m_config);
+        int matched = 0;
+        for (final SyslogMessage message : m_sampledMessages) {
+            final String expected = describe(matchSequentially(message));
+            assertEquals(message.getFullText(), expected, describe(matchCompiled(matcher, message)));
+            if (!"default".equals(expected)) {
+                matched++;
+            }
+        }
+        System.err.println(String.format("%d of %d sampled corpus messages matched a ueiMatch", matched, m_sampledMessages.size()));
+    }
+
+    @Test
+    public void testReplayThroughput() throws Exception {
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(m_config);
+
+        // Warm up the compiled matcher before measuring, the patterns used
+        // by the sequential evaluation are compiled on the first pass
+        replay(matcher, m_messages, COMPILED_PASSES, true);
+        replay(matcher, m_sampledMessages, 1, false);
+
+        final double sequential = rate(m_sampledMessages.size(), replay(matcher, m_sampledMessages, 1, false));
+        final double compiled = rate(m_messages.size() * COMPILED_PASSES, replay(matcher, m_messages, COMPILED_PASSES, true));
+        final double compiledParallel = rate(m_messages.size() * COMPILED_PASSES * THREADS, replayInParallel(matcher, COMPILED_PASSES));
+
+        System.err.println(String.format("Replayed %d messages against %d rules", m_messages.size(), m_config.getUeiList().getUeiMatchCount()));
+        System.err.println(String.format("Sequential rules:             %10.1f msgs/s", sequential));
+        System.err.println(String.format("Compiled matcher:             %10.1f msgs/s (%.0fx)", compiled, compiled / sequential));
+        System.err.println(String.format("Compiled matcher, %d threads:  %10.1f msgs/s", THREADS, compiledParallel));
+    }
+
+    private static double rate(final int messages, final long nanos) {
+        return messages * 1000000000.0 / nanos;
+    }
+
+    private long replay(final SyslogMatcher matcher, final List<SyslogMessage> messages, final int passes, final boolean compiled) throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (final SyslogMessage message : messages) {
+                if (compiled) {
+                    matchCompiled(matcher, message);
+                } else {
+                    matchSequentially(message);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long replayInParallel(final SyslogMatcher matcher, final int passes) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Callable<Long>> tasks = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                tasks.add(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return replay(matcher, m_messages, passes, true);
+                    }
+                });
+            }
+            final long start = System.nanoTime();
+            for (final Future<Long> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<String> readCorpus() throws IOException {
+        final String corpus = System.getProperty(CORPUS_PROPERTY);
+        try (InputStream stream = corpus == null ? getClass().getResourceAsStream("/syslog-replay-corpus.txt") : new FileInputStream(corpus)) {
+            return IOUtils.readLines(stream, StandardCharsets.UTF_8);
+        }
+    }
+
+    private Event matchCompiled(final SyslogMatcher matcher, final SyslogMessage message) {
+        final EventBuilder bldr = new EventBuilder("default", "SyslogMatcherLoadIT");
+        try {
+            matcher.matchUei(message, m_config.getDiscardUei(), bldr);
+        } catch (final MessageDiscardedException e) {
+            return null;
+        }
+        return bldr.getEvent();
+    }
+
+    private static String describe(final Event event) {
+        if (event == null) {
+            return "discarded";
+        }
+        final StringBuilder description = new StringBuilder(event.getUei());
+        for (final Parm parm : event.getParmCollection()) {
+            description.append(' ').append(parm.getParmName()).append('=').append(parm.getValue().getContent());
+        }
+        return description.toString();
+    }
+
+    /*
+     * The rule-by-rule evaluation that ConvertToEvent used before the
+     * configuration was compiled into a SyslogMatcher.
+     */
+
+    private static final Map<String,Pattern> CACHED_PATTERNS = Collections.synchronizedMap(new WeakHashMap<String,Pattern>());
+
+    private Event matchSequentially(final SyslogMessage message) {
+        final EventBuilder bldr = new EventBuilder("default", "SyslogMatcherLoadIT");
+        final String discardUei = m_config.getDiscardUei();
+        final String facilityTxt = message.getFacility().toString();
+        final String priorityTxt = message.getSeverity().toString();
+        final String text = message.getMatchedMessage() != null ? message.getMatchedMessage() : message.getFullText();
+
+        for (final UeiMatch uei : m_config.getUeiList().getUeiMatchCollection()) {
+            final boolean otherStuffMatches = containsIgnoreCase(uei.getFacilityCollection(), facilityTxt) &&
+                    containsIgnoreCase(uei.getSeverityCollection(), priorityTxt) &&
+                    (uei.getProcessMatch() == null || matchFind(uei.getProcessMatch().getExpression(), message.getProcessName())) &&
+                    (uei.getHostnameMatch() == null || matchFind(uei.getHostnameMatch().getExpression(), message.getHostName())) &&
+                    (uei.getHostaddrMatch() == null || matchFind(uei.getHostaddrMatch().getExpression(), message.getHostAddress()));
+            if (!otherStuffMatches) {
+                continue;
+            }
+            if (uei.getMatch().getType().equals("substr")) {
+                if (text.contains(uei.getMatch().getExpression())) {
+                    if (discardUei.equals(uei.getUei())) {
+                        return null;
+                    }
+                    bldr.setUei(uei.getUei());
+                    break;
+                }
+            } else if (uei.getMatch().getType().startsWith("regex")) {
+                final Pattern msgPat = getPattern(uei.getMatch().getExpression());
+                if (msgPat == null) {
+                    continue;
+                }
+                final Matcher msgMat = msgPat.matcher(text);
+                if (msgMat.find()) {
+                    if (discardUei.equals(uei.getUei())) {
+                        return null;
+                    }
+                    bldr.setUei(uei.getUei());
+                    if (msgMat.groupCount() > 0) {
+                        if (uei.getMatch().isDefaultParameterMapping()) {
+                            for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
+                                bldr.addParam("group"+groupNum, msgMat.group(groupNum));
+                            }
+                        }
+                        for (final ParameterAssignment assignment : uei.getParameterAssignmentCollection()) {
+                            final String parmValue = msgMat.group(assignment.getMatchingGroup());
+                            bldr.addParam(assignment.getParameterName(), parmValue == null ? "" : parmValue);
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return bldr.getEvent();
+    }
+
+    private static boolean matchFind(final String expression, final String input) {
+        if (input == null) return false;
+        final Pattern pat = getPattern(expression);
+        return pat != null && pat.matcher(input).find();
+    }
+
+    private static boolean containsIgnoreCase(final List<String> collection, final String match) {
+        if (collection.size() == 0) return true;
+        for (final String string : collection) {
+            if (string.equalsIgnoreCase(match)) return true;
+        }
+        return false;
+    }
+
+    private static Pattern getPattern(final String expression) {
+        Pattern msgPat = CACHED_PATTERNS.get(expression);
+        if (msgPat == null) {
+            try {
+                msgPat = Pattern.compile(expression, Pattern.MULTILINE);
+                CACHED_PATTERNS.put(expression, msgPat);
+            } catch (final PatternSyntaxException pse) {
+                return null;
+            }
+        }
+        return msgPat;
+    }
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.ProcessMatch;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+public class SyslogMatcherTest {
+
+    private static final String DISCARD_UEI = "DISCARD-MATCHING-MESSAGES";
+
+    @Test
+    public void testRequiredLiterals() {
+        assertEquals(Arrays.asList("foo0: ", "load test ", " on "), SyslogMatcher.getRequiredLiterals(".*foo0: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*"));
+        assertEquals(Arrays.asList("foo: ", " out of ", " tests failed for "), SyslogMatcher.getRequiredLiterals("foo: (\\d+) out of (\\d+) tests failed for (\\S+)$"));
+        assertEquals(Arrays.asList("ouble", "ecret"), SyslogMatcher.getRequiredLiterals("[Dd]ouble[Ss]ecret"));
+        // Optional characters are not required
+        assertEquals(Arrays.asList("colo", "r is"), SyslogMatcher.getRequiredLiterals("colou?r is"));
+        assertEquals(Arrays.asList("ab", "cd"), SyslogMatcher.getRequiredLiterals("ab+cd"));
+        assertEquals(Arrays.asList("abc", "de"), SyslogMatcher.getRequiredLiterals("abcd{0,2}de"));
+        // Escaped metacharacters are literals
+        assertEquals(Arrays.asList("%SEC-6-IPACCESSLOGP: list in110 denied tcp 192.168.10.100"), SyslogMatcher.getRequiredLiterals("%SEC-6-IPACCESSLOGP: list in110 denied tcp 192\\.168\\.10\\.100"));
+        assertEquals(Arrays.asList("a(b)"), SyslogMatcher.getRequiredLiterals("a\\(b\\)"));
+        // Groups and classes are skipped, including nested brackets and parentheses
+        assertEquals(Arrays.asList("before", "after"), SyslogMatcher.getRequiredLiterals("before(a|(b[)|]))after"));
+        assertEquals(Arrays.asList("before", "after"), SyslogMatcher.getRequiredLiterals("before[]a[b]]after"));
+        // Nothing can be required from these
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals(".*"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("[Cc]ritical|[Ff]atal"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("(?i)critical"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("\\Qa.b\\E"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("\\x41BC"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("(a)\\1bc"));
+    }
+
+    @Test
+    public void testFirstMatchWins() throws Exception {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("regex", "fail(ed|ure) for (\\S+)$", "uei.example.org/regex"));
+        ueiList.addUeiMatch(ueiMatch("substr", "failed", "uei.example.org/substr"));
+        ueiList.addUeiMatch(ueiMatch("substr", "for", "uei.example.org/for"));
+        final SyslogMatcher matcher = new SyslogMatcher(ueiList, null);
+
+        assertEquals("uei.example.org/regex", match(matcher, message("login failed for root")).getUei());
+        assertEquals("uei.example.org/substr", match(matcher, message("login failed for root, retrying")).getUei());
+        assertEquals("uei.example.org/for", match(matcher, message("waiting for root")).getUei());
+        assertEquals("uei.opennms.org/default", match(matcher, message("nothing to see here")).getUei());
+    }
+
+    @Test
+    public void testRulesWithoutLiteralsKeepTheirPosition() throws Exception {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("substr", "kernel", "uei.example.org/kernel"));
+        ueiList.addUeiMatch(ueiMatch("regex", "[Cc]rit|[Ee]mer", "uei.example.org/critical"));
+        ueiList.addUeiMatch(ueiMatch("substr", "panic", "uei.example.org/panic"));
+        final SyslogMatcher matcher = new SyslogMatcher(ueiList, null);
+
+        assertEquals("uei.example.org/kernel", match(matcher, message("kernel panic: Crit")).getUei());
+        assertEquals("uei.example.org/critical", match(matcher, message("Crit: panic")).getUei());
+        assertEquals("uei.example.org/panic", match(matcher, message("panic")).getUei());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("substr", "JUNK", DISCARD_UEI));
+        ueiList.addUeiMatch(ueiMatch("regex", "[Tt][Rr][Aa][Ss][Hh]", DISCARD_UEI));
+        final SyslogMatcher matcher = new SyslogMatcher(ueiList, null);
+
+        for (final String text : new String[] { "this is JUNK", "take out the TrAsH" }) {
+            try {
+                match(matcher, message(text));
+                fail("Message should have been discarded: " + text);
+            } catch (final MessageDiscardedException e) {
+                // expected
+            }
+        }
+        assertEquals("uei.opennms.org/default", match(matcher, message("this is junk")).getUei());
+    }
+
+    @Test
+    public void testParameters() throws Exception {
+        final UeiMatch bothKinds = ueiMatch("regex", "coffee: Secretly replaced (\\S+) coffee with (\\d+) (\\S+)$", "uei.example.org/bothKinds");
+        bothKinds.addParameterAssignment(parameterAssignment(1, "whoseBeverage"));
+        bothKinds.addParameterAssignment(parameterAssignment(3, "replacementItem"));
+        final UeiMatch userSpecifiedOnly = ueiMatch("regex", "tea: Secretly replaced (\\S+) tea with (\\d+) (\\S+)$", "uei.example.org/userSpecifiedOnly");
+        userSpecifiedOnly.getMatch().setDefaultParameterMapping(false);
+        userSpecifiedOnly.addParameterAssignment(parameterAssignment(2, "count"));
+
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(bothKinds);
+        ueiList.addUeiMatch(userSpecifiedOnly);
+        final SyslogMatcher matcher = new SyslogMatcher(ueiList, null);
+
+        Event event = match(matcher, message("coffee: Secretly replaced rangerrick's coffee with 42 wombats"));
+        assertEquals("uei.example.org/bothKinds", event.getUei());
+        assertEquals("rangerrick's", event.getParm("group1").getValue().getContent());
+        assertEquals("42", event.getParm("group2").getValue().getContent());
+        assertEquals("wombats", event.getParm("group3").getValue().getContent());
+        assertEquals("rangerrick's", event.getParm("whoseBeverage").getValue().getContent());
+        assertEquals("wombats", event.getParm("replacementItem").getValue().getContent());
+
+        event = match(matcher, message("tea: Secretly replaced jeffg's tea with 7 whales"));
+        assertEquals("uei.example.org/userSpecifiedOnly", event.getUei());
+        assertEquals(null, event.getParm("group1"));
+        assertEquals("7", event.getParm("count").getValue().getContent());
+    }
+
+    @Test
+    public void testNonMessageCriteria() throws Exception {
+        final UeiMatch processOnly = ueiMatch("regex", ".*", "uei.example.org/processOnly");
+        final ProcessMatch processMatch = new ProcessMatch();
+        processMatch.setExpression("beerd");
+        processOnly.setProcessMatch(processMatch);
+        final UeiMatch facilitySeverity = ueiMatch("regex", ".*", "uei.example.org/facilitySeverity");
+        facilitySeverity.addFacility("local1");
+        facilitySeverity.addSeverity("Warning");
+
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(processOnly);
+        ueiList.addUeiMatch(facilitySeverity);
+        final SyslogMatcher matcher = new SyslogMatcher(ueiList, null);
+
+        final SyslogMessage beerd = message("hello");
+        beerd.setProcessName("beerd");
+        assertEquals("uei.example.org/processOnly", match(matcher, beerd).getUei());
+
+        final SyslogMessage warning = message("hello");
+        warning.setFacility(SyslogFacility.LOCAL1);
+        warning.setSeverity(SyslogSeverity.WARNING);
+        assertEquals("uei.example.org/facilitySeverity", match(matcher, warning).getUei());
+
+        final SyslogMessage error = message("hello");
+        error.setFacility(SyslogFacility.LOCAL1);
+        error.setSeverity(SyslogSeverity.ERROR);
+        assertEquals("uei.opennms.org/default", match(matcher, error).getUei());
+    }
+
+    @Test
+    public void testInvalidRulesNeverMatch() throws Exception {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("regex", "unbalanced (", "uei.example.org/invalid"));
+        ueiList.addUeiMatch(ueiMatch("substr", "unbalanced", "uei.example.org/valid"));
+        final SyslogMatcher matcher = new SyslogMatcher(ueiList, null);
+
+        assertEquals("uei.example.org/valid", match(matcher, message("unbalanced (")).getUei());
+    }
+
+    @Test
+    public void testManyRules() throws Exception {
+        final UeiList ueiList = new UeiList();
+        for (int i = 0; i < 10000; i++) {
+            ueiList.addUeiMatch(ueiMatch("regex", ".*foo" + i + ": .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*", "uei.example.org/syslog/loadTest/foo" + i));
+        }
+        final SyslogMatcher matcher = new SyslogMatcher(ueiList, null);
+
+        for (final int i : new int[] { 0, 1, 10, 100, 1000, 9999 }) {
+            final Event event = match(matcher, message("foo" + i + ": load test " + i + " on tty1"));
+            assertEquals("uei.example.org/syslog/loadTest/foo" + i, event.getUei());
+            assertEquals(String.valueOf(i), event.getParm("group1").getValue().getContent());
+        }
+        assertEquals("uei.opennms.org/default", match(matcher, message("foo10000: load test 10000 on tty1")).getUei());
+        assertEquals("uei.opennms.org/default", match(matcher, message("foo1: load test 1 on console")).getUei());
+    }
+
+    @Test
+    public void testHideMessage() {
+        final HideMessage hideMessage = new HideMessage();
+        hideMessage.addHideMatch(hideMatch("substr", "TESTHIDING"));
+        hideMessage.addHideMatch(hideMatch("regex", "[Dd]ouble[Ss]ecret"));
+        final SyslogMatcher matcher = new SyslogMatcher(null, hideMessage);
+
+        assertFalse(matcher.hasUeiMatches());
+        assertTrue(matcher.hasHideMatches());
+        assertTrue(matcher.isHidden("<173>Dec 22 15:46:17 localhost foo: TESTHIDING"));
+        assertTrue(matcher.isHidden("<173>Dec 22 15:46:17 localhost foo: this is doubleSecret"));
+        assertFalse(matcher.isHidden("<173>Dec 22 15:46:17 localhost foo: this is double secret"));
+        assertFalse(matcher.isHidden("<173>Dec 22 15:46:17 localhost foo: nothing to hide"));
+    }
+
+    @Test
+    public void testGetInstance() {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("substr", "CRISCO", "uei.example.org/crisco"));
+        final SyslogdConfig config = new SyslogdConfigWithRules(ueiList, null);
+
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(config);
+        assertSame(matcher, SyslogMatcher.getInstance(config));
+        assertSame(matcher, SyslogMatcher.getInstance(new SyslogdConfigWithRules(ueiList, null)));
+
+        // A reloaded configuration has new objects, so it is compiled again
+        final UeiList reloaded = new UeiList();
+        reloaded.addUeiMatch(ueiMatch("substr", "CRISCO", "uei.example.org/crisco"));
+        assertNotSame(matcher, SyslogMatcher.getInstance(new SyslogdConfigWithRules(reloaded, null)));
+        assertNotSame(matcher, SyslogMatcher.getInstance(new SyslogdConfigWithRules(ueiList, new HideMessage())));
+    }
+
+    private static Event match(final SyslogMatcher matcher, final SyslogMessage message) throws MessageDiscardedException {
+        final EventBuilder bldr = new EventBuilder("uei.opennms.org/default", "SyslogMatcherTest");
+        matcher.matchUei(message, DISCARD_UEI, bldr);
+        return bldr.getEvent();
+    }
+
+    private static SyslogMessage message(final String text) {
+        final SyslogMessage message = new SyslogMessage(1, 5, new Date(), null, null, null, text);
+        message.setHostName("localhost");
+        return message;
+    }
+
+    private static UeiMatch ueiMatch(final String type, final String expression, final String uei) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setMatch(match);
+        ueiMatch.setUei(uei);
+        return ueiMatch;
+    }
+
+    private static HideMatch hideMatch(final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match);
+        return hideMatch;
+    }
+
+    private static ParameterAssignment parameterAssignment(final int group, final String name) {
+        final ParameterAssignment assignment = new ParameterAssignment();
+        assignment.setMatchingGroup(group);
+        assignment.setParameterName(name);
+        return assignment;
+    }
+
+    private static class SyslogdConfigWithRules implements SyslogdConfig {
+        private final UeiList m_ueiList;
+        private final HideMessage m_hideMessage;
+
+        public SyslogdConfigWithRules(final UeiList ueiList, final HideMessage hideMessage) {
+            m_ueiList = ueiList;
+            m_hideMessage = hideMessage;
+        }
+
+        @Override public int getSyslogPort() { return 10514; }
+        @Override public String getListenAddress() { return null; }
+        @Override public boolean getNewSuspectOnMessage() { return false; }
+        @Override public String getForwardingRegexp() { return null; }
+        @Override public int getMatchingGroupHost() { return 0; }
+        @Override public int getMatchingGroupMessage() { return 0; }
+        @Override public String getParser() { return null; }
+        @Override public UeiList getUeiList() { return m_ueiList; }
+        @Override public HideMessage getHideMessages() { return m_hideMessage; }
+        @Override public String getDiscardUei() { return DISCARD_UEI; }
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SOURCE;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventConfMatcher;
+import org.opennms.netmgt.xml.eventconf.Events;
+
+/**
+ * Caches the event definitions that traps are matched to by their identity,
+ * the enterprise id and the generic and specific trap numbers.
+ *
+ * A definition is only cached when the {@link EventConfMatcher} reports
+ * that no varbind or other part of the trap can change the result of the
+ * lookup, traps that match definitions with varbind masks are always looked
+ * up. The cache is cleared whenever the event configuration is reloaded.
+ */
+class TrapEventConfCache {
+
+    /**
+     * The mask elements that the key is made of. The UEI and source of the
+     * events that are created from traps are always the same.
+     */
+    private static final Set<String> IDENTITY = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(TAG_UEI, TAG_SOURCE, TAG_SNMP_EID, TAG_SNMP_GENERIC, TAG_SNMP_SPECIFIC)));
+
+    /**
+     * Stands in for traps that do not match any definition, the map does not
+     * take null values.
+     */
+    private static final Event NO_MATCH = new Event();
+
+    private static final class Entries {
+        private final EventConfMatcher m_matcher;
+        private final Map<String,Event> m_definitions = new ConcurrentHashMap<>();
+
+        private Entries(final EventConfMatcher matcher) {
+            m_matcher = matcher;
+        }
+    }
+
+    private final EventConfDao m_eventConfDao;
+
+    private final int m_maxSize;
+
+    private volatile Entries m_entries = new Entries(null);
+
+    /**
+     * @param maxSize the maximum number of cached definitions, the cache is
+     *   disabled if it is not positive
+     */
+    TrapEventConfCache(final EventConfDao eventConfDao, final int maxSize) {
+        m_eventConfDao = eventConfDao;
+        m_maxSize = maxSize;
+    }
+
+    EventConfDao getEventConfDao() {
+        return m_eventConfDao;
+    }
+
+    /**
+     * Returns the same definition as {@link EventConfDao#findByEvent(org.opennms.netmgt.xml.event.Event)}
+     * for an event that was created from a trap.
+     */
+    Event findByEvent(final org.opennms.netmgt.xml.event.Event event) {
+        final Events root = m_maxSize > 0 ? m_eventConfDao.getRootEvents() : null;
+        final EventConfMatcher matcher = root == null ? null : root.getMatcher();
+        final Snmp snmp = event.getSnmp();
+        if (matcher == null || snmp == null) {
+            return m_eventConfDao.findByEvent(event);
+        }
+
+        Entries entries = m_entries;
+        if (entries.m_matcher != matcher) {
+            entries = new Entries(matcher);
+            m_entries = entries;
+        }
+
+        final String key = snmp.getId() + '/' + (snmp.hasGeneric() ? snmp.getGeneric() : "") + '/' + (snmp.hasSpecific() ? snmp.getSpecific() : "");
+        final Event cached = entries.m_definitions.get(key);
+        if (cached != null) {
+            return cached == NO_MATCH ? null : cached;
+        }
+
+        final Event definition = matcher.findFirstMatchingEvent(event);
+        if (matcher.isDeterminedBy(event, IDENTITY)) {
+            if (entries.m_definitions.size() >= m_maxSize) {
+                entries.m_definitions.clear();
+            }
+            entries.m_definitions.put(key, definition == null ? NO_MATCH : definition);
+        }
+        return definition;
+    }
+}
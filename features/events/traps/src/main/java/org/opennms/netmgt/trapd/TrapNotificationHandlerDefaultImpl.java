@@ -28,18 +28,40 @@
 
 package org.opennms.netmgt.trapd;
 
-import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opennms.core.concurrent.ExecutorFactory;
 import org.opennms.core.concurrent.ExecutorFactoryJavaImpl;
 import org.opennms.netmgt.snmp.TrapNotification;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
-public class TrapNotificationHandlerDefaultImpl implements TrapNotificationHandler {
+/**
+ * Queues the received traps in a bounded queue that is drained in batches
+ * by {@link #TRAP_PROCESSOR_THREADS} threads. Each batch is converted to
+ * events by a {@link TrapQueueProcessor} and sent to eventd at once. When
+ * the queue is full the threads that receive the traps wait for room.
+ */
+public class TrapNotificationHandlerDefaultImpl implements TrapNotificationHandler, DisposableBean {
 	private static final Logger LOG = LoggerFactory.getLogger(TrapNotificationHandlerDefaultImpl.class);
 
+	/**
+	 * Maximum number of received traps that are waiting to be processed.
+	 */
+	public static final String QUEUE_SIZE_PROPERTY = "org.opennms.trapd.queueSize";
+
+	/**
+	 * Maximum number of traps that are converted and sent to eventd at once.
+	 */
+	public static final String BATCH_SIZE_PROPERTY = "org.opennms.trapd.batchSize";
+
 	/**
 	 * This is the number of threads that are used to process traps.
 	 * 
@@ -48,7 +70,13 @@ public class TrapNotificationHandlerDefaultImpl implements TrapNotificationHandl
 	public static final int TRAP_PROCESSOR_THREADS = Runtime.getRuntime().availableProcessors();
 
 	private final ExecutorFactory m_executorFactory = new ExecutorFactoryJavaImpl();
-	private final ExecutorService m_processorExecutor = m_executorFactory.newExecutor(TRAP_PROCESSOR_THREADS, Integer.MAX_VALUE, "OpenNMS.Trapd", "trapProcessors");
+	private final ExecutorService m_processorExecutor = m_executorFactory.newExecutor(TRAP_PROCESSOR_THREADS, TRAP_PROCESSOR_THREADS, "OpenNMS.Trapd", "trapProcessors");
+
+	private final BlockingQueue<TrapNotification> m_queue = new ArrayBlockingQueue<>(Math.max(1, Integer.getInteger(QUEUE_SIZE_PROPERTY, 10000)));
+
+	private final int m_batchSize = Math.max(1, Integer.getInteger(BATCH_SIZE_PROPERTY, 100));
+
+	private final AtomicBoolean m_started = new AtomicBoolean(false);
 
 	private TrapQueueProcessorFactory m_processorFactory;
 
@@ -59,15 +87,56 @@ public class TrapNotificationHandlerDefaultImpl implements TrapNotificationHandl
 		try {
 			// HZN-632: Call message.setProcessor() to change the processor to an EventCreator
 			message.setTrapProcessor(new EventCreator(m_trapdIpManager));
-			// Use the TrapQueueProcessorFactory to construct a TrapQueueProcessor
-			TrapQueueProcessor processor = m_processorFactory.getInstance(message);
-			// Call the processor asynchronously
-			CompletableFuture.supplyAsync(processor::call, m_processorExecutor);
+			if (m_started.compareAndSet(false, true)) {
+				for (int i = 0; i < TRAP_PROCESSOR_THREADS; i++) {
+					m_processorExecutor.execute(this::processTraps);
+				}
+			}
+			// Wait for room in the queue if the processors fall behind
+			m_queue.put(message);
+		} catch (InterruptedException e) {
+			LOG.warn("Interrupted while queueing a trap, the trap is lost");
+			Thread.currentThread().interrupt();
 		} catch (Throwable e) {
 			LOG.error("Task execution failed in {}", this.getClass().getSimpleName(), e);
 		}
 	}
 
+	/**
+	 * Takes batches of traps from the queue and hands them to a
+	 * TrapQueueProcessor until the thread is interrupted. The queue is polled
+	 * with a timeout so that the summaries of the storm limiter are also
+	 * sent when no more traps arrive.
+	 */
+	private void processTraps() {
+		final List<TrapNotification> batch = new ArrayList<>(m_batchSize);
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				final TrapNotification first = m_queue.poll(1, TimeUnit.SECONDS);
+				if (first != null) {
+					batch.add(first);
+					m_queue.drainTo(batch, m_batchSize - 1);
+				}
+				// Use the TrapQueueProcessorFactory to construct a TrapQueueProcessor
+				m_processorFactory.getInstance(batch).call();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				LOG.error("Task execution failed in {}", this.getClass().getSimpleName(), e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Stops the processor threads, the traps that are still queued are lost.
+	 */
+	@Override
+	public void destroy() {
+		m_processorExecutor.shutdownNow();
+	}
+
 	/**
 	 * @return the m_processorFactory
 	 */
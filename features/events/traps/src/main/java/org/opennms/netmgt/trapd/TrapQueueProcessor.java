@@ -31,6 +31,7 @@ package org.opennms.netmgt.trapd;
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.net.InetAddress;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.opennms.core.utils.InetAddressUtils;
@@ -39,6 +40,8 @@ import org.opennms.netmgt.events.api.EventForwarder;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.snmp.TrapNotification;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.opennms.netmgt.xml.eventconf.Snmp;
 import org.slf4j.Logger;
@@ -47,8 +50,8 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
 /**
- * The TrapQueueProcessor handles the conversion of V1 and V2 traps to events
- * and sending them out the JSDT channel that eventd is listening on.
+ * The TrapQueueProcessor handles the conversion of a batch of V1 and V2 traps
+ * to events and sends them to eventd as a single event log.
  * 
  * @see Java Shared Data Toolkit
  * @see http://www.drdobbs.com/collaborative-applications-and-the-java/184403999
@@ -86,7 +89,18 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
      */
     private EventConfDao m_eventConfDao;
 
-    private TrapNotification m_trapNotification;
+    /**
+     * The cache of the event definitions that we look the traps up in, if
+     * it is not set they are looked up with the event configuration DAO.
+     */
+    private TrapEventConfCache m_eventConfCache;
+
+    /**
+     * The storm limiter that we ask before converting a trap, if any.
+     */
+    private TrapStormLimiter m_stormLimiter;
+
+    private List<TrapNotification> m_trapNotifications;
     
     private static long s_v1TrapsReceived = 0;
     
@@ -98,6 +112,8 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
     
     private static long s_trapsErrored = 0;
 
+    private static long s_trapsSuppressed = 0;
+
     /**
      * Process a V2 trap and convert it to an event for transmission.
      * 
@@ -167,13 +183,39 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
      */
     @Override
     public Void call() {
-        try {
-            processTrapEvent(((EventCreator)m_trapNotification.getTrapProcessor()).getEvent());
-        } catch (IllegalArgumentException e) {
-            LOG.info(e.getMessage());
-        } catch (Throwable e) {
-            LOG.error("Unexpected error processing trap: {}", e, e);
-            s_trapsErrored++;
+        final long now = System.currentTimeMillis();
+        final Events events = new Events();
+        for (final TrapNotification trapNotification : m_trapNotifications) {
+            try {
+                processTrapEvent(((EventCreator)trapNotification.getTrapProcessor()).getEvent(), events, now);
+            } catch (IllegalArgumentException e) {
+                LOG.info(e.getMessage());
+            } catch (Throwable e) {
+                LOG.error("Unexpected error processing trap: {}", e, e);
+                s_trapsErrored++;
+            }
+        }
+
+        if (m_stormLimiter != null) {
+            final List<Event> summaries = m_stormLimiter.collectSummaries(now);
+            if (summaries != null) {
+                for (final Event summary : summaries) {
+                    LOG.warn("Suppressed {} traps from {}", summary.getParm("suppressed").getValue().getContent(), summary.getInterface());
+                    events.addEvent(summary);
+                }
+            }
+        }
+
+        if (events.getEventCount() > 0) {
+            final Log eventLog = new Log();
+            eventLog.setEvents(events);
+            try {
+                // send the events to eventd
+                m_eventForwarder.sendNow(eventLog);
+            } catch (Throwable e) {
+                LOG.error("Unexpected error sending {} events to eventd: {}", events.getEventCount(), e, e);
+                s_trapsErrored += events.getEventCount();
+            }
         }
         return null;
     }
@@ -182,11 +224,19 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
      * <p>processTrapEvent</p>
      *
      * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @param events the events that are sent to eventd with the batch
+     * @param now the time at which the batch is processed
      */
-    private void processTrapEvent(final Event event) {
+    private void processTrapEvent(final Event event, final Events events, final long now) {
     	final InetAddress trapInterface = event.getInterfaceAddress();
 
-    	final org.opennms.netmgt.xml.eventconf.Event econf = m_eventConfDao.findByEvent(event);
+        if (m_stormLimiter != null && !m_stormLimiter.tryAcquire(event, now)) {
+            LOG.debug("Trap from {} suppressed by the storm limiter", trapInterface);
+            s_trapsSuppressed++;
+            return;
+        }
+
+    	final org.opennms.netmgt.xml.eventconf.Event econf = m_eventConfCache == null ? m_eventConfDao.findByEvent(event) : m_eventConfCache.findByEvent(event);
         if (econf == null || econf.getUei() == null) {
             event.setUei("uei.opennms.org/default/trap");
         } else {
@@ -215,34 +265,32 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
             }
         }
 
-        // send the event to eventd
-        m_eventForwarder.sendNow(event);
+        // add the event to the batch for eventd
+        events.addEvent(event);
 
-        LOG.debug("Trap successfully converted and sent to eventd with UEI {}", event.getUei());
+        LOG.debug("Trap successfully converted with UEI {}", event.getUei());
 
         if (!event.hasNodeid() && m_newSuspect) {
-            sendNewSuspectEvent(InetAddressUtils.str(trapInterface));
+            events.addEvent(createNewSuspectEvent(InetAddressUtils.str(trapInterface)));
 
-            LOG.debug("Sent newSuspectEvent for interface: {}", trapInterface);
+            LOG.debug("Added newSuspectEvent for interface: {}", trapInterface);
 
         }
     }
 
     /**
-     * Send a newSuspect event for the interface
+     * Create a newSuspect event for the interface
      * 
      * @param trapInterface
      *            The interface for which the newSuspect event is to be
      *            generated
      */
-    private void sendNewSuspectEvent(String trapInterface) {
+    private Event createNewSuspectEvent(String trapInterface) {
         // construct event with 'trapd' as source
         EventBuilder bldr = new EventBuilder(org.opennms.netmgt.events.api.EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI, "trapd");
         bldr.setInterface(addr(trapInterface));
         bldr.setHost(LOCALHOST_ADDRESS);
-
-        // send the event to eventd
-        m_eventForwarder.sendNow(bldr.getEvent());
+        return bldr.getEvent();
     }
 
     /**
@@ -269,6 +317,22 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
         m_eventConfDao = eventConfDao;
     }
 
+    public TrapEventConfCache getEventConfCache() {
+        return m_eventConfCache;
+    }
+
+    public void setEventConfCache(TrapEventConfCache eventConfCache) {
+        m_eventConfCache = eventConfCache;
+    }
+
+    public TrapStormLimiter getStormLimiter() {
+        return m_stormLimiter;
+    }
+
+    public void setStormLimiter(TrapStormLimiter stormLimiter) {
+        m_stormLimiter = stormLimiter;
+    }
+
     /**
      * <p>getEventMgr</p>
      *
@@ -305,12 +369,12 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
         m_newSuspect = newSuspect;
     }
 
-    public TrapNotification getTrapNotification() {
-        return m_trapNotification;
+    public List<TrapNotification> getTrapNotifications() {
+        return m_trapNotifications;
     }
 
-    public void setTrapNotification(TrapNotification info) {
-        m_trapNotification = info;
+    public void setTrapNotifications(List<TrapNotification> trapNotifications) {
+        m_trapNotifications = trapNotifications;
     }
 
     @Override
@@ -318,7 +382,7 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
         Assert.state(m_eventConfDao != null, "property eventConfDao must be set");
         Assert.state(m_eventForwarder != null, "property eventForwarder must be set");
         Assert.state(m_newSuspect != null, "property newSuspect must be set");
-        Assert.state(m_trapNotification != null, "property trapNotification must be set");
+        Assert.state(m_trapNotifications != null, "property trapNotifications must be set");
     }
     
     public static long getV1TrapsReceived() {
@@ -340,4 +404,8 @@ class TrapQueueProcessor implements Callable<Void>, InitializingBean {
     public static long getTrapsErrored() {
         return s_trapsErrored;
     }
+
+    public static long getTrapsSuppressed() {
+        return s_trapsSuppressed;
+    }
 }
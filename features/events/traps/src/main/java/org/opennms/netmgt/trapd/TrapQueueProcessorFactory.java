@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.trapd;
 
+import java.util.List;
+
 import javax.annotation.Resource;
 
 import org.opennms.core.spring.BeanUtils;
@@ -43,6 +45,40 @@ import org.springframework.util.Assert;
  */
 public class TrapQueueProcessorFactory implements InitializingBean {
 
+    /**
+     * Number of traps per second that are turned into events for each agent,
+     * the traps above this rate are suppressed. Disabled if not positive.
+     */
+    public static final String STORM_RATE_PROPERTY = "org.opennms.trapd.stormRate";
+
+    /**
+     * Number of traps that an agent may send at once before the storm rate
+     * applies. Defaults to the storm rate.
+     */
+    public static final String STORM_BURST_PROPERTY = "org.opennms.trapd.stormBurst";
+
+    /**
+     * Number of milliseconds between the summary events that are sent for
+     * the agents whose traps were suppressed.
+     */
+    public static final String STORM_SUMMARY_INTERVAL_PROPERTY = "org.opennms.trapd.stormSummaryInterval";
+
+    /**
+     * Maximum number of event definitions that are cached by trap identity.
+     * Disabled if not positive.
+     */
+    public static final String EVENTCONF_CACHE_SIZE_PROPERTY = "org.opennms.trapd.eventConfCacheSize";
+
+    private static final double STORM_RATE = Double.parseDouble(System.getProperty(STORM_RATE_PROPERTY, "0"));
+
+    private final TrapStormLimiter m_stormLimiter = new TrapStormLimiter(STORM_RATE,
+            Integer.getInteger(STORM_BURST_PROPERTY, (int)Math.ceil(STORM_RATE)),
+            Long.getLong(STORM_SUMMARY_INTERVAL_PROPERTY, 60000));
+
+    private final int m_eventConfCacheSize = Integer.getInteger(EVENTCONF_CACHE_SIZE_PROPERTY, 10000);
+
+    private volatile TrapEventConfCache m_eventConfCache;
+
     /**
      * Whether or not a newSuspect event should be generated with a trap from an
      * unknown IP address
@@ -103,16 +139,33 @@ public class TrapQueueProcessorFactory implements InitializingBean {
     public TrapQueueProcessorFactory() {
     }
 
-    public TrapQueueProcessor getInstance(TrapNotification info) {
+    public TrapQueueProcessor getInstance(List<TrapNotification> info) {
         TrapQueueProcessor retval = new TrapQueueProcessor();
         retval.setEventConfDao(m_eventConfDao);
+        retval.setEventConfCache(getEventConfCache());
         retval.setEventForwarder(m_eventForwarder);
         retval.setNewSuspect(m_newSuspectOnTrap);
-        retval.setTrapNotification(info);
+        retval.setStormLimiter(m_stormLimiter.isEnabled() ? m_stormLimiter : null);
+        retval.setTrapNotifications(info);
         retval.afterPropertiesSet();
         return retval;
     }
 
+    /**
+     * The cache is shared by all of the processors, it is replaced when a
+     * different event configuration DAO is set.
+     */
+    private TrapEventConfCache getEventConfCache() {
+        TrapEventConfCache cache = m_eventConfCache;
+        if (m_eventConfCacheSize <= 0 || m_eventConfDao == null) {
+            return null;
+        } else if (cache == null || cache.getEventConfDao() != m_eventConfDao) {
+            cache = new TrapEventConfCache(m_eventConfDao, m_eventConfCacheSize);
+            m_eventConfCache = cache;
+        }
+        return cache;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
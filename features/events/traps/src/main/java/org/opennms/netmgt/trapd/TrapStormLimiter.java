@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Limits the number of traps that are turned into events for each agent
+ * with a token bucket. Every agent may send {@code burst} traps at once and
+ * {@code rate} traps per second after that, the traps above this rate are
+ * suppressed.
+ *
+ * Instead of the suppressed traps a single
+ * {@link EventConstants#TRAPS_SUPPRESSED_EVENT_UEI} event is sent for each
+ * agent and summary interval, with the number of suppressed traps.
+ */
+class TrapStormLimiter {
+
+    private static final class Bucket {
+        private double m_tokens;
+        private long m_updated;
+        private long m_suppressed;
+        private Long m_nodeId;
+
+        private Bucket(final double tokens, final long now) {
+            m_tokens = tokens;
+            m_updated = now;
+        }
+    }
+
+    private final double m_tokensPerMilli;
+
+    private final double m_burst;
+
+    private final long m_summaryInterval;
+
+    private final Map<InetAddress,Bucket> m_buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_nextSummary;
+
+    /**
+     * @param rate the number of traps per second allowed for each agent,
+     *   the limiter is disabled if it is not positive
+     * @param burst the number of traps an agent may send at once, at least 1
+     * @param summaryInterval the number of milliseconds between summaries
+     */
+    TrapStormLimiter(final double rate, final int burst, final long summaryInterval) {
+        m_tokensPerMilli = rate / 1000.0;
+        m_burst = Math.max(1, burst);
+        m_summaryInterval = summaryInterval;
+        m_nextSummary = new AtomicLong(System.currentTimeMillis() + summaryInterval);
+    }
+
+    boolean isEnabled() {
+        return m_tokensPerMilli > 0;
+    }
+
+    /**
+     * Takes a token from the bucket of the agent that sent the trap the
+     * event was created from.
+     *
+     * @return false if the trap must be suppressed
+     */
+    boolean tryAcquire(final Event event, final long now) {
+        final InetAddress source = event.getInterfaceAddress();
+        if (!isEnabled() || source == null) {
+            return true;
+        }
+        final Bucket bucket = m_buckets.computeIfAbsent(source, s -> new Bucket(m_burst, now));
+        synchronized (bucket) {
+            if (now > bucket.m_updated) {
+                bucket.m_tokens = Math.min(m_burst, bucket.m_tokens + (now - bucket.m_updated) * m_tokensPerMilli);
+                bucket.m_updated = now;
+            }
+            if (bucket.m_tokens >= 1) {
+                bucket.m_tokens--;
+                return true;
+            }
+            bucket.m_suppressed++;
+            if (event.hasNodeid()) {
+                bucket.m_nodeId = event.getNodeid();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the summary events for the agents that had traps suppressed
+     * since the last summary, once the summary interval has passed. Only one
+     * of the threads calling this method concurrently gets the summaries.
+     * Agents that have not sent any traps for a whole interval, and whose
+     * bucket has been refilled since, are forgotten.
+     */
+    List<Event> collectSummaries(final long now) {
+        final long next = m_nextSummary.get();
+        if (!isEnabled() || now < next || !m_nextSummary.compareAndSet(next, now + m_summaryInterval)) {
+            return null;
+        }
+        final List<Event> summaries = new ArrayList<>();
+        for (final Iterator<Map.Entry<InetAddress,Bucket>> it = m_buckets.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<InetAddress,Bucket> entry = it.next();
+            final Bucket bucket = entry.getValue();
+            synchronized (bucket) {
+                if (bucket.m_suppressed > 0) {
+                    final EventBuilder bldr = new EventBuilder(EventConstants.TRAPS_SUPPRESSED_EVENT_UEI, "trapd");
+                    bldr.setInterface(entry.getKey());
+                    if (bucket.m_nodeId != null) {
+                        bldr.setNodeid(bucket.m_nodeId);
+                    }
+                    bldr.addParam("suppressed", bucket.m_suppressed);
+                    bldr.addParam("interval", TimeUnit.MILLISECONDS.toSeconds(m_summaryInterval));
+                    summaries.add(bldr.getEvent());
+                    bucket.m_suppressed = 0;
+                } else if (now - bucket.m_updated >= m_summaryInterval && bucket.m_tokens + (now - bucket.m_updated) * m_tokensPerMilli >= m_burst) {
+                    it.remove();
+                }
+            }
+        }
+        return summaries;
+    }
+}
@@ -272,6 +272,10 @@ public class Trapd extends AbstractServiceDaemon {
         return TrapQueueProcessor.getTrapsErrored();
     }
 
+    public long getTrapsSuppressed() {
+        return TrapQueueProcessor.getTrapsSuppressed();
+    }
+
 	/**
 	 * @return the m_trapReceiver
 	 */
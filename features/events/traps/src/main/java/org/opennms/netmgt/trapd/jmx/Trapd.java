@@ -78,4 +78,10 @@ public class Trapd extends AbstractSpringContextJmxServiceDaemon<org.opennms.net
     public long getTrapsErrored() {
         return getDaemon().getTrapsErrored();
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapsSuppressed() {
+        return getDaemon().getTrapsSuppressed();
+    }
 }
@@ -51,4 +51,7 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The number of traps suppressed by the storm limiter since Trapd was last started */
+    public long getTrapsSuppressed();
 }
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.DefaultEventConfDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.TrapIdentity;
+import org.opennms.netmgt.snmp.TrapNotification;
+import org.opennms.netmgt.snmp.TrapProcessor;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.springframework.core.io.ClassPathResource;
+
+public class TrapQueueProcessorTest {
+
+    private static final String BGP = ".1.3.6.1.2.1.15.7";
+
+    private static final String HP = ".1.3.6.1.4.1.11.2.14.12.1";
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    private MockTrapdIpMgr m_trapdIpMgr;
+
+    private final List<Log> m_logs = new ArrayList<>();
+
+    private TrapQueueProcessorFactory m_processorFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new ClassPathResource("/org/opennms/netmgt/trapd/eventconf.xml"));
+        m_eventConfDao.afterPropertiesSet();
+
+        m_trapdIpMgr = new MockTrapdIpMgr();
+        m_trapdIpMgr.setNodeId("192.0.2.1", 1);
+
+        m_processorFactory = new TrapQueueProcessorFactory();
+        m_processorFactory.setEventConfDao(m_eventConfDao);
+        m_processorFactory.setNewSuspect(false);
+        m_processorFactory.setEventForwarder(new EventForwarder() {
+            @Override
+            public void sendNow(final Event event) {
+                throw new UnsupportedOperationException("events must be sent in batches");
+            }
+
+            @Override
+            public void sendNow(final Log eventLog) {
+                m_logs.add(eventLog);
+            }
+        });
+    }
+
+    @Test
+    public void testBatchIsSentAsOneLog() {
+        final long discarded = TrapQueueProcessor.getTrapsDiscarded();
+
+        m_processorFactory.getInstance(Arrays.asList(
+                createTrap("192.0.2.1", BGP, 6, 1),
+                createTrap("192.0.2.1", BGP, 6, 2),
+                createTrap("192.0.2.1", ".1.3.6.1.4.1.5813", 0, 0),
+                createTrap("192.0.2.1", HP, 6, 5))).call();
+
+        assertEquals(1, m_logs.size());
+        final List<Event> events = m_logs.get(0).getEvents().getEventCollection();
+        assertEquals(3, events.size());
+        assertEquals("uei.opennms.org/IETF/BGP/traps/bgpEstablished", events.get(0).getUei());
+        assertEquals("uei.opennms.org/generic/traps/SNMP_Cold_Start", events.get(1).getUei());
+        // the definition of this trap requires a varbind that is missing
+        assertEquals("uei.opennms.org/default/trap", events.get(2).getUei());
+        assertEquals(discarded + 1, TrapQueueProcessor.getTrapsDiscarded());
+    }
+
+    @Test
+    public void testNewSuspectIsSentWithTheBatch() {
+        m_processorFactory.setNewSuspect(true);
+
+        m_processorFactory.getInstance(Arrays.asList(
+                createTrap("192.0.2.1", BGP, 6, 1),
+                createTrap("192.0.2.2", BGP, 6, 1))).call();
+
+        assertEquals(1, m_logs.size());
+        final List<Event> events = m_logs.get(0).getEvents().getEventCollection();
+        assertEquals(3, events.size());
+        assertEquals(Long.valueOf(1), events.get(0).getNodeid());
+        assertEquals("192.0.2.2", events.get(1).getInterface());
+        assertEquals(EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI, events.get(2).getUei());
+        assertEquals("192.0.2.2", events.get(2).getInterface());
+    }
+
+    @Test
+    public void testEmptyBatchIsNotSent() {
+        m_processorFactory.getInstance(new ArrayList<TrapNotification>()).call();
+        assertTrue(m_logs.isEmpty());
+    }
+
+    @Test
+    public void testStormLimiter() {
+        final TrapStormLimiter limiter = new TrapStormLimiter(1, 2, 1000);
+        final Event first = createEvent("192.0.2.1", BGP, 6, 1);
+        final Event second = createEvent("192.0.2.2", BGP, 6, 1);
+        final long now = System.currentTimeMillis();
+
+        assertTrue(limiter.tryAcquire(first, now));
+        assertTrue(limiter.tryAcquire(first, now));
+        assertFalse(limiter.tryAcquire(first, now));
+        assertFalse(limiter.tryAcquire(first, now + 500));
+        assertTrue(limiter.tryAcquire(second, now + 500));
+        // one token has been added after a second
+        assertTrue(limiter.tryAcquire(first, now + 1000));
+        assertFalse(limiter.tryAcquire(first, now + 1000));
+
+        assertNull(limiter.collectSummaries(now));
+        final List<Event> summaries = limiter.collectSummaries(now + 1000);
+        assertEquals(1, summaries.size());
+        final Event summary = summaries.get(0);
+        assertEquals(EventConstants.TRAPS_SUPPRESSED_EVENT_UEI, summary.getUei());
+        assertEquals("192.0.2.1", summary.getInterface());
+        assertEquals(Long.valueOf(1), summary.getNodeid());
+        assertEquals("3", summary.getParm("suppressed").getValue().getContent());
+        assertNull(limiter.collectSummaries(now + 1500));
+        assertTrue(limiter.collectSummaries(now + 2000).isEmpty());
+    }
+
+    @Test
+    public void testEventConfCache() {
+        final TrapEventConfCache cache = new TrapEventConfCache(m_eventConfDao, 100);
+        final List<Event> events = Arrays.asList(
+                createEvent("192.0.2.1", BGP, 6, 1),
+                createEvent("192.0.2.1", BGP, 6, 2),
+                createEvent("192.0.2.1", BGP, 6, 3),
+                createEvent("192.0.2.1", HP, 6, 5),
+                createEvent("192.0.2.1", ".1.3.6.1.4.1.32473.1", 6, 1),
+                createEvent("192.0.2.1", ".1.3.6.1.4.1.5813", 0, 0));
+
+        for (int i = 0; i < 2; i++) {
+            for (final Event event : events) {
+                assertSame(m_eventConfDao.findByEvent(event), cache.findByEvent(event));
+            }
+        }
+
+        // the cached definitions are dropped when the configuration is reloaded
+        final org.opennms.netmgt.xml.eventconf.Event before = cache.findByEvent(events.get(0));
+        m_eventConfDao.reload();
+        final org.opennms.netmgt.xml.eventconf.Event after = cache.findByEvent(events.get(0));
+        assertEquals(before.getUei(), after.getUei());
+        assertSame(m_eventConfDao.findByEvent(events.get(0)), after);
+    }
+
+    private Event createEvent(final String address, final String enterpriseId, final int generic, final int specific) {
+        return ((EventCreator)createTrap(address, enterpriseId, generic, specific).getTrapProcessor()).getEvent();
+    }
+
+    private TrapNotification createTrap(final String address, final String enterpriseId, final int generic, final int specific) {
+        final EventCreator creator = new EventCreator(m_trapdIpMgr);
+        creator.setVersion("v1");
+        creator.setCommunity("public");
+        creator.setAgentAddress(addr(address));
+        creator.setTrapAddress(addr(address));
+        creator.setTimeStamp(0);
+        creator.setTrapIdentity(new TrapIdentity(SnmpObjId.get(enterpriseId), generic, specific));
+        return new TrapNotification() {
+            @Override
+            public TrapProcessor getTrapProcessor() {
+                return creator;
+            }
+
+            @Override
+            public void setTrapProcessor(final TrapProcessor processor) {
+            }
+        };
+    }
+}
@@ -1,15 +1,20 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.JexlException;
 import org.apache.commons.jexl2.MapContext;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.apache.commons.jexl2.parser.JexlNode;
 import org.opennms.netmgt.measurements.api.ExpressionEngine;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
@@ -33,9 +38,34 @@ public class JEXLExpressionEngine implements ExpressionEngine {
     /**
      * Use a single instance of the JEXL engine, which is thread-safe.
      */
-    private final JexlEngine jexl = new JexlEngine();
+    private final Engine jexl = new Engine();
+
+    /**
+     * Whether expressions are evaluated a column at a time when possible.
+     */
+    private final boolean vectorize;
+
+    /**
+     * Exposes the parser and the interpreter so that the parsed expressions
+     * can be evaluated by {@link VectorizedExpression}.
+     */
+    private static class Engine extends JexlEngine {
+        private ASTJexlScript parseExpression(String expression) {
+            return parse(expression, null, null);
+        }
+
+        private Object interpret(JexlNode node, JexlContext context) {
+            return createInterpreter(context).interpret(node);
+        }
+    }
 
     public JEXLExpressionEngine() {
+        this(true);
+    }
+
+    protected JEXLExpressionEngine(boolean vectorize) {
+        this.vectorize = vectorize;
+
         // Add additional functions to the engine
         Map<String, Object> functions = Maps.newHashMap();
         functions.put("math", Math.class);
@@ -64,8 +94,9 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         boolean transientFlags[] = new boolean[numExpressions];
 
         // Compile the expressions
-        int j, k = 0;
+        int k = 0;
         final LinkedHashMap<String, org.apache.commons.jexl2.Expression> expressions = Maps.newLinkedHashMap();
+        final List<ASTJexlScript> scripts = Lists.newArrayListWithCapacity(numExpressions);
         for (final Expression e : request.getExpressions()) {
 
             // Populate the transientFlags array
@@ -77,6 +108,7 @@ public class JEXLExpressionEngine implements ExpressionEngine {
 
             try {
                 expressions.put(e.getLabel(), jexl.createExpression(e.getExpression()));
+                scripts.add(jexl.parseExpression(e.getExpression()));
             } catch (JexlException ex) {
                 throw new ExpressionException(ex, "Failed to parse expression label '{}'.", e.getLabel());
             }
@@ -84,7 +116,6 @@ public class JEXLExpressionEngine implements ExpressionEngine {
 
         // Prepare the JEXL context
         final Map<String, Object> jexlValues = Maps.newHashMap();
-        final JexlContext context = new MapContext(jexlValues);
 
         // Add constants (i.e. values from strings.properties) retrieved by the fetch operation
         jexlValues.putAll(results.getConstants());
@@ -102,7 +133,97 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         // Calculate the time span
         jexlValues.put("__diff_time", numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0]);
 
+        // Expressions that reference themselves or the expressions that follow them see the values
+        // from the previous row, so these can only be evaluated row by row
+        if (!vectorize || expressions.size() != numExpressions || referencesFollowingExpressions(request, scripts, columns)) {
+            applyExpressionsRowByRow(expressions, transientFlags, numNonTransientExpression, jexlValues, timestamps, columns);
+            return;
+        }
+
+        final JexlContext constants = new MapContext(jexlValues);
+        final VectorizedExpression.ConstantInterpreter interpreter = new VectorizedExpression.ConstantInterpreter() {
+            @Override
+            public Object interpret(JexlNode node) {
+                return jexl.interpret(node, constants);
+            }
+        };
+
+        // Evaluate every expression over all of the rows, in the same order as which they appeared in the query
+        k = 0;
+        final Map<String, double[]> expressionValues = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, org.apache.commons.jexl2.Expression> expressionEntry : expressions.entrySet()) {
+            final VectorizedExpression.Symbols symbols = new VectorizedExpression.Symbols(timestamps, columns, expressionValues, jexlValues, interpreter);
+            double values[];
+            try {
+                values = VectorizedExpression.evaluate(scripts.get(k++), symbols);
+            } catch (VectorizedExpression.UnsupportedExpressionException e) {
+                LOG.debug("Evaluating expression with label '{}' row by row: {}", expressionEntry.getKey(), e.getMessage());
+                values = evaluateRowByRow(expressionEntry.getKey(), expressionEntry.getValue(), expressionValues, jexlValues, timestamps, columns);
+            }
+            expressionValues.put(expressionEntry.getKey(), values);
+        }
+
+        // Store the results
+        int j = 0;
+        for (final Map.Entry<String, double[]> entry : expressionValues.entrySet()) {
+            if (!transientFlags[j++]) {
+                columns.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static boolean referencesFollowingExpressions(final QueryRequest request, final List<ASTJexlScript> scripts, final Map<String, double[]> columns) {
+        final List<Expression> expressions = request.getExpressions();
+        for (int k = 0; k < expressions.size(); k++) {
+            final Set<String> identifiers = VectorizedExpression.getIdentifiers(scripts.get(k));
+            for (int j = k; j < expressions.size(); j++) {
+                final String label = expressions.get(j).getLabel();
+                if (identifiers.contains(label) && !columns.containsKey(label) && !"timestamp".equals(label)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates a single expression row by row, with the values of the
+     * preceding expressions in the context.
+     */
+    private static double[] evaluateRowByRow(final String label, final org.apache.commons.jexl2.Expression expression, final Map<String, double[]> expressionValues,
+            final Map<String, Object> constants, final long timestamps[], final Map<String, double[]> columns) throws ExpressionException {
+        final Map<String, Object> jexlValues = Maps.newHashMap(constants);
+        final JexlContext context = new MapContext(jexlValues);
+        final double values[] = new double[timestamps.length];
+
+        for (int i = 0; i < timestamps.length; i++) {
+            for (final Map.Entry<String, double[]> entry : expressionValues.entrySet()) {
+                jexlValues.put(entry.getKey(), entry.getValue()[i]);
+            }
+            jexlValues.put("timestamp", timestamps[i]);
+            for (final Map.Entry<String, double[]> entry : columns.entrySet()) {
+                jexlValues.put(entry.getKey(), entry.getValue()[i]);
+            }
+
+            try {
+                values[i] = Utils.toDouble(expression.evaluate(context));
+            } catch (NullPointerException|NumberFormatException e) {
+                throw new ExpressionException(e, "The return value from expression with label '" +
+                        label + "' could not be cast to a Double.");
+            } catch (JexlException e) {
+                throw new ExpressionException(e, "Failed to evaluate expression with label '" +
+                        label + "'.");
+            }
+        }
+        return values;
+    }
+
+    private static void applyExpressionsRowByRow(final LinkedHashMap<String, org.apache.commons.jexl2.Expression> expressions, final boolean transientFlags[],
+            final int numNonTransientExpression, final Map<String, Object> jexlValues, final long timestamps[], final Map<String, double[]> columns) throws ExpressionException {
+        final JexlContext context = new MapContext(jexlValues);
+        final int numRows = timestamps.length;
         final double expressionValues[][] = new double[numNonTransientExpression][numRows];
+        int j, k;
 
         // Iterate through all of the rows, apply the expressions
         for (int i = 0; i < numRows; i++) {
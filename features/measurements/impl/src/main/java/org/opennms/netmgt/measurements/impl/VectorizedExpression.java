@@ -0,0 +1,779 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jexl2.JexlArithmetic;
+import org.apache.commons.jexl2.parser.ASTAdditiveNode;
+import org.apache.commons.jexl2.parser.ASTAdditiveOperator;
+import org.apache.commons.jexl2.parser.ASTAndNode;
+import org.apache.commons.jexl2.parser.ASTDivNode;
+import org.apache.commons.jexl2.parser.ASTEQNode;
+import org.apache.commons.jexl2.parser.ASTFalseNode;
+import org.apache.commons.jexl2.parser.ASTFunctionNode;
+import org.apache.commons.jexl2.parser.ASTGENode;
+import org.apache.commons.jexl2.parser.ASTGTNode;
+import org.apache.commons.jexl2.parser.ASTIdentifier;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.apache.commons.jexl2.parser.ASTLENode;
+import org.apache.commons.jexl2.parser.ASTLTNode;
+import org.apache.commons.jexl2.parser.ASTModNode;
+import org.apache.commons.jexl2.parser.ASTMulNode;
+import org.apache.commons.jexl2.parser.ASTNENode;
+import org.apache.commons.jexl2.parser.ASTNotNode;
+import org.apache.commons.jexl2.parser.ASTNullLiteral;
+import org.apache.commons.jexl2.parser.ASTNumberLiteral;
+import org.apache.commons.jexl2.parser.ASTOrNode;
+import org.apache.commons.jexl2.parser.ASTReference;
+import org.apache.commons.jexl2.parser.ASTReferenceExpression;
+import org.apache.commons.jexl2.parser.ASTStringLiteral;
+import org.apache.commons.jexl2.parser.ASTTernaryNode;
+import org.apache.commons.jexl2.parser.ASTTrueNode;
+import org.apache.commons.jexl2.parser.ASTUnaryMinusNode;
+import org.apache.commons.jexl2.parser.JexlNode;
+import org.opennms.netmgt.measurements.utils.Utils;
+
+/**
+ * Evaluates a parsed JEXL expression one column at a time over the
+ * <code>double[]</code> columns of the fetch results, instead of one row at a
+ * time through a JEXL context.
+ *
+ * The arithmetic, comparison, logical and ternary operators are supported,
+ * along with references to the sources, the timestamp, the preceding
+ * expressions and the constants, and the usual <code>math:</code> and
+ * <code>strictmath:</code> functions. Sub-expressions that only depend on
+ * constants are handed to the JEXL interpreter once. Values are converted
+ * the same way {@link JexlArithmetic} converts them, so the results are
+ * identical to those of the interpreter. Anything else raises an
+ * {@link UnsupportedExpressionException} and should be evaluated by JEXL.
+ *
+ * @see JEXLExpressionEngine
+ */
+final class VectorizedExpression {
+
+    /**
+     * Raised when an expression uses a construct that can't be vectorized.
+     */
+    static final class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 3407862373215306577L;
+
+        UnsupportedExpressionException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Evaluates the sub-expressions that only depend on constants.
+     */
+    interface ConstantInterpreter {
+        Object interpret(JexlNode node);
+    }
+
+    /**
+     * The values that can be referenced by an expression, in the order in
+     * which they take precedence.
+     */
+    static final class Symbols {
+        private final int m_numRows;
+        private final Map<String, double[]> m_columns;
+        private final long[] m_timestamps;
+        private final Map<String, double[]> m_expressions;
+        private final Map<String, Object> m_constants;
+        private final ConstantInterpreter m_interpreter;
+
+        Symbols(long[] timestamps, Map<String, double[]> columns, Map<String, double[]> expressions, Map<String, Object> constants, ConstantInterpreter interpreter) {
+            m_numRows = timestamps.length;
+            m_timestamps = timestamps;
+            m_columns = columns;
+            m_expressions = expressions;
+            m_constants = constants;
+            m_interpreter = interpreter;
+        }
+
+        private boolean contains(String name) {
+            return m_columns.containsKey(name) || "timestamp".equals(name) || m_expressions.containsKey(name) || m_constants.containsKey(name);
+        }
+    }
+
+    private enum Kind { CONSTANT, DOUBLE, LONG, BOOLEAN }
+
+    /**
+     * The value of a node: either a constant or one value for every row.
+     */
+    private static final class Operand {
+        private final Kind m_kind;
+        private final Object m_constant;
+        private final double[] m_doubles;
+        private final long[] m_longs;
+        private final boolean[] m_booleans;
+        /** Set when the array belongs to a column and must not be handed out. */
+        private final boolean m_shared;
+
+        private Operand(Kind kind, Object constant, double[] doubles, long[] longs, boolean[] booleans, boolean shared) {
+            m_kind = kind;
+            m_constant = constant;
+            m_doubles = doubles;
+            m_longs = longs;
+            m_booleans = booleans;
+            m_shared = shared;
+        }
+
+        private static Operand constant(Object value) {
+            return new Operand(Kind.CONSTANT, value, null, null, null, false);
+        }
+
+        private static Operand doubles(double[] values, boolean shared) {
+            return new Operand(Kind.DOUBLE, null, values, null, null, shared);
+        }
+
+        private static Operand longs(long[] values) {
+            return new Operand(Kind.LONG, null, null, values, null, true);
+        }
+
+        private static Operand booleans(boolean[] values) {
+            return new Operand(Kind.BOOLEAN, null, null, null, values, false);
+        }
+
+        private boolean isDouble() {
+            return m_kind == Kind.DOUBLE || (m_kind == Kind.CONSTANT && m_constant instanceof Double);
+        }
+
+        private boolean isBoolean() {
+            return m_kind == Kind.BOOLEAN || (m_kind == Kind.CONSTANT && m_constant instanceof Boolean);
+        }
+    }
+
+    private enum Arithmetic { ADD, SUBTRACT, MULTIPLY, DIVIDE, MOD }
+
+    private enum Comparison { EQ, NE, LT, LE, GT, GE }
+
+    /** Properties of {@link Double} and {@link Long} that would shadow a dotted constant name. */
+    private static final Set<String> NUMBER_PROPERTIES = new HashSet<String>(Arrays.asList("class", "nan", "infinite"));
+
+    /** Stateless apart from the math context, which we don't use. */
+    private static final JexlArithmetic ARITHMETIC = new JexlArithmetic(true);
+
+    private final Symbols m_symbols;
+
+    private VectorizedExpression(Symbols symbols) {
+        m_symbols = symbols;
+    }
+
+    /**
+     * Evaluates the expression for every row.
+     *
+     * @return the value of the expression for every row, as converted by
+     *         {@link Utils#toDouble(Object)}
+     * @throws UnsupportedExpressionException if the expression must be evaluated by JEXL
+     */
+    static double[] evaluate(ASTJexlScript script, Symbols symbols) throws UnsupportedExpressionException {
+        if (script.jjtGetNumChildren() != 1) {
+            throw new UnsupportedExpressionException("multiple statements");
+        }
+        final Operand result = new VectorizedExpression(symbols).compile(script.jjtGetChild(0));
+        switch (result.m_kind) {
+        case DOUBLE:
+            return result.m_shared ? result.m_doubles.clone() : result.m_doubles;
+        case LONG:
+            final double[] values = new double[symbols.m_numRows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = result.m_longs[i];
+            }
+            return values;
+        case CONSTANT:
+            final double value;
+            try {
+                value = Utils.toDouble(result.m_constant);
+            } catch (RuntimeException e) {
+                throw new UnsupportedExpressionException("result is not a number");
+            }
+            final double[] constant = new double[symbols.m_numRows];
+            Arrays.fill(constant, value);
+            return constant;
+        default:
+            throw new UnsupportedExpressionException("result is not a number");
+        }
+    }
+
+    /**
+     * @return the names of all of the identifiers in the expression
+     */
+    static Set<String> getIdentifiers(JexlNode node) {
+        final Set<String> identifiers = new HashSet<String>();
+        collectIdentifiers(node, identifiers);
+        return identifiers;
+    }
+
+    private static void collectIdentifiers(JexlNode node, Set<String> identifiers) {
+        if (node instanceof ASTIdentifier) {
+            identifiers.add(node.image);
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            collectIdentifiers(node.jjtGetChild(i), identifiers);
+        }
+    }
+
+    private Operand compile(JexlNode node) throws UnsupportedExpressionException {
+        if (isConstant(node)) {
+            if (node instanceof ASTReference && node.jjtGetNumChildren() > 1) {
+                return Operand.constant(m_symbols.m_constants.get(dottedName(node)));
+            }
+            try {
+                return Operand.constant(m_symbols.m_interpreter.interpret(node));
+            } catch (RuntimeException e) {
+                throw new UnsupportedExpressionException("constant evaluation failed: " + e.getMessage());
+            }
+        }
+
+        if (node instanceof ASTReference || node instanceof ASTReferenceExpression) {
+            if (node.jjtGetNumChildren() != 1) {
+                throw new UnsupportedExpressionException("reference");
+            }
+            return compile(node.jjtGetChild(0));
+        } else if (node instanceof ASTIdentifier) {
+            return resolve(node.image);
+        } else if (node instanceof ASTAdditiveNode) {
+            Operand left = compile(node.jjtGetChild(0));
+            for (int c = 2; c < node.jjtGetNumChildren(); c += 2) {
+                final JexlNode operator = node.jjtGetChild(c - 1);
+                if (!(operator instanceof ASTAdditiveOperator)) {
+                    throw new UnsupportedExpressionException("additive operator");
+                }
+                if ("+".equals(operator.image)) {
+                    left = arithmetic(Arithmetic.ADD, left, compile(node.jjtGetChild(c)));
+                } else if ("-".equals(operator.image)) {
+                    left = arithmetic(Arithmetic.SUBTRACT, left, compile(node.jjtGetChild(c)));
+                } else {
+                    throw new UnsupportedExpressionException("additive operator " + operator.image);
+                }
+            }
+            return left;
+        } else if (node instanceof ASTMulNode) {
+            return arithmetic(Arithmetic.MULTIPLY, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTDivNode) {
+            return arithmetic(Arithmetic.DIVIDE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTModNode) {
+            return arithmetic(Arithmetic.MOD, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTUnaryMinusNode) {
+            return negate(compile(node.jjtGetChild(0)));
+        } else if (node instanceof ASTEQNode) {
+            return compare(Comparison.EQ, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTNENode) {
+            return compare(Comparison.NE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTLTNode) {
+            return compare(Comparison.LT, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTLENode) {
+            return compare(Comparison.LE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTGTNode) {
+            return compare(Comparison.GT, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTGENode) {
+            return compare(Comparison.GE, compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)));
+        } else if (node instanceof ASTAndNode) {
+            final boolean[] left = toBooleans(compile(node.jjtGetChild(0)));
+            final boolean[] right = toBooleans(compile(node.jjtGetChild(1)));
+            final boolean[] result = new boolean[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = left[i] && right[i];
+            }
+            return Operand.booleans(result);
+        } else if (node instanceof ASTOrNode) {
+            final boolean[] left = toBooleans(compile(node.jjtGetChild(0)));
+            final boolean[] right = toBooleans(compile(node.jjtGetChild(1)));
+            final boolean[] result = new boolean[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = left[i] || right[i];
+            }
+            return Operand.booleans(result);
+        } else if (node instanceof ASTNotNode) {
+            final boolean[] value = toBooleans(compile(node.jjtGetChild(0)));
+            final boolean[] result = new boolean[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = !value[i];
+            }
+            return Operand.booleans(result);
+        } else if (node instanceof ASTTernaryNode) {
+            return ternary(node);
+        } else if (node instanceof ASTFunctionNode) {
+            return function(node);
+        }
+        throw new UnsupportedExpressionException(node.getClass().getSimpleName());
+    }
+
+    /**
+     * Determines whether the node only depends on constants, in which case
+     * it can be evaluated once by the interpreter.
+     */
+    private boolean isConstant(JexlNode node) throws UnsupportedExpressionException {
+        if (node instanceof ASTReference && node.jjtGetNumChildren() > 1) {
+            checkDottedName(node);
+            return true;
+        } else if (node instanceof ASTIdentifier) {
+            return resolve(node.image).m_kind == Kind.CONSTANT;
+        } else if (node instanceof ASTNumberLiteral || node instanceof ASTStringLiteral || node instanceof ASTTrueNode
+                || node instanceof ASTFalseNode || node instanceof ASTNullLiteral) {
+            return true;
+        } else if (!(node instanceof ASTReference || node instanceof ASTReferenceExpression || node instanceof ASTAdditiveNode
+                || node instanceof ASTAdditiveOperator || node instanceof ASTMulNode || node instanceof ASTDivNode
+                || node instanceof ASTModNode || node instanceof ASTUnaryMinusNode || node instanceof ASTEQNode
+                || node instanceof ASTNENode || node instanceof ASTLTNode || node instanceof ASTLENode
+                || node instanceof ASTGTNode || node instanceof ASTGENode || node instanceof ASTAndNode
+                || node instanceof ASTOrNode || node instanceof ASTNotNode || node instanceof ASTTernaryNode
+                || node instanceof ASTFunctionNode)) {
+            throw new UnsupportedExpressionException(node.getClass().getSimpleName());
+        }
+
+        // The first two children of a function are its namespace and name
+        boolean constant = true;
+        for (int i = node instanceof ASTFunctionNode ? 2 : 0; i < node.jjtGetNumChildren(); i++) {
+            constant &= isConstant(node.jjtGetChild(i));
+        }
+        return constant;
+    }
+
+    /**
+     * JEXL resolves <code>a.b</code> as a property of <code>a</code> and then
+     * as a variable named "a.b", which is how the string properties of the
+     * sources are exposed. Only accept the names for which the property
+     * lookup can't succeed.
+     */
+    private void checkDottedName(JexlNode node) throws UnsupportedExpressionException {
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            final JexlNode child = node.jjtGetChild(i);
+            if (!(child instanceof ASTIdentifier)) {
+                throw new UnsupportedExpressionException("reference");
+            }
+            if (i == 0) {
+                if (m_symbols.contains(child.image) && resolve(child.image).m_kind == Kind.CONSTANT) {
+                    throw new UnsupportedExpressionException("property of a constant");
+                }
+            } else if (m_symbols.contains(child.image) || NUMBER_PROPERTIES.contains(child.image.toLowerCase())) {
+                throw new UnsupportedExpressionException("reference");
+            }
+        }
+        if (m_symbols.m_constants.get(dottedName(node)) == null) {
+            throw new UnsupportedExpressionException("unknown variable " + dottedName(node));
+        }
+    }
+
+    private static String dottedName(JexlNode node) {
+        final StringBuilder name = new StringBuilder(node.jjtGetChild(0).image);
+        for (int i = 1; i < node.jjtGetNumChildren(); i++) {
+            name.append('.').append(node.jjtGetChild(i).image);
+        }
+        return name.toString();
+    }
+
+    private Operand resolve(String name) throws UnsupportedExpressionException {
+        // The sources are put into the context last, followed by the timestamp
+        double[] values = m_symbols.m_columns.get(name);
+        if (values != null) {
+            return Operand.doubles(values, true);
+        }
+        if ("timestamp".equals(name)) {
+            return Operand.longs(m_symbols.m_timestamps);
+        }
+        values = m_symbols.m_expressions.get(name);
+        if (values != null) {
+            return Operand.doubles(values, true);
+        }
+        final Object constant = m_symbols.m_constants.get(name);
+        if (constant == null) {
+            throw new UnsupportedExpressionException("unknown variable " + name);
+        }
+        return Operand.constant(constant);
+    }
+
+    /**
+     * Follows {@link JexlArithmetic}: if either operand is a floating point
+     * number both are converted to doubles, and a division by zero yields
+     * zero since the engine isn't strict. Integer arithmetic on the
+     * timestamp is left to JEXL.
+     */
+    private Operand arithmetic(Arithmetic op, Operand left, Operand right) throws UnsupportedExpressionException {
+        if (left.m_kind == Kind.BOOLEAN || right.m_kind == Kind.BOOLEAN) {
+            throw new UnsupportedExpressionException("arithmetic on booleans");
+        }
+        if (!isFloatingPointNumber(left) && !isFloatingPointNumber(right)) {
+            throw new UnsupportedExpressionException("integer arithmetic");
+        }
+
+        final double[] l = toDoubleArray(left);
+        final double[] r = toDoubleArray(right);
+        final double ls = l == null ? toDoubleScalar(left) : 0;
+        final double rs = r == null ? toDoubleScalar(right) : 0;
+        final double[] result = new double[m_symbols.m_numRows];
+        switch (op) {
+        case ADD:
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (l == null ? ls : l[i]) + (r == null ? rs : r[i]);
+            }
+            break;
+        case SUBTRACT:
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (l == null ? ls : l[i]) - (r == null ? rs : r[i]);
+            }
+            break;
+        case MULTIPLY:
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (l == null ? ls : l[i]) * (r == null ? rs : r[i]);
+            }
+            break;
+        case DIVIDE:
+            for (int i = 0; i < result.length; i++) {
+                final double divisor = r == null ? rs : r[i];
+                result[i] = divisor == 0.0 ? 0.0 : (l == null ? ls : l[i]) / divisor;
+            }
+            break;
+        case MOD:
+            for (int i = 0; i < result.length; i++) {
+                final double divisor = r == null ? rs : r[i];
+                result[i] = divisor == 0.0 ? 0.0 : (l == null ? ls : l[i]) % divisor;
+            }
+            break;
+        }
+        return Operand.doubles(result, false);
+    }
+
+    private Operand negate(Operand value) throws UnsupportedExpressionException {
+        if (value.m_kind != Kind.DOUBLE) {
+            throw new UnsupportedExpressionException("negation");
+        }
+        final double[] result = new double[m_symbols.m_numRows];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = -value.m_doubles[i];
+        }
+        return Operand.doubles(result, false);
+    }
+
+    /**
+     * Follows {@link JexlArithmetic#equals(Object, Object)} and
+     * <code>compare()</code>: booleans are compared as booleans, and when
+     * either side is a float or a double, NaN equals NaN and is smaller than
+     * any other number.
+     */
+    private Operand compare(Comparison op, Operand left, Operand right) throws UnsupportedExpressionException {
+        final boolean[] result = new boolean[m_symbols.m_numRows];
+        if (left.isBoolean() || right.isBoolean()) {
+            if (op != Comparison.EQ && op != Comparison.NE) {
+                throw new UnsupportedExpressionException("ordering of booleans");
+            }
+            final boolean[] l = toBooleans(left);
+            final boolean[] r = toBooleans(right);
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (l[i] == r[i]) == (op == Comparison.EQ);
+            }
+            return Operand.booleans(result);
+        }
+
+        if (isBig(left) || isBig(right)) {
+            throw new UnsupportedExpressionException("comparison of big numbers");
+        }
+
+        final int[] cmp = new int[result.length];
+        if (isFloatingPoint(left) || isFloatingPoint(right)) {
+            final double[] l = toDoubleArray(left);
+            final double[] r = toDoubleArray(right);
+            final double ls = l == null ? toDoubleScalar(left) : 0;
+            final double rs = r == null ? toDoubleScalar(right) : 0;
+            for (int i = 0; i < cmp.length; i++) {
+                final double lhs = l == null ? ls : l[i];
+                final double rhs = r == null ? rs : r[i];
+                if (Double.isNaN(lhs)) {
+                    cmp[i] = Double.isNaN(rhs) ? 0 : -1;
+                } else if (Double.isNaN(rhs)) {
+                    cmp[i] = 1;
+                } else {
+                    cmp[i] = lhs < rhs ? -1 : (lhs > rhs ? 1 : 0);
+                }
+            }
+        } else if (left.m_kind != Kind.DOUBLE && right.m_kind != Kind.DOUBLE && isNumberable(left) && isNumberable(right)) {
+            final long ls = left.m_kind == Kind.CONSTANT ? ARITHMETIC.toLong(left.m_constant) : 0;
+            final long rs = right.m_kind == Kind.CONSTANT ? ARITHMETIC.toLong(right.m_constant) : 0;
+            for (int i = 0; i < cmp.length; i++) {
+                final long lhs = left.m_longs == null ? ls : left.m_longs[i];
+                final long rhs = right.m_longs == null ? rs : right.m_longs[i];
+                cmp[i] = lhs < rhs ? -1 : (lhs > rhs ? 1 : 0);
+            }
+        } else {
+            throw new UnsupportedExpressionException("comparison");
+        }
+
+        for (int i = 0; i < result.length; i++) {
+            switch (op) {
+            case EQ: result[i] = cmp[i] == 0; break;
+            case NE: result[i] = cmp[i] != 0; break;
+            case LT: result[i] = cmp[i] < 0; break;
+            case LE: result[i] = cmp[i] <= 0; break;
+            case GT: result[i] = cmp[i] > 0; break;
+            case GE: result[i] = cmp[i] >= 0; break;
+            }
+        }
+        return Operand.booleans(result);
+    }
+
+    private Operand ternary(JexlNode node) throws UnsupportedExpressionException {
+        if (node.jjtGetNumChildren() != 3) {
+            throw new UnsupportedExpressionException("elvis operator");
+        }
+        final Operand condition = compile(node.jjtGetChild(0));
+        if (condition.m_kind == Kind.CONSTANT) {
+            return compile(node.jjtGetChild(condition.m_constant != null && ARITHMETIC.toBoolean(condition.m_constant) ? 1 : 2));
+        }
+
+        final boolean[] test = toBooleans(condition);
+        final Operand whenTrue = compile(node.jjtGetChild(1));
+        final Operand whenFalse = compile(node.jjtGetChild(2));
+        if (whenTrue.isDouble() && whenFalse.isDouble()) {
+            final double[] t = toDoubleArray(whenTrue);
+            final double[] f = toDoubleArray(whenFalse);
+            final double ts = t == null ? toDoubleScalar(whenTrue) : 0;
+            final double fs = f == null ? toDoubleScalar(whenFalse) : 0;
+            final double[] result = new double[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = test[i] ? (t == null ? ts : t[i]) : (f == null ? fs : f[i]);
+            }
+            return Operand.doubles(result, false);
+        } else if (whenTrue.isBoolean() && whenFalse.isBoolean()) {
+            final boolean[] t = toBooleans(whenTrue);
+            final boolean[] f = toBooleans(whenFalse);
+            final boolean[] result = new boolean[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = test[i] ? t[i] : f[i];
+            }
+            return Operand.booleans(result);
+        }
+        throw new UnsupportedExpressionException("ternary with mixed types");
+    }
+
+    private Operand function(JexlNode node) throws UnsupportedExpressionException {
+        final String namespace = node.jjtGetChild(0).image;
+        final String name = node.jjtGetChild(1).image;
+        final MathFunction function = MathFunction.get(namespace, name, node.jjtGetNumChildren() - 2);
+        if (function == null) {
+            throw new UnsupportedExpressionException("function " + namespace + ":" + name);
+        }
+
+        // Only the double overloads are matched by double arguments
+        final Operand[] args = new Operand[node.jjtGetNumChildren() - 2];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(node.jjtGetChild(i + 2));
+            if (!args[i].isDouble()) {
+                throw new UnsupportedExpressionException("function argument");
+            }
+        }
+
+        final double[] a = toDoubleArray(args[0]);
+        final double as = a == null ? toDoubleScalar(args[0]) : 0;
+        final double[] b = args.length > 1 ? toDoubleArray(args[1]) : null;
+        final double bs = args.length > 1 && b == null ? toDoubleScalar(args[1]) : 0;
+        final double[] result = new double[m_symbols.m_numRows];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = function.apply(a == null ? as : a[i], b == null ? bs : b[i]);
+        }
+        return Operand.doubles(result, false);
+    }
+
+    private boolean[] toBooleans(Operand value) {
+        final boolean[] result;
+        switch (value.m_kind) {
+        case BOOLEAN:
+            return value.m_booleans;
+        case DOUBLE:
+            result = new boolean[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = !Double.isNaN(value.m_doubles[i]) && value.m_doubles[i] != 0.d;
+            }
+            return result;
+        case LONG:
+            result = new boolean[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = value.m_longs[i] != 0;
+            }
+            return result;
+        default:
+            result = new boolean[m_symbols.m_numRows];
+            Arrays.fill(result, ARITHMETIC.toBoolean(value.m_constant));
+            return result;
+        }
+    }
+
+    /**
+     * @return the values of a vector operand as doubles, or null for a constant
+     */
+    private double[] toDoubleArray(Operand value) {
+        if (value.m_kind == Kind.DOUBLE) {
+            return value.m_doubles;
+        } else if (value.m_kind == Kind.LONG) {
+            final double[] result = new double[m_symbols.m_numRows];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = value.m_longs[i];
+            }
+            return result;
+        }
+        return null;
+    }
+
+    private static double toDoubleScalar(Operand value) throws UnsupportedExpressionException {
+        if (value.m_constant == null) {
+            throw new UnsupportedExpressionException("null operand");
+        }
+        try {
+            return ARITHMETIC.toDouble(value.m_constant);
+        } catch (RuntimeException e) {
+            throw new UnsupportedExpressionException("operand is not a number");
+        }
+    }
+
+    /** Per row, the values of a {@link Kind#DOUBLE} operand are always {@link Double}s. */
+    private static boolean isFloatingPointNumber(Operand value) {
+        if (value.m_kind == Kind.DOUBLE) {
+            return true;
+        } else if (value.m_kind == Kind.CONSTANT) {
+            final Object o = value.m_constant;
+            if (o instanceof Float || o instanceof Double) {
+                return true;
+            } else if (o instanceof String) {
+                final String s = (String) o;
+                return s.indexOf('.') != -1 || s.indexOf('e') != -1 || s.indexOf('E') != -1;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isFloatingPoint(Operand value) {
+        return value.m_kind == Kind.DOUBLE || (value.m_kind == Kind.CONSTANT && (value.m_constant instanceof Float || value.m_constant instanceof Double));
+    }
+
+    private static boolean isBig(Operand value) {
+        return value.m_constant instanceof BigDecimal || value.m_constant instanceof BigInteger;
+    }
+
+    private static boolean isNumberable(Operand value) {
+        if (value.m_kind == Kind.LONG) {
+            return true;
+        }
+        final Object o = value.m_constant;
+        return o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte;
+    }
+
+    /**
+     * The functions of {@link Math} and {@link StrictMath} that take doubles.
+     */
+    private enum MathFunction {
+        SIN("sin", 1), COS("cos", 1), TAN("tan", 1), ASIN("asin", 1), ACOS("acos", 1), ATAN("atan", 1),
+        SINH("sinh", 1), COSH("cosh", 1), TANH("tanh", 1), EXP("exp", 1), LOG("log", 1), LOG10("log10", 1),
+        SQRT("sqrt", 1), CBRT("cbrt", 1), ABS("abs", 1), FLOOR("floor", 1), CEIL("ceil", 1),
+        ATAN2("atan2", 2), POW("pow", 2), HYPOT("hypot", 2), MIN("min", 2), MAX("max", 2),
+        STRICT_SIN("sin", 1), STRICT_COS("cos", 1), STRICT_TAN("tan", 1), STRICT_ASIN("asin", 1), STRICT_ACOS("acos", 1), STRICT_ATAN("atan", 1),
+        STRICT_SINH("sinh", 1), STRICT_COSH("cosh", 1), STRICT_TANH("tanh", 1), STRICT_EXP("exp", 1), STRICT_LOG("log", 1), STRICT_LOG10("log10", 1),
+        STRICT_SQRT("sqrt", 1), STRICT_CBRT("cbrt", 1), STRICT_ABS("abs", 1), STRICT_FLOOR("floor", 1), STRICT_CEIL("ceil", 1),
+        STRICT_ATAN2("atan2", 2), STRICT_POW("pow", 2), STRICT_HYPOT("hypot", 2), STRICT_MIN("min", 2), STRICT_MAX("max", 2);
+
+        private final String m_name;
+        private final int m_arity;
+
+        private MathFunction(String name, int arity) {
+            m_name = name;
+            m_arity = arity;
+        }
+
+        private static MathFunction get(String namespace, String name, int arity) {
+            final boolean strict;
+            if ("math".equals(namespace)) {
+                strict = false;
+            } else if ("strictmath".equals(namespace)) {
+                strict = true;
+            } else {
+                return null;
+            }
+            for (final MathFunction function : values()) {
+                if (function.name().startsWith("STRICT_") == strict && function.m_name.equals(name) && function.m_arity == arity) {
+                    return function;
+                }
+            }
+            return null;
+        }
+
+        private double apply(double a, double b) {
+            switch (this) {
+            case SIN: return Math.sin(a);
+            case COS: return Math.cos(a);
+            case TAN: return Math.tan(a);
+            case ASIN: return Math.asin(a);
+            case ACOS: return Math.acos(a);
+            case ATAN: return Math.atan(a);
+            case SINH: return Math.sinh(a);
+            case COSH: return Math.cosh(a);
+            case TANH: return Math.tanh(a);
+            case EXP: return Math.exp(a);
+            case LOG: return Math.log(a);
+            case LOG10: return Math.log10(a);
+            case SQRT: return Math.sqrt(a);
+            case CBRT: return Math.cbrt(a);
+            case ABS: return Math.abs(a);
+            case FLOOR: return Math.floor(a);
+            case CEIL: return Math.ceil(a);
+            case ATAN2: return Math.atan2(a, b);
+            case POW: return Math.pow(a, b);
+            case HYPOT: return Math.hypot(a, b);
+            case MIN: return Math.min(a, b);
+            case MAX: return Math.max(a, b);
+            case STRICT_SIN: return StrictMath.sin(a);
+            case STRICT_COS: return StrictMath.cos(a);
+            case STRICT_TAN: return StrictMath.tan(a);
+            case STRICT_ASIN: return StrictMath.asin(a);
+            case STRICT_ACOS: return StrictMath.acos(a);
+            case STRICT_ATAN: return StrictMath.atan(a);
+            case STRICT_SINH: return StrictMath.sinh(a);
+            case STRICT_COSH: return StrictMath.cosh(a);
+            case STRICT_TANH: return StrictMath.tanh(a);
+            case STRICT_EXP: return StrictMath.exp(a);
+            case STRICT_LOG: return StrictMath.log(a);
+            case STRICT_LOG10: return StrictMath.log10(a);
+            case STRICT_SQRT: return StrictMath.sqrt(a);
+            case STRICT_CBRT: return StrictMath.cbrt(a);
+            case STRICT_ABS: return StrictMath.abs(a);
+            case STRICT_FLOOR: return StrictMath.floor(a);
+            case STRICT_CEIL: return StrictMath.ceil(a);
+            case STRICT_ATAN2: return StrictMath.atan2(a, b);
+            case STRICT_POW: return StrictMath.pow(a, b);
+            case STRICT_HYPOT: return StrictMath.hypot(a, b);
+            case STRICT_MIN: return StrictMath.min(a, b);
+            case STRICT_MAX: return StrictMath.max(a, b);
+            default: throw new IllegalStateException(name());
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the time taken to apply a typical set of graph expressions to
+ * a large result set with and without vectorized evaluation.
+ */
+public class JEXLExpressionEngineLoadIT {
+
+    private static final int ROWS = 100000;
+
+    private static final int ITERATIONS = 10;
+
+    @Test
+    public void compareVectorizedWithRowByRow() throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(Lists.newArrayList(
+                newExpression("inBits", "ifHCInOctets * 8", true),
+                newExpression("outBits", "ifHCOutOctets * 8", true),
+                newExpression("inPercent", "inBits / ifSpeed * 100.0d", false),
+                newExpression("outPercent", "outBits / ifSpeed * 100.0d", false),
+                newExpression("total", "( inBits == NaN ) ? outBits : ( ( outBits == NaN ) ? inBits : inBits + outBits )", false),
+                newExpression("peak", "math:max(inBits, outBits) / 1000000.0d", false)));
+
+        // Warm up
+        run(new JEXLExpressionEngine(true), request);
+        run(new JEXLExpressionEngine(false), request);
+
+        final long rowByRow = run(new JEXLExpressionEngine(false), request);
+        final long vectorized = run(new JEXLExpressionEngine(true), request);
+
+        System.err.println(String.format("Applied %d expressions to %d rows %d times: row by row took %dms, vectorized took %dms.",
+                request.getExpressions().size(), ROWS, ITERATIONS, rowByRow, vectorized));
+    }
+
+    private static long run(JEXLExpressionEngine engine, QueryRequest request) throws ExpressionException {
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < ITERATIONS; i++) {
+            engine.applyExpressions(request, newFetchResults());
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static Expression newExpression(String label, String expression, boolean transientFlag) {
+        final Expression exp = new Expression();
+        exp.setLabel(label);
+        exp.setExpression(expression);
+        exp.setTransient(transientFlag);
+        return exp;
+    }
+
+    private static FetchResults newFetchResults() {
+        final long[] timestamps = new long[ROWS];
+        final double[] in = new double[ROWS];
+        final double[] out = new double[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            timestamps[i] = i * 300000L;
+            in[i] = i % 97 == 0 ? Double.NaN : 1000.0d * Math.sin(i);
+            out[i] = i % 89 == 0 ? Double.NaN : 2000.0d * Math.cos(i);
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("ifHCInOctets", in);
+        columns.put("ifHCOutOctets", out);
+        final double[] speed = new double[ROWS];
+        Arrays.fill(speed, 1e9d);
+        columns.put("ifSpeed", speed);
+        final Map<String, Object> constants = Maps.newHashMap();
+        return new FetchResults(timestamps, columns, 300000L, constants);
+    }
+}
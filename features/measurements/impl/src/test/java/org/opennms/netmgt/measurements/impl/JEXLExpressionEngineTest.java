@@ -29,7 +29,9 @@
 package org.opennms.netmgt.measurements.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
@@ -384,12 +386,147 @@ public class JEXLExpressionEngineTest {
         assertEquals(99000.0, results[0], 0.0001);
     }
 
+    @Test
+    public void vectorizedResultsMatchJexl() throws ExpressionException {
+        final String[] expressions = new String[] {
+                "x * 5 + 7",
+                "x - -y",
+                "x / y",
+                "x / 0",
+                "x % 3",
+                "x % y",
+                "-x",
+                "x + 1.5",
+                "x + '2'",
+                "x * speed",
+                "x.ifSpeed / x",
+                "timestamp / 125.0d",
+                "timestamp / 1000",
+                "timestamp * 1.5 - x",
+                "1 * __diff_time",
+                "__inf - x",
+                "NaN",
+                "42",
+                "x != 3 ? x : y",
+                "( x == NaN ) ? y : x",
+                "(x > y && y >= 0) || !(x < 1) ? 1.0d : 0.0d",
+                "x > 3 ? 1 : 0",
+                "timestamp > 50000 ? x : y",
+                "( ( (y == __inf) || (y == __neg_inf) || (x < 0.0d) ) ? NaN : x )",
+                "( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:min(A,B) ) )",
+                "math:max(x, 2.0d)",
+                "math:min(x, 2)",
+                "math:sqrt(x) + math:pow(x, y)",
+                "strictmath:sin(x) + strictmath:atan2(y, x)",
+                "math:abs(speed - 100)",
+        };
+
+        for (final String expression : expressions) {
+            compareWithJexl(Lists.newArrayList(newExpression("y2", expression, false)));
+        }
+    }
+
+    @Test
+    public void vectorizedResultsMatchJexlWithDependentExpressions() throws ExpressionException {
+        // Reference an earlier, transient expression
+        compareWithJexl(Lists.newArrayList(
+                newExpression("a", "x * 8", true),
+                newExpression("b", "a / speed", false)));
+
+        // Reference a following expression, which sees the value from the previous row
+        compareWithJexl(Lists.newArrayList(
+                newExpression("a", "b + 1", false),
+                newExpression("b", "x * 2", false)));
+
+        // Reference itself
+        compareWithJexl(Lists.newArrayList(
+                newExpression("a", "a + x", false)));
+
+        // Labels are shadowed by the sources
+        compareWithJexl(Lists.newArrayList(
+                newExpression("y", "x + 1000", false),
+                newExpression("c", "y + 1", false)));
+    }
+
+    @Test
+    public void vectorizedFailuresMatchJexl() {
+        for (final String expression : new String[] { "!(!true)", "x > 1", "x == y", "x + 'abc'" }) {
+            for (final boolean vectorize : new boolean[] { true, false }) {
+                try {
+                    performExpression(expression, new JEXLExpressionEngine(vectorize));
+                    fail("Expected an ExpressionException for " + expression);
+                } catch (ExpressionException e) {
+                    // Expected
+                }
+            }
+        }
+    }
+
+    private static Expression newExpression(String label, String expression, boolean transientFlag) {
+        final Expression exp = new Expression();
+        exp.setLabel(label);
+        exp.setExpression(expression);
+        exp.setTransient(transientFlag);
+        return exp;
+    }
+
+    private static void compareWithJexl(List<Expression> expressions) throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions);
+
+        final FetchResults vectorized = newFetchResults();
+        new JEXLExpressionEngine(true).applyExpressions(request, vectorized);
+        final FetchResults interpreted = newFetchResults();
+        new JEXLExpressionEngine(false).applyExpressions(request, interpreted);
+
+        assertEquals(interpreted.getColumns().keySet(), vectorized.getColumns().keySet());
+        for (final String label : interpreted.getColumns().keySet()) {
+            final double[] expected = interpreted.getColumns().get(label);
+            final double[] actual = vectorized.getColumns().get(label);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expressions.get(0).getExpression() + " at row " + i,
+                        Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+            }
+        }
+    }
+
+    private static FetchResults newFetchResults() {
+        final double[] special = new double[] { Double.NaN, 0.0d, -0.0d, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -3.5d, 1.0d, 3.0d, 0.1d, 1e300d };
+        final int N = 100;
+        final long timestamps[] = new long[N];
+        final double xValues[] = new double[N];
+        final double yValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            xValues[i] = i < special.length ? special[i] : i / 7.0d;
+            yValues[i] = special[(i * 3) % special.length];
+        }
+        final Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        values.put("y", yValues);
+        values.put("A", yValues.clone());
+        values.put("B", xValues.clone());
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("x.ifSpeed", 100000000.0d);
+        return new FetchResults(timestamps, values, 1, constants);
+    }
+
     private double[] performExpression(String expression) throws ExpressionException {
         Map<String, Object> constants = Maps.newHashMap();
         return performExpression(expression, constants);
     }
 
     private double[] performExpression(String expression, Map<String, Object> constants) throws ExpressionException {
+        return performExpression(expression, constants, jexlExpressionEngine);
+    }
+
+    private double[] performExpression(String expression, ExpressionEngine engine) throws ExpressionException {
+        Map<String, Object> constants = Maps.newHashMap();
+        return performExpression(expression, constants, engine);
+    }
+
+    private double[] performExpression(String expression, Map<String, Object> constants, ExpressionEngine engine) throws ExpressionException {
         // Build a simple request with the given expression
         QueryRequest request = new QueryRequest();
 
@@ -415,7 +552,7 @@ public class JEXLExpressionEngineTest {
         FetchResults results = new FetchResults(timestamps, values, 1, constants);
 
         // Use the engine to evaluate the expression
-        jexlExpressionEngine.applyExpressions(request, results);
+        engine.applyExpressions(request, results);
 
         // Retrieve the results
         return results.getColumns().get("y");
@@ -30,7 +30,6 @@ package org.opennms.netmgt.collection.persistence.newts;
 
 import static org.opennms.netmgt.newts.support.NewtsUtils.toResourceId;
 
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -43,19 +42,16 @@ import org.opennms.netmgt.collection.support.DefaultTimeKeeper;
 import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.newts.NewtsWriter;
+import org.opennms.netmgt.newts.SampleBatch;
 import org.opennms.netmgt.newts.support.NewtsUtils;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.MetricType;
 import org.opennms.newts.api.Resource;
-import org.opennms.newts.api.Sample;
-import org.opennms.newts.api.Timestamp;
-import org.opennms.newts.api.ValueType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
@@ -125,16 +121,16 @@ public class NewtsPersistOperationBuilder implements PersistOperationBuilder {
         m_newtsWriter.index(getSamplesToIndex());
     }
 
-    public List<Sample> getSamplesToInsert() {
-        final List<Sample> samples = Lists.newLinkedList();
+    public SampleBatch getSamplesToInsert() {
+        final SampleBatch samples = new SampleBatch(m_context, m_declarations.size());
         ResourcePath path = ResourceTypeUtils.getResourcePathWithRepository(m_repository, m_resource.getPath().resolve(m_name));
 
         // Add extra attributes that can be used to walk the resource tree.
         NewtsUtils.addIndicesToAttributes(path, m_metaData);
-        Resource resource = new Resource(NewtsUtils.toResourceId(path), Optional.of(m_metaData));
+        int resource = samples.addResource(new Resource(NewtsUtils.toResourceId(path), Optional.of(m_metaData)));
 
         // Convert numeric attributes to samples
-        Timestamp timestamp = Timestamp.fromEpochMillis(m_timeKeeper.getCurrentTime());
+        long timestamp = m_timeKeeper.getCurrentTime();
         for (Entry<CollectionAttributeType, Number> entry : m_declarations.entrySet()) {
             CollectionAttributeType attrType = entry.getKey();
             MetricType type = mapType(attrType.getType());
@@ -149,28 +145,19 @@ public class NewtsPersistOperationBuilder implements PersistOperationBuilder {
                 continue;
             }
 
-            samples.add(
-                new Sample(
-                    timestamp,
-                    m_context,
-                    resource,
-                    attrType.getName(),
-                    type,
-                    ValueType.compose(entry.getValue(), type)
-                )
-            );
+            samples.addSample(resource, timestamp, attrType.getName(), type, value);
         }
         return samples;
     }
 
-    public List<Sample> getSamplesToIndex() {
-        final List<Sample> samples = Lists.newLinkedList();
+    public SampleBatch getSamplesToIndex() {
+        final SampleBatch samples = new SampleBatch(m_context, m_stringAttributesByPath.size());
 
         // Convert string attributes to samples
         for (Entry<ResourcePath, Map<String, String>> entry : m_stringAttributesByPath.entrySet()) {
             Resource resource = new Resource(toResourceId(entry.getKey()),
                     Optional.of(entry.getValue()));
-            samples.add(NewtsUtils.createSampleForIndexingStrings(m_context, resource));
+            NewtsUtils.addSampleForIndexingStrings(samples, resource);
         }
         return samples;
     }
@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the rows fetched by the {@link NewtsFetchStrategy} for a Newts resource
+ * and a result descriptor, so that a graph opened by many users at once only
+ * reads the samples from Cassandra once.
+ *
+ * Each entry holds the rows of a contiguous, step-aligned window. Requests for a
+ * window that starts within the cached rows only fetch the buckets that follow
+ * the last bucket that can no longer change, which are the buckets that end more
+ * than a heartbeat in the past. The trailing buckets are served from the cache
+ * as well until they reach the maximum age.
+ *
+ * Concurrent requests that miss the cache for the same key are coalesced: only
+ * one of them fetches the rows, and the others wait and are then served from
+ * the cache.
+ *
+ * The cache is bounded by the approximate number of bytes used by the rows, and
+ * the least recently used entries are evicted first.
+ */
+public class NewtsFetchCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NewtsFetchCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = Long.getLong("org.opennms.newts.query.cache.max_bytes", 64 * 1024 * 1024);
+
+    public static final long DEFAULT_MAX_AGE_MS = Long.getLong("org.opennms.newts.query.cache.max_age", 30 * 1000);
+
+    /**
+     * Fetches the rows between the given start and end times.
+     */
+    public interface Loader {
+        FetchedRows load(long start, long end) throws Exception;
+    }
+
+    private final Cache<String, CachedRows> m_cache;
+    private final long m_maxBytes;
+    private final long m_maxAge;
+    private final ConcurrentMap<String, CompletableFuture<Void>> m_inFlight = new ConcurrentHashMap<>();
+
+    private final Meter m_requests = new Meter();
+    private final Meter m_hits = new Meter();
+    private final Meter m_partialHits = new Meter();
+    private final Meter m_coalesced = new Meter();
+    private final Meter m_fetchedRows = new Meter();
+    private final Meter m_savedRows = new Meter();
+
+    public NewtsFetchCache(long maxBytes, long maxAge) {
+        m_maxBytes = maxBytes;
+        m_maxAge = maxAge;
+        if (maxBytes > 0) {
+            m_cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .weigher(new Weigher<String, CachedRows>() {
+                        @Override
+                        public int weigh(String key, CachedRows value) {
+                            return 2 * key.length() + value.getRows().getSizeInBytes();
+                        }
+                    })
+                    .build();
+        } else {
+            LOG.info("The Newts fetch cache is disabled.");
+            m_cache = null;
+        }
+    }
+
+    /**
+     * Registers the cache statistics with the given registry.
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        registry.register(name("fetch-cache", "requests"), m_requests);
+        registry.register(name("fetch-cache", "hits"), m_hits);
+        registry.register(name("fetch-cache", "partial-hits"), m_partialHits);
+        registry.register(name("fetch-cache", "coalesced"), m_coalesced);
+        registry.register(name("fetch-cache", "fetched-rows"), m_fetchedRows);
+        registry.register(name("fetch-cache", "saved-rows"), m_savedRows);
+        registry.register(name("fetch-cache", "hit-ratio"),
+                new RatioGauge() {
+                    @Override
+                    protected Ratio getRatio() {
+                        return Ratio.of(m_hits.getFiveMinuteRate(), m_requests.getFiveMinuteRate());
+                    }
+                });
+        registry.register(name("fetch-cache", "size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_cache != null ? m_cache.size() : 0L;
+                    }
+                });
+        registry.register(name("fetch-cache", "max-bytes"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_maxBytes;
+                    }
+                });
+    }
+
+    /**
+     * Retrieves the rows between start and end for the given key, using the
+     * loader to fetch the rows that are not cached.
+     *
+     * @param key identifies the resource, the result descriptor and the step
+     * @param step the step size, which all of the row timestamps are aligned to
+     * @param heartbeat the heartbeat used to aggregate the samples
+     */
+    public FetchedRows get(String key, long start, long end, long step, long heartbeat, Loader loader) throws Exception {
+        if (m_cache == null) {
+            return loader.load(start, end);
+        }
+
+        m_requests.mark();
+        final long alignedStart = start - Math.floorMod(start, step);
+        while (true) {
+            final long now = System.currentTimeMillis();
+            final CachedRows cached = m_cache.getIfPresent(key);
+            if (cached != null && cached.covers(alignedStart, end, now, m_maxAge)) {
+                final FetchedRows rows = cached.getRows().slice(alignedStart, end);
+                m_hits.mark();
+                m_savedRows.mark(rows.size());
+                return rows;
+            }
+
+            final CompletableFuture<Void> loading = new CompletableFuture<>();
+            final CompletableFuture<Void> other = m_inFlight.putIfAbsent(key, loading);
+            if (other != null) {
+                // Wait for the other request to complete and try again
+                m_coalesced.mark();
+                try {
+                    other.get();
+                } catch (ExecutionException e) {
+                    // The other request handles its own failure
+                }
+                continue;
+            }
+
+            try {
+                return load(key, alignedStart, start, end, step, heartbeat, loader);
+            } finally {
+                m_inFlight.remove(key, loading);
+                loading.complete(null);
+            }
+        }
+    }
+
+    private FetchedRows load(String key, long alignedStart, long start, long end, long step, long heartbeat, Loader loader) throws Exception {
+        final long now = System.currentTimeMillis();
+        // The last bucket that ends more than a heartbeat ago
+        final long stableUntil = now - heartbeat - Math.floorMod(now - heartbeat, step) - step;
+
+        // Another request may have refreshed the entry while we were waiting
+        final CachedRows cached = m_cache.getIfPresent(key);
+        if (cached != null && cached.covers(alignedStart, end, now, m_maxAge)) {
+            final FetchedRows rows = cached.getRows().slice(alignedStart, end);
+            m_hits.mark();
+            m_savedRows.mark(rows.size());
+            return rows;
+        }
+
+        if (cached != null && cached.getStart() <= alignedStart && alignedStart <= cached.getStableUntil() + step) {
+            // Only fetch the buckets that may have changed, starting a heartbeat
+            // earlier so that the first of these are aggregated from all of their samples
+            final long fetchFrom = cached.getStableUntil() + step;
+            final FetchedRows tail = loader.load(fetchFrom - heartbeat - step, end);
+            final FetchedRows head = cached.getRows().slice(alignedStart, fetchFrom - 1);
+            final FetchedRows rows = FetchedRows.concat(head, tail.slice(fetchFrom, Long.MAX_VALUE));
+
+            m_partialHits.mark();
+            m_savedRows.mark(head.size());
+            m_fetchedRows.mark(tail.size());
+            m_cache.put(key, new CachedRows(rows, alignedStart, end, Math.max(cached.getStableUntil(), Math.min(stableUntil, end)), now));
+            return rows.slice(alignedStart, end);
+        }
+
+        final FetchedRows rows = loader.load(start, end);
+        m_fetchedRows.mark(rows.size());
+        m_cache.put(key, new CachedRows(rows, alignedStart, end, Math.min(stableUntil, end), now));
+        return rows;
+    }
+
+    /**
+     * The rows of a cached window, along with the time up to which they can
+     * no longer change.
+     */
+    private static class CachedRows {
+        private final FetchedRows m_rows;
+        private final long m_start;
+        private final long m_end;
+        private final long m_stableUntil;
+        private final long m_fetchedAt;
+
+        public CachedRows(FetchedRows rows, long start, long end, long stableUntil, long fetchedAt) {
+            m_rows = rows;
+            m_start = start;
+            m_end = end;
+            m_stableUntil = stableUntil;
+            m_fetchedAt = fetchedAt;
+        }
+
+        public FetchedRows getRows() {
+            return m_rows;
+        }
+
+        public long getStart() {
+            return m_start;
+        }
+
+        public long getStableUntil() {
+            return m_stableUntil;
+        }
+
+        public boolean covers(long start, long end, long now, long maxAge) {
+            return m_start <= start && end <= m_end && (end <= m_stableUntil || now - m_fetchedAt < maxAge);
+        }
+    }
+
+    /**
+     * Rows stored by column, with a value for every column in each row.
+     */
+    public static class FetchedRows {
+        private final long[] m_timestamps;
+        private final Map<String, double[]> m_columns;
+
+        public FetchedRows(long[] timestamps, Map<String, double[]> columns) {
+            m_timestamps = timestamps;
+            m_columns = columns;
+        }
+
+        public long[] getTimestamps() {
+            return m_timestamps;
+        }
+
+        public Map<String, double[]> getColumns() {
+            return m_columns;
+        }
+
+        public int size() {
+            return m_timestamps.length;
+        }
+
+        public int getSizeInBytes() {
+            int bytes = 64 + 8 * m_timestamps.length;
+            for (Entry<String, double[]> column : m_columns.entrySet()) {
+                bytes += 64 + 2 * column.getKey().length() + 8 * column.getValue().length;
+            }
+            return bytes;
+        }
+
+        /**
+         * Returns the rows with timestamps between from and to, inclusive.
+         */
+        public FetchedRows slice(long from, long to) {
+            int first = 0;
+            while (first < m_timestamps.length && m_timestamps[first] < from) {
+                first++;
+            }
+            int last = first;
+            while (last < m_timestamps.length && m_timestamps[last] <= to) {
+                last++;
+            }
+            if (first == 0 && last == m_timestamps.length) {
+                return this;
+            }
+            final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(m_columns.size());
+            for (Entry<String, double[]> column : m_columns.entrySet()) {
+                columns.put(column.getKey(), Arrays.copyOfRange(column.getValue(), first, last));
+            }
+            return new FetchedRows(Arrays.copyOfRange(m_timestamps, first, last), columns);
+        }
+
+        /**
+         * Appends the rows of the tail to the rows of the head. Columns that
+         * are missing from either side are filled with NaNs.
+         */
+        public static FetchedRows concat(FetchedRows head, FetchedRows tail) {
+            final int n = head.size() + tail.size();
+            final long[] timestamps = Arrays.copyOf(head.m_timestamps, n);
+            System.arraycopy(tail.m_timestamps, 0, timestamps, head.size(), tail.size());
+
+            final Map<String, double[]> columns = Maps.newHashMap();
+            for (String name : head.m_columns.keySet()) {
+                columns.put(name, new double[n]);
+            }
+            for (String name : tail.m_columns.keySet()) {
+                columns.put(name, new double[n]);
+            }
+            for (Entry<String, double[]> column : columns.entrySet()) {
+                final double[] headValues = head.m_columns.get(column.getKey());
+                final double[] tailValues = tail.m_columns.get(column.getKey());
+                if (headValues != null) {
+                    System.arraycopy(headValues, 0, column.getValue(), 0, head.size());
+                } else {
+                    Arrays.fill(column.getValue(), 0, head.size(), Double.NaN);
+                }
+                if (tailValues != null) {
+                    System.arraycopy(tailValues, 0, column.getValue(), head.size(), tail.size());
+                } else {
+                    Arrays.fill(column.getValue(), head.size(), n, Double.NaN);
+                }
+            }
+            return new FetchedRows(timestamps, columns);
+        }
+    }
+}
@@ -30,6 +30,7 @@ package org.opennms.netmgt.measurements.impl;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -45,6 +46,7 @@ import java.util.stream.Collectors;
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.MeasurementFetchStrategy;
+import org.opennms.netmgt.measurements.impl.NewtsFetchCache.FetchedRows;
 import org.opennms.netmgt.measurements.model.Source;
 import org.opennms.netmgt.measurements.utils.Utils;
 import org.opennms.netmgt.model.OnmsResource;
@@ -65,6 +67,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
@@ -85,6 +88,9 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * cores, but can be reduced if the operator wishes to ensure cores are available
  * for other purposes.
  *
+ * The rows fetched for each resource are kept in a {@link NewtsFetchCache}, so
+ * that the same graphs requested by many users are only read from Cassandra once.
+ *
  * @author jwhite
  */
 public class NewtsFetchStrategy implements MeasurementFetchStrategy {
@@ -115,6 +121,13 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
     // Used to limit the number of threads that are performing aggregation calculations in parallel
     private final Semaphore availableAggregationThreads = new Semaphore(PARALLELISM);
 
+    private final NewtsFetchCache m_fetchCache = new NewtsFetchCache(NewtsFetchCache.DEFAULT_MAX_BYTES, NewtsFetchCache.DEFAULT_MAX_AGE_MS);
+
+    @Autowired(required = false)
+    public void setMetricRegistry(MetricRegistry registry) {
+        m_fetchCache.registerMetrics(registry);
+    }
+
     @Override
     public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat, List<Source> sources, boolean relaxed) {
         final LateAggregationParams lag = getLagParams(step, interval, heartbeat);
@@ -192,7 +205,7 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
 
         // The Newts API only allows us to perform a query using a single (Newts) Resource ID,
         // so we perform multiple queries in parallel, and aggregate the results.
-        Map<String, Future<Collection<Row<Measurement>>>> measurementsByNewtsResourceId = Maps.newHashMapWithExpectedSize(sourcesByNewtsResourceId.size());
+        Map<String, Future<FetchedRows>> measurementsByNewtsResourceId = Maps.newHashMapWithExpectedSize(sourcesByNewtsResourceId.size());
         for (Entry<String, List<Source>> entry : sourcesByNewtsResourceId.entrySet()) {
             measurementsByNewtsResourceId.put(entry.getKey(), threadPool.submit(
                     getMeasurementsForResourceCallable(entry.getKey(), entry.getValue(), startTs, endTs, lag)));
@@ -201,36 +214,20 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
         long[] timestamps = null;
         Map<String, double[]> columns = Maps.newHashMap();
 
-        for (Entry<String, Future<Collection<Row<Measurement>>>> entry : measurementsByNewtsResourceId.entrySet()) {
-            Collection<Row<Measurement>> rows;
+        for (Entry<String, Future<FetchedRows>> entry : measurementsByNewtsResourceId.entrySet()) {
+            FetchedRows rows;
             try {
                 rows = entry.getValue().get();
             } catch (InterruptedException | ExecutionException e) {
                 throw Throwables.propagate(e);
             }
 
-            final int N = rows.size();
-
+            // The rows may be shared with the cache, so copy them before they are handed out
             if (timestamps == null) {
-                timestamps = new long[N];
-                int k=0;
-                for (final Row<Measurement> row : rows) {
-                    timestamps[k] = row.getTimestamp().asMillis();
-                    k++;
-                }
+                timestamps = rows.getTimestamps().clone();
             }
-
-            int k = 0;
-            for (Row<Measurement> row : rows) {
-                for (Measurement measurement : row.getElements()) {
-                    double[] column = columns.get(measurement.getName());
-                    if (column == null) {
-                        column = new double[N];
-                        columns.put(measurement.getName(), column);
-                    }
-                    column[k] = measurement.getValue();
-                }
-                k += 1;
+            for (Entry<String, double[]> column : rows.getColumns().entrySet()) {
+                columns.put(column.getKey(), column.getValue().clone());
             }
         }
 
@@ -274,11 +271,13 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
         }
     };
 
-    private Callable<Collection<Row<Measurement>>> getMeasurementsForResourceCallable(final String newtsResourceId, final List<Source> listOfSources, final Optional<Timestamp> start, final Optional<Timestamp> end, final LateAggregationParams lag) {
-        return new Callable<Collection<Row<Measurement>>>() {
+    private Callable<FetchedRows> getMeasurementsForResourceCallable(final String newtsResourceId, final List<Source> listOfSources, final Optional<Timestamp> start, final Optional<Timestamp> end, final LateAggregationParams lag) {
+        return new Callable<FetchedRows>() {
             @Override
-            public Collection<Row<Measurement>> call() throws Exception {
+            public FetchedRows call() throws Exception {
                 ResultDescriptor resultDescriptor = new ResultDescriptor(lag.getInterval());
+                StringBuilder key = new StringBuilder(m_context.getId()).append(':').append(newtsResourceId)
+                        .append(':').append(lag.getStep()).append(':').append(lag.getInterval()).append(':').append(lag.getHeartbeat());
                 for (Source source : listOfSources) {
                     final String metricName = source.getAttribute();
                     final String name = source.getLabel();
@@ -287,17 +286,45 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
                     resultDescriptor.datasource(name, metricName, lag.getHeartbeat(), fn);
                     resultDescriptor.export(name);
                 }
-
-                LOG.debug("Querying Newts for resource id {} with result descriptor: {}", newtsResourceId, resultDescriptor);
-                Results<Measurement> results = m_sampleRepository.select(m_context, new Resource(newtsResourceId), start, end,
-                        resultDescriptor, Optional.of(Duration.millis(lag.getStep())), limitConcurrentAggregationsCallback);
-                Collection<Row<Measurement>> rows = results.getRows();
-                LOG.debug("Found {} rows.", rows.size());
-                return rows;
+                // The order of the sources does not change the results
+                listOfSources.stream()
+                    .sorted(Comparator.comparing(Source::getLabel))
+                    .forEach(source -> key.append(':').append(source.getLabel()).append('=').append(source.getAttribute())
+                            .append('/').append(source.getAggregation().toUpperCase()));
+
+                return m_fetchCache.get(key.toString(), start.get().asMillis(), end.get().asMillis(), lag.getStep(), lag.getHeartbeat(), (from, to) -> {
+                    LOG.debug("Querying Newts for resource id {} with result descriptor: {}", newtsResourceId, resultDescriptor);
+                    Results<Measurement> results = m_sampleRepository.select(m_context, new Resource(newtsResourceId), Optional.of(Timestamp.fromEpochMillis(from)),
+                            Optional.of(Timestamp.fromEpochMillis(to)), resultDescriptor, Optional.of(Duration.millis(lag.getStep())), limitConcurrentAggregationsCallback);
+                    Collection<Row<Measurement>> rows = results.getRows();
+                    LOG.debug("Found {} rows.", rows.size());
+                    return toFetchedRows(rows);
+                });
             }
         };
     }
 
+    private static FetchedRows toFetchedRows(Collection<Row<Measurement>> rows) {
+        final int N = rows.size();
+        final long[] timestamps = new long[N];
+        final Map<String, double[]> columns = Maps.newHashMap();
+
+        int k = 0;
+        for (Row<Measurement> row : rows) {
+            timestamps[k] = row.getTimestamp().asMillis();
+            for (Measurement measurement : row.getElements()) {
+                double[] column = columns.get(measurement.getName());
+                if (column == null) {
+                    column = new double[N];
+                    columns.put(measurement.getName(), column);
+                }
+                column[k] = measurement.getValue();
+            }
+            k += 1;
+        }
+        return new FetchedRows(timestamps, columns);
+    }
+
 
     private static AggregationFunction toAggregationFunction(String fn) {
         if ("average".equalsIgnoreCase(fn) || "avg".equalsIgnoreCase(fn)) {
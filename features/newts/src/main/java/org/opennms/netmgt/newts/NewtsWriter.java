@@ -33,7 +33,6 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -54,7 +53,6 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.EventTranslatorOneArg;
@@ -70,6 +68,10 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * The samples travel through the ring buffer as a columnar {@link SampleBatch},
+ * and are only converted to Newts {@link Sample}s by the consumer threads, one
+ * chunk of at most max_batch_size samples at a time.
+ *
  * @author jwhite
  */
 public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
@@ -170,15 +172,20 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         }
     }
 
-    public void insert(List<Sample> samples) {
+    public void insert(SampleBatch samples) {
         pushToRingBuffer(samples, TRANSLATOR);
     }
 
-    public void index(List<Sample> samples) {
+    public void index(SampleBatch samples) {
         pushToRingBuffer(samples, INDEX_ONLY_TRANSLATOR);
     }
 
-    private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+    private void pushToRingBuffer(SampleBatch samples, EventTranslatorOneArg<SampleBatchEvent, SampleBatch> translator) {
+        if (samples.isEmpty()) {
+            // Don't waste a slot in the ring buffer
+            return;
+        }
+
         // Add the samples to the ring buffer
         if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
@@ -187,10 +194,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                         public String toString() {
                             // We wrap this in a toString() method to avoid build the string
                             // unless the log message is actually printed
-                            return samples.stream()
-                                    .map(s -> s.getResource().getId())
-                                    .distinct()
-                                    .collect(Collectors.joining(", "));
+                            return samples.getResourceIds(0, samples.size());
                         }
                     });
             m_droppedSamples.mark(samples.size());
@@ -205,13 +209,17 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         // We'd expect the logs from this thread to be in collectd.log
         Logging.putPrefix("collectd");
 
-        List<Sample> samples = event.getSamples();
+        final SampleBatch samples = event.getSamples();
+        // Release the reference held by the preallocated event
+        event.setSamples(null);
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
         // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
+        for (int start = 0; start < samples.size(); start += m_maxBatchSize) {
+            final int end = Math.min(start + m_maxBatchSize, samples.size());
             try {
+                final List<Sample> batch = samples.toSamples(start, end);
                 if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
                     LOG.debug("Indexing {} samples", batch.size());
                     m_indexer.update(batch);
@@ -221,11 +229,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 }
 
                 if (LOG.isDebugEnabled()) {
-                    String uniqueResourceIds = batch.stream()
-                        .map(s -> s.getResource().getId())
-                        .distinct()
-                        .collect(Collectors.joining(", "));
-                    LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+                    LOG.debug("Successfully inserted samples for resources with ids {}", samples.getResourceIds(start, end));
                 }
             } catch (Throwable t) {
                 RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
@@ -233,17 +237,17 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         }
     }
 
-    private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
-            new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
-                public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
+    private static final EventTranslatorOneArg<SampleBatchEvent, SampleBatch> TRANSLATOR =
+            new EventTranslatorOneArg<SampleBatchEvent, SampleBatch>() {
+                public void translateTo(SampleBatchEvent event, long sequence, SampleBatch samples) {
                     event.setIndexOnly(false);
                     event.setSamples(samples);
                 }
             };
 
-    private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> INDEX_ONLY_TRANSLATOR =
-            new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
-                public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
+    private static final EventTranslatorOneArg<SampleBatchEvent, SampleBatch> INDEX_ONLY_TRANSLATOR =
+            new EventTranslatorOneArg<SampleBatchEvent, SampleBatch>() {
+                public void translateTo(SampleBatchEvent event, long sequence, SampleBatch samples) {
                     event.setIndexOnly(true);
                     event.setSamples(samples);
                 }
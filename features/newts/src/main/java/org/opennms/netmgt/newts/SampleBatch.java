@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * A batch of samples stored by column, which is what the persisters hand over to
+ * the {@link NewtsWriter}.
+ *
+ * Each resource is stored once and referenced by index from its samples,
+ * while the timestamps and values are kept in primitive arrays. The batch is only
+ * converted to Newts {@link Sample} objects when the samples are written, in chunks
+ * of at most max_batch_size samples.
+ *
+ * The values are stored as raw 64-bit values: the bits of the double for gauges,
+ * and the unsigned value for the other metric types, so that 64-bit counters keep
+ * their precision.
+ *
+ * Batches are not thread safe, and must not be modified once they are passed to
+ * the {@link NewtsWriter}.
+ */
+public class SampleBatch {
+
+    private final Context m_context;
+
+    private Resource[] m_resources = new Resource[1];
+    private int m_numResources = 0;
+
+    private int[] m_resourceIndexes;
+    private String[] m_names;
+    private MetricType[] m_types;
+    private long[] m_timestamps;
+    private long[] m_values;
+    private int m_size = 0;
+
+    public SampleBatch(Context context, int expectedSize) {
+        m_context = context;
+        final int capacity = Math.max(expectedSize, 1);
+        m_resourceIndexes = new int[capacity];
+        m_names = new String[capacity];
+        m_types = new MetricType[capacity];
+        m_timestamps = new long[capacity];
+        m_values = new long[capacity];
+    }
+
+    /**
+     * Adds the resource to the batch, unless it is the same instance as the
+     * last one added, and returns the index used to refer to it when adding
+     * samples.
+     */
+    public int addResource(Resource resource) {
+        if (m_numResources > 0 && m_resources[m_numResources - 1] == resource) {
+            return m_numResources - 1;
+        }
+        if (m_numResources == m_resources.length) {
+            m_resources = Arrays.copyOf(m_resources, m_numResources * 2);
+        }
+        m_resources[m_numResources] = resource;
+        return m_numResources++;
+    }
+
+    public void addSample(int resourceIndex, long timestamp, String name, MetricType type, Number value) {
+        if (m_size == m_timestamps.length) {
+            final int capacity = m_size * 2;
+            m_resourceIndexes = Arrays.copyOf(m_resourceIndexes, capacity);
+            m_names = Arrays.copyOf(m_names, capacity);
+            m_types = Arrays.copyOf(m_types, capacity);
+            m_timestamps = Arrays.copyOf(m_timestamps, capacity);
+            m_values = Arrays.copyOf(m_values, capacity);
+        }
+        m_resourceIndexes[m_size] = resourceIndex;
+        m_names[m_size] = name;
+        m_types[m_size] = type;
+        m_timestamps[m_size] = timestamp;
+        if (type == MetricType.GAUGE) {
+            m_values[m_size] = Double.doubleToRawLongBits(value.doubleValue());
+        } else if (value instanceof BigInteger) {
+            // The lower 64 bits hold the unsigned value
+            m_values[m_size] = ((BigInteger)value).longValue();
+        } else {
+            m_values[m_size] = value.longValue();
+        }
+        m_size++;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    public Context getContext() {
+        return m_context;
+    }
+
+    /**
+     * Converts the samples from index start (inclusive) to end (exclusive)
+     * to Newts {@link Sample}s.
+     */
+    public List<Sample> toSamples(int start, int end) {
+        final List<Sample> samples = Lists.newArrayListWithCapacity(end - start);
+        Timestamp timestamp = null;
+        for (int i = start; i < end; i++) {
+            // The samples of a batch usually share the same timestamp
+            if (timestamp == null || timestamp.asMillis() != m_timestamps[i]) {
+                timestamp = Timestamp.fromEpochMillis(m_timestamps[i]);
+            }
+            samples.add(new Sample(timestamp, m_context, m_resources[m_resourceIndexes[i]], m_names[i], m_types[i], getValue(i)));
+        }
+        return samples;
+    }
+
+    private ValueType<?> getValue(int i) {
+        if (m_types[i] == MetricType.GAUGE) {
+            return ValueType.compose(Double.longBitsToDouble(m_values[i]), MetricType.GAUGE);
+        }
+        return ValueType.compose(UnsignedLong.fromLongBits(m_values[i]), m_types[i]);
+    }
+
+    /**
+     * Returns the ids of the resources referenced by the samples from index
+     * start (inclusive) to end (exclusive), separated by commas.
+     */
+    public String getResourceIds(int start, int end) {
+        final StringBuilder ids = new StringBuilder();
+        int last = -1;
+        for (int i = start; i < end; i++) {
+            if (m_resourceIndexes[i] != last) {
+                last = m_resourceIndexes[i];
+                if (ids.length() > 0) {
+                    ids.append(", ");
+                }
+                ids.append(m_resources[last].getId());
+            }
+        }
+        return ids.toString();
+    }
+}
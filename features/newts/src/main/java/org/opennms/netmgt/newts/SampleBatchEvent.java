@@ -28,26 +28,22 @@
 
 package org.opennms.netmgt.newts;
 
-import java.util.List;
-
-import org.opennms.newts.api.Sample;
-
 /**
- * Wrapper class for a {@list java.util.List} of {@link org.opennms.newts.api.Sample} objects.
+ * Wrapper class for a {@link SampleBatch}.
  *
  * Instances of this class are preallocated by the {@link com.lmax.disruptor.dsl.Disruptor}.
  *
  * @author jwhite
  */
 public class SampleBatchEvent {
-    private List<Sample> m_samples;
+    private SampleBatch m_samples;
     private boolean m_indexOnly;
 
-    public void setSamples(List<Sample> samples) {
+    public void setSamples(SampleBatch samples) {
         m_samples = samples;
     }
 
-    public List<Sample> getSamples() {
+    public SampleBatch getSamples() {
         return m_samples;
     }
 
@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.newts.SampleBatch;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.MetricType;
 import org.opennms.newts.api.Resource;
@@ -162,4 +163,13 @@ public abstract class NewtsUtils {
     public static Sample createSampleForIndexingStrings(Context context, Resource resource) {
         return new Sample(EPOCH, context, resource, "strings", MetricType.GAUGE, ZERO);
     }
+
+    /**
+     * Adds a sample used to index string attributes to the batch.
+     *
+     * @see #createSampleForIndexingStrings(Context, Resource)
+     */
+    public static void addSampleForIndexingStrings(SampleBatch batch, Resource resource) {
+        batch.addSample(batch.addResource(resource), EPOCH.asMillis(), "strings", MetricType.GAUGE, 0);
+    }
 }
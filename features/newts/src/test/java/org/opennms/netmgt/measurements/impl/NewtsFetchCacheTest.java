@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.impl.NewtsFetchCache.FetchedRows;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class NewtsFetchCacheTest {
+
+    private static final long STEP = 300 * 1000;
+
+    private static final long HEARTBEAT = 450 * 1000;
+
+    private final List<long[]> m_loads = Lists.newCopyOnWriteArrayList();
+
+    /**
+     * Generates a row for every step between start and end, with the
+     * timestamp in seconds as value.
+     */
+    private final NewtsFetchCache.Loader m_loader = (start, end) -> {
+        m_loads.add(new long[] { start, end });
+        final long first = start - Math.floorMod(start, STEP);
+        final int n = (int)((end - first) / STEP) + 1;
+        final long[] timestamps = new long[n];
+        final double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            timestamps[i] = first + i * STEP;
+            values[i] = timestamps[i] / 1000;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("value", values);
+        return new FetchedRows(timestamps, columns);
+    };
+
+    @Test
+    public void canServeIdenticalRequestsFromCache() throws Exception {
+        final NewtsFetchCache cache = new NewtsFetchCache(1024 * 1024, 0);
+        final long end = 1431047069000L;
+        final long start = end - 24 * 60 * 60 * 1000;
+
+        final FetchedRows first = cache.get("key", start, end, STEP, HEARTBEAT, m_loader);
+        final FetchedRows second = cache.get("key", start, end, STEP, HEARTBEAT, m_loader);
+
+        assertEquals(1, m_loads.size());
+        assertArrayEquals(first.getTimestamps(), second.getTimestamps());
+        assertArrayEquals(first.getColumns().get("value"), second.getColumns().get("value"), 0.0d);
+
+        // A window within the cached one is served from the cache as well
+        final FetchedRows third = cache.get("key", start + 3600 * 1000, end - 3600 * 1000, STEP, HEARTBEAT, m_loader);
+        assertEquals(1, m_loads.size());
+        assertEquals(first.size() - 24, third.size());
+
+        // But other keys are not
+        cache.get("otherKey", start, end, STEP, HEARTBEAT, m_loader);
+        assertEquals(2, m_loads.size());
+    }
+
+    @Test
+    public void canFetchOnlyTheTrailingBuckets() throws Exception {
+        final NewtsFetchCache cache = new NewtsFetchCache(1024 * 1024, 0);
+        final long now = System.currentTimeMillis();
+        final long start = now - 24 * 60 * 60 * 1000;
+
+        cache.get("key", start, now, STEP, HEARTBEAT, m_loader);
+        assertEquals(1, m_loads.size());
+
+        // Slide the window forward, like a dashboard that is refreshed
+        final long later = now + 2 * STEP;
+        final FetchedRows rows = cache.get("key", start + 2 * STEP, later, STEP, HEARTBEAT, m_loader);
+        assertEquals(2, m_loads.size());
+        final long[] load = m_loads.get(1);
+        // The buckets that were not complete, the two new ones and a heartbeat before them
+        assertTrue("Fetched more than the trailing buckets", (later - load[0]) / STEP < 10);
+        assertEquals(later, load[1]);
+
+        // The merged rows must match the rows of a complete fetch
+        final FetchedRows expected = m_loader.load(start + 2 * STEP, later);
+        assertArrayEquals(expected.getTimestamps(), rows.getTimestamps());
+        assertArrayEquals(expected.getColumns().get("value"), rows.getColumns().get("value"), 0.0d);
+    }
+
+    @Test
+    public void canCoalesceConcurrentFetches() throws Exception {
+        final NewtsFetchCache cache = new NewtsFetchCache(1024 * 1024, 60 * 1000);
+        final long end = System.currentTimeMillis();
+        final long start = end - 60 * 60 * 1000;
+
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final NewtsFetchCache.Loader slowLoader = (from, to) -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            release.await();
+            return m_loader.load(from, to);
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<FetchedRows>> futures = Lists.newArrayList();
+            futures.add(executor.submit(() -> cache.get("key", start, end, STEP, HEARTBEAT, slowLoader)));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                futures.add(executor.submit(() -> cache.get("key", start, end, STEP, HEARTBEAT, slowLoader)));
+            }
+            // Give the other requests a chance to queue up behind the first one
+            Thread.sleep(100);
+            release.countDown();
+
+            final FetchedRows first = futures.get(0).get();
+            for (Future<FetchedRows> future : futures) {
+                assertArrayEquals(first.getTimestamps(), future.get().getTimestamps());
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void canDisableCache() throws Exception {
+        final NewtsFetchCache cache = new NewtsFetchCache(0, 0);
+        final long end = 1431047069000L;
+        final long start = end - 60 * 60 * 1000;
+
+        cache.get("key", start, end, STEP, HEARTBEAT, m_loader);
+        cache.get("key", start, end, STEP, HEARTBEAT, m_loader);
+        assertEquals(2, m_loads.size());
+    }
+}
@@ -38,7 +38,6 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
 import org.opennms.newts.api.Context;
-import org.opennms.newts.api.Counter;
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.MetricType;
@@ -53,7 +52,6 @@ import org.opennms.newts.api.query.ResultDescriptor;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
-import com.google.common.collect.Lists;
 
 public class NewtsWriterTest {
 
@@ -73,8 +71,7 @@ public class NewtsWriterTest {
 
         for (int i = 0; i < ringBufferSize*2; i++) {
             Resource x = new Resource("x");
-            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
-            writer.insert(Lists.newArrayList(s));
+            writer.insert(createBatch(x, i));
         }
     }
 
@@ -96,8 +93,7 @@ public class NewtsWriterTest {
 
         lock.lock();
         for (int i = 0; i < ringBufferSize; i++) {
-            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
-            writer.insert(Lists.newArrayList(s));
+            writer.insert(createBatch(x, i));
         }
 
         // The ring buffer should be full, and all of the threads should be locked
@@ -106,8 +102,7 @@ public class NewtsWriterTest {
 
         // Attempt to insert another batch of samples
         for (int i = 0; i < 8; i++) {
-            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
-            writer.insert(Lists.newArrayList(s));
+            writer.insert(createBatch(x, i));
         };
 
         // Unlock the writer threads and wait for the ring buffer to drain
@@ -119,6 +114,12 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    private static SampleBatch createBatch(Resource resource, long counter) {
+        SampleBatch batch = new SampleBatch(Context.DEFAULT_CONTEXT, 1);
+        batch.addSample(batch.addResource(resource), Timestamp.now().asMillis(), "y", MetricType.COUNTER, counter);
+        return batch;
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the heap allocated and the throughput of carrying the samples of
+ * a collection cycle to the driver as {@link SampleBatch}es with the
+ * {@link List} of {@link Sample}s that was used before.
+ *
+ * Each commit of a persist operation holds {@value #ATTRIBUTES} samples of
+ * a single resource, and the samples are handed to the driver in chunks of
+ * {@value #MAX_BATCH_SIZE}, as the {@link NewtsWriter} does. Only the
+ * samples that are persisted are built, nothing is written.
+ */
+public class SampleBatchLoadIT {
+
+    private static final int COMMITS = 100000;
+
+    private static final int ATTRIBUTES = 20;
+
+    private static final int MAX_BATCH_SIZE = 16;
+
+    private static final int PASSES = 5;
+
+    private final Context m_context = new Context("test");
+
+    private final String[] m_names = new String[ATTRIBUTES];
+
+    private final Map<String, String> m_attributes = Maps.newHashMap();
+
+    private long m_checksum;
+
+    public SampleBatchLoadIT() {
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            m_names[i] = "attribute" + i;
+        }
+        m_attributes.put("_idx1", "snmp:4");
+    }
+
+    @Test
+    public void testAllocationAndThroughput() {
+        // Warm up both code paths
+        runSampleLists();
+        runSampleBatches();
+
+        long listBytes = 0, listNanos = 0, batchBytes = 0, batchNanos = 0;
+        for (int i = 0; i < PASSES; i++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            final long listChecksum = runSampleLists();
+            listNanos += System.nanoTime() - start;
+            listBytes += allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            final long batchChecksum = runSampleBatches();
+            batchNanos += System.nanoTime() - start;
+            batchBytes += allocatedBytes() - allocated;
+
+            assertEquals(listChecksum, batchChecksum);
+        }
+
+        final long samples = (long)COMMITS * ATTRIBUTES * PASSES;
+        System.err.println(String.format("Built %d samples in commits of %d", samples, ATTRIBUTES));
+        System.err.println(String.format("List<Sample>: %10.0f samples/s, %6.1f bytes allocated per sample", samples * 1e9 / listNanos, (double)listBytes / samples));
+        System.err.println(String.format("SampleBatch:  %10.0f samples/s, %6.1f bytes allocated per sample", samples * 1e9 / batchNanos, (double)batchBytes / samples));
+    }
+
+    private long runSampleLists() {
+        m_checksum = 0;
+        for (int commit = 0; commit < COMMITS; commit++) {
+            // As NewtsPersistOperationBuilder.getSamplesToInsert() used to build them
+            final List<Sample> samples = Lists.newLinkedList();
+            final Resource resource = new Resource("snmp:1:node" + (commit % 1000), Optional.of(m_attributes));
+            final Timestamp timestamp = Timestamp.fromEpochMillis(commit);
+            for (int i = 0; i < ATTRIBUTES; i++) {
+                final MetricType type = i % 2 == 0 ? MetricType.COUNTER : MetricType.GAUGE;
+                samples.add(new Sample(timestamp, m_context, resource, m_names[i], type, ValueType.compose(commit + i, type)));
+            }
+            for (List<Sample> batch : Lists.partition(samples, MAX_BATCH_SIZE)) {
+                consume(batch);
+            }
+        }
+        return m_checksum;
+    }
+
+    private long runSampleBatches() {
+        m_checksum = 0;
+        for (int commit = 0; commit < COMMITS; commit++) {
+            final SampleBatch samples = new SampleBatch(m_context, ATTRIBUTES);
+            final int resource = samples.addResource(new Resource("snmp:1:node" + (commit % 1000), Optional.of(m_attributes)));
+            for (int i = 0; i < ATTRIBUTES; i++) {
+                final MetricType type = i % 2 == 0 ? MetricType.COUNTER : MetricType.GAUGE;
+                samples.addSample(resource, commit, m_names[i], type, commit + i);
+            }
+            for (int start = 0; start < samples.size(); start += MAX_BATCH_SIZE) {
+                consume(samples.toSamples(start, Math.min(start + MAX_BATCH_SIZE, samples.size())));
+            }
+        }
+        return m_checksum;
+    }
+
+    private void consume(List<Sample> batch) {
+        for (Sample sample : batch) {
+            m_checksum += sample.getTimestamp().asMillis() + sample.getValue().longValue() + sample.getName().length();
+        }
+    }
+
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -28,7 +28,9 @@
 
 package org.opennms.features.topology.plugins.topo.bsm.simulate;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
@@ -70,8 +72,9 @@ public class SimulationAwareStateMachineFactory {
         // Grab a copy of the state machine, and update push alarms
         // that reflect the simulated state of the reduction keys
         final BusinessServiceStateMachine stateMachine = manager.getStateMachine().clone(shouldInheritState);
+        final List<AlarmWrapper> alarms = new ArrayList<>();
         for (Entry<String, Status> entry : statusByReductionKey.entrySet()) {
-            stateMachine.handleNewOrUpdatedAlarm(new AlarmWrapper() {
+            alarms.add(new AlarmWrapper() {
                 @Override
                 public String getReductionKey() {
                     return entry.getKey();
@@ -88,6 +91,7 @@ public class SimulationAwareStateMachineFactory {
                 }
             });
         }
+        stateMachine.handleNewOrUpdatedAlarms(alarms);
 
         return stateMachine;
     }
@@ -0,0 +1,752 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.UpdateField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.Assert;
+
+/**
+ * In-memory index of the alarms known to Alarmd, keyed by reduction key.
+ *
+ * When write-behind is enabled (<code>org.opennms.alarmd.writeBehind=true</code>)
+ * the index is loaded from the database when Alarmd starts and is treated as
+ * authoritative while the daemon runs: events that reduce onto a known alarm
+ * and only touch the counter, last event, log message, parameters or severity
+ * are applied to the cached alarm without querying the database. The
+ * resulting changes are written back in batched JDBC statements, either
+ * every <code>org.opennms.alarmd.writeBehind.flushInterval</code>
+ * milliseconds or as soon as <code>org.opennms.alarmd.writeBehind.batchSize</code>
+ * alarms are dirty.
+ *
+ * Counters are written as increments so concurrent changes made by other
+ * processes are not overwritten. Alarms that have been deleted from the
+ * database in the meantime are evicted when their update matches no rows,
+ * and the events that were reduced onto them are handed to the
+ * {@link OrphanedEventHandler} so that they create a new alarm.
+ *
+ * @see AlarmPersisterImpl
+ */
+public class AlarmCache implements InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmCache.class);
+
+    private static final String UPDATE_ALARM = "UPDATE alarms SET counter = counter + ?, lastEventId = ?, lastEventTime = ?, "
+            + "logMsg = CASE WHEN ? THEN ? ELSE logMsg END, "
+            + "eventParms = CASE WHEN ? THEN ? ELSE eventParms END, "
+            + "severity = CASE WHEN ? THEN ? ELSE severity END "
+            + "WHERE alarmId = ?";
+
+    private static final String LINK_EVENT = "UPDATE events SET alarmId = ? WHERE eventId = ?";
+
+    private static final String CLEAN_EVENTS = "DELETE FROM events WHERE alarmId = ? AND eventId <> ?";
+
+    private static final String SELECT_ALARM_STATE = "SELECT alarmId, severity, alarmAckUser, alarmAckTime FROM alarms WHERE alarmId IN (";
+
+    private boolean m_enabled = Boolean.getBoolean("org.opennms.alarmd.writeBehind");
+    private long m_flushInterval = Long.getLong("org.opennms.alarmd.writeBehind.flushInterval", 1000L);
+    private int m_batchSize = Integer.getInteger("org.opennms.alarmd.writeBehind.batchSize", 500);
+
+    private AlarmDao m_alarmDao;
+    private JdbcTemplate m_jdbcTemplate;
+    private TransactionOperations m_transactionOperations;
+
+    private final Map<String, OnmsAlarm> m_alarms = new ConcurrentHashMap<String, OnmsAlarm>();
+
+    /** Pending updates keyed by alarm id, guarded by m_lock along with the cached alarms themselves. */
+    private Map<Integer, PendingUpdate> m_dirty = new LinkedHashMap<Integer, PendingUpdate>();
+    private final Object m_lock = new Object();
+
+    /** Serializes writers so a reduction never reads an alarm while a flush for it is in flight. */
+    private final ReentrantLock m_flushLock = new ReentrantLock();
+
+    private final AtomicBoolean m_flushRequested = new AtomicBoolean(false);
+    private volatile ScheduledExecutorService m_executor;
+
+    private volatile OrphanedEventHandler m_orphanedEventHandler;
+
+    /**
+     * Receives the events that were reduced onto a cached alarm which was
+     * deleted before the reduction could be written.
+     */
+    public interface OrphanedEventHandler {
+        /**
+         * Called in the order the events were reduced, after the deleted
+         * alarm was evicted from the cache.
+         */
+        void onOrphanedEvent(Event event);
+    }
+
+    /**
+     * The changes made by an event that can be reduced onto a cached alarm.
+     */
+    public static final class Reduction {
+        private final Event m_event;
+        private final OnmsEvent m_lastEvent;
+        private final int m_eventId;
+        private final Date m_eventTime;
+        private final String m_logMsg;
+        private final String m_eventParms;
+        private final OnmsSeverity m_severity;
+        private final boolean m_setLogMsg;
+        private final boolean m_setEventParms;
+        private final boolean m_setSeverity;
+        private final boolean m_autoClean;
+
+        private Reduction(Event event, OnmsEvent e, boolean setLogMsg, boolean setEventParms, boolean setSeverity, boolean autoClean) {
+            m_event = event;
+            m_lastEvent = e;
+            m_eventId = e.getId();
+            m_eventTime = e.getEventTime();
+            m_logMsg = e.getEventLogMsg();
+            m_eventParms = e.getEventParms();
+            m_severity = setSeverity ? OnmsSeverity.valueOf(e.getSeverityLabel()) : null;
+            m_setLogMsg = setLogMsg;
+            m_setEventParms = setEventParms;
+            m_setSeverity = setSeverity;
+            m_autoClean = autoClean;
+        }
+
+        /**
+         * Builds the reduction for the given event, following the same
+         * update-field rules as {@link AlarmPersisterImpl}.
+         *
+         * @return the reduction, or null if the event updates fields that
+         *         can only be reduced through Hibernate
+         */
+        public static Reduction forEvent(OnmsEvent e, Event event) {
+            if (!event.getAlarmData().hasUpdateFields()) {
+                return new Reduction(event, e, true, true, false, event.getAlarmData().isAutoClean());
+            }
+
+            boolean setLogMsg = false;
+            boolean setEventParms = false;
+            boolean setSeverity = false;
+            for (UpdateField field : event.getAlarmData().getUpdateFieldList()) {
+                if (field.getFieldName().equalsIgnoreCase("LogMsg") && field.isUpdateOnReduction() == false) {
+                    continue;
+                }
+                setLogMsg = true;
+
+                if (field.getFieldName().equalsIgnoreCase("Parms") && field.isUpdateOnReduction() == false) {
+                    continue;
+                }
+                setEventParms = true;
+
+                if (field.isUpdateOnReduction()) {
+                    if (field.getFieldName().equalsIgnoreCase("severity")) {
+                        setSeverity = true;
+                    } else if (!field.getFieldName().equalsIgnoreCase("LogMsg") && !field.getFieldName().equalsIgnoreCase("Parms")) {
+                        return null;
+                    }
+                }
+            }
+            return new Reduction(event, e, setLogMsg, setEventParms, setSeverity, event.getAlarmData().isAutoClean());
+        }
+    }
+
+    /**
+     * The accumulated changes for a single alarm that have not been written yet.
+     */
+    private static final class PendingUpdate {
+        private final OnmsAlarm m_alarm;
+        private final List<Integer> m_eventIds = new ArrayList<Integer>();
+        private final List<Event> m_events = new ArrayList<Event>();
+        private int m_count;
+        private Date m_lastEventTime;
+        private String m_logMsg;
+        private String m_eventParms;
+        private OnmsSeverity m_severity;
+        private boolean m_setLogMsg;
+        private boolean m_setEventParms;
+        private boolean m_setSeverity;
+        private boolean m_autoClean;
+
+        private PendingUpdate(OnmsAlarm alarm) {
+            m_alarm = alarm;
+        }
+
+        private void add(Reduction reduction) {
+            m_count++;
+            m_eventIds.add(reduction.m_eventId);
+            m_events.add(reduction.m_event);
+            m_lastEventTime = reduction.m_eventTime;
+            if (reduction.m_setLogMsg) {
+                m_setLogMsg = true;
+                m_logMsg = reduction.m_logMsg;
+            }
+            if (reduction.m_setEventParms) {
+                m_setEventParms = true;
+                m_eventParms = reduction.m_eventParms;
+            }
+            if (reduction.m_setSeverity) {
+                m_setSeverity = true;
+                m_severity = reduction.m_severity;
+            }
+            m_autoClean |= reduction.m_autoClean;
+        }
+
+        /**
+         * Folds newer changes on top of this (older) update, used when a
+         * failed flush is put back.
+         */
+        private void addAll(PendingUpdate newer) {
+            m_count += newer.m_count;
+            m_eventIds.addAll(newer.m_eventIds);
+            m_events.addAll(newer.m_events);
+            m_lastEventTime = newer.m_lastEventTime;
+            if (newer.m_setLogMsg) {
+                m_setLogMsg = true;
+                m_logMsg = newer.m_logMsg;
+            }
+            if (newer.m_setEventParms) {
+                m_setEventParms = true;
+                m_eventParms = newer.m_eventParms;
+            }
+            if (newer.m_setSeverity) {
+                m_setSeverity = true;
+                m_severity = newer.m_severity;
+            }
+            m_autoClean |= newer.m_autoClean;
+        }
+
+        private int getLastEventId() {
+            return m_eventIds.get(m_eventIds.size() - 1);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(m_alarmDao, "alarmDao must be set");
+        Assert.notNull(m_jdbcTemplate, "jdbcTemplate must be set");
+        Assert.notNull(m_transactionOperations, "transactionOperations must be set");
+        Assert.isTrue(m_flushInterval > 0, "flushInterval must be positive");
+        Assert.isTrue(m_batchSize > 0, "batchSize must be positive");
+    }
+
+    /**
+     * Loads the existing alarms and starts the periodic flush. Does nothing
+     * unless write-behind is enabled.
+     */
+    public void start() {
+        if (!m_enabled || m_executor != null) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final List<OnmsAlarm> alarms = m_transactionOperations.execute(new TransactionCallback<List<OnmsAlarm>>() {
+            @Override
+            public List<OnmsAlarm> doInTransaction(TransactionStatus status) {
+                final List<OnmsAlarm> alarms = m_alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class).isNotNull("reductionKey").fetch("node").toCriteria());
+                for (final OnmsAlarm alarm : alarms) {
+                    initialize(alarm);
+                }
+                return alarms;
+            }
+        });
+        int loaded = 0;
+        for (final OnmsAlarm alarm : alarms) {
+            // Don't replace alarms that were reduced while we were loading
+            if (m_alarms.putIfAbsent(alarm.getReductionKey(), alarm) == null) {
+                loaded++;
+            }
+        }
+        LOG.info("start: loaded {} alarms in {}ms, flushing every {}ms or {} dirty alarms", loaded, System.currentTimeMillis() - start, m_flushInterval, m_batchSize);
+
+        m_executor = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("Alarmd-WriteBehind", 1));
+        m_executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flush and writes out any pending changes.
+     */
+    public void stop() {
+        final ScheduledExecutorService executor = m_executor;
+        if (executor == null) {
+            return;
+        }
+        m_executor = null;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(m_flushInterval * 2, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        m_alarms.clear();
+    }
+
+    /**
+     * @return true if the cache is loaded and reductions may be applied to it
+     */
+    public boolean isStarted() {
+        return m_executor != null;
+    }
+
+    /**
+     * Applies the reduction to the cached alarm with the given reduction key.
+     * The cached alarm keeps changing as further events are reduced and
+     * flushed, so a copy of it is returned that is safe to hand to the
+     * northbounders.
+     *
+     * @return a copy of the updated alarm, or null if the reduction key is not cached
+     */
+    public OnmsAlarm reduce(String reductionKey, Reduction reduction) {
+        final OnmsAlarm alarm = m_alarms.get(reductionKey);
+        if (alarm == null) {
+            return null;
+        }
+
+        final OnmsAlarm reduced;
+        final int dirtyCount;
+        synchronized (m_lock) {
+            alarm.setLastEvent(reduction.m_lastEvent);
+            alarm.setLastEventTime(reduction.m_eventTime);
+            alarm.setCounter(alarm.getCounter() + 1);
+            if (reduction.m_setLogMsg) {
+                alarm.setLogMsg(reduction.m_logMsg);
+            }
+            if (reduction.m_setEventParms) {
+                alarm.setEventParms(reduction.m_eventParms);
+            }
+            if (reduction.m_setSeverity) {
+                alarm.setSeverity(reduction.m_severity);
+            }
+
+            PendingUpdate update = m_dirty.get(alarm.getId());
+            if (update == null) {
+                update = new PendingUpdate(alarm);
+                m_dirty.put(alarm.getId(), update);
+            }
+            update.add(reduction);
+            dirtyCount = m_dirty.size();
+            reduced = copy(alarm);
+        }
+
+        if (dirtyCount >= m_batchSize) {
+            requestFlush();
+        }
+        return reduced;
+    }
+
+    /**
+     * Caches a copy of an alarm that was created or reduced through
+     * Hibernate, so that later reductions do not change the given alarm. Its
+     * lazy associations must be initialized while it is still attached.
+     */
+    public void put(OnmsAlarm alarm) {
+        if (alarm.getReductionKey() == null || !isStarted()) {
+            return;
+        }
+        initialize(alarm);
+        m_alarms.put(alarm.getReductionKey(), copy(alarm));
+    }
+
+    /**
+     * Writes the pending changes of the alarm with the given reduction key
+     * so it can safely be read and updated through Hibernate. Joins the
+     * current transaction if there is one.
+     */
+    public void flush(String reductionKey) {
+        final OnmsAlarm alarm = m_alarms.get(reductionKey);
+        m_flushLock.lock();
+        try {
+            if (alarm == null) {
+                return;
+            }
+            final PendingUpdate update;
+            synchronized (m_lock) {
+                update = m_dirty.remove(alarm.getId());
+            }
+            if (update != null) {
+                final List<PendingUpdate> orphaned = write(Collections.singletonList(update));
+                if (!orphaned.isEmpty()) {
+                    replay(orphaned);
+                    // Write what the replayed events reduced onto the new alarm
+                    flush(reductionKey);
+                }
+            }
+        } finally {
+            m_flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending changes to the database.
+     */
+    public void flush() {
+        m_flushLock.lock();
+        try {
+            m_flushRequested.set(false);
+            final Map<Integer, PendingUpdate> dirty;
+            synchronized (m_lock) {
+                if (m_dirty.isEmpty()) {
+                    return;
+                }
+                dirty = m_dirty;
+                m_dirty = new LinkedHashMap<Integer, PendingUpdate>();
+            }
+            final long start = System.currentTimeMillis();
+            final List<PendingUpdate> orphaned = write(dirty.values());
+            refresh(dirty.values());
+            replay(orphaned);
+            LOG.debug("flush: wrote {} alarms in {}ms", dirty.size(), System.currentTimeMillis() - start);
+        } finally {
+            m_flushLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final Throwable t) {
+            LOG.warn("flushQuietly: failed to write pending alarm updates, will retry", t);
+        }
+    }
+
+    private void requestFlush() {
+        final ScheduledExecutorService executor = m_executor;
+        if (executor != null && m_flushRequested.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the updates of the alarms that no longer exist
+     */
+    private List<PendingUpdate> write(final Collection<PendingUpdate> updates) {
+        try {
+            return m_transactionOperations.execute(new TransactionCallback<List<PendingUpdate>>() {
+                @Override
+                public List<PendingUpdate> doInTransaction(TransactionStatus status) {
+                    return writeInTransaction(updates);
+                }
+            });
+        } catch (final RuntimeException e) {
+            // Put the changes back, ahead of anything reduced in the meantime
+            synchronized (m_lock) {
+                final Map<Integer, PendingUpdate> dirty = new LinkedHashMap<Integer, PendingUpdate>();
+                for (final PendingUpdate update : updates) {
+                    dirty.put(update.m_alarm.getId(), update);
+                }
+                for (final PendingUpdate newer : m_dirty.values()) {
+                    final PendingUpdate older = dirty.get(newer.m_alarm.getId());
+                    if (older == null) {
+                        dirty.put(newer.m_alarm.getId(), newer);
+                    } else {
+                        older.addAll(newer);
+                    }
+                }
+                m_dirty = dirty;
+            }
+            throw e;
+        }
+    }
+
+    private List<PendingUpdate> writeInTransaction(final Collection<PendingUpdate> updates) {
+        final List<PendingUpdate> alarms = new ArrayList<PendingUpdate>(updates);
+        final int[] counts = m_jdbcTemplate.batchUpdate(UPDATE_ALARM, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                final PendingUpdate update = alarms.get(i);
+                ps.setInt(1, update.m_count);
+                ps.setInt(2, update.getLastEventId());
+                ps.setTimestamp(3, update.m_lastEventTime == null ? null : new Timestamp(update.m_lastEventTime.getTime()));
+                ps.setBoolean(4, update.m_setLogMsg);
+                ps.setString(5, update.m_logMsg);
+                ps.setBoolean(6, update.m_setEventParms);
+                ps.setString(7, update.m_eventParms);
+                ps.setBoolean(8, update.m_setSeverity);
+                ps.setInt(9, update.m_setSeverity ? update.m_severity.getId() : 0);
+                ps.setInt(10, update.m_alarm.getId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return alarms.size();
+            }
+        });
+
+        // Alarms that no longer exist have been deleted behind our back
+        final List<PendingUpdate> written = new ArrayList<PendingUpdate>(alarms.size());
+        final List<PendingUpdate> orphaned = new ArrayList<PendingUpdate>();
+        for (int i = 0; i < alarms.size(); i++) {
+            final PendingUpdate update = alarms.get(i);
+            if (counts[i] == 0) {
+                LOG.info("writeInTransaction: alarm {} with reduction key {} was deleted, reducing its {} pending events again", update.m_alarm.getId(), update.m_alarm.getReductionKey(), update.m_count);
+                m_alarms.remove(update.m_alarm.getReductionKey(), update.m_alarm);
+                orphaned.add(update);
+            } else {
+                written.add(update);
+            }
+        }
+
+        final List<int[]> links = new ArrayList<int[]>();
+        final List<PendingUpdate> cleaned = new ArrayList<PendingUpdate>();
+        for (final PendingUpdate update : written) {
+            for (final Integer eventId : update.m_eventIds) {
+                links.add(new int[] { update.m_alarm.getId(), eventId });
+            }
+            if (update.m_autoClean) {
+                cleaned.add(update);
+            }
+        }
+
+        m_jdbcTemplate.batchUpdate(LINK_EVENT, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setInt(1, links.get(i)[0]);
+                ps.setInt(2, links.get(i)[1]);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return links.size();
+            }
+        });
+
+        if (!cleaned.isEmpty()) {
+            m_jdbcTemplate.batchUpdate(CLEAN_EVENTS, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setInt(1, cleaned.get(i).m_alarm.getId());
+                    ps.setInt(2, cleaned.get(i).getLastEventId());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return cleaned.size();
+                }
+            });
+        }
+        return orphaned;
+    }
+
+    /**
+     * Hands the events of the alarms that were deleted behind our back to
+     * the {@link OrphanedEventHandler}, which reduces them like new events.
+     */
+    private void replay(final List<PendingUpdate> orphaned) {
+        if (orphaned.isEmpty()) {
+            return;
+        }
+        final OrphanedEventHandler handler = m_orphanedEventHandler;
+        for (final PendingUpdate update : orphaned) {
+            if (handler == null) {
+                LOG.warn("replay: alarm {} with reduction key {} was deleted, dropping {} reduced events", update.m_alarm.getId(), update.m_alarm.getReductionKey(), update.m_count);
+                continue;
+            }
+            for (final Event event : update.m_events) {
+                try {
+                    handler.onOrphanedEvent(event);
+                } catch (final RuntimeException e) {
+                    LOG.warn("replay: failed to reduce event {} of deleted alarm {}", event.getDbid(), update.m_alarm.getId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks up the severity and acknowledgement changes made by other
+     * processes (the web UI, automations) for the alarms that were just
+     * written, so the alarms handed to the northbounders stay current.
+     */
+    private void refresh(final Collection<PendingUpdate> updates) {
+        final Map<Integer, OnmsAlarm> alarms = new HashMap<Integer, OnmsAlarm>();
+        for (final PendingUpdate update : updates) {
+            alarms.put(update.m_alarm.getId(), update.m_alarm);
+        }
+
+        final List<Integer> ids = new ArrayList<Integer>(alarms.keySet());
+        for (int from = 0; from < ids.size(); from += m_batchSize) {
+            final List<Integer> chunk = ids.subList(from, Math.min(from + m_batchSize, ids.size()));
+            final StringBuilder sql = new StringBuilder(SELECT_ALARM_STATE);
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(')');
+
+            m_jdbcTemplate.query(sql.toString(), chunk.toArray(), new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    final int id = rs.getInt("alarmId");
+                    final OnmsAlarm alarm = alarms.get(id);
+                    synchronized (m_lock) {
+                        // A newer reduction has already decided the severity
+                        if (!m_dirty.containsKey(id)) {
+                            alarm.setSeverity(OnmsSeverity.get(rs.getInt("severity")));
+                        }
+                        alarm.setAlarmAckUser(rs.getString("alarmAckUser"));
+                        alarm.setAlarmAckTime(rs.getTimestamp("alarmAckTime"));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Copies the fields of the given alarm. The last event is not copied,
+     * it may be an uninitialized proxy of an alarm loaded in another session.
+     */
+    private static OnmsAlarm copy(OnmsAlarm alarm) {
+        final OnmsAlarm copy = new OnmsAlarm();
+        copy.setId(alarm.getId());
+        copy.setUei(alarm.getUei());
+        copy.setDistPoller(alarm.getDistPoller());
+        copy.setNode(alarm.getNode());
+        copy.setIpAddr(alarm.getIpAddr());
+        copy.setServiceType(alarm.getServiceType());
+        copy.setReductionKey(alarm.getReductionKey());
+        copy.setAlarmType(alarm.getAlarmType());
+        copy.setIfIndex(alarm.getIfIndex());
+        copy.setCounter(alarm.getCounter());
+        copy.setSeverity(alarm.getSeverity());
+        copy.setFirstEventTime(alarm.getFirstEventTime());
+        copy.setLastEventTime(alarm.getLastEventTime());
+        copy.setFirstAutomationTime(alarm.getFirstAutomationTime());
+        copy.setLastAutomationTime(alarm.getLastAutomationTime());
+        copy.setDescription(alarm.getDescription());
+        copy.setLogMsg(alarm.getLogMsg());
+        copy.setOperInstruct(alarm.getOperInstruct());
+        copy.setTTicketId(alarm.getTTicketId());
+        copy.setTTicketState(alarm.getTTicketState());
+        copy.setMouseOverText(alarm.getMouseOverText());
+        copy.setSuppressedUntil(alarm.getSuppressedUntil());
+        copy.setSuppressedUser(alarm.getSuppressedUser());
+        copy.setSuppressedTime(alarm.getSuppressedTime());
+        copy.setAlarmAckUser(alarm.getAlarmAckUser());
+        copy.setAlarmAckTime(alarm.getAlarmAckTime());
+        copy.setClearKey(alarm.getClearKey());
+        copy.setEventParms(alarm.getEventParms());
+        copy.setManagedObjectInstance(alarm.getManagedObjectInstance());
+        copy.setManagedObjectType(alarm.getManagedObjectType());
+        copy.setApplicationDN(alarm.getApplicationDN());
+        copy.setOssPrimaryKey(alarm.getOssPrimaryKey());
+        copy.setX733AlarmType(alarm.getX733AlarmType());
+        copy.setX733ProbableCause(alarm.getX733ProbableCause());
+        copy.setQosAlarmState(alarm.getQosAlarmState());
+        copy.setDetails(alarm.getDetails());
+        copy.setStickyMemo(alarm.getStickyMemo());
+        copy.setReductionKeyMemo(alarm.getReductionKeyMemo());
+        return copy;
+    }
+
+    private static void initialize(OnmsAlarm alarm) {
+        // Touch the lazy associations that NorthboundAlarm reads, the alarm is used outside of its session
+        if (alarm.getNodeId() != null) {
+            alarm.getNode().getForeignSource();
+        }
+        if (alarm.getServiceType() != null) {
+            alarm.getServiceType().getName();
+        }
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        m_enabled = enabled;
+    }
+
+    public long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        m_flushInterval = flushInterval;
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public void setAlarmDao(AlarmDao alarmDao) {
+        m_alarmDao = alarmDao;
+    }
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        m_jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setTransactionOperations(TransactionOperations transactionOperations) {
+        m_transactionOperations = transactionOperations;
+    }
+
+    public void setOrphanedEventHandler(OrphanedEventHandler orphanedEventHandler) {
+        m_orphanedEventHandler = orphanedEventHandler;
+    }
+}
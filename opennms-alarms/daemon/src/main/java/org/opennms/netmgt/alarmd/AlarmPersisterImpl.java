@@ -54,6 +54,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
     private EventForwarder m_eventForwarder;
+    private AlarmCache m_alarmCache;
 
     /** {@inheritDoc} 
      * @return */
@@ -78,10 +79,25 @@ public class AlarmPersisterImpl implements AlarmPersister {
         Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
     
         String reductionKey = event.getAlarmData().getReductionKey();
+
+        if (m_alarmCache != null) {
+            if (m_alarmCache.isStarted()) {
+                final AlarmCache.Reduction reduction = AlarmCache.Reduction.forEvent(e, event);
+                final OnmsAlarm cached = reduction == null ? null : m_alarmCache.reduce(reductionKey, reduction);
+                if (cached != null) {
+                    LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} cached, reduced event to existing alarm: {}", reductionKey, cached.getId());
+                    sendAlarmEvent(EventConstants.ALARM_UPDATED_WITH_REDUCED_EVENT_UEI, cached);
+                    return cached;
+                }
+            }
+            // Write out anything reduced in memory before Hibernate reads the alarm
+            m_alarmCache.flush(reductionKey);
+        }
+
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
         OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
 
-        EventBuilder ebldr = null;
+        String uei = null;
         if (alarm == null) {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} not found, instantiating new alarm", reductionKey);
             alarm = createNewAlarm(e, event);
@@ -90,7 +106,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
             m_alarmDao.save(alarm);
             m_eventDao.saveOrUpdate(e);
 
-            ebldr = new EventBuilder(EventConstants.ALARM_CREATED_UEI, Alarmd.NAME);
+            uei = EventConstants.ALARM_CREATED_UEI;
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getIpAddr());
             reduceEvent(e, alarm, event);
@@ -101,22 +117,29 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), e);
             }
 
-            ebldr = new EventBuilder(EventConstants.ALARM_UPDATED_WITH_REDUCED_EVENT_UEI, Alarmd.NAME);
+            uei = EventConstants.ALARM_UPDATED_WITH_REDUCED_EVENT_UEI;
         }
 
         if (alarm.getNodeId() != null) {
             alarm.getNode().getForeignSource(); // This should trigger the lazy loading of the node object, to properly populate the NorthboundAlarm class.
         }
 
-        if (ebldr != null) {
-            ebldr.addParam(EventConstants.PARM_ALARM_UEI, alarm.getUei());
-            ebldr.addParam(EventConstants.PARM_ALARM_ID, alarm.getId());
-            m_eventForwarder.sendNow(ebldr.getEvent());
+        if (m_alarmCache != null) {
+            m_alarmCache.put(alarm);
         }
 
+        sendAlarmEvent(uei, alarm);
+
         return alarm;
     }
 
+    private void sendAlarmEvent(String uei, OnmsAlarm alarm) {
+        EventBuilder ebldr = new EventBuilder(uei, Alarmd.NAME);
+        ebldr.addParam(EventConstants.PARM_ALARM_UEI, alarm.getUei());
+        ebldr.addParam(EventConstants.PARM_ALARM_ID, alarm.getId());
+        m_eventForwarder.sendNow(ebldr.getEvent());
+    }
+
     private static void reduceEvent(OnmsEvent e, OnmsAlarm alarm, Event event) {
         
         //Always set these
@@ -280,4 +303,17 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public EventForwarder getEventForwarder() {
         return m_eventForwarder;
     }
+
+    /**
+     * <p>setAlarmCache</p>
+     *
+     * @param alarmCache the write-behind alarm cache, may be null
+     */
+    public void setAlarmCache(AlarmCache alarmCache) {
+        m_alarmCache = alarmCache;
+    }
+
+    public AlarmCache getAlarmCache() {
+        return m_alarmCache;
+    }
 }
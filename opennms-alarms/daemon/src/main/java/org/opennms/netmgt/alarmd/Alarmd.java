@@ -62,6 +62,8 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
 
     private AlarmPersister m_persister;
 
+    private AlarmCache m_alarmCache;
+
     //Get all events
     /**
      * <p>onEvent</p>
@@ -160,6 +162,9 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
      */
     @Override
     public void destroy() throws Exception {
+        if (m_alarmCache != null) {
+            m_alarmCache.stop();
+        }
     }
 
     /**
@@ -178,6 +183,16 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
      */
     @Override
     public void start() throws Exception {
+        if (m_alarmCache != null) {
+            m_alarmCache.setOrphanedEventHandler(new AlarmCache.OrphanedEventHandler() {
+                @Override
+                public void onOrphanedEvent(Event event) {
+                    // The alarm the event was reduced onto has been deleted, handle it again
+                    onEvent(event);
+                }
+            });
+            m_alarmCache.start();
+        }
     }
 
     public void onNorthbounderRegistered(final Northbounder northbounder, final Map<String,String> properties) {
@@ -188,6 +203,14 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
         northbounder.stop();
     }
     
+    public AlarmCache getAlarmCache() {
+        return m_alarmCache;
+    }
+
+    public void setAlarmCache(AlarmCache alarmCache) {
+        m_alarmCache = alarmCache;
+    }
+
     public List<Northbounder> getNorthboundInterfaces() {
         return m_northboundInterfaces;
     }
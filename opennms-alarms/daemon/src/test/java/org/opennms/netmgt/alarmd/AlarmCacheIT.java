@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.spring.BeanUtils;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.TemporaryDatabaseAware;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.mock.MockEventUtil;
+import org.opennms.netmgt.mock.MockNetwork;
+import org.opennms.netmgt.mock.MockNode;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.UpdateField;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Verifies that reductions applied to the write-behind {@link AlarmCache}
+ * reach the database once the cache is flushed.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-alarmd.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(dirtiesContext=false,tempDbClass=MockDatabase.class,reuseDatabase=false)
+public class AlarmCacheIT implements TemporaryDatabaseAware<MockDatabase>, InitializingBean {
+
+    private MockNetwork m_mockNetwork = new MockNetwork();
+
+    @Autowired
+    private Alarmd m_alarmd;
+
+    @Autowired
+    private AlarmCache m_alarmCache;
+
+    @Autowired
+    private MonitoringLocationDao m_locationDao;
+
+    @Autowired
+    private NodeDao m_nodeDao;
+
+    @Autowired
+    private EventDao m_eventDao;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    @Autowired
+    private MockEventIpcManager m_eventdIpcMgr;
+
+    private MockDatabase m_database;
+
+    @Override
+    public void setTemporaryDatabase(final MockDatabase database) {
+        m_database = database;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        BeanUtils.assertAutowiring(this);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        m_mockNetwork.createStandardNetwork();
+
+        m_eventdIpcMgr.setEventWriter(m_database);
+
+        final OnmsNode node = new OnmsNode(m_locationDao.getDefaultLocation(), "node1");
+        node.setId(1);
+        m_nodeDao.save(node);
+
+        // Only flush when the test asks for it
+        m_alarmCache.setEnabled(true);
+        m_alarmCache.setFlushInterval(60000);
+        m_alarmCache.setBatchSize(1000);
+        m_alarmd.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_alarmd.destroy();
+        m_alarmCache.setEnabled(false);
+    }
+
+    @Test
+    public void testReductionsAreWrittenOnFlush() throws Exception {
+        final MockNode node = m_mockNetwork.getNode(1);
+
+        for (int i = 0; i < 5; i++) {
+            sendNodeDownEvent("writeBehind", node, null);
+        }
+
+        // The first event created the alarm, the others were reduced in memory
+        assertEquals(1, getCounter("writeBehind"));
+        assertEquals(1, m_jdbcTemplate.queryForObject("select count(*) from events where alarmId is not null", Integer.class).intValue());
+
+        m_alarmCache.flush();
+
+        assertEquals(5, getCounter("writeBehind"));
+        assertEquals(m_jdbcTemplate.queryForObject("select max(eventId) from events", Integer.class), m_jdbcTemplate.queryForObject("select lastEventId from alarms where reductionKey = ?", new Object[] { "writeBehind" }, Integer.class));
+        assertEquals(5, m_jdbcTemplate.queryForObject("select count(*) from events where alarmId is not null", Integer.class).intValue());
+        assertEquals(1, m_jdbcTemplate.queryForObject("select count(*) from alarms", Integer.class).intValue());
+    }
+
+    @Test
+    public void testSeverityUpdateField() throws Exception {
+        final MockNode node = m_mockNetwork.getNode(1);
+
+        sendNodeDownEvent("severity", node, OnmsSeverity.MAJOR);
+        sendNodeDownEvent("severity", node, OnmsSeverity.CRITICAL);
+        m_alarmCache.flush();
+
+        final int severity = m_jdbcTemplate.queryForObject("select severity from alarms where reductionKey = ?", new Object[] { "severity" }, Integer.class).intValue();
+        assertEquals(OnmsSeverity.CRITICAL, OnmsSeverity.get(severity));
+        assertEquals(2, getCounter("severity"));
+    }
+
+    @Test
+    public void testDeletedAlarmIsRecreated() throws Exception {
+        final MockNode node = m_mockNetwork.getNode(1);
+
+        sendNodeDownEvent("deleted", node, null);
+        m_jdbcTemplate.update("delete from alarms where reductionKey = ?", "deleted");
+
+        // Reduced onto the stale entry, which is evicted when the update matches
+        // no rows and the event is handled again
+        sendNodeDownEvent("deleted", node, null);
+        m_alarmCache.flush();
+        assertEquals(1, m_jdbcTemplate.queryForObject("select count(*) from alarms", Integer.class).intValue());
+        assertEquals(1, getCounter("deleted"));
+        assertEquals(m_jdbcTemplate.queryForObject("select max(eventId) from events", Integer.class), m_jdbcTemplate.queryForObject("select lastEventId from alarms where reductionKey = ?", new Object[] { "deleted" }, Integer.class));
+
+        sendNodeDownEvent("deleted", node, null);
+        m_alarmCache.flush();
+        assertEquals(2, getCounter("deleted"));
+    }
+
+    @Test
+    public void testExistingAlarmsAreLoadedOnStart() throws Exception {
+        final MockNode node = m_mockNetwork.getNode(1);
+
+        m_alarmd.destroy();
+        sendNodeDownEvent("warmUp", node, null);
+        m_alarmd.start();
+
+        sendNodeDownEvent("warmUp", node, null);
+        assertEquals(1, getCounter("warmUp"));
+
+        m_alarmCache.flush();
+        assertEquals(2, getCounter("warmUp"));
+    }
+
+    @Test
+    public void testReducedAlarmsAreCopied() throws Exception {
+        final MockNode node = m_mockNetwork.getNode(1);
+
+        sendNodeDownEvent("copied", node, null);
+        final OnmsEvent e = m_eventDao.get(m_jdbcTemplate.queryForObject("select max(eventId) from events", Integer.class));
+        final Event event = createNodeDownEvent("copied", node, null);
+
+        // The alarms handed to the northbounders are not changed by later reductions
+        final OnmsAlarm first = m_alarmCache.reduce("copied", AlarmCache.Reduction.forEvent(e, event));
+        final OnmsAlarm second = m_alarmCache.reduce("copied", AlarmCache.Reduction.forEvent(e, event));
+        assertNotSame(first, second);
+        assertEquals(2, first.getCounter().intValue());
+        assertEquals(3, second.getCounter().intValue());
+    }
+
+    private int getCounter(String reductionKey) {
+        return m_jdbcTemplate.queryForObject("select counter from alarms where reductionKey = ?", new Object[] { reductionKey }, Integer.class).intValue();
+    }
+
+    private void sendNodeDownEvent(String reductionKey, MockNode node, OnmsSeverity severity) {
+        m_eventdIpcMgr.sendNow(createNodeDownEvent(reductionKey, node, severity));
+    }
+
+    private static Event createNodeDownEvent(String reductionKey, MockNode node, OnmsSeverity severity) {
+        EventBuilder event = MockEventUtil.createNodeDownEventBuilder("Test", node);
+
+        AlarmData data = new AlarmData();
+        data.setAlarmType(1);
+        data.setReductionKey(reductionKey);
+
+        if (severity != null) {
+            List<UpdateField> fields = new ArrayList<UpdateField>();
+            UpdateField field = new UpdateField();
+            field.setFieldName("Severity");
+            field.setUpdateOnReduction(Boolean.TRUE);
+            fields.add(field);
+            data.setUpdateField(fields);
+            event.setSeverity(severity.getLabel());
+        }
+        event.setAlarmData(data);
+
+        event.setLogDest("logndisplay");
+        event.setLogMessage("testing");
+
+        return event.getEvent();
+    }
+}
@@ -63,8 +63,43 @@ public interface FilterDao {
      */
     public Map<InetAddress, Set<String>> getIPAddressServiceMap(String rule) throws FilterParseException;
 
+    /**
+     * Returns the nodes, interfaces and services that match the rule, as a
+     * map from each matching node ID to the IP addresses of its matching
+     * interfaces and from each of those to the names of its matching
+     * services. Interfaces that match without any matching service are
+     * mapped to an empty set.
+     *
+     * @param rule an expression rule to be parsed and executed.
+     * @return a {@link java.util.Map} object.
+     * @throws org.opennms.netmgt.filter.FilterParseException if a rule is syntactically incorrect or failed in executing the SQL statement.
+     */
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(String rule) throws FilterParseException;
+
+    /**
+     * Returns the interfaces and services of a single node that match the
+     * rule, like {@link #getNodeIPAddressServiceMap(String)}. The node is
+     * constrained separately from the rule, so querying many nodes with the
+     * same rule does not parse a new rule for each of them.
+     *
+     * @param rule an expression rule to be parsed and executed.
+     * @param nodeId the node to query
+     * @return a {@link java.util.Map} object, with at most the given node.
+     * @throws org.opennms.netmgt.filter.FilterParseException if a rule is syntactically incorrect or failed in executing the SQL statement.
+     */
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(String rule, int nodeId) throws FilterParseException;
+
     void flushActiveIpAddressListCache();
 
+    /**
+     * Flushes the addresses of a single node from the cached results of
+     * {@link #getActiveIPAddressList(String)}, after the node, its
+     * interfaces, services, categories or assets changed.
+     *
+     * @param nodeId the node that changed
+     */
+    void flushActiveIpAddressListCache(int nodeId);
+
     /**
      * Get the (non-deleted) IP addresses that match the specified rule.
      *
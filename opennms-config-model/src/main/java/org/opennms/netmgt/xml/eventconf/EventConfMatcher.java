@@ -0,0 +1,559 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.xml.event.Snmp;
+
+/**
+ * A compiled form of the event configuration used to find the first event
+ * definition that matches a given event.
+ *
+ * The event definitions are flattened in the order in which
+ * {@link Events#scanForFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * would visit them, and are grouped using the same {@link Partition}. Within
+ * each group, the definitions are indexed by the values their masks require
+ * for the UEI, the enterprise id (using a prefix trie for the '%' wildcards)
+ * and the generic/specific trap numbers. A lookup only evaluates the matchers
+ * of the definitions that can possibly match and returns the one that comes
+ * first, so the result is the same as the one of the linear scan.
+ *
+ * Instances are immutable once built and are safe to use from any number of
+ * threads.
+ *
+ * @see Events#initialize(Partition, EventOrdering)
+ */
+public class EventConfMatcher {
+
+	private static final int[] EMPTY_RANKS = new int[0];
+
+	/**
+	 * Upper bound on the number of generic/specific combinations used to index
+	 * a single definition, definitions that exceed it are simply scanned.
+	 */
+	private static final int MAX_TRAP_KEYS = 16;
+
+	private static final int DIM_UEI = 1;
+	private static final int DIM_ID = 2;
+	private static final int DIM_TRAP = 4;
+	private static final int ALL_DIMS = DIM_UEI | DIM_ID | DIM_TRAP;
+
+	private static final List<String> ROUTING_ELEMENTS = Arrays.asList(TAG_UEI, TAG_SNMP_EID, TAG_SNMP_GENERIC, TAG_SNMP_SPECIFIC);
+
+	private final Event[] m_events;
+
+	private final Partition m_partition;
+
+	private final Map<String, Node> m_partitionedNodes;
+
+	private final Node m_nullPartitionNode;
+
+	public EventConfMatcher(final Events events, final Partition partition) {
+		final List<Event> flattened = events.forEachEvent(new ArrayList<Event>(), new Events.EventCallback<List<Event>>() {
+			@Override
+			public List<Event> process(List<Event> accum, Event event) {
+				accum.add(event);
+				return accum;
+			}
+		});
+		m_events = flattened.toArray(new Event[flattened.size()]);
+		m_partition = partition;
+
+		final Map<String, List<Integer>> partitionedRanks = new LinkedHashMap<String, List<Integer>>();
+		final List<Integer> nullPartitionedRanks = new ArrayList<Integer>();
+		for (int rank = 0; rank < m_events.length; rank++) {
+			final List<String> keys = partition == null ? null : partition.group(m_events[rank]);
+			if (keys == null) {
+				nullPartitionedRanks.add(rank);
+			} else {
+				for (final String key : keys) {
+					List<Integer> ranks = partitionedRanks.get(key);
+					if (ranks == null) {
+						ranks = new ArrayList<Integer>(1);
+						partitionedRanks.put(key, ranks);
+					}
+					ranks.add(rank);
+				}
+			}
+		}
+
+		m_partitionedNodes = new HashMap<String, Node>();
+		for (final Map.Entry<String, List<Integer>> entry : partitionedRanks.entrySet()) {
+			m_partitionedNodes.put(entry.getKey(), build(entry.getValue(), ALL_DIMS));
+		}
+		m_nullPartitionNode = build(nullPartitionedRanks, ALL_DIMS);
+	}
+
+	/**
+	 * Returns the first event definition that matches the given event, or
+	 * null if none of them do.
+	 */
+	public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+		final int best = findFirstMatchingRank(matchingEvent);
+		return best == Integer.MAX_VALUE ? null : m_events[best];
+	}
+
+	/**
+	 * Returns true if the result of {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+	 * for the given event only depends on the values of the given mask
+	 * elements, so that it can be reused for any event that has the same
+	 * values for them.
+	 *
+	 * This is the case when the first matching definition, and every
+	 * definition that is evaluated before it, only constrains these mask
+	 * elements and none of the varbinds. The lookup itself is routed by the
+	 * UEI, the enterprise id and the generic and specific trap numbers, so
+	 * they must always be part of the given elements.
+	 */
+	public boolean isDeterminedBy(final org.opennms.netmgt.xml.event.Event matchingEvent, final Set<String> maskElements) {
+		if (!maskElements.containsAll(ROUTING_ELEMENTS)) {
+			return false;
+		}
+		final int best = findFirstMatchingRank(matchingEvent);
+		if (!m_nullPartitionNode.isDeterminedBy(this, matchingEvent, best, maskElements)) {
+			return false;
+		}
+		final Node node = getPartitionNode(matchingEvent);
+		return node == null || node.isDeterminedBy(this, matchingEvent, best, maskElements);
+	}
+
+	private int findFirstMatchingRank(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+		int best = m_nullPartitionNode.find(this, matchingEvent, Integer.MAX_VALUE);
+		final Node node = getPartitionNode(matchingEvent);
+		if (node != null) {
+			best = node.find(this, matchingEvent, best);
+		}
+		return best;
+	}
+
+	private Node getPartitionNode(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+		if (m_partition == null) {
+			return null;
+		}
+		final String key = m_partition.group(matchingEvent);
+		return key == null ? null : m_partitionedNodes.get(key);
+	}
+
+	public int getEventCount() {
+		return m_events.length;
+	}
+
+	/**
+	 * Returns the rank of the first event in the given (sorted) ranks that
+	 * matches, or best if none of those that come before it do.
+	 */
+	private int scan(final int[] ranks, final org.opennms.netmgt.xml.event.Event matchingEvent, final int best) {
+		for (final int rank : ranks) {
+			if (rank >= best) {
+				break;
+			}
+			if (m_events[rank].matches(matchingEvent)) {
+				return rank;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns false if one of the definitions in the given (sorted) ranks that
+	 * come before or at best constrains anything but the given mask elements.
+	 */
+	private boolean isDeterminedBy(final int[] ranks, final int best, final Set<String> maskElements) {
+		for (final int rank : ranks) {
+			if (rank > best) {
+				break;
+			}
+			final Mask mask = m_events[rank].getMask();
+			if (mask == null || mask.getMaskelementCount() <= 0) {
+				// matched on the UEI alone
+				continue;
+			}
+			if (mask.getVarbindCount() > 0) {
+				return false;
+			}
+			for (final Maskelement element : mask.getMaskelementCollection()) {
+				if (!maskElements.contains(element.getMename())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private Node build(final List<Integer> ranks, final int dims) {
+		final Node node = new Node();
+		final List<Integer> rest = new ArrayList<Integer>();
+		final Map<String, List<Integer>> byUei = new LinkedHashMap<String, List<Integer>>();
+		final TrieBuilder byId = new TrieBuilder();
+		final TreeMap<Long, List<Integer>> byTrap = new TreeMap<Long, List<Integer>>();
+
+		for (final Integer rank : ranks) {
+			final Event event = m_events[rank];
+			List<String> values;
+			long[] trapKeys;
+			if ((dims & DIM_UEI) != 0 && (values = requiredUeis(event)) != null) {
+				for (final String uei : values) {
+					add(byUei, uei, rank);
+				}
+			} else if ((dims & DIM_ID) != 0 && (values = exactOrPrefixValues(event, TAG_SNMP_EID)) != null) {
+				for (final String id : values) {
+					byId.add(id, rank);
+				}
+			} else if ((dims & DIM_TRAP) != 0 && (trapKeys = requiredTrapKeys(event)) != null) {
+				for (final long trapKey : trapKeys) {
+					add(byTrap, trapKey, rank);
+				}
+			} else if (event.getMask() == null && event.getUei() == null) {
+				// this definition can never match
+				continue;
+			} else {
+				rest.add(rank);
+			}
+		}
+
+		node.m_rest = toRanks(rest);
+		if (!byUei.isEmpty()) {
+			node.m_byUei = new HashMap<String, Node>();
+			for (final Map.Entry<String, List<Integer>> entry : byUei.entrySet()) {
+				node.m_byUei.put(entry.getKey(), build(entry.getValue(), dims & ~DIM_UEI));
+			}
+		}
+		if (!byId.isEmpty()) {
+			node.m_byId = byId.build(this, dims & ~DIM_ID);
+		}
+		if (!byTrap.isEmpty()) {
+			node.m_trapKeys = new long[byTrap.size()];
+			node.m_byTrap = new Node[byTrap.size()];
+			int i = 0;
+			for (final Map.Entry<Long, List<Integer>> entry : byTrap.entrySet()) {
+				node.m_trapKeys[i] = entry.getKey();
+				node.m_byTrap[i] = build(entry.getValue(), dims & ~DIM_TRAP);
+				i++;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * The UEIs one of which an event must have for the given definition to
+	 * match it, or null if the definition doesn't constrain the UEI that way.
+	 */
+	private static List<String> requiredUeis(final Event event) {
+		final Mask mask = event.getMask();
+		if (mask == null || mask.getMaskelementCount() <= 0) {
+			return event.getUei() == null ? null : Collections.singletonList(event.getUei());
+		}
+		final List<String> values = mask.getMaskElementValues(TAG_UEI);
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+		for (final String value : values) {
+			if (value == null || value.startsWith("~") || value.endsWith("%")) {
+				return null;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * The values of the given mask element if they are all exact values or
+	 * prefixes ending in '%', null otherwise.
+	 */
+	private static List<String> exactOrPrefixValues(final Event event, final String mename) {
+		final List<String> values = event.getMaskElementValues(mename);
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+		for (final String value : values) {
+			if (value == null || value.startsWith("~")) {
+				return null;
+			}
+		}
+		return values;
+	}
+
+	private static long[] requiredTrapKeys(final Event event) {
+		final int[] generics = exactIntValues(event, TAG_SNMP_GENERIC);
+		final int[] specifics = generics == null ? null : exactIntValues(event, TAG_SNMP_SPECIFIC);
+		if (specifics == null || generics.length * specifics.length > MAX_TRAP_KEYS) {
+			return null;
+		}
+		final long[] keys = new long[generics.length * specifics.length];
+		int i = 0;
+		for (final int generic : generics) {
+			for (final int specific : specifics) {
+				keys[i++] = trapKey(generic, specific);
+			}
+		}
+		return keys;
+	}
+
+	private static int[] exactIntValues(final Event event, final String mename) {
+		final List<String> values = event.getMaskElementValues(mename);
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+		final int[] ints = new int[values.size()];
+		for (int i = 0; i < ints.length; i++) {
+			final String value = values.get(i);
+			try {
+				ints[i] = Integer.parseInt(value);
+			} catch (final NumberFormatException e) {
+				return null;
+			}
+			// the matchers compare the string values, so "06" never matches 6
+			if (!Integer.toString(ints[i]).equals(value)) {
+				return null;
+			}
+		}
+		return ints;
+	}
+
+	private static long trapKey(final int generic, final int specific) {
+		return ((long)generic << 32) | (specific & 0xffffffffL);
+	}
+
+	private static <K> void add(final Map<K, List<Integer>> map, final K key, final Integer rank) {
+		List<Integer> ranks = map.get(key);
+		if (ranks == null) {
+			ranks = new ArrayList<Integer>(1);
+			map.put(key, ranks);
+		}
+		// a definition may list the same value more than once
+		if (ranks.isEmpty() || !ranks.get(ranks.size() - 1).equals(rank)) {
+			ranks.add(rank);
+		}
+	}
+
+	private static int[] toRanks(final List<Integer> ranks) {
+		if (ranks.isEmpty()) {
+			return EMPTY_RANKS;
+		}
+		final int[] array = new int[ranks.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = ranks.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * A node in the decision tree: the definitions that are not constrained
+	 * on any of the remaining dimensions are scanned, the others are found
+	 * by following the values of the event.
+	 */
+	private static final class Node {
+		private int[] m_rest = EMPTY_RANKS;
+		private Map<String, Node> m_byUei;
+		private TrieNode m_byId;
+		private long[] m_trapKeys;
+		private Node[] m_byTrap;
+
+		private int find(final EventConfMatcher matcher, final org.opennms.netmgt.xml.event.Event matchingEvent, int best) {
+			best = matcher.scan(m_rest, matchingEvent, best);
+
+			if (m_byUei != null && matchingEvent.getUei() != null) {
+				final Node node = m_byUei.get(matchingEvent.getUei());
+				if (node != null) {
+					best = node.find(matcher, matchingEvent, best);
+				}
+			}
+
+			final Snmp snmp = matchingEvent.getSnmp();
+			if (snmp == null) {
+				return best;
+			}
+
+			if (m_byId != null && snmp.getId() != null) {
+				best = m_byId.find(matcher, snmp.getId(), matchingEvent, best);
+			}
+
+			if (m_byTrap != null && snmp.hasGeneric() && snmp.hasSpecific()) {
+				final int index = Arrays.binarySearch(m_trapKeys, trapKey(snmp.getGeneric(), snmp.getSpecific()));
+				if (index >= 0) {
+					best = m_byTrap[index].find(matcher, matchingEvent, best);
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Visits the same definitions as {@link #find(EventConfMatcher, org.opennms.netmgt.xml.event.Event, int)}.
+		 */
+		private boolean isDeterminedBy(final EventConfMatcher matcher, final org.opennms.netmgt.xml.event.Event matchingEvent, final int best, final Set<String> maskElements) {
+			if (!matcher.isDeterminedBy(m_rest, best, maskElements)) {
+				return false;
+			}
+
+			if (m_byUei != null && matchingEvent.getUei() != null) {
+				final Node node = m_byUei.get(matchingEvent.getUei());
+				if (node != null && !node.isDeterminedBy(matcher, matchingEvent, best, maskElements)) {
+					return false;
+				}
+			}
+
+			final Snmp snmp = matchingEvent.getSnmp();
+			if (snmp == null) {
+				return true;
+			}
+
+			if (m_byId != null && snmp.getId() != null && !m_byId.isDeterminedBy(matcher, snmp.getId(), matchingEvent, best, maskElements)) {
+				return false;
+			}
+
+			if (m_byTrap != null && snmp.hasGeneric() && snmp.hasSpecific()) {
+				final int index = Arrays.binarySearch(m_trapKeys, trapKey(snmp.getGeneric(), snmp.getSpecific()));
+				if (index >= 0 && !m_byTrap[index].isDeterminedBy(matcher, matchingEvent, best, maskElements)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A character trie over the enterprise ids. Each node holds the
+	 * definitions that require the id to be exactly the path to the node, and
+	 * those that require it to start with it.
+	 */
+	private static final class TrieNode {
+		private char[] m_chars;
+		private TrieNode[] m_children;
+		private Node m_exact;
+		private Node m_prefix;
+
+		private int find(final EventConfMatcher matcher, final String id, final org.opennms.netmgt.xml.event.Event matchingEvent, int best) {
+			TrieNode trieNode = this;
+			for (int i = 0; ; i++) {
+				if (trieNode.m_prefix != null) {
+					best = trieNode.m_prefix.find(matcher, matchingEvent, best);
+				}
+				if (i == id.length()) {
+					if (trieNode.m_exact != null) {
+						best = trieNode.m_exact.find(matcher, matchingEvent, best);
+					}
+					return best;
+				}
+				if (trieNode.m_chars == null) {
+					return best;
+				}
+				final int index = Arrays.binarySearch(trieNode.m_chars, id.charAt(i));
+				if (index < 0) {
+					return best;
+				}
+				trieNode = trieNode.m_children[index];
+			}
+		}
+
+		private boolean isDeterminedBy(final EventConfMatcher matcher, final String id, final org.opennms.netmgt.xml.event.Event matchingEvent, final int best, final Set<String> maskElements) {
+			TrieNode trieNode = this;
+			for (int i = 0; ; i++) {
+				if (trieNode.m_prefix != null && !trieNode.m_prefix.isDeterminedBy(matcher, matchingEvent, best, maskElements)) {
+					return false;
+				}
+				if (i == id.length()) {
+					return trieNode.m_exact == null || trieNode.m_exact.isDeterminedBy(matcher, matchingEvent, best, maskElements);
+				}
+				if (trieNode.m_chars == null) {
+					return true;
+				}
+				final int index = Arrays.binarySearch(trieNode.m_chars, id.charAt(i));
+				if (index < 0) {
+					return true;
+				}
+				trieNode = trieNode.m_children[index];
+			}
+		}
+	}
+
+	private static final class TrieBuilder {
+		private final TreeMap<Character, TrieBuilder> m_children = new TreeMap<Character, TrieBuilder>();
+		private final List<Integer> m_exact = new ArrayList<Integer>();
+		private final List<Integer> m_prefix = new ArrayList<Integer>();
+		private boolean m_empty = true;
+
+		private boolean isEmpty() {
+			return m_empty;
+		}
+
+		private void add(final String value, final Integer rank) {
+			m_empty = false;
+			final boolean prefix = value.endsWith("%");
+			final String path = prefix ? value.substring(0, value.length() - 1) : value;
+			TrieBuilder builder = this;
+			for (int i = 0; i < path.length(); i++) {
+				TrieBuilder child = builder.m_children.get(path.charAt(i));
+				if (child == null) {
+					child = new TrieBuilder();
+					builder.m_children.put(path.charAt(i), child);
+				}
+				builder = child;
+			}
+			final List<Integer> ranks = prefix ? builder.m_prefix : builder.m_exact;
+			if (ranks.isEmpty() || !ranks.get(ranks.size() - 1).equals(rank)) {
+				ranks.add(rank);
+			}
+		}
+
+		private TrieNode build(final EventConfMatcher matcher, final int dims) {
+			final TrieNode node = new TrieNode();
+			if (!m_exact.isEmpty()) {
+				node.m_exact = matcher.build(m_exact, dims);
+			}
+			if (!m_prefix.isEmpty()) {
+				node.m_prefix = matcher.build(m_prefix, dims);
+			}
+			if (!m_children.isEmpty()) {
+				node.m_chars = new char[m_children.size()];
+				node.m_children = new TrieNode[m_children.size()];
+				int i = 0;
+				for (final Map.Entry<Character, TrieBuilder> entry : m_children.entrySet()) {
+					node.m_chars[i] = entry.getKey();
+					node.m_children[i] = entry.getValue().build(matcher, dims);
+					i++;
+				}
+			}
+			return node;
+		}
+	}
+}
@@ -102,13 +102,13 @@ public class Events implements Serializable {
 	private Map<String, Events> m_loadedEventFiles = new LinkedHashMap<String, Events>();
 
 	@XmlTransient
-	private Partition m_partition;
+	private volatile Partition m_partition;
 	
 	@XmlTransient
-	private Map<String, List<Event>> m_partitionedEvents;
+	private volatile Map<String, List<Event>> m_partitionedEvents;
 	
 	@XmlTransient
-	private List<Event> m_nullPartitionedEvents;
+	private volatile List<Event> m_nullPartitionedEvents;
 	
         @XmlTransient
         private List<Event> m_wildcardEvents;
@@ -116,6 +116,9 @@ public class Events implements Serializable {
 	@XmlTransient
 	private EventOrdering m_ordering;
 	
+	@XmlTransient
+	private volatile EventConfMatcher m_matcher;
+	
 	public EventOrdering getOrdering() {
 	    return m_ordering;
 	}
@@ -393,31 +396,63 @@ public class Events implements Serializable {
 	}
 	
 	private void partitionEvents(Partition partition) {
-		m_partition = partition;
-
-		m_partitionedEvents = new LinkedHashMap<String, List<Event>>();
-		m_nullPartitionedEvents = new ArrayList<Event>();
+		// Build the partitions off to the side and only publish them once
+		// they are complete since the loaded event files are shared between
+		// the old and the new root when the configuration is reloaded, and
+		// the old root may still be in use by concurrent lookups
+		final Map<String, List<Event>> partitionedEvents = new LinkedHashMap<String, List<Event>>();
+		final List<Event> nullPartitionedEvents = new ArrayList<Event>();
 		
 		for(Event event : m_events) {
 			List<String> keys = partition.group(event);
 			if (keys == null) {
-				m_nullPartitionedEvents.add(event);
+				nullPartitionedEvents.add(event);
 			} else {
 				for(String key : keys) {
-					List<Event> events = m_partitionedEvents.get(key);
+					List<Event> events = partitionedEvents.get(key);
 					if (events == null) {
 						events = new ArrayList<Event>(1);
-						m_partitionedEvents.put(key, events);
+						partitionedEvents.put(key, events);
 					}
 					events.add(event);
 				}
 			}
 		}
 		
-		
+		m_partitionedEvents = partitionedEvents;
+		m_nullPartitionedEvents = nullPartitionedEvents;
+		m_partition = partition;
 	}
 	
+	/**
+	 * Finds the first event definition that matches the given event, using
+	 * the compiled {@link EventConfMatcher} if this is the root of an
+	 * initialized configuration.
+	 */
 	public Event findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
+		final EventConfMatcher matcher = m_matcher;
+		if (matcher != null) {
+			return matcher.findFirstMatchingEvent(matchingEvent);
+		}
+		return scanForFirstMatchingEvent(matchingEvent);
+	}
+
+	/**
+	 * Returns the matcher compiled by the last call to
+	 * {@link #initialize(Partition, EventOrdering)}, or null if this is not the
+	 * root of an initialized configuration. A new matcher is compiled every
+	 * time the configuration changes, so callers that cache its results can
+	 * compare it against the one they used.
+	 */
+	public EventConfMatcher getMatcher() {
+		return m_matcher;
+	}
+
+	/**
+	 * Finds the first event definition that matches the given event by
+	 * evaluating each of the candidates from the partition in order.
+	 */
+	public Event scanForFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
 		String key = m_partition.group(matchingEvent);
 		SortedSet<Event> potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
 		if (key != null) {
@@ -437,7 +472,7 @@ public class Events implements Serializable {
 		
 		for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
 			Events subEvents = loadedEvents.getValue();
-			Event event = subEvents.findFirstMatchingEvent(matchingEvent);
+			Event event = subEvents.scanForFirstMatchingEvent(matchingEvent);
 			if (event != null) {
 				return event;
 			}
@@ -481,7 +516,17 @@ public class Events implements Serializable {
 		return result;
 	}
 	
+	/**
+	 * Orders and partitions the events of this configuration and of all of
+	 * the loaded event files, and compiles the {@link EventConfMatcher} used
+	 * by {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}.
+	 */
 	public void initialize(Partition partition, EventOrdering eventOrdering) {
+		initializeEvents(partition, eventOrdering);
+		m_matcher = new EventConfMatcher(this, partition);
+	}
+
+	private void initializeEvents(Partition partition, EventOrdering eventOrdering) {
 	    
 	        m_ordering = eventOrdering;
 	    
@@ -493,7 +538,7 @@ public class Events implements Serializable {
 		
 		for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
 			Events events = loadedEvents.getValue();
-			events.initialize(partition, m_ordering.subsequence());
+			events.initializeEvents(partition, m_ordering.subsequence());
 		}
 
 	}
@@ -73,6 +73,22 @@ public class ConfigTesterFilterDao implements FilterDao {
         return new HashMap<InetAddress, Set<String>>();
     }
 
+    /* (non-Javadoc)
+     * @see org.opennms.netmgt.filter.api.FilterDao#getNodeIPAddressServiceMap(java.lang.String)
+     */
+    @Override
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(String rule) throws FilterParseException {
+        return new HashMap<Integer, Map<InetAddress, Set<String>>>();
+    }
+
+    /* (non-Javadoc)
+     * @see org.opennms.netmgt.filter.api.FilterDao#getNodeIPAddressServiceMap(java.lang.String, int)
+     */
+    @Override
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(String rule, int nodeId) throws FilterParseException {
+        return new HashMap<Integer, Map<InetAddress, Set<String>>>();
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.filter.api.FilterDao#flushActiveIpAddressListCache()
      */
@@ -80,6 +96,13 @@ public class ConfigTesterFilterDao implements FilterDao {
     public void flushActiveIpAddressListCache() {
     }
 
+    /* (non-Javadoc)
+     * @see org.opennms.netmgt.filter.api.FilterDao#flushActiveIpAddressListCache(int)
+     */
+    @Override
+    public void flushActiveIpAddressListCache(int nodeId) {
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.filter.api.FilterDao#getActiveIPAddressList(java.lang.String)
      */
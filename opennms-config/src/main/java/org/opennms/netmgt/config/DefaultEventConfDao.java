@@ -30,6 +30,7 @@ package org.opennms.netmgt.config;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -47,7 +48,6 @@ import org.opennms.netmgt.xml.eventconf.EventMatchers;
 import org.opennms.netmgt.xml.eventconf.EventOrdering;
 import org.opennms.netmgt.xml.eventconf.Events;
 import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
-import org.opennms.netmgt.xml.eventconf.Events.EventCriteria;
 import org.opennms.netmgt.xml.eventconf.Field;
 import org.opennms.netmgt.xml.eventconf.Partition;
 import org.springframework.beans.factory.InitializingBean;
@@ -64,7 +64,14 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
      */
     private String m_programmaticStoreRelativePath = DEFAULT_PROGRAMMATIC_STORE_RELATIVE_PATH;
 
-	private Events m_events;
+	/**
+	 * The current event configuration. Readers (i.e. the Eventd handler
+	 * threads) do not lock and never see a configuration being modified:
+	 * every reload and every mutator below builds a new root off to the side
+	 * and publishes it, together with its UEI index, with a single write.
+	 * The mutators are serialized on this DAO.
+	 */
+	private volatile EventConfSnapshot m_snapshot;
 
 	private Resource m_configResource;
 
@@ -95,7 +102,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public List<Event> getEvents(final String uei) {
-		List<Event> events = m_events.forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
+		List<Event> events = m_snapshot.getEvents().forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
 
 			@Override
 			public List<Event> process(List<Event> accum, Event event) {
@@ -111,7 +118,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public List<String> getEventUEIs() {
-		return m_events.forEachEvent(new ArrayList<String>(), new EventCallback<List<String>>() {
+		return m_snapshot.getEvents().forEachEvent(new ArrayList<String>(), new EventCallback<List<String>>() {
 
 			@Override
 			public List<String> process(List<String> ueis, Event event) {
@@ -124,7 +131,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public Map<String, String> getEventLabels() {
-		return m_events.forEachEvent(new TreeMap<String, String>(), new EventCallback<Map<String, String>>() {
+		return m_snapshot.getEvents().forEachEvent(new TreeMap<String, String>(), new EventCallback<Map<String, String>>() {
 
 			@Override
 			public Map<String, String> process(Map<String, String> ueiToLabelMap, Event event) {
@@ -144,13 +151,13 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public void saveCurrent() {
-		m_events.save(m_configResource);
+		m_snapshot.getEvents().save(m_configResource);
 	}
 	
 	
 	
 	public List<Event> getAllEvents() {
-		return m_events.forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
+		return m_snapshot.getEvents().forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
 
 			@Override
 			public List<Event> process(List<Event> accum, Event event) {
@@ -162,7 +169,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public List<Event> getEventsByLabel() {
-		SortedSet<Event> events = m_events.forEachEvent(new TreeSet<Event>(new EventLabelComparator()), new EventCallback<SortedSet<Event>>() {
+		SortedSet<Event> events = m_snapshot.getEvents().forEachEvent(new TreeSet<Event>(new EventLabelComparator()), new EventCallback<SortedSet<Event>>() {
 		
 			@Override
 			public SortedSet<Event> process(SortedSet<Event> accum, Event event) {
@@ -174,35 +181,36 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	}
 
 	@Override
-	public void addEvent(Event event) {
-		m_events.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
+	public synchronized void addEvent(Event event) {
+		Events events = copyRoot(m_snapshot.getEvents());
+		events.addEvent(event);
+		publish(events);
 	}
 
 	@Override
-	public void addEventToProgrammaticStore(Event event) {
-		Events programmaticEvents = m_events.getLoadEventsByFile(m_programmaticStoreRelativePath);
-		if (programmaticEvents == null) {
-			programmaticEvents = new Events();
-			m_events.addLoadedEventFile(m_programmaticStoreRelativePath, programmaticEvents);
-		}
-
+	public synchronized void addEventToProgrammaticStore(Event event) {
+		Events events = copyRoot(m_snapshot.getEvents());
+		Events programmaticEvents = copyEvents(events.getLoadEventsByFile(m_programmaticStoreRelativePath));
 		programmaticEvents.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
-
+		events.addLoadedEventFile(m_programmaticStoreRelativePath, programmaticEvents);
+		publish(events);
 	}
 
 	@Override
-	public boolean removeEventFromProgrammaticStore(Event event) {
-		Events programmaticEvents = m_events.getLoadEventsByFile(m_programmaticStoreRelativePath);
+	public synchronized boolean removeEventFromProgrammaticStore(Event event) {
+		Events events = copyRoot(m_snapshot.getEvents());
+		Events programmaticEvents = events.getLoadEventsByFile(m_programmaticStoreRelativePath);
 		if (programmaticEvents == null) return false;
 
+		programmaticEvents = copyEvents(programmaticEvents);
 		programmaticEvents.removeEvent(event);
 		if (programmaticEvents.getEventCount() <= 0) {
-			m_events.removeLoadedEventFile(m_programmaticStoreRelativePath);
-		} 
+			events.removeLoadedEventFile(m_programmaticStoreRelativePath);
+		} else {
+			events.addLoadedEventFile(m_programmaticStoreRelativePath, programmaticEvents);
+		}
 
-		m_events.initialize(m_partition, new EventOrdering());
+		publish(events);
 
 		return true;
 
@@ -210,7 +218,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public boolean isSecureTag(String tag) {
-		return m_events.isSecureTag(tag);
+		return m_snapshot.getEvents().isSecureTag(tag);
 	}
 
 	@Override
@@ -218,21 +226,17 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	    if (uei == null) {
 	        return null;
 	    }
-	    return m_events.findFirstMatchingEvent(new EventCriteria() {
-	        @Override public boolean matches(final Event e) {
-	            return uei.equals(e.getUei());
-	        }
-	    });
+	    return m_snapshot.getEventByUei(uei);
 	}
 
 	@Override
 	public Event findByEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-		return m_events.findFirstMatchingEvent(matchingEvent);
+		return m_snapshot.getEvents().findFirstMatchingEvent(matchingEvent);
 	}
 
 	@Override
 	public Events getRootEvents() {
-		return m_events;
+		return m_snapshot.getEvents();
 	}
 
 	public void setConfigResource(Resource configResource) throws IOException {
@@ -269,6 +273,70 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		
 	}
 
+	/**
+	 * An initialized event configuration root along with the index of its
+	 * events by UEI. Neither is modified once the snapshot is published.
+	 */
+	private static final class EventConfSnapshot {
+		private final Events m_events;
+		private final Map<String, Event> m_eventsByUei;
+
+		private EventConfSnapshot(final Events events) {
+			m_events = events;
+			// Index the events in the order they are visited so that the
+			// event kept for each UEI is the first one a scan would find
+			m_eventsByUei = events.forEachEvent(new HashMap<String, Event>(), new EventCallback<Map<String, Event>>() {
+
+				@Override
+				public Map<String, Event> process(Map<String, Event> eventsByUei, Event event) {
+					if (!eventsByUei.containsKey(event.getUei())) {
+						eventsByUei.put(event.getUei(), event);
+					}
+					return eventsByUei;
+				}
+			});
+		}
+
+		public Events getEvents() {
+			return m_events;
+		}
+
+		public Event getEventByUei(final String uei) {
+			return m_eventsByUei.get(uei);
+		}
+	}
+
+	/**
+	 * Copies the given root so that it can be modified without affecting
+	 * the published configuration. The loaded event files are shared.
+	 */
+	private static Events copyRoot(final Events events) {
+		final Events copy = copyEvents(events);
+		copy.setGlobal(events.getGlobal());
+		copy.setEventFile(events.getEventFileCollection());
+		for (final String eventFile : events.getEventFileCollection()) {
+			final Events loadedEvents = events.getLoadEventsByFile(eventFile);
+			if (loadedEvents != null) {
+				copy.addLoadedEventFile(eventFile, loadedEvents);
+			}
+		}
+		return copy;
+	}
+
+	private static Events copyEvents(final Events events) {
+		final Events copy = new Events();
+		if (events != null) {
+			copy.setEvent(events.getEventCollection());
+		}
+		return copy;
+	}
+
+	private void publish(final Events events) {
+		// Order the events for efficient searching
+		events.initialize(m_partition, new EventOrdering());
+		m_snapshot = new EventConfSnapshot(events);
+	}
+
     private synchronized void reloadConfig() throws DataAccessException {
         try {
             // Load the root event file
@@ -280,21 +348,19 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
             // Copy the loaded event files from the current root to the new root
             // if and only if they exist in the new root
-            for (String eventFile : m_events.getEventFile()) {
+            final Events current = m_snapshot.getEvents();
+            for (String eventFile : current.getEventFile()) {
                 if (!eventFiles.contains(eventFile)) {
                     m_lastModifiedEventFiles.remove(eventFile);
                     continue;
                 }
-                events.addLoadedEventFile(eventFile, m_events.getLoadEventsByFile(eventFile));
+                events.addLoadedEventFile(eventFile, current.getLoadEventsByFile(eventFile));
             }
 
             // Load/reload the event files as necessary
             events.loadEventFilesIfModified(m_configResource, m_lastModifiedEventFiles);
 
-            // Order the events for efficient searching
-            events.initialize(m_partition, new EventOrdering());
-
-            m_events = events;
+            publish(events);
         } catch (Exception e) {
             throw new DataRetrievalFailureException("Unabled to load " + m_configResource, e);
         }
@@ -306,9 +372,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_lastModifiedEventFiles = events.loadEventFiles(m_configResource);
 
 			m_partition = new EnterpriseIdPartition();
-			events.initialize(m_partition, new EventOrdering());
-
-			m_events = events;
+			publish(events);
 		} catch (Exception e) {
 			throw new DataRetrievalFailureException("Unabled to load " + m_configResource, e);
 		}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the nodes, interfaces and services that each filter rule matches in
+ * memory, so that whether the node, interface and service of an event match
+ * a rule is answered without querying the database.
+ * <p/>
+ * The membership of a rule is loaded with
+ * {@link FilterDao#getNodeIPAddressServiceMap(String)} when the rule is first
+ * used. When a node changes, {@link #invalidateNode(int)} marks it as stale
+ * in all of the rules, and the rules query the node again, with
+ * {@link FilterDao#getNodeIPAddressServiceMap(String, int)}, the next time
+ * they are used. Changes that are not signaled are picked up by loading
+ * every rule again once it is older than the refresh interval.
+ */
+public class FilterMembershipCache {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterMembershipCache.class);
+
+    /**
+     * If more nodes than this are stale, the whole rule is loaded again
+     * instead of querying each of the nodes.
+     */
+    private static final int MAX_NODE_REFRESHES = 20;
+
+    private final long m_refreshInterval;
+
+    private final Map<String, Membership> m_memberships = new HashMap<>();
+
+    private long m_loads = 0;
+
+    private long m_nodeRefreshes = 0;
+
+    /**
+     * @param refreshInterval the time in milliseconds after which the rules are loaded again
+     */
+    public FilterMembershipCache(final long refreshInterval) {
+        m_refreshInterval = TimeUnit.MILLISECONDS.toNanos(refreshInterval);
+    }
+
+    /**
+     * Checks whether the rule matches the given node, interface and service,
+     * as the rule would when it was constrained to them.
+     *
+     * @param filterDao the DAO to load the rule with
+     * @param rule the filter rule
+     * @param nodeId the node to match, or 0 to match any node
+     * @param ipAddr the interface to match, or null to match any interface
+     * @param service the service to match, or null to match any service. Only used with an interface.
+     * @return true if there is a match
+     * @throws FilterParseException if the rule is invalid
+     */
+    public synchronized boolean isMatching(final FilterDao filterDao, final String rule, final int nodeId, final String ipAddr, final String service) throws FilterParseException {
+        final Membership membership = getMembership(filterDao, rule);
+
+        if (ipAddr == null) {
+            return nodeId == 0 ? !membership.m_nodes.isEmpty() : membership.m_nodes.containsKey(nodeId);
+        }
+
+        final InetAddress addr = addr(ipAddr);
+        if (addr == null) {
+            return false;
+        }
+        if (nodeId != 0) {
+            return isMatching(membership.m_nodes.get(nodeId), addr, service);
+        }
+        final Set<Integer> nodeIds = membership.m_addresses.get(addr);
+        if (nodeIds != null) {
+            for (final Integer eachNodeId : nodeIds) {
+                if (isMatching(membership.m_nodes.get(eachNodeId), addr, service)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMatching(final Map<InetAddress, Set<String>> interfaces, final InetAddress addr, final String service) {
+        if (interfaces == null) {
+            return false;
+        }
+        final Set<String> services = interfaces.get(addr);
+        return services != null && (service == null || services.contains(service));
+    }
+
+    /**
+     * Marks the node as stale in all of the rules.
+     */
+    public synchronized void invalidateNode(final int nodeId) {
+        for (final Membership membership : m_memberships.values()) {
+            membership.m_staleNodes.add(nodeId);
+        }
+    }
+
+    /**
+     * Drops all of the rules.
+     */
+    public synchronized void clear() {
+        m_memberships.clear();
+    }
+
+    /**
+     * @return the number of times a rule was loaded
+     */
+    public synchronized long getLoads() {
+        return m_loads;
+    }
+
+    /**
+     * @return the number of times a stale node was queried
+     */
+    public synchronized long getNodeRefreshes() {
+        return m_nodeRefreshes;
+    }
+
+    private Membership getMembership(final FilterDao filterDao, final String rule) throws FilterParseException {
+        Membership membership = m_memberships.get(rule);
+        if (membership == null || System.nanoTime() - membership.m_loadedAt >= m_refreshInterval || membership.m_staleNodes.size() > MAX_NODE_REFRESHES) {
+            LOG.debug("Loading the nodes, interfaces and services that match rule {}", rule);
+            membership = new Membership(filterDao.getNodeIPAddressServiceMap(rule));
+            m_memberships.put(rule, membership);
+            m_loads++;
+        } else if (!membership.m_staleNodes.isEmpty()) {
+            for (final Integer nodeId : membership.m_staleNodes) {
+                LOG.debug("Refreshing node {} in rule {}", nodeId, rule);
+                membership.setNode(nodeId, filterDao.getNodeIPAddressServiceMap(rule, nodeId).get(nodeId));
+                m_nodeRefreshes++;
+            }
+            membership.m_staleNodes.clear();
+        }
+        return membership;
+    }
+
+    private static class Membership {
+        private final long m_loadedAt = System.nanoTime();
+        private final Map<Integer, Map<InetAddress, Set<String>>> m_nodes = new HashMap<>();
+        private final Map<InetAddress, Set<Integer>> m_addresses = new HashMap<>();
+        private final Set<Integer> m_staleNodes = new HashSet<>();
+
+        private Membership(final Map<Integer, Map<InetAddress, Set<String>>> nodes) {
+            for (final Map.Entry<Integer, Map<InetAddress, Set<String>>> node : nodes.entrySet()) {
+                setNode(node.getKey(), node.getValue());
+            }
+        }
+
+        private void setNode(final Integer nodeId, final Map<InetAddress, Set<String>> interfaces) {
+            final Map<InetAddress, Set<String>> previous = m_nodes.remove(nodeId);
+            if (previous != null) {
+                for (final InetAddress addr : previous.keySet()) {
+                    final Set<Integer> nodeIds = m_addresses.get(addr);
+                    nodeIds.remove(nodeId);
+                    if (nodeIds.isEmpty()) {
+                        m_addresses.remove(addr);
+                    }
+                }
+            }
+            if (interfaces == null || interfaces.isEmpty()) {
+                return;
+            }
+            final Map<InetAddress, Set<String>> compact = new HashMap<>(interfaces.size() * 2);
+            for (final Map.Entry<InetAddress, Set<String>> iface : interfaces.entrySet()) {
+                compact.put(iface.getKey(), iface.getValue().isEmpty() ? Collections.<String>emptySet() : iface.getValue());
+                Set<Integer> nodeIds = m_addresses.get(iface.getKey());
+                if (nodeIds == null) {
+                    nodeIds = new HashSet<>(2);
+                    m_addresses.put(iface.getKey(), nodeIds);
+                }
+                nodeIds.add(nodeId);
+            }
+            m_nodes.put(nodeId, compact);
+        }
+    }
+}
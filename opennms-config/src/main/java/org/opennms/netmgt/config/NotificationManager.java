@@ -66,6 +66,7 @@ import org.opennms.netmgt.config.notifications.Notifications;
 import org.opennms.netmgt.config.notifications.Parameter;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.filter.FilterDaoFactory;
+import org.opennms.netmgt.filter.NodeChangeEvents;
 import org.opennms.netmgt.filter.api.FilterParseException;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
@@ -147,9 +148,22 @@ public abstract class NotificationManager {
     /** Constant <code>PARAM_MICROBLOG_USERNAME="-ublog"</code> */
     public static final String PARAM_MICROBLOG_USERNAME = "-ublog";
 
+    /**
+     * The number of milliseconds after which the nodes, interfaces and
+     * services matched by the notification filter rules are loaded again.
+     * Set to 0 to evaluate the rules in the database for every event instead.
+     */
+    public static final String FILTER_REFRESH_INTERVAL_PROPERTY = "org.opennms.notifd.filterRefreshInterval";
+
     NotifdConfigManager m_configManager;
     private DataSource m_dataSource;
 
+    private volatile NotificationRuleIndex m_ruleIndex;
+
+    private final long m_filterRefreshInterval = Long.getLong(FILTER_REFRESH_INTERVAL_PROPERTY, 600000);
+
+    private final FilterMembershipCache m_filterMembership = new FilterMembershipCache(m_filterRefreshInterval);
+
     /**
      * A parameter expansion algorithm, designed to replace strings delimited by
      * percent signs '%' with a value supplied by a Map object.
@@ -223,18 +237,21 @@ public abstract class NotificationManager {
     public boolean hasUei(final String uei) throws IOException, MarshalException, ValidationException {
         update();
 
-        for (Notification notif : m_notifications.getNotificationCollection()) {
-            if (uei.equals(notif.getUei()) || "MATCH-ANY-UEI".equals(notif.getUei())) {
-                return true;
-            } else if (notif.getUei().charAt(0) == '~') {
-                if (uei.matches(notif.getUei().substring(1))) {
-                    return true;
-                }
+        return getRuleIndex().hasUei(uei);
+    }
 
-            }
+    /**
+     * Returns the index of the current notifications, creating it again if
+     * the notifications were loaded or saved since it was created.
+     */
+    private NotificationRuleIndex getRuleIndex() {
+        NotificationRuleIndex ruleIndex = m_ruleIndex;
+        if (ruleIndex == null || ruleIndex.getNotifications() != m_notifications) {
+            ruleIndex = new NotificationRuleIndex(m_notifications);
+            m_ruleIndex = ruleIndex;
+            m_filterMembership.clear();
         }
-
-        return false;
+        return ruleIndex;
     }
 
     /**
@@ -262,27 +279,10 @@ public abstract class NotificationManager {
             return null;
         }
 
-        for (Notification curNotif : m_notifications.getNotificationCollection()) {
-
-            LOG.trace("Checking notification {} against event {} with UEI {}", curNotif.getUei(), event.getDbid(), event.getUei());
+        // Only the notifications whose UEI matches the event are checked
+        for (Notification curNotif : getRuleIndex().getNotifications(event.getUei())) {
 
-            if (event.getUei().equals(curNotif.getUei()) || "MATCH-ANY-UEI".equals(curNotif.getUei())) {
-                // Match!
-            	LOG.debug("Exact match using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
-            } else if (curNotif.getUei().charAt(0) == '~') {
-                if (event.getUei().matches(curNotif.getUei().substring(1))) {
-                	//Match!
-                    LOG.debug("Regex hit using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
-                } else {
-
-                    LOG.trace("Notification regex {} failed to match event UEI: {}", event.getUei(), curNotif.getUei());
-                    continue;
-                }
-            } else {
-
-                LOG.debug("Notification UEI {} did not match UEI of event {}: {}", curNotif.getUei(), event.getDbid(), event.getUei());
-                continue;
-            }
+            LOG.debug("Notification UEI {} matched UEI of event {}: {}", curNotif.getUei(), event.getDbid(), event.getUei());
 
             /**
              * Check if event severity matches pattern in notification
@@ -378,6 +378,18 @@ public abstract class NotificationManager {
             return true;
         }
 
+        if (m_filterRefreshInterval > 0) {
+            final String ipAddr = event.getInterface() != null && !"0.0.0.0".equals(event.getInterface()) ? event.getInterface() : null;
+            try {
+                return m_filterMembership.isMatching(FilterDaoFactory.getInstance(), notif.getRule(), event.getNodeid().intValue(), ipAddr, ipAddr == null ? null : event.getService());
+            } catch (FilterParseException e) {
+                LOG.error("Invalid filter rule for notification {}: {}", notif.getName(), notif.getRule(), e);
+                throw e;
+            } catch (UnsupportedOperationException e) {
+                LOG.debug("The filter DAO does not support loading rules, evaluating the rule in the database instead.", e);
+            }
+        }
+
         StringBuffer constraints = new StringBuffer();
         if (event.getNodeid() != 0) {
             constraints.append(" & (nodeId == " + event.getNodeid() + ")");
@@ -396,6 +408,20 @@ public abstract class NotificationManager {
         return isRuleMatchingFilter(notif, rule);
     }
 
+    /**
+     * Marks the nodes that the given event changed, so that the nodes,
+     * interfaces and services matched by the notification filter rules are
+     * loaded again for them. This has to be called for every event before
+     * the notifications for it are looked up.
+     *
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     */
+    public void updateFilterMembership(final Event event) {
+        for (final Integer nodeId : NodeChangeEvents.getChangedNodeIds(event)) {
+            m_filterMembership.invalidateNode(nodeId);
+        }
+    }
+
     private boolean isRuleMatchingFilter(final Notification notif, final String rule) {
         try {
             return FilterDaoFactory.getInstance().isRuleMatching(rule);
@@ -1112,6 +1138,7 @@ public abstract class NotificationManager {
      */
     public synchronized void saveCurrent() throws MarshalException, ValidationException, IOException, ClassNotFoundException {
         m_notifications.setHeader(rebuildHeader());
+        m_ruleIndex = null;
 
         // Marshal to a string first, then write the string to the file. This
         // way the original configuration
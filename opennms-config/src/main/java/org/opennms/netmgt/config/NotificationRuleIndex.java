@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the configured notifications by the UEIs they match, so that the
+ * notifications for an event are found without comparing its UEI to every
+ * configured notification.
+ * <p/>
+ * The notifications for a specific UEI are found with a single lookup. The
+ * notifications that match any UEI or a regular expression, whose patterns
+ * are compiled once here, are checked for every event. In either case the
+ * notifications are returned in the order in which they are configured.
+ */
+public class NotificationRuleIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationRuleIndex.class);
+
+    private static final String MATCH_ANY_UEI = "MATCH-ANY-UEI";
+
+    private final Notifications m_notifications;
+
+    private final Map<String, List<IndexedNotification>> m_byUei = new HashMap<>();
+
+    private final List<IndexedNotification> m_wildcards = new ArrayList<>();
+
+    /**
+     * @param notifications the configuration to index. Changes to it are not
+     *            reflected by the index, which has to be created again.
+     */
+    public NotificationRuleIndex(final Notifications notifications) {
+        m_notifications = notifications;
+
+        int position = 0;
+        for (final Notification notif : notifications.getNotificationCollection()) {
+            final String uei = notif.getUei();
+            if (MATCH_ANY_UEI.equals(uei)) {
+                m_wildcards.add(new IndexedNotification(position, notif, null));
+            } else if (uei.charAt(0) == '~') {
+                try {
+                    m_wildcards.add(new IndexedNotification(position, notif, Pattern.compile(uei.substring(1))));
+                } catch (final PatternSyntaxException e) {
+                    LOG.error("Invalid UEI regex {} in notification {}, the notification will never match.", uei, notif.getName(), e);
+                }
+            } else {
+                List<IndexedNotification> notifs = m_byUei.get(uei);
+                if (notifs == null) {
+                    notifs = new ArrayList<>(1);
+                    m_byUei.put(uei, notifs);
+                }
+                notifs.add(new IndexedNotification(position, notif, null));
+            }
+            position++;
+        }
+    }
+
+    /**
+     * @return the configuration this index was created from
+     */
+    public Notifications getNotifications() {
+        return m_notifications;
+    }
+
+    /**
+     * @return whether any notification matches the UEI
+     */
+    public boolean hasUei(final String uei) {
+        if (m_byUei.containsKey(uei)) {
+            return true;
+        }
+        for (final IndexedNotification wildcard : m_wildcards) {
+            if (wildcard.matches(uei)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the notifications that match the UEI, in the order in which
+     * they are configured. Their other criteria still have to be checked.
+     */
+    public List<Notification> getNotifications(final String uei) {
+        final List<IndexedNotification> exact = m_byUei.containsKey(uei) ? m_byUei.get(uei) : Collections.<IndexedNotification>emptyList();
+        final List<Notification> notifs = new ArrayList<>(exact.size());
+
+        // Merge the exact matches with the matching wildcards by their position
+        int i = 0;
+        for (final IndexedNotification wildcard : m_wildcards) {
+            if (!wildcard.matches(uei)) {
+                continue;
+            }
+            while (i < exact.size() && exact.get(i).m_position < wildcard.m_position) {
+                notifs.add(exact.get(i++).m_notification);
+            }
+            notifs.add(wildcard.m_notification);
+        }
+        while (i < exact.size()) {
+            notifs.add(exact.get(i++).m_notification);
+        }
+        return notifs;
+    }
+
+    private static class IndexedNotification {
+        private final int m_position;
+        private final Notification m_notification;
+        private final Pattern m_pattern;
+
+        private IndexedNotification(final int position, final Notification notification, final Pattern pattern) {
+            m_position = position;
+            m_notification = notification;
+            m_pattern = pattern;
+        }
+
+        private boolean matches(final String uei) {
+            return m_pattern == null || m_pattern.matcher(uei).matches();
+        }
+    }
+}
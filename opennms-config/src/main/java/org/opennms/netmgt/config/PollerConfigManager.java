@@ -120,6 +120,7 @@ abstract public class PollerConfigManager implements PollerConfig {
      */
     protected void setUpInternalData() {
         createUrlIpMap();
+        FilterDaoFactory.getInstance().flushActiveIpAddressListCache();
         createPackageIpListMap();
         initializeServiceMonitors();
     }
@@ -462,7 +463,6 @@ abstract public class PollerConfigManager implements PollerConfig {
                 filterRules.append(")");
             }
             LOG.debug("createPackageIpMap: package is {}. filter rules are {}", pkg.getName(), filterRules);
-            FilterDaoFactory.getInstance().flushActiveIpAddressListCache();
             return FilterDaoFactory.getInstance().getActiveIPAddressList(filterRules.toString());
         } finally {
             getReadLock().unlock();
@@ -168,6 +168,7 @@ abstract public class SnmpInterfacePollerConfigManager implements SnmpInterfaceP
     protected synchronized void reloadXML(InputStream stream) throws MarshalException, ValidationException, IOException {
         m_config = CastorUtils.unmarshal(SnmpInterfacePollerConfiguration.class, stream);
         createUrlIpMap();
+        FilterDaoFactory.getInstance().flushActiveIpAddressListCache();
         createPackageIpListMap();
     }
 
@@ -331,7 +332,6 @@ abstract public class SnmpInterfacePollerConfigManager implements SnmpInterfaceP
             filterRules.append(")");
         }
         LOG.debug("createPackageIpMap: package is {}. filer rules are {}", filterRules, pkg.getName());
-        FilterDaoFactory.getInstance().flushActiveIpAddressListCache();
         return FilterDaoFactory.getInstance().getActiveIPAddressList(filterRules.toString());
     }
 
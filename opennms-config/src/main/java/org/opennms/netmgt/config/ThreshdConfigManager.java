@@ -140,6 +140,7 @@ public abstract class ThreshdConfigManager {
     protected void createPackageIpListMap() {
     
         m_pkgIpMap = new HashMap<Package, List<InetAddress>>();
+        FilterDaoFactory.getInstance().flushActiveIpAddressListCache();
     
         Enumeration<org.opennms.netmgt.config.threshd.Package> pkgEnum = m_config.enumeratePackage();
         while (pkgEnum.hasMoreElements()) {
@@ -163,7 +164,6 @@ public abstract class ThreshdConfigManager {
 
                 LOG.debug("createPackageIpMap: package is {}. filer rules are {}", filterRules, pkg.getName());
     
-                FilterDaoFactory.getInstance().flushActiveIpAddressListCache();
                 List<InetAddress> ipList = FilterDaoFactory.getInstance().getActiveIPAddressList(filterRules.toString());
                 if (ipList.size() > 0) {
                     m_pkgIpMap.put(pkg, ipList);
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import java.net.InetAddress;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.opennms.core.utils.InetAddressComparator;
+
+/**
+ * An immutable list of the distinct addresses that a filter rule matched,
+ * sorted so that {@link #contains(Object)} is a binary search instead of a
+ * scan of the whole list. The addresses are kept grouped by node, with the
+ * matching nodes in a {@link BitSet}, so that the addresses of the nodes that
+ * changed can be replaced with {@link #withNodes(Map)} without querying the
+ * rule again for all of the other nodes.
+ */
+public class ActiveIpAddressList extends AbstractList<InetAddress> implements RandomAccess {
+    private static final InetAddressComparator COMPARATOR = new InetAddressComparator();
+
+    private final Map<Integer, InetAddress[]> m_nodes;
+
+    private final BitSet m_nodeIds = new BitSet();
+
+    private final InetAddress[] m_addresses;
+
+    /**
+     * @param nodes the addresses of each matching node. The map is owned by
+     *            the list afterwards and must not be changed.
+     */
+    public ActiveIpAddressList(final Map<Integer, InetAddress[]> nodes) {
+        m_nodes = nodes;
+
+        int count = 0;
+        for (final Map.Entry<Integer, InetAddress[]> node : nodes.entrySet()) {
+            m_nodeIds.set(node.getKey());
+            count += node.getValue().length;
+        }
+        InetAddress[] addresses = new InetAddress[count];
+        int i = 0;
+        for (final InetAddress[] nodeAddresses : nodes.values()) {
+            System.arraycopy(nodeAddresses, 0, addresses, i, nodeAddresses.length);
+            i += nodeAddresses.length;
+        }
+        Arrays.sort(addresses, COMPARATOR);
+
+        // Addresses that are shared by several nodes are listed once, as the
+        // SELECT DISTINCT of the rule returns them
+        int distinct = 0;
+        for (i = 0; i < addresses.length; i++) {
+            if (distinct == 0 || COMPARATOR.compare(addresses[distinct - 1], addresses[i]) != 0) {
+                addresses[distinct++] = addresses[i];
+            }
+        }
+        m_addresses = distinct == addresses.length ? addresses : Arrays.copyOf(addresses, distinct);
+    }
+
+    /**
+     * Returns a copy of this list in which the addresses of the given nodes
+     * are replaced.
+     *
+     * @param nodes the addresses of each node that now match, or an empty array for nodes that no longer match
+     */
+    public ActiveIpAddressList withNodes(final Map<Integer, InetAddress[]> nodes) {
+        final Map<Integer, InetAddress[]> merged = new HashMap<>(m_nodes);
+        for (final Map.Entry<Integer, InetAddress[]> node : nodes.entrySet()) {
+            if (node.getValue().length == 0) {
+                merged.remove(node.getKey());
+            } else {
+                merged.put(node.getKey(), node.getValue());
+            }
+        }
+        return new ActiveIpAddressList(merged);
+    }
+
+    /**
+     * @return true if any of the addresses of the node matched
+     */
+    public boolean containsNode(final int nodeId) {
+        return nodeId >= 0 && m_nodeIds.get(nodeId);
+    }
+
+    @Override
+    public InetAddress get(final int index) {
+        return m_addresses[index];
+    }
+
+    @Override
+    public int size() {
+        return m_addresses.length;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof InetAddress && Arrays.binarySearch(m_addresses, (InetAddress)o, COMPARATOR) >= 0;
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        if (o instanceof InetAddress) {
+            final int index = Arrays.binarySearch(m_addresses, (InetAddress)o, COMPARATOR);
+            return index < 0 ? -1 : index;
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(final Object o) {
+        return indexOf(o);
+    }
+}
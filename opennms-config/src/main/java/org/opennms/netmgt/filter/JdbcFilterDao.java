@@ -33,17 +33,21 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.InetAddress;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,8 +62,6 @@ import org.opennms.netmgt.filter.api.FilterParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
@@ -79,9 +81,31 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 	private static final Pattern SQL_IPLIKE_PATTERN = Pattern.compile("(\\w+)\\s+IPLIKE\\s+([0-9a-f.:*,-]+|###@\\d+@###)", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
 	private static final String SQL_IPLIKE6_RHS_REGEX = "^[0-9A-Fa-f:*,-]+$";
 
+    /**
+     * The number of milliseconds after which the active IP address list of a
+     * rule is queried again, even if none of its nodes were flushed. Set to 0
+     * to query the database every time.
+     */
+    public static final String ACTIVE_IP_ADDRESS_LIST_REFRESH_INTERVAL_PROPERTY = "org.opennms.netmgt.filter.activeIpAddressListRefreshInterval";
+
+    /** The maximum number of parsed rules and of active IP address lists that are kept */
+    private static final int MAX_CACHED_RULES = 1000;
+
+    /**
+     * If more nodes than this were flushed, the whole active IP address list
+     * is queried again instead of each of the nodes.
+     */
+    private static final int MAX_NODE_REFRESHES = 20;
+
 	private DataSource m_dataSource;
     private DatabaseSchemaConfig m_databaseSchemaConfigFactory;
 
+    private final long m_refreshInterval = TimeUnit.MILLISECONDS.toNanos(Long.getLong(ACTIVE_IP_ADDRESS_LIST_REFRESH_INTERVAL_PROPERTY, 600000));
+
+    private final Map<String, ParsedRule> m_parsedRules = createCache();
+
+    private final Map<String, CachedAddressList> m_activeIpAddressLists = createCache();
+
     /**
      * <p>setDataSource</p>
      *
@@ -107,6 +131,8 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      */
     public void setDatabaseSchemaConfigFactory(final DatabaseSchemaConfig factory) {
         m_databaseSchemaConfigFactory = factory;
+        m_parsedRules.clear();
+        flushActiveIpAddressListCache();
     }
 
     /**
@@ -155,9 +181,9 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             LOG.debug("Filter.getNodeMap({}): SQL statement: {}", rule, sqlString);
 
             // execute query
-            final Statement stmt = conn.createStatement();
+            final PreparedStatement stmt = conn.prepareStatement(sqlString);
             d.watch(stmt);
-            final ResultSet rset = stmt.executeQuery(sqlString);
+            final ResultSet rset = stmt.executeQuery();
             d.watch(rset);
 
             if (rset != null) {
@@ -202,9 +228,9 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             LOG.debug("Filter.getIPAddressServiceMap({}): SQL statement: {}", rule, sqlString);
 
             // execute query
-            final Statement stmt = conn.createStatement();
+            final PreparedStatement stmt = conn.prepareStatement(sqlString);
             d.watch(stmt);
-            final ResultSet rset = stmt.executeQuery(sqlString);
+            final ResultSet rset = stmt.executeQuery();
             d.watch(rset);
 
             // fill up the array list if the result set has values
@@ -242,28 +268,178 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return ipServices;
     }
 
+    /** {@inheritDoc} */
     @Override
-    @CacheEvict(value="activeIpAddressList", allEntries=true)
-    public void flushActiveIpAddressListCache() {}
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule) throws FilterParseException {
+        return getNodeIPAddressServiceMap(rule, 0);
+    }
 
     /**
      * {@inheritDoc}
+     *
+     * Only the rule itself is kept in the cache of parsed rules, the node is
+     * appended to the parsed statements.
      */
-    @Cacheable("activeIpAddressList")
     @Override
-    public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
-    	return getIPAddressList(rule, true);
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule, final int nodeId) throws FilterParseException {
+        final Map<Integer, Map<InetAddress, Set<String>>> nodes = new HashMap<Integer, Map<InetAddress, Set<String>>>();
+        final Map<String, String> serviceNames = new HashMap<String, String>();
+        String sqlString;
+
+        LOG.debug("Filter.getNodeIPAddressServiceMap({}, {})", rule, nodeId);
+
+        // get the database connection
+        Connection conn = null;
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            conn = getDataSource().getConnection();
+            d.watch(conn);
+
+            // The interfaces are selected without joining the services so
+            // that interfaces without any service are included
+            sqlString = getNodeInterfaceStatement(rule, nodeId);
+            LOG.debug("Filter.getNodeIPAddressServiceMap({}, {}): SQL statement: {}", rule, nodeId, sqlString);
+
+            final PreparedStatement stmt = conn.prepareStatement(sqlString);
+            d.watch(stmt);
+            final ResultSet rset = stmt.executeQuery();
+            d.watch(rset);
+
+            while (rset.next()) {
+                final InetAddress ipaddr = addr(rset.getString(2));
+                if (ipaddr != null) {
+                    Map<InetAddress, Set<String>> interfaces = nodes.get(rset.getInt(1));
+                    if (interfaces == null) {
+                        interfaces = new HashMap<InetAddress, Set<String>>();
+                        nodes.put(rset.getInt(1), interfaces);
+                    }
+                    interfaces.put(ipaddr, new TreeSet<String>());
+                }
+            }
+
+            sqlString = getInterfaceWithServiceStatement(rule, nodeId);
+            LOG.debug("Filter.getNodeIPAddressServiceMap({}, {}): SQL statement: {}", rule, nodeId, sqlString);
+
+            final PreparedStatement svcStmt = conn.prepareStatement(sqlString);
+            d.watch(svcStmt);
+            final ResultSet svcRset = svcStmt.executeQuery();
+            d.watch(svcRset);
+
+            while (svcRset.next()) {
+                final Map<InetAddress, Set<String>> interfaces = nodes.get(svcRset.getInt(3));
+                final Set<String> services = interfaces == null ? null : interfaces.get(addr(svcRset.getString(1)));
+                if (services != null) {
+                    // Share the service names between all of the interfaces
+                    final String serviceName = svcRset.getString(2);
+                    final String shared = serviceNames.get(serviceName);
+                    if (shared == null) {
+                        serviceNames.put(serviceName, serviceName);
+                        services.add(serviceName);
+                    } else {
+                        services.add(shared);
+                    }
+                }
+            }
+        } catch (final FilterParseException e) {
+            LOG.warn("Filter Parse Exception occurred getting node IP Service Map.", e);
+            throw new FilterParseException("Filter Parse Exception occurred getting node IP Service Map: " + e.getLocalizedMessage(), e);
+        } catch (final SQLException e) {
+            LOG.warn("SQL Exception occurred getting node IP Service Map.", e);
+            throw new FilterParseException("SQL Exception occurred getting node IP Service Map: " + e.getLocalizedMessage(), e);
+        } catch (final RuntimeException e) {
+            LOG.error("Unexpected exception getting database connection.", e);
+            throw e;
+        } catch (final Error e) {
+            LOG.error("Unexpected exception getting database connection.", e);
+            throw e;
+        } finally {
+            d.cleanUp();
+        }
+
+        return nodes;
     }
 
     /**
      * {@inheritDoc}
+     *
+     * The active IP address lists of all rules are queried again the next
+     * time they are used.
      */
     @Override
-    public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
-    	return getIPAddressList(rule, false);
+    public void flushActiveIpAddressListCache() {
+        m_activeIpAddressLists.clear();
     }
 
-    private List<InetAddress> getIPAddressList(final String rule, final boolean filterDeleted) throws FilterParseException {
+    /**
+     * {@inheritDoc}
+     *
+     * The node is queried again in the active IP address lists of all rules
+     * the next time they are used.
+     */
+    @Override
+    public void flushActiveIpAddressListCache(final int nodeId) {
+        final List<CachedAddressList> lists;
+        synchronized (m_activeIpAddressLists) {
+            lists = new ArrayList<CachedAddressList>(m_activeIpAddressLists.values());
+        }
+        for (final CachedAddressList list : lists) {
+            list.m_staleNodes.add(nodeId);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The addresses are kept in memory until they are flushed with
+     * {@link #flushActiveIpAddressListCache()} or, for a single node, with
+     * {@link #flushActiveIpAddressListCache(int)}, or until they are older
+     * than the refresh interval. The returned list must not be modified.
+     */
+    @Override
+    public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+        if (m_refreshInterval <= 0) {
+            return new ActiveIpAddressList(getActiveNodeAddresses(rule, 0));
+        }
+
+        CachedAddressList cached;
+        synchronized (m_activeIpAddressLists) {
+            cached = m_activeIpAddressLists.get(rule);
+            if (cached == null) {
+                cached = new CachedAddressList();
+                m_activeIpAddressLists.put(rule, cached);
+            }
+        }
+
+        synchronized (cached) {
+            // Nodes that are flushed while the database is queried stay stale
+            final List<Integer> staleNodes = new ArrayList<Integer>(cached.m_staleNodes);
+            cached.m_staleNodes.removeAll(staleNodes);
+            try {
+                if (cached.m_addresses == null || System.nanoTime() - cached.m_loadedAt >= m_refreshInterval || staleNodes.size() > MAX_NODE_REFRESHES) {
+                    final long loadedAt = System.nanoTime();
+                    cached.m_addresses = new ActiveIpAddressList(getActiveNodeAddresses(rule, 0));
+                    cached.m_loadedAt = loadedAt;
+                } else if (!staleNodes.isEmpty()) {
+                    final Map<Integer, InetAddress[]> nodes = new HashMap<Integer, InetAddress[]>();
+                    for (final Integer nodeId : staleNodes) {
+                        final InetAddress[] addresses = getActiveNodeAddresses(rule, nodeId).get(nodeId);
+                        nodes.put(nodeId, addresses == null ? new InetAddress[0] : addresses);
+                    }
+                    cached.m_addresses = cached.m_addresses.withNodes(nodes);
+                }
+            } catch (final RuntimeException e) {
+                cached.m_staleNodes.addAll(staleNodes);
+                throw e;
+            }
+            return cached.m_addresses;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
     	final List<InetAddress> resultList = new ArrayList<InetAddress>();
         String sqlString;
 
@@ -276,21 +452,15 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             // parse the rule and get the sql select statement
             sqlString = getSQLStatement(rule);
 
-            if (filterDeleted) {
-            	if (!sqlString.contains("isManaged")) {
-            		sqlString += " AND (ipInterface.isManaged != 'D' or ipInterface.isManaged IS NULL)";
-            	}
-            }
-
             conn = getDataSource().getConnection();
             d.watch(conn);
 
             LOG.debug("Filter.getIPAddressList({}): SQL statement: {}", rule, sqlString);
 
             // execute query and return the list of ip addresses
-            final Statement stmt = conn.createStatement();
+            final PreparedStatement stmt = conn.prepareStatement(sqlString);
             d.watch(stmt);
-            final ResultSet rset = stmt.executeQuery(sqlString);
+            final ResultSet rset = stmt.executeQuery();
             d.watch(rset);
 
             // fill up the array list if the result set has values
@@ -318,6 +488,70 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return resultList;
     }
 
+    /**
+     * Queries the interfaces that match the rule and are not deleted.
+     *
+     * @param rule the filter rule
+     * @param nodeId the node to query, or 0 to query all nodes
+     * @return the addresses of each node
+     */
+    private Map<Integer, InetAddress[]> getActiveNodeAddresses(final String rule, final int nodeId) throws FilterParseException {
+        final Map<Integer, List<InetAddress>> nodes = new HashMap<Integer, List<InetAddress>>();
+        String sqlString;
+
+        LOG.debug("Filter.getActiveNodeAddresses({}, {})", rule, nodeId);
+
+        // get the database connection
+        Connection conn = null;
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            // parse the rule and get the sql select statement
+            sqlString = getActiveNodeInterfaceStatement(rule);
+            if (nodeId != 0) {
+                sqlString += " AND " + m_databaseSchemaConfigFactory.addColumn(new ArrayList<Table>(), "nodeID") + " = " + nodeId;
+            }
+
+            conn = getDataSource().getConnection();
+            d.watch(conn);
+
+            LOG.debug("Filter.getActiveNodeAddresses({}, {}): SQL statement: {}", rule, nodeId, sqlString);
+
+            final PreparedStatement stmt = conn.prepareStatement(sqlString);
+            d.watch(stmt);
+            final ResultSet rset = stmt.executeQuery();
+            d.watch(rset);
+
+            while (rset.next()) {
+                final InetAddress ipaddr = addr(rset.getString(2));
+                if (ipaddr != null) {
+                    List<InetAddress> addresses = nodes.get(rset.getInt(1));
+                    if (addresses == null) {
+                        addresses = new ArrayList<InetAddress>(1);
+                        nodes.put(rset.getInt(1), addresses);
+                    }
+                    addresses.add(ipaddr);
+                }
+            }
+        } catch (final FilterParseException e) {
+            LOG.warn("Filter Parse Exception occurred getting active IP List.", e);
+            throw new FilterParseException("Filter Parse Exception occurred getting active IP List: " + e.getLocalizedMessage(), e);
+        } catch (final SQLException e) {
+            LOG.warn("SQL Exception occurred getting active IP List.", e);
+            throw new FilterParseException("SQL Exception occurred getting active IP List: " + e.getLocalizedMessage(), e);
+        } catch (final Throwable e) {
+            LOG.error("Exception getting database connection.", e);
+            throw new UndeclaredThrowableException(e);
+        } finally {
+            d.cleanUp();
+        }
+
+        final Map<Integer, InetAddress[]> result = new HashMap<Integer, InetAddress[]>(nodes.size() * 2);
+        for (final Map.Entry<Integer, List<InetAddress>> node : nodes.entrySet()) {
+            result.put(node.getKey(), node.getValue().toArray(new InetAddress[node.getValue().size()]));
+        }
+        return result;
+    }
+
 	/**
      * {@inheritDoc}
      *
@@ -333,7 +567,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         } else {
             /*
              * see if the ip address is contained in the list that the
-             * rule returns
+             * rule returns, which is a binary search in the cached list
              */
             return getActiveIPAddressList(rule).contains(addr(addr));
         }
@@ -360,9 +594,9 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             LOG.debug("Filter.isRuleMatching({}): SQL statement: {}", rule, sqlString);
 
             // execute query and return the list of ip addresses
-            final Statement stmt = conn.createStatement();
+            final PreparedStatement stmt = conn.prepareStatement(sqlString);
             d.watch(stmt);
-            final ResultSet rset = stmt.executeQuery(sqlString);
+            final ResultSet rset = stmt.executeQuery();
             d.watch(rset);
 
             // we only want to check if zero or one rows were fetched, so just
@@ -433,6 +667,65 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return "SELECT " + columns.toString() + " " + from + " " + where;
     }
 
+    /**
+     * <p>getNodeInterfaceStatement</p>
+     *
+     * @param rule a {@link java.lang.String} object.
+     * @return a {@link java.lang.String} object.
+     * @throws org.opennms.netmgt.filter.api.FilterParseException if any.
+     */
+    public String getNodeInterfaceStatement(final String rule) throws FilterParseException {
+        return getNodeInterfaceStatement(rule, 0);
+    }
+
+    private String getNodeInterfaceStatement(final String rule, final int nodeId) throws FilterParseException {
+    	final List<Table> tables = new ArrayList<Table>();
+
+    	final StringBuffer columns = new StringBuffer();
+        final String nodeIdColumn = m_databaseSchemaConfigFactory.addColumn(tables, "nodeID");
+        columns.append(nodeIdColumn);
+        columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
+
+        final String where = constrainToNode(parseRule(tables, rule), nodeIdColumn, nodeId);
+        final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
+
+        return "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
+    }
+
+    /**
+     * <p>getActiveNodeInterfaceStatement</p>
+     *
+     * The interfaces that are marked as deleted are excluded, unless the
+     * rule itself constrains the isManaged column. The statement always has
+     * a WHERE clause, to which further constraints can be appended.
+     *
+     * @param rule a {@link java.lang.String} object.
+     * @return a {@link java.lang.String} object.
+     * @throws org.opennms.netmgt.filter.api.FilterParseException if any.
+     */
+    public String getActiveNodeInterfaceStatement(final String rule) throws FilterParseException {
+    	final List<Table> tables = new ArrayList<Table>();
+
+    	final StringBuffer columns = new StringBuffer();
+        columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "nodeID"));
+        columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
+
+        final String where = parseRule(tables, rule);
+        final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
+
+        final StringBuffer statement = new StringBuffer("SELECT DISTINCT " + columns.toString() + " " + from + " WHERE ");
+        if (where.length() > 0) {
+            statement.append("(" + where.substring("WHERE ".length()) + ")");
+            if (!where.contains("isManaged")) {
+                statement.append(" AND ");
+            }
+        }
+        if (!where.contains("isManaged")) {
+            statement.append("(ipInterface.isManaged != 'D' or ipInterface.isManaged IS NULL)");
+        }
+        return statement.toString();
+    }
+
     /**
      * <p>getInterfaceWithServiceStatement</p>
      *
@@ -441,19 +734,39 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      * @throws org.opennms.netmgt.filter.api.FilterParseException if any.
      */
     public String getInterfaceWithServiceStatement(final String rule) throws FilterParseException {
+        return getInterfaceWithServiceStatement(rule, 0);
+    }
+
+    private String getInterfaceWithServiceStatement(final String rule, final int nodeId) throws FilterParseException {
     	final List<Table> tables = new ArrayList<Table>();
 
     	final StringBuffer columns = new StringBuffer();
         columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
         columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "serviceName"));
-        columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "nodeID"));
+        final String nodeIdColumn = m_databaseSchemaConfigFactory.addColumn(tables, "nodeID");
+        columns.append(", " + nodeIdColumn);
 
-        final String where = parseRule(tables, rule);
+        final String where = constrainToNode(parseRule(tables, rule), nodeIdColumn, nodeId);
         final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
 
         return "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
     }
 
+    /**
+     * Constrains the WHERE clause of a parsed rule to a single node, or
+     * returns it unchanged if the node ID is 0.
+     */
+    private static String constrainToNode(final String where, final String nodeIdColumn, final int nodeId) {
+        if (nodeId == 0) {
+            return where;
+        }
+        final String constraint = nodeIdColumn + " = " + nodeId;
+        if (where.length() == 0) {
+            return "WHERE " + constraint;
+        }
+        return "WHERE (" + where.substring("WHERE ".length()) + ") AND " + constraint;
+    }
+
     /**
      * This method parses a rule and returns the SQL select statement equivalent
      * of the rule.
@@ -562,6 +875,27 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      *             if any errors occur during parsing
      */
     private String parseRule(final List<Table> tables, final String rule) throws FilterParseException {
+        if (rule == null) {
+            return parseRuleUncached(tables, rule);
+        }
+
+        // The parsed rules are reused, with the tables they reference in the
+        // order in which they were added
+        ParsedRule parsed = m_parsedRules.get(rule);
+        if (parsed == null) {
+            final List<Table> ruleTables = new ArrayList<Table>();
+            parsed = new ParsedRule(parseRuleUncached(ruleTables, rule), ruleTables);
+            m_parsedRules.put(rule, parsed);
+        }
+        for (final Table table : parsed.m_tables) {
+            if (!tables.contains(table)) {
+                tables.add(table);
+            }
+        }
+        return parsed.m_where;
+    }
+
+    private String parseRuleUncached(final List<Table> tables, final String rule) throws FilterParseException {
         if (rule != null && rule.length() > 0) {
         	final List<String> extractedStrings = new ArrayList<String>();
         	
@@ -661,4 +995,31 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return "";
     }
 
+    private static <V> Map<String, V> createCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                return size() > MAX_CACHED_RULES;
+            }
+        });
+    }
+
+    private static class ParsedRule {
+        private final String m_where;
+        private final List<Table> m_tables;
+
+        private ParsedRule(final String where, final List<Table> tables) {
+            m_where = where;
+            m_tables = tables;
+        }
+    }
+
+    private static class CachedAddressList {
+        private final Set<Integer> m_staleNodes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        private ActiveIpAddressList m_addresses;
+        private long m_loadedAt;
+    }
+
 }
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the nodes whose interfaces, services, categories or assets were
+ * changed by an event, and which filter rules may therefore match
+ * differently than before.
+ */
+public abstract class NodeChangeEvents {
+    private static final Logger LOG = LoggerFactory.getLogger(NodeChangeEvents.class);
+
+    /**
+     * The events that signal changes to the nodes, interfaces or services
+     * that filter rules may match
+     */
+    private static final Set<String> NODE_CHANGE_EVENT_UEIS = new HashSet<>(Arrays.asList(
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+            EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+            EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            EventConstants.ASSET_INFO_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_INDEX_CHANGED_EVENT_UEI,
+            EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+            EventConstants.SERVICE_DELETED_EVENT_UEI,
+            EventConstants.SERVICE_UNMANAGED_EVENT_UEI));
+
+    /**
+     * Returns the nodes that the event changed. An interface that moved to
+     * another node changes both the old and the new node.
+     *
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @return the IDs of the changed nodes, empty if the event does not change any nodes
+     */
+    public static Set<Integer> getChangedNodeIds(final Event event) {
+        final String uei = event.getUei();
+        if (EventConstants.INTERFACE_REPARENTED_EVENT_UEI.equals(uei)) {
+            final Set<Integer> nodeIds = new HashSet<>(2);
+            for (final Parm parm : event.getParmCollection()) {
+                if (EventConstants.PARM_OLD_NODEID.equals(parm.getParmName()) || EventConstants.PARM_NEW_NODEID.equals(parm.getParmName())) {
+                    try {
+                        nodeIds.add(Integer.valueOf(parm.getValue().getContent()));
+                    } catch (final NumberFormatException e) {
+                        LOG.warn("Invalid node ID {} in event {}", parm.getValue().getContent(), uei);
+                    }
+                }
+            }
+            return nodeIds;
+        } else if (event.hasNodeid() && NODE_CHANGE_EVENT_UEIS.contains(uei)) {
+            return Collections.singleton(event.getNodeid().intValue());
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Flushes the nodes that the event changed from the active IP address
+     * lists of the filter DAO.
+     *
+     * @param filterDao the filter DAO
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     */
+    public static void flushChangedNodes(final FilterDao filterDao, final Event event) {
+        for (final Integer nodeId : getChangedNodeIds(event)) {
+            filterDao.flushActiveIpAddressListCache(nodeId);
+        }
+    }
+}
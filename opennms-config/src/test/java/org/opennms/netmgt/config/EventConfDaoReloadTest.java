@@ -1,9 +1,13 @@
 package org.opennms.netmgt.config;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -12,6 +16,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.xml.eventconf.Event;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
@@ -126,6 +131,58 @@ public class EventConfDaoReloadTest {
         assertEquals(5, eventConfDao.getAllEvents().size());
     }
 
+    /**
+     * Verify that lookups running concurrently with changes to the
+     * programmatic store never see a configuration being modified.
+     */
+    @Test
+    public void canChangeProgrammaticStoreWhileReading() throws Exception {
+        final DefaultEventConfDao eventConfDao = new DefaultEventConfDao();
+        eventConfDao.setConfigResource(getResourceForRelativePath("reloaded/eventconf.xml"));
+        eventConfDao.afterPropertiesSet();
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread reader = new Thread("eventconf-reader") {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        eventConfDao.getAllEvents();
+                        eventConfDao.getEventLabels();
+                        assertNotNull(eventConfDao.findByUei("uei.opennms.org/troubleTicket/cancel"));
+                    }
+                } catch (final Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        reader.start();
+
+        try {
+            for (int i = 0; i < 500; i++) {
+                final Event event = new Event();
+                event.setUei("uei.opennms.org/test/programmatic/" + i);
+                event.setEventLabel("Programmatic event " + i);
+                eventConfDao.addEventToProgrammaticStore(event);
+                assertEquals(event, eventConfDao.findByUei(event.getUei()));
+                if (i % 2 == 0) {
+                    eventConfDao.removeEventFromProgrammaticStore(event);
+                    assertNull(eventConfDao.findByUei(event.getUei()));
+                }
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError("Reader failed while the programmatic store was changing", failure.get());
+        }
+        assertEquals(3 + 250, eventConfDao.getAllEvents().size());
+        assertEquals(1, eventConfDao.getEvents("uei.opennms.org/test/programmatic/1").size());
+    }
+
     private Resource getResourceForRelativePath(String resourceSuffix) {
         return new ClassPathResource("/org/opennms/netmgt/config/eventd/" + resourceSuffix);
     }
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.eventconf.EventConfMatcher;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Verifies that the compiled {@link org.opennms.netmgt.xml.eventconf.EventConfMatcher}
+ * finds the same event definitions as the linear scan over the stock
+ * event configuration.
+ */
+public class EventConfMatcherTest {
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(false, "ERROR");
+
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+    }
+
+    @Test
+    public void testCompiledMatcherAgreesWithScan() {
+        final Events events = m_eventConfDao.getRootEvents();
+        final EventConfMatcher matcher = events.getMatcher();
+
+        int matched = 0;
+        final List<Event> eventsToMatch = new ArrayList<>();
+        for (final org.opennms.netmgt.xml.eventconf.Event eventConf : m_eventConfDao.getAllEvents()) {
+            eventsToMatch.clear();
+            addEventsFor(eventConf, eventsToMatch);
+            for (final Event event : eventsToMatch) {
+                final org.opennms.netmgt.xml.eventconf.Event expected = events.scanForFirstMatchingEvent(event);
+                assertSame("mismatch for event generated from " + eventConf.getUei(), expected, events.findFirstMatchingEvent(event));
+                if (expected != null) {
+                    matched++;
+                }
+            }
+        }
+
+        // Make sure that we actually exercised the matchers
+        assertTrue("only " + matched + " events matched", matched > m_eventConfDao.getAllEvents().size() / 2);
+    }
+
+    @Test
+    public void testCompiledMatcherAfterAddingEvent() {
+        final org.opennms.netmgt.xml.eventconf.Event eventConf = new org.opennms.netmgt.xml.eventconf.Event();
+        eventConf.setUei("uei.opennms.org/test/compiledMatcher");
+        eventConf.setEventLabel("Compiled Matcher Test");
+        eventConf.setSeverity("Normal");
+        m_eventConfDao.addEvent(eventConf);
+
+        final Event event = new EventBuilder("uei.opennms.org/test/compiledMatcher", "test").getEvent();
+        assertSame(eventConf, m_eventConfDao.findByEvent(event));
+        assertEquals(eventConf.getUei(), m_eventConfDao.findByUei(eventConf.getUei()).getUei());
+    }
+
+    @Test
+    public void testIsDeterminedBy() {
+        final Events events = m_eventConfDao.getRootEvents();
+        final EventConfMatcher matcher = events.getMatcher();
+        final Set<String> identity = new HashSet<>(Arrays.asList("uei", "source", "id", "generic", "specific"));
+
+        int determined = 0;
+        int undetermined = 0;
+        final List<Event> eventsToMatch = new ArrayList<>();
+        for (final org.opennms.netmgt.xml.eventconf.Event eventConf : m_eventConfDao.getAllEvents()) {
+            eventsToMatch.clear();
+            addEventsFor(eventConf, eventsToMatch);
+            for (final Event event : eventsToMatch) {
+                if (!matcher.isDeterminedBy(event, identity)) {
+                    undetermined++;
+                    continue;
+                }
+                determined++;
+
+                // An event with the same identity but without any parameters must match the same definition
+                final EventBuilder builder = new EventBuilder(event.getUei(), event.getSource());
+                builder.setHost("192.0.2.1");
+                if (event.getSnmp() != null) {
+                    builder.setEnterpriseId(event.getSnmp().getId());
+                    if (event.getSnmp().hasGeneric()) {
+                        builder.setGeneric(event.getSnmp().getGeneric());
+                    }
+                    if (event.getSnmp().hasSpecific()) {
+                        builder.setSpecific(event.getSnmp().getSpecific());
+                    }
+                }
+                assertSame("mismatch for event generated from " + eventConf.getUei(), events.findFirstMatchingEvent(event), events.findFirstMatchingEvent(builder.getEvent()));
+            }
+        }
+
+        assertTrue("no event was determined by its identity", determined > 0);
+        assertTrue("every event was determined by its identity", undetermined > 0);
+        assertFalse(matcher.isDeterminedBy(eventsToMatch.get(0), Collections.singleton("uei")));
+    }
+
+    /**
+     * Generates events that should match the given definition, and a few
+     * that are close to it.
+     */
+    private static void addEventsFor(final org.opennms.netmgt.xml.eventconf.Event eventConf, final List<Event> events) {
+        events.add(new EventBuilder(eventConf.getUei(), "EventConfMatcherTest").getEvent());
+
+        final Mask mask = eventConf.getMask();
+        if (mask == null) {
+            return;
+        }
+
+        final String id = firstValue(mask.getMaskElementValues("id"));
+        final String generic = firstValue(mask.getMaskElementValues("generic"));
+        final String specific = firstValue(mask.getMaskElementValues("specific"));
+        final String uei = firstValue(mask.getMaskElementValues("uei"));
+
+        for (int variant = 0; variant < 4; variant++) {
+            final EventBuilder builder = new EventBuilder(uei, "EventConfMatcherTest");
+            if (id != null) {
+                builder.setEnterpriseId(variant == 1 ? id + ".0" : id);
+            }
+            if (generic != null && generic.matches("\\d+")) {
+                builder.setGeneric(Integer.parseInt(generic));
+            }
+            if (specific != null && specific.matches("\\d+")) {
+                builder.setSpecific(Integer.parseInt(specific) + (variant == 2 ? 1 : 0));
+            }
+            if (variant != 3) {
+                for (final Varbind varbind : mask.getVarbindCollection()) {
+                    final String value = firstValue(varbind.getVbvalueCollection());
+                    while (builder.getEvent().getParmCollection().size() < varbind.getVbnumber()) {
+                        builder.addParam("parm" + builder.getEvent().getParmCollection().size(), value == null ? "" : value);
+                    }
+                }
+            }
+            events.add(builder.getEvent());
+        }
+    }
+
+    /**
+     * Returns a value that satisfies the first of the given mask values, if
+     * it is not a regular expression.
+     */
+    private static String firstValue(final List<String> values) {
+        if (values == null || values.isEmpty() || values.get(0) == null || values.get(0).startsWith("~")) {
+            return null;
+        }
+        final String value = values.get(0);
+        if (value.endsWith("%")) {
+            return value.substring(0, value.length() - 1) + "1";
+        }
+        return value;
+    }
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+
+public class FilterMembershipCacheTest {
+
+    private static final String RULE = "IPADDR IPLIKE 192.168.*.*";
+
+    private StubFilterDao m_filterDao;
+
+    private FilterMembershipCache m_cache;
+
+    @Before
+    public void setUp() {
+        m_filterDao = new StubFilterDao();
+        m_filterDao.addService(1, "192.168.1.1", "ICMP");
+        m_filterDao.addService(1, "192.168.1.1", "SNMP");
+        m_filterDao.addService(1, "192.168.1.2", null);
+        m_filterDao.addService(2, "192.168.2.1", "HTTP");
+        m_cache = new FilterMembershipCache(600000);
+    }
+
+    @Test
+    public void testMatching() {
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 0, null, null));
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 1, null, null));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 3, null, null));
+
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 1, "192.168.1.1", null));
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 1, "192.168.1.1", "SNMP"));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 1, "192.168.1.1", "HTTP"));
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 1, "192.168.1.2", null));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 1, "192.168.1.2", "ICMP"));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 2, "192.168.1.1", null));
+
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 0, "192.168.2.1", "HTTP"));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 0, "192.168.2.1", "ICMP"));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 0, "192.168.3.1", null));
+
+        assertEquals(1, m_filterDao.getQueries());
+        assertEquals(1, m_cache.getLoads());
+    }
+
+    @Test
+    public void testInvalidateNode() {
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 2, "192.168.2.1", "ICMP"));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 3, null, null));
+
+        m_filterDao.addService(2, "192.168.2.1", "ICMP");
+        m_filterDao.addService(3, "192.168.3.1", null);
+        m_filterDao.m_nodes.remove(1);
+
+        // Nodes that have not been marked as stale keep their membership
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 1, null, null));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 2, "192.168.2.1", "ICMP"));
+
+        m_cache.invalidateNode(1);
+        m_cache.invalidateNode(2);
+        m_cache.invalidateNode(3);
+
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 1, null, null));
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 0, "192.168.1.1", null));
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 2, "192.168.2.1", "ICMP"));
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 0, "192.168.3.1", null));
+
+        assertEquals(1, m_cache.getLoads());
+        assertEquals(3, m_cache.getNodeRefreshes());
+        assertEquals(4, m_filterDao.getQueries());
+        assertEquals(3, m_filterDao.getNodeQueries());
+    }
+
+    @Test
+    public void testRefreshInterval() {
+        m_cache = new FilterMembershipCache(0);
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 1, null, null));
+        m_filterDao.m_nodes.remove(1);
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 1, null, null));
+        assertEquals(2, m_cache.getLoads());
+    }
+
+    @Test
+    public void testClear() {
+        assertTrue(m_cache.isMatching(m_filterDao, RULE, 1, null, null));
+        m_filterDao.m_nodes.remove(1);
+        m_cache.clear();
+        assertFalse(m_cache.isMatching(m_filterDao, RULE, 1, null, null));
+        assertEquals(2, m_filterDao.getQueries());
+    }
+
+    /**
+     * Answers every rule with the nodes that were added to it.
+     */
+    private static class StubFilterDao implements FilterDao {
+        private final Map<Integer, Map<InetAddress, Set<String>>> m_nodes = new HashMap<>();
+
+        private int m_queries = 0;
+
+        private int m_nodeQueries = 0;
+
+        public void addService(final int nodeId, final String ipAddr, final String service) {
+            Map<InetAddress, Set<String>> interfaces = m_nodes.get(nodeId);
+            if (interfaces == null) {
+                interfaces = new HashMap<>();
+                m_nodes.put(nodeId, interfaces);
+            }
+            Set<String> services = interfaces.get(addr(ipAddr));
+            if (services == null) {
+                services = new TreeSet<>();
+                interfaces.put(addr(ipAddr), services);
+            }
+            if (service != null) {
+                services.add(service);
+            }
+        }
+
+        public int getQueries() {
+            return m_queries;
+        }
+
+        public int getNodeQueries() {
+            return m_nodeQueries;
+        }
+
+        @Override
+        public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule) throws FilterParseException {
+            return getNodeIPAddressServiceMap(rule, 0);
+        }
+
+        @Override
+        public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule, final int nodeId) throws FilterParseException {
+            assertEquals(RULE, rule);
+            m_queries++;
+            if (nodeId != 0) {
+                m_nodeQueries++;
+            }
+            final Map<Integer, Map<InetAddress, Set<String>>> result = new HashMap<>();
+            for (final Map.Entry<Integer, Map<InetAddress, Set<String>>> node : m_nodes.entrySet()) {
+                if (nodeId == 0 || node.getKey() == nodeId) {
+                    final Map<InetAddress, Set<String>> interfaces = new HashMap<>();
+                    for (final Map.Entry<InetAddress, Set<String>> iface : node.getValue().entrySet()) {
+                        interfaces.put(iface.getKey(), new TreeSet<>(iface.getValue()));
+                    }
+                    result.put(node.getKey(), interfaces);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flushActiveIpAddressListCache() {
+        }
+
+        @Override
+        public void flushActiveIpAddressListCache(final int nodeId) {
+        }
+
+        @Override
+        public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isValid(final String addr, final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isRuleMatching(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void validateRule(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActiveIpAddressListTest {
+
+    private ActiveIpAddressList m_list;
+
+    @Before
+    public void setUp() {
+        final Map<Integer, InetAddress[]> nodes = new HashMap<>();
+        nodes.put(1, new InetAddress[] { addr("192.168.1.2"), addr("192.168.1.1") });
+        nodes.put(2, new InetAddress[] { addr("10.0.0.1"), addr("192.168.1.1") });
+        nodes.put(3, new InetAddress[] { addr("::1") });
+        m_list = new ActiveIpAddressList(nodes);
+    }
+
+    @Test
+    public void testSortedAndDistinct() {
+        assertEquals(Arrays.asList(addr("10.0.0.1"), addr("192.168.1.1"), addr("192.168.1.2"), addr("::1")), m_list);
+        assertEquals(1, m_list.indexOf(addr("192.168.1.1")));
+        assertEquals(1, m_list.lastIndexOf(addr("192.168.1.1")));
+    }
+
+    @Test
+    public void testContains() {
+        for (final InetAddress address : m_list) {
+            assertTrue(m_list.contains(address));
+        }
+        assertFalse(m_list.contains(addr("192.168.1.3")));
+        assertFalse(m_list.contains("192.168.1.1"));
+        assertEquals(-1, m_list.indexOf(addr("10.0.0.2")));
+
+        assertTrue(m_list.containsNode(1));
+        assertTrue(m_list.containsNode(3));
+        assertFalse(m_list.containsNode(4));
+        assertFalse(m_list.containsNode(-1));
+    }
+
+    @Test
+    public void testWithNodes() {
+        final Map<Integer, InetAddress[]> changed = new HashMap<>();
+        changed.put(1, new InetAddress[0]);
+        changed.put(4, new InetAddress[] { addr("172.16.0.1") });
+        final ActiveIpAddressList updated = m_list.withNodes(changed);
+
+        assertEquals(Arrays.asList(addr("10.0.0.1"), addr("172.16.0.1"), addr("192.168.1.1"), addr("::1")), updated);
+        assertFalse(updated.containsNode(1));
+        assertTrue(updated.containsNode(4));
+        // Still matched through node 2
+        assertTrue(updated.contains(addr("192.168.1.1")));
+        assertFalse(updated.contains(addr("192.168.1.2")));
+
+        // The original list is unchanged
+        assertEquals(4, m_list.size());
+        assertTrue(m_list.containsNode(1));
+    }
+
+    @Test
+    public void testEmpty() {
+        final ActiveIpAddressList empty = new ActiveIpAddressList(Collections.<Integer, InetAddress[]>emptyMap());
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.contains(addr("127.0.0.1")));
+    }
+}
@@ -67,9 +67,22 @@ public class MockFilterDao implements FilterDao, InitializingBean {
         throw new UnsupportedOperationException("Not yet implemented!");
     }
 
+    @Override
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule) throws FilterParseException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    @Override
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule, final int nodeId) throws FilterParseException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
     @Override
     public void flushActiveIpAddressListCache() {}
 
+    @Override
+    public void flushActiveIpAddressListCache(final int nodeId) {}
+
     @Override
     public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
         LOG.debug("rule = {}", rule);
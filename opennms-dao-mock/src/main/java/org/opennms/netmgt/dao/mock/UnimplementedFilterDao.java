@@ -48,11 +48,26 @@ public abstract class UnimplementedFilterDao implements FilterDao {
         throw new UnsupportedOperationException("Not yet implemented!");
     }
 
+    @Override
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(String rule) throws FilterParseException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    @Override
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(String rule, int nodeId) throws FilterParseException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
     @Override
     public void flushActiveIpAddressListCache() {
         throw new UnsupportedOperationException("Not yet implemented!");
     }
 
+    @Override
+    public void flushActiveIpAddressListCache(int nodeId) {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
     @Override
     public List<InetAddress> getActiveIPAddressList(String rule) throws FilterParseException {
         throw new UnsupportedOperationException("Not yet implemented!");
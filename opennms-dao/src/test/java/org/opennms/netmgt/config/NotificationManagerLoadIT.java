@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.exolab.castor.xml.MarshalException;
+import org.exolab.castor.xml.ValidationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.mock.MockNotifdConfigManager;
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.filter.FilterDaoFactory;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Matches a stream of node events against 600 notifications, once with the
+ * filter rules evaluated in the database for every event and once with the
+ * rules kept in memory. The database is simulated by a filter DAO that takes
+ * {@value #QUERY_LATENCY_MICROS} microseconds to answer each query.
+ */
+public class NotificationManagerLoadIT {
+
+    private static final int NODES = 1000;
+
+    private static final int CATEGORIES = 20;
+
+    private static final int UEIS = 60;
+
+    private static final int NOTIFICATIONS_PER_UEI = 10;
+
+    private static final int EVENTS = 2000;
+
+    /** One in this many events changes the services of its node */
+    private static final int TOPOLOGY_CHANGE_RATE = 50;
+
+    private static final long QUERY_LATENCY_MICROS = 200;
+
+    private SimulatedFilterDao m_filterDao;
+
+    private List<Event> m_events;
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        m_filterDao = new SimulatedFilterDao();
+        FilterDaoFactory.setInstance(m_filterDao);
+
+        final Random random = new Random(1234);
+        m_events = new ArrayList<>();
+        for (int i = 0; i < EVENTS; i++) {
+            final int nodeId = random.nextInt(NODES) + 1;
+            final EventBuilder bldr;
+            if (i % TOPOLOGY_CHANGE_RATE == 0) {
+                bldr = new EventBuilder(EventConstants.NODE_GAINED_SERVICE_EVENT_UEI, "NotificationManagerLoadIT");
+                bldr.setService("SVC" + i);
+            } else {
+                bldr = new EventBuilder("uei.opennms.org/loadtest/event" + random.nextInt(UEIS), "NotificationManagerLoadIT");
+                bldr.setService("ICMP");
+            }
+            bldr.setNodeid(nodeId);
+            bldr.setInterface(addr(SimulatedFilterDao.getAddress(nodeId)));
+            m_events.add(bldr.getEvent());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(NotificationManager.FILTER_REFRESH_INTERVAL_PROPERTY);
+    }
+
+    @Test
+    public void testEventThroughput() throws Exception {
+        final NotificationManager uncached = createNotificationManager(0);
+        final NotificationManager cached = createNotificationManager(600000);
+
+        // Both have to send the same notices, including after the topology changes
+        final List<String> expected = new ArrayList<>();
+        final List<String> actual = new ArrayList<>();
+
+        m_filterDao.reset();
+        final long uncachedNanos = replay(uncached, expected);
+        final long uncachedQueries = m_filterDao.getQueries();
+
+        m_filterDao.reset();
+        final long cachedNanos = replay(cached, actual);
+        final long cachedQueries = m_filterDao.getQueries();
+
+        assertArrayEquals(expected.toArray(), actual.toArray());
+
+        System.err.println(String.format("Matched %d events against %d notifications", EVENTS, UEIS * NOTIFICATIONS_PER_UEI));
+        System.err.println(String.format("Filter queries per event:  %10.1f       %10.3f (cached)", uncachedQueries / (double)EVENTS, cachedQueries / (double)EVENTS));
+        System.err.println(String.format("Events per second:         %10.1f       %10.1f (cached)", rate(uncachedNanos), rate(cachedNanos)));
+    }
+
+    private static double rate(final long nanos) {
+        return EVENTS * 1000000000.0 / nanos;
+    }
+
+    private long replay(final NotificationManager manager, final List<String> notices) throws Exception {
+        final long start = System.nanoTime();
+        for (final Event event : m_events) {
+            if (EventConstants.NODE_GAINED_SERVICE_EVENT_UEI.equals(event.getUei())) {
+                m_filterDao.moveNode(event.getNodeid().intValue());
+            }
+            manager.updateFilterMembership(event);
+            final Notification[] notifs = manager.getNotifForEvent(event);
+            final StringBuilder description = new StringBuilder(event.getUei()).append(':');
+            if (notifs != null) {
+                for (final Notification notif : notifs) {
+                    description.append(' ').append(notif.getName());
+                }
+            }
+            notices.add(description.toString());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private NotificationManager createNotificationManager(final long refreshInterval) throws Exception {
+        System.setProperty(NotificationManager.FILTER_REFRESH_INTERVAL_PROPERTY, Long.toString(refreshInterval));
+        final NotifdConfigManager configManager = new MockNotifdConfigManager(ConfigurationTestUtils.getConfigForResourceWithReplacements(this, "notifd-configuration.xml"));
+        final NotificationManager manager = new NotificationManagerImpl(configManager);
+
+        final StringBuilder xml = new StringBuilder("<notifications xmlns=\"http://xmlns.opennms.org/xsd/notifications\">\n");
+        xml.append("<header><rev>1.0</rev><created>now</created><mstation>localhost</mstation></header>\n");
+        for (int i = 0; i < UEIS * NOTIFICATIONS_PER_UEI; i++) {
+            xml.append("<notification name=\"notice").append(i).append("\" status=\"on\">");
+            xml.append("<uei>uei.opennms.org/loadtest/event").append(i % UEIS).append("</uei>");
+            xml.append("<rule>catincCategory").append(i % CATEGORIES).append("</rule>");
+            xml.append("<destinationPath>Email-Admin</destinationPath>");
+            xml.append("<text-message>notice</text-message>");
+            xml.append("</notification>\n");
+        }
+        xml.append("</notifications>");
+        manager.parseXML(new StringReader(xml.toString()));
+        return manager;
+    }
+
+    private static class NotificationManagerImpl extends NotificationManager {
+        private NotificationManagerImpl(final NotifdConfigManager configManager) {
+            super(configManager, null);
+        }
+
+        @Override
+        protected void saveXML(final String xmlString) throws IOException {
+            return;
+        }
+
+        @Override
+        public void update() throws IOException, MarshalException, ValidationException {
+            return;
+        }
+    }
+
+    /**
+     * Node N has the interface 10.0.N/256.N%256 with the ICMP service and is
+     * in the category N modulo the number of categories. Rules are of the
+     * form "catincCategoryK", optionally followed by the node, interface and
+     * service constraints of NotificationManager.
+     */
+    private static class SimulatedFilterDao implements FilterDao {
+        private static final Pattern CATEGORY = Pattern.compile("catincCategory(\\d+)");
+        private static final Pattern NODE = Pattern.compile("nodeId == (\\d+)");
+        private static final Pattern INTERFACE = Pattern.compile("ipAddr == '([^']+)'");
+        private static final Pattern SERVICE = Pattern.compile("serviceName == '([^']+)'");
+
+        private final Map<Integer, Integer> m_categories = new HashMap<>();
+        private final AtomicLong m_queries = new AtomicLong();
+
+        private SimulatedFilterDao() {
+            for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+                m_categories.put(nodeId, nodeId % CATEGORIES);
+            }
+        }
+
+        private static String getAddress(final int nodeId) {
+            return "10.0." + (nodeId / 256) + "." + (nodeId % 256);
+        }
+
+        public void moveNode(final int nodeId) {
+            m_categories.put(nodeId, (m_categories.get(nodeId) + 1) % CATEGORIES);
+        }
+
+        public void reset() {
+            for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+                m_categories.put(nodeId, nodeId % CATEGORIES);
+            }
+            m_queries.set(0);
+        }
+
+        public long getQueries() {
+            return m_queries.get();
+        }
+
+        private Map<Integer, Map<InetAddress, Set<String>>> query(final String rule) {
+            m_queries.incrementAndGet();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(QUERY_LATENCY_MICROS));
+
+            final Matcher category = CATEGORY.matcher(rule);
+            if (!category.find()) {
+                throw new FilterParseException("unsupported rule: " + rule);
+            }
+            final Matcher node = NODE.matcher(rule);
+            final Matcher iface = INTERFACE.matcher(rule);
+            final Matcher service = SERVICE.matcher(rule);
+            final boolean hasNode = node.find();
+            final boolean hasInterface = iface.find();
+            final boolean hasService = service.find();
+
+            final Map<Integer, Map<InetAddress, Set<String>>> result = new HashMap<>();
+            for (final Map.Entry<Integer, Integer> entry : m_categories.entrySet()) {
+                final int nodeId = entry.getKey();
+                if (entry.getValue() != Integer.parseInt(category.group(1))
+                        || (hasNode && nodeId != Integer.parseInt(node.group(1)))
+                        || (hasInterface && !getAddress(nodeId).equals(iface.group(1)))
+                        || (hasService && !"ICMP".equals(service.group(1)))) {
+                    continue;
+                }
+                final Map<InetAddress, Set<String>> interfaces = new HashMap<>();
+                interfaces.put(addr(getAddress(nodeId)), new TreeSet<String>(Collections.singleton("ICMP")));
+                result.put(nodeId, interfaces);
+            }
+            return result;
+        }
+
+        @Override
+        public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule) throws FilterParseException {
+            return query(rule);
+        }
+
+        @Override
+        public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule, final int nodeId) throws FilterParseException {
+            final Map<Integer, Map<InetAddress, Set<String>>> result = query(rule);
+            result.keySet().retainAll(Collections.singleton(nodeId));
+            return result;
+        }
+
+        @Override
+        public boolean isRuleMatching(final String rule) throws FilterParseException {
+            return !query(rule).isEmpty();
+        }
+
+        @Override
+        public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flushActiveIpAddressListCache() {
+        }
+
+        @Override
+        public void flushActiveIpAddressListCache(final int nodeId) {
+        }
+
+        @Override
+        public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isValid(final String addr, final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void validateRule(final String rule) throws FilterParseException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -237,6 +237,22 @@ public class JdbcFilterDaoIT implements InitializingBean {
         assertEquals("map size", 0, map.size());
     }
 
+    @Test
+    @Transactional
+    public void testGetNodeIPAddressServiceMapForNode() throws Exception {
+        final String rule = "ipaddr IPLIKE 192.168.*.*";
+        final Integer nodeId = m_populator.getNode1().getId();
+        final Map<Integer, Map<InetAddress, Set<String>>> all = m_dao.getNodeIPAddressServiceMap(rule);
+        assertTrue("node should match the rule", all.containsKey(nodeId));
+        assertTrue("other nodes should match the rule", all.size() > 1);
+
+        final Map<Integer, Map<InetAddress, Set<String>>> node = m_dao.getNodeIPAddressServiceMap(rule, nodeId);
+        assertEquals("only the node is returned", 1, node.size());
+        assertEquals("node interfaces and services", all.get(nodeId), node.get(nodeId));
+
+        assertEquals("no match outside of the rule", 0, m_dao.getNodeIPAddressServiceMap("ipaddr == '1.1.1.1'", nodeId).size());
+    }
+
     @Test
     @Transactional
     public void testGetIPAddressList() throws Exception {
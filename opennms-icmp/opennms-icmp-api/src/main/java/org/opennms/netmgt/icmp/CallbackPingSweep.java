@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements {@link Pinger#sweep} on top of the single ping methods of a
+ * {@link Pinger}, for the pingers that do not have a dedicated sweep
+ * engine. The pings are paced with a {@link PingSweepPacer} and the
+ * replies are collected and passed to the callback in batches from the
+ * thread that runs the sweep.
+ */
+public class CallbackPingSweep implements PingResponseCallback {
+    private static final Logger LOG = LoggerFactory.getLogger(CallbackPingSweep.class);
+
+    /**
+     * The longest time the sweep waits before passing the replies that
+     * have been received to the callback.
+     */
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final PingSweepCallback m_callback;
+
+    private InetAddress[] m_addresses = new InetAddress[64];
+
+    private long[] m_responseTimes = new long[64];
+
+    private int m_count = 0;
+
+    private int m_outstanding = 0;
+
+    private CallbackPingSweep(final PingSweepCallback callback) {
+        m_callback = callback;
+    }
+
+    /**
+     * Pings every address returned by the iterator and blocks until all of
+     * them replied or timed out.
+     */
+    public static void sweep(final Pinger pinger, final Iterator<InetAddress> addresses, final long timeout, final int retries, final double packetsPerSecond, final PingSweepCallback callback) throws InterruptedException {
+        final CallbackPingSweep sweep = new CallbackPingSweep(callback);
+        final PingSweepPacer pacer = new PingSweepPacer(packetsPerSecond, 1, System.nanoTime());
+        InetAddress[] addressBatch = new InetAddress[64];
+        long[] timeBatch = new long[64];
+
+        while (true) {
+            final long now = System.nanoTime();
+            while (addresses.hasNext() && pacer.tryAcquire(now)) {
+                final InetAddress address = addresses.next();
+                synchronized (sweep) {
+                    sweep.m_outstanding++;
+                }
+                try {
+                    pinger.ping(address, timeout, retries, 1, sweep);
+                } catch (final Throwable t) {
+                    sweep.handleError(address, null, t);
+                }
+            }
+
+            final int count;
+            final boolean done;
+            synchronized (sweep) {
+                // Swap the buffers so that the callback runs without the lock
+                count = sweep.m_count;
+                final InetAddress[] addressesReceived = sweep.m_addresses;
+                final long[] timesReceived = sweep.m_responseTimes;
+                if (addressBatch.length < addressesReceived.length) {
+                    addressBatch = new InetAddress[addressesReceived.length];
+                    timeBatch = new long[addressesReceived.length];
+                }
+                sweep.m_addresses = addressBatch;
+                sweep.m_responseTimes = timeBatch;
+                sweep.m_count = 0;
+                addressBatch = addressesReceived;
+                timeBatch = timesReceived;
+                done = !addresses.hasNext() && sweep.m_outstanding == 0;
+            }
+            if (count > 0) {
+                callback.handleResponses(addressBatch, timeBatch, count);
+                Arrays.fill(addressBatch, 0, count, null);
+            }
+            if (done) {
+                return;
+            }
+
+            final long wait = addresses.hasNext() ? Math.min(pacer.nanosUntilNext(System.nanoTime()), FLUSH_INTERVAL) : FLUSH_INTERVAL;
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Ping sweep interrupted");
+            }
+        }
+    }
+
+    @Override
+    public synchronized void handleResponse(final InetAddress address, final EchoPacket response) {
+        if (response != null) {
+            if (m_count == m_addresses.length) {
+                m_addresses = Arrays.copyOf(m_addresses, m_count * 2);
+                m_responseTimes = Arrays.copyOf(m_responseTimes, m_count * 2);
+            }
+            m_addresses[m_count] = address;
+            m_responseTimes[m_count] = response.getReceivedTimeNanos() - response.getSentTimeNanos();
+            m_count++;
+        }
+        m_outstanding--;
+    }
+
+    @Override
+    public synchronized void handleTimeout(final InetAddress address, final EchoPacket request) {
+        m_outstanding--;
+    }
+
+    @Override
+    public synchronized void handleError(final InetAddress address, final EchoPacket request, final Throwable t) {
+        LOG.debug("Error pinging {}", address, t);
+        m_outstanding--;
+    }
+}
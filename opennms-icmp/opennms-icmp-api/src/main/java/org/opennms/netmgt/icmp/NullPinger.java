@@ -1,6 +1,7 @@
 package org.opennms.netmgt.icmp;
 
 import java.net.InetAddress;
+import java.util.Iterator;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -46,6 +47,12 @@ public class NullPinger implements Pinger {
         throw UNSUPPORTED;
     }
 
+    @Override
+    public void sweep(Iterator<InetAddress> addresses, long timeout, int retries, double packetsPerSecond, PingSweepCallback cb) throws Exception {
+        LOG.trace("sweep: timeout={}, retries={}, packetsPerSecond={}", timeout, retries, packetsPerSecond);
+        throw UNSUPPORTED;
+    }
+
     @Override
     public void initialize4() throws Exception {
         LOG.info("initialize4() called.");
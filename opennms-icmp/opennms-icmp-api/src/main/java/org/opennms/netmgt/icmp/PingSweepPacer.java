@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that paces the packets of a ping sweep. Tokens are added
+ * at the configured rate up to the size of the bucket, and each packet
+ * takes one. Instances are not thread-safe.
+ */
+public class PingSweepPacer {
+
+    private final double m_nanosPerToken;
+
+    private final double m_burst;
+
+    private double m_tokens;
+
+    private long m_updated;
+
+    /**
+     * @param packetsPerSecond the rate at which tokens are added
+     * @param burst the maximum number of packets that may be sent at once
+     * @param now the current value of {@link System#nanoTime()}
+     */
+    public PingSweepPacer(final double packetsPerSecond, final int burst, final long now) {
+        if (packetsPerSecond <= 0) {
+            throw new IllegalArgumentException("packetsPerSecond must be positive");
+        }
+        m_nanosPerToken = TimeUnit.SECONDS.toNanos(1) / packetsPerSecond;
+        m_burst = Math.max(1, burst);
+        m_tokens = 1;
+        m_updated = now;
+    }
+
+    /**
+     * Takes a token if one is available.
+     */
+    public boolean tryAcquire(final long now) {
+        refill(now);
+        if (m_tokens >= 1) {
+            m_tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of nanoseconds until the next token is available.
+     */
+    public long nanosUntilNext(final long now) {
+        refill(now);
+        return m_tokens >= 1 ? 0 : (long)Math.ceil((1 - m_tokens) * m_nanosPerToken);
+    }
+
+    private void refill(final long now) {
+        if (now > m_updated) {
+            m_tokens = Math.min(m_burst, m_tokens + (now - m_updated) / m_nanosPerToken);
+            m_updated = now;
+        }
+    }
+}
@@ -30,6 +30,7 @@ package org.opennms.netmgt.icmp;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -117,6 +118,20 @@ public interface Pinger {
 	 *     echo reply, it will contain a number, otherwise a null value.
 	 */
 	public List<Number> parallelPing(InetAddress host, int count, long timeout, long pingInterval) throws Exception;
+
+	/**
+	 * Ping every address returned by the iterator once, sending at most the
+	 * given number of packets per second, retries included. The addresses
+	 * are taken from the iterator as they are pinged, so it may cover large
+	 * ranges. Blocks until every address has replied or timed out.
+	 *
+	 * @param addresses The addresses to ping.
+	 * @param timeout The time to wait between each retry.
+	 * @param retries The number of times to retry.
+	 * @param packetsPerSecond The rate at which packets are sent.
+	 * @param cb The callback that receives the replies in batches.
+	 */
+	public void sweep(Iterator<InetAddress> addresses, long timeout, int retries, double packetsPerSecond, PingSweepCallback cb) throws Exception;
 	
 	/**
 	 * Initialize IPv4 in this Pinger implementation.  If unable to do so, implementations should throw an exception.
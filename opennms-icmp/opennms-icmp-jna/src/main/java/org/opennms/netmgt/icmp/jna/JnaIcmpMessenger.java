@@ -29,9 +29,13 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.IcmpMessengerIOException;
+import org.opennms.netmgt.icmp.PingSweepCallback;
 import org.opennms.protocols.rt.Messenger;
 import org.opennms.protocols.rt.ReplyHandler;
 import org.slf4j.Logger;
@@ -50,8 +54,11 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	private V4Pinger m_v4;
 	private V6Pinger m_v6;
     private ReplyHandler<JnaPingReply> m_callback = null;
+    private final int m_pingerId;
+    private final List<JnaPingSweep> m_sweeps = new CopyOnWriteArrayList<>();
 
 	public JnaIcmpMessenger(final int pingerId) throws Exception {
+	    m_pingerId = pingerId;
 	    Throwable error = null;
 	    try {
 	        m_v4 = new V4Pinger(pingerId);
@@ -104,8 +111,32 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
         if (m_v6 != null) m_v6.start();
 	}
 
+    /**
+     * Pings the addresses at the given rate and returns when each of them
+     * has replied or timed out. The replies of the sweep bypass the request
+     * tracker.
+     */
+    public void sweep(final Iterator<InetAddress> addresses, final long timeout, final int retries, final int packetSize, final double packetsPerSecond, final PingSweepCallback cb) throws InterruptedException {
+        final JnaPingSweep sweep = new JnaPingSweep(m_v4, m_v6, m_pingerId, addresses, timeout, retries, packetSize, packetsPerSecond, cb);
+        m_sweeps.add(sweep);
+        try {
+            sweep.run();
+        } finally {
+            m_sweeps.remove(sweep);
+        }
+    }
+
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        if (JnaPingSweep.isSweepThreadId(packet.getThreadId())) {
+            for (final JnaPingSweep sweep : m_sweeps) {
+                if (sweep.handleReply(address, packet)) {
+                    return;
+                }
+            }
+            LOG.trace("Dropping reply from {} for a sweep that has finished", address);
+            return;
+        }
         m_callback.handleReply(new JnaPingReply(address, packet));
 	}
 
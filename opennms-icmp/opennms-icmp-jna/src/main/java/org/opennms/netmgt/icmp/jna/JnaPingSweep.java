@@ -0,0 +1,389 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingSweepCallback;
+import org.opennms.netmgt.icmp.PingSweepPacer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pings a stream of addresses at a fixed rate without creating a request
+ * object for each of them.
+ *
+ * Every address that is being pinged occupies a slot of a set of parallel
+ * arrays. The slot is encoded in the thread id of the echo request,
+ * together with the id of the sweep, and its generation in the sequence
+ * number, so that the reply can be matched without a lookup. Since all of
+ * the requests of a sweep have the same timeout, the slots expire in the
+ * order they were sent and the timer wheel that tracks them is a single
+ * queue of slot numbers.
+ *
+ * The sweep runs in the thread that calls {@link #run()}. The replies are
+ * recorded by the socket reader threads and passed to the callback in
+ * batches by the sweep thread.
+ */
+class JnaPingSweep {
+    private static final Logger LOG = LoggerFactory.getLogger(JnaPingSweep.class);
+
+    /**
+     * Set in the thread ids of all sweep requests. The thread ids of the
+     * other requests are positive.
+     */
+    private static final long SWEEP_FLAG = Long.MIN_VALUE;
+
+    private static final AtomicInteger s_nextSweepId = new AtomicInteger(1);
+
+    /**
+     * The longest time the sweep waits before passing the replies that
+     * have been received to the callback.
+     */
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final byte FREE = 0;
+    private static final byte OUTSTANDING = 1;
+    private static final byte DONE = 2;
+
+    private final V4Pinger m_v4;
+    private final V6Pinger m_v6;
+    private final int m_pingerId;
+    private final long m_sweepId = s_nextSweepId.getAndIncrement() & 0x7FFFFFFF;
+    private final Iterator<InetAddress> m_targets;
+    private final long m_timeout;
+    private final int m_retries;
+    private final int m_packetSize;
+    private final PingSweepPacer m_pacer;
+    private final PingSweepCallback m_callback;
+
+    private V4PingRequest m_v4Request;
+    private V6PingRequest m_v6Request;
+
+    // The slots, guarded by this
+    private InetAddress[] m_addresses = new InetAddress[0];
+    private byte[] m_states = new byte[0];
+    private int[] m_generations = new int[0];
+    private int[] m_retriesLeft = new int[0];
+    private long[] m_deadlines = new long[0];
+    private final IntQueue m_freeSlots = new IntQueue();
+    private int m_outstanding = 0;
+
+    // The slots in the order they expire, and the slots to send again
+    private final IntQueue m_timeouts = new IntQueue();
+    private final IntQueue m_resends = new IntQueue();
+
+    // The replies that have not been passed to the callback yet, guarded by this
+    private InetAddress[] m_replyAddresses = new InetAddress[64];
+    private long[] m_replyTimes = new long[64];
+    private int m_replyCount = 0;
+
+    JnaPingSweep(final V4Pinger v4, final V6Pinger v6, final int pingerId, final Iterator<InetAddress> targets, final long timeout, final int retries, final int packetSize, final double packetsPerSecond, final PingSweepCallback callback) {
+        m_v4 = v4;
+        m_v6 = v6;
+        m_pingerId = pingerId;
+        m_targets = targets;
+        m_timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        m_retries = retries;
+        m_packetSize = packetSize;
+        // Allow a burst of up to 10ms worth of packets, so that the sweep
+        // does not need to wake up for every packet at high rates
+        m_pacer = new PingSweepPacer(packetsPerSecond, (int)Math.ceil(packetsPerSecond / 100), System.nanoTime());
+        m_callback = callback;
+    }
+
+    static boolean isSweepThreadId(final long threadId) {
+        return (threadId & SWEEP_FLAG) != 0;
+    }
+
+    /**
+     * Pings all of the targets and returns when each of them has replied
+     * or timed out.
+     */
+    void run() throws InterruptedException {
+        InetAddress[] addressBatch = new InetAddress[64];
+        long[] timeBatch = new long[64];
+
+        while (true) {
+            long now = System.nanoTime();
+            expire(now);
+
+            int slot;
+            while ((slot = nextSlot()) >= 0) {
+                if (!m_pacer.tryAcquire(now)) {
+                    // Wait for the next token before sending it
+                    m_resends.addFirst(slot);
+                    break;
+                }
+                send(slot, now);
+                now = System.nanoTime();
+            }
+
+            final int count;
+            final boolean done;
+            final long nextDeadline;
+            synchronized (this) {
+                // Swap the buffers so that the callback runs without the lock
+                count = m_replyCount;
+                final InetAddress[] addressesReceived = m_replyAddresses;
+                final long[] timesReceived = m_replyTimes;
+                if (addressBatch.length < addressesReceived.length) {
+                    addressBatch = new InetAddress[addressesReceived.length];
+                    timeBatch = new long[addressesReceived.length];
+                }
+                m_replyAddresses = addressBatch;
+                m_replyTimes = timeBatch;
+                m_replyCount = 0;
+                addressBatch = addressesReceived;
+                timeBatch = timesReceived;
+                done = m_outstanding == 0 && !m_targets.hasNext();
+                nextDeadline = m_timeouts.isEmpty() ? Long.MAX_VALUE : m_deadlines[m_timeouts.peek()];
+            }
+            if (count > 0) {
+                m_callback.handleResponses(addressBatch, timeBatch, count);
+                Arrays.fill(addressBatch, 0, count, null);
+            }
+            if (done) {
+                return;
+            }
+
+            now = System.nanoTime();
+            long wait = Math.min(FLUSH_INTERVAL, nextDeadline - now);
+            if (!m_resends.isEmpty() || m_targets.hasNext()) {
+                wait = Math.min(wait, m_pacer.nanosUntilNext(now));
+            }
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Ping sweep interrupted");
+            }
+        }
+    }
+
+    /**
+     * Records the reply if it answers one of the outstanding requests of
+     * this sweep. Called by the socket reader threads.
+     */
+    boolean handleReply(final InetAddress address, final EchoPacket reply) {
+        final long threadId = reply.getThreadId();
+        if ((threadId >>> 32) != (m_sweepId | 0x80000000L)) {
+            return false;
+        }
+        final int slot = (int)threadId;
+        synchronized (this) {
+            if (slot < 0 || slot >= m_states.length || m_states[slot] != OUTSTANDING || (m_generations[slot] & 0xFFFF) != reply.getSequenceNumber()) {
+                // A duplicate or late reply
+                return true;
+            }
+            m_states[slot] = DONE;
+            m_outstanding--;
+            if (m_replyCount == m_replyAddresses.length) {
+                m_replyAddresses = Arrays.copyOf(m_replyAddresses, m_replyCount * 2);
+                m_replyTimes = Arrays.copyOf(m_replyTimes, m_replyCount * 2);
+            }
+            m_replyAddresses[m_replyCount] = m_addresses[slot];
+            m_replyTimes[m_replyCount] = reply.getReceivedTimeNanos() - reply.getSentTimeNanos();
+            m_replyCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the requests that timed out to the resend queue, or releases
+     * their slots if they have no retries left.
+     */
+    private synchronized void expire(final long now) {
+        while (!m_timeouts.isEmpty() && m_deadlines[m_timeouts.peek()] - now <= 0) {
+            final int slot = m_timeouts.poll();
+            if (m_states[slot] == OUTSTANDING && m_retriesLeft[slot] > 0) {
+                m_retriesLeft[slot]--;
+                m_resends.add(slot);
+            } else {
+                release(slot);
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of the next request to send, resends first, or -1
+     * if there is none.
+     */
+    private synchronized int nextSlot() {
+        while (!m_resends.isEmpty()) {
+            final int slot = m_resends.poll();
+            if (m_states[slot] == OUTSTANDING) {
+                return slot;
+            }
+            // The reply arrived after the timeout
+            release(slot);
+        }
+        while (m_targets.hasNext()) {
+            final InetAddress address = m_targets.next();
+            if (address == null) {
+                continue;
+            }
+            if (m_freeSlots.isEmpty()) {
+                grow();
+            }
+            final int slot = m_freeSlots.poll();
+            m_addresses[slot] = address;
+            m_states[slot] = OUTSTANDING;
+            m_generations[slot]++;
+            m_retriesLeft[slot] = m_retries;
+            m_outstanding++;
+            return slot;
+        }
+        return -1;
+    }
+
+    private void send(final int slot, final long now) {
+        final InetAddress address;
+        final int sequenceNumber;
+        synchronized (this) {
+            address = m_addresses[slot];
+            sequenceNumber = m_generations[slot] & 0xFFFF;
+            m_deadlines[slot] = now + m_timeout;
+            m_timeouts.add(slot);
+        }
+        final long threadId = ((m_sweepId | 0x80000000L) << 32) | slot;
+        try {
+            if (address instanceof Inet4Address && m_v4 != null) {
+                if (m_v4Request == null) {
+                    m_v4Request = new V4PingRequest(m_pingerId, 0, 0, m_packetSize);
+                }
+                m_v4Request.setSequenceNumber(sequenceNumber);
+                m_v4Request.setThreadId(threadId);
+                m_v4Request.send(m_v4.getPingSocket(), address);
+            } else if (address instanceof Inet6Address && m_v6 != null) {
+                if (m_v6Request == null) {
+                    m_v6Request = new V6PingRequest(m_pingerId, 0, 0, m_packetSize);
+                }
+                m_v6Request.setSequenceNumber(sequenceNumber);
+                m_v6Request.setThreadId(threadId);
+                m_v6Request.send(m_v6.getPingSocket(), address);
+            } else {
+                LOG.debug("Cannot ping {}: No pinger found that can handle this address", address);
+                giveUp(slot);
+            }
+        } catch (final Throwable t) {
+            LOG.debug("Error pinging {}", address, t);
+            giveUp(slot);
+        }
+    }
+
+    /**
+     * Treats the request in the slot as timed out, the slot is released
+     * when it expires.
+     */
+    private synchronized void giveUp(final int slot) {
+        if (m_states[slot] == OUTSTANDING) {
+            m_states[slot] = DONE;
+            m_outstanding--;
+        }
+    }
+
+    private void release(final int slot) {
+        if (m_states[slot] == OUTSTANDING) {
+            m_outstanding--;
+        }
+        m_states[slot] = FREE;
+        m_addresses[slot] = null;
+        m_freeSlots.add(slot);
+    }
+
+    private void grow() {
+        final int size = m_states.length;
+        final int newSize = Math.max(64, size * 2);
+        m_addresses = Arrays.copyOf(m_addresses, newSize);
+        m_states = Arrays.copyOf(m_states, newSize);
+        m_generations = Arrays.copyOf(m_generations, newSize);
+        m_retriesLeft = Arrays.copyOf(m_retriesLeft, newSize);
+        m_deadlines = Arrays.copyOf(m_deadlines, newSize);
+        for (int slot = size; slot < newSize; slot++) {
+            m_freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * A growable ring buffer of ints.
+     */
+    private static final class IntQueue {
+        private int[] m_elements = new int[64];
+        private int m_head = 0;
+        private int m_size = 0;
+
+        boolean isEmpty() {
+            return m_size == 0;
+        }
+
+        int peek() {
+            return m_elements[m_head];
+        }
+
+        int poll() {
+            final int element = m_elements[m_head];
+            m_head = (m_head + 1) & (m_elements.length - 1);
+            m_size--;
+            return element;
+        }
+
+        void add(final int element) {
+            ensureCapacity();
+            m_elements[(m_head + m_size) & (m_elements.length - 1)] = element;
+            m_size++;
+        }
+
+        void addFirst(final int element) {
+            ensureCapacity();
+            m_head = (m_head - 1) & (m_elements.length - 1);
+            m_elements[m_head] = element;
+            m_size++;
+        }
+
+        private void ensureCapacity() {
+            if (m_size == m_elements.length) {
+                final int[] elements = new int[m_elements.length * 2];
+                for (int i = 0; i < m_size; i++) {
+                    elements[i] = m_elements[(m_head + i) & (m_elements.length - 1)];
+                }
+                m_elements = elements;
+                m_head = 0;
+            }
+        }
+    }
+}
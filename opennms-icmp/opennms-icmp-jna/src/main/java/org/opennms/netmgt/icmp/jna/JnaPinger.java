@@ -35,12 +35,16 @@ import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_TIMEOUT;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.SecureRandom;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.SinglePingResponseCallback;
 import org.opennms.protocols.rt.IDBasedRequestLocator;
@@ -218,15 +222,31 @@ public class JnaPinger implements Pinger {
         initialize();
         final ParallelPingResponseCallback cb = new ParallelPingResponseCallback(count);
 
+        // Schedule the requests from the start time, so that the time it
+        // takes to send them does not add up over the interval
         final long threadId = JnaPingRequest.getNextTID();
+        final long interval = TimeUnit.MILLISECONDS.toNanos(pingInterval);
+        final long start = System.nanoTime();
         for (int seqNum = 0; seqNum < count; seqNum++) {
+            long wait;
+            while ((wait = start + seqNum * interval - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
             final JnaPingRequest request = new JnaPingRequest(host, m_pingerId, seqNum, threadId, timeout == 0? DEFAULT_TIMEOUT : timeout,0 , DEFAULT_PACKET_SIZE, cb);
             m_pingTracker.sendRequest(request);
-            Thread.sleep(pingInterval);
         }
 
         cb.waitFor();
         return cb.getResponseTimes();
     }
 
+    @Override
+    public void sweep(final Iterator<InetAddress> addresses, final long timeout, final int retries, final double packetsPerSecond, final PingSweepCallback cb) throws Exception {
+        initialize();
+        m_messenger.sweep(addresses, timeout, retries, DEFAULT_PACKET_SIZE, packetsPerSecond, cb);
+    }
+
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.icmp.CallbackPingSweep;
+import org.opennms.netmgt.icmp.PingSweepCallback;
+
+/**
+ * Sweeps a range of loopback addresses, once with the sweep engine of the
+ * {@link JnaPinger} and once with a request per address, and compares the
+ * time each of them takes and the memory they allocate.
+ *
+ * All of the 127.0.0.0/8 addresses answer on Linux, so the benchmark does
+ * not send any packets off the host. Like the {@link JnaPingTest}, it only
+ * runs if the runPingTests system property is set to true.
+ */
+public class JnaPingSweepLoadIT {
+
+    private static final int ADDRESSES = 50000;
+
+    private static final double PACKETS_PER_SECOND = 20000;
+
+    private static final long TIMEOUT = 1000;
+
+    private JnaPinger m_pinger;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean("runPingTests"));
+        m_pinger = new JnaPinger();
+        m_pinger.initialize4();
+
+        // Warm up both code paths
+        m_pinger.sweep(new LoopbackAddresses(1000), TIMEOUT, 0, PACKETS_PER_SECOND, new CountingCallback());
+        CallbackPingSweep.sweep(m_pinger, new LoopbackAddresses(1000), TIMEOUT, 0, PACKETS_PER_SECOND, new CountingCallback());
+    }
+
+    @Test
+    public void testSweepThroughput() throws Exception {
+        final CountingCallback sweepReplies = new CountingCallback();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        m_pinger.sweep(new LoopbackAddresses(ADDRESSES), TIMEOUT, 0, PACKETS_PER_SECOND, sweepReplies);
+        final long sweepNanos = System.nanoTime() - start;
+        final long sweepBytes = allocatedBytes() - allocated;
+
+        final CountingCallback requestReplies = new CountingCallback();
+        allocated = allocatedBytes();
+        start = System.nanoTime();
+        CallbackPingSweep.sweep(m_pinger, new LoopbackAddresses(ADDRESSES), TIMEOUT, 0, PACKETS_PER_SECOND, requestReplies);
+        final long requestNanos = System.nanoTime() - start;
+        final long requestBytes = allocatedBytes() - allocated;
+
+        System.err.println(String.format("Swept %d loopback addresses at %.0f packets/s", ADDRESSES, PACKETS_PER_SECOND));
+        System.err.println(String.format("Sweep engine:        %8d ms, %6d replies, %8.1f bytes allocated per address", sweepNanos / 1000000, sweepReplies.m_count, (double)sweepBytes / ADDRESSES));
+        System.err.println(String.format("Request per address: %8d ms, %6d replies, %8.1f bytes allocated per address", requestNanos / 1000000, requestReplies.m_count, (double)requestBytes / ADDRESSES));
+
+        assertEquals(ADDRESSES, sweepReplies.m_count);
+    }
+
+    /**
+     * Returns the number of bytes the current thread allocated, or 0 if
+     * the JVM does not track it. The socket reader threads are not counted.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static class CountingCallback implements PingSweepCallback {
+        private int m_count = 0;
+
+        @Override
+        public void handleResponses(final InetAddress[] addresses, final long[] responseTimes, final int count) {
+            m_count += count;
+        }
+    }
+
+    /**
+     * Generates the addresses from 127.0.0.1 on.
+     */
+    private static class LoopbackAddresses implements Iterator<InetAddress> {
+        private final int m_size;
+        private int m_next = 0;
+
+        private LoopbackAddresses(final int size) {
+            m_size = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_next < m_size;
+        }
+
+        @Override
+        public InetAddress next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int address = 0x7F000001 + m_next++;
+            try {
+                return InetAddress.getByAddress(new byte[] { (byte)(address >>> 24), (byte)(address >>> 16), (byte)(address >>> 8), (byte)address });
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -30,7 +30,10 @@ package org.opennms.netmgt.icmp.jna;
 
 import java.net.InetAddress;
 import java.net.NoRouteToHostException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
@@ -39,6 +42,7 @@ import org.opennms.core.utils.CollectionMath;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.PingConstants;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepCallback;
 import org.opennms.netmgt.icmp.jna.JnaPinger;
 
 /**
@@ -245,6 +249,28 @@ public class JnaPingTest extends TestCase {
         assertTrue("Collection contained some numeric values when all parallel pings should have failed", CollectionMath.countNotNull(items) == 0);
     }
 
+    public void testSweepIPv4() throws Exception {
+        sweep(m_goodHost, m_badHost);
+    }
+
+    public void testSweepIPv6() throws Exception {
+        sweep(m_ipv6goodHost, m_ipv6badHost);
+    }
+
+    private void sweep(InetAddress goodHost, InetAddress badHost) throws Exception {
+        final Map<InetAddress, Long> responses = new HashMap<>();
+        s_jnaPinger.sweep(Arrays.asList(goodHost, badHost).iterator(), PingConstants.DEFAULT_TIMEOUT, 1, 100, new PingSweepCallback() {
+            @Override
+            public void handleResponses(InetAddress[] addresses, long[] responseTimes, int count) {
+                for (int i = 0; i < count; i++) {
+                    assertNull("Duplicate response from " + addresses[i], responses.put(addresses[i], responseTimes[i]));
+                }
+            }
+        });
+        assertEquals(1, responses.size());
+        assertTrue("Negative RTT value returned from sweep", responses.get(goodHost) > 0);
+    }
+
     private void printResponse(List<Number> items) {
         Long passed = CollectionMath.countNotNull(items);
         Long failed = CollectionMath.countNull(items);
@@ -35,13 +35,16 @@ import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_PACKET_SIZE;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.SecureRandom;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.icmp.CallbackPingSweep;
 import org.opennms.netmgt.icmp.LogPrefixPreservingPingResponseCallback;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.SinglePingResponseCallback;
 import org.opennms.protocols.rt.IDBasedRequestLocator;
@@ -302,4 +305,15 @@ public class JniPinger implements Pinger {
         return cb.getResponseTimes();
     }
 
+    /**
+     * <p>sweep</p>
+     *
+     * @see CallbackPingSweep
+     */
+    @Override
+    public void sweep(final Iterator<InetAddress> addresses, final long timeout, final int retries, final double packetsPerSecond, final PingSweepCallback cb) throws Exception {
+        initialize();
+        CallbackPingSweep.sweep(this, addresses, timeout, retries, packetsPerSecond, cb);
+    }
+
 }
@@ -37,13 +37,16 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.security.SecureRandom;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.icmp.CallbackPingSweep;
 import org.opennms.netmgt.icmp.LogPrefixPreservingPingResponseCallback;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.SinglePingResponseCallback;
 import org.opennms.netmgt.icmp.jni.JniPinger;
@@ -331,4 +334,14 @@ public class Jni6Pinger implements Pinger {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>sweep</p>
+     *
+     * @see CallbackPingSweep
+     */
+    @Override
+    public void sweep(final Iterator<InetAddress> addresses, final long timeout, final int retries, final double packetsPerSecond, final PingSweepCallback cb) throws Exception {
+        CallbackPingSweep.sweep(this, addresses, timeout, retries, packetsPerSecond, cb);
+    }
+
+}
@@ -28,8 +28,16 @@
 
 package org.opennms.netmgt.provision.service;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.tasks.BatchTask;
 import org.slf4j.Logger;
@@ -46,7 +54,11 @@ import org.opennms.netmgt.provision.service.lifecycle.annotations.Activity;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.ActivityProvider;
 import org.opennms.netmgt.provision.service.operations.ImportOperation;
 import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.ImportedNodeHashes;
+import org.opennms.netmgt.provision.service.operations.NullUpdateOperation;
+import org.opennms.netmgt.provision.service.operations.ProvisionMonitor;
 import org.opennms.netmgt.provision.service.operations.RequisitionImport;
+import org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation;
 import org.springframework.core.io.Resource;
 
 /**
@@ -58,24 +70,47 @@ import org.springframework.core.io.Resource;
 @ActivityProvider
 public class CoreImportActivities {
     private static final Logger LOG = LoggerFactory.getLogger(CoreImportActivities.class);
+
+    private static final String SKIP_UNCHANGED_NODES = "org.opennms.provisiond.import.skipUnchangedNodes";
+    private static final String PERSIST_BATCH_SIZE = "org.opennms.provisiond.import.persistBatchSize";
+    private static final String MAX_SCANS_PER_LOCATION = "org.opennms.provisiond.import.maxScansPerLocation";
     
     private final ProvisionService m_provisionService;
+
+    private final ImportedNodeHashes m_importedNodes = new ImportedNodeHashes();
+    private final boolean m_skipUnchangedNodes;
+    private final int m_persistBatchSize;
+    private final LocationScanLimiter m_scanLimiter;
+
+    private final AtomicLong m_nodesScanned = new AtomicLong();
+    private final AtomicLong m_nodesPersisted = new AtomicLong();
+    private final AtomicLong m_nodesUnchanged = new AtomicLong();
     
     public CoreImportActivities(final ProvisionService provisionService) {
         m_provisionService = provisionService;
+        m_skipUnchangedNodes = Boolean.valueOf(System.getProperty(SKIP_UNCHANGED_NODES, "true"));
+        m_persistBatchSize = Integer.getInteger(PERSIST_BATCH_SIZE, 50);
+        m_scanLimiter = new LocationScanLimiter(Integer.getInteger(MAX_SCANS_PER_LOCATION, 0));
     }
 
     @Activity( lifecycle = "import", phase = "validate", schedulingHint="import")
-    public RequisitionImport loadSpecFile(final Resource resource) {
+    public RequisitionImport loadSpecFile(final Resource resource, final ProvisionMonitor monitor) {
         final RequisitionImport ri = new RequisitionImport();
+        if (monitor != null) {
+            ri.setMonitor(monitor);
+        }
 
         info("Loading requisition from resource {}", resource);
+        ri.getMonitor().beginImporting();
+        ri.getMonitor().beginLoadingResource(resource);
         try {
             final Requisition specFile = m_provisionService.loadRequisition(resource);
             ri.setRequisition(specFile);
             debug("Finished loading requisition.");
         } catch (final Throwable t) {
             ri.abort(t);
+        } finally {
+            ri.getMonitor().finishLoadingResource(resource);
         }
 
         return ri;
@@ -91,6 +126,7 @@ public class CoreImportActivities {
         final Requisition specFile = ri.getRequisition();
 
         info("Auditing nodes for requisition {}. The parameter {} was set to {} during import.", specFile, EventConstants.PARM_IMPORT_RESCAN_EXISTING, rescanExisting);
+        ri.getMonitor().beginAuditNodes();
 
         final String foreignSource = specFile.getForeignSource();
         final Map<String, Integer> foreignIdsToNodes = m_provisionService.getForeignIdToNodeIdMap(foreignSource);
@@ -98,9 +134,17 @@ public class CoreImportActivities {
         final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdsToNodes, m_provisionService, rescanExisting);
         
         opsMgr.setForeignSource(foreignSource);
+        opsMgr.setProvisionMonitor(ri.getMonitor());
+        opsMgr.setPersistBatchSize(m_persistBatchSize);
+        if (m_skipUnchangedNodes) {
+            m_importedNodes.definition(foreignSource, ImportedNodeHashes.hash(m_provisionService.loadForeignSource(foreignSource)));
+            opsMgr.setImportedNodeHashes(m_importedNodes);
+        }
         opsMgr.auditNodes(specFile);
 
-        debug("Finished auditing nodes.");
+        m_nodesUnchanged.addAndGet(opsMgr.getUnchangedCount());
+        ri.getMonitor().finishAuditNodes();
+        debug("Finished auditing nodes: {} deletes, {} updates, {} inserts, {} unchanged.", opsMgr.getDeleteCount(), opsMgr.getUpdateCount(), opsMgr.getInsertCount(), opsMgr.getUnchangedCount());
         
         return opsMgr;
     }
@@ -113,8 +157,11 @@ public class CoreImportActivities {
         }
 
         info("Scheduling nodes for phase {}", currentPhase);
+        ri.getMonitor().beginProcessingOps(opsMgr.getDeleteCount(), opsMgr.getUpdateCount(), opsMgr.getInsertCount());
+        ri.getMonitor().beginPreprocessingOps();
         
-        final Collection<ImportOperation> operations = opsMgr.getOperations();
+        final Collection<ImportOperation> operations = interleaveByLocation(opsMgr.getOperations());
+        ri.audited(operations.size(), opsMgr.getUnchangedCount());
         
         for(final ImportOperation op : operations) {
             final LifeCycleInstance nodeScan = currentPhase.createNestedLifeCycle("nodeImport");
@@ -123,15 +170,48 @@ public class CoreImportActivities {
             
             nodeScan.setAttribute("operation", op);
             nodeScan.setAttribute("requisitionImport", ri);
+            nodeScan.setAttribute("importOperationsManager", opsMgr);
             nodeScan.trigger();
         }
 
 
     }
+
+    /**
+     * Orders the operations so that consecutive node scans target different
+     * monitoring locations, which spreads the import threads over all of the
+     * locations instead of working through them one at a time.  Deletes come
+     * first, and {@link NullUpdateOperation}s are dropped since there is
+     * nothing to scan or persist for them.
+     */
+    static List<ImportOperation> interleaveByLocation(final Collection<ImportOperation> operations) {
+        final List<ImportOperation> interleaved = new ArrayList<>(operations.size());
+        final Map<String, Queue<ImportOperation>> byLocation = new LinkedHashMap<>();
+        for (final ImportOperation op : operations) {
+            if (op instanceof NullUpdateOperation) {
+                continue;
+            } else if (op instanceof SaveOrUpdateOperation) {
+                byLocation.computeIfAbsent(Objects.toString(((SaveOrUpdateOperation)op).getLocation()), l -> new LinkedList<>()).add(op);
+            } else {
+                interleaved.add(op);
+            }
+        }
+        while (!byLocation.isEmpty()) {
+            final Iterator<Queue<ImportOperation>> it = byLocation.values().iterator();
+            while (it.hasNext()) {
+                final Queue<ImportOperation> queue = it.next();
+                interleaved.add(queue.remove());
+                if (queue.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        return interleaved;
+    }
     
     
     @Activity( lifecycle = "nodeImport", phase = "scan", schedulingHint="import" )
-    public static void scanNode(final ImportOperation operation, final RequisitionImport ri, final String rescanExisting) {
+    public void scanNode(final ImportOperation operation, final RequisitionImport ri, final String rescanExisting) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping scan phase nodeImport.");
             return;
@@ -139,7 +219,23 @@ public class CoreImportActivities {
 
         if (rescanExisting == null || Boolean.valueOf(rescanExisting)) {
             info("Running scan phase of {}, the parameter {} was set to {} during import.", operation, EventConstants.PARM_IMPORT_RESCAN_EXISTING, rescanExisting);
-            operation.scan();
+            final String location = operation instanceof SaveOrUpdateOperation ? ((SaveOrUpdateOperation)operation).getLocation() : null;
+            try {
+                m_scanLimiter.acquire(location);
+            } catch (final InterruptedException e) {
+                warn("Interrupted while waiting to scan {} at location {}", operation, location);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            ri.getMonitor().beginPreprocessing(operation);
+            try {
+                operation.scan();
+            } finally {
+                ri.getMonitor().finishPreprocessing(operation);
+                m_scanLimiter.release(location);
+            }
+            ri.nodeScanned();
+            m_nodesScanned.incrementAndGet();
     
             info("Finished Running scan phase of {}", operation);
         } else {
@@ -147,32 +243,57 @@ public class CoreImportActivities {
         }
     }
     
-    @Activity( lifecycle = "nodeImport", phase = "persist" , schedulingHint = "import" )
-    public static void persistNode(final ImportOperation operation, final RequisitionImport ri) {
+    @Activity( lifecycle = "nodeImport", phase = "persist" , schedulingHint = "write" )
+    public void persistNode(final ImportOperation operation, final RequisitionImport ri, final ImportOperationsManager opsMgr) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping persist phase.");
             return;
         }
 
         info("Running persist phase of {}", operation);
-        operation.persist();
+        persisted(ri, opsMgr.persist(operation));
         info("Finished Running persist phase of {}", operation);
 
     }
+
+    @Activity( lifecycle = "import", phase = "persist" , schedulingHint = "write" )
+    public void persistNodes(final RequisitionImport ri, final ImportOperationsManager opsMgr) {
+        if (ri.isAborted()) {
+            info("The import has been aborted, skipping persist phase import.");
+            return;
+        }
+
+        // All of the nodes have been scanned by now, write the last, partial batch
+        ri.getMonitor().finishPreprocessingOps();
+        persisted(ri, opsMgr.flush());
+        ri.getMonitor().finishProcessingOps();
+
+        info("Finished scanning and persisting nodes: {}", ri);
+    }
+
+    private void persisted(final RequisitionImport ri, final int count) {
+        ri.nodesPersisted(count);
+        m_nodesPersisted.addAndGet(count);
+    }
     
     @Activity( lifecycle = "import", phase = "relate" , schedulingHint = "import" )
-    public void relateNodes(final BatchTask currentPhase, final RequisitionImport ri) {
+    public void relateNodes(final BatchTask currentPhase, final RequisitionImport ri, final ImportOperationsManager opsMgr) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping relate phase.");
             return;
         }
 
         info("Running relate phase");
+        ri.getMonitor().beginRelateNodes();
         
         final Requisition requisition = ri.getRequisition();
         RequisitionVisitor visitor = new AbstractRequisitionVisitor() {
             @Override
             public void visitNode(final OnmsNodeRequisition nodeReq) {
+                if (isRelationUnchanged(opsMgr, requisition.getForeignSource(), nodeReq)) {
+                    LOG.debug("Skipping relate of unchanged node {}", nodeReq);
+                    return;
+                }
                 LOG.debug("Scheduling relate of node {}", nodeReq);
                 currentPhase.add(parentSetter(m_provisionService, nodeReq, requisition.getForeignSource()));
             }
@@ -184,6 +305,51 @@ public class CoreImportActivities {
 
     }
     
+    /**
+     * The parent of an unchanged node only needs to be set again if it refers
+     * to a node that may have been replaced, so the relation is left alone
+     * when the node has no parent or its parent is an unchanged node of the
+     * same requisition.
+     */
+    private static boolean isRelationUnchanged(final ImportOperationsManager opsMgr, final String foreignSource, final OnmsNodeRequisition nodeReq) {
+        if (!opsMgr.isUnchanged(nodeReq.getForeignId())) {
+            return false;
+        }
+        if (nodeReq.getParentForeignId() == null && nodeReq.getParentNodeLabel() == null) {
+            return true;
+        }
+        return nodeReq.getParentForeignId() != null
+                && (nodeReq.getParentForeignSource() == null || foreignSource.equals(nodeReq.getParentForeignSource()))
+                && opsMgr.isUnchanged(nodeReq.getParentForeignId());
+    }
+
+    /**
+     * <p>getNodesScanned</p>
+     *
+     * @return the number of nodes scanned by imports since Provisiond was started
+     */
+    public long getNodesScanned() {
+        return m_nodesScanned.get();
+    }
+
+    /**
+     * <p>getNodesPersisted</p>
+     *
+     * @return the number of nodes written by imports since Provisiond was started
+     */
+    public long getNodesPersisted() {
+        return m_nodesPersisted.get();
+    }
+
+    /**
+     * <p>getNodesUnchanged</p>
+     *
+     * @return the number of nodes that imports skipped because they had not changed
+     */
+    public long getNodesUnchanged() {
+        return m_nodesUnchanged.get();
+    }
+
     private static Runnable parentSetter(final ProvisionService provisionService, final OnmsNodeRequisition nodeReq, final String foreignSource) {
         return new Runnable() {
             @Override
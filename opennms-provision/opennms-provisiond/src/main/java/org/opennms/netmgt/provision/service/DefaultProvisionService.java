@@ -104,6 +104,8 @@ import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
@@ -162,6 +164,12 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
     @Qualifier("transactionAware")
     private EventForwarder m_eventForwarder;
 
+    /**
+     * The events of the nodes written by {@link #runInTransaction(Runnable)}
+     * on the current thread, held back until the whole batch commits.
+     */
+    private final ThreadLocal<EventAccumulator> m_batchEvents = new ThreadLocal<EventAccumulator>();
+
     @Autowired
     @Qualifier("fastFused")
     private ForeignSourceRepository m_foreignSourceRepository;
@@ -221,7 +229,7 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         m_nodeDao.save(node);
         m_nodeDao.flush();
 
-        final EntityVisitor visitor = new AddEventVisitor(m_eventForwarder);
+        final EntityVisitor visitor = new AddEventVisitor(getNodeEventForwarder());
         node.visit(visitor);
     }
 
@@ -235,7 +243,7 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         // on an update, leave categories alone, let the NodeScan handle applying requisitioned categories
         node.setCategories(dbNode.getCategories());
 
-        final EventAccumulator accumulator = new EventAccumulator(m_eventForwarder);
+        final EventAccumulator accumulator = new EventAccumulator(getNodeEventForwarder());
         dbNode.mergeNode(node, accumulator, false);
 
         updateNodeHostname(dbNode);
@@ -243,7 +251,7 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         m_nodeDao.flush();
 
         accumulator.flush();
-        final EntityVisitor eventAccumlator = new UpdateEventVisitor(m_eventForwarder, rescanExisting);
+        final EntityVisitor eventAccumlator = new UpdateEventVisitor(getNodeEventForwarder(), rescanExisting);
         dbNode.visit(eventAccumlator);
     }
 
@@ -706,6 +714,38 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         m_nodeDao.flush();
     }
 
+    /** {@inheritDoc} */
+    @Transactional
+    @Override
+    public void runInTransaction(final Runnable work) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || m_batchEvents.get() != null) {
+            work.run();
+            return;
+        }
+
+        final EventAccumulator events = new EventAccumulator(m_eventForwarder);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void beforeCommit(final boolean readOnly) {
+                // The transaction aware forwarder queues the events on the
+                // transaction and only sends them once it has committed.
+                // Nothing is sent if the batch is rolled back.
+                events.flush();
+            }
+        });
+        m_batchEvents.set(events);
+        try {
+            work.run();
+        } finally {
+            m_batchEvents.remove();
+        }
+    }
+
+    private EventForwarder getNodeEventForwarder() {
+        final EventAccumulator batchEvents = m_batchEvents.get();
+        return batchEvents == null ? m_eventForwarder : batchEvents;
+    }
+
     @Override
     public OnmsMonitoringLocation createLocationIfNecessary(final String locationName) {
         if (locationName == null) {
@@ -1028,6 +1068,12 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         return r;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public ForeignSource loadForeignSource(final String foreignSourceName) {
+        return m_foreignSourceRepository.getForeignSource(foreignSourceName);
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.provision.service.ProvisionService#updateNodeInfo(org.opennms.netmgt.model.OnmsNode)
      */
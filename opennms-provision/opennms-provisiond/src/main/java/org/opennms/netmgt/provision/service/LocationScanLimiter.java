@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.provision.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+
+/**
+ * Limits the number of node scans that an import runs concurrently against
+ * the same monitoring location, so that a large requisition does not flood a
+ * single location (and the Minions serving it) while the import threads
+ * could be scanning nodes elsewhere.
+ */
+class LocationScanLimiter {
+
+    private final int m_maxScansPerLocation;
+
+    private final ConcurrentMap<String, Semaphore> m_permits = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxScansPerLocation the maximum number of concurrent scans per
+     *  location, a value of 0 or less disables the limit
+     */
+    LocationScanLimiter(final int maxScansPerLocation) {
+        m_maxScansPerLocation = maxScansPerLocation;
+    }
+
+    int getMaxScansPerLocation() {
+        return m_maxScansPerLocation;
+    }
+
+    /**
+     * Blocks until a scan against the given location may start.
+     */
+    void acquire(final String location) throws InterruptedException {
+        if (m_maxScansPerLocation > 0) {
+            getPermits(location).acquire();
+        }
+    }
+
+    void release(final String location) {
+        if (m_maxScansPerLocation > 0) {
+            getPermits(location).release();
+        }
+    }
+
+    private Semaphore getPermits(final String location) {
+        final String key = location == null ? MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID : location;
+        return m_permits.computeIfAbsent(key, l -> new Semaphore(m_maxScansPerLocation, true));
+    }
+}
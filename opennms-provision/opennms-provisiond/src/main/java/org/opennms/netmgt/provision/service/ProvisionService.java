@@ -45,6 +45,7 @@ import org.opennms.netmgt.provision.NodePolicy;
 import org.opennms.netmgt.provision.ServiceDetector;
 import org.opennms.netmgt.provision.SnmpInterfacePolicy;
 import org.opennms.netmgt.provision.persist.ForeignSourceRepository;
+import org.opennms.netmgt.provision.persist.foreignsource.ForeignSource;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 import org.springframework.core.io.Resource;
@@ -69,6 +70,20 @@ public interface ProvisionService {
      */
     void clearCache();
 
+    /**
+     * Run the given work in a single transaction. This is used by imports
+     * to write a batch of nodes with one commit instead of one commit per
+     * node. The events of the nodes that are written by the work are only
+     * sent once the transaction has committed, and are discarded if it is
+     * rolled back.
+     *
+     * @param work
+     *            The work to run, any {@link Transactional} method of this
+     *            service that it calls joins the transaction
+     */
+    @Transactional
+    void runInTransaction(Runnable work);
+
     /**
      * Lookup a monitoring location in the database, creating it if necessary. This
      * method looks up the {@link OnmsMonitoringLocation} object with the ID 'locationId' in the
@@ -209,6 +224,8 @@ public interface ProvisionService {
 
     Requisition loadRequisition(Resource resource);
 
+    ForeignSource loadForeignSource(String foreignSourceName);
+
     List<ServiceDetector> getDetectorsForForeignSource(String foreignSource);
     
     List<NodePolicy> getNodePoliciesForForeignSource(String foreignSourceName);
@@ -422,8 +422,11 @@ public class Provisioner implements SpringServiceDaemon {
         final LifeCycleInstance doImport = m_lifeCycleRepository.createLifeCycleInstance("import", m_importActivities);
         doImport.setAttribute("resource", resource);
         doImport.setAttribute("rescanExisting", rescanExisting);
+        doImport.setAttribute("monitor", monitor);
         doImport.trigger();
         doImport.waitFor();
+        monitor.finishRelateNodes();
+        monitor.finishImporting();
         final RequisitionImport ri = doImport.findAttributeByType(RequisitionImport.class);
         if (ri.isAborted()) {
             throw new ModelImportException("Import failed for resource " + resource.toString(), ri.getError());
@@ -942,6 +945,33 @@ public class Provisioner implements SpringServiceDaemon {
      */
     public String getStats() { return (m_stats == null ? "No Stats Availabile" : m_stats.toString()); }
 
+    /**
+     * <p>getLastImportStats</p>
+     *
+     * @return the phase timings of the most recent import, or null if no import has been run
+     */
+    public TimeTrackingMonitor getLastImportStats() {
+        return m_stats;
+    }
+
+    /**
+     * <p>getTaskCoordinator</p>
+     *
+     * @return a {@link org.opennms.core.tasks.TaskCoordinator} object.
+     */
+    public TaskCoordinator getTaskCoordinator() {
+        return m_taskCoordinator;
+    }
+
+    /**
+     * <p>getImportActivities</p>
+     *
+     * @return a {@link org.opennms.netmgt.provision.service.CoreImportActivities} object.
+     */
+    public CoreImportActivities getImportActivities() {
+        return m_importActivities;
+    }
+
     private Event importSuccessEvent(final TimeTrackingMonitor stats, final String url, final String rescanExisting) {
     
         return new EventBuilder( EventConstants.IMPORT_SUCCESSFUL_UEI, NAME )
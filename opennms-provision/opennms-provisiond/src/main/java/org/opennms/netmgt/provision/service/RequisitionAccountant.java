@@ -49,17 +49,34 @@ public class RequisitionAccountant extends AbstractRequisitionVisitor {
     public RequisitionAccountant(ImportOperationsManager opsMgr) {
         m_opsMgr = opsMgr;
     }
+
+    /**
+     * Creates an accountant that adds the interfaces, services, categories
+     * and assets of a single node to an operation that was already created
+     * for it.
+     *
+     * @param currentOp a {@link org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation} object.
+     */
+    public RequisitionAccountant(SaveOrUpdateOperation currentOp) {
+        m_opsMgr = null;
+        m_currentOp = currentOp;
+    }
     
     /** {@inheritDoc} */
     @Override
     public void visitNode(OnmsNodeRequisition nodeReq) {
-        m_currentOp = m_opsMgr.foundNode(nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getLocation(), nodeReq.getBuilding(), nodeReq.getCity());
+        if (m_opsMgr != null) {
+            m_currentOp = m_opsMgr.foundNode(nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getLocation(), nodeReq.getBuilding(), nodeReq.getCity(), m_opsMgr.hash(nodeReq.getNode()));
+            m_currentOp.setNodeRequisition(nodeReq);
+        }
     }
 
     /** {@inheritDoc} */
     @Override
     public void completeNode(OnmsNodeRequisition nodeReq) {
-        m_currentOp = null;
+        if (m_opsMgr != null) {
+            m_currentOp = null;
+        }
     }
 
     /** {@inheritDoc} */
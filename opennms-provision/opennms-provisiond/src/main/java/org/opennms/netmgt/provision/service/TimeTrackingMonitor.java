@@ -194,6 +194,51 @@ public class TimeTrackingMonitor implements ProvisionMonitor {
 		m_relateDuration.end();
 	}
 	
+	/**
+	 * <p>getImportTime</p>
+	 *
+	 * @return the time in milliseconds the import took, or has taken so far
+	 */
+	public long getImportTime() {
+		return m_importDuration.getLength();
+	}
+
+	/**
+	 * <p>getAuditTime</p>
+	 *
+	 * @return the time in milliseconds spent auditing the requisition against the database
+	 */
+	public long getAuditTime() {
+		return m_auditDuration.getLength();
+	}
+
+	/**
+	 * <p>getScanTime</p>
+	 *
+	 * @return the time in milliseconds from the first node scan to the last one
+	 */
+	public long getScanTime() {
+		return m_preprocessingDuration.getLength();
+	}
+
+	/**
+	 * <p>getPersistTime</p>
+	 *
+	 * @return the time in milliseconds from the first node scan until every node was written
+	 */
+	public long getPersistTime() {
+		return m_processingDuration.getLength();
+	}
+
+	/**
+	 * <p>getRelateTime</p>
+	 *
+	 * @return the time in milliseconds spent setting the parents of the nodes
+	 */
+	public long getRelateTime() {
+		return m_relateDuration.getLength();
+	}
+
 	/**
 	 * <p>toString</p>
 	 *
@@ -37,8 +37,8 @@ package org.opennms.netmgt.provision.service;
 public class WorkDuration {
 
 	private String m_name = null;
-	private long m_start = -1L;
-	private long m_end = -1L;
+	private volatile long m_start = -1L;
+	private volatile long m_end = -1L;
 	
 	/**
 	 * <p>Constructor for WorkDuration.</p>
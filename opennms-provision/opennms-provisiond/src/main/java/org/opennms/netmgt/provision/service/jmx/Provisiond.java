@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.provision.service.jmx;
+
+import org.opennms.core.tasks.ExecutorStatistics;
+import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.provision.service.Provisioner;
+import org.opennms.netmgt.provision.service.TimeTrackingMonitor;
+
+/**
+ * <p>Provisiond class.</p>
+ */
+public class Provisiond extends AbstractSpringContextJmxServiceDaemon<Provisioner> implements ProvisiondMBean {
+    /** {@inheritDoc} */
+    @Override
+    protected String getLoggingPrefix() {
+        return "provisiond";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String getSpringContext() {
+        return "provisiondContext";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getImportNodesScanned() {
+        return getDaemon().getImportActivities().getNodesScanned();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getImportNodesPersisted() {
+        return getDaemon().getImportActivities().getNodesPersisted();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getImportNodesUnchanged() {
+        return getDaemon().getImportActivities().getNodesUnchanged();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLastImportTime() {
+        final TimeTrackingMonitor stats = getDaemon().getLastImportStats();
+        return stats == null ? 0 : stats.getImportTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLastImportAuditTime() {
+        final TimeTrackingMonitor stats = getDaemon().getLastImportStats();
+        return stats == null ? 0 : stats.getAuditTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLastImportScanTime() {
+        final TimeTrackingMonitor stats = getDaemon().getLastImportStats();
+        return stats == null ? 0 : stats.getScanTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLastImportPersistTime() {
+        final TimeTrackingMonitor stats = getDaemon().getLastImportStats();
+        return stats == null ? 0 : stats.getPersistTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLastImportRelateTime() {
+        final TimeTrackingMonitor stats = getDaemon().getLastImportStats();
+        return stats == null ? 0 : stats.getRelateTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getScanTasksCompleted() {
+        return getExecutorStatistics("scan").getCompleted();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getScanQueueDepth() {
+        return getExecutorStatistics("scan").getQueueDepth();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getScanTaskLatency() {
+        return getExecutorStatistics("scan").getAverageLatency();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getWriteQueueDepth() {
+        return getExecutorStatistics("write").getQueueDepth();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getWriteTaskLatency() {
+        return getExecutorStatistics("write").getAverageLatency();
+    }
+
+    private ExecutorStatistics getExecutorStatistics(final String executorName) {
+        return getDaemon().getTaskCoordinator().getExecutorStatistics(executorName);
+    }
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.provision.service.jmx;
+
+import org.opennms.netmgt.daemon.BaseOnmsMBean;
+
+public interface ProvisiondMBean extends BaseOnmsMBean {
+    /** @return The number of nodes scanned by requisition imports since Provisiond was last started */
+    public long getImportNodesScanned();
+
+    /** @return The number of nodes written to the database by requisition imports since Provisiond was last started */
+    public long getImportNodesPersisted();
+
+    /** @return The number of nodes that requisition imports skipped because they had not changed */
+    public long getImportNodesUnchanged();
+
+    /** @return The duration of the most recent requisition import in milliseconds */
+    public long getLastImportTime();
+
+    /** @return The time the most recent requisition import spent auditing the requisition against the database in milliseconds */
+    public long getLastImportAuditTime();
+
+    /** @return The time the most recent requisition import spent scanning nodes in milliseconds */
+    public long getLastImportScanTime();
+
+    /** @return The time the most recent requisition import took until every node was written in milliseconds */
+    public long getLastImportPersistTime();
+
+    /** @return The time the most recent requisition import spent setting node parents in milliseconds */
+    public long getLastImportRelateTime();
+
+    /** @return The number of tasks that have been run by the scan executor since Provisiond was last started */
+    public long getScanTasksCompleted();
+
+    /** @return The number of tasks waiting for a scan thread */
+    public long getScanQueueDepth();
+
+    /** @return The average time in milliseconds from the submission of a task to the scan executor until it completed */
+    public double getScanTaskLatency();
+
+    /** @return The number of tasks waiting for a write thread */
+    public long getWriteQueueDepth();
+
+    /** @return The average time in milliseconds from the submission of a task to the write executor until it completed */
+    public double getWriteTaskLatency();
+}
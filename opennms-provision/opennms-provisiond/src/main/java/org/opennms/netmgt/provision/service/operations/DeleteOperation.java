@@ -33,6 +33,7 @@ import org.opennms.netmgt.provision.service.ProvisionService;
 public class DeleteOperation extends ImportOperation {
     
     private Integer m_nodeId;
+    private final String m_foreignId;
     
     /**
      * <p>Constructor for DeleteOperation.</p>
@@ -45,6 +46,11 @@ public class DeleteOperation extends ImportOperation {
     public DeleteOperation(Integer nodeId, String foreignSource, String foreignId, ProvisionService provisionService) {
         super(provisionService);
         m_nodeId = nodeId;
+        m_foreignId = foreignId;
+    }
+
+    String getForeignId() {
+        return m_foreignId;
     }
 
     /**
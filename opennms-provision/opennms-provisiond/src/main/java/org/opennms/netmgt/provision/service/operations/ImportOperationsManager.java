@@ -33,17 +33,21 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 import org.opennms.netmgt.provision.service.ProvisionService;
 import org.opennms.netmgt.provision.service.RequisitionAccountant;
 import org.slf4j.Logger;
@@ -66,12 +70,17 @@ public class ImportOperationsManager {
      */
     private final List<ImportOperation> m_inserts = new LinkedList<ImportOperation>();
     private final List<ImportOperation> m_updates = new LinkedList<ImportOperation>();
+    private final Set<String> m_unchanged = new HashSet<String>();
+    private final List<ImportOperation> m_pendingWrites = new ArrayList<ImportOperation>();
     
     private final ProvisionService m_provisionService;
     private final Map<String, Integer> m_foreignIdToNodeMap;
     private String m_rescanExisting;
     
     private String m_foreignSource;
+    private ImportedNodeHashes m_importedNodes;
+    private ProvisionMonitor m_monitor = new NoOpProvisionMonitor();
+    private int m_persistBatchSize = 1;
     
     /**
      * <p>Constructor for ImportOperationsManager.</p>
@@ -97,16 +106,43 @@ public class ImportOperationsManager {
      * @return a {@link org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation} object.
      */
     public SaveOrUpdateOperation foundNode(String foreignId, String nodeLabel, String location, String building, String city) {
+        return foundNode(foreignId, nodeLabel, location, building, city, null);
+    }
+
+    /**
+     * <p>foundNode</p>
+     *
+     * @param foreignId a {@link java.lang.String} object.
+     * @param nodeLabel a {@link java.lang.String} object.
+     * @param location a {@link java.lang.String} object.
+     * @param building a {@link java.lang.String} object.
+     * @param city a {@link java.lang.String} object.
+     * @param hash the hash of the requisition node, see {@link #hash(RequisitionNode)}
+     * @return a {@link org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation} object.
+     */
+    public SaveOrUpdateOperation foundNode(String foreignId, String nodeLabel, String location, String building, String city, Long hash) {
         
         SaveOrUpdateOperation ret;
         if (nodeExists(foreignId)) {
-            ret = updateNode(foreignId, nodeLabel, location, building, city);
+            ret = updateNode(foreignId, nodeLabel, location, building, city, hash);
         } else {
             ret = insertNode(foreignId, nodeLabel, location, building, city);
         }        
+        ret.setHash(hash);
         return ret;
     }
 
+    /**
+     * Returns the hash of the given requisition node if imported nodes are
+     * being tracked for changes, or null otherwise.
+     *
+     * @param node a {@link org.opennms.netmgt.provision.persist.requisition.RequisitionNode} object.
+     * @return a {@link java.lang.Long} object.
+     */
+    public Long hash(RequisitionNode node) {
+        return m_importedNodes == null ? null : ImportedNodeHashes.hash(node);
+    }
+
     private boolean nodeExists(String foreignId) {
         return m_foreignIdToNodeMap.containsKey(foreignId);
     }
@@ -117,8 +153,16 @@ public class ImportOperationsManager {
         return insertOperation;
     }
 
-    private SaveOrUpdateOperation updateNode(final String foreignId, final String nodeLabel, final String location, final String building, final String city) {
+    private SaveOrUpdateOperation updateNode(final String foreignId, final String nodeLabel, final String location, final String building, final String city, final Long hash) {
         final Integer nodeId = processForeignId(foreignId);
+        if (hash != null && !Boolean.valueOf(m_rescanExisting) && hash.equals(m_importedNodes.getHashes(getForeignSource()).get(foreignId))) {
+            // The node has not changed since it was last imported, the operation
+            // is still handed to the requisition visitor but it is never scanned
+            // or persisted.  Imports that force a rescan process every node.
+            LOG.debug("Node {} of foreign source {} has not changed since the last import", foreignId, getForeignSource());
+            m_unchanged.add(foreignId);
+            return new NullUpdateOperation(nodeId, getForeignSource(), foreignId, nodeLabel, location, building, city, m_provisionService, m_rescanExisting);
+        }
         final UpdateOperation updateOperation;
         if (Boolean.valueOf(m_rescanExisting) || m_rescanExisting.equalsIgnoreCase("dbonly")) {
             updateOperation = new UpdateOperation(nodeId, getForeignSource(), foreignId, nodeLabel, location, building, city, m_provisionService, m_rescanExisting);
@@ -174,6 +218,25 @@ public class ImportOperationsManager {
     public int getDeleteCount() {
     	return m_foreignIdToNodeMap.size();
     }
+
+    /**
+     * <p>getUnchangedCount</p>
+     *
+     * @return the number of nodes that have not changed since the last import
+     */
+    public int getUnchangedCount() {
+        return m_unchanged.size();
+    }
+
+    /**
+     * <p>isUnchanged</p>
+     *
+     * @param foreignId a {@link java.lang.String} object.
+     * @return true if the node has not changed since the last import
+     */
+    public boolean isUnchanged(String foreignId) {
+        return m_unchanged.contains(foreignId);
+    }
     
     private class DeleteIterator implements Iterator<ImportOperation> {
     	
@@ -303,6 +366,161 @@ public class ImportOperationsManager {
     public String getRescanExisting() {
         return m_rescanExisting;
     }
+
+    /**
+     * Enables change tracking: nodes whose hash matches the one recorded in
+     * <code>importedNodes</code> are skipped, and the hashes of the nodes
+     * persisted by this import are recorded there.
+     *
+     * @param importedNodes a {@link org.opennms.netmgt.provision.service.operations.ImportedNodeHashes} object.
+     */
+    public void setImportedNodeHashes(ImportedNodeHashes importedNodes) {
+        m_importedNodes = importedNodes;
+    }
+
+    public void setProvisionMonitor(ProvisionMonitor monitor) {
+        m_monitor = monitor;
+    }
+
+    /**
+     * Sets the number of operations that are written to the database in a
+     * single transaction, the default of 1 persists every operation on its own.
+     *
+     * @param persistBatchSize a int.
+     */
+    public void setPersistBatchSize(int persistBatchSize) {
+        m_persistBatchSize = Math.max(1, persistBatchSize);
+    }
+
+    public int getPersistBatchSize() {
+        return m_persistBatchSize;
+    }
+
+    /**
+     * Queues the operation to be written to the database and writes the
+     * pending operations once a batch is complete.
+     *
+     * @param oper a {@link org.opennms.netmgt.provision.service.operations.ImportOperation} object.
+     * @return the number of operations written by this call
+     */
+    public int persist(ImportOperation oper) {
+        final List<ImportOperation> batch;
+        synchronized(m_pendingWrites) {
+            m_pendingWrites.add(oper);
+            if (m_pendingWrites.size() < m_persistBatchSize) {
+                return 0;
+            }
+            batch = new ArrayList<ImportOperation>(m_pendingWrites);
+            m_pendingWrites.clear();
+        }
+        return persistBatch(batch);
+    }
+
+    /**
+     * Writes the operations that are still waiting for their batch to fill up.
+     *
+     * @return the number of operations written by this call
+     */
+    public int flush() {
+        final List<ImportOperation> batch;
+        synchronized(m_pendingWrites) {
+            batch = new ArrayList<ImportOperation>(m_pendingWrites);
+            m_pendingWrites.clear();
+        }
+        return batch.isEmpty() ? 0 : persistBatch(batch);
+    }
+
+    private int persistBatch(final List<ImportOperation> batch) {
+        if (batch.size() > 1) {
+            try {
+                LOG.info("Persisting a batch of {} operations for foreign source {}", batch.size(), getForeignSource());
+                m_provisionService.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (final ImportOperation oper : batch) {
+                            m_monitor.beginPersisting(oper);
+                            try {
+                                oper.doPersist();
+                            } finally {
+                                m_monitor.finishPersisting(oper);
+                            }
+                        }
+                    }
+                });
+                m_provisionService.clearCache();
+                for (final ImportOperation oper : batch) {
+                    persisted(oper);
+                }
+                return batch.size();
+            } catch (final RuntimeException e) {
+                // A single bad node rolls back the whole batch, retry the operations
+                // one at a time so that only the failing one is lost
+                LOG.warn("Failed to persist a batch of {} operations for foreign source {}, persisting them one at a time", batch.size(), getForeignSource(), e);
+                m_provisionService.clearCache();
+            }
+        }
+
+        int persisted = 0;
+        for (final ImportOperation batched : batch) {
+            // Only reached with more than one operation when the batch was rolled back
+            final ImportOperation oper = batch.size() > 1 ? rebuild(batched) : batched;
+            m_monitor.beginPersisting(oper);
+            try {
+                oper.persist();
+                persisted(oper);
+                persisted++;
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to persist {}", oper, e);
+            } finally {
+                m_monitor.finishPersisting(oper);
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * Builds an operation of a rolled back batch again from the requisition
+     * node that it was created from. The entities of the original operation
+     * were attached to the session that was rolled back, they may carry the
+     * IDs of inserts that never happened or collections that were changed by
+     * the failed flush.
+     */
+    private ImportOperation rebuild(final ImportOperation oper) {
+        if (!(oper instanceof SaveOrUpdateOperation) || oper instanceof NullUpdateOperation) {
+            return oper;
+        }
+        final SaveOrUpdateOperation original = (SaveOrUpdateOperation)oper;
+        final OnmsNodeRequisition nodeReq = original.getNodeRequisition();
+        if (nodeReq == null) {
+            return oper;
+        }
+
+        final SaveOrUpdateOperation rebuilt;
+        if (original instanceof InsertOperation) {
+            rebuilt = new InsertOperation(getForeignSource(), nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getLocation(), nodeReq.getBuilding(), nodeReq.getCity(), m_provisionService);
+        } else {
+            rebuilt = new UpdateOperation(original.getNodeId(), getForeignSource(), nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getLocation(), nodeReq.getBuilding(), nodeReq.getCity(), m_provisionService, m_rescanExisting);
+        }
+        rebuilt.setHash(original.getHash());
+        rebuilt.setNodeRequisition(nodeReq);
+        nodeReq.visit(new RequisitionAccountant(rebuilt));
+        rebuilt.applyScan(original);
+        return rebuilt;
+    }
+
+    private void persisted(final ImportOperation oper) {
+        if (m_importedNodes == null) {
+            return;
+        }
+        if (oper instanceof DeleteOperation) {
+            m_importedNodes.removed(getForeignSource(), ((DeleteOperation)oper).getForeignId());
+        } else if (oper instanceof SaveOrUpdateOperation && !(oper instanceof NullUpdateOperation)) {
+            final SaveOrUpdateOperation saveOrUpdate = (SaveOrUpdateOperation)oper;
+            if (saveOrUpdate.getHash() != null) {
+                m_importedNodes.persisted(getForeignSource(), saveOrUpdate.getNode().getForeignId(), saveOrUpdate.getHash());
+            }
+        }
+    }
     
     /**
      * <p>auditNodes</p>
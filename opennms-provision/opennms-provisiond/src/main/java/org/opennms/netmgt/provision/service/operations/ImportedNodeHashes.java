@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.provision.service.operations;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.provision.persist.foreignsource.ForeignSource;
+import org.opennms.netmgt.provision.persist.foreignsource.PluginConfig;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+/**
+ * Remembers a hash of every requisition node that an import has written to
+ * the database, so that the next import of the same foreign source can tell
+ * which nodes have not changed since then.
+ *
+ * Hashes are only recorded once a node has been persisted successfully, a
+ * node that failed to persist is therefore treated as changed on the next
+ * import.  The hashes of a foreign source are forgotten whenever its
+ * definition changes, since new detectors or policies may change the result
+ * of an import even when the requisition nodes themselves did not.  The
+ * hashes are held in memory, so the first import of each foreign source
+ * after Provisiond starts processes every node.
+ */
+public class ImportedNodeHashes {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Long>> m_hashes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> m_definitions = new ConcurrentHashMap<>();
+
+    /**
+     * Computes the hash of a requisition node from its XML representation,
+     * which covers the node's attributes, interfaces, services, categories
+     * and assets.
+     */
+    public static long hash(final RequisitionNode node) {
+        return digest(JaxbUtils.marshal(node));
+    }
+
+    /**
+     * Computes the hash of a foreign source definition from its scan
+     * interval, detectors and policies.  The date stamp is left out, so
+     * saving an unmodified definition does not count as a change.
+     */
+    public static long hash(final ForeignSource foreignSource) {
+        if (foreignSource == null) {
+            return 0;
+        }
+        final StringBuilder definition = new StringBuilder();
+        definition.append(foreignSource.getScanInterval()).append('\n');
+        for (final PluginConfig detector : foreignSource.getDetectors()) {
+            appendPlugin(definition.append("detector "), detector);
+        }
+        for (final PluginConfig policy : foreignSource.getPolicies()) {
+            appendPlugin(definition.append("policy "), policy);
+        }
+        return digest(definition.toString());
+    }
+
+    private static void appendPlugin(final StringBuilder definition, final PluginConfig plugin) {
+        definition.append(plugin.getName()).append(' ').append(plugin.getPluginClass());
+        for (final Map.Entry<String, String> parameter : new TreeMap<String, String>(plugin.getParameterMap()).entrySet()) {
+            definition.append(' ').append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+        definition.append('\n');
+    }
+
+    private static long digest(final String text) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Records the hash of the definition that the given foreign source is
+     * about to be imported with, forgetting the hashes of its nodes when it
+     * differs from the definition they were imported with.
+     */
+    public void definition(final String foreignSource, final long hash) {
+        final Long previous = m_definitions.put(foreignSource, hash);
+        if (previous != null && previous.longValue() != hash) {
+            m_hashes.remove(foreignSource);
+        }
+    }
+
+    /**
+     * Returns the hashes recorded for the nodes of the given foreign source,
+     * keyed by foreign ID.
+     */
+    public Map<String, Long> getHashes(final String foreignSource) {
+        final Map<String, Long> hashes = m_hashes.get(foreignSource);
+        return hashes == null ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap(hashes);
+    }
+
+    public void persisted(final String foreignSource, final String foreignId, final long hash) {
+        m_hashes.computeIfAbsent(foreignSource, fs -> new ConcurrentHashMap<>()).put(foreignId, hash);
+    }
+
+    public void removed(final String foreignSource, final String foreignId) {
+        final Map<String, Long> hashes = m_hashes.get(foreignSource);
+        if (hashes != null) {
+            hashes.remove(foreignId);
+        }
+    }
+
+    public void clear() {
+        m_hashes.clear();
+        m_definitions.clear();
+    }
+}
@@ -28,16 +28,30 @@
 
 package org.opennms.netmgt.provision.service.operations;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.xml.bind.ValidationException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.service.ModelImportException;
+import org.opennms.netmgt.provision.service.ScanProgress;
 
-public class RequisitionImport {
+/**
+ * Tracks the state of a single requisition import: the requisition being
+ * imported, whether the import has been aborted and how far the node scans
+ * and writes have progressed.
+ */
+public class RequisitionImport implements ScanProgress {
     private static final Logger LOG = LoggerFactory.getLogger(RequisitionImport.class);
     private Requisition m_requisition;
-    private Throwable m_throwable;
+    private volatile Throwable m_throwable;
+    private ProvisionMonitor m_monitor = new NoOpProvisionMonitor();
+    private final AtomicInteger m_nodesToImport = new AtomicInteger();
+    private final AtomicInteger m_nodesUnchanged = new AtomicInteger();
+    private final AtomicInteger m_nodesScanned = new AtomicInteger();
+    private final AtomicInteger m_nodesPersisted = new AtomicInteger();
 
     public Requisition getRequisition() {
         return m_requisition;
@@ -68,9 +82,63 @@ public class RequisitionImport {
         }
     }
 
+    @Override
+    public void abort(final String message) {
+        abort(new ModelImportException(message));
+    }
+
+    @Override
     public boolean isAborted() {
         if (m_throwable != null) return true;
         return false;
     }
 
+    public ProvisionMonitor getMonitor() {
+        return m_monitor;
+    }
+
+    public void setMonitor(final ProvisionMonitor monitor) {
+        m_monitor = monitor;
+    }
+
+    /**
+     * Records the outcome of the audit: the number of operations that will
+     * be scanned and persisted, and the number of nodes that are skipped
+     * because they have not changed since the last import.
+     */
+    public void audited(final int nodesToImport, final int nodesUnchanged) {
+        m_nodesToImport.set(nodesToImport);
+        m_nodesUnchanged.set(nodesUnchanged);
+    }
+
+    public void nodeScanned() {
+        m_nodesScanned.incrementAndGet();
+    }
+
+    public void nodesPersisted(final int count) {
+        m_nodesPersisted.addAndGet(count);
+    }
+
+    public int getNodesToImport() {
+        return m_nodesToImport.get();
+    }
+
+    public int getNodesUnchanged() {
+        return m_nodesUnchanged.get();
+    }
+
+    public int getNodesScanned() {
+        return m_nodesScanned.get();
+    }
+
+    public int getNodesPersisted() {
+        return m_nodesPersisted.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RequisitionImport [requisition=%s, nodesToImport=%d, nodesUnchanged=%d, nodesScanned=%d, nodesPersisted=%d, aborted=%s]",
+                m_requisition == null ? null : m_requisition.getForeignSource(), getNodesToImport(), getNodesUnchanged(), getNodesScanned(), getNodesPersisted(), isAborted());
+    }
+
 }
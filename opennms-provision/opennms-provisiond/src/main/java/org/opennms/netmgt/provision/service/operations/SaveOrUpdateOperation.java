@@ -40,6 +40,7 @@ import org.opennms.netmgt.model.PrimaryType;
 import org.opennms.netmgt.model.monitoringLocations.OnmsMonitoringLocation;
 import org.opennms.netmgt.model.OnmsNode.NodeLabelSource;
 import org.opennms.netmgt.model.OnmsNode.NodeType;
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
 import org.opennms.netmgt.provision.service.ProvisionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,15 +51,19 @@ import org.springframework.beans.PropertyAccessorFactory;
 public abstract class SaveOrUpdateOperation extends ImportOperation {
     private static final Logger LOG = LoggerFactory.getLogger(SaveOrUpdateOperation.class);
 
+    private final Integer m_nodeId;
     private final OnmsNode m_node;
     private OnmsIpInterface m_currentInterface;
     
     private ScanManager m_scanManager;
     private String m_rescanExisting = Boolean.TRUE.toString();
+    private Long m_hash;
+    private OnmsNodeRequisition m_nodeRequisition;
 
     protected SaveOrUpdateOperation(Integer nodeId, String foreignSource, String foreignId, String nodeLabel, String location, String building, String city, ProvisionService provisionService, String rescanExisting) {
         super(provisionService);
 
+        m_nodeId = nodeId;
         m_node = new OnmsNode(new OnmsMonitoringLocation(location, location), nodeLabel);
         m_node.setId(nodeId);
         m_node.setLabelSource(NodeLabelSource.USER);
@@ -173,6 +178,64 @@ public abstract class SaveOrUpdateOperation extends ImportOperation {
         return m_rescanExisting;
     }
 
+    /**
+     * <p>getLocation</p>
+     *
+     * @return the name of the monitoring location of the node
+     */
+    public String getLocation() {
+        return m_node.getLocation() == null ? null : m_node.getLocation().getLocationName();
+    }
+
+    /**
+     * The hash of the requisition node this operation was built from, or
+     * null if imported nodes are not being tracked for changes.
+     */
+    Long getHash() {
+        return m_hash;
+    }
+
+    void setHash(final Long hash) {
+        m_hash = hash;
+    }
+
+    /**
+     * The ID of the node when the operation was created, the ID of the node
+     * returned by {@link #getNode()} is assigned when it is inserted.
+     */
+    Integer getNodeId() {
+        return m_nodeId;
+    }
+
+    /**
+     * The requisition node this operation was built from, or null if it was
+     * not built by a {@link org.opennms.netmgt.provision.service.RequisitionAccountant}.
+     */
+    OnmsNodeRequisition getNodeRequisition() {
+        return m_nodeRequisition;
+    }
+
+    /**
+     * <p>setNodeRequisition</p>
+     *
+     * @param nodeRequisition a {@link org.opennms.netmgt.provision.persist.OnmsNodeRequisition} object.
+     */
+    public void setNodeRequisition(final OnmsNodeRequisition nodeRequisition) {
+        m_nodeRequisition = nodeRequisition;
+    }
+
+    /**
+     * Applies the SNMP data that was collected by the scan of another
+     * operation for the same node, so that the node can be built again
+     * without scanning it again.
+     */
+    void applyScan(final SaveOrUpdateOperation scanned) {
+        if (scanned.m_scanManager != null) {
+            m_scanManager = scanned.m_scanManager;
+            m_scanManager.applySnmpData(m_node);
+        }
+    }
+
     /**
      * <p>foundAsset</p>
      *
@@ -65,6 +65,7 @@ public class ScanManager {
     private IpAddrTable m_ipAddrTable;
     private IpAddressTable m_ipAddressTable;
     private IfXTable m_ifXTable;
+    private boolean m_walked = false;
 
     ScanManager(LocationAwareSnmpClient locationAwareSnmpClient, InetAddress address) {
         m_locationAwareSnmpClient = Objects.requireNonNull(locationAwareSnmpClient);
@@ -181,30 +182,59 @@ public class ScanManager {
                 // pass
             }
 
-            m_systemGroup.updateSnmpDataForNode(node);
+            m_walked = true;
+            applySnmpData(node);
+        } catch (final InterruptedException e) {
+            LOG.info("thread interrupted while updating SNMP data", e);
+            Thread.currentThread().interrupt();
+
+        }
         
-            for(final SnmpInstId ifIndex : ifIndices) {
-                m_ifTable.updateSnmpInterfaceData(node, ifIndex.toInt());
-            }
 
-            for(final SnmpInstId ifIndex : ifIndices) {
-                m_ifXTable.updateSnmpInterfaceData(node, ifIndex.toInt());
-            }
+    }
 
-            for(final SnmpInstId ipAddr : ipAddrs) {   
-                m_ipAddrTable.updateIpInterfaceData(node, ipAddr.toString());
-            }
+    /**
+     * Applies the data of the last {@link #updateSnmpData(OnmsNode)} to the
+     * given node without walking the agent again. Does nothing if the agent
+     * was never walked.
+     */
+    void applySnmpData(final OnmsNode node) {
+        if (!m_walked) {
+            return;
+        }
 
-            for (final InetAddress addr : ipAddresses) {
-            	m_ipAddressTable.updateIpInterfaceData(node, InetAddressUtils.str(addr));
+        final Set<SnmpInstId> ipAddrs = new TreeSet<SnmpInstId>();
+        final Set<InetAddress> ipAddresses = new HashSet<InetAddress>();
+        for(final OnmsIpInterface iface : node.getIpInterfaces()) {
+            final InetAddress addr = iface.getIpAddress();
+            if (addr != null && addr instanceof Inet4Address) {
+                ipAddrs.add(new SnmpInstId(InetAddressUtils.toOid(addr)));
             }
-        } catch (final InterruptedException e) {
-            LOG.info("thread interrupted while updating SNMP data", e);
-            Thread.currentThread().interrupt();
+            ipAddresses.add(addr);
+        }
 
+        final Set<SnmpInstId> ifIndices = new TreeSet<SnmpInstId>();
+        for(final Integer ifIndex : m_ipAddrTable.getIfIndices()) {
+            ifIndices.add(new SnmpInstId(ifIndex));
         }
+
+        m_systemGroup.updateSnmpDataForNode(node);
         
+        for(final SnmpInstId ifIndex : ifIndices) {
+            m_ifTable.updateSnmpInterfaceData(node, ifIndex.toInt());
+        }
 
+        for(final SnmpInstId ifIndex : ifIndices) {
+            m_ifXTable.updateSnmpInterfaceData(node, ifIndex.toInt());
+        }
+
+        for(final SnmpInstId ipAddr : ipAddrs) {   
+            m_ipAddrTable.updateIpInterfaceData(node, ipAddr.toString());
+        }
+
+        for (final InetAddress addr : ipAddresses) {
+        	m_ipAddressTable.updateIpInterfaceData(node, InetAddressUtils.str(addr));
+        }
     }
 
     /**
@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.provision.service.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.dao.TransactionAwareEventForwarder;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionInterface;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.opennms.netmgt.provision.service.ProvisionService;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class ImportOperationsManagerTest {
+
+    private ImportedNodeHashes m_importedNodes;
+
+    private ProvisionService m_provisionService;
+
+    /**
+     * The nodes written by committed transactions
+     */
+    private final List<String> m_updatedNodes = new ArrayList<>();
+
+    private final List<String> m_sentEvents = new ArrayList<>();
+
+    private String m_failingNode;
+
+    private int m_transactions;
+
+    private int m_nextId = 100;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "ERROR");
+        System.setProperty("org.opennms.provisiond.reverseResolveRequisitionIpInterfaceHostnames", "false");
+        m_importedNodes = new ImportedNodeHashes();
+
+        // Events are held back until the transaction commits, as they are by
+        // the event forwarder of the provisioning service
+        final EventForwarder eventForwarder = new TransactionAwareEventForwarder(new EventForwarder() {
+            @Override
+            public void sendNow(final Event event) {
+                m_sentEvents.add(event.getUei().substring(event.getUei().lastIndexOf('/') + 1) + " " + event.getNodeid());
+            }
+
+            @Override
+            public void sendNow(final Log eventLog) {
+                for (final Event event : eventLog.getEvents().getEventCollection()) {
+                    sendNow(event);
+                }
+            }
+        });
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(new StubTransactionManager());
+
+        m_provisionService = (ProvisionService)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ProvisionService.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                if ("runInTransaction".equals(method.getName())) {
+                    m_transactions++;
+                    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                        @Override
+                        protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                            ((Runnable)args[0]).run();
+                        }
+                    });
+                } else if ("updateNode".equals(method.getName()) || "insertNode".equals(method.getName())) {
+                    final boolean insert = "insertNode".equals(method.getName());
+                    final OnmsNode node = (OnmsNode)args[0];
+                    if (insert) {
+                        assertNull("the node still has the ID of a rolled back insert", node.getId());
+                        node.setId(m_nextId++);
+                        for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+                            assertNull("the interface still has the ID of a rolled back insert", iface.getId());
+                            iface.setId(m_nextId++);
+                        }
+                    }
+                    if (node.getLabel().equals(m_failingNode)) {
+                        throw new IllegalStateException("failed to write " + node.getLabel());
+                    }
+                    written(node.getLabel());
+                    eventForwarder.sendNow(new EventBuilder(insert ? EventConstants.NODE_ADDED_EVENT_UEI : EventConstants.NODE_UPDATED_EVENT_UEI, "Test").setNodeid(node.getId()).getEvent());
+                }
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("org.opennms.provisiond.reverseResolveRequisitionIpInterfaceHostnames");
+    }
+
+    private void written(final String label) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    m_updatedNodes.add(label);
+                }
+            });
+        } else {
+            m_updatedNodes.add(label);
+        }
+    }
+
+    @Test
+    public void testUnchangedNodesAreSkipped() {
+        ImportOperationsManager opsMgr = audit(requisition("node1", "node2", "node3"));
+        assertEquals(3, opsMgr.getUpdateCount());
+        assertEquals(0, opsMgr.getUnchangedCount());
+        assertEquals(3, persistAll(opsMgr));
+        assertEquals(1, m_transactions);
+
+        // Only the relabelled node is updated by the second import
+        opsMgr = audit(requisition("node1", "node2-renamed", "node3"));
+        assertEquals(1, opsMgr.getUpdateCount());
+        assertEquals(2, opsMgr.getUnchangedCount());
+        assertTrue(opsMgr.isUnchanged("1"));
+        assertFalse(opsMgr.isUnchanged("2"));
+        assertTrue(opsMgr.isUnchanged("3"));
+        assertEquals(1, opsMgr.getOperations().size());
+
+        m_updatedNodes.clear();
+        assertEquals(1, persistAll(opsMgr));
+        assertEquals("[node2-renamed]", m_updatedNodes.toString());
+
+        assertEquals(3, audit(requisition("node1", "node2-renamed", "node3")).getUnchangedCount());
+    }
+
+    @Test
+    public void testForcedRescanUpdatesUnchangedNodes() {
+        assertEquals(3, persistAll(audit(requisition("node1", "node2", "node3"))));
+
+        final ImportOperationsManager opsMgr = audit(requisition("node1", "node2", "node3"), Boolean.TRUE.toString());
+        assertEquals(3, opsMgr.getUpdateCount());
+        assertEquals(0, opsMgr.getUnchangedCount());
+    }
+
+    @Test
+    public void testChangedForeignSourceUpdatesUnchangedNodes() {
+        m_importedNodes.definition("test", 1);
+        assertEquals(3, persistAll(audit(requisition("node1", "node2", "node3"))));
+
+        m_importedNodes.definition("test", 1);
+        assertEquals(3, audit(requisition("node1", "node2", "node3")).getUnchangedCount());
+
+        // New detectors or policies may change the nodes of the import
+        m_importedNodes.definition("test", 2);
+        assertEquals(0, audit(requisition("node1", "node2", "node3")).getUnchangedCount());
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedOneAtATime() {
+        m_failingNode = "node2";
+        final ImportOperationsManager opsMgr = audit(requisition("node1", "node2", "node3"));
+        assertEquals(2, persistAll(opsMgr));
+        // node1 is written again after the batch that it was part of was rolled back
+        assertEquals("[node1, node3]", m_updatedNodes.toString());
+        assertEquals("[nodeUpdated 1, nodeUpdated 3]", m_sentEvents.toString());
+
+        // The node that failed to persist must not be treated as unchanged
+        m_failingNode = null;
+        final ImportOperationsManager nextOpsMgr = audit(requisition("node1", "node2", "node3"));
+        assertEquals(2, nextOpsMgr.getUnchangedCount());
+        assertFalse(nextOpsMgr.isUnchanged("2"));
+    }
+
+    @Test
+    public void testRolledBackBatchIsRebuilt() {
+        m_failingNode = "node2";
+        final ImportOperationsManager opsMgr = audit(requisition("node1", "node2", "node3"), new HashMap<String, Integer>());
+        assertEquals(3, opsMgr.getInsertCount());
+
+        // The inserts of node1 and node3 are rolled back with node2, the
+        // nodes are written once more without the IDs of the aborted inserts
+        assertEquals(2, persistAll(opsMgr));
+        assertEquals(1, m_transactions);
+        assertEquals("[node1, node3]", m_updatedNodes.toString());
+        assertEquals("[nodeAdded 104, nodeAdded 108]", m_sentEvents.toString());
+    }
+
+    private static Requisition requisition(final String... labels) {
+        final Requisition requisition = new Requisition("test");
+        for (int i = 0; i < labels.length; i++) {
+            final RequisitionNode node = new RequisitionNode();
+            node.setForeignId(Integer.toString(i + 1));
+            node.setNodeLabel(labels[i]);
+            final RequisitionInterface iface = new RequisitionInterface();
+            iface.setIpAddr("192.0.2." + (i + 1));
+            node.putInterface(iface);
+            requisition.insertNode(node);
+        }
+        return requisition;
+    }
+
+    private ImportOperationsManager audit(final Requisition requisition) {
+        return audit(requisition, "dbonly");
+    }
+
+    private ImportOperationsManager audit(final Requisition requisition, final String rescanExisting) {
+        final Map<String, Integer> foreignIdToNodeMap = new HashMap<>();
+        for (final RequisitionNode node : requisition.getNodes()) {
+            foreignIdToNodeMap.put(node.getForeignId(), Integer.valueOf(node.getForeignId()));
+        }
+        return audit(requisition, foreignIdToNodeMap, rescanExisting);
+    }
+
+    private ImportOperationsManager audit(final Requisition requisition, final Map<String, Integer> foreignIdToNodeMap) {
+        return audit(requisition, foreignIdToNodeMap, "dbonly");
+    }
+
+    private ImportOperationsManager audit(final Requisition requisition, final Map<String, Integer> foreignIdToNodeMap, final String rescanExisting) {
+        final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdToNodeMap, m_provisionService, rescanExisting);
+        opsMgr.setForeignSource(requisition.getForeignSource());
+        opsMgr.setImportedNodeHashes(m_importedNodes);
+        opsMgr.setPersistBatchSize(10);
+        opsMgr.auditNodes(requisition);
+        return opsMgr;
+    }
+
+    private static int persistAll(final ImportOperationsManager opsMgr) {
+        int persisted = 0;
+        for (final ImportOperation oper : opsMgr.getOperations()) {
+            persisted += opsMgr.persist(oper);
+        }
+        return persisted + opsMgr.flush();
+    }
+
+    /**
+     * Runs the synchronizations of the transactions without a database.
+     */
+    @SuppressWarnings("serial")
+    private static class StubTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(final Object transaction, final TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(final DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(final DefaultTransactionStatus status) {
+        }
+    }
+}
@@ -74,6 +74,11 @@ import org.slf4j.LoggerFactory;
  * updates are put at the lowest priority and are only written when the highest
  * priority updates have been written
  *
+ * Updates passed as a timestamp and an array of values are kept in primitive
+ * arrays, and consecutive updates for the same file are coalesced into a
+ * single operation, so a backlog does not cost a string and an operation object
+ * per update. Textual updates are parsed once on the way in.
+ *
  * This implementation delegates all the actual writing to another RrdStrategy
  * implementation.
  *
@@ -554,17 +559,17 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         @Override
         Object process(Object rrd) throws Exception {
             long ts = getFirstTimeStamp();
+            final double[] zero = new double[] { 0.0 };
             for (int i = 0; i < count; i++) {
                 // open the file if we need to
                 if (rrd == null)
                     rrd = m_delegate.openFile(getFileName());
 
-                String update = ts + ":0";
                 try {
                     // process the update
-                    m_delegate.updateFile(rrd, "", update);
+                    m_delegate.updateFile(rrd, "", ts, zero);
                 } catch (Throwable e) {
-                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + update, e);
+                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + ts + ":0", e);
                 }
                 ts += getInterval();
 
@@ -641,6 +646,99 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         }
     }
 
+    /**
+     * Represents one or more typed updates to a rrd file. Consecutive
+     * updates with the same number of values are coalesced into a single
+     * operation whose timestamps and values are kept in primitive arrays
+     * rather than as one object per update.
+     */
+    public class SampleUpdateOperation extends UpdateOperation {
+
+        private final int width;
+
+        private long[] timeStamps;
+
+        private double[] values;
+
+        private int count;
+
+        SampleUpdateOperation(String fileName, long timeStamp, double[] values) {
+            super(fileName, null);
+            this.width = values.length;
+            this.timeStamps = new long[] { timeStamp };
+            this.values = values;
+            this.count = 1;
+        }
+
+        @Override
+        Object process(Object rrd) throws Exception {
+            final double[] sample = new double[width];
+            for (int i = 0; i < count; i++) {
+                // open the file if we need to
+                if (rrd == null)
+                    rrd = m_delegate.openFile(getFileName());
+
+                System.arraycopy(values, i * width, sample, 0, width);
+                try {
+                    // process the update
+                    m_delegate.updateFile(rrd, "", timeStamps[i], sample);
+                } catch (Throwable e) {
+                    final String error = String.format("Error processing update %d for file %s: %s", i, getFileName(), RrdUpdateUtils.formatUpdate(timeStamps[i], sample));
+                    m_log.debug(error, e);
+                    throw new Exception(error, e);
+                }
+
+                // keep stats
+                setUpdatesCompleted(getUpdatesCompleted() + 1);
+                if (getUpdatesCompleted() % m_modulus == 0) {
+                    logStats();
+                }
+            }
+            return rrd;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        public long getTimeStamp(int index) {
+            return timeStamps[index];
+        }
+
+        public double getValue(int index, int ds) {
+            return values[index * width + ds];
+        }
+
+        void mergeUpdates(SampleUpdateOperation op) {
+            final int newCount = count + op.count;
+            if (timeStamps.length < newCount) {
+                final int capacity = Math.max(newCount, timeStamps.length * 2);
+                final long[] newTimeStamps = new long[capacity];
+                System.arraycopy(timeStamps, 0, newTimeStamps, 0, count);
+                timeStamps = newTimeStamps;
+                final double[] newValues = new double[capacity * width];
+                System.arraycopy(values, 0, newValues, 0, count * width);
+                values = newValues;
+            }
+            System.arraycopy(op.timeStamps, 0, timeStamps, count, op.count);
+            System.arraycopy(op.values, 0, values, count * width, op.count * width);
+            count = newCount;
+        }
+
+        @Override
+        void addToPendingList(LinkedList<Operation> pendingOperations) {
+            if (pendingOperations.size() > 0 && pendingOperations.getLast() instanceof SampleUpdateOperation
+                    && ((SampleUpdateOperation) pendingOperations.getLast()).width == width) {
+                ((SampleUpdateOperation) pendingOperations.getLast()).mergeUpdates(this);
+            } else {
+                // the caller may reuse its array once the update is enqueued
+                values = values.clone();
+                super.addToPendingList(pendingOperations);
+            }
+        }
+    }
+
     /**
      * <p>makeCreateOperation</p>
      *
@@ -663,19 +761,34 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     Operation makeUpdateOperation(String fileName, String owner, String update) {
         try {
             int colon = update.indexOf(':');
-            if ((colon >= 0) && (Double.parseDouble(update.substring(colon + 1)) == 0.0)) {
-                long initialTimeStamp = Long.parseLong(update.substring(0, colon));
-                if (initialTimeStamp == 0)
-                    m_log.debug("ZERO ERROR: created a zero update with ts=0 for file: {}, data: {}", fileName, update);
-
-                return new ZeroUpdateOperation(fileName, initialTimeStamp);
+            if (colon >= 0) {
+                return makeUpdateOperation(fileName, owner, Long.parseLong(update.substring(0, colon)), RrdUpdateUtils.parseValues(update, colon + 1));
             }
         } catch (NumberFormatException e) {
-
+            // not a plain <timestamp>:<value> update (N:..., templates, huge counters) so pass it on as is
         }
         return new UpdateOperation(fileName, update);
     }
 
+    /**
+     * <p>makeUpdateOperation</p>
+     *
+     * @param fileName a {@link java.lang.String} object.
+     * @param owner a {@link java.lang.String} object.
+     * @param timeStamp the time of the update in seconds
+     * @param values the values of the update
+     * @return a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     */
+    Operation makeUpdateOperation(String fileName, String owner, long timeStamp, double[] values) {
+        if (values.length == 1 && values[0] == 0.0) {
+            if (timeStamp == 0)
+                m_log.debug("ZERO ERROR: created a zero update with ts=0 for file: {}, data: {}", fileName, RrdUpdateUtils.formatUpdate(timeStamp, values));
+
+            return new ZeroUpdateOperation(fileName, timeStamp);
+        }
+        return new SampleUpdateOperation(fileName, timeStamp, values);
+    }
+
     //
     // Queue management functions.
     //
@@ -1023,6 +1136,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         addOperation(makeUpdateOperation((String) rrdFile, owner, data));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, long timestamp, double[] values) throws Exception {
+        addOperation(makeUpdateOperation(rrdFile, owner, timestamp, values));
+    }
+
     /** {@inheritDoc} */
     @Override
     public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Provides static methods for converting between the textual
+ * <timestamp>:<value>[:<value>...] update form and the typed timestamp and
+ * double[] form used by {@link RrdStrategy#updateFile(Object, String, long, double[])}.
+ */
+public abstract class RrdUpdateUtils {
+
+    /** The textual representation of an unknown value. */
+    public static final String UNKNOWN = "U";
+
+    /**
+     * Largest magnitude for which every integer is exactly representable as
+     * a double.
+     */
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0; // 2^53
+
+    /**
+     * Formats a typed update as a <timestamp>:<value>[:<value>...] string.
+     *
+     * @param timestamp the time of the update in seconds since the epoch
+     * @param values the values, where {@link Double#NaN} is unknown
+     * @return the textual update
+     */
+    public static String formatUpdate(final long timestamp, final double[] values) {
+        final StringBuilder sb = new StringBuilder(16 + values.length * 12);
+        sb.append(timestamp);
+        for (final double value : values) {
+            sb.append(':');
+            appendValue(sb, value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a single value in the same plain notation used by the
+     * collection persisters. Non-finite values are written as 'U'.
+     *
+     * @param sb the builder to append to
+     * @param value the value to format
+     * @return the builder
+     */
+    public static StringBuilder appendValue(final StringBuilder sb, final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return sb.append(UNKNOWN);
+        }
+        if (Math.abs(value) < MAX_EXACT_INTEGER && value == Math.rint(value)) {
+            return sb.append((long) value);
+        }
+        return sb.append(BigDecimal.valueOf(value).stripTrailingZeros().toPlainString());
+    }
+
+    /**
+     * Parses the values portion of a textual update, starting at the given
+     * offset. 'U' is returned as {@link Double#NaN}.
+     *
+     * Integer values which cannot be represented exactly as a double (large
+     * 64-bit counters for instance) are rejected so that callers can keep
+     * the textual form rather than silently losing precision.
+     *
+     * @param data the textual update
+     * @param offset the index of the first character of the first value
+     * @return the parsed values
+     * @throws NumberFormatException if a value cannot be parsed or would lose
+     *             precision
+     */
+    public static double[] parseValues(final String data, final int offset) throws NumberFormatException {
+        int count = 1;
+        for (int i = offset; i < data.length(); i++) {
+            if (data.charAt(i) == ':') {
+                count++;
+            }
+        }
+
+        final double[] values = new double[count];
+        int start = offset;
+        for (int i = 0; i < count; i++) {
+            int end = data.indexOf(':', start);
+            if (end < 0) {
+                end = data.length();
+            }
+            values[i] = parseValue(data, start, end);
+            start = end + 1;
+        }
+        return values;
+    }
+
+    private static double parseValue(final String data, final int start, final int end) throws NumberFormatException {
+        if (end - start == 1 && data.charAt(start) == 'U') {
+            return Double.NaN;
+        }
+        final String token = data.substring(start, end);
+        final double value = Double.parseDouble(token);
+        if (Math.abs(value) >= MAX_EXACT_INTEGER && isInteger(token)) {
+            throw new NumberFormatException("value " + token + " cannot be represented exactly as a double");
+        }
+        return value;
+    }
+
+    private static boolean isInteger(final String token) {
+        for (int i = 0; i < token.length(); i++) {
+            final char c = token.charAt(i);
+            if ((c < '0' || c > '9') && !(i == 0 && (c == '-' || c == '+'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given number survives conversion to a double
+     * without losing precision.
+     *
+     * @param number the number to check
+     * @return whether {@link Number#doubleValue()} is exact
+     */
+    public static boolean isExactDouble(final Number number) {
+        if (number instanceof Long) {
+            final long l = number.longValue();
+            return Math.abs(l) <= (long) MAX_EXACT_INTEGER || new BigDecimal(number.doubleValue()).equals(new BigDecimal(l));
+        } else if (number instanceof BigInteger) {
+            final BigInteger i = (BigInteger) number;
+            final double d = i.doubleValue();
+            return i.bitLength() <= 53 || (!Double.isInfinite(d) && new BigDecimal(d).toBigInteger().equals(i));
+        }
+        return true;
+    }
+}
@@ -174,6 +174,27 @@ public class JRobinRrdStrategyTest {
         m_strategy.closeFile(openedFile);
     }
 
+    @Test
+    public void testTypedUpdate() throws Exception {
+        File rrdFile = createRrdFile();
+
+        // This file's step size is 300
+        long endTime = System.currentTimeMillis() / 1000;
+        endTime -= (endTime % 300);
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(openedFile, "huh?", endTime - 600, new double[] { 1.0 });
+        m_strategy.updateFile(openedFile, "huh?", endTime - 300, new double[] { 2.5 });
+        m_strategy.updateFile(openedFile, "huh?", endTime, new double[] { Double.NaN });
+
+        assertEquals("last update time", endTime, openedFile.getLastUpdateTime());
+        assertTrue("last value should be unknown", Double.isNaN(openedFile.getLastDatasourceValue("bar")));
+        double[] values = openedFile.createFetchRequest("AVERAGE", endTime - 300, endTime - 300).fetchData().getValues("bar");
+        m_strategy.closeFile(openedFile);
+
+        assertEquals("value of the step before the unknown update", 2.5, values[0], 0.0);
+    }
+
     @Test
     public void testSampleSetFloatingPointValueGood() throws Exception {
         File rrdFile = createRrdFile();
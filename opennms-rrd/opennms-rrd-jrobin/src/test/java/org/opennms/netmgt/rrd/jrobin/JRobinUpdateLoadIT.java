@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.QueuingRrdStrategy;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Compares the cost of pushing updates through the textual and the typed
+ * update paths, both directly against JRobin and when enqueuing them on the
+ * {@link QueuingRrdStrategy}.
+ */
+public class JRobinUpdateLoadIT {
+
+    private static final int FILES = 100;
+
+    private static final int DATA_SOURCES = 8;
+
+    private static final int STEP = 300;
+
+    private static final int UPDATES = 200;
+
+    private JRobinRrdStrategy m_strategy;
+
+    private FileAnticipator m_fileAnticipator;
+
+    private final List<String> m_files = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Locale.setDefault(Locale.US);
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        m_strategy = new JRobinRrdStrategy();
+        m_fileAnticipator = new FileAnticipator(false);
+        m_fileAnticipator.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_fileAnticipator.deleteExpected();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testUpdateThroughput() throws Exception {
+        createFiles();
+
+        final long start = System.currentTimeMillis() / 1000 - (4 * UPDATES + 1) * STEP;
+        // Warm up both paths before measuring them
+        update(false, start, UPDATES / 2);
+        update(true, start + UPDATES / 2 * STEP, UPDATES / 2);
+
+        final long text = update(false, start + UPDATES * STEP, UPDATES);
+        final long typed = update(true, start + 2 * UPDATES * STEP, UPDATES);
+        assertEquals(text, typed);
+    }
+
+    @Test
+    public void testEnqueueThroughput() throws Exception {
+        // Warm up both paths before measuring them
+        enqueue(false, UPDATES / 10);
+        enqueue(true, UPDATES / 10);
+
+        enqueue(false, UPDATES);
+        enqueue(true, UPDATES);
+    }
+
+    private void createFiles() throws Exception {
+        final List<RrdDataSource> dataSources = new ArrayList<RrdDataSource>();
+        for (int i = 0; i < DATA_SOURCES; i++) {
+            dataSources.add(new RrdDataSource("ds" + i, "GAUGE", STEP * 2, "U", "U"));
+        }
+        final List<String> rraList = new ArrayList<String>();
+        rraList.add("RRA:AVERAGE:0.5:1:2016");
+
+        for (int i = 0; i < FILES; i++) {
+            final String name = "load" + i;
+            final RrdDef def = m_strategy.createDefinition("load", m_fileAnticipator.getTempDir().getAbsolutePath(), name, STEP, dataSources, rraList);
+            m_strategy.createFile(def, null);
+            m_files.add(m_fileAnticipator.expecting(name + m_strategy.getDefaultFileExtension()).getAbsolutePath());
+        }
+    }
+
+    /**
+     * Applies the updates the way the collection persister does, formatting
+     * each one with a {@link NumberFormat} on the textual path.
+     */
+    private long update(final boolean typed, final long start, final int updates) throws Exception {
+        final NumberFormat nf = newNumberFormat();
+        final double[] values = new double[DATA_SOURCES];
+
+        long count = 0;
+        final long begin = System.nanoTime();
+        for (final String file : m_files) {
+            final RrdDb rrd = m_strategy.openFile(file);
+            try {
+                for (int u = 0; u < updates; u++) {
+                    final long timestamp = start + u * STEP;
+                    fillValues(values, u);
+                    if (typed) {
+                        m_strategy.updateFile(rrd, "load", timestamp, values);
+                    } else {
+                        m_strategy.updateFile(rrd, "load", format(nf, timestamp, values));
+                    }
+                    count++;
+                }
+            } finally {
+                m_strategy.closeFile(rrd);
+            }
+        }
+        final long end = System.nanoTime();
+
+        System.err.println(String.format("typed: %5s, JRobin updates: %d, total time: %d ms, updates per second: %12.2f",
+                typed, count, (end - begin) / 1000000, count * 1000000000.0 / (end - begin)));
+        return count;
+    }
+
+    /**
+     * Enqueues updates without any write threads so that only the cost paid
+     * by the collecting threads and the memory held by the backlog are
+     * measured.
+     */
+    private void enqueue(final boolean typed, final int updates) throws Exception {
+        @SuppressWarnings("unchecked")
+        final RrdStrategy<Object, Object> delegate = (RrdStrategy<Object, Object>) (RrdStrategy<?, ?>) m_strategy;
+        final QueuingRrdStrategy queue = new QueuingRrdStrategy(delegate);
+        queue.setWriteThreads(0);
+        queue.setModulus(10000);
+
+        final NumberFormat nf = newNumberFormat();
+        final double[] values = new double[DATA_SOURCES];
+        final long start = System.currentTimeMillis() / 1000;
+
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        final long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        long count = 0;
+        final long begin = System.nanoTime();
+        for (int u = 0; u < updates; u++) {
+            final long timestamp = start + u * STEP;
+            for (int f = 0; f < FILES * 10; f++) {
+                fillValues(values, u + f);
+                final String file = "file" + f;
+                if (typed) {
+                    queue.updateFile(file, "load", timestamp, values);
+                } else {
+                    queue.updateFile(file, "load", format(nf, timestamp, values));
+                }
+                count++;
+            }
+        }
+        final long end = System.nanoTime();
+
+        System.gc();
+        final long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
+        assertEquals(count, queue.getTotalOperationsPending());
+
+        System.err.println(String.format("typed: %5s, enqueued updates: %d, total time: %d ms, updates per second: %12.2f, backlog bytes per update: %d",
+                typed, count, (end - begin) / 1000000, count * 1000000000.0 / (end - begin), (memoryAfter - memoryBefore) / count));
+    }
+
+    private static void fillValues(final double[] values, final int seed) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (seed * 31 + i) % 1000 + 0.25 * i;
+        }
+    }
+
+    private static NumberFormat newNumberFormat() {
+        final NumberFormat nf = NumberFormat.getInstance(Locale.US);
+        nf.setGroupingUsed(false);
+        nf.setMinimumFractionDigits(0);
+        nf.setMaximumFractionDigits(Integer.MAX_VALUE);
+        nf.setMinimumIntegerDigits(0);
+        nf.setMaximumIntegerDigits(Integer.MAX_VALUE);
+        return nf;
+    }
+
+    private static String format(final NumberFormat nf, final long timestamp, final double[] values) {
+        final StringBuffer sb = new StringBuffer();
+        sb.append(timestamp);
+        for (final double value : values) {
+            sb.append(':');
+            sb.append(nf.format(value));
+        }
+        return sb.toString();
+    }
+}
@@ -43,6 +43,7 @@ import java.util.Properties;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
+import org.opennms.netmgt.rrd.RrdUpdateUtils;
 import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
 import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
 import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
@@ -228,6 +229,16 @@ public class MultithreadedJniRrdStrategy extends AbstractJniRrdStrategy<Multithr
         update.append(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The update is formatted once here as jrrd2 only accepts textual arguments.
+     */
+    @Override
+    public void updateFile(UpdateCommand update, String owner, long timestamp, double[] values) throws Exception {
+        update.append(RrdUpdateUtils.formatUpdate(timestamp, values));
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -220,11 +220,15 @@ final class CollectableService implements ReadyRunnable {
 	 * Should be called when the collect config has been reloaded.
 	 *
 	 * @param collectorConfigDao a {@link org.opennms.netmgt.config.CollectdConfigFactory} object.
+	 * @return false if the service parameters changed, in which case this
+	 * service keeps collecting with the old ones and must be replaced by a
+	 * new service
 	 */
-	public void refreshPackage(CollectdConfigFactory collectorConfigDao) {
-		m_spec.refresh(collectorConfigDao);
+	public boolean refreshPackage(CollectdConfigFactory collectorConfigDao) {
+		final boolean unchanged = m_spec.refresh(collectorConfigDao);
 		if (m_thresholdVisitor != null)
 		    m_thresholdVisitor.reloadScheduledOutages();
+		return unchanged;
 	}
 
     /** {@inheritDoc} */
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import static org.opennms.core.utils.InetAddressUtils.str;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent registry of the {@link CollectableService} objects scheduled by
+ * {@link Collectd}, indexed by node id, then IP address. A secondary index by
+ * IP address alone serves the events that do not carry the node the service
+ * was scheduled under (primary SNMP interface changes and reparenting).
+ *
+ * Updates lock a single node (or address) bin of the underlying maps, so
+ * handling an event for one node does not block scheduling or the handling
+ * of events for any other node. Lookups return snapshots that are safe to
+ * iterate while the registry changes.
+ */
+class CollectableServiceIndex {
+
+    private final ConcurrentMap<Integer, ConcurrentMap<String, Set<CollectableService>>> m_byNode = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<CollectableService>> m_byAddress = new ConcurrentHashMap<>();
+
+    /**
+     * The node id that each service is registered under, which can differ
+     * from {@link CollectableService#getNodeId()} while a reparenting is
+     * pending.
+     */
+    private final ConcurrentMap<CollectableService, Integer> m_nodeIds = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a service under its current node id and address.
+     */
+    public void add(final CollectableService cSvc) {
+        final int nodeId = cSvc.getNodeId();
+        if (m_nodeIds.putIfAbsent(cSvc, nodeId) != null) {
+            return;
+        }
+        final String address = getAddress(cSvc);
+        addToNode(nodeId, address, cSvc);
+        m_byAddress.compute(address, (a, services) -> {
+            if (services == null) {
+                services = ConcurrentHashMap.newKeySet();
+            }
+            services.add(cSvc);
+            return services;
+        });
+    }
+
+    private void addToNode(final int nodeId, final String address, final CollectableService cSvc) {
+        m_byNode.compute(nodeId, (id, addresses) -> {
+            if (addresses == null) {
+                addresses = new ConcurrentHashMap<>();
+            }
+            addresses.computeIfAbsent(address, a -> ConcurrentHashMap.newKeySet()).add(cSvc);
+            return addresses;
+        });
+    }
+
+    private boolean removeFromNode(final int nodeId, final String address, final CollectableService cSvc) {
+        final boolean[] removed = new boolean[1];
+        m_byNode.computeIfPresent(nodeId, (id, addresses) -> {
+            addresses.computeIfPresent(address, (a, services) -> {
+                removed[0] = services.remove(cSvc);
+                return services.isEmpty() ? null : services;
+            });
+            return addresses.isEmpty() ? null : addresses;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Removes and returns all of the services registered under the given node.
+     */
+    public List<CollectableService> removeNode(final int nodeId) {
+        final Map<String, Set<CollectableService>> addresses = m_byNode.remove(nodeId);
+        if (addresses == null) {
+            return Collections.emptyList();
+        }
+        final List<CollectableService> removed = new ArrayList<>();
+        for (final Set<CollectableService> services : addresses.values()) {
+            removed.addAll(services);
+        }
+        unindexAddresses(removed);
+        return removed;
+    }
+
+    /**
+     * Removes and returns the services registered under the given node and address.
+     */
+    public List<CollectableService> removeInterface(final int nodeId, final String address) {
+        return remove(nodeId, address, null);
+    }
+
+    /**
+     * Removes and returns the services with the given name registered under
+     * the given node and address.
+     */
+    public List<CollectableService> removeService(final int nodeId, final String address, final String svcName) {
+        return remove(nodeId, address, svcName);
+    }
+
+    private List<CollectableService> remove(final int nodeId, final String address, final String svcName) {
+        final List<CollectableService> removed = new ArrayList<>();
+        m_byNode.computeIfPresent(nodeId, (id, addresses) -> {
+            addresses.computeIfPresent(address, (a, services) -> {
+                for (final CollectableService cSvc : services) {
+                    if (svcName == null || svcName.equals(cSvc.getServiceName())) {
+                        removed.add(cSvc);
+                    }
+                }
+                services.removeAll(removed);
+                return services.isEmpty() ? null : services;
+            });
+            return addresses.isEmpty() ? null : addresses;
+        });
+        unindexAddresses(removed);
+        return removed;
+    }
+
+    /**
+     * Removes the given service, wherever it is registered.
+     *
+     * @return true if the service was registered
+     */
+    public boolean remove(final CollectableService cSvc) {
+        final Integer nodeId = m_nodeIds.get(cSvc);
+        if (nodeId == null || !removeFromNode(nodeId, getAddress(cSvc), cSvc)) {
+            return false;
+        }
+        unindexAddresses(Collections.singletonList(cSvc));
+        return true;
+    }
+
+    /**
+     * Moves the given service from the node it is registered under to another
+     * one, so that it can be found under its new parent before the scheduler
+     * applies a pending reparenting.
+     */
+    public void move(final CollectableService cSvc, final int newNodeId) {
+        final Integer oldNodeId = m_nodeIds.get(cSvc);
+        if (oldNodeId == null || oldNodeId.intValue() == newNodeId) {
+            return;
+        }
+        final String address = getAddress(cSvc);
+        if (removeFromNode(oldNodeId, address, cSvc)) {
+            m_nodeIds.put(cSvc, newNodeId);
+            addToNode(newNodeId, address, cSvc);
+        }
+    }
+
+    private void unindexAddresses(final Collection<CollectableService> removed) {
+        for (final CollectableService cSvc : removed) {
+            m_byAddress.computeIfPresent(getAddress(cSvc), (a, services) -> {
+                services.remove(cSvc);
+                return services.isEmpty() ? null : services;
+            });
+            m_nodeIds.remove(cSvc);
+        }
+    }
+
+    /**
+     * Returns the node ids that have services registered.
+     */
+    public Set<Integer> getNodeIds() {
+        return Collections.unmodifiableSet(m_byNode.keySet());
+    }
+
+    /**
+     * Returns the node id that the given service is registered under, or null
+     * if it is not registered.
+     */
+    public Integer getNodeId(final CollectableService cSvc) {
+        return m_nodeIds.get(cSvc);
+    }
+
+    public List<CollectableService> getServices(final int nodeId) {
+        final Map<String, Set<CollectableService>> addresses = m_byNode.get(nodeId);
+        if (addresses == null) {
+            return Collections.emptyList();
+        }
+        final List<CollectableService> services = new ArrayList<>();
+        for (final Set<CollectableService> servicesOnAddress : addresses.values()) {
+            services.addAll(servicesOnAddress);
+        }
+        return services;
+    }
+
+    public List<CollectableService> getServices(final int nodeId, final String address) {
+        final Map<String, Set<CollectableService>> addresses = m_byNode.get(nodeId);
+        if (addresses == null) {
+            return Collections.emptyList();
+        }
+        final Set<CollectableService> services = addresses.get(address);
+        return services == null ? Collections.<CollectableService>emptyList() : new ArrayList<>(services);
+    }
+
+    public List<CollectableService> getServicesByAddress(final String address) {
+        final Set<CollectableService> services = m_byAddress.get(address);
+        return services == null ? Collections.<CollectableService>emptyList() : new ArrayList<>(services);
+    }
+
+    /**
+     * Returns the service registered for the given node, address, service
+     * and package, or null if there is none.
+     */
+    public CollectableService getService(final int nodeId, final String address, final String svcName, final String pkgName) {
+        for (final CollectableService cSvc : getServices(nodeId, address)) {
+            if (cSvc.getServiceName().equals(svcName) && cSvc.getPackageName().equals(pkgName)) {
+                return cSvc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a snapshot of all of the registered services.
+     */
+    public List<CollectableService> getServices() {
+        return new ArrayList<>(m_nodeIds.keySet());
+    }
+
+    public int size() {
+        return m_nodeIds.size();
+    }
+
+    private static String getAddress(final CollectableService cSvc) {
+        return str((InetAddress) cSvc.getAddress());
+    }
+}
@@ -28,20 +28,20 @@
 
 package org.opennms.netmgt.collectd;
 
+import static org.opennms.core.utils.InetAddressUtils.normalize;
 import static org.opennms.core.utils.InetAddressUtils.str;
 
-import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.lang.StringUtils;
 import org.opennms.core.logging.Logging;
@@ -74,9 +74,9 @@ import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.model.events.EventUtils;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.SchedulerFactory;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -131,9 +131,9 @@ public class Collectd extends AbstractServiceDaemon implements
     private final Map<String,ServiceCollector> m_collectors = new HashMap<String,ServiceCollector>(4);
 
     /**
-     * List of all CollectableService objects.
+     * All CollectableService objects, indexed by node and IP address.
      */
-    private final List<CollectableService> m_collectableServices;
+    private final CollectableServiceIndex m_collectableServices = new CollectableServiceIndex();
 
     /**
      * Reference to the collection scheduler
@@ -187,8 +187,6 @@ public class Collectd extends AbstractServiceDaemon implements
      */
     public Collectd() {
         super(LOG4J_CATEGORY);
-
-        m_collectableServices = Collections.synchronizedList(new LinkedList<CollectableService>());
     }
 
     /**
@@ -315,7 +313,7 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Create a scheduler
                 try {
                     LOG.debug("init: Creating collectd scheduler");
-                    setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                    setScheduler(SchedulerFactory.createScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
                 } catch (final RuntimeException e) {
                     LOG.error("init: Failed to create collectd scheduler", e);
                     throw e;
@@ -445,18 +443,6 @@ public class Collectd extends AbstractServiceDaemon implements
                           existing);
     }
     
-	private void scheduleNode(final int nodeId, final boolean existing) {
-		OnmsNode node = m_nodeDao.getHierarchy(nodeId);
-		node.visit(new AbstractEntityVisitor() {
-
-			@Override
-			public void visitMonitoredService(OnmsMonitoredService monSvc) {
-				scheduleInterface(monSvc.getIpInterface(), monSvc.getServiceName(), existing);
-			}
-			
-		});
-	}
-
 	private OnmsIpInterface getIpInterface(int nodeId, String ipAddress) {
 		OnmsNode node = m_nodeDao.load(nodeId);
 		return node.getIpInterfaceByIpAddress(ipAddress);
@@ -474,7 +460,6 @@ public class Collectd extends AbstractServiceDaemon implements
         try {
         
         Collection<CollectionSpecification> matchingSpecs = getSpecificationsForInterface(iface, svcName);
-        StringBuffer sb;
         
         LOG.debug("scheduleInterface: found {} matching specs for interface: {}", matchingSpecs.size(), iface);
 
@@ -494,57 +479,7 @@ public class Collectd extends AbstractServiceDaemon implements
                 }
             }
 
-            try {
-                /*
-                 * Criteria checks have all passed. The interface/service pair
-                 * can be scheduled.
-                 */
-                LOG.debug("scheduleInterface: now scheduling interface: {}/{}", iface, svcName);
-                CollectableService cSvc = null;
-
-                /*
-                 * Create a new SnmpCollector object representing this node,
-                 * interface, service and package pairing
-                 */
-
-                cSvc = new CollectableService(
-                    iface, 
-                    m_ifaceDao, 
-                    spec, 
-                    getScheduler(),
-                    m_schedulingCompletedFlag,
-                    m_transTemplate.getTransactionManager(),
-                    m_persisterFactory,
-                    m_resourceStorageDao
-                );
-
-                // Add new collectable service to the collectable service list.
-                m_collectableServices.add(cSvc);
-
-                // Schedule the collectable service for immediate collection
-                getScheduler().schedule(0, cSvc.getReadyRunnable());
-
-                LOG.debug("scheduleInterface: {}/{} collection, scheduled", iface, svcName);
-            } catch (CollectionInitializationException e) {
-                sb = new StringBuffer();
-                sb.append("scheduleInterface: Unable to schedule ");
-                sb.append(iface);
-                sb.append('/');
-                sb.append(svcName);
-                sb.append(", reason: ");
-                sb.append(e.getMessage());
-
-                // Only log the stack trace if TRACE level logging is enabled.
-                // Fixes bug NMS-3324.
-                // http://issues.opennms.org/browse/NMS-3324
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(sb.toString(), e);
-                } else {
-                    LOG.info(sb.toString());
-                }
-            } catch (Throwable t) {
-                LOG.error("scheduleInterface: Uncaught exception, failed to schedule interface {}/{}.", iface, svcName, t);
-            }
+            scheduleService(iface, svcName, spec);
         } // end while more specifications exist
         
         } finally {
@@ -552,6 +487,60 @@ public class Collectd extends AbstractServiceDaemon implements
         }
     }
 
+    private void scheduleService(OnmsIpInterface iface, String svcName, CollectionSpecification spec) {
+        try {
+            /*
+             * Criteria checks have all passed. The interface/service pair
+             * can be scheduled.
+             */
+            LOG.debug("scheduleInterface: now scheduling interface: {}/{}", iface, svcName);
+            CollectableService cSvc = null;
+
+            /*
+             * Create a new SnmpCollector object representing this node,
+             * interface, service and package pairing
+             */
+
+            cSvc = new CollectableService(
+                iface, 
+                m_ifaceDao, 
+                spec, 
+                getScheduler(),
+                m_schedulingCompletedFlag,
+                m_transTemplate.getTransactionManager(),
+                m_persisterFactory,
+                m_resourceStorageDao
+            );
+
+            // Add new collectable service to the collectable service index.
+            m_collectableServices.add(cSvc);
+
+            // Schedule the collectable service for immediate collection
+            getScheduler().schedule(0, cSvc.getReadyRunnable());
+
+            LOG.debug("scheduleInterface: {}/{} collection, scheduled", iface, svcName);
+        } catch (CollectionInitializationException e) {
+            StringBuffer sb = new StringBuffer();
+            sb.append("scheduleInterface: Unable to schedule ");
+            sb.append(iface);
+            sb.append('/');
+            sb.append(svcName);
+            sb.append(", reason: ");
+            sb.append(e.getMessage());
+
+            // Only log the stack trace if TRACE level logging is enabled.
+            // Fixes bug NMS-3324.
+            // http://issues.opennms.org/browse/NMS-3324
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(sb.toString(), e);
+            } else {
+                LOG.info(sb.toString());
+            }
+        } catch (Throwable t) {
+            LOG.error("scheduleInterface: Uncaught exception, failed to schedule interface {}/{}.", iface, svcName, t);
+        }
+    }
+
     /**
      * <p>getSpecificationsForInterface</p>
      *
@@ -600,14 +589,7 @@ public class Collectd extends AbstractServiceDaemon implements
 
     /**
      * Returns true if specified address/pkg pair is already represented in
-     * the collectable services list. False otherwise.
-     * 
-     * @param iface
-     *            TODO
-     * @param spec
-     *            TODO
-     * @param svcName
-     *            TODO
+     * the collectable services index. False otherwise.
      */
     private boolean alreadyScheduled(OnmsIpInterface iface, CollectionSpecification spec) {
         String ipAddress = str(iface.getIpAddress());
@@ -617,38 +599,9 @@ public class Collectd extends AbstractServiceDaemon implements
             return false;
         }
 
-        String svcName = spec.getServiceName();
-        String pkgName = spec.getPackageName();
-        StringBuffer sb;
-        boolean isScheduled = false;
-        
-        if (LOG.isDebugEnabled()) {
-            sb = new StringBuffer();
-            sb.append("alreadyScheduled: determining if interface: ");
-            sb.append(iface);
-            sb.append(" is already scheduled.");
-        }
-        
-        synchronized (m_collectableServices) {
-        	for (CollectableService cSvc : m_collectableServices) {
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                if (cSvc.getNodeId() == iface.getNode().getId()
-                        && str(addr).equals(ipAddress)
-                        && cSvc.getPackageName().equals(pkgName)
-                        && cSvc.getServiceName().equals(svcName)) {
-                    isScheduled = true;
-                    break;
-                }
-            }
-        }
+        boolean isScheduled = m_collectableServices.getService(iface.getNode().getId(), ipAddress, spec.getServiceName(), spec.getPackageName()) != null;
 
-        if (LOG.isDebugEnabled()) {
-            sb = new StringBuffer();
-            sb.append("alreadyScheduled: interface ");
-            sb.append(iface);
-            sb.append("already scheduled check: ");
-            sb.append(isScheduled);
-        }
+        LOG.debug("alreadyScheduled: interface {} already scheduled check: {}", iface, isScheduled);
         return isScheduled;
     }
 
@@ -661,13 +614,32 @@ public class Collectd extends AbstractServiceDaemon implements
     }
 
     private void refreshServicePackages() {
-    	for (CollectableService thisService : m_collectableServices) {
-            thisService.refreshPackage(m_collectdConfigFactory);
+        // The nodes with services whose parameters changed are reconciled
+        // so that these services are created again with the new parameters
+        final Set<Integer> changedNodeIds = new TreeSet<Integer>();
+    	for (CollectableService thisService : m_collectableServices.getServices()) {
+            if (!thisService.refreshPackage(m_collectdConfigFactory)) {
+                changedNodeIds.add(thisService.getNodeId());
+            }
+        }
+        for (Integer nodeId : changedNodeIds) {
+            rescheduleNode(nodeId);
         }
     }
 
-    private List<CollectableService> getCollectableServices() {
-        return m_collectableServices;
+    /**
+     * Flags the given services for deletion so that the next time they are
+     * selected for execution by the scheduler the collection is skipped and
+     * they are not rescheduled. The services must already have been removed
+     * from the collectable services index.
+     */
+    private static void markForDeletion(Collection<CollectableService> services, String reason) {
+        for (CollectableService cSvc : services) {
+            synchronized (cSvc) {
+                LOG.debug("Marking CollectableService for deletion because {}: {}", reason, cSvc);
+                cSvc.getCollectorUpdates().markForDeletion();
+            }
+        }
     }
 
     /**
@@ -818,41 +790,11 @@ public class Collectd extends AbstractServiceDaemon implements
 
         Long nodeId = event.getNodeid();
 
-        // Iterate over the collectable services list and mark any entries
-        // which match the deleted nodeId/IP address pair for deletion
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId and IP
-                // address
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                if (!(cSvc.getNodeId() == nodeId && addr.getHostName().equals(ipAddr)))
-                    continue;
-
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated with
-                    // this CollectableService if one exists.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because an interface was deleted:  Service nodeid={}, deleted node:{}service address:{}deleted interface:{}", cSvc.getNodeId(), nodeId, addr.getHostName(), ipAddr);
+        // Remove the entries which match the deleted nodeId/IP address pair
+        // from the index and mark them for deletion
+        markForDeletion(m_collectableServices.removeInterface(nodeId.intValue(), normalize(ipAddr)), "an interface was deleted");
 
-                    updates.markForDeletion();
-                }
-
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
-            }
-        }
-
-            LOG.debug("interfaceDeletedHandler: processing of interfaceDeleted event for {}/{} completed", nodeId, ipAddr);
+        LOG.debug("interfaceDeletedHandler: processing of interfaceDeleted event for {}/{} completed", nodeId, ipAddr);
     }
 
     /**
@@ -914,10 +856,10 @@ public class Collectd extends AbstractServiceDaemon implements
             return;
         }
 
-        // Iterate over the CollectableService objects in the services
-        // list looking for entries which share the same interface
-        // address as the reparented interface. Mark any matching objects
-        // for reparenting.
+        // Look up the CollectableService objects which share the same
+        // interface address as the reparented interface. Mark any matching
+        // objects for reparenting and move them under the new nodeId in the
+        // index.
         //
         // The next time the service is scheduled for execution it
         // will move all of the RRDs associated
@@ -925,33 +867,33 @@ public class Collectd extends AbstractServiceDaemon implements
         // SnmpMonitor.NodeInfo attribute to reflect the new nodeId. All
         // subsequent collections will then be updating the appropriate RRDs.
         //
-        OnmsIpInterface iface = null;
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            Iterator<CollectableService> iter = getCollectableServices().iterator();
-            while (iter.hasNext()) {
-                cSvc = iter.next();
-
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-				if (addr.equals(event.getInterfaceAddress())) {
-                    synchronized (cSvc) {
-                        // Got a match!
-                        LOG.debug("interfaceReparentedHandler: got a CollectableService match for {}", event.getInterface());
-
-                        // Retrieve the CollectorUpdates object associated
-                        // with
-                        // this CollectableService.
-                        CollectorUpdates updates = cSvc.getCollectorUpdates();
-                        if (iface == null) {
-                        	iface = getIpInterface(event.getNodeid().intValue(), event.getInterface());
-                        }
+        int newNodeId;
+        try {
+            newNodeId = Integer.parseInt(newNodeIdStr);
+        } catch (NumberFormatException e) {
+            LOG.warn("interfaceReparentedHandler: unable to parse new nodeId {}, unable to process.", newNodeIdStr);
+            return;
+        }
 
-                        // Now set the reparenting flag
-                        updates.markForReparenting(oldNodeIdStr, newNodeIdStr, iface);
-                        LOG.debug("interfaceReparentedHandler: marking {} for reparenting for service SNMP.", event.getInterface());
-                    }
+        OnmsIpInterface iface = null;
+        for (CollectableService cSvc : m_collectableServices.getServicesByAddress(str(event.getInterfaceAddress()))) {
+            synchronized (cSvc) {
+                // Got a match!
+                LOG.debug("interfaceReparentedHandler: got a CollectableService match for {}", event.getInterface());
+
+                // Retrieve the CollectorUpdates object associated
+                // with
+                // this CollectableService.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
+                if (iface == null) {
+                    iface = getIpInterface(event.getNodeid().intValue(), event.getInterface());
                 }
+
+                // Now set the reparenting flag
+                updates.markForReparenting(oldNodeIdStr, newNodeIdStr, iface);
+                LOG.debug("interfaceReparentedHandler: marking {} for reparenting for service SNMP.", event.getInterface());
             }
+            m_collectableServices.move(cSvc, newNodeId);
         }
 
         LOG.debug("interfaceReparentedHandler: processing of interfaceReparented event for interface {} completed.", event.getInterface());
@@ -971,7 +913,7 @@ public class Collectd extends AbstractServiceDaemon implements
 
         Long nodeId = event.getNodeid();
 
-        unscheduleNodeAndMarkForDeletion(nodeId);
+        unscheduleNodeAndMarkForDeletion(nodeId.intValue());
 
         LOG.debug("nodeDeletedHandler: processing of nodeDeleted event for nodeid {} completed.", nodeId);
     }
@@ -988,12 +930,10 @@ public class Collectd extends AbstractServiceDaemon implements
         
         Long nodeId = event.getNodeid();
 
-        unscheduleNodeAndMarkForDeletion(nodeId);
+        m_filterDao.flushActiveIpAddressListCache(nodeId.intValue());
+        rescheduleNode(nodeId.intValue());
 
-        LOG.debug("nodeCategoryMembershipChanged: unscheduling nodeid {} completed.", nodeId);
-        
-        m_filterDao.flushActiveIpAddressListCache();
-        scheduleNode(nodeId.intValue(), true);
+        LOG.debug("nodeCategoryMembershipChanged: rescheduling nodeid {} completed.", nodeId);
     }
 
     private void rebuildScheduler() {
@@ -1025,47 +965,74 @@ public class Collectd extends AbstractServiceDaemon implements
             LOG.info("rebuildScheduler: removing collector for {}, it is no longer required", collectorName);
             m_collectors.remove(collectorName);
         }
-        // Recreating all Collectable Services (using the nodeID list populated at the beginning)
+        // Reconciling the Collectable Services of every node with the new
+        // configuration, services that are still configured keep their
+        // schedule
         Collection<Integer> nodeIds = m_nodeDao.getNodeIds();
         m_filterDao.flushActiveIpAddressListCache();
         for (Integer nodeId : nodeIds) {
-            unscheduleNodeAndMarkForDeletion(new Long(nodeId));
-            scheduleNode(nodeId, true);
+            rescheduleNode(nodeId);
+        }
+        // Unscheduling the services of nodes that no longer exist
+        Set<Integer> staleNodeIds = new HashSet<Integer>(m_collectableServices.getNodeIds());
+        staleNodeIds.removeAll(nodeIds);
+        for (Integer nodeId : staleNodeIds) {
+            unscheduleNodeAndMarkForDeletion(nodeId);
         }
     }
 
-    private void unscheduleNodeAndMarkForDeletion(Long nodeId) {
-		// Iterate over the collectable service list and mark any entries
-        // which match the deleted nodeId for deletion.
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            final ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
+    /**
+     * Reconciles the collectable services of a node with the current
+     * configuration. Services that no longer match a package are unscheduled,
+     * newly matching ones are scheduled and those that still match have their
+     * package refreshed without being rescheduled, unless their service
+     * parameters changed, in which case they are replaced by new services.
+     */
+    private void rescheduleNode(final int nodeId) {
+        final Set<CollectableService> unwanted = Collections.newSetFromMap(new IdentityHashMap<CollectableService, Boolean>());
+        unwanted.addAll(m_collectableServices.getServices(nodeId));
 
-                // Only interested in entries with matching nodeId
-                if (!(cSvc.getNodeId() == nodeId))
-                    continue;
+        OnmsNode node = m_nodeDao.getHierarchy(nodeId);
+        if (node != null) {
+            node.visit(new AbstractEntityVisitor() {
 
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated
-                    // with this CollectableService.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because a node was deleted:  Service nodeid={}, deleted node:{}", cSvc.getNodeId(), nodeId);
-                    updates.markForDeletion();
+                @Override
+                public void visitMonitoredService(OnmsMonitoredService monSvc) {
+                    final OnmsIpInterface iface = monSvc.getIpInterface();
+                    final String svcName = monSvc.getServiceName();
+                    final String ipAddress = str(iface.getIpAddress());
+                    if (ipAddress == null || getServiceCollector(svcName) == null) {
+                        return;
+                    }
+                    for (CollectionSpecification spec : getSpecificationsForInterface(iface, svcName)) {
+                        CollectableService cSvc = m_collectableServices.getService(nodeId, ipAddress, svcName, spec.getPackageName());
+                        if (cSvc == null) {
+                            scheduleService(iface, svcName, spec);
+                        } else if (cSvc.refreshPackage(m_collectdConfigFactory)) {
+                            unwanted.remove(cSvc);
+                        } else if (m_collectableServices.remove(cSvc)) {
+                            unwanted.remove(cSvc);
+                            markForDeletion(Collections.singletonList(cSvc), "its service parameters changed");
+                            scheduleService(iface, svcName, spec);
+                        }
+                    }
                 }
 
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
+            });
+        }
+
+        for (CollectableService cSvc : unwanted) {
+            if (m_collectableServices.remove(cSvc)) {
+                markForDeletion(Collections.singletonList(cSvc), "it is no longer configured for node " + nodeId);
             }
         }
-	}
+    }
+
+    private void unscheduleNodeAndMarkForDeletion(Integer nodeId) {
+        // Remove the entries which match the deleted nodeId from the index
+        // and mark them for deletion.
+        markForDeletion(m_collectableServices.removeNode(nodeId), "node " + nodeId + " was deleted");
+    }
 
     /**
      * Process the event, construct a new CollectableService object
@@ -1120,10 +1087,8 @@ public class Collectd extends AbstractServiceDaemon implements
                 getEventIpcManager().sendNow(ebldr.getEvent());
                 // Updating thresholding visitors to use the new configuration
                 LOG.debug("handleReloadDaemonConfig: Reloading thresholding configuration in collectd");
-                synchronized (m_collectableServices) {
-                    for(CollectableService service: m_collectableServices) {
-                        service.reinitializeThresholding();
-                    }
+                for(CollectableService service: m_collectableServices.getServices()) {
+                    service.reinitializeThresholding();
                 }
                 // Preparing successful event
                 ebldr = new EventBuilder(EventConstants.RELOAD_DAEMON_CONFIG_SUCCESSFUL_UEI, "Collectd");
@@ -1210,7 +1175,7 @@ public class Collectd extends AbstractServiceDaemon implements
         // This moved to here from the scheduleInterface() for better behavior
         // during initialization
         
-        m_filterDao.flushActiveIpAddressListCache();
+        m_filterDao.flushActiveIpAddressListCache(event.getNodeid().intValue());
 
         scheduleInterface(event.getNodeid().intValue(), event.getInterface(),
                           event.getService(), false);
@@ -1271,37 +1236,13 @@ public class Collectd extends AbstractServiceDaemon implements
             // for
             // collection.
             //
-            // Iterate over the CollectableService objects in the service
-            // updates map
-            // and mark any which have the same interface address as the old
-            // primary SNMP interface and a service name of "SNMP" for
-            // deletion.
+            // Remove the CollectableService objects which have the same
+            // interface address as the old primary SNMP interface from the
+            // index and mark them for deletion.
             //
-            synchronized (getCollectableServices()) {
-                CollectableService cSvc = null;
-                ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-                while (liter.hasNext()) {
-                    cSvc = liter.next();
-
-                    final InetAddress addr = (InetAddress) cSvc.getAddress();
-                    final String addrString = str(addr);
-					if (addrString != null && addrString.equals(oldPrimaryIfAddr)) {
-                        synchronized (cSvc) {
-                            // Got a match! Retrieve the CollectorUpdates
-                            // object
-                            // associated
-                            // with this CollectableService.
-                            CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                            // Now set the deleted flag
-                            updates.markForDeletion();
-                            LOG.debug("primarySnmpInterfaceChangedHandler: marking {} as deleted for service SNMP.", oldPrimaryIfAddr);
-                        }
-
-                        // Now safe to remove the collectable service from
-                        // the collectable services list
-                        liter.remove();
-                    }
+            for (CollectableService cSvc : m_collectableServices.getServicesByAddress(normalize(oldPrimaryIfAddr))) {
+                if (m_collectableServices.remove(cSvc)) {
+                    markForDeletion(Collections.singletonList(cSvc), "the primary SNMP interface changed from " + oldPrimaryIfAddr);
                 }
             }
         }
@@ -1344,34 +1285,23 @@ public class Collectd extends AbstractServiceDaemon implements
         // order to update any modified attributes associated with
         // the collectable service..
         //
-        // Iterate over the CollectableService objects in the
-        // updates map and mark any which have the same interface
-        // address for reinitialization
+        // Look up the CollectableService objects which have the same
+        // node and interface address and mark them for reinitialization
         //
         OnmsIpInterface iface = null;
-        synchronized (getCollectableServices()) {
-            Iterator<CollectableService> iter = getCollectableServices().iterator();
-            while (iter.hasNext()) {
-                CollectableService cSvc = iter.next();
-        
-                final InetAddress addr = (InetAddress) cSvc.getAddress();
-                final String addrString = str(addr);
-                LOG.debug("Comparing CollectableService ip address = {} and event ip interface = {}", addrString, ipAddress);
-                if (addrString != null && addrString.equals(ipAddress) && cSvc.getNodeId() == nodeid.intValue()) {
-                    synchronized (cSvc) {
-                    	if (iface == null) {
-                            iface = getIpInterface(nodeid.intValue(), ipAddress);
-                    	}
-                        // Got a match! Retrieve the CollectorUpdates object
-                        // associated
-                        // with this CollectableService.
-                        CollectorUpdates updates = cSvc.getCollectorUpdates();
-        
-                        // Now set the reinitialization flag
-                        updates.markForReinitialization(iface);
-                        LOG.debug("reinitializePrimarySnmpInterfaceHandler: marking {} for reinitialization for service SNMP.", ipAddress);
-                    }
-                }
+        for (CollectableService cSvc : m_collectableServices.getServices(nodeid.intValue(), normalize(ipAddress))) {
+            synchronized (cSvc) {
+            	if (iface == null) {
+                    iface = getIpInterface(nodeid.intValue(), ipAddress);
+            	}
+                // Got a match! Retrieve the CollectorUpdates object
+                // associated
+                // with this CollectableService.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
+
+                // Now set the reinitialization flag
+                updates.markForReinitialization(iface);
+                LOG.debug("reinitializePrimarySnmpInterfaceHandler: marking {} for reinitialization for service SNMP.", ipAddress);
             }
         }
     }
@@ -1402,43 +1332,9 @@ public class Collectd extends AbstractServiceDaemon implements
         String ipAddr = event.getInterface();
         String svcName = event.getService();
 
-        // Iterate over the collectable services list and mark any entries
-        // which match the nodeId/ipAddr of the deleted service
-        // for deletion.
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId, IP address
-                // and service
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                
-                //WATCH the brackets; there used to be an extra close bracket after the ipAddr comparison which borked this whole expression
-                if (!(cSvc.getNodeId() == nodeId && 
-                        addr.getHostName().equals(ipAddr) && 
-                        cSvc.getServiceName().equals(svcName))) 
-                    continue;
-
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated with
-                    // this CollectableService if one exists.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because a service was deleted:  Service nodeid={}, deleted node:{}, service address:{}, deleted interface:{}, service servicename:{}, deleted service name:{}, event source {}", cSvc.getNodeId(), nodeId, addr.getHostName(), ipAddr, cSvc.getServiceName(), svcName, event.getSource());
-                    updates.markForDeletion();
-                }
-
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
-            }
-        }
+        // Remove the entries which match the nodeId/ipAddr of the deleted
+        // service from the index and mark them for deletion.
+        markForDeletion(m_collectableServices.removeService(nodeId.intValue(), normalize(ipAddr), svcName), "service " + svcName + " was deleted from " + ipAddr);
 
         LOG.debug("serviceDeletedHandler: processing of serviceDeleted event for {}/{}/{} completed.", nodeId, ipAddr, svcName);
     }
@@ -80,7 +80,7 @@ public class CollectionSpecification {
         m_collector = collector;
         m_instrumentation = instrumentation;
         
-        initializeParameters();
+        m_parameters = createParameters();
     }
 
     /**
@@ -175,7 +175,7 @@ public class CollectionSpecification {
         return stg.equalsIgnoreCase("no") || stg.equalsIgnoreCase("off") || stg.equalsIgnoreCase("false");
     }
 
-    private void initializeParameters() {
+    private Map<String, Object> createParameters() {
     	final Map<String, Object> m = new TreeMap<String, Object>();
         m.put("SERVICE", m_svcName);
         StringBuffer sb;
@@ -183,7 +183,7 @@ public class CollectionSpecification {
         for (Parameter p : params) {
             if (LOG.isDebugEnabled()) {
                 sb = new StringBuffer();
-                sb.append("initializeParameters: adding service: ");
+                sb.append("createParameters: adding service: ");
                 sb.append(getServiceName());
                 sb.append(" parameter: ");
                 sb.append(p.getKey());
@@ -230,7 +230,7 @@ public class CollectionSpecification {
             }
         }
         m.put("packageName", m_package.getName());
-        m_parameters = m;
+        return m;
     }
 
     /**
@@ -323,13 +323,24 @@ public class CollectionSpecification {
     /**
      * <p>refresh</p>
      *
+     * The service parameters are only read when the specification is
+     * created, since the collectable service derives its repository and
+     * thresholding from them. If they changed in the refreshed package, the
+     * service must be created again to apply them.
+     *
      * @param collectorConfigDao a {@link org.opennms.netmgt.dao.api.CollectorConfigDao} object.
+     * @return false if the service parameters changed or the service was removed from the package
      */
-    public void refresh(CollectdConfigFactory collectorConfigDao) {
+    public boolean refresh(CollectdConfigFactory collectorConfigDao) {
         Package refreshedPackage = collectorConfigDao.getPackage(getPackageName());
-        if (refreshedPackage != null) {
-            setPackage(refreshedPackage);
+        if (refreshedPackage == null) {
+            return true;
+        }
+        if (refreshedPackage.getService(m_svcName) == null) {
+            return false;
         }
+        setPackage(refreshedPackage);
+        return m_parameters.equals(createParameters());
     }
 
     /**
@@ -29,7 +29,11 @@
 package org.opennms.netmgt.collectd.jmx;
 
 import java.util.concurrent.ThreadPoolExecutor;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+
+import org.opennms.netmgt.jmx.impl.ObjectNameCache;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
+import org.opennms.netmgt.scheduler.InstrumentedScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
@@ -126,11 +130,68 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
         return getDaemon().getCollectableServiceCount();
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLag50thPercentile() {
+        return getSchedulingLagPercentile(50);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLag95thPercentile() {
+        return getSchedulingLagPercentile(95);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLag99thPercentile() {
+        return getSchedulingLagPercentile(99);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getJmxConnectionsCreated() {
+        return JmxConnectionPool.getInstance().getConnectionsCreated();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getJmxConnectionsReused() {
+        return JmxConnectionPool.getInstance().getConnectionsReused();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getJmxConnectionsIdle() {
+        return JmxConnectionPool.getInstance().getIdleConnections();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getJmxConnectTimeSaved() {
+        return JmxConnectionPool.getInstance().getConnectTimeSaved();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getJmxNameLookupsSaved() {
+        return ObjectNameCache.getInstance().getHits();
+    }
+
+    private long getSchedulingLagPercentile(double percentile) {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof InstrumentedScheduler) {
+            return ((InstrumentedScheduler) scheduler).getSchedulingLagPercentile(percentile);
+        } else {
+            return 0L;
+        }
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) ((InstrumentedScheduler) getDaemon().getScheduler()).getRunner();
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof InstrumentedScheduler);
     }
 }
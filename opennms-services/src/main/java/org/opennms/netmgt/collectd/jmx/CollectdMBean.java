@@ -76,4 +76,51 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of collectable services currently seen by Collectd
      */
     public long getCollectableServiceCount();
+
+    /**
+     * @return The median delay in milliseconds between the time the collections
+     * were due and the time they were handed to the thread pool
+     */
+    public long getSchedulingLag50thPercentile();
+
+    /**
+     * @return The delay in milliseconds below which 95% of the collections were
+     * handed to the thread pool
+     */
+    public long getSchedulingLag95thPercentile();
+
+    /**
+     * @return The delay in milliseconds below which 99% of the collections were
+     * handed to the thread pool
+     */
+    public long getSchedulingLag99thPercentile();
+
+    /**
+     * @return The number of JMX connections established by the collectors and
+     * monitors since startup
+     */
+    public long getJmxConnectionsCreated();
+
+    /**
+     * @return The number of times an idle JMX connection was reused instead of
+     * connecting to the agent
+     */
+    public long getJmxConnectionsReused();
+
+    /**
+     * @return The number of idle JMX connections that are kept open
+     */
+    public long getJmxConnectionsIdle();
+
+    /**
+     * @return The estimated time in milliseconds that was saved by reusing JMX
+     * connections
+     */
+    public long getJmxConnectTimeSaved();
+
+    /**
+     * @return The number of MBean name lookups that were answered from the
+     * cache instead of querying the agent
+     */
+    public long getJmxNameLookupsSaved();
 }
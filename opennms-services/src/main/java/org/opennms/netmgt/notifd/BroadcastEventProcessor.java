@@ -172,6 +172,9 @@ public final class BroadcastEventProcessor implements EventListener {
     public void onEvent(Event event) {
         if (event == null) return;
 
+        // Topology changes have to reach the filter rules before any notices are matched against them
+        m_notificationManager.updateFilterMembership(event);
+
         if (isReloadConfigEvent(event)) {
             LOG.info("onEvent: handling reload configuration event...");
             EventBuilder ebldr = null;
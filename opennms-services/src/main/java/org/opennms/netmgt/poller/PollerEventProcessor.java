@@ -44,6 +44,8 @@ import org.opennms.netmgt.config.PollerConfig;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.filter.FilterDaoFactory;
+import org.opennms.netmgt.filter.NodeChangeEvents;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.model.events.EventUtils;
 import org.opennms.netmgt.poller.pollables.PollableInterface;
@@ -534,6 +536,10 @@ final class PollerEventProcessor implements EventListener {
         if (event == null)
             return;
 
+        // The package IP lists are rebuilt from the filter rules below, which
+        // have to query the changed nodes again
+        NodeChangeEvents.flushChangedNodes(FilterDaoFactory.getInstance(), event);
+
         // print out the uei
         LOG.debug("PollerEventProcessor: received event, uei = {}", event.getUei());
 
@@ -31,7 +31,8 @@ package org.opennms.netmgt.poller.jmx;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.InstrumentedScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -122,11 +123,62 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
     }
 
     
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLag50thPercentile() {
+        return getSchedulingLagPercentile(50);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLag95thPercentile() {
+        return getSchedulingLagPercentile(95);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLag99thPercentile() {
+        return getSchedulingLagPercentile(99);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTreeLockWaits() {
+        return getDaemon().getNetwork().getTreeLockWaits();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTreeLockWaitTime() {
+        return getDaemon().getNetwork().getTreeLockWaitTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTreeLockTimeouts() {
+        return getDaemon().getNetwork().getTreeLockTimeouts();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getDeferredStatusUpdates() {
+        return getDaemon().getNetwork().getDeferredUpdates();
+    }
+
+    private long getSchedulingLagPercentile(double percentile) {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof InstrumentedScheduler) {
+            return ((InstrumentedScheduler) scheduler).getSchedulingLagPercentile(percentile);
+        } else {
+            return 0L;
+        }
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) ((InstrumentedScheduler) getDaemon().getScheduler()).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof InstrumentedScheduler);
     }
 }
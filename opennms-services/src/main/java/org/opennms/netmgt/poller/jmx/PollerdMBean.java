@@ -74,4 +74,46 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The maximum number of threads allowed in the poller's thread pool
      */
     public long getMaxPoolThreads();
+
+    /**
+     * @return The median delay in milliseconds between the time the polls
+     * were due and the time they were handed to the thread pool
+     */
+    public long getSchedulingLag50thPercentile();
+
+    /**
+     * @return The delay in milliseconds below which 95% of the polls were
+     * handed to the thread pool
+     */
+    public long getSchedulingLag95thPercentile();
+
+    /**
+     * @return The delay in milliseconds below which 99% of the polls were
+     * handed to the thread pool
+     */
+    public long getSchedulingLag99thPercentile();
+
+    /**
+     * @return The number of times a thread had to wait for the tree lock of
+     * a node since poller startup
+     */
+    public long getTreeLockWaits();
+
+    /**
+     * @return The cumulative time in milliseconds that threads spent waiting
+     * for the tree locks of the nodes since poller startup
+     */
+    public long getTreeLockWaitTime();
+
+    /**
+     * @return The number of times the tree lock of a node could not be
+     * obtained before the timeout expired, postponing the work that needed it
+     */
+    public long getTreeLockTimeouts();
+
+    /**
+     * @return The number of poll results that were handed to the thread
+     * holding the tree lock of their node instead of waiting for the lock
+     */
+    public long getDeferredStatusUpdates();
 }
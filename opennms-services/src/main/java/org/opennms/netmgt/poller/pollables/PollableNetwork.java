@@ -32,6 +32,8 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.xml.event.Event;
@@ -51,6 +53,11 @@ public class PollableNetwork extends PollableContainer {
 
     private final PollContext m_context;
 
+    private final AtomicLong m_treeLockWaits = new AtomicLong();
+    private final AtomicLong m_treeLockWaitNanos = new AtomicLong();
+    private final AtomicLong m_treeLockTimeouts = new AtomicLong();
+    private final AtomicLong m_deferredUpdates = new AtomicLong();
+
     /**
      * <p>Constructor for PollableNetwork.</p>
      *
@@ -309,6 +316,50 @@ public class PollableNetwork extends PollableContainer {
     public PollableElement getLockRoot() {
         return this;
     }
+
+    void recordTreeLockWait(long nanos) {
+        m_treeLockWaits.incrementAndGet();
+        m_treeLockWaitNanos.addAndGet(nanos);
+    }
+
+    void recordTreeLockTimeout() {
+        m_treeLockTimeouts.incrementAndGet();
+    }
+
+    void recordDeferredUpdate() {
+        m_deferredUpdates.incrementAndGet();
+    }
+
+    /**
+     * @return the number of times a thread had to wait for a node's tree lock
+     */
+    public long getTreeLockWaits() {
+        return m_treeLockWaits.get();
+    }
+
+    /**
+     * @return the cumulative time in milliseconds that threads spent waiting
+     * for the nodes' tree locks
+     */
+    public long getTreeLockWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_treeLockWaitNanos.get());
+    }
+
+    /**
+     * @return the number of times a node's tree lock could not be obtained
+     * before the timeout expired
+     */
+    public long getTreeLockTimeouts() {
+        return m_treeLockTimeouts.get();
+    }
+
+    /**
+     * @return the number of poll results that were handed to the thread
+     * holding a node's tree lock instead of waiting for the lock
+     */
+    public long getDeferredUpdates() {
+        return m_deferredUpdates.get();
+    }
     
     /** {@inheritDoc} */
     @Override
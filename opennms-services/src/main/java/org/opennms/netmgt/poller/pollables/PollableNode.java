@@ -32,6 +32,8 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,8 +62,12 @@ public class PollableNode extends PollableContainer {
             
             if (m_owner != Thread.currentThread()) {
                 LOG.debug("Trying to obtain lock for {}", PollableNode.this);
-                while (m_owner != null) {
-                    try { wait();} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
+                if (m_owner != null) {
+                    final long waitStart = System.nanoTime();
+                    while (m_owner != null) {
+                        try { wait();} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
+                    }
+                    recordLockWait(System.nanoTime() - waitStart);
                 }
                 m_owner = Thread.currentThread();
                 LOG.debug("Obtained lock for {}", PollableNode.this);
@@ -73,20 +79,41 @@ public class PollableNode extends PollableContainer {
             
             if (m_owner != Thread.currentThread()) {
                 LOG.debug("Trying to obtain lock for {}", PollableNode.this);
-                long now = System.currentTimeMillis();
-                long endTime = (timeout == 0 ? Long.MAX_VALUE : now+timeout);
-                while (m_owner != null) {
-                    try { wait(endTime-now);} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
-                    now = System.currentTimeMillis();
-                    if (m_owner != null && now >= endTime) {
-                        throw new LockUnavailable("Unable to obtain lock for "+PollableNode.this+" before timeout");
+                if (m_owner != null) {
+                    final long waitStart = System.nanoTime();
+                    long now = System.currentTimeMillis();
+                    long endTime = (timeout == 0 ? Long.MAX_VALUE : now+timeout);
+                    while (m_owner != null) {
+                        try { wait(endTime-now);} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
+                        now = System.currentTimeMillis();
+                        if (m_owner != null && now >= endTime) {
+                            recordLockWait(System.nanoTime() - waitStart);
+                            recordLockTimeout();
+                            throw new LockUnavailable("Unable to obtain lock for "+PollableNode.this+" before timeout");
+                        }
                     }
+                    recordLockWait(System.nanoTime() - waitStart);
                 }
                 m_owner = Thread.currentThread();
                 LOG.debug("Obtained lock for {}", PollableNode.this);
             }
             m_obtainCount++;
         }
+
+        /**
+         * Obtains the lock only if it is free or already held by the
+         * current thread.
+         *
+         * @return true if the lock was obtained
+         */
+        public synchronized boolean tryObtain() {
+            if (m_owner != null && m_owner != Thread.currentThread()) {
+                return false;
+            }
+            m_owner = Thread.currentThread();
+            m_obtainCount++;
+            return true;
+        }
         
         public synchronized void release() {
             if (m_owner == Thread.currentThread()) {
@@ -106,12 +133,22 @@ public class PollableNode extends PollableContainer {
             return m_owner == null;
         }
 
+        public synchronized boolean isHeldByCurrentThread() {
+            return m_owner == Thread.currentThread();
+        }
+
     }
     
     private final int m_nodeId;
     private String m_nodeLabel;
     private final Lock m_lock = new Lock();
 
+    /**
+     * Updates to the tree that are waiting for the thread that currently
+     * holds the tree lock, see {@link #submitUpdate(Runnable)}.
+     */
+    private final Queue<Runnable> m_pendingUpdates = new ConcurrentLinkedQueue<Runnable>();
+
     /**
      * <p>Constructor for PollableNode.</p>
      *
@@ -316,6 +353,69 @@ public class PollableNode extends PollableContainer {
     @Override
     public void releaseTreeLock() {
         m_lock.release();
+        if (!m_lock.isHeldByCurrentThread()) {
+            processPendingUpdates();
+        }
+    }
+
+    /**
+     * Runs the given update of this node's tree while holding the tree lock.
+     * If another thread holds the lock, the update is queued and the lock
+     * holder runs it before releasing the lock, so the caller never blocks
+     * or has to postpone its work. Queued updates run in submission order.
+     *
+     * @param update a {@link java.lang.Runnable} object.
+     */
+    public void submitUpdate(Runnable update) {
+        m_pendingUpdates.add(update);
+        if (m_lock.isHeldByCurrentThread()) {
+            // Runs when this thread releases the lock
+            return;
+        }
+        if (!m_lock.isLockAvailable()) {
+            recordDeferredUpdate();
+        }
+        processPendingUpdates();
+    }
+
+    private void processPendingUpdates() {
+        // Check the queue again after releasing the lock so that an update
+        // queued while the lock was being released is not stranded
+        while (!m_pendingUpdates.isEmpty() && m_lock.tryObtain()) {
+            try {
+                Runnable update;
+                while ((update = m_pendingUpdates.poll()) != null) {
+                    try {
+                        update.run();
+                    } catch (Throwable t) {
+                        LOG.error("Unexpected exception while updating {}", this, t);
+                    }
+                }
+            } finally {
+                m_lock.release();
+            }
+        }
+    }
+
+    private void recordLockWait(long nanos) {
+        final PollableNetwork network = getNetwork();
+        if (network != null) {
+            network.recordTreeLockWait(nanos);
+        }
+    }
+
+    private void recordLockTimeout() {
+        final PollableNetwork network = getNetwork();
+        if (network != null) {
+            network.recordTreeLockTimeout();
+        }
+    }
+
+    private void recordDeferredUpdate() {
+        final PollableNetwork network = getNetwork();
+        if (network != null) {
+            network.recordDeferredUpdate();
+        }
     }
     
     /** {@inheritDoc} */
@@ -39,7 +39,6 @@ import org.opennms.netmgt.poller.InetNetworkInterface;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.scheduler.PostponeNecessary;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.xml.event.Event;
@@ -55,12 +54,37 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
+    /**
+     * Applies the result of a poll to the node's tree. Runs while holding
+     * the node's tree lock, see {@link PollableNode#submitUpdate(Runnable)}.
+     */
     private final class PollRunner implements Runnable {
     	
+    	private final PollableNode m_node;
+    	private final PollStatus m_result;
     	private volatile PollStatus m_pollStatus;
+
+    	public PollRunner(PollableNode node, PollStatus result) {
+    	    m_node = node;
+    	    m_result = result;
+    	}
+
             @Override
 		public void run() {
-		    doPoll();
+		    if (isDeleted()) {
+		        return;
+		    }
+		    if (getNode() != m_node) {
+		        // The interface was reparented while the service was being polled
+		        getNode().submitUpdate(new PollRunner(getNode(), m_result));
+		        return;
+		    }
+		    m_polledStatus = m_result;
+		    try {
+		        doPoll();
+		    } finally {
+		        m_polledStatus = null;
+		    }
 		    getNode().processStatusChange(new Date());
 		    m_pollStatus = getStatus();
 		}
@@ -76,6 +100,13 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+
+    /**
+     * The result of a scheduled poll that was taken before obtaining the
+     * tree lock, used by the next call to {@link #poll()} instead of polling
+     * the service again.
+     */
+    private volatile PollStatus m_polledStatus;
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -188,7 +219,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_polledStatus;
+        if (newStatus == null) {
+            newStatus = m_pollConfig.poll();
+        } else {
+            m_polledStatus = null;
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -385,19 +421,20 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public void run() {
-        doRun(500);
+        doRun();
     }
     
     /**
      * <p>doRun</p>
      *
+     * <p>Polls the service and updates the tree with the result. If another
+     * thread holds the node's tree lock, the update is applied by that thread
+     * once it releases the lock, and the status returned is the one the
+     * update is going to apply.</p>
+     *
      * @return a {@link org.opennms.netmgt.poller.PollStatus} object.
      */
     public PollStatus doRun() {
-    	return doRun(0);
-    }
-
-    private PollStatus doRun(int timeout) {
         final Map<String, String> mdc = Logging.getCopyOfContextMap();
         try {
             Logging.putThreadContext("service", m_svcName);
@@ -408,14 +445,18 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
             if (getContext().isNodeProcessingEnabled()) {
-                PollRunner r = new PollRunner();
-                try {
-                    withTreeLock(r, timeout);
-                } catch (LockUnavailable e) {
-                    LOG.info("Postponing poll for {}", this, e);
-                    throw new PostponeNecessary("LockUnavailable postpone poll");
-                }
+                // Poll the service without holding the tree lock so that the
+                // other services on the node can be polled at the same time,
+                // only the status propagation is serialized per node
+                PollStatus result = m_pollConfig.poll();
+                PollRunner r = new PollRunner(getNode(), result);
+                getNode().submitUpdate(r);
                 status = r.getPollStatus();
+                if (status == null) {
+                    // The update was handed to the thread holding the tree
+                    // lock, return the status it is going to apply
+                    status = result.isUnknown() ? getStatus() : result;
+                }
             }
             else {
                 doPoll();
@@ -33,15 +33,16 @@ import java.net.InetAddress;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.RTCConfigFactory;
@@ -49,6 +50,7 @@ import org.opennms.netmgt.dao.api.MonitoredServiceDao;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.rtc.datablock.RTCAvailabilityMap;
 import org.opennms.netmgt.rtc.datablock.RTCCategory;
 import org.opennms.netmgt.rtc.datablock.RTCHashMap;
 import org.opennms.netmgt.rtc.datablock.RTCNode;
@@ -80,6 +82,11 @@ import org.springframework.transaction.support.TransactionTemplate;
  * 'nodeGainedService' event would result in the 'nodeGainedService()' method
  * being called by the DataUpdater(s).
  *
+ * The availability of every category, and of every node in the context of
+ * each of its categories, is kept up to date in a 'RTCAvailabilityMap' as the
+ * data is altered. The updaters take turns to alter the data but the values
+ * are read from the map without waiting for them.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -190,7 +197,17 @@ public class DataManager implements AvailabilityService, InitializingBean {
      */
     private RTCHashMap m_map;
 
-	private static void addOutageToRTCNode(RTCNode rtcN, Timestamp lostTimeTS, Timestamp regainedTimeTS) {
+    /**
+     * The availability of the categories and of their nodes
+     */
+    private RTCAvailabilityMap m_availability;
+
+    /**
+     * Held while the data is altered
+     */
+    private final ReentrantLock m_writeLock = new ReentrantLock();
+
+	private void addOutageToRTCNode(RTCNode rtcN, Timestamp lostTimeTS, Timestamp regainedTimeTS) {
 		if (lostTimeTS == null) return;
 		long lostTime = lostTimeTS.getTime();
 		long regainedTime = -1;
@@ -202,16 +219,17 @@ public class DataManager implements AvailabilityService, InitializingBean {
 		LOG.debug("regained time for nodeid/ip/svc: {}/{}/{}: {}/{}", rtcN.getNodeID(), rtcN.getIP(), rtcN.getSvcName(), regainedTimeTS, regainedTime);
 
 		rtcN.addSvcTime(lostTime, regainedTime);
+		m_availability.update(rtcN);
 	}
 
 	private void addRTCNode(RTCNode rtcN) {
 		m_map.add(rtcN);
 	}
 
-	private static void addNodeToCategory(RTCCategory cat, RTCNode rtcN) {
+	private void addNodeToCategory(RTCCategory cat, RTCNode rtcN) {
 
-		// add the category info to the node
-        rtcN.addCategory(cat.getLabel());
+		// add the category info to the node and its availability to the category
+        m_availability.addCategory(rtcN, cat.getLabel());
 
 		// Add node to category
 		cat.addNode(rtcN);
@@ -323,6 +341,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
     	// create data holder
     	m_map = new RTCHashMap(30000);
+    	m_availability = new RTCAvailabilityMap(m_configFactory.getRollingWindow(), System.currentTimeMillis());
 
     	m_transactionTemplate.execute(new TransactionCallbackWithoutResult() {
 
@@ -353,52 +372,58 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param svcName
      *            the service name
      */
-    public synchronized void nodeGainedService(int nodeid, InetAddress ip, String svcName) {
-        //
-        // check the 'status' flag for the service
-        //
-        String svcStatus = m_monitoredServiceDao.get((int)nodeid, ip, svcName).getStatus();
-
-        //
-        // Include only service status 'A' and where service is not SNMP
-        //
-        if (!"A".equals(svcStatus)) {
-            LOG.info("nodeGainedSvc: {}/{}/{} IGNORED because status is not active: {}", nodeid, ip, svcName, svcStatus);
-        } else {
-            LOG.debug("nodeGainedSvc: {}/{}/{}/{}", nodeid, ip, svcName, svcStatus);
-
-            // I ran into problems with adding new services, so I just ripped
-            // all that out and added
-            // a call to the rescan method. -T
-
-            // Hrm - since the rules can be based on things other than the
-            // service name
-            // we really need to rescan every time a new service is discovered.
-            // For
-            // example, if I have a category where the rule is "ipaddr =
-            // 10.1.1.1 & isHTTP"
-            // yet I only have ICMP in the service list, the node will not be
-            // added when
-            // HTTP is discovered, because it is not in the services list.
-            // 
-            // This is mainly useful when SNMP is discovered on a node.
-
-            LOG.debug("rtcN : Rescanning services on : {}", ip);
-            try {
-                rtcNodeRescan(nodeid);
-            } catch (FilterParseException ex) {
-                LOG.warn("Failed to unmarshall database config", ex);
-                throw new UndeclaredThrowableException(ex);
-            } catch (SQLException ex) {
-                LOG.warn("Failed to get database connection", ex);
-                throw new UndeclaredThrowableException(ex);
-            } catch (RTCException ex) {
-                LOG.warn("Failed to get database connection", ex);
-                throw new UndeclaredThrowableException(ex);
+    public void nodeGainedService(int nodeid, InetAddress ip, String svcName) {
+        m_writeLock.lock();
+        try {
+            advance();
+            //
+            // check the 'status' flag for the service
+            //
+            String svcStatus = m_monitoredServiceDao.get((int)nodeid, ip, svcName).getStatus();
+
+            //
+            // Include only service status 'A' and where service is not SNMP
+            //
+            if (!"A".equals(svcStatus)) {
+                LOG.info("nodeGainedSvc: {}/{}/{} IGNORED because status is not active: {}", nodeid, ip, svcName, svcStatus);
+            } else {
+                LOG.debug("nodeGainedSvc: {}/{}/{}/{}", nodeid, ip, svcName, svcStatus);
+
+                // I ran into problems with adding new services, so I just ripped
+                // all that out and added
+                // a call to the rescan method. -T
+
+                // Hrm - since the rules can be based on things other than the
+                // service name
+                // we really need to rescan every time a new service is discovered.
+                // For
+                // example, if I have a category where the rule is "ipaddr =
+                // 10.1.1.1 & isHTTP"
+                // yet I only have ICMP in the service list, the node will not be
+                // added when
+                // HTTP is discovered, because it is not in the services list.
+                // 
+                // This is mainly useful when SNMP is discovered on a node.
+
+                LOG.debug("rtcN : Rescanning services on : {}", ip);
+                try {
+                    rtcNodeRescan(nodeid);
+                } catch (FilterParseException ex) {
+                    LOG.warn("Failed to unmarshall database config", ex);
+                    throw new UndeclaredThrowableException(ex);
+                } catch (SQLException ex) {
+                    LOG.warn("Failed to get database connection", ex);
+                    throw new UndeclaredThrowableException(ex);
+                } catch (RTCException ex) {
+                    LOG.warn("Failed to get database connection", ex);
+                    throw new UndeclaredThrowableException(ex);
+                }
+
             }
 
+        } finally {
+            m_writeLock.unlock();
         }
-
     }
 
     /**
@@ -414,18 +439,25 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was lost
      */
-    public synchronized void outageCreated(int nodeid, InetAddress ip, String svcName, long t) {
-        RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
-        RTCNode rtcN = m_map.getRTCNode(key);
-        if (rtcN == null) {
-            // oops! got a lost/regained service for a node that is not known?
-            LOG.info("Received a outageCreated event for an unknown/irrelevant node: {}", key.toString());
-            return;
-        }
+    public void outageCreated(int nodeid, InetAddress ip, String svcName, long t) {
+        m_writeLock.lock();
+        try {
+            advance();
+            RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
+            RTCNode rtcN = m_map.getRTCNode(key);
+            if (rtcN == null) {
+                // oops! got a lost/regained service for a node that is not known?
+                LOG.info("Received a outageCreated event for an unknown/irrelevant node: {}", key.toString());
+                return;
+            }
 
-        // inform node
-        rtcN.nodeLostService(t);
+            // inform node
+            rtcN.nodeLostService(t);
+            m_availability.update(rtcN);
 
+        } finally {
+            m_writeLock.unlock();
+        }
     }
 
     /**
@@ -441,17 +473,24 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was regained
      */
-    public synchronized void outageResolved(int nodeid, InetAddress ip, String svcName, long t) {
-        RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
-        RTCNode rtcN = m_map.getRTCNode(key);
-        if (rtcN == null) {
-            // oops! got a lost/regained service for a node that is not known?
-            LOG.info("Received a outageResolved event for an unknown/irrelevant node: {}", key.toString());
-            return;
-        }
+    public void outageResolved(int nodeid, InetAddress ip, String svcName, long t) {
+        m_writeLock.lock();
+        try {
+            advance();
+            RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
+            RTCNode rtcN = m_map.getRTCNode(key);
+            if (rtcN == null) {
+                // oops! got a lost/regained service for a node that is not known?
+                LOG.info("Received a outageResolved event for an unknown/irrelevant node: {}", key.toString());
+                return;
+            }
 
-        // inform node
-        rtcN.nodeRegainedService(t);
+            // inform node
+            rtcN.nodeRegainedService(t);
+            m_availability.update(rtcN);
+        } finally {
+            m_writeLock.unlock();
+        }
     }
 
     /**
@@ -464,50 +503,53 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param svcName
      *            the service that was deleted
      */
-    public synchronized void serviceDeleted(int nodeid, InetAddress ip, String svcName) {
-        // create lookup key
-        RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
+    public void serviceDeleted(int nodeid, InetAddress ip, String svcName) {
+        m_writeLock.lock();
+        try {
+            advance();
+            // create lookup key
+            RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
 
-        // lookup the node
-        RTCNode rtcN = m_map.getRTCNode(key);
-        if (rtcN == null) {
-            LOG.warn("Received a {} event for an unknown node: {}", EventConstants.SERVICE_DELETED_EVENT_UEI, key.toString());
+            // lookup the node
+            RTCNode rtcN = m_map.getRTCNode(key);
+            if (rtcN == null) {
+                LOG.warn("Received a {} event for an unknown node: {}", EventConstants.SERVICE_DELETED_EVENT_UEI, key.toString());
 
-            return;
-        }
+                return;
+            }
 
-        //
-        // Go through from all the categories this node belongs to
-        // and delete the service
-        //
-        List<String> categories = rtcN.getCategories();
-        ListIterator<String> catIter = categories.listIterator();
-        while (catIter.hasNext()) {
-            String catlabel = (String) catIter.next();
-
-            RTCCategory cat = (RTCCategory) m_categories.get(catlabel);
-
-            // get nodes in this category
-            List<Integer> catNodes = cat.getNodes();
-
-            // check if the category contains this node
-            int nIndex = catNodes.indexOf(rtcN.getNodeID());
-            if (nIndex != -1) {
-                // remove from the category if it is the only service left.
-                if (m_map.getServiceCount(nodeid, catlabel) == 1) {
-                    catNodes.remove(nIndex);
-                    LOG.info("Removing node from category: {}", catlabel);
+            //
+            // Go through from all the categories this node belongs to
+            // and delete the service
+            //
+            for (String catlabel : new ArrayList<String>(rtcN.getCategories())) {
+                RTCCategory cat = (RTCCategory) m_categories.get(catlabel);
+
+                // get nodes in this category
+                List<Integer> catNodes = cat.getNodes();
+
+                // check if the category contains this node
+                int nIndex = catNodes.indexOf(rtcN.getNodeID());
+                if (nIndex != -1) {
+                    // remove from the category if it is the only service left.
+                    if (m_map.getServiceCount(nodeid, catlabel) == 1) {
+                        catNodes.remove(nIndex);
+                        LOG.info("Removing node from category: {}", catlabel);
+                    }
+
+                    // let the node know that this category is out
+                    m_availability.removeCategory(rtcN, catlabel);
                 }
-
-                // let the node know that this category is out
-                catIter.remove();
             }
-        }
 
-        // finally remove from map
-        
-        m_map.delete(rtcN);
+            // finally remove from map and from the availability of
+            // the remaining categories
+            m_availability.remove(rtcN);
+            m_map.delete(rtcN);
 
+        } finally {
+            m_writeLock.unlock();
+        }
     }
     
     /**
@@ -515,21 +557,27 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *
      * @param nodeid a long.
      */
-    public synchronized void assetInfoChanged(int nodeid) {
+    public void assetInfoChanged(int nodeid) {
+        m_writeLock.lock();
         try {
-        	rtcNodeRescan(nodeid);
-        } catch (FilterParseException ex) {
-            LOG.warn("Failed to unmarshall database config", ex);
-            throw new UndeclaredThrowableException(ex);
-        } catch (SQLException ex) {
-            LOG.warn("Failed to get database connection", ex);
-            throw new UndeclaredThrowableException(ex);
-        } catch (RTCException ex) {
-            LOG.warn("Failed to get database connection", ex);
-            throw new UndeclaredThrowableException(ex);
-        }
+            advance();
+            try {
+            	rtcNodeRescan(nodeid);
+            } catch (FilterParseException ex) {
+                LOG.warn("Failed to unmarshall database config", ex);
+                throw new UndeclaredThrowableException(ex);
+            } catch (SQLException ex) {
+                LOG.warn("Failed to get database connection", ex);
+                throw new UndeclaredThrowableException(ex);
+            } catch (RTCException ex) {
+                LOG.warn("Failed to get database connection", ex);
+                throw new UndeclaredThrowableException(ex);
+            }
 
     	
+        } finally {
+            m_writeLock.unlock();
+        }
     }
     
     /**
@@ -537,18 +585,24 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *
      * @param nodeid a long.
      */
-    public synchronized void nodeCategoryMembershipChanged(int nodeid) {
+    public void nodeCategoryMembershipChanged(int nodeid) {
+        m_writeLock.lock();
         try {
-        	rtcNodeRescan(nodeid);
-        } catch (FilterParseException ex) {
-            LOG.warn("Failed to unmarshall database config", ex);
-            throw new UndeclaredThrowableException(ex);
-        } catch (SQLException ex) {
-            LOG.warn("Failed to get database connection", ex);
-            throw new UndeclaredThrowableException(ex);
-        } catch (RTCException ex) {
-            LOG.warn("Failed to get database connection", ex);
-            throw new UndeclaredThrowableException(ex);
+            advance();
+            try {
+            	rtcNodeRescan(nodeid);
+            } catch (FilterParseException ex) {
+                LOG.warn("Failed to unmarshall database config", ex);
+                throw new UndeclaredThrowableException(ex);
+            } catch (SQLException ex) {
+                LOG.warn("Failed to get database connection", ex);
+                throw new UndeclaredThrowableException(ex);
+            } catch (RTCException ex) {
+                LOG.warn("Failed to get database connection", ex);
+                throw new UndeclaredThrowableException(ex);
+            }
+        } finally {
+            m_writeLock.unlock();
         }
     }
 
@@ -567,16 +621,24 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *             if the database read or filtering the data against the
      *             category rule fails for some reason
      */
-    public synchronized void rtcNodeRescan(int nodeid) throws SQLException, FilterParseException, RTCException {
-    	
-    	for (RTCCategory cat : m_categories.values()) {
-			cat.deleteNode(nodeid);
-		}
-    	
-    	m_map.deleteNode(nodeid);
-    	
-    	populateNodesFromDB("ifsvc.nodeid = ?", new Object[] { Long.valueOf(nodeid) });
-    	
+    public void rtcNodeRescan(int nodeid) throws SQLException, FilterParseException, RTCException {
+        m_writeLock.lock();
+        try {
+            advance();
+
+            for (RTCCategory cat : m_categories.values()) {
+                cat.deleteNode(nodeid);
+            }
+
+            for (RTCNode rtcN : m_map.getRTCNodes(nodeid)) {
+                m_availability.remove(rtcN);
+            }
+            m_map.deleteNode(nodeid);
+
+            populateNodesFromDB("ifsvc.nodeid = ?", new Object[] { Long.valueOf(nodeid) });
+        } finally {
+            m_writeLock.unlock();
+        }
     }
 
     /**
@@ -599,27 +661,33 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param newNodeId
      *            the node that the IP now belongs to
      */
-    public synchronized void interfaceReparented(InetAddress ip, int oldNodeId, int newNodeId) {
-        // get all RTCNodes with the IP/old node ID
-        for (RTCNode rtcN : m_map.getRTCNodes(oldNodeId, ip)) {
+    public void interfaceReparented(InetAddress ip, int oldNodeId, int newNodeId) {
+        m_writeLock.lock();
+        try {
+            advance();
+            // get all RTCNodes with the IP/old node ID
+            for (RTCNode rtcN : new ArrayList<RTCNode>(m_map.getRTCNodes(oldNodeId, ip))) {
 
-            // remove the node with the old node id from the map
-            m_map.delete(rtcN);
+                // remove the node with the old node id from the map
+                m_map.delete(rtcN);
 
-            // change the node ID on the RTCNode
-            rtcN.setNodeID(newNodeId);
+                // change the node ID on the RTCNode and move its availability
+                m_availability.setNodeID(rtcN, newNodeId);
 
-            // now add the node with the new node ID
-            m_map.add(rtcN);
+                // now add the node with the new node ID
+                m_map.add(rtcN);
 
-            // remove old node ID from the categories it belonged to
-            // and the new node ID
-            for (String catlabel : rtcN.getCategories()) {
-                RTCCategory rtcCat = m_categories.get(catlabel);
-                rtcCat.deleteNode(oldNodeId);
-                rtcCat.addNode(newNodeId);
-            }
+                // remove old node ID from the categories it belonged to
+                // and the new node ID
+                for (String catlabel : rtcN.getCategories()) {
+                    RTCCategory rtcCat = m_categories.get(catlabel);
+                    rtcCat.deleteNode(oldNodeId);
+                    rtcCat.addNode(newNodeId);
+                }
 
+            }
+        } finally {
+            m_writeLock.unlock();
         }
     }
 
@@ -636,8 +704,17 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the category in the last 'rollingWindow'
      *         starting at current time
      */
-    public synchronized double getValue(RTCCategory category, long curTime, long rollingWindow) {
-        return m_map.getValue(category.getLabel(), curTime, rollingWindow);
+    public double getValue(RTCCategory category, long curTime, long rollingWindow) {
+        if (rollingWindow != m_availability.getRollingWindow()) {
+            m_writeLock.lock();
+            try {
+                return m_map.getValue(category.getLabel(), curTime, rollingWindow);
+            } finally {
+                m_writeLock.unlock();
+            }
+        }
+        advanceIfDue(curTime);
+        return m_availability.getAvailability(category.getLabel()).getValue(curTime, rollingWindow);
     }
 
     /**
@@ -655,8 +732,17 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the node in the last 'rollingWindow'
      *         starting at current time in the context of the passed category
      */
-    public synchronized double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
-        return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
+    public double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
+        if (rollingWindow != m_availability.getRollingWindow()) {
+            m_writeLock.lock();
+            try {
+                return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
+            } finally {
+                m_writeLock.unlock();
+            }
+        }
+        advanceIfDue(curTime);
+        return m_availability.getAvailability(nodeid, category.getLabel()).getValue(curTime, rollingWindow);
     }
 
     /**
@@ -670,8 +756,8 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service count for the nodeid in the context of the passed
      *         category
      */
-    public synchronized int getServiceCount(int nodeid, RTCCategory category) {
-        return m_map.getServiceCount(nodeid, category.getLabel());
+    public int getServiceCount(int nodeid, RTCCategory category) {
+        return m_availability.getAvailability(nodeid, category.getLabel()).getServiceCount();
     }
 
     /**
@@ -685,8 +771,8 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service down count for the nodeid in the context of the
      *         passed category
      */
-    public synchronized int getServiceDownCount(int nodeid, RTCCategory category) {
-        return m_map.getServiceDownCount(nodeid, category.getLabel());
+    public int getServiceDownCount(int nodeid, RTCCategory category) {
+        return m_availability.getAvailability(nodeid, category.getLabel()).getServiceDownCount();
     }
 
     /**
@@ -695,12 +781,43 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the categories
      */
     @Override
-    public synchronized Map<String, RTCCategory> getCategories() {
+    public Map<String, RTCCategory> getCategories() {
         return m_categories;
     }
 
+    /**
+     * Get a copy of the nodes in the category, the list of the category
+     * may be altered while the copy is read.
+     *
+     * @param category the category
+     * @return the node IDs
+     */
     public Collection<Integer> getNodes(RTCCategory category) {
-        return category.getNodes();
+        return new ArrayList<Integer>(category.getNodes());
+    }
+
+    /**
+     * Moves the window of the availability to the current time before the
+     * data is altered.
+     */
+    private void advance() {
+        m_availability.advance(System.currentTimeMillis());
+    }
+
+    /**
+     * Moves the window of the availability to curTime if an outage has
+     * entered or left the window since it was last moved. If the data is
+     * being altered the values are read without waiting, the updater moved
+     * the window when it started.
+     */
+    private void advanceIfDue(long curTime) {
+        if (m_availability.isAdvanceDue(curTime) && m_writeLock.tryLock()) {
+            try {
+                m_availability.advance(curTime);
+            } finally {
+                m_writeLock.unlock();
+            }
+        }
     }
 
     @Override
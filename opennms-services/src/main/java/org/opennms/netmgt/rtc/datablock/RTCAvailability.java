@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import org.opennms.netmgt.rtc.RTCUtils;
+
+/**
+ * The down time of a set of services over the rolling window, kept as the
+ * sums that make it a linear function of the current time. The sums only
+ * change when an outage starts or ends or when the start of the window passes
+ * the start or the end of an outage, so the down time can be read at any time
+ * in between without looking at the outages.
+ *
+ * Instances are immutable so that they can be read without locking while
+ * the {@link RTCAvailabilityMap} replaces them.
+ */
+public final class RTCAvailability {
+
+    public static final RTCAvailability EMPTY = new RTCAvailability(0, 0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * The number of services
+     */
+    private final int m_serviceCount;
+
+    /**
+     * The number of services that are currently down
+     */
+    private final int m_serviceDownCount;
+
+    /**
+     * The total length of the outages that started and ended inside the window
+     */
+    private final long m_closedDownTime;
+
+    /**
+     * The number of outages that started before and ended inside the window
+     */
+    private final int m_expiringCount;
+
+    /**
+     * The sum of the regained times of the outages that started before and ended
+     * inside the window
+     */
+    private final long m_expiringRegainedTime;
+
+    /**
+     * The number of open outages that started inside the window
+     */
+    private final int m_openCount;
+
+    /**
+     * The sum of the lost times of the open outages that started inside the window
+     */
+    private final long m_openLostTime;
+
+    /**
+     * The number of open outages that started before the window
+     */
+    private final int m_openLongCount;
+
+    private RTCAvailability(int serviceCount, int serviceDownCount, long closedDownTime, int expiringCount, long expiringRegainedTime, int openCount, long openLostTime, int openLongCount) {
+        m_serviceCount = serviceCount;
+        m_serviceDownCount = serviceDownCount;
+        m_closedDownTime = closedDownTime;
+        m_expiringCount = expiringCount;
+        m_expiringRegainedTime = expiringRegainedTime;
+        m_openCount = openCount;
+        m_openLostTime = openLostTime;
+        m_openLongCount = openLongCount;
+    }
+
+    /**
+     * Computes the availability of a single service from its outages.
+     *
+     * @param svcTimes the outages of the service, oldest first
+     * @param curTime the time at which the window ends
+     * @param rollingWindow the length of the window
+     */
+    static RTCAvailability forService(final Iterable<RTCNodeSvcTime> svcTimes, final long curTime, final long rollingWindow) {
+        final long startTime = curTime - rollingWindow;
+
+        long closedDownTime = 0;
+        int expiringCount = 0;
+        long expiringRegainedTime = 0;
+        int openCount = 0;
+        long openLostTime = 0;
+        int openLongCount = 0;
+        boolean down = false;
+
+        for (RTCNodeSvcTime svcTime : svcTimes) {
+            final long lostTime = svcTime.getLostTime();
+            final long regainedTime = svcTime.getRegainedTime();
+            down = regainedTime < 0;
+            if (regainedTime < 0) {
+                if (lostTime <= startTime) {
+                    openLongCount++;
+                } else {
+                    openCount++;
+                    openLostTime += lostTime;
+                }
+            } else if (regainedTime <= startTime) {
+                // expired
+                continue;
+            } else if (lostTime <= startTime) {
+                expiringCount++;
+                expiringRegainedTime += regainedTime;
+            } else {
+                closedDownTime += regainedTime - lostTime;
+            }
+        }
+
+        return new RTCAvailability(1, down ? 1 : 0, closedDownTime, expiringCount, expiringRegainedTime, openCount, openLostTime, openLongCount);
+    }
+
+    /**
+     * Returns the first time after curTime at which the start of the window
+     * passes the start or the end of one of the outages, or
+     * {@link Long#MAX_VALUE} if there is none.
+     */
+    static long getNextTransition(final Iterable<RTCNodeSvcTime> svcTimes, final long curTime, final long rollingWindow) {
+        long next = Long.MAX_VALUE;
+        for (RTCNodeSvcTime svcTime : svcTimes) {
+            final long lostTransition = svcTime.getLostTime() + rollingWindow;
+            if (lostTransition > curTime && lostTransition < next) {
+                next = lostTransition;
+            }
+            if (svcTime.getRegainedTime() >= 0) {
+                final long regainedTransition = svcTime.getRegainedTime() + rollingWindow;
+                if (regainedTransition > curTime && regainedTransition < next) {
+                    next = regainedTransition;
+                }
+            }
+        }
+        return next;
+    }
+
+    public RTCAvailability plus(final RTCAvailability other) {
+        return new RTCAvailability(
+            m_serviceCount + other.m_serviceCount,
+            m_serviceDownCount + other.m_serviceDownCount,
+            m_closedDownTime + other.m_closedDownTime,
+            m_expiringCount + other.m_expiringCount,
+            m_expiringRegainedTime + other.m_expiringRegainedTime,
+            m_openCount + other.m_openCount,
+            m_openLostTime + other.m_openLostTime,
+            m_openLongCount + other.m_openLongCount
+        );
+    }
+
+    public RTCAvailability minus(final RTCAvailability other) {
+        return new RTCAvailability(
+            m_serviceCount - other.m_serviceCount,
+            m_serviceDownCount - other.m_serviceDownCount,
+            m_closedDownTime - other.m_closedDownTime,
+            m_expiringCount - other.m_expiringCount,
+            m_expiringRegainedTime - other.m_expiringRegainedTime,
+            m_openCount - other.m_openCount,
+            m_openLostTime - other.m_openLostTime,
+            m_openLongCount - other.m_openLongCount
+        );
+    }
+
+    public boolean isEmpty() {
+        return m_serviceCount == 0;
+    }
+
+    public int getServiceCount() {
+        return m_serviceCount;
+    }
+
+    public int getServiceDownCount() {
+        return m_serviceDownCount;
+    }
+
+    /**
+     * Get the total down time of the services in the rolling window that ends
+     * at curTime.
+     */
+    public long getDownTime(final long curTime, final long rollingWindow) {
+        final long startTime = curTime - rollingWindow;
+        final long downTime = m_closedDownTime
+            + (m_expiringRegainedTime - m_expiringCount * startTime)
+            + (m_openCount * curTime - m_openLostTime)
+            + (m_openLongCount * rollingWindow);
+        // Outages that were reported with a time later than curTime
+        // would otherwise count negatively
+        return Math.max(0, Math.min(downTime, m_serviceCount * rollingWindow));
+    }
+
+    /**
+     * Get the value(uptime) of the services in the rolling window that ends
+     * at curTime.
+     */
+    public double getValue(final long curTime, final long rollingWindow) {
+        return RTCUtils.getOutagePercentage(getDownTime(curTime, rollingWindow), rollingWindow, m_serviceCount);
+    }
+
+    @Override
+    public String toString() {
+        return "RTCAvailability[services=" + m_serviceCount + ", down=" + m_serviceDownCount + "]";
+    }
+}
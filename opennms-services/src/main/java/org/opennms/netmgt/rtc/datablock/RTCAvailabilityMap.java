@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains the {@link RTCAvailability} of every category and of every node in
+ * the context of each of its categories.
+ *
+ * Every {@link RTCNode} remembers the availability that it has contributed to
+ * the aggregates of its categories. When its outages change, or when the start
+ * of the rolling window passes the start or the end of one of its outages, only
+ * the difference is applied to those aggregates. The times at which the window
+ * will pass an outage are kept in a queue so that the aggregates can be brought
+ * up to date by {@link #advance(long)} without walking the outages of every
+ * service.
+ *
+ * The methods that change the map must be called by one thread at a time. The
+ * aggregates are immutable and are replaced atomically so they can be read by
+ * any number of threads at the same time without locking.
+ */
+public class RTCAvailabilityMap {
+
+    private static final class Transition implements Comparable<Transition> {
+        private final long m_time;
+        private final RTCNode m_node;
+
+        private Transition(long time, RTCNode node) {
+            m_time = time;
+            m_node = node;
+        }
+
+        @Override
+        public int compareTo(Transition o) {
+            return Long.compare(m_time, o.m_time);
+        }
+    }
+
+    private final long m_rollingWindow;
+
+    /**
+     * The time at which the window of all of the aggregates currently ends
+     */
+    private long m_curTime;
+
+    private final PriorityQueue<Transition> m_transitions = new PriorityQueue<Transition>();
+
+    private volatile long m_nextTransition = Long.MAX_VALUE;
+
+    private final Map<String, RTCAvailability> m_categories = new ConcurrentHashMap<String, RTCAvailability>();
+
+    private final Map<String, Map<Integer, RTCAvailability>> m_nodes = new ConcurrentHashMap<String, Map<Integer, RTCAvailability>>();
+
+    public RTCAvailabilityMap(long rollingWindow, long curTime) {
+        m_rollingWindow = rollingWindow;
+        m_curTime = curTime;
+    }
+
+    public long getRollingWindow() {
+        return m_rollingWindow;
+    }
+
+    /**
+     * Get the availability of the services in the category.
+     */
+    public RTCAvailability getAvailability(String catLabel) {
+        final RTCAvailability availability = m_categories.get(catLabel);
+        return availability == null ? RTCAvailability.EMPTY : availability;
+    }
+
+    /**
+     * Get the availability of the services of the node in the context of the
+     * category.
+     */
+    public RTCAvailability getAvailability(int nodeid, String catLabel) {
+        final Map<Integer, RTCAvailability> nodes = m_nodes.get(catLabel);
+        final RTCAvailability availability = nodes == null ? null : nodes.get(nodeid);
+        return availability == null ? RTCAvailability.EMPTY : availability;
+    }
+
+    /**
+     * @return true if the start of the window ending at curTime has passed the
+     *   start or the end of an outage since the aggregates were last advanced
+     */
+    public boolean isAdvanceDue(long curTime) {
+        return curTime >= m_nextTransition;
+    }
+
+    /**
+     * Moves the end of the window of all of the aggregates to curTime.
+     */
+    public void advance(long curTime) {
+        Transition transition;
+        while ((transition = m_transitions.peek()) != null && transition.m_time <= curTime) {
+            m_transitions.poll();
+            final RTCNode node = transition.m_node;
+            // Skip transitions that have been superseded by an earlier one
+            if (node.getScheduledTransition() != transition.m_time) {
+                continue;
+            }
+            node.setScheduledTransition(Long.MAX_VALUE);
+            m_curTime = transition.m_time;
+            update(node);
+        }
+        if (curTime > m_curTime) {
+            m_curTime = curTime;
+        }
+        publishNextTransition();
+    }
+
+    /**
+     * Recomputes the availability of the service after its outages have
+     * changed and applies the difference to the aggregates of its categories.
+     */
+    public void update(RTCNode node) {
+        final RTCAvailability previous = node.getAvailability();
+        final RTCAvailability current = node.computeAvailability(m_curTime, m_rollingWindow);
+        node.setAvailability(current);
+
+        final RTCAvailability delta = current.minus(previous);
+        for (String catLabel : node.getCategories()) {
+            add(catLabel, node.getNodeID(), delta);
+        }
+
+        schedule(node);
+    }
+
+    /**
+     * Adds the service to the category and its availability to the aggregates
+     * of the category.
+     */
+    public void addCategory(RTCNode node, String catLabel) {
+        if (!node.belongsTo(catLabel)) {
+            node.addCategory(catLabel);
+            add(catLabel, node.getNodeID(), node.getAvailability());
+            schedule(node);
+        }
+    }
+
+    /**
+     * Removes the service from the category and its availability from the
+     * aggregates of the category.
+     */
+    public void removeCategory(RTCNode node, String catLabel) {
+        if (node.belongsTo(catLabel)) {
+            node.removeCategory(catLabel);
+            add(catLabel, node.getNodeID(), RTCAvailability.EMPTY.minus(node.getAvailability()));
+        }
+    }
+
+    /**
+     * Removes the service from all of its categories.
+     */
+    public void remove(RTCNode node) {
+        for (String catLabel : new ArrayList<String>(node.getCategories())) {
+            removeCategory(node, catLabel);
+        }
+    }
+
+    /**
+     * Moves the availability of the service from the aggregates of its old
+     * node to those of its new node.
+     */
+    public void setNodeID(RTCNode node, int nodeid) {
+        final RTCAvailability availability = node.getAvailability();
+        final RTCAvailability negated = RTCAvailability.EMPTY.minus(availability);
+        for (String catLabel : node.getCategories()) {
+            addToNode(catLabel, node.getNodeID(), negated);
+            addToNode(catLabel, nodeid, availability);
+        }
+        node.setNodeID(nodeid);
+    }
+
+    private void add(String catLabel, int nodeid, RTCAvailability delta) {
+        m_categories.merge(catLabel, delta, RTCAvailabilityMap::sum);
+        addToNode(catLabel, nodeid, delta);
+    }
+
+    private void addToNode(String catLabel, int nodeid, RTCAvailability delta) {
+        m_nodes.computeIfAbsent(catLabel, k -> new ConcurrentHashMap<Integer, RTCAvailability>()).merge(nodeid, delta, RTCAvailabilityMap::sum);
+    }
+
+    private static RTCAvailability sum(RTCAvailability a, RTCAvailability b) {
+        final RTCAvailability sum = a.plus(b);
+        // Drop the aggregates of categories and nodes that have no services left
+        return sum.isEmpty() ? null : sum;
+    }
+
+    private void schedule(RTCNode node) {
+        if (node.getCategories().isEmpty()) {
+            return;
+        }
+        final long next = node.getNextTransition(m_curTime, m_rollingWindow);
+        if (next < node.getScheduledTransition()) {
+            node.setScheduledTransition(next);
+            m_transitions.add(new Transition(next, node));
+            publishNextTransition();
+        }
+    }
+
+    private void publishNextTransition() {
+        final Transition next = m_transitions.peek();
+        m_nextTransition = next == null ? Long.MAX_VALUE : next.m_time;
+    }
+
+}
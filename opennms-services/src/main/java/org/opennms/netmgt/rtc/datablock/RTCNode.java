@@ -30,6 +30,7 @@ package org.opennms.netmgt.rtc.datablock;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -81,6 +82,18 @@ public class RTCNode {
      */
     private final List<String> m_categories = new ArrayList<String>();
 
+    /**
+     * The availability that this node has contributed to the aggregates of
+     * its categories in the {@link RTCAvailabilityMap}
+     */
+    private RTCAvailability m_availability = RTCAvailability.forService(Collections.<RTCNodeSvcTime>emptyList(), 0, 0);
+
+    /**
+     * The time of the transition that is queued for this node in the
+     * {@link RTCAvailabilityMap}
+     */
+    private long m_scheduledTransition = Long.MAX_VALUE;
+
     /**
      * <p>Constructor for RTCNode.</p>
      *
@@ -286,6 +299,30 @@ public class RTCNode {
         return m_svcTimesList.getDownTime(curTime, rollingWindow);
     }
 
+    RTCAvailability getAvailability() {
+        return m_availability;
+    }
+
+    void setAvailability(RTCAvailability availability) {
+        m_availability = availability;
+    }
+
+    RTCAvailability computeAvailability(long curTime, long rollingWindow) {
+        return RTCAvailability.forService(m_svcTimesList, curTime, rollingWindow);
+    }
+
+    long getNextTransition(long curTime, long rollingWindow) {
+        return RTCAvailability.getNextTransition(m_svcTimesList, curTime, rollingWindow);
+    }
+
+    long getScheduledTransition() {
+        return m_scheduledTransition;
+    }
+
+    void setScheduledTransition(long time) {
+        m_scheduledTransition = time;
+    }
+
     /**
      * Return if the service is currently down.
      *
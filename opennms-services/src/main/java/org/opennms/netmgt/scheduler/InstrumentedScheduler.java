@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A {@link Scheduler} that runs its tasks in a thread pool and keeps track
+ * of how late the tasks are handed to the pool. This is used to expose the
+ * statistics of the daemon schedulers over JMX.
+ */
+public interface InstrumentedScheduler extends Scheduler {
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by this scheduler.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner();
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of tasks waiting to be run
+     */
+    public int getScheduled();
+
+    /**
+     * Returns the delay between the time the tasks were scheduled to run at
+     * and the time they were handed to the thread pool, for the given
+     * percentile of the tasks executed so far.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the delay in milliseconds
+     */
+    public long getSchedulingLagPercentile(double percentile);
+}
@@ -54,7 +54,7 @@ import org.springframework.util.Assert;
  * @author <a href="mailto:weave@oculan.com">Brian Weaver </a>
  * @author <a href="http://www.opennms.org/">OpenNMS </a>
  */
-public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
+public class LegacyScheduler implements Runnable, PausableFiber, InstrumentedScheduler {
     
     private static final Logger LOG = LoggerFactory.getLogger(LegacyScheduler.class);
     
@@ -91,6 +91,39 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
      */
     private volatile long m_numTasksExecuted = 0;
 
+    /**
+     * The delays between the time the tasks were due and the time they were
+     * handed to the thread pool.
+     */
+    private final SchedulingLagHistogram m_lag = new SchedulingLagHistogram();
+
+    /**
+     * Wraps the runnables scheduled to run after an interval so that they
+     * are only ready once the interval has elapsed.
+     */
+    private class TimeKeeper implements ReadyRunnable {
+        private final ReadyRunnable m_runnable;
+        private final long m_timeToRun;
+
+        private TimeKeeper(ReadyRunnable runnable, long timeToRun) {
+            m_runnable = runnable;
+            m_timeToRun = timeToRun;
+        }
+
+        @Override
+        public boolean isReady() {
+            return getCurrentTime() >= m_timeToRun && m_runnable.isReady();
+        }
+
+        @Override
+        public void run() {
+            m_runnable.run();
+        }
+
+        @Override
+        public String toString() { return m_runnable.toString()+" (ready in "+Math.max(0, m_timeToRun-getCurrentTime())+"ms)"; }
+    }
+
     /**
      * Constructs a new instance of the scheduler. The maximum number of
      * executable threads is specified in the constructor. The executable
@@ -167,22 +200,7 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
     /** {@inheritDoc} */
     @Override
     public synchronized void schedule(long interval, final ReadyRunnable runnable) {
-        final long timeToRun = getCurrentTime()+interval;
-        ReadyRunnable timeKeeper = new ReadyRunnable() {
-            @Override
-            public boolean isReady() {
-                return getCurrentTime() >= timeToRun && runnable.isReady();
-            }
-            
-            @Override
-            public void run() {
-                runnable.run();
-            }
-            
-            @Override
-            public String toString() { return runnable.toString()+" (ready in "+Math.max(0, timeToRun-getCurrentTime())+"ms)"; }
-        };
-        schedule(timeKeeper, interval);
+        schedule(new TimeKeeper(runnable, getCurrentTime()+interval), interval);
     }
     
     /* (non-Javadoc)
@@ -301,6 +319,7 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
      *
      * @return the sum of all the elements in the various queues
      */
+    @Override
     public int getScheduled() {
         return m_scheduled;
     }
@@ -311,6 +330,7 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
      *
      * @return thread pool
      */
+    @Override
     public ExecutorService getRunner() {
         return m_runner;
     }
@@ -420,6 +440,10 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
                                 // Increment the execution counter
                                 ++m_numTasksExecuted;
 
+                                if (readyRun instanceof TimeKeeper) {
+                                    m_lag.record(getCurrentTime() - ((TimeKeeper)readyRun).m_timeToRun);
+                                }
+
                                 // Thread Pool Statistics
                                 if (m_runner instanceof ThreadPoolExecutor) {
                                     ThreadPoolExecutor e = (ThreadPoolExecutor) m_runner;
@@ -468,4 +492,10 @@ public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
     public long getNumTasksExecuted() {
         return m_numTasksExecuted;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLagPercentile(double percentile) {
+        return m_lag.getPercentile(percentile);
+    }
 }
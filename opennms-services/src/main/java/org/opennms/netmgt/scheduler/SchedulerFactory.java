@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the schedulers used by the daemons.
+ *
+ * The implementation is selected with the
+ * <code>org.opennms.scheduler.implementation</code> system property, which
+ * can be overridden for a single daemon with
+ * <code>org.opennms.scheduler.&lt;daemon&gt;.implementation</code> where
+ * <code>&lt;daemon&gt;</code> is the lower case name passed to
+ * {@link #createScheduler(String, int)}, i.e. <code>poller</code>,
+ * <code>collectd</code> or <code>snmpinterfacepoller</code>.
+ * The supported values are {@value #LEGACY} and {@value #TIMING_WHEEL}.
+ */
+public abstract class SchedulerFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulerFactory.class);
+
+    public static final String IMPLEMENTATION_PROPERTY = "org.opennms.scheduler.implementation";
+
+    /** Selects the {@link LegacyScheduler}, this is the default. */
+    public static final String LEGACY = "legacy";
+
+    /** Selects the {@link TimingWheelScheduler}. */
+    public static final String TIMING_WHEEL = "timingwheel";
+
+    /**
+     * The duration of a tick of the {@link TimingWheelScheduler} in milliseconds.
+     */
+    public static final String TICK_PROPERTY = "org.opennms.scheduler.timingwheel.tick";
+
+    /**
+     * Creates the scheduler for the given daemon.
+     *
+     * @param parent
+     *            the name of the daemon, used to name the threads and to look
+     *            up the implementation
+     * @param maxSize
+     *            the maximum size of the thread pool
+     * @return the scheduler, not started yet
+     */
+    public static InstrumentedScheduler createScheduler(final String parent, final int maxSize) {
+        final String implementation = getImplementation(parent);
+        if (TIMING_WHEEL.equalsIgnoreCase(implementation)) {
+            final long tick = Long.getLong(TICK_PROPERTY, TimingWheelScheduler.DEFAULT_TICK_MILLIS);
+            LOG.info("Using a timing wheel scheduler with a tick of {}ms for {}", tick, parent);
+            return new TimingWheelScheduler(parent, maxSize, tick, TimingWheelScheduler.DEFAULT_WHEEL_SIZE, TimingWheelScheduler.DEFAULT_NOT_READY_DELAY_MILLIS);
+        } else if (!LEGACY.equalsIgnoreCase(implementation)) {
+            LOG.warn("Unknown scheduler implementation '{}' for {}, using the legacy scheduler", implementation, parent);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+
+    private static String getImplementation(final String parent) {
+        final String implementation = System.getProperty("org.opennms.scheduler." + parent.toLowerCase() + ".implementation");
+        if (implementation != null && !implementation.trim().isEmpty()) {
+            return implementation.trim();
+        }
+        return System.getProperty(IMPLEMENTATION_PROPERTY, LEGACY).trim();
+    }
+}
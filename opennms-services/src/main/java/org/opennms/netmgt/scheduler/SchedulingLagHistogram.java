@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of the delay between the time a task was scheduled to run at
+ * and the time it was handed to the thread pool.
+ *
+ * The delays are counted in buckets whose upper bounds are powers of two
+ * (in milliseconds), so recording a value is a single atomic increment and
+ * the percentiles are accurate to within a factor of two.
+ */
+public class SchedulingLagHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a delay.
+     *
+     * @param lagMillis the delay in milliseconds, negative values are
+     *            counted as no delay
+     */
+    public void record(final long lagMillis) {
+        m_counts.incrementAndGet(bucketFor(lagMillis));
+    }
+
+    /**
+     * Returns the total number of delays that have been recorded.
+     *
+     * @return the number of recorded delays
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += m_counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the upper bound of the delay below which the given percentage
+     * of the recorded delays fall.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the delay in milliseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = m_counts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long)Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Forgets all the recorded delays.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            m_counts.set(i, 0);
+        }
+    }
+
+    private static int bucketFor(final long lagMillis) {
+        if (lagMillis <= 0) {
+            return 0;
+        }
+        // 1 -> 1, 2..3 -> 2, 4..7 -> 3, ...
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(lagMillis));
+    }
+
+    private static long upperBound(final int bucket) {
+        if (bucket == 0) {
+            return 0;
+        } else if (bucket >= 63) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A scheduler based on a hierarchical timing wheel.
+ *
+ * The {@link LegacyScheduler} keeps one queue per interval and checks the
+ * head of every queue for readiness in a loop, which gets expensive and
+ * imprecise with a large number of scheduled services. This scheduler
+ * instead places every task in a bucket of a timing wheel according to the
+ * time it is due, so both scheduling and expiring a task take constant time
+ * and the worker thread only looks at the tasks that are due.
+ *
+ * The wheel is made of {@link #LEVELS} levels of buckets. The buckets of the
+ * first level each span one tick, the buckets of the next level span a full
+ * turn of the previous level, and so on. Tasks that are due far in the future
+ * are placed in the upper levels and are moved down to the lower levels as
+ * the wheel turns.
+ *
+ * Tasks are handed over to the worker thread through a lock free queue, so
+ * the wheel itself is only ever accessed by the worker thread. Tasks that
+ * are due but not ready are checked again after a delay instead of being
+ * polled continuously.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, InstrumentedScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The default duration of a tick in milliseconds.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    /**
+     * The default number of buckets in every level of the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * The default delay in milliseconds before checking a task that was due
+     * but not ready again. This matches the delay between two scans of the
+     * queues in the {@link LegacyScheduler}.
+     */
+    public static final long DEFAULT_NOT_READY_DELAY_MILLIS = 1000;
+
+    /**
+     * The number of levels in the wheel. With the default settings the
+     * wheel covers 20 years before it wraps around.
+     */
+    public static final int LEVELS = 4;
+
+    private static final class Entry {
+        private final ReadyRunnable m_runnable;
+        private long m_deadline;
+        private long m_deadlineTick;
+        private Entry m_next;
+
+        private Entry(final ReadyRunnable runnable, final long deadline) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+    }
+
+    private final long m_tickNanos;
+
+    private final int m_wheelBits;
+
+    private final int m_wheelMask;
+
+    private final long m_notReadyDelayNanos;
+
+    /**
+     * The buckets of the wheel, indexed by level and then by slot. Each
+     * bucket is a singly linked list of entries. Only accessed by the worker
+     * thread.
+     */
+    private final Entry[][] m_wheel;
+
+    /**
+     * Tasks that have been scheduled but not added to the wheel yet.
+     */
+    private final Queue<Entry> m_pending = new ConcurrentLinkedQueue<Entry>();
+
+    /**
+     * The total number of tasks that are waiting to be run.
+     */
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    private final SchedulingLagHistogram m_lag = new SchedulingLagHistogram();
+
+    /**
+     * The time at which the wheel started turning, as returned by {@link System#nanoTime()}.
+     */
+    private final long m_startTime;
+
+    /**
+     * The last tick that has been processed. Only accessed by the worker thread.
+     */
+    private long m_currentTick = 0;
+
+    /**
+     * The status for this fiber.
+     */
+    private volatile int m_status;
+
+    /**
+     * The worker thread that executes this instance.
+     */
+    private volatile Thread m_worker;
+
+    /**
+     * Used to keep track of the number of tasks that have been executed.
+     */
+    private volatile long m_numTasksExecuted = 0;
+
+    /**
+     * Constructs a new instance of the scheduler with the default tick
+     * duration and wheel size.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, DEFAULT_NOT_READY_DELAY_MILLIS);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The duration of a tick in milliseconds, tasks are run with
+     *            this precision.
+     * @param wheelSize
+     *            The number of buckets in every level of the wheel, rounded
+     *            up to a power of two.
+     * @param notReadyDelayMillis
+     *            The delay before checking a task that was due but not ready
+     *            again.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMillis, final int wheelSize, final long notReadyDelayMillis) {
+        Assert.isTrue(tickMillis > 0, "The tick duration must be positive");
+        Assert.isTrue(wheelSize > 1 && wheelSize <= (1 << 16), "The wheel size must be between 2 and 65536");
+
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        m_wheelBits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        m_wheelMask = (1 << m_wheelBits) - 1;
+        m_notReadyDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(tickMillis, notReadyDelayMillis));
+        m_wheel = new Entry[LEVELS][1 << m_wheelBits];
+        m_startTime = System.nanoTime();
+
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_worker = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        m_pending.add(new Entry(runnable, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval))));
+        if (m_scheduled.getAndIncrement() == 0) {
+            LOG.debug("schedule: queue element added, calling notify all since none were scheduled");
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        // Set the status first, the worker may be paused before it has
+        // had a chance to run
+        m_status = STARTING;
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulingLagPercentile(final double percentile) {
+        return m_lag.getPercentile(percentile);
+    }
+
+    /**
+     * The main method of the scheduler. This method turns the wheel one tick
+     * at a time and hands the tasks that are due over to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (m_status == STARTING) {
+                m_status = RUNNING;
+            }
+        }
+
+        LOG.debug("run: scheduler running");
+
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // exit
+                        break;
+                    }
+                }
+
+                // if resume pending then change to running
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+
+                    m_status = RUNNING;
+                }
+
+                if (m_status != RUNNING) {
+                    // interrupted while paused
+                    continue;
+                }
+
+                try {
+                    if (m_scheduled.get() == 0) {
+                        LOG.debug("run: no ready runnables scheduled, waiting...");
+                        wait();
+                    } else {
+                        // Sleep until the next tick is due
+                        final long sleepNanos = m_startTime + (m_currentTick + 1) * m_tickNanos - System.nanoTime();
+                        if (sleepNanos > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, sleepNanos);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    break;
+                }
+
+                if (m_status != RUNNING) {
+                    // check for a pause or a stop before running anything
+                    continue;
+                }
+            }
+
+            try {
+                advance(System.nanoTime());
+            } catch (RejectedExecutionException e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Moves the newly scheduled tasks to the wheel and turns the wheel up to
+     * the given time, running the tasks that are due on the way.
+     */
+    private void advance(final long now) {
+        Entry entry;
+        while ((entry = m_pending.poll()) != null) {
+            add(entry, now);
+        }
+
+        final long targetTick = (now - m_startTime) / m_tickNanos;
+        while (m_currentTick < targetTick) {
+            m_currentTick++;
+
+            // When a level has completed a full turn, move the entries of
+            // the next bucket of the level above down into the wheel
+            for (int level = 1; level < LEVELS; level++) {
+                if ((m_currentTick & ((1L << (m_wheelBits * level)) - 1)) != 0) {
+                    break;
+                }
+                final int slot = (int) ((m_currentTick >>> (m_wheelBits * level)) & m_wheelMask);
+                Entry cascaded = m_wheel[level][slot];
+                m_wheel[level][slot] = null;
+                while (cascaded != null) {
+                    final Entry next = cascaded.m_next;
+                    add(cascaded, now);
+                    cascaded = next;
+                }
+            }
+
+            final int slot = (int) (m_currentTick & m_wheelMask);
+            Entry expired = m_wheel[0][slot];
+            m_wheel[0][slot] = null;
+            while (expired != null) {
+                final Entry next = expired.m_next;
+                expire(expired, now);
+                expired = next;
+            }
+        }
+    }
+
+    /**
+     * Places the entry in the bucket that matches its deadline, or runs it
+     * if it is already due.
+     */
+    private void add(final Entry entry, final long now) {
+        // Round up, tasks must never run early
+        entry.m_deadlineTick = Math.max(0, (entry.m_deadline - m_startTime + m_tickNanos - 1) / m_tickNanos);
+        final long delta = entry.m_deadlineTick - m_currentTick;
+        if (delta <= 0) {
+            expire(entry, now);
+            return;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (m_wheelBits * (level + 1)))) {
+            level++;
+        }
+        // Tasks beyond the range of the wheel end up in the top level and are
+        // simply added again when their bucket cascades
+        final int slot = (int) ((entry.m_deadlineTick >>> (m_wheelBits * level)) & m_wheelMask);
+        entry.m_next = m_wheel[level][slot];
+        m_wheel[level][slot] = entry;
+    }
+
+    /**
+     * Hands the entry over to the thread pool if it is ready, or checks it
+     * again later if it isn't.
+     */
+    private void expire(final Entry entry, final long now) {
+        entry.m_next = null;
+        if (!entry.m_runnable.isReady()) {
+            LOG.debug("run: runnable {} is due but not ready, checking again later", entry.m_runnable);
+            entry.m_deadline = now + m_notReadyDelayNanos;
+            add(entry, now);
+            return;
+        }
+
+        LOG.debug("run: found ready runnable {}", entry.m_runnable);
+        m_lag.record(TimeUnit.NANOSECONDS.toMillis(now - entry.m_deadline));
+        m_scheduled.decrementAndGet();
+        m_numTasksExecuted++;
+        m_runner.execute(entry.m_runnable);
+    }
+}
@@ -0,0 +1,750 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A threshold expression compiled to a tree of primitive double operations.
+ *
+ * Only the arithmetic subset of JEXL that is commonly used in thresholds is
+ * supported: numbers, datasource names (including the
+ * <code>datasources['name']</code> form, see NMS-5019), the arithmetic,
+ * comparison and logical operators, the ternary operator and the double
+ * variants of the <code>math</code> functions. The results are the same as
+ * the ones JEXL computes for these expressions: decimal literals are floats
+ * that JEXL converts to doubles through their string representation,
+ * comparisons treat NaN as the smallest value and sub-expressions with only
+ * integer literals are rejected since JEXL would evaluate them using integer
+ * arithmetic.
+ *
+ * When a datasource is not available, or when dividing by zero, evaluation
+ * throws {@link FallbackNecessary} so that the caller can use JEXL instead,
+ * which handles these cases (null operands, error messages) on its own.
+ *
+ * Instances are immutable and can be used by multiple threads.
+ *
+ * @see ExpressionConfigWrapper
+ */
+final class CompiledThresholdExpression {
+
+    /**
+     * Thrown during evaluation when the compiled expression can't produce the
+     * same result as JEXL. It is pre-allocated and has no stack trace, so
+     * throwing it is cheap.
+     */
+    static final class FallbackNecessary extends RuntimeException {
+        private static final long serialVersionUID = 4284564637163394546L;
+
+        private FallbackNecessary() {
+            super("Fallback to JEXL is necessary", null, false, false);
+        }
+    }
+
+    private static final FallbackNecessary FALLBACK_NECESSARY = new FallbackNecessary();
+
+    private static final Set<String> UNARY_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "abs", "acos", "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", "expm1", "floor", "log", "log10",
+            "log1p", "rint", "signum", "sin", "sinh", "sqrt", "tan", "tanh", "toDegrees", "toRadians", "ulp"));
+
+    private static final Set<String> BINARY_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "atan2", "hypot", "IEEEremainder", "max", "min", "pow"));
+
+    private static final Set<String> RESERVED_WORDS = new HashSet<>(Arrays.asList(
+            "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not", "null", "true", "false",
+            "new", "var", "empty", "size", "if", "else", "for", "foreach", "while", "in", "return",
+            "math", "datasources"));
+
+    private final NumericNode m_root;
+
+    private CompiledThresholdExpression(NumericNode root) {
+        m_root = root;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @return the compiled expression or null if the expression uses
+     *         constructs that are not supported
+     */
+    static CompiledThresholdExpression compile(String expression) {
+        try {
+            final Parser parser = new Parser(expression);
+            final Node node = parser.parseTernary();
+            if (!parser.atEnd() || !(node instanceof NumericNode)) {
+                return null;
+            }
+            return new CompiledThresholdExpression((NumericNode)node);
+        } catch (final UnsupportedExpression e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates the expression with the given datasource values.
+     *
+     * @throws FallbackNecessary if the expression must be evaluated by JEXL instead
+     */
+    double evaluate(Map<String, Double> values) throws FallbackNecessary {
+        return m_root.evaluate(values);
+    }
+
+    private enum Kind {
+        /** A double value, i.e. a datasource or the result of an operation */
+        DOUBLE,
+        /** A decimal literal, which JEXL parses as a float */
+        FLOAT,
+        /** An integer literal */
+        INTEGER,
+        /** A ternary with branches of different kinds */
+        MIXED;
+
+        private boolean isFloatingPoint() {
+            return this == DOUBLE || this == FLOAT;
+        }
+    }
+
+    private static abstract class Node {
+    }
+
+    private static abstract class NumericNode extends Node {
+        abstract Kind kind();
+
+        abstract double evaluate(Map<String, Double> values);
+    }
+
+    private static abstract class ConditionNode extends Node {
+        abstract boolean test(Map<String, Double> values);
+    }
+
+    private static final class Constant extends NumericNode {
+        private final Kind m_kind;
+        private final double m_value;
+
+        private Constant(Kind kind, double value) {
+            m_kind = kind;
+            m_value = value;
+        }
+
+        @Override
+        Kind kind() {
+            return m_kind;
+        }
+
+        @Override
+        double evaluate(Map<String, Double> values) {
+            return m_value;
+        }
+    }
+
+    private static final class Variable extends NumericNode {
+        private final String m_name;
+
+        private Variable(String name) {
+            m_name = name;
+        }
+
+        @Override
+        Kind kind() {
+            return Kind.DOUBLE;
+        }
+
+        @Override
+        double evaluate(Map<String, Double> values) {
+            final Double value = values.get(m_name);
+            if (value == null) {
+                throw FALLBACK_NECESSARY;
+            }
+            return value.doubleValue();
+        }
+    }
+
+    private static final class Negate extends NumericNode {
+        private final NumericNode m_operand;
+
+        private Negate(NumericNode operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        Kind kind() {
+            return m_operand.kind();
+        }
+
+        @Override
+        double evaluate(Map<String, Double> values) {
+            return -m_operand.evaluate(values);
+        }
+    }
+
+    private static final class Arithmetic extends NumericNode {
+        private final char m_operator;
+        private final NumericNode m_left;
+        private final NumericNode m_right;
+
+        private Arithmetic(char operator, NumericNode left, NumericNode right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Kind kind() {
+            return Kind.DOUBLE;
+        }
+
+        @Override
+        double evaluate(Map<String, Double> values) {
+            final double left = m_left.evaluate(values);
+            final double right = m_right.evaluate(values);
+            switch (m_operator) {
+            case '+':
+                return left + right;
+            case '-':
+                return left - right;
+            case '*':
+                return left * right;
+            case '/':
+                if (right == 0.0) {
+                    throw FALLBACK_NECESSARY;
+                }
+                return left / right;
+            case '%':
+                if (right == 0.0) {
+                    throw FALLBACK_NECESSARY;
+                }
+                return left % right;
+            default:
+                throw new IllegalStateException("Unknown operator " + m_operator);
+            }
+        }
+    }
+
+    private static final class Function extends NumericNode {
+        private final String m_name;
+        private final NumericNode[] m_arguments;
+
+        private Function(String name, NumericNode[] arguments) {
+            m_name = name;
+            m_arguments = arguments;
+        }
+
+        @Override
+        Kind kind() {
+            return Kind.DOUBLE;
+        }
+
+        @Override
+        double evaluate(Map<String, Double> values) {
+            final double a = m_arguments[0].evaluate(values);
+            if (m_arguments.length == 1) {
+                switch (m_name) {
+                case "abs": return Math.abs(a);
+                case "acos": return Math.acos(a);
+                case "asin": return Math.asin(a);
+                case "atan": return Math.atan(a);
+                case "cbrt": return Math.cbrt(a);
+                case "ceil": return Math.ceil(a);
+                case "cos": return Math.cos(a);
+                case "cosh": return Math.cosh(a);
+                case "exp": return Math.exp(a);
+                case "expm1": return Math.expm1(a);
+                case "floor": return Math.floor(a);
+                case "log": return Math.log(a);
+                case "log10": return Math.log10(a);
+                case "log1p": return Math.log1p(a);
+                case "rint": return Math.rint(a);
+                case "signum": return Math.signum(a);
+                case "sin": return Math.sin(a);
+                case "sinh": return Math.sinh(a);
+                case "sqrt": return Math.sqrt(a);
+                case "tan": return Math.tan(a);
+                case "tanh": return Math.tanh(a);
+                case "toDegrees": return Math.toDegrees(a);
+                case "toRadians": return Math.toRadians(a);
+                case "ulp": return Math.ulp(a);
+                }
+            } else {
+                final double b = m_arguments[1].evaluate(values);
+                switch (m_name) {
+                case "atan2": return Math.atan2(a, b);
+                case "hypot": return Math.hypot(a, b);
+                case "IEEEremainder": return Math.IEEEremainder(a, b);
+                case "max": return Math.max(a, b);
+                case "min": return Math.min(a, b);
+                case "pow": return Math.pow(a, b);
+                }
+            }
+            throw new IllegalStateException("Unknown function " + m_name);
+        }
+    }
+
+    private static final class Ternary extends NumericNode {
+        private final ConditionNode m_condition;
+        private final NumericNode m_then;
+        private final NumericNode m_else;
+
+        private Ternary(ConditionNode condition, NumericNode then, NumericNode otherwise) {
+            m_condition = condition;
+            m_then = then;
+            m_else = otherwise;
+        }
+
+        @Override
+        Kind kind() {
+            return m_then.kind() == m_else.kind() ? m_then.kind() : Kind.MIXED;
+        }
+
+        @Override
+        double evaluate(Map<String, Double> values) {
+            return m_condition.test(values) ? m_then.evaluate(values) : m_else.evaluate(values);
+        }
+    }
+
+    private static final class Comparison extends ConditionNode {
+        private final String m_operator;
+        private final NumericNode m_left;
+        private final NumericNode m_right;
+
+        private Comparison(String operator, NumericNode left, NumericNode right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean test(Map<String, Double> values) {
+            final int compare = compare(m_left.evaluate(values), m_right.evaluate(values));
+            switch (m_operator) {
+            case "==": return compare == 0;
+            case "!=": return compare != 0;
+            case "<": return compare < 0;
+            case "<=": return compare <= 0;
+            case ">": return compare > 0;
+            case ">=": return compare >= 0;
+            default: throw new IllegalStateException("Unknown operator " + m_operator);
+            }
+        }
+
+        /**
+         * Same as JexlArithmetic.compare(), NaN is equal to itself and
+         * smaller than anything else.
+         */
+        private static int compare(double left, double right) {
+            if (Double.isNaN(left)) {
+                return Double.isNaN(right) ? 0 : -1;
+            } else if (Double.isNaN(right)) {
+                return 1;
+            } else if (left < right) {
+                return -1;
+            } else if (left > right) {
+                return 1;
+            } else {
+                return 0;
+            }
+        }
+    }
+
+    private static final class Logical extends ConditionNode {
+        private final boolean m_and;
+        private final ConditionNode m_left;
+        private final ConditionNode m_right;
+
+        private Logical(boolean and, ConditionNode left, ConditionNode right) {
+            m_and = and;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean test(Map<String, Double> values) {
+            if (m_and) {
+                return m_left.test(values) && m_right.test(values);
+            } else {
+                return m_left.test(values) || m_right.test(values);
+            }
+        }
+    }
+
+    private static final class Not extends ConditionNode {
+        private final ConditionNode m_operand;
+
+        private Not(ConditionNode operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        boolean test(Map<String, Double> values) {
+            return !m_operand.test(values);
+        }
+    }
+
+    private static final class UnsupportedExpression extends Exception {
+        private static final long serialVersionUID = -1779461473624707446L;
+
+        private UnsupportedExpression(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * A recursive descent parser following the precedence of the JEXL
+     * grammar for the supported operators.
+     */
+    private static final class Parser {
+        private final String m_expression;
+        private int m_position = 0;
+
+        private Parser(String expression) {
+            m_expression = expression;
+        }
+
+        private boolean atEnd() {
+            skipWhitespace();
+            return m_position >= m_expression.length();
+        }
+
+        private Node parseTernary() throws UnsupportedExpression {
+            final Node condition = parseOr();
+            if (!accept("?")) {
+                return condition;
+            }
+            final NumericNode then = numeric(parseTernary());
+            expect(":");
+            final NumericNode otherwise = numeric(parseTernary());
+            return new Ternary(condition(condition), then, otherwise);
+        }
+
+        private Node parseOr() throws UnsupportedExpression {
+            Node left = parseAnd();
+            while (accept("||") || acceptWord("or")) {
+                left = new Logical(false, condition(left), condition(parseAnd()));
+            }
+            return left;
+        }
+
+        private Node parseAnd() throws UnsupportedExpression {
+            Node left = parseEquality();
+            while (accept("&&") || acceptWord("and")) {
+                left = new Logical(true, condition(left), condition(parseEquality()));
+            }
+            return left;
+        }
+
+        private Node parseEquality() throws UnsupportedExpression {
+            Node left = parseRelational();
+            while (true) {
+                final String operator;
+                if (accept("==") || acceptWord("eq")) {
+                    operator = "==";
+                } else if (accept("!=") || acceptWord("ne")) {
+                    operator = "!=";
+                } else {
+                    return left;
+                }
+                left = new Comparison(operator, numeric(left), numeric(parseRelational()));
+            }
+        }
+
+        private Node parseRelational() throws UnsupportedExpression {
+            Node left = parseAdditive();
+            while (true) {
+                final String operator;
+                if (accept("<=") || acceptWord("le")) {
+                    operator = "<=";
+                } else if (accept(">=") || acceptWord("ge")) {
+                    operator = ">=";
+                } else if (accept("<") || acceptWord("lt")) {
+                    operator = "<";
+                } else if (accept(">") || acceptWord("gt")) {
+                    operator = ">";
+                } else {
+                    return left;
+                }
+                left = new Comparison(operator, numeric(left), numeric(parseAdditive()));
+            }
+        }
+
+        private Node parseAdditive() throws UnsupportedExpression {
+            Node left = parseMultiplicative();
+            while (true) {
+                final char operator;
+                if (accept("+")) {
+                    operator = '+';
+                } else if (accept("-")) {
+                    operator = '-';
+                } else {
+                    return left;
+                }
+                left = arithmetic(operator, left, parseMultiplicative());
+            }
+        }
+
+        private Node parseMultiplicative() throws UnsupportedExpression {
+            Node left = parseUnary();
+            while (true) {
+                final char operator;
+                if (accept("*")) {
+                    operator = '*';
+                } else if (accept("/") || acceptWord("div")) {
+                    operator = '/';
+                } else if (accept("%") || acceptWord("mod")) {
+                    operator = '%';
+                } else {
+                    return left;
+                }
+                left = arithmetic(operator, left, parseUnary());
+            }
+        }
+
+        private Node parseUnary() throws UnsupportedExpression {
+            if (accept("-")) {
+                return new Negate(numeric(parseUnary()));
+            } else if (accept("!") || acceptWord("not")) {
+                return new Not(condition(parseUnary()));
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() throws UnsupportedExpression {
+            skipWhitespace();
+            if (accept("(")) {
+                final Node node = parseTernary();
+                expect(")");
+                return node;
+            }
+            if (m_position >= m_expression.length()) {
+                throw new UnsupportedExpression("Unexpected end of expression");
+            }
+            final char c = m_expression.charAt(m_position);
+            if (isDigit(c)) {
+                return parseNumber();
+            }
+            final String identifier = parseIdentifier();
+            if ("math".equals(identifier)) {
+                expect(".");
+                return parseFunction(parseIdentifier());
+            } else if ("datasources".equals(identifier)) {
+                final String name;
+                if (accept(".")) {
+                    name = parseIdentifier();
+                } else {
+                    expect("[");
+                    name = parseString();
+                    expect("]");
+                }
+                return new Variable(name);
+            } else if (RESERVED_WORDS.contains(identifier)) {
+                throw new UnsupportedExpression("Unsupported keyword " + identifier);
+            }
+            skipWhitespace();
+            if (m_position < m_expression.length() && "([.".indexOf(m_expression.charAt(m_position)) >= 0) {
+                throw new UnsupportedExpression("Unsupported reference " + identifier);
+            }
+            return new Variable(identifier);
+        }
+
+        private Node parseFunction(String name) throws UnsupportedExpression {
+            final int arity;
+            if (UNARY_FUNCTIONS.contains(name)) {
+                arity = 1;
+            } else if (BINARY_FUNCTIONS.contains(name)) {
+                arity = 2;
+            } else {
+                throw new UnsupportedExpression("Unsupported function " + name);
+            }
+            expect("(");
+            final NumericNode[] arguments = new NumericNode[arity];
+            boolean hasDouble = false;
+            for (int i = 0; i < arity; i++) {
+                if (i > 0) {
+                    expect(",");
+                }
+                arguments[i] = numeric(parseTernary());
+                // Floats would be widened by reflection instead of going
+                // through their string representation
+                if (arguments[i].kind() == Kind.FLOAT || arguments[i].kind() == Kind.MIXED) {
+                    throw new UnsupportedExpression("Unsupported argument for function " + name);
+                }
+                hasDouble |= arguments[i].kind() == Kind.DOUBLE;
+            }
+            expect(")");
+            // JEXL picks the overload from the runtime types of the
+            // arguments, only the double variants are compiled
+            if (!hasDouble) {
+                throw new UnsupportedExpression("Function " + name + " needs a double argument");
+            }
+            return new Function(name, arguments);
+        }
+
+        private Node parseNumber() throws UnsupportedExpression {
+            final int start = m_position;
+            while (m_position < m_expression.length() && isDigit(m_expression.charAt(m_position))) {
+                m_position++;
+            }
+            boolean decimal = false;
+            if (m_position + 1 < m_expression.length() && m_expression.charAt(m_position) == '.'
+                    && isDigit(m_expression.charAt(m_position + 1))) {
+                decimal = true;
+                m_position++;
+                while (m_position < m_expression.length() && isDigit(m_expression.charAt(m_position))) {
+                    m_position++;
+                }
+            }
+            if (m_position < m_expression.length() && isIdentifierPart(m_expression.charAt(m_position))) {
+                throw new UnsupportedExpression("Unsupported number format");
+            }
+            final String number = m_expression.substring(start, m_position);
+            if (decimal) {
+                return new Constant(Kind.FLOAT, Double.parseDouble(Float.toString(Float.parseFloat(number))));
+            }
+            // Octal literals and values that don't fit in an int are left to JEXL
+            if ((number.length() > 1 && number.charAt(0) == '0') || number.length() > 9) {
+                throw new UnsupportedExpression("Unsupported integer " + number);
+            }
+            return new Constant(Kind.INTEGER, Integer.parseInt(number));
+        }
+
+        private String parseIdentifier() throws UnsupportedExpression {
+            skipWhitespace();
+            final int start = m_position;
+            if (m_position < m_expression.length() && isIdentifierStart(m_expression.charAt(m_position))) {
+                m_position++;
+                while (m_position < m_expression.length() && isIdentifierPart(m_expression.charAt(m_position))) {
+                    m_position++;
+                }
+            }
+            if (start == m_position) {
+                throw new UnsupportedExpression("Expected an identifier at position " + m_position);
+            }
+            return m_expression.substring(start, m_position);
+        }
+
+        private String parseString() throws UnsupportedExpression {
+            skipWhitespace();
+            if (m_position >= m_expression.length()) {
+                throw new UnsupportedExpression("Expected a string");
+            }
+            final char quote = m_expression.charAt(m_position);
+            if (quote != '\'' && quote != '"') {
+                throw new UnsupportedExpression("Expected a string");
+            }
+            final int end = m_expression.indexOf(quote, m_position + 1);
+            if (end < 0) {
+                throw new UnsupportedExpression("Unterminated string");
+            }
+            final String string = m_expression.substring(m_position + 1, end);
+            if (string.indexOf('\\') >= 0) {
+                throw new UnsupportedExpression("Unsupported escape sequence");
+            }
+            m_position = end + 1;
+            return string;
+        }
+
+        private static Node arithmetic(char operator, Node left, Node right) throws UnsupportedExpression {
+            final NumericNode l = numeric(left);
+            final NumericNode r = numeric(right);
+            // JEXL only uses double arithmetic when one of the operands is a float or a double
+            if (!l.kind().isFloatingPoint() && !r.kind().isFloatingPoint()) {
+                throw new UnsupportedExpression("Integer arithmetic is not supported");
+            }
+            return new Arithmetic(operator, l, r);
+        }
+
+        private static NumericNode numeric(Node node) throws UnsupportedExpression {
+            if (!(node instanceof NumericNode)) {
+                throw new UnsupportedExpression("Expected a numeric expression");
+            }
+            return (NumericNode)node;
+        }
+
+        private static ConditionNode condition(Node node) throws UnsupportedExpression {
+            if (!(node instanceof ConditionNode)) {
+                throw new UnsupportedExpression("Expected a boolean expression");
+            }
+            return (ConditionNode)node;
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private static boolean isIdentifierPart(char c) {
+            return isIdentifierStart(c) || isDigit(c);
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private void skipWhitespace() {
+            while (m_position < m_expression.length() && Character.isWhitespace(m_expression.charAt(m_position))) {
+                m_position++;
+            }
+        }
+
+        private boolean accept(String token) {
+            skipWhitespace();
+            if (!m_expression.startsWith(token, m_position)) {
+                return false;
+            }
+            // Don't mistake the start of a longer operator for a shorter one
+            final int end = m_position + token.length();
+            if (end < m_expression.length()) {
+                final char next = m_expression.charAt(end);
+                if (("<".equals(token) || ">".equals(token) || "!".equals(token)) && next == '=') {
+                    return false;
+                }
+            }
+            m_position = end;
+            return true;
+        }
+
+        private boolean acceptWord(String word) {
+            skipWhitespace();
+            final int end = m_position + word.length();
+            if (!m_expression.startsWith(word, m_position)
+                    || (end < m_expression.length() && isIdentifierPart(m_expression.charAt(end)))) {
+                return false;
+            }
+            m_position = end;
+            return true;
+        }
+
+        private void expect(String token) throws UnsupportedExpression {
+            if (!accept(token)) {
+                throw new UnsupportedExpression("Expected '" + token + "' at position " + m_position);
+            }
+        }
+    }
+}
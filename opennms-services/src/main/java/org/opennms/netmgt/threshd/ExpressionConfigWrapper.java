@@ -35,8 +35,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +50,39 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * Set this property to false to always evaluate the expressions with JEXL
+     * instead of compiling the ones that only use arithmetic.
+     */
+    public static final String COMPILE_EXPRESSIONS_PROPERTY = "org.opennms.threshd.expression.compile";
+
+    private static final boolean COMPILE_EXPRESSIONS = Boolean.parseBoolean(System.getProperty(COMPILE_EXPRESSIONS_PROPERTY, "true"));
+
+    /**
+     * The engine is thread-safe and caches the introspection of the
+     * {@link MathBinding} methods, so it is shared by all the expressions.
+     */
+    private static final JexlEngine JEXL_ENGINE = new JexlEngine();
+
+    private static final MathBinding MATH_BINDING = new MathBinding();
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final org.apache.commons.jexl2.Expression m_parsedExpression;
+    private final CompiledThresholdExpression m_compiledExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
+        this(expression, COMPILE_EXPRESSIONS);
+    }
+
+    protected ExpressionConfigWrapper(Expression expression, boolean compile) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<String>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            ExpressionImpl e = (ExpressionImpl) JEXL_ENGINE.createExpression(m_expression.getExpression());
+            m_parsedExpression = e;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -77,6 +100,9 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
             throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
         }
         LOG.trace("Threshold Variables: {}", m_datasources);
+
+        m_compiledExpression = compile ? CompiledThresholdExpression.compile(m_expression.getExpression()) : null;
+        LOG.trace("Threshold expression {} compiled: {}", m_expression.getExpression(), m_compiledExpression != null);
     }
 
     @Override
@@ -140,17 +166,71 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         public float ulp(float a) { return Math.ulp(a); }
     }
 
+    /**
+     * Exposes the variable values to JEXL without copying them. Assignments
+     * made by the expression are kept in a separate map so that the values
+     * are never modified.
+     */
+    private static class ThresholdContext implements JexlContext {
+        private final Map<String, Double> m_values;
+        private Map<String, Object> m_assignments;
+
+        public ThresholdContext(Map<String, Double> values) {
+            m_values = values;
+        }
+
+        @Override
+        public Object get(String name) {
+            if (m_assignments != null && m_assignments.containsKey(name)) {
+                return m_assignments.get(name);
+            } else if ("datasources".equals(name)) {
+                return m_values; // To workaround NMS-5019
+            } else if ("math".equals(name)) {
+                return MATH_BINDING;
+            }
+            return m_values.get(name);
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            if (m_assignments == null) {
+                m_assignments = new HashMap<String, Object>();
+            }
+            m_assignments.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            return (m_assignments != null && m_assignments.containsKey(name))
+                    || "datasources".equals(name) || "math".equals(name) || m_values.containsKey(name);
+        }
+    }
+
+    /**
+     * Returns true if the expression is evaluated without JEXL whenever all
+     * of its values are available.
+     */
+    public boolean isCompiled() {
+        return m_compiledExpression != null;
+    }
+
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
+        if (m_compiledExpression != null) {
+            try {
+                return m_compiledExpression.evaluate(values);
+            } catch (final CompiledThresholdExpression.FallbackNecessary e) {
+                // Missing values and divisions by zero are handled by JEXL
+                LOG.trace("Falling back to JEXL to evaluate {}", m_expression.getExpression());
+            }
+        }
+        return evaluateWithJexl(values);
+    }
+
+    protected double evaluateWithJexl(Map<String, Double> values) throws ThresholdExpressionException {
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_parsedExpression.evaluate(new ThresholdContext(values));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.collection.api.ServiceCollector;
+import org.opennms.netmgt.config.collectd.Package;
+import org.opennms.netmgt.config.collectd.Parameter;
+import org.opennms.netmgt.config.collectd.Service;
+import org.opennms.netmgt.dao.api.IpInterfaceDao;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+public class CollectableServiceIndexTest {
+
+    private final Map<Integer, OnmsIpInterface> m_interfaces = new HashMap<>();
+
+    private IpInterfaceDao m_ifaceDao;
+    private PlatformTransactionManager m_transactionManager;
+    private ServiceCollector m_collector;
+
+    private final CollectableServiceIndex m_index = new CollectableServiceIndex();
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging();
+
+        m_ifaceDao = EasyMock.createNiceMock(IpInterfaceDao.class);
+        expect(m_ifaceDao.load(anyObject(Integer.class))).andAnswer(() -> m_interfaces.get(getCurrentArguments()[0])).anyTimes();
+        m_transactionManager = EasyMock.createNiceMock(PlatformTransactionManager.class);
+        expect(m_transactionManager.getTransaction(isA(TransactionDefinition.class))).andReturn(new SimpleTransactionStatus()).anyTimes();
+        m_collector = EasyMock.createNiceMock(ServiceCollector.class);
+        EasyMock.replay(m_ifaceDao, m_transactionManager, m_collector);
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        final CollectableService snmp1 = service(1, "192.168.1.1", "SNMP", "pkg");
+        final CollectableService jmx1 = service(1, "192.168.1.1", "JMX", "pkg");
+        final CollectableService snmp2 = service(1, "192.168.1.2", "SNMP", "pkg");
+        final CollectableService other = service(2, "192.168.1.1", "SNMP", "other");
+
+        for (final CollectableService cSvc : Arrays.asList(snmp1, jmx1, snmp2, other)) {
+            m_index.add(cSvc);
+        }
+        // Adding a service again does not register it twice
+        m_index.add(snmp1);
+
+        assertEquals(4, m_index.size());
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), m_index.getNodeIds());
+        assertEquals(new HashSet<>(Arrays.asList(snmp1, jmx1, snmp2)), new HashSet<>(m_index.getServices(1)));
+        assertEquals(new HashSet<>(Arrays.asList(snmp1, jmx1)), new HashSet<>(m_index.getServices(1, "192.168.1.1")));
+        assertEquals(new HashSet<>(Arrays.asList(snmp1, jmx1, other)), new HashSet<>(m_index.getServicesByAddress("192.168.1.1")));
+        assertSame(jmx1, m_index.getService(1, "192.168.1.1", "JMX", "pkg"));
+        assertNull(m_index.getService(1, "192.168.1.1", "JMX", "other"));
+        assertEquals(Integer.valueOf(2), m_index.getNodeId(other));
+        assertTrue(m_index.getServices(3).isEmpty());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final CollectableService snmp1 = service(1, "192.168.1.1", "SNMP", "pkg");
+        final CollectableService jmx1 = service(1, "192.168.1.1", "JMX", "pkg");
+        final CollectableService snmp2 = service(1, "192.168.1.2", "SNMP", "pkg");
+        for (final CollectableService cSvc : Arrays.asList(snmp1, jmx1, snmp2)) {
+            m_index.add(cSvc);
+        }
+
+        assertTrue(m_index.remove(snmp1));
+        assertFalse(m_index.remove(snmp1));
+        assertNull(m_index.getNodeId(snmp1));
+        assertEquals(Arrays.asList(jmx1), m_index.getServicesByAddress("192.168.1.1"));
+
+        assertTrue(m_index.removeService(1, "192.168.1.1", "SNMP").isEmpty());
+        assertEquals(Arrays.asList(jmx1), m_index.removeService(1, "192.168.1.1", "JMX"));
+        assertTrue(m_index.getServicesByAddress("192.168.1.1").isEmpty());
+
+        assertEquals(Arrays.asList(snmp2), m_index.removeInterface(1, "192.168.1.2"));
+        assertEquals(0, m_index.size());
+        assertTrue(m_index.getNodeIds().isEmpty());
+    }
+
+    @Test
+    public void testMove() throws Exception {
+        final CollectableService snmp1 = service(1, "192.168.1.1", "SNMP", "pkg");
+        final CollectableService jmx1 = service(1, "192.168.1.1", "JMX", "pkg");
+        m_index.add(snmp1);
+        m_index.add(jmx1);
+
+        m_index.move(snmp1, 2);
+        assertEquals(Integer.valueOf(2), m_index.getNodeId(snmp1));
+        assertEquals(Arrays.asList(jmx1), m_index.getServices(1));
+        assertEquals(Arrays.asList(snmp1), m_index.getServices(2, "192.168.1.1"));
+        assertSame(snmp1, m_index.getService(2, "192.168.1.1", "SNMP", "pkg"));
+        assertEquals(2, m_index.getServicesByAddress("192.168.1.1").size());
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), m_index.getNodeIds());
+
+        // Services that are not registered are not moved
+        final CollectableService unregistered = service(1, "192.168.1.2", "SNMP", "pkg");
+        m_index.move(unregistered, 2);
+        assertNull(m_index.getNodeId(unregistered));
+
+        // The moved service is removed from the node it was moved to
+        assertTrue(m_index.remove(snmp1));
+        assertTrue(m_index.getServices(2).isEmpty());
+        assertEquals(Arrays.asList(jmx1), m_index.getServicesByAddress("192.168.1.1"));
+    }
+
+    @Test
+    public void testRemoveNode() throws Exception {
+        final CollectableService snmp1 = service(1, "192.168.1.1", "SNMP", "pkg");
+        final CollectableService snmp2 = service(1, "192.168.1.2", "SNMP", "pkg");
+        final CollectableService other = service(2, "192.168.1.1", "SNMP", "pkg");
+        for (final CollectableService cSvc : Arrays.asList(snmp1, snmp2, other)) {
+            m_index.add(cSvc);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(snmp1, snmp2)), new HashSet<>(m_index.removeNode(1)));
+        assertTrue(m_index.removeNode(1).isEmpty());
+        assertEquals(1, m_index.size());
+        assertNull(m_index.getNodeId(snmp2));
+        assertTrue(m_index.getServicesByAddress("192.168.1.2").isEmpty());
+        assertEquals(Arrays.asList(other), m_index.getServicesByAddress("192.168.1.1"));
+        assertEquals(new HashSet<>(Arrays.asList(2)), m_index.getNodeIds());
+    }
+
+    private CollectableService service(final int nodeId, final String ipAddress, final String svcName, final String pkgName) throws Exception {
+        final OnmsNode node = new OnmsNode();
+        node.setId(nodeId);
+        final OnmsIpInterface iface = new OnmsIpInterface(ipAddress, node);
+        iface.setId(m_interfaces.size() + 1);
+        m_interfaces.put(iface.getId(), iface);
+
+        final Package pkg = new Package();
+        pkg.setName(pkgName);
+        final Service svc = new Service();
+        svc.setName(svcName);
+        svc.setStatus("on");
+        final Parameter parm = new Parameter();
+        parm.setKey("thresholding-enabled");
+        parm.setValue("false");
+        svc.addParameter(parm);
+        pkg.addService(svc);
+
+        final CollectionSpecification spec = new CollectionSpecification(pkg, svcName, m_collector, new DefaultCollectdInstrumentation());
+        return new CollectableService(iface, m_ifaceDao, spec, null, new Collectd.SchedulingCompletedFlag(), m_transactionManager, null, null);
+    }
+}
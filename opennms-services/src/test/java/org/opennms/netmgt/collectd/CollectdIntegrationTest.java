@@ -177,7 +177,7 @@ public class CollectdIntegrationTest extends TestCase {
         List<OnmsIpInterface> initialIfs = Collections.emptyList();
         EasyMock.expect(m_ifaceDao.findByServiceType(snmp.getName())).andReturn(initialIfs).anyTimes();
         
-        m_filterDao.flushActiveIpAddressListCache();
+        m_filterDao.flushActiveIpAddressListCache(1);
         
         EasyMock.expect(m_nodeDao.load(1)).andReturn(nodeBuilder.getNode()).anyTimes();
         
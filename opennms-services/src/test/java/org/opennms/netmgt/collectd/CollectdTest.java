@@ -37,6 +37,7 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.io.File;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -46,7 +47,10 @@ import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.opennms.core.test.ConfigurationTestUtils;
 import org.opennms.core.test.MockLogAppender;
 import org.opennms.netmgt.collection.api.CollectionAgent;
@@ -69,6 +73,7 @@ import org.opennms.netmgt.config.collectd.Service;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.mock.MockTransactionTemplate;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventIpcManagerFactory;
 import org.opennms.netmgt.events.api.EventListener;
@@ -76,12 +81,16 @@ import org.opennms.netmgt.events.api.EventProxy;
 import org.opennms.netmgt.filter.FilterDaoFactory;
 import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.mock.MockPersisterFactory;
+import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.poller.mock.MockScheduler;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.xml.event.Event;
 import org.opennms.test.mock.EasyMockUtils;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
@@ -96,6 +105,7 @@ public class CollectdTest extends TestCase {
     private final EasyMockUtils m_easyMockUtils = new EasyMockUtils();
 
     private IpInterfaceDao m_ipIfDao;
+    private NodeDao m_nodeDao;
     private FilterDao m_filterDao;
     private Collectd m_collectd;
     private MockScheduler m_scheduler;
@@ -105,7 +115,6 @@ public class CollectdTest extends TestCase {
     @Override
     protected void setUp() throws Exception {
         EventIpcManager m_eventIpcManager;
-        NodeDao m_nodeDao;
 
         MockLogAppender.setupLogging();
 
@@ -139,6 +148,9 @@ public class CollectdTest extends TestCase {
         allIps.add(addr("192.168.1.5"));
         expect(m_filterDao.getActiveIPAddressList("IPADDR IPLIKE *.*.*.*")).andReturn(allIps).anyTimes();
         expect(m_filterDao.getActiveIPAddressList("IPADDR IPLIKE 1.1.1.1")).andReturn(new ArrayList<InetAddress>(0)).anyTimes();
+        // Loading the thresholding configuration refreshes the IP lists of its packages
+        m_filterDao.flushActiveIpAddressListCache();
+        expectLastCall().anyTimes();
         EasyMock.replay(m_filterDao);
         FilterDaoFactory.setInstance(m_filterDao);
 
@@ -318,6 +330,109 @@ public class CollectdTest extends TestCase {
         m_easyMockUtils.verifyAll();
     }
 
+    /**
+     * A change of the package membership of a node only reschedules the
+     * services of the packages that it joined or left.
+     */
+    public void testPackageMembershipChangeIsReconciled() throws Exception {
+        final OnmsIpInterface iface = getInterface();
+        new OnmsMonitoredService(iface, new OnmsServiceType("SNMP"));
+        final Package pkgA = getCollectionPackageThatMatchesSNMP();
+        final Package pkgB = getCollectionPackageThatMatchesSNMP();
+        pkgB.setName("pkgB");
+
+        setupCollector("SNMP", 2);
+        setupInterface(iface);
+        setupTransactionManager();
+        expect(m_collectdConfig.getPackages()).andReturn(Arrays.asList(pkgA, pkgB)).anyTimes();
+
+        // The node moves from pkg to pkgB, and then stays in pkgB
+        expect(m_collectdConfigFactory.interfaceInPackage(iface, pkgA)).andReturn(true).andReturn(false).times(2);
+        expect(m_collectdConfigFactory.interfaceInPackage(iface, pkgB)).andReturn(false).andReturn(true).times(2);
+        expect(m_collectdConfigFactory.getPackage("pkgB")).andReturn(pkgB);
+        expect(m_nodeDao.getHierarchy(1)).andReturn(iface.getNode()).times(2);
+
+        EasyMock.reset(m_filterDao);
+        m_filterDao.flushActiveIpAddressListCache();
+        expectLastCall().anyTimes();
+        m_filterDao.flushActiveIpAddressListCache(1);
+        expectLastCall().times(2);
+        EasyMock.replay(m_filterDao);
+
+        m_easyMockUtils.replayAll();
+
+        m_collectd.afterPropertiesSet();
+        m_collectd.start();
+        m_scheduler.next();
+        assertEquals(1, m_collectd.getCollectableServiceCount());
+
+        final Event event = new EventBuilder(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI, "Test").setNodeid(1).getEvent();
+        m_collectd.onEvent(event);
+        assertEquals(1, m_collectd.getCollectableServiceCount());
+
+        // The service of pkgB is kept, and not initialized again
+        m_collectd.onEvent(event);
+        assertEquals(1, m_collectd.getCollectableServiceCount());
+
+        m_collectd.stop();
+
+        m_easyMockUtils.verifyAll();
+    }
+
+    /**
+     * A service whose parameters changed when the configuration is reloaded
+     * is created again, so that it collects with the new parameters.
+     */
+    public void testChangedServiceParametersAreApplied() throws Exception {
+        final OnmsIpInterface iface = getInterface();
+        new OnmsMonitoredService(iface, new OnmsServiceType("SNMP"));
+        final Package pkg = getCollectionPackageThatMatchesSNMP();
+        final Package changedPkg = getCollectionPackageThatMatchesSNMP();
+        changedPkg.getService("SNMP").getParameters().get(0).setValue("changed");
+        final List<Package> packages = new ArrayList<Package>(Collections.singletonList(pkg));
+
+        final ServiceCollector svcCollector = setupCollector("SNMP", 0);
+        final Capture<Map<String, Object>> parameters = Capture.newInstance(CaptureType.ALL);
+        svcCollector.initialize(isA(CollectionAgent.class), EasyMock.capture(parameters));
+        expectLastCall().times(2);
+        setupInterface(iface);
+        setupTransactionManager();
+        expect(m_collectdConfig.getPackages()).andReturn(packages).anyTimes();
+        expect(m_collectdConfigFactory.interfaceInPackage(eq(iface), isA(Package.class))).andReturn(true).anyTimes();
+        expect(m_collectdConfigFactory.getPackage("pkg")).andAnswer(new IAnswer<Package>() {
+            @Override
+            public Package answer() {
+                return packages.get(0);
+            }
+        }).anyTimes();
+        m_collectdConfigFactory.reload();
+        expectLastCall().times(2);
+        expect(m_nodeDao.getHierarchy(1)).andReturn(iface.getNode());
+
+        m_easyMockUtils.replayAll();
+
+        m_collectd.afterPropertiesSet();
+        m_collectd.start();
+        m_scheduler.next();
+        assertEquals(1, m_collectd.getCollectableServiceCount());
+        assertEquals("default", parameters.getValues().get(0).get("collection"));
+
+        // Reloading an unchanged configuration keeps the service
+        final Event event = new EventBuilder(EventConstants.SCHEDOUTAGES_CHANGED_EVENT_UEI, "Test").getEvent();
+        m_collectd.onEvent(event);
+        assertEquals(1, parameters.getValues().size());
+
+        packages.set(0, changedPkg);
+        m_collectd.onEvent(event);
+        assertEquals(1, m_collectd.getCollectableServiceCount());
+        assertEquals(2, parameters.getValues().size());
+        assertEquals("changed", parameters.getValues().get(1).get("collection"));
+
+        m_collectd.stop();
+
+        m_easyMockUtils.verifyAll();
+    }
+
     @SuppressWarnings("unchecked")
     private static <K> Collection<K> isACollection(Class<K> innerClass) {
         return isA(Collection.class);
@@ -349,9 +464,14 @@ public class CollectdTest extends TestCase {
     }
 
     private void setupCollector(String svcName, boolean successfulInit) throws CollectionInitializationException {
+        setupCollector(svcName, successfulInit ? 1 : 0);
+    }
+
+    private ServiceCollector setupCollector(String svcName, int initializedAgents) throws CollectionInitializationException {
         ServiceCollector svcCollector = m_easyMockUtils.createMock(ServiceCollector.class);
-        if (successfulInit) {
+        if (initializedAgents > 0) {
             svcCollector.initialize(isA(CollectionAgent.class), isAMap(String.class, Object.class));
+            expectLastCall().times(initializedAgents);
         }
         svcCollector.initialize(Collections.<String,String>emptyMap());
         MockServiceCollector.setDelegate(svcCollector);
@@ -368,6 +488,7 @@ public class CollectdTest extends TestCase {
         expect(m_collectdConfig.getThreads()).andReturn(1).anyTimes();
 
         m_collectd.setCollectdConfigFactory(m_collectdConfigFactory);
+        return svcCollector;
     }
 
     
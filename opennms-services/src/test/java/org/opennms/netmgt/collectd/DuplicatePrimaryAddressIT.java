@@ -225,6 +225,8 @@ public class DuplicatePrimaryAddressIT {
 
         m_filterDao.flushActiveIpAddressListCache();
         EasyMock.expectLastCall().anyTimes();
+        m_filterDao.flushActiveIpAddressListCache(EasyMock.anyInt());
+        EasyMock.expectLastCall().anyTimes();
 
         EasyMock.expect(m_nodeDao.load(1)).andReturn(n1).anyTimes();
         EasyMock.expect(m_nodeDao.load(3)).andReturn(n2).anyTimes();
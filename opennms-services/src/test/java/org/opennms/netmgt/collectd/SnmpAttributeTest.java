@@ -29,6 +29,8 @@
 package org.opennms.netmgt.collectd;
 
 import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.aryEq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.matches;
@@ -127,7 +129,8 @@ public class SnmpAttributeTest {
 
     @Test
     public void testHexStringProtoCounter64ValueNear2_63() throws Exception {
-        testPersisting("9223372036854775000", new Snmp4JValueFactory().getOctetString(new byte[]{ 0x7f, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xfc, (byte)0xd8 }));
+        // too large to be represented exactly as a double so it is passed on as text
+        testPersisting("9223372036854775000", new Snmp4JValueFactory().getOctetString(new byte[]{ 0x7f, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xfc, (byte)0xd8 }), true);
     }
 
     @Test
@@ -137,9 +140,13 @@ public class SnmpAttributeTest {
         testPersisting(stringValue, new Snmp4JValueFactory().getOctetString(bytes));
     }
 
+    private void testPersisting(String matchValue, SnmpValue snmpValue) throws Exception {
+        testPersisting(matchValue, snmpValue, false);
+    }
+
     @Ignore
     @SuppressWarnings("unchecked")
-    private void testPersisting(String matchValue, SnmpValue snmpValue) throws Exception {
+    private void testPersisting(String matchValue, SnmpValue snmpValue, boolean textual) throws Exception {
         OnmsNode node = new OnmsNode();
         node.setId(3);
 
@@ -156,7 +163,11 @@ public class SnmpAttributeTest {
         m_rrdStrategy.createFile(isA(Object.class), isA(Map.class));
 
         expect(m_rrdStrategy.openFile(isA(String.class))).andReturn(new Object());
-        m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        if (textual) {
+            m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        } else {
+            m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), anyLong(), aryEq(new double[] { Double.parseDouble(matchValue) }));
+        }
         m_rrdStrategy.closeFile(isA(Object.class));
 
         m_mocks.replayAll();
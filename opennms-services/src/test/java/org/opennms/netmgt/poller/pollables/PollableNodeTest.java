@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the handoff of tree updates between the threads using a node, see
+ * {@link PollableNode#submitUpdate(Runnable)}.
+ */
+public class PollableNodeTest {
+
+    private PollableNetwork m_network;
+    private PollableNode m_node;
+
+    @Before
+    public void setUp() {
+        m_network = new PollableNetwork(null);
+        m_node = new PollableNode(m_network, 1, "node1");
+    }
+
+    @Test
+    public void testUpdateRunsImmediatelyWhenLockIsFree() {
+        final List<Thread> threads = new ArrayList<Thread>();
+        m_node.submitUpdate(new RecordingUpdate(threads));
+
+        assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+        assertTrue(m_node.isTreeLockAvailable());
+        assertEquals(0, m_network.getDeferredUpdates());
+    }
+
+    @Test
+    public void testUpdateSubmittedByLockHolderRunsOnRelease() {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+
+        m_node.obtainTreeLock(0);
+        try {
+            m_node.submitUpdate(new OrderedUpdate(order, 1));
+            m_node.submitUpdate(new OrderedUpdate(order, 2));
+            assertTrue(order.isEmpty());
+        } finally {
+            m_node.releaseTreeLock();
+        }
+
+        assertEquals(Arrays.asList(1, 2), order);
+        assertTrue(m_node.isTreeLockAvailable());
+        assertEquals(0, m_network.getDeferredUpdates());
+    }
+
+    @Test
+    public void testUpdateSubmittedWhileLockIsHeldRunsOnHolderThread() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread("lock-holder") {
+            @Override
+            public void run() {
+                m_node.obtainTreeLock(0);
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    m_node.releaseTreeLock();
+                }
+            }
+        };
+        holder.start();
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        for (int i = 1; i <= 3; i++) {
+            m_node.submitUpdate(new OrderedUpdate(order, i));
+            m_node.submitUpdate(new RecordingUpdate(threads));
+        }
+
+        // The submitting thread neither blocks nor runs the updates itself
+        assertTrue(order.isEmpty());
+        assertFalse(m_node.isTreeLockAvailable());
+        assertEquals(6, m_network.getDeferredUpdates());
+
+        release.countDown();
+        holder.join(10000);
+        assertFalse(holder.isAlive());
+
+        assertEquals(Arrays.asList(1, 2, 3), order);
+        assertEquals(Arrays.asList(holder, holder, holder), threads);
+        assertTrue(m_node.isTreeLockAvailable());
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreMutuallyExclusiveAndOrdered() throws Exception {
+        final int threadCount = 8;
+        final int updatesPerThread = 5000;
+        final AtomicInteger active = new AtomicInteger(0);
+        final AtomicInteger overlaps = new AtomicInteger(0);
+        // Only ever modified while holding the tree lock
+        final int[] runs = new int[1];
+        final int[][] lastRun = new int[threadCount][1];
+        final AtomicInteger outOfOrder = new AtomicInteger(0);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final int[] last = lastRun[t];
+            final Thread thread = new Thread("submitter-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 1; i <= updatesPerThread; i++) {
+                        final int sequence = i;
+                        m_node.submitUpdate(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (active.incrementAndGet() != 1) {
+                                    overlaps.incrementAndGet();
+                                }
+                                if (last[0] != sequence - 1) {
+                                    outOfOrder.incrementAndGet();
+                                }
+                                last[0] = sequence;
+                                runs[0]++;
+                                active.decrementAndGet();
+                            }
+                        });
+                        if (sequence % 100 == 0) {
+                            // Compete for the lock like the other users of the tree
+                            m_node.obtainTreeLock(0);
+                            m_node.releaseTreeLock();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join(60000);
+            assertFalse(thread.isAlive());
+        }
+
+        m_node.obtainTreeLock(0);
+        try {
+            assertEquals(0, overlaps.get());
+            assertEquals(0, outOfOrder.get());
+            assertEquals(threadCount * updatesPerThread, runs[0]);
+        } finally {
+            m_node.releaseTreeLock();
+        }
+        assertTrue(m_node.isTreeLockAvailable());
+    }
+
+    @Test
+    public void testFailingUpdateDoesNotStrandTheOthers() {
+        final List<Integer> order = new ArrayList<Integer>();
+
+        m_node.obtainTreeLock(0);
+        try {
+            m_node.submitUpdate(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("update failed");
+                }
+            });
+            m_node.submitUpdate(new OrderedUpdate(order, 1));
+        } finally {
+            m_node.releaseTreeLock();
+        }
+
+        assertEquals(Collections.singletonList(1), order);
+        assertTrue(m_node.isTreeLockAvailable());
+    }
+
+    private final class RecordingUpdate implements Runnable {
+        private final List<Thread> m_threads;
+
+        private RecordingUpdate(final List<Thread> threads) {
+            m_threads = threads;
+        }
+
+        @Override
+        public void run() {
+            assertFalse(m_node.isTreeLockAvailable());
+            m_threads.add(Thread.currentThread());
+        }
+    }
+
+    private final class OrderedUpdate implements Runnable {
+        private final List<Integer> m_order;
+        private final int m_sequence;
+
+        private OrderedUpdate(final List<Integer> order, final int sequence) {
+            m_order = order;
+            m_sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            assertFalse(m_node.isTreeLockAvailable());
+            m_order.add(m_sequence);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.rtc.NodeNotInCategoryException;
+import org.opennms.netmgt.rtc.RTCUtils;
+
+public class RTCAvailabilityMapTest {
+
+    private static final long WINDOW = 24L * 60L * 60L * 1000L;
+
+    private static final long START = 1000L * WINDOW;
+
+    private static final String[] CATEGORIES = { "Routers", "Servers", "Web" };
+
+    private final List<RTCNode> m_nodes = new ArrayList<RTCNode>();
+
+    private final RTCAvailabilityMap m_map = new RTCAvailabilityMap(WINDOW, START);
+
+    @Test
+    public void testMatchesOutageLists() throws Exception {
+        final Random random = new Random(42);
+        for (int nodeid = 1; nodeid <= 10; nodeid++) {
+            for (int svc = 0; svc < 3; svc++) {
+                final RTCNode node = createNode(nodeid, "192.168.0." + nodeid, "SVC" + svc);
+                for (String catLabel : CATEGORIES) {
+                    if (random.nextInt(3) > 0) {
+                        m_map.addCategory(node, catLabel);
+                    }
+                }
+            }
+        }
+
+        // Walk across three windows in uneven steps and let the services go
+        // up and down along the way
+        long curTime = START;
+        while (curTime < START + 3 * WINDOW) {
+            curTime += random.nextInt(60 * 60 * 1000);
+            m_map.advance(curTime);
+            for (int i = 0; i < 3; i++) {
+                final RTCNode node = m_nodes.get(random.nextInt(m_nodes.size()));
+                if (node.isServiceCurrentlyDown()) {
+                    node.nodeRegainedService(curTime);
+                } else {
+                    node.nodeLostService(curTime);
+                }
+                m_map.update(node);
+            }
+            assertAvailability(curTime);
+        }
+
+        // Leave everything alone for more than a window
+        for (int i = 0; i < 30; i++) {
+            curTime += random.nextInt(2 * 60 * 60 * 1000);
+            m_map.advance(curTime);
+            assertAvailability(curTime);
+        }
+    }
+
+    @Test
+    public void testRemoveAndReparent() throws Exception {
+        final RTCNode icmp = createNode(1, "192.168.0.1", "ICMP");
+        final RTCNode http = createNode(1, "192.168.0.1", "HTTP");
+        m_map.addCategory(icmp, "Web");
+        m_map.addCategory(http, "Web");
+
+        icmp.nodeLostService(START - 60 * 60 * 1000);
+        m_map.update(icmp);
+
+        long curTime = START + 30 * 60 * 1000;
+        m_map.advance(curTime);
+        assertEquals(2, m_map.getAvailability(1, "Web").getServiceCount());
+        assertEquals(1, m_map.getAvailability(1, "Web").getServiceDownCount());
+        assertEquals(RTCUtils.getOutagePercentage(90 * 60 * 1000, WINDOW, 2), m_map.getAvailability("Web").getValue(curTime, WINDOW), 0.000001);
+        assertAvailability(curTime);
+
+        m_map.setNodeID(icmp, 2);
+        assertEquals(1, m_map.getAvailability(1, "Web").getServiceCount());
+        assertEquals(0, m_map.getAvailability(1, "Web").getServiceDownCount());
+        assertEquals(1, m_map.getAvailability(2, "Web").getServiceDownCount());
+        assertAvailability(curTime);
+
+        m_map.remove(icmp);
+        assertEquals(1, m_map.getAvailability("Web").getServiceCount());
+        assertEquals(0, m_map.getAvailability(2, "Web").getServiceCount());
+        assertEquals(100.0, m_map.getAvailability("Web").getValue(curTime, WINDOW), 0.000001);
+        assertEquals(100.0, m_map.getAvailability(2, "Web").getValue(curTime, WINDOW), 0.000001);
+
+        // The outage of the removed service must not change the category when it leaves the window
+        curTime += 2 * WINDOW;
+        m_map.advance(curTime);
+        assertEquals(1, m_map.getAvailability("Web").getServiceCount());
+        assertEquals(100.0, m_map.getAvailability("Web").getValue(curTime, WINDOW), 0.000001);
+    }
+
+    private RTCNode createNode(int nodeid, String ip, String svcName) {
+        final InetAddress addr = InetAddressUtils.addr(ip);
+        final RTCNode node = new RTCNode(nodeid, addr, svcName, WINDOW);
+        m_nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Compares the aggregates with the down time computed from the outages of
+     * every service.
+     */
+    private void assertAvailability(long curTime) throws NodeNotInCategoryException {
+        for (String catLabel : CATEGORIES) {
+            long catDownTime = 0;
+            int catCount = 0;
+            for (int nodeid = 1; nodeid <= 10; nodeid++) {
+                long downTime = 0;
+                int count = 0;
+                int downCount = 0;
+                for (RTCNode node : m_nodes) {
+                    if (node.getNodeID() == nodeid && node.belongsTo(catLabel)) {
+                        downTime += node.getDownTime(catLabel, curTime, WINDOW);
+                        count++;
+                        downCount += node.isServiceCurrentlyDown() ? 1 : 0;
+                    }
+                }
+                final RTCAvailability availability = m_map.getAvailability(nodeid, catLabel);
+                assertEquals(count, availability.getServiceCount());
+                assertEquals(downCount, availability.getServiceDownCount());
+                assertEquals(catLabel + "/" + nodeid + " at " + curTime, downTime, availability.getDownTime(curTime, WINDOW));
+                catDownTime += downTime;
+                catCount += count;
+            }
+            assertEquals(catCount, m_map.getAvailability(catLabel).getServiceCount());
+            assertEquals(catLabel + " at " + curTime, catDownTime, m_map.getAvailability(catLabel).getDownTime(curTime, WINDOW));
+            assertEquals(RTCUtils.getOutagePercentage(catDownTime, WINDOW, catCount), m_map.getAvailability(catLabel).getValue(curTime, WINDOW), 0.000001);
+        }
+    }
+}
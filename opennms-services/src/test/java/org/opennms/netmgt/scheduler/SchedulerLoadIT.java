@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+
+/**
+ * Compares the scheduling lag of the {@link LegacyScheduler} and the
+ * {@link TimingWheelScheduler} with a large number of recurring tasks, like
+ * the services scheduled by the pollers and collectd.
+ */
+public class SchedulerLoadIT {
+
+    private static final int TASKS = 100000;
+
+    private static final long[] INTERVALS = new long[] { 1000, 2000, 5000 };
+
+    private static final long DURATION = 15000;
+
+    private static class RecurringTask implements ReadyRunnable {
+        private final Scheduler m_scheduler;
+        private final long m_interval;
+        private final AtomicLong m_runs;
+
+        private RecurringTask(Scheduler scheduler, long interval, AtomicLong runs) {
+            m_scheduler = scheduler;
+            m_interval = interval;
+            m_runs = runs;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_runs.incrementAndGet();
+            m_scheduler.schedule(m_interval, this);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging(true, "ERROR");
+    }
+
+    @Test
+    public void testLegacyScheduler() throws Exception {
+        runTasks("legacy", new LegacyScheduler("SchedulerLoadIT", 10));
+    }
+
+    @Test
+    public void testTimingWheelScheduler() throws Exception {
+        runTasks("timingwheel", new TimingWheelScheduler("SchedulerLoadIT", 10));
+    }
+
+    private void runTasks(final String name, final InstrumentedScheduler scheduler) throws Exception {
+        final AtomicLong runs = new AtomicLong(0);
+        for (int i = 0; i < TASKS; i++) {
+            final long interval = INTERVALS[i % INTERVALS.length];
+            // spread the first runs over the interval
+            scheduler.schedule(i % interval, new RecurringTask(scheduler, interval, runs));
+        }
+
+        scheduler.start();
+        try {
+            Thread.sleep(DURATION);
+        } finally {
+            scheduler.stop();
+        }
+
+        assertTrue(runs.get() > 0);
+        System.err.println(String.format("%-12s tasks: %d, runs: %d, lag 50th: %dms, 95th: %dms, 99th: %dms, 100th: %dms",
+                name, TASKS, runs.get(),
+                scheduler.getSchedulingLagPercentile(50),
+                scheduler.getSchedulingLagPercentile(95),
+                scheduler.getSchedulingLagPercentile(99),
+                scheduler.getSchedulingLagPercentile(100)));
+    }
+}
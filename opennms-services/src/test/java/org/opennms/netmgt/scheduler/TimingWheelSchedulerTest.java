@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.fiber.PausableFiber;
+import org.opennms.core.test.MockLogAppender;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    private static class RecordingRunnable implements ReadyRunnable {
+        private final long m_due;
+        private final CountDownLatch m_latch;
+        private volatile long m_ranAt = -1;
+        private volatile boolean m_ready = true;
+
+        private RecordingRunnable(long interval, CountDownLatch latch) {
+            m_due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_ready;
+        }
+
+        @Override
+        public void run() {
+            m_ranAt = System.nanoTime();
+            m_latch.countDown();
+        }
+
+        private long getLateness() {
+            return TimeUnit.NANOSECONDS.toMillis(m_ranAt - m_due);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging(true, "INFO");
+        // A tiny wheel so that the tests go through every level
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4, 1, 4, 50);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (m_scheduler.getStatus() != Fiber.STOPPED) {
+            m_scheduler.stop();
+        }
+        MockLogAppender.assertNoWarningsOrGreater();
+    }
+
+    @Test
+    public void testRunsTasksWhenDue() throws Exception {
+        final long[] intervals = new long[] { 0, 2, 3, 10, 17, 50, 70, 200, 300, 600 };
+        final CountDownLatch latch = new CountDownLatch(intervals.length);
+        final List<RecordingRunnable> runnables = new ArrayList<>();
+        for (long interval : intervals) {
+            final RecordingRunnable runnable = new RecordingRunnable(interval, latch);
+            runnables.add(runnable);
+            m_scheduler.schedule(interval, runnable);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < intervals.length; i++) {
+            final long lateness = runnables.get(i).getLateness();
+            assertTrue("task with interval " + intervals[i] + " ran " + lateness + "ms early", lateness >= 0);
+            assertTrue("task with interval " + intervals[i] + " ran " + lateness + "ms late", lateness < 500);
+        }
+        assertEquals(intervals.length, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void testRetriesTasksThatAreNotReady() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger checks = new AtomicInteger(0);
+        final ReadyRunnable runnable = new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return checks.incrementAndGet() >= 3;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        final long start = System.nanoTime();
+        m_scheduler.schedule(0, runnable);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, checks.get());
+        // Checked again after the not ready delay, and not in a loop
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        m_scheduler.pause();
+        waitForStatus(PausableFiber.PAUSED);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(10, new RecordingRunnable(10, latch));
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, m_scheduler.getScheduled());
+
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Fiber.RUNNING, m_scheduler.getStatus());
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        m_scheduler.schedule(60000, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        });
+        m_scheduler.stop();
+        waitForStatus(Fiber.STOPPED);
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void testSchedulingLag() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            m_scheduler.schedule(i, new RecordingRunnable(i, latch));
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        final long median = m_scheduler.getSchedulingLagPercentile(50);
+        assertTrue(median >= 0);
+        assertTrue(m_scheduler.getSchedulingLagPercentile(99) >= median);
+    }
+
+    private void waitForStatus(int status) throws InterruptedException {
+        for (int i = 0; i < 500 && m_scheduler.getStatus() != status; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(status, m_scheduler.getStatus());
+    }
+}
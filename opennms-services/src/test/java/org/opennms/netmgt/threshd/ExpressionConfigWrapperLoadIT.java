@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.threshd.Expression;
+
+/**
+ * Compares the time it takes to evaluate typical threshold expressions with
+ * JEXL and with the compiled expressions.
+ */
+public class ExpressionConfigWrapperLoadIT {
+
+    private static final String[] EXPRESSIONS = new String[] {
+        "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)",
+        "math.max((ifInOctets*8/ifSpeed), (ifOutOctets*8/ifSpeed))",
+        "datasources['ns-dskTotal'] - datasources['ns-dskUsed']",
+        "hrStorageUsed / hrStorageSize * 100.0"
+    };
+
+    private static final int RESOURCES = 1000;
+
+    private static final int ITERATIONS = 100;
+
+    private final List<Map<String, Double>> m_values = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "ERROR");
+
+        for (int i = 0; i < RESOURCES; i++) {
+            final Map<String, Double> values = new HashMap<String, Double>();
+            values.put("ifSpeed", i % 2 == 0 ? 10000000.0 : 1000000000.0);
+            values.put("ifHighSpeed", 1000.0);
+            values.put("ifInOctets", 1000.0 * i);
+            values.put("ifOutOctets", 2000.0 * i);
+            values.put("ifHCInOctets", 1000.0 * i);
+            values.put("ns-dskTotal", 100.0 + i);
+            values.put("ns-dskUsed", (double)i);
+            values.put("hrStorageUsed", (double)i);
+            values.put("hrStorageSize", 2000.0);
+            m_values.add(values);
+        }
+    }
+
+    @Test
+    public void testEvaluationThroughput() throws Exception {
+        // Warm up both paths before measuring them
+        evaluate(false, ITERATIONS / 10);
+        evaluate(true, ITERATIONS / 10);
+
+        final double jexl = evaluate(false, ITERATIONS);
+        final double compiled = evaluate(true, ITERATIONS);
+        assertEquals(jexl, compiled, Math.abs(jexl) * 1e-12);
+    }
+
+    private double evaluate(final boolean compile, final int iterations) throws Exception {
+        final List<ExpressionConfigWrapper> wrappers = new ArrayList<>();
+        for (final String expression : EXPRESSIONS) {
+            final Expression exp = new Expression();
+            exp.setExpression(expression);
+            final ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp, compile);
+            assertEquals(compile, wrapper.isCompiled());
+            wrappers.add(wrapper);
+        }
+
+        double sum = 0;
+        long evaluations = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (final Map<String, Double> values : m_values) {
+                for (final ExpressionConfigWrapper wrapper : wrappers) {
+                    sum += wrapper.evaluate(values);
+                    evaluations++;
+                }
+            }
+        }
+        final long end = System.nanoTime();
+
+        assertTrue(evaluations > 0);
+        final double evaluationsPerSecond = evaluations * 1000000000.0 / (end - start);
+        System.err.println(String.format("compiled: %5s, evaluations: %d, total time: %d ms, evaluations per second: %12.2f",
+                compile, evaluations, (end - start) / 1000000, evaluationsPerSecond));
+        return sum;
+    }
+}
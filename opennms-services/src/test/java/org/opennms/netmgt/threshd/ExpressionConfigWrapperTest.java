@@ -171,4 +171,97 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testCompiledExpressionsMatchJexl() throws Exception {
+        final String[] compiled = new String[] {
+            FORMULA,
+            "math.max(data, 5)",
+            "datasources['ns-dskTotal'] - datasources['ns-dskUsed']",
+            "datasources.a / b",
+            "a * 0.1",
+            "-a + 1.5 * (b - 3) % 7",
+            "a div b + a mod 3.0",
+            "a >= b ? 1 : 0.5",
+            "a == b || !(a lt 0) && not (b gt 10) ? a : b",
+            "a ne b and a le b ? math.sqrt(a) : math.pow(b, 2)",
+            "math.abs(a - b) + math.hypot(a, b) + math.min(a, 3)",
+            "a > 0.1 ? a : 0.1",
+            "0.3",
+            "a"
+        };
+        final double[][] inputs = new double[][] {
+            { 0, 0 }, { 1, 2 }, { 2, 1 }, { -5.5, 0.25 }, { 1e10, 3 }, { Double.NaN, 1 },
+            { Double.NaN, Double.NaN }, { Double.POSITIVE_INFINITY, 7 }, { 0.1, 0.1 }
+        };
+        for (final String expression : compiled) {
+            final ExpressionConfigWrapper fast = createWrapper(expression, true);
+            final ExpressionConfigWrapper slow = createWrapper(expression, false);
+            Assert.assertTrue(expression, fast.isCompiled());
+            Assert.assertFalse(expression, slow.isCompiled());
+            for (final double[] input : inputs) {
+                final Map<String, Double> values = new HashMap<String,Double>();
+                for (final String name : new String[] { "a", "data", "ifSpeed", "ifHighSpeed", "ns-dskTotal" }) {
+                    values.put(name, input[0]);
+                }
+                for (final String name : new String[] { "b", "ifInOctets", "ifHCInOctets", "ns-dskUsed" }) {
+                    values.put(name, input[1]);
+                }
+                assertSameResult(expression + " with " + values, slow, fast, values);
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedExpressionsAreNotCompiled() throws Exception {
+        final String[] interpreted = new String[] {
+            "a + 1 > 2",
+            "1 + 2",
+            "math.abs(1)",
+            "math.max(a, 0.5)",
+            "math.round(a)",
+            "a + 010",
+            "a = 5",
+            "size(a)",
+            "a.b + 1.0",
+            "a > 0 ? 1 : 2 + 3",
+            "a & 1"
+        };
+        for (final String expression : interpreted) {
+            Assert.assertFalse(expression, createWrapper(expression, true).isCompiled());
+        }
+    }
+
+    @Test
+    public void testCompiledExpressionFallsBackToJexl() throws Exception {
+        final ExpressionConfigWrapper wrapper = createWrapper("a / b", true);
+        Assert.assertTrue(wrapper.isCompiled());
+        final Map<String, Double> values = new HashMap<String,Double>();
+        values.put("a", 10.0);
+        values.put("b", 0.0);
+        assertSameResult("division by zero", createWrapper("a / b", false), wrapper, values);
+    }
+
+    private static ExpressionConfigWrapper createWrapper(String expression, boolean compile) throws ThresholdExpressionException {
+        final Expression exp = new Expression();
+        exp.setExpression(expression);
+        return new ExpressionConfigWrapper(exp, compile);
+    }
+
+    private static void assertSameResult(String message, ExpressionConfigWrapper expected, ExpressionConfigWrapper actual, Map<String, Double> values) {
+        String expectedError = null;
+        double expectedValue = Double.NaN;
+        try {
+            expectedValue = expected.evaluate(values);
+        } catch (final ThresholdExpressionException e) {
+            expectedError = e.getMessage();
+        }
+        try {
+            final double actualValue = actual.evaluate(values);
+            Assert.assertNull(message + " should fail with " + expectedError, expectedError);
+            Assert.assertEquals(message, Double.doubleToLongBits(expectedValue), Double.doubleToLongBits(actualValue));
+        } catch (final ThresholdExpressionException e) {
+            Assert.assertEquals(message, expectedError, e.getMessage());
+        }
+    }
 }